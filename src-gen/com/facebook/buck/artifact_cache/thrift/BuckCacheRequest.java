@@ -34,7 +34,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 @SuppressWarnings({"cast", "rawtypes", "serial", "unchecked"})
-@Generated(value = "Autogenerated by Thrift Compiler (0.9.3)", date = "2016-10-06")
+@Generated(value = "Autogenerated by Thrift Compiler (0.9.3)", date = "2026-10-16")
 public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheRequest, BuckCacheRequest._Fields>, java.io.Serializable, Cloneable, Comparable<BuckCacheRequest> {
   private static final org.apache.thrift.protocol.TStruct STRUCT_DESC = new org.apache.thrift.protocol.TStruct("BuckCacheRequest");
 
@@ -42,6 +42,8 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
   private static final org.apache.thrift.protocol.TField PAYLOADS_FIELD_DESC = new org.apache.thrift.protocol.TField("payloads", org.apache.thrift.protocol.TType.LIST, (short)100);
   private static final org.apache.thrift.protocol.TField FETCH_REQUEST_FIELD_DESC = new org.apache.thrift.protocol.TField("fetchRequest", org.apache.thrift.protocol.TType.STRUCT, (short)101);
   private static final org.apache.thrift.protocol.TField STORE_REQUEST_FIELD_DESC = new org.apache.thrift.protocol.TField("storeRequest", org.apache.thrift.protocol.TType.STRUCT, (short)102);
+  private static final org.apache.thrift.protocol.TField MULTI_FETCH_REQUEST_FIELD_DESC = new org.apache.thrift.protocol.TField("multiFetchRequest", org.apache.thrift.protocol.TType.STRUCT, (short)103);
+  private static final org.apache.thrift.protocol.TField MULTI_CONTAINS_REQUEST_FIELD_DESC = new org.apache.thrift.protocol.TField("multiContainsRequest", org.apache.thrift.protocol.TType.STRUCT, (short)104);
 
   private static final Map<Class<? extends IScheme>, SchemeFactory> schemes = new HashMap<Class<? extends IScheme>, SchemeFactory>();
   static {
@@ -57,6 +59,8 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
   public List<PayloadInfo> payloads; // optional
   public BuckCacheFetchRequest fetchRequest; // optional
   public BuckCacheStoreRequest storeRequest; // optional
+  public BuckCacheMultiFetchRequest multiFetchRequest; // optional
+  public BuckCacheMultiContainsRequest multiContainsRequest; // optional
 
   /** The set of fields this struct contains, along with convenience methods for finding and manipulating them. */
   public enum _Fields implements org.apache.thrift.TFieldIdEnum {
@@ -67,7 +71,9 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     TYPE((short)1, "type"),
     PAYLOADS((short)100, "payloads"),
     FETCH_REQUEST((short)101, "fetchRequest"),
-    STORE_REQUEST((short)102, "storeRequest");
+    STORE_REQUEST((short)102, "storeRequest"),
+    MULTI_FETCH_REQUEST((short)103, "multiFetchRequest"),
+    MULTI_CONTAINS_REQUEST((short)104, "multiContainsRequest");
 
     private static final Map<String, _Fields> byName = new HashMap<String, _Fields>();
 
@@ -90,6 +96,10 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
           return FETCH_REQUEST;
         case 102: // STORE_REQUEST
           return STORE_REQUEST;
+        case 103: // MULTI_FETCH_REQUEST
+          return MULTI_FETCH_REQUEST;
+        case 104: // MULTI_CONTAINS_REQUEST
+          return MULTI_CONTAINS_REQUEST;
         default:
           return null;
       }
@@ -130,7 +140,7 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
   }
 
   // isset id assignments
-  private static final _Fields optionals[] = {_Fields.TYPE,_Fields.PAYLOADS,_Fields.FETCH_REQUEST,_Fields.STORE_REQUEST};
+  private static final _Fields optionals[] = {_Fields.TYPE,_Fields.PAYLOADS,_Fields.FETCH_REQUEST,_Fields.STORE_REQUEST,_Fields.MULTI_FETCH_REQUEST,_Fields.MULTI_CONTAINS_REQUEST};
   public static final Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> metaDataMap;
   static {
     Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> tmpMap = new EnumMap<_Fields, org.apache.thrift.meta_data.FieldMetaData>(_Fields.class);
@@ -143,6 +153,10 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
         new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, BuckCacheFetchRequest.class)));
     tmpMap.put(_Fields.STORE_REQUEST, new org.apache.thrift.meta_data.FieldMetaData("storeRequest", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
         new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, BuckCacheStoreRequest.class)));
+    tmpMap.put(_Fields.MULTI_FETCH_REQUEST, new org.apache.thrift.meta_data.FieldMetaData("multiFetchRequest", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
+        new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, BuckCacheMultiFetchRequest.class)));
+    tmpMap.put(_Fields.MULTI_CONTAINS_REQUEST, new org.apache.thrift.meta_data.FieldMetaData("multiContainsRequest", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
+        new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, BuckCacheMultiContainsRequest.class)));
     metaDataMap = Collections.unmodifiableMap(tmpMap);
     org.apache.thrift.meta_data.FieldMetaData.addStructMetaDataMap(BuckCacheRequest.class, metaDataMap);
   }
@@ -172,6 +186,12 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     if (other.isSetStoreRequest()) {
       this.storeRequest = new BuckCacheStoreRequest(other.storeRequest);
     }
+    if (other.isSetMultiFetchRequest()) {
+      this.multiFetchRequest = new BuckCacheMultiFetchRequest(other.multiFetchRequest);
+    }
+    if (other.isSetMultiContainsRequest()) {
+      this.multiContainsRequest = new BuckCacheMultiContainsRequest(other.multiContainsRequest);
+    }
   }
 
   public BuckCacheRequest deepCopy() {
@@ -185,6 +205,8 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     this.payloads = null;
     this.fetchRequest = null;
     this.storeRequest = null;
+    this.multiFetchRequest = null;
+    this.multiContainsRequest = null;
   }
 
   /**
@@ -306,6 +328,54 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     }
   }
 
+  public BuckCacheMultiFetchRequest getMultiFetchRequest() {
+    return this.multiFetchRequest;
+  }
+
+  public BuckCacheRequest setMultiFetchRequest(BuckCacheMultiFetchRequest multiFetchRequest) {
+    this.multiFetchRequest = multiFetchRequest;
+    return this;
+  }
+
+  public void unsetMultiFetchRequest() {
+    this.multiFetchRequest = null;
+  }
+
+  /** Returns true if field multiFetchRequest is set (has been assigned a value) and false otherwise */
+  public boolean isSetMultiFetchRequest() {
+    return this.multiFetchRequest != null;
+  }
+
+  public void setMultiFetchRequestIsSet(boolean value) {
+    if (!value) {
+      this.multiFetchRequest = null;
+    }
+  }
+
+  public BuckCacheMultiContainsRequest getMultiContainsRequest() {
+    return this.multiContainsRequest;
+  }
+
+  public BuckCacheRequest setMultiContainsRequest(BuckCacheMultiContainsRequest multiContainsRequest) {
+    this.multiContainsRequest = multiContainsRequest;
+    return this;
+  }
+
+  public void unsetMultiContainsRequest() {
+    this.multiContainsRequest = null;
+  }
+
+  /** Returns true if field multiContainsRequest is set (has been assigned a value) and false otherwise */
+  public boolean isSetMultiContainsRequest() {
+    return this.multiContainsRequest != null;
+  }
+
+  public void setMultiContainsRequestIsSet(boolean value) {
+    if (!value) {
+      this.multiContainsRequest = null;
+    }
+  }
+
   public void setFieldValue(_Fields field, Object value) {
     switch (field) {
     case TYPE:
@@ -340,6 +410,22 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
       }
       break;
 
+    case MULTI_FETCH_REQUEST:
+      if (value == null) {
+        unsetMultiFetchRequest();
+      } else {
+        setMultiFetchRequest((BuckCacheMultiFetchRequest)value);
+      }
+      break;
+
+    case MULTI_CONTAINS_REQUEST:
+      if (value == null) {
+        unsetMultiContainsRequest();
+      } else {
+        setMultiContainsRequest((BuckCacheMultiContainsRequest)value);
+      }
+      break;
+
     }
   }
 
@@ -357,6 +443,12 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     case STORE_REQUEST:
       return getStoreRequest();
 
+    case MULTI_FETCH_REQUEST:
+      return getMultiFetchRequest();
+
+    case MULTI_CONTAINS_REQUEST:
+      return getMultiContainsRequest();
+
     }
     throw new IllegalStateException();
   }
@@ -376,6 +468,10 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
       return isSetFetchRequest();
     case STORE_REQUEST:
       return isSetStoreRequest();
+    case MULTI_FETCH_REQUEST:
+      return isSetMultiFetchRequest();
+    case MULTI_CONTAINS_REQUEST:
+      return isSetMultiContainsRequest();
     }
     throw new IllegalStateException();
   }
@@ -429,6 +525,24 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
         return false;
     }
 
+    boolean this_present_multiFetchRequest = true && this.isSetMultiFetchRequest();
+    boolean that_present_multiFetchRequest = true && that.isSetMultiFetchRequest();
+    if (this_present_multiFetchRequest || that_present_multiFetchRequest) {
+      if (!(this_present_multiFetchRequest && that_present_multiFetchRequest))
+        return false;
+      if (!this.multiFetchRequest.equals(that.multiFetchRequest))
+        return false;
+    }
+
+    boolean this_present_multiContainsRequest = true && this.isSetMultiContainsRequest();
+    boolean that_present_multiContainsRequest = true && that.isSetMultiContainsRequest();
+    if (this_present_multiContainsRequest || that_present_multiContainsRequest) {
+      if (!(this_present_multiContainsRequest && that_present_multiContainsRequest))
+        return false;
+      if (!this.multiContainsRequest.equals(that.multiContainsRequest))
+        return false;
+    }
+
     return true;
   }
 
@@ -456,6 +570,16 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     if (present_storeRequest)
       list.add(storeRequest);
 
+    boolean present_multiFetchRequest = true && (isSetMultiFetchRequest());
+    list.add(present_multiFetchRequest);
+    if (present_multiFetchRequest)
+      list.add(multiFetchRequest);
+
+    boolean present_multiContainsRequest = true && (isSetMultiContainsRequest());
+    list.add(present_multiContainsRequest);
+    if (present_multiContainsRequest)
+      list.add(multiContainsRequest);
+
     return list.hashCode();
   }
 
@@ -507,6 +631,26 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
         return lastComparison;
       }
     }
+    lastComparison = Boolean.valueOf(isSetMultiFetchRequest()).compareTo(other.isSetMultiFetchRequest());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (isSetMultiFetchRequest()) {
+      lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.multiFetchRequest, other.multiFetchRequest);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
+    lastComparison = Boolean.valueOf(isSetMultiContainsRequest()).compareTo(other.isSetMultiContainsRequest());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (isSetMultiContainsRequest()) {
+      lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.multiContainsRequest, other.multiContainsRequest);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
     return 0;
   }
 
@@ -566,6 +710,26 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
       }
       first = false;
     }
+    if (isSetMultiFetchRequest()) {
+      if (!first) sb.append(", ");
+      sb.append("multiFetchRequest:");
+      if (this.multiFetchRequest == null) {
+        sb.append("null");
+      } else {
+        sb.append(this.multiFetchRequest);
+      }
+      first = false;
+    }
+    if (isSetMultiContainsRequest()) {
+      if (!first) sb.append(", ");
+      sb.append("multiContainsRequest:");
+      if (this.multiContainsRequest == null) {
+        sb.append("null");
+      } else {
+        sb.append(this.multiContainsRequest);
+      }
+      first = false;
+    }
     sb.append(")");
     return sb.toString();
   }
@@ -579,6 +743,12 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     if (storeRequest != null) {
       storeRequest.validate();
     }
+    if (multiFetchRequest != null) {
+      multiFetchRequest.validate();
+    }
+    if (multiContainsRequest != null) {
+      multiContainsRequest.validate();
+    }
   }
 
   private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
@@ -626,14 +796,14 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
           case 100: // PAYLOADS
             if (schemeField.type == org.apache.thrift.protocol.TType.LIST) {
               {
-                org.apache.thrift.protocol.TList _list18 = iprot.readListBegin();
-                struct.payloads = new ArrayList<PayloadInfo>(_list18.size);
-                PayloadInfo _elem19;
-                for (int _i20 = 0; _i20 < _list18.size; ++_i20)
+                org.apache.thrift.protocol.TList _list50 = iprot.readListBegin();
+                struct.payloads = new ArrayList<PayloadInfo>(_list50.size);
+                PayloadInfo _elem51;
+                for (int _i52 = 0; _i52 < _list50.size; ++_i52)
                 {
-                  _elem19 = new PayloadInfo();
-                  _elem19.read(iprot);
-                  struct.payloads.add(_elem19);
+                  _elem51 = new PayloadInfo();
+                  _elem51.read(iprot);
+                  struct.payloads.add(_elem51);
                 }
                 iprot.readListEnd();
               }
@@ -660,6 +830,24 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
               org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
             }
             break;
+          case 103: // MULTI_FETCH_REQUEST
+            if (schemeField.type == org.apache.thrift.protocol.TType.STRUCT) {
+              struct.multiFetchRequest = new BuckCacheMultiFetchRequest();
+              struct.multiFetchRequest.read(iprot);
+              struct.setMultiFetchRequestIsSet(true);
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+            }
+            break;
+          case 104: // MULTI_CONTAINS_REQUEST
+            if (schemeField.type == org.apache.thrift.protocol.TType.STRUCT) {
+              struct.multiContainsRequest = new BuckCacheMultiContainsRequest();
+              struct.multiContainsRequest.read(iprot);
+              struct.setMultiContainsRequestIsSet(true);
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+            }
+            break;
           default:
             org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
         }
@@ -687,9 +875,9 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
           oprot.writeFieldBegin(PAYLOADS_FIELD_DESC);
           {
             oprot.writeListBegin(new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.STRUCT, struct.payloads.size()));
-            for (PayloadInfo _iter21 : struct.payloads)
+            for (PayloadInfo _iter53 : struct.payloads)
             {
-              _iter21.write(oprot);
+              _iter53.write(oprot);
             }
             oprot.writeListEnd();
           }
@@ -710,6 +898,20 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
           oprot.writeFieldEnd();
         }
       }
+      if (struct.multiFetchRequest != null) {
+        if (struct.isSetMultiFetchRequest()) {
+          oprot.writeFieldBegin(MULTI_FETCH_REQUEST_FIELD_DESC);
+          struct.multiFetchRequest.write(oprot);
+          oprot.writeFieldEnd();
+        }
+      }
+      if (struct.multiContainsRequest != null) {
+        if (struct.isSetMultiContainsRequest()) {
+          oprot.writeFieldBegin(MULTI_CONTAINS_REQUEST_FIELD_DESC);
+          struct.multiContainsRequest.write(oprot);
+          oprot.writeFieldEnd();
+        }
+      }
       oprot.writeFieldStop();
       oprot.writeStructEnd();
     }
@@ -740,16 +942,22 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
       if (struct.isSetStoreRequest()) {
         optionals.set(3);
       }
-      oprot.writeBitSet(optionals, 4);
+      if (struct.isSetMultiFetchRequest()) {
+        optionals.set(4);
+      }
+      if (struct.isSetMultiContainsRequest()) {
+        optionals.set(5);
+      }
+      oprot.writeBitSet(optionals, 6);
       if (struct.isSetType()) {
         oprot.writeI32(struct.type.getValue());
       }
       if (struct.isSetPayloads()) {
         {
           oprot.writeI32(struct.payloads.size());
-          for (PayloadInfo _iter22 : struct.payloads)
+          for (PayloadInfo _iter54 : struct.payloads)
           {
-            _iter22.write(oprot);
+            _iter54.write(oprot);
           }
         }
       }
@@ -759,26 +967,32 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
       if (struct.isSetStoreRequest()) {
         struct.storeRequest.write(oprot);
       }
+      if (struct.isSetMultiFetchRequest()) {
+        struct.multiFetchRequest.write(oprot);
+      }
+      if (struct.isSetMultiContainsRequest()) {
+        struct.multiContainsRequest.write(oprot);
+      }
     }
 
     @Override
     public void read(org.apache.thrift.protocol.TProtocol prot, BuckCacheRequest struct) throws org.apache.thrift.TException {
       TTupleProtocol iprot = (TTupleProtocol) prot;
-      BitSet incoming = iprot.readBitSet(4);
+      BitSet incoming = iprot.readBitSet(6);
       if (incoming.get(0)) {
         struct.type = com.facebook.buck.artifact_cache.thrift.BuckCacheRequestType.findByValue(iprot.readI32());
         struct.setTypeIsSet(true);
       }
       if (incoming.get(1)) {
         {
-          org.apache.thrift.protocol.TList _list23 = new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.STRUCT, iprot.readI32());
-          struct.payloads = new ArrayList<PayloadInfo>(_list23.size);
-          PayloadInfo _elem24;
-          for (int _i25 = 0; _i25 < _list23.size; ++_i25)
+          org.apache.thrift.protocol.TList _list55 = new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.STRUCT, iprot.readI32());
+          struct.payloads = new ArrayList<PayloadInfo>(_list55.size);
+          PayloadInfo _elem56;
+          for (int _i57 = 0; _i57 < _list55.size; ++_i57)
           {
-            _elem24 = new PayloadInfo();
-            _elem24.read(iprot);
-            struct.payloads.add(_elem24);
+            _elem56 = new PayloadInfo();
+            _elem56.read(iprot);
+            struct.payloads.add(_elem56);
           }
         }
         struct.setPayloadsIsSet(true);
@@ -793,6 +1007,16 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
         struct.storeRequest.read(iprot);
         struct.setStoreRequestIsSet(true);
       }
+      if (incoming.get(4)) {
+        struct.multiFetchRequest = new BuckCacheMultiFetchRequest();
+        struct.multiFetchRequest.read(iprot);
+        struct.setMultiFetchRequestIsSet(true);
+      }
+      if (incoming.get(5)) {
+        struct.multiContainsRequest = new BuckCacheMultiContainsRequest();
+        struct.multiContainsRequest.read(iprot);
+        struct.setMultiContainsRequestIsSet(true);
+      }
     }
   }
 
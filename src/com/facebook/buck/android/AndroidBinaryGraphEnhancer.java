@@ -653,29 +653,23 @@ public class AndroidBinaryGraphEnhancer {
         continue;
       }
 
-      // See whether the corresponding IntermediateDexRule has already been added to the
-      // ruleResolver.
+      // Reuse the corresponding IntermediateDexRule if it has already been added to the
+      // ruleResolver, otherwise create it and add it to both the ruleResolver and preDexDeps.
       BuildTarget originalTarget = javaLibrary.getBuildTarget();
       BuildTarget preDexTarget = BuildTarget.builder(originalTarget)
           .addFlavors(DEX_FLAVOR)
           .build();
-      Optional<BuildRule> preDexRule = ruleResolver.getRuleOptional(preDexTarget);
-      if (preDexRule.isPresent()) {
-        preDexDeps.put(
-            apkModuleGraph.findModuleForTarget(buildTarget),
-            (DexProducedFromJavaLibrary) preDexRule.get());
-        continue;
-      }
-
-      // Create the IntermediateDexRule and add it to both the ruleResolver and preDexDeps.
-      BuildRuleParams paramsForPreDex = buildRuleParams.copyWithChanges(
+      DexProducedFromJavaLibrary preDex = ruleResolver.computeIfAbsent(
           preDexTarget,
-          Suppliers.ofInstance(
-              ImmutableSortedSet.of(ruleResolver.getRule(javaLibrary.getBuildTarget()))),
-          /* extraDeps */ Suppliers.ofInstance(ImmutableSortedSet.of()));
-      DexProducedFromJavaLibrary preDex =
-          new DexProducedFromJavaLibrary(paramsForPreDex, pathResolver, javaLibrary);
-      ruleResolver.addToIndex(preDex);
+          DexProducedFromJavaLibrary.class,
+          target -> {
+            BuildRuleParams paramsForPreDex = buildRuleParams.copyWithChanges(
+                target,
+                Suppliers.ofInstance(
+                    ImmutableSortedSet.of(ruleResolver.getRule(javaLibrary.getBuildTarget()))),
+                /* extraDeps */ Suppliers.ofInstance(ImmutableSortedSet.of()));
+            return new DexProducedFromJavaLibrary(paramsForPreDex, pathResolver, javaLibrary);
+          });
       preDexDeps.put(apkModuleGraph.findModuleForTarget(buildTarget), preDex);
     }
     return preDexDeps.build();
@@ -362,28 +362,24 @@ public class AndroidNativeLibsPackageableGraphEnhancer {
           .addFlavors(ImmutableFlavor.of(Flavor.replaceInvalidCharacters(targetCpuType.name())))
           .build();
 
-      Optional<BuildRule> previouslyCreated = ruleResolver.getRuleOptional(targetForStripRule);
-      StripLinkable stripLinkable;
-      if (previouslyCreated.isPresent()) {
-        stripLinkable = (StripLinkable) previouslyCreated.get();
-      } else {
-        BuildRuleParams paramsForStripLinkable = buildRuleParams.copyWithChanges(
-            targetForStripRule,
-            Suppliers.ofInstance(
-                ImmutableSortedSet.<BuildRule>naturalOrder()
-                    .addAll(pathResolver.filterBuildRuleInputs(ImmutableList.of(sourcePath)))
-                    .build()),
-            /* extraDeps */ Suppliers.ofInstance(ImmutableSortedSet.of()));
-
-        stripLinkable = new StripLinkable(
-            paramsForStripLinkable,
-            pathResolver,
-            platform.getCxxPlatform().getStrip(),
-            sourcePath,
-            sharedLibrarySoName);
-
-        ruleResolver.addToIndex(stripLinkable);
-      }
+      StripLinkable stripLinkable = ruleResolver.computeIfAbsent(
+          targetForStripRule,
+          StripLinkable.class,
+          target -> {
+            BuildRuleParams paramsForStripLinkable = buildRuleParams.copyWithChanges(
+                target,
+                Suppliers.ofInstance(
+                    ImmutableSortedSet.<BuildRule>naturalOrder()
+                        .addAll(pathResolver.filterBuildRuleInputs(ImmutableList.of(sourcePath)))
+                        .build()),
+                /* extraDeps */ Suppliers.ofInstance(ImmutableSortedSet.of()));
+            return new StripLinkable(
+                paramsForStripLinkable,
+                pathResolver,
+                platform.getCxxPlatform().getStrip(),
+                sourcePath,
+                sharedLibrarySoName);
+          });
       result.put(
           stripLinkable,
           StrippedObjectDescription.builder()
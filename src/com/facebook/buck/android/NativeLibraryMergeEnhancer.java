@@ -755,32 +755,31 @@ class NativeLibraryMergeEnhancer {
 
       String soname = getSoname(cxxPlatform);
       BuildTarget target = getBuildTargetForPlatform(cxxPlatform);
-      Optional<BuildRule> ruleOptional = ruleResolver.getRuleOptional(target);
-      if (!ruleOptional.isPresent()) {
-        CxxLink rule = CxxLinkableEnhancer.createCxxLinkableBuildRule(
-            cxxBuckConfig,
-            cxxPlatform,
-            baseBuildRuleParams,
-            ruleResolver,
-            pathResolver,
-            target,
-            Linker.LinkType.SHARED,
-            Optional.of(soname),
-            BuildTargets.getGenPath(
-                baseBuildRuleParams.getProjectFilesystem(),
-                target,
-                "%s/" + getSoname(cxxPlatform)),
-            // Android Binaries will use share deps by default.
-            Linker.LinkableDepType.SHARED,
-            Iterables.concat(
-                getNativeLinkableDeps(cxxPlatform),
-                getNativeLinkableExportedDeps(cxxPlatform)),
-            Optional.empty(),
-            Optional.empty(),
-            ImmutableSet.of(),
-            getImmediateNativeLinkableInput(cxxPlatform));
-        ruleResolver.addToIndex(rule);
-      }
+      ruleResolver.computeIfAbsent(
+          target,
+          CxxLink.class,
+          linkTarget -> CxxLinkableEnhancer.createCxxLinkableBuildRule(
+              cxxBuckConfig,
+              cxxPlatform,
+              baseBuildRuleParams,
+              ruleResolver,
+              pathResolver,
+              linkTarget,
+              Linker.LinkType.SHARED,
+              Optional.of(soname),
+              BuildTargets.getGenPath(
+                  baseBuildRuleParams.getProjectFilesystem(),
+                  linkTarget,
+                  "%s/" + getSoname(cxxPlatform)),
+              // Android Binaries will use share deps by default.
+              Linker.LinkableDepType.SHARED,
+              Iterables.concat(
+                  getNativeLinkableDeps(cxxPlatform),
+                  getNativeLinkableExportedDeps(cxxPlatform)),
+              Optional.empty(),
+              Optional.empty(),
+              ImmutableSet.of(),
+              getImmediateNativeLinkableInput(cxxPlatform)));
       return ImmutableMap.of(
           soname,
           (SourcePath) new BuildTargetSourcePath(target)
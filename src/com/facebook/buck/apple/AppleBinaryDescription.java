@@ -314,18 +314,12 @@ public class AppleBinaryDescription implements
 
       ImmutableSortedSet.Builder<BuildRule> thinRules = ImmutableSortedSet.naturalOrder();
       for (BuildTarget thinTarget : fatBinaryInfo.get().getThinTargets()) {
-        Optional<BuildRule> existingThinRule = resolver.getRuleOptional(thinTarget);
-        if (existingThinRule.isPresent()) {
-          thinRules.add(existingThinRule.get());
-          continue;
-        }
-        BuildRule thinRule = requireThinBinary(
-            targetGraph,
-            params.copyWithBuildTarget(thinTarget),
-            resolver,
-            args);
-        resolver.addToIndex(thinRule);
-        thinRules.add(thinRule);
+        thinRules.add(
+            requireThinBinary(
+                targetGraph,
+                params.copyWithBuildTarget(thinTarget),
+                resolver,
+                args));
       }
       return MultiarchFileInfos.requireMultiarchRule(
           params,
@@ -342,24 +336,29 @@ public class AppleBinaryDescription implements
       BuildRuleParams params,
       BuildRuleResolver resolver,
       A args) throws NoSuchBuildTargetException {
-    Optional<BuildRule> existingThinRule = resolver.getRuleOptional(params.getBuildTarget());
-    if (existingThinRule.isPresent()) {
-      return existingThinRule.get();
-    }
+    return resolver.computeIfAbsent(
+        params.getBuildTarget(),
+        BuildRule.class,
+        target -> createThinBinary(targetGraph, params, resolver, args));
+  }
 
+  private <A extends Arg> BuildRule createThinBinary(
+      TargetGraph targetGraph,
+      BuildRuleParams params,
+      BuildRuleResolver resolver,
+      A args) throws NoSuchBuildTargetException {
     Optional<Path> stubBinaryPath = getStubBinaryPath(params, args);
     if (shouldUseStubBinary(params) && stubBinaryPath.isPresent()) {
       try {
-        return resolver.addToIndex(
-            new WriteFile(
-                params,
-                new SourcePathResolver(resolver),
-                Files.readAllBytes(stubBinaryPath.get()),
-                BuildTargets.getGenPath(
-                    params.getProjectFilesystem(),
-                    params.getBuildTarget(),
-                    "%s"),
-                true));
+        return new WriteFile(
+            params,
+            new SourcePathResolver(resolver),
+            Files.readAllBytes(stubBinaryPath.get()),
+            BuildTargets.getGenPath(
+                params.getProjectFilesystem(),
+                params.getBuildTarget(),
+                "%s"),
+            true);
       } catch (IOException e) {
         throw new HumanReadableException("Could not read stub binary " + stubBinaryPath.get());
       }
@@ -370,8 +369,7 @@ public class AppleBinaryDescription implements
           delegateArg,
           args,
           params.getBuildTarget());
-      return resolver.addToIndex(
-          delegate.createBuildRule(targetGraph, params, resolver, delegateArg));
+      return delegate.createBuildRule(targetGraph, params, resolver, delegateArg);
     }
   }
 
@@ -429,19 +429,17 @@ public class AppleDescriptions {
           .withoutFlavors(StripStyle.FLAVOR_DOMAIN.getFlavors())
           .withoutFlavors(AppleDebugFormat.FLAVOR_DOMAIN.getFlavors())
           .withAppendedFlavors(AppleDsym.RULE_FLAVOR);
-      Optional<BuildRule> dsymRule = resolver.getRuleOptional(dsymBuildTarget);
-      if (!dsymRule.isPresent()) {
-        dsymRule = Optional.of(
-            createAppleDsym(
-                params.copyWithBuildTarget(dsymBuildTarget),
-                resolver,
-                unstrippedBinaryRule,
-                cxxPlatformFlavorDomain,
-                defaultCxxPlatform,
-                appleCxxPlatforms));
-      }
-      Preconditions.checkArgument(dsymRule.get() instanceof AppleDsym);
-      return Optional.of((AppleDsym) dsymRule.get());
+      return Optional.of(
+          resolver.computeIfAbsent(
+              dsymBuildTarget,
+              AppleDsym.class,
+              target -> createAppleDsym(
+                  params.copyWithBuildTarget(target),
+                  resolver,
+                  unstrippedBinaryRule,
+                  cxxPlatformFlavorDomain,
+                  defaultCxxPlatform,
+                  appleCxxPlatforms)));
     }
     return Optional.empty();
   }
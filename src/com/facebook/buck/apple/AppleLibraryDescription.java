@@ -362,19 +362,16 @@ public class AppleLibraryDescription implements
     BuildTarget unstrippedTarget = params.getBuildTarget()
         .withoutFlavors(AppleDebugFormat.FLAVOR_DOMAIN.getFlavors());
 
-    Optional<BuildRule> existingRule = resolver.getRuleOptional(unstrippedTarget);
-    if (existingRule.isPresent()) {
-      return existingRule.get();
-    } else {
-      BuildRule rule = delegate.createBuildRule(
-          params.copyWithBuildTarget(unstrippedTarget),
-          resolver,
-          delegateArg,
-          linkableDepType,
-          bundleLoader,
-          blacklist);
-      return resolver.addToIndex(rule);
-    }
+    return resolver.computeIfAbsent(
+        unstrippedTarget,
+        BuildRule.class,
+        target -> delegate.createBuildRule(
+            params.copyWithBuildTarget(target),
+            resolver,
+            delegateArg,
+            linkableDepType,
+            bundleLoader,
+            blacklist));
   }
 
   private boolean shouldWrapIntoDebuggableBinary(BuildTarget buildTarget, BuildRule buildRule) {
@@ -306,14 +306,16 @@ public class AppleTestDescription implements
               .build();
       final Path outputDirectory =
           BuildTargets.getGenPath(params.getProjectFilesystem(), unzipXctoolTarget, "%s/unzipped");
-      if (!resolver.getRuleOptional(unzipXctoolTarget).isPresent()) {
-        BuildRuleParams unzipXctoolParams =
-            params.copyWithChanges(
-                unzipXctoolTarget,
-                Suppliers.ofInstance(ImmutableSortedSet.of(xctoolZipBuildRule)),
-                Suppliers.ofInstance(ImmutableSortedSet.of()));
-        resolver.addToIndex(
-            new AbstractBuildRule(unzipXctoolParams, sourcePathResolver) {
+      resolver.computeIfAbsent(
+          unzipXctoolTarget,
+          BuildRule.class,
+          target -> {
+            BuildRuleParams unzipXctoolParams =
+                params.copyWithChanges(
+                    target,
+                    Suppliers.ofInstance(ImmutableSortedSet.of(xctoolZipBuildRule)),
+                    Suppliers.ofInstance(ImmutableSortedSet.of()));
+            return new AbstractBuildRule(unzipXctoolParams, sourcePathResolver) {
               @Override
               public ImmutableList<Step> getBuildSteps(
                   BuildContext context,
@@ -330,8 +332,8 @@ public class AppleTestDescription implements
               public Path getPathToOutput() {
                 return outputDirectory;
               }
-            });
-      }
+            };
+          });
       return Optional.of(
           new BuildTargetSourcePath(unzipXctoolTarget, outputDirectory.resolve("bin/xctool")));
     } else if (appleConfig.getXctoolPath().isPresent()) {
@@ -353,24 +355,19 @@ public class AppleTestDescription implements
     BuildTarget existingLibraryTarget = libraryTarget
         .withAppendedFlavors(AppleDebuggableBinary.RULE_FLAVOR, CxxStrip.RULE_FLAVOR)
         .withAppendedFlavors(StripStyle.NON_GLOBAL_SYMBOLS.getFlavor());
-    Optional<BuildRule> existingLibrary = resolver.getRuleOptional(existingLibraryTarget);
-    BuildRule library;
-    if (existingLibrary.isPresent()) {
-      library = existingLibrary.get();
-    } else {
-      library = appleLibraryDescription.createLibraryBuildRule(
-          targetGraph,
-          params.copyWithBuildTarget(libraryTarget),
-          resolver,
-          args,
-          // For now, instead of building all deps as dylibs and fixing up their install_names,
-          // we'll just link them statically.
-          Optional.of(Linker.LinkableDepType.STATIC),
-          testHostAppBinarySourcePath,
-          blacklist);
-      resolver.addToIndex(library);
-    }
-    return library;
+    return resolver.computeIfAbsent(
+        existingLibraryTarget,
+        BuildRule.class,
+        target -> appleLibraryDescription.createLibraryBuildRule(
+            targetGraph,
+            params.copyWithBuildTarget(libraryTarget),
+            resolver,
+            args,
+            // For now, instead of building all deps as dylibs and fixing up their install_names,
+            // we'll just link them statically.
+            Optional.of(Linker.LinkableDepType.STATIC),
+            testHostAppBinarySourcePath,
+            blacklist));
   }
 
   @Override
@@ -131,26 +131,24 @@ public class MultiarchFileInfos {
       BuildRuleResolver resolver,
       MultiarchFileInfo info,
       ImmutableSortedSet<BuildRule> thinRules) {
-    Optional<BuildRule> existingRule = resolver.getRuleOptional(info.getFatTarget());
-    if (existingRule.isPresent()) {
-      return existingRule.get();
-    }
-
-    ImmutableSortedSet<SourcePath> inputs = FluentIterable
-        .from(thinRules)
-        .transform(SourcePaths.getToBuildTargetSourcePath())
-        .toSortedSet(Ordering.natural());
-    SourcePathResolver pathResolver = new SourcePathResolver(resolver);
-    MultiarchFile multiarchFile = new MultiarchFile(
-        params.copyWithDeps(
-            Suppliers.ofInstance(ImmutableSortedSet.of()),
-            Suppliers.ofInstance(thinRules)),
-        pathResolver,
-        info.getRepresentativePlatform().getLipo(),
-        inputs,
-        BuildTargets.getGenPath(params.getProjectFilesystem(), params.getBuildTarget(), "%s"));
-    resolver.addToIndex(multiarchFile);
-    return multiarchFile;
+    return resolver.computeIfAbsent(
+        params.getBuildTarget(),
+        BuildRule.class,
+        target -> {
+          ImmutableSortedSet<SourcePath> inputs = FluentIterable
+              .from(thinRules)
+              .transform(SourcePaths.getToBuildTargetSourcePath())
+              .toSortedSet(Ordering.natural());
+          SourcePathResolver pathResolver = new SourcePathResolver(resolver);
+          return new MultiarchFile(
+              params.copyWithDeps(
+                  Suppliers.ofInstance(ImmutableSortedSet.of()),
+                  Suppliers.ofInstance(thinRules)),
+              pathResolver,
+              info.getRepresentativePlatform().getLipo(),
+              inputs,
+              BuildTargets.getGenPath(params.getProjectFilesystem(), target, "%s"));
+        });
   }
 
   private static final ImmutableSet<Flavor> FORBIDDEN_BUILD_ACTIONS =
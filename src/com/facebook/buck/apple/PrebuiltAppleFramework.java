@@ -58,9 +58,9 @@ import com.google.common.collect.ImmutableSet;
 
 import java.nio.file.Path;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 public class PrebuiltAppleFramework
@@ -78,7 +78,7 @@ public class PrebuiltAppleFramework
   private final Optional<Pattern> supportedPlatformsRegex;
 
   private final Map<Pair<Flavor, Linker.LinkableDepType>, NativeLinkableInput> nativeLinkableCache =
-      new HashMap<>();
+      new ConcurrentHashMap<>();
 
   private final LoadingCache<CxxPreprocessables.CxxPreprocessorInputCacheKey,
       ImmutableMap<BuildTarget, CxxPreprocessorInput>> transitiveCxxPreprocessorInputCache =
@@ -241,7 +241,10 @@ public class PrebuiltAppleFramework
     NativeLinkableInput input = nativeLinkableCache.get(key);
     if (input == null) {
       input = getNativeLinkableInputUncached(cxxPlatform, type);
-      nativeLinkableCache.put(key, input);
+      NativeLinkableInput existing = nativeLinkableCache.putIfAbsent(key, input);
+      if (existing != null) {
+        input = existing;
+      }
     }
     return input;
   }
@@ -68,7 +68,9 @@ abstract class AbstractCacheResult {
 
   public String getCacheSource() {
     Preconditions.checkState(
-        getType() == CacheResultType.HIT || getType() == CacheResultType.ERROR);
+        getType() == CacheResultType.HIT ||
+            getType() == CacheResultType.ERROR ||
+            getType() == CacheResultType.CONTAINS);
     return cacheSource().get();
   }
 
@@ -125,6 +127,15 @@ abstract class AbstractCacheResult {
         Optional.empty());
   }
 
+  public static CacheResult contains(String cacheSource) {
+    return CacheResult.of(
+        CacheResultType.CONTAINS,
+        Optional.of(cacheSource),
+        Optional.empty(),
+        Optional.empty(),
+        Optional.empty());
+  }
+
   public static CacheResult miss() {
     return MISS_RESULT;
   }
@@ -168,7 +179,9 @@ abstract class AbstractCacheResult {
   @Value.Check
   protected void check() {
     Preconditions.checkState(cacheSource().isPresent() ||
-            (getType() != CacheResultType.HIT && getType() != CacheResultType.ERROR));
+            (getType() != CacheResultType.HIT &&
+                getType() != CacheResultType.ERROR &&
+                getType() != CacheResultType.CONTAINS));
     Preconditions.checkState(cacheError().isPresent() || getType() != CacheResultType.ERROR);
   }
 }
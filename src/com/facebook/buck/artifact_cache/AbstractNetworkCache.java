@@ -24,8 +24,10 @@ import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.slb.HttpService;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -33,6 +35,7 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.regex.Matcher;
@@ -50,6 +53,7 @@ public abstract class AbstractNetworkCache implements ArtifactCache {
   protected final ProjectFilesystem projectFilesystem;
   private final BuckEventBus buckEventBus;
   private final ListeningExecutorService httpWriteExecutorService;
+  protected final Optional<ListeningExecutorService> httpFetchExecutorService;
   private final String errorTextTemplate;
   private final Optional<Long> maxStoreSize;
 
@@ -65,6 +69,7 @@ public abstract class AbstractNetworkCache implements ArtifactCache {
     this.projectFilesystem = args.getProjectFilesystem();
     this.buckEventBus = args.getBuckEventBus();
     this.httpWriteExecutorService = args.getHttpWriteExecutorService();
+    this.httpFetchExecutorService = args.getHttpFetchExecutorService();
     this.errorTextTemplate = args.getErrorTextTemplate();
     this.maxStoreSize = args.getMaxStoreSizeBytes();
   }
@@ -74,6 +79,18 @@ public abstract class AbstractNetworkCache implements ArtifactCache {
       LazyPath output,
       final HttpArtifactCacheEvent.Finished.Builder eventBuilder) throws IOException;
 
+  /**
+   * Fetches a batch of artifacts. {@code eventBuilders} holds the builder of the finished event
+   * that will be posted for each of the requested keys.
+   */
+  protected abstract ImmutableMap<RuleKey, CacheResult> multiFetchImpl(
+      ImmutableMap<RuleKey, LazyPath> requests,
+      ImmutableMap<RuleKey, HttpArtifactCacheEvent.Finished.Builder> eventBuilders)
+      throws IOException;
+
+  protected abstract ImmutableMap<RuleKey, CacheResult> multiContainsImpl(
+      ImmutableSet<RuleKey> ruleKeys) throws IOException;
+
   protected abstract void storeImpl(ArtifactInfo info,
       final Path file,
       final HttpArtifactCacheEvent.Finished.Builder eventBuilder)
@@ -107,6 +124,64 @@ public abstract class AbstractNetworkCache implements ArtifactCache {
     }
   }
 
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiFetch(ImmutableMap<RuleKey, LazyPath> requests) {
+    if (requests.isEmpty()) {
+      return ImmutableMap.of();
+    }
+
+    // Post the usual per-key events, so listeners account for batched fetches like any other.
+    ImmutableMap.Builder<RuleKey, HttpArtifactCacheEvent.Finished.Builder> eventBuilders =
+        ImmutableMap.builder();
+    for (RuleKey ruleKey : requests.keySet()) {
+      HttpArtifactCacheEvent.Started startedEvent = HttpArtifactCacheEvent.newFetchStartedEvent(
+          ImmutableSet.of(ruleKey));
+      buckEventBus.post(startedEvent);
+      eventBuilders.put(
+          ruleKey,
+          HttpArtifactCacheEvent.newFinishedEventBuilder(startedEvent)
+              .setRuleKeys(Lists.newArrayList(ruleKey)));
+    }
+    ImmutableMap<RuleKey, HttpArtifactCacheEvent.Finished.Builder> builders =
+        eventBuilders.build();
+
+    ImmutableMap<RuleKey, CacheResult> results;
+    Optional<String> errorMessage = Optional.empty();
+    try {
+      results = multiFetchImpl(requests, builders);
+    } catch (IOException e) {
+      String msg = String.format("%s: %s", e.getClass().getName(), e.getMessage());
+      reportFailure(e, "multiFetch(%s): %s", requests.keySet(), msg);
+      results = allResults(requests.keySet(), CacheResult.error(name, msg));
+      errorMessage = Optional.of(msg);
+    }
+
+    for (Map.Entry<RuleKey, HttpArtifactCacheEvent.Finished.Builder> entry :
+        builders.entrySet()) {
+      HttpArtifactCacheEvent.Finished.Builder eventBuilder = entry.getValue()
+          .setFetchResult(results.get(entry.getKey()));
+      if (errorMessage.isPresent()) {
+        eventBuilder.setErrorMessage(errorMessage.get());
+      }
+      buckEventBus.post(eventBuilder.build());
+    }
+    return results;
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+    if (ruleKeys.isEmpty()) {
+      return ImmutableMap.of();
+    }
+    try {
+      return multiContainsImpl(ruleKeys);
+    } catch (IOException e) {
+      String msg = String.format("%s: %s", e.getClass().getName(), e.getMessage());
+      reportFailure(e, "multiContains(%s): %s", ruleKeys, msg);
+      return allResults(ruleKeys, CacheResult.error(name, msg));
+    }
+  }
+
   @Override
   public ListenableFuture<Void> store(
       final ArtifactInfo info,
@@ -182,6 +257,9 @@ public abstract class AbstractNetworkCache implements ArtifactCache {
   public void close() {
     fetchClient.close();
     storeClient.close();
+    if (httpFetchExecutorService.isPresent()) {
+      httpFetchExecutorService.get().shutdownNow();
+    }
   }
 
   /// depending on if we can borrow the output or not, we will either use output directly or
@@ -197,6 +275,12 @@ public abstract class AbstractNetworkCache implements ArtifactCache {
     return tmp;
   }
 
+  protected static ImmutableMap<RuleKey, CacheResult> allResults(
+      Iterable<RuleKey> ruleKeys,
+      CacheResult result) {
+    return Maps.toMap(ruleKeys, ruleKey -> result);
+  }
+
   protected void reportFailure(Exception exception, String format, Object... args) {
     LOG.warn(exception, format, args);
     reportFailureToEvenBus(format, args);
@@ -38,6 +38,12 @@ interface AbstractNetworkCacheArgs {
   ProjectFilesystem getProjectFilesystem();
   BuckEventBus getBuckEventBus();
   ListeningExecutorService getHttpWriteExecutorService();
+
+  /**
+   * Used to issue the requests of a batched fetch concurrently. It belongs to the cache and is
+   * shut down when the cache is closed.
+   */
+  Optional<ListeningExecutorService> getHttpFetchExecutorService();
   String getErrorTextTemplate();
   Optional<Long> getMaxStoreSizeBytes();
   Optional<String> getThriftEndpointPath();
@@ -19,6 +19,8 @@ package com.facebook.buck.artifact_cache;
 import com.facebook.buck.io.BorrowablePath;
 import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.rules.RuleKey;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListenableFuture;
 
 public interface ArtifactCache extends AutoCloseable {
@@ -34,6 +36,27 @@ public interface ArtifactCache extends AutoCloseable {
    */
   CacheResult fetch(RuleKey ruleKey, LazyPath output);
 
+  /**
+   * Fetch a batch of cached artifacts, using as few round trips as the cache allows. Each entry
+   * is handled as if it was passed to {@link #fetch(RuleKey, LazyPath)}.
+   *
+   * @param requests cache fetch keys, mapped to the paths to store the artifacts to. As with
+   *                 {@link #fetch(RuleKey, LazyPath)}, a path should not be accessed unless the
+   *                 artifact for its key is going to be stored there.
+   * @return the result for every requested key, in request order.
+   */
+  ImmutableMap<RuleKey, CacheResult> multiFetch(ImmutableMap<RuleKey, LazyPath> requests);
+
+  /**
+   * Check whether the cache has artifacts for the given keys, without downloading them.
+   *
+   * @param ruleKeys cache keys to probe
+   * @return the result for every requested key, in request order: a
+   *     {@link CacheResultType#CONTAINS} if the artifact is present, otherwise a
+   *     {@link CacheResultType#MISS} or {@link CacheResultType#ERROR}.
+   */
+  ImmutableMap<RuleKey, CacheResult> multiContains(ImmutableSet<RuleKey> ruleKeys);
+
   /**
    * Store the artifact at path specified by output to cache, such that it can later be fetched
    * using ruleKey as the lookup key.  If any internal errors occur, fail silently and continue
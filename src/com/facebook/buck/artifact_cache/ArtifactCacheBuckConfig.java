@@ -78,6 +78,8 @@ public class ArtifactCacheBuckConfig {
   private static final String DEFAULT_HTTP_CACHE_MODE = CacheReadMode.readwrite.name();
   private static final long DEFAULT_HTTP_CACHE_TIMEOUT_SECONDS = 3L;
   private static final String DEFAULT_HTTP_MAX_CONCURRENT_WRITES = "1";
+  private static final String DEFAULT_HTTP_MAX_CONCURRENT_FETCHES = "8";
+  private static final int DEFAULT_FETCH_BATCH_SIZE = 32;
   private static final String DEFAULT_HTTP_WRITE_SHUTDOWN_TIMEOUT_SECONDS = "1800"; // 30 minutes
   private static final String DEFAULT_HTTP_CACHE_ERROR_MESSAGE =
       "{cache_name} cache encountered an error: {error_message}";
@@ -151,6 +153,28 @@ public class ArtifactCacheBuckConfig {
             DEFAULT_HTTP_MAX_CONCURRENT_WRITES));
   }
 
+  /**
+   * @return how many requests of a batched fetch are sent to an HTTP cache at the same time.
+   */
+  public int getHttpMaxConcurrentFetches() {
+    return Integer.valueOf(
+        buckConfig.getValue(CACHE_SECTION_NAME, "http_max_concurrent_fetches").orElse(
+            DEFAULT_HTTP_MAX_CONCURRENT_FETCHES));
+  }
+
+  /**
+   * @return the most rule keys the build engine fetches from the cache in one batch. A size of
+   *     one means fetches aren't batched.
+   */
+  public int getFetchBatchSize() {
+    return buckConfig.getInteger("build", "cache_fetch_batch_size")
+        .orElse(DEFAULT_FETCH_BATCH_SIZE);
+  }
+
+  public boolean isFetchBatchingEnabled() {
+    return getFetchBatchSize() > 1;
+  }
+
   public int getHttpWriterShutdownTimeout() {
     return Integer.valueOf(
         buckConfig.getValue(CACHE_SECTION_NAME, "http_writer_shutdown_timeout_seconds").orElse(
@@ -207,6 +231,7 @@ public class ArtifactCacheBuckConfig {
         .setCacheDir(getCacheDir())
         .setCacheReadMode(getDirCacheReadMode())
         .setMaxSizeBytes(getCacheDirMaxSizeBytes())
+        .setContentAddressed(getDirCacheContentAddressed())
         .build();
   }
 
@@ -280,6 +305,10 @@ public class ArtifactCacheBuckConfig {
     return buckConfig.getValue(CACHE_SECTION_NAME, "dir_max_size").map(SizeUnit::parseBytes);
   }
 
+  private boolean getDirCacheContentAddressed() {
+    return buckConfig.getBooleanValue(CACHE_SECTION_NAME, "dir_content_addressed", false);
+  }
+
   private boolean getServingLocalCacheEnabled() {
     return buckConfig.getBooleanValue(CACHE_SECTION_NAME, SERVED_CACHE_ENABLED_FIELD_NAME, false);
   }
@@ -392,6 +421,14 @@ public class ArtifactCacheBuckConfig {
     public abstract Path getCacheDir();
     public abstract Optional<Long> getMaxSizeBytes();
     public abstract CacheReadMode getCacheReadMode();
+
+    /**
+     * Whether artifacts are stored once per distinct content, rather than once per rule key.
+     */
+    @Value.Default
+    public boolean isContentAddressed() {
+      return false;
+    }
   }
 
   @Value.Immutable
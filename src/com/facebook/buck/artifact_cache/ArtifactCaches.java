@@ -27,10 +27,12 @@ import com.facebook.buck.slb.RetryingHttpService;
 import com.facebook.buck.slb.SingleUriService;
 import com.facebook.buck.timing.DefaultClock;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import java.io.IOException;
 import java.net.URI;
@@ -219,12 +221,22 @@ public class ArtifactCaches {
       ProjectFilesystem projectFilesystem) {
     Path cacheDir = dirCacheConfig.getCacheDir();
     try {
-      DirArtifactCache dirArtifactCache =  new DirArtifactCache(
-          "dir",
-          projectFilesystem,
-          cacheDir,
-          dirCacheConfig.getCacheReadMode().isDoStore(),
-          dirCacheConfig.getMaxSizeBytes());
+      ArtifactCache dirArtifactCache;
+      if (dirCacheConfig.isContentAddressed()) {
+        dirArtifactCache = new ContentAddressedDirArtifactCache(
+            "dir",
+            projectFilesystem,
+            cacheDir,
+            dirCacheConfig.getCacheReadMode().isDoStore(),
+            dirCacheConfig.getMaxSizeBytes());
+      } else {
+        dirArtifactCache = new DirArtifactCache(
+            "dir",
+            projectFilesystem,
+            cacheDir,
+            dirCacheConfig.getCacheReadMode().isDoStore(),
+            dirCacheConfig.getMaxSizeBytes());
+      }
 
       if (!buckEventBus.isPresent()) {
         return dirArtifactCache;
@@ -342,6 +354,14 @@ public class ArtifactCaches {
             .setProjectFilesystem(projectFilesystem)
             .setBuckEventBus(buckEventBus)
             .setHttpWriteExecutorService(httpWriteExecutorService)
+            .setHttpFetchExecutorService(
+                config.isFetchBatchingEnabled() ?
+                    Optional.of(
+                        MoreExecutors.listeningDecorator(
+                            MostExecutors.newMultiThreadExecutor(
+                                cacheName + " Fetch",
+                                config.getHttpMaxConcurrentFetches()))) :
+                    Optional.empty())
             .setErrorTextTemplate(cacheDescription.getErrorMessageFormat())
             .build());
   }
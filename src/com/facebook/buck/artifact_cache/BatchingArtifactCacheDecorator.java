@@ -0,0 +1,226 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.io.BorrowablePath;
+import com.facebook.buck.io.LazyPath;
+import com.facebook.buck.rules.RuleKey;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
+
+/**
+ * Coalesces concurrent {@link #fetch(RuleKey, LazyPath)} calls into
+ * {@link ArtifactCache#multiFetch(ImmutableMap)} calls on the delegate.
+ * <p>
+ * A fetch is sent right away as long as fewer than {@code maxInFlightBatches} batches are being
+ * fetched. Otherwise the caller waits: either its fetch gets answered by a batch another caller
+ * sent, or it sends the next batch itself, taking along every fetch that queued up in the
+ * meantime. There are no timers, so a fetch is never delayed while the cache is idle, and batches
+ * only grow while it is busy.
+ */
+public class BatchingArtifactCacheDecorator implements ArtifactCache {
+
+  private final ArtifactCache delegate;
+  private final int maxBatchSize;
+  private final int maxInFlightBatches;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition batchFinished = lock.newCondition();
+  // The fetches that have not completed yet, in the order they were requested. Guarded by lock.
+  private final Map<RuleKey, PendingFetch> pendingFetches = new LinkedHashMap<>();
+  // Guarded by lock.
+  private int inFlightBatches = 0;
+
+  public BatchingArtifactCacheDecorator(
+      ArtifactCache delegate,
+      int maxBatchSize,
+      int maxInFlightBatches) {
+    Preconditions.checkArgument(maxBatchSize > 0);
+    Preconditions.checkArgument(maxInFlightBatches > 0);
+    this.delegate = delegate;
+    this.maxBatchSize = maxBatchSize;
+    this.maxInFlightBatches = maxInFlightBatches;
+  }
+
+  @Override
+  public CacheResult fetch(RuleKey ruleKey, LazyPath output) {
+    PendingFetch fetch = new PendingFetch(output);
+    boolean alreadyPending;
+    lock.lock();
+    try {
+      alreadyPending = pendingFetches.putIfAbsent(ruleKey, fetch) != null;
+    } finally {
+      lock.unlock();
+    }
+    if (alreadyPending) {
+      // Another fetch for the same key wants a different output, so this one can't piggyback.
+      return delegate.fetch(ruleKey, output);
+    }
+
+    while (true) {
+      ImmutableMap<RuleKey, PendingFetch> batch;
+      lock.lock();
+      try {
+        while (!fetch.isDone() && (fetch.sent || inFlightBatches >= maxInFlightBatches)) {
+          batchFinished.awaitUninterruptibly();
+        }
+        if (fetch.isDone()) {
+          return fetch.getResult();
+        }
+        batch = takeBatch(ruleKey, fetch);
+        inFlightBatches++;
+      } finally {
+        lock.unlock();
+      }
+      sendBatch(batch);
+    }
+  }
+
+  /**
+   * Must be called with the lock held. The caller's own fetch always leads the batch.
+   */
+  private ImmutableMap<RuleKey, PendingFetch> takeBatch(RuleKey ruleKey, PendingFetch fetch) {
+    ImmutableMap.Builder<RuleKey, PendingFetch> batch = ImmutableMap.builder();
+    batch.put(ruleKey, fetch);
+    fetch.sent = true;
+    int batchSize = 1;
+    for (Map.Entry<RuleKey, PendingFetch> entry : pendingFetches.entrySet()) {
+      if (batchSize >= maxBatchSize) {
+        break;
+      }
+      if (!entry.getValue().sent) {
+        batch.put(entry);
+        entry.getValue().sent = true;
+        batchSize++;
+      }
+    }
+    return batch.build();
+  }
+
+  private void sendBatch(ImmutableMap<RuleKey, PendingFetch> batch) {
+    ImmutableMap<RuleKey, CacheResult> results = ImmutableMap.of();
+    RuntimeException failure = null;
+    try {
+      if (batch.size() == 1) {
+        Map.Entry<RuleKey, PendingFetch> entry = Iterables.getOnlyElement(batch.entrySet());
+        results = ImmutableMap.of(
+            entry.getKey(),
+            delegate.fetch(entry.getKey(), entry.getValue().output));
+      } else {
+        ImmutableMap.Builder<RuleKey, LazyPath> requests = ImmutableMap.builder();
+        for (Map.Entry<RuleKey, PendingFetch> entry : batch.entrySet()) {
+          requests.put(entry.getKey(), entry.getValue().output);
+        }
+        results = delegate.multiFetch(requests.build());
+      }
+    } catch (RuntimeException e) {
+      failure = e;
+    } finally {
+      lock.lock();
+      try {
+        inFlightBatches--;
+        for (Map.Entry<RuleKey, PendingFetch> entry : batch.entrySet()) {
+          CacheResult result = results.get(entry.getKey());
+          if (result != null) {
+            entry.getValue().result = result;
+          } else {
+            entry.getValue().failure = failure != null ?
+                failure :
+                new IllegalStateException("No cache result for rule key " + entry.getKey());
+          }
+          pendingFetches.remove(entry.getKey());
+        }
+        batchFinished.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  @VisibleForTesting
+  int getPendingFetchCount() {
+    lock.lock();
+    try {
+      return pendingFetches.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiFetch(ImmutableMap<RuleKey, LazyPath> requests) {
+    return delegate.multiFetch(requests);
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+    return delegate.multiContains(ruleKeys);
+  }
+
+  @Override
+  public ListenableFuture<Void> store(ArtifactInfo info, BorrowablePath output) {
+    return delegate.store(info, output);
+  }
+
+  @Override
+  public boolean isStoreSupported() {
+    return delegate.isStoreSupported();
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+  }
+
+  /**
+   * A fetch waiting for its result. All fields but {@code output} are guarded by the lock.
+   */
+  private static class PendingFetch {
+    private final LazyPath output;
+    private boolean sent = false;
+    @Nullable
+    private CacheResult result = null;
+    @Nullable
+    private RuntimeException failure = null;
+
+    private PendingFetch(LazyPath output) {
+      this.output = output;
+    }
+
+    private boolean isDone() {
+      return result != null || failure != null;
+    }
+
+    private CacheResult getResult() {
+      if (failure != null) {
+        throw failure;
+      }
+      return Preconditions.checkNotNull(result);
+    }
+  }
+}
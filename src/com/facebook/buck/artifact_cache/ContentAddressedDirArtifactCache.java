@@ -0,0 +1,1040 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.io.BorrowablePath;
+import com.facebook.buck.io.LazyPath;
+import com.facebook.buck.io.MoreFiles;
+import com.facebook.buck.io.MorePosixFilePermissions;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.io.UnpackedArtifactSink;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.util.environment.Platform;
+import com.facebook.buck.util.sha1.Sha1HashCode;
+import com.facebook.buck.zip.CustomZipEntry;
+import com.facebook.buck.zip.CustomZipOutputStream;
+import com.facebook.buck.zip.ZipOutputStreams;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.ZipException;
+
+import javax.annotation.Nullable;
+
+/**
+ * A directory cache that stores each distinct file once, no matter how many artifacts and rule
+ * keys it belongs to.
+ * <p>
+ * Artifacts are zips, and each of their files is stored under {@code blobs/}, named by the SHA-1
+ * of its contents. Each rule key gets a small manifest under {@code keys/} listing the entries of
+ * its artifact, the blobs holding their contents, and the artifact's metadata. Rules whose keys
+ * differ but whose outputs do not, or only partly do, therefore share blobs. Artifacts that aren't
+ * plain zips are stored as a single blob instead.
+ * <p>
+ * When whoever fetches an artifact can take its files directly, see
+ * {@link LazyPath#getUnpackedArtifactSink()}, the blobs are hard linked into place where the
+ * platform allows it, so a hit costs no copying at all. Otherwise the zip is put back together.
+ * <p>
+ * Every store, access and eviction is appended to a journal, which is replayed to rebuild the
+ * least recently used order of the blobs. Trimming the cache therefore never has to walk the cache
+ * directory, and evicts by actual use rather than by file timestamps. Several buck processes may
+ * share a cache, so the journal is only ever read or written while holding a lock on
+ * {@code journal.lock}, and each process catches up with what the others appended before touching
+ * the index.
+ */
+public class ContentAddressedDirArtifactCache implements ArtifactCache {
+
+  private static final Logger LOG = Logger.get(ContentAddressedDirArtifactCache.class);
+  // How much of the max size to leave if we decide to delete old blobs.
+  private static final float MAX_BYTES_TRIM_RATIO = 2 / 3f;
+  private static final String TMP_EXTENSION = ".tmp";
+  // The journal is rewritten once it holds this many records per live blob or rule key.
+  private static final int JOURNAL_RECORDS_PER_ENTRY_BEFORE_COMPACTION = 4;
+  private static final int MIN_JOURNAL_RECORDS_BEFORE_COMPACTION = 1000;
+
+  // The first line of the journal, which changes whenever the journal is rewritten.
+  private static final String GENERATION_RECORD = "G";
+  private static final String STORE_RECORD = "S";
+  private static final String KEY_RECORD = "K";
+  private static final String ACCESS_RECORD = "A";
+  private static final String DELETE_RECORD = "D";
+
+  // File locks are held on behalf of the whole JVM, and locking a file twice in the same JVM
+  // throws, so caches in the same JVM sharing a directory first take turns on one of these.
+  private static final ConcurrentMap<Path, Object> JOURNAL_MONITORS = new ConcurrentHashMap<>();
+
+  private final String name;
+  private final ProjectFilesystem filesystem;
+  private final Path cacheDir;
+  private final Optional<Long> maxCacheSizeBytes;
+  private final boolean doStore;
+  private final Object journalMonitor;
+  // Windows won't delete read-only files, and its hard links share that attribute, so blobs are
+  // only ever hard linked, and made read-only to protect them, elsewhere.
+  private volatile boolean useHardLinks = Platform.detect() != Platform.WINDOWS;
+
+  // Blob sizes, from least to most recently used. Guarded by the journal lock, as is the rest of
+  // the index below.
+  private final LinkedHashMap<Sha1HashCode, Long> blobSizes =
+      new LinkedHashMap<>(16, 0.75f, /* accessOrder */ true);
+  private final SetMultimap<Sha1HashCode, RuleKey> ruleKeysByBlob = HashMultimap.create();
+  private final SetMultimap<RuleKey, Sha1HashCode> blobsByRuleKey = HashMultimap.create();
+  private long totalBlobBytes = 0L;
+  private int journalRecords = 0;
+  // Which journal the index was read from, and how far.
+  @Nullable
+  private String journalGeneration = null;
+  private long journalOffset = 0L;
+
+  public ContentAddressedDirArtifactCache(
+      String name,
+      ProjectFilesystem filesystem,
+      Path cacheDir,
+      boolean doStore,
+      Optional<Long> maxCacheSizeBytes)
+      throws IOException {
+    this.name = name;
+    this.filesystem = filesystem;
+    this.cacheDir = cacheDir;
+    this.maxCacheSizeBytes = maxCacheSizeBytes;
+    this.doStore = doStore;
+
+    // Check first, as mkdirs will fail if the path is a symlink.
+    if (!filesystem.isDirectory(cacheDir)) {
+      filesystem.mkdirs(cacheDir);
+    }
+    this.journalMonitor = JOURNAL_MONITORS.computeIfAbsent(
+        filesystem.resolve(cacheDir).toAbsolutePath().normalize(),
+        path -> new Object());
+    // Reads the journal, or writes one if there is none yet.
+    withJournalLock(records -> null);
+  }
+
+  @Override
+  public CacheResult fetch(RuleKey ruleKey, LazyPath output) {
+    CacheResult result;
+    try {
+      Path manifestPath = getManifestPath(ruleKey);
+      Optional<Manifest> manifest;
+      try (DataInputStream in = new DataInputStream(filesystem.newFileInputStream(manifestPath))) {
+        manifest = Manifest.read(in);
+      }
+
+      if (!manifest.isPresent() || !allBlobsExist(manifest.get())) {
+        // The manifest was written by another version of buck, or some of its blobs were evicted,
+        // possibly by another process, so it is of no more use.
+        filesystem.deleteFileAtPathIfExists(manifestPath);
+        result = CacheResult.miss();
+      } else {
+        materialize(manifest.get(), output);
+        recordAccess(ruleKey, manifest.get());
+        result = CacheResult.hit(name, manifest.get().metadata, manifest.get().size);
+      }
+    } catch (NoSuchFileException e) {
+      result = CacheResult.miss();
+    } catch (IOException e) {
+      LOG.warn(
+          e,
+          "Artifact fetch(%s, %s) error",
+          ruleKey,
+          output);
+      result = CacheResult.error(name, String.format("%s: %s", e.getClass(), e.getMessage()));
+    }
+
+    LOG.debug(
+        "Artifact fetch(%s, %s) cache %s",
+        ruleKey,
+        output,
+        (result.getType().isSuccess() ? "hit" : "miss"));
+    return result;
+  }
+
+  private boolean allBlobsExist(Manifest manifest) {
+    for (Sha1HashCode blob : manifest.getBlobs()) {
+      if (!filesystem.exists(getBlobPath(blob))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void materialize(Manifest manifest, LazyPath output) throws IOException {
+    if (manifest.wholeArtifact.isPresent()) {
+      Path outputPath = filesystem.resolve(output.get());
+      Files.deleteIfExists(outputPath);
+      if (output.needsOutputStream() ||
+          !tryToHardLink(getBlobPath(manifest.wholeArtifact.get()), outputPath)) {
+        try (InputStream in =
+                 filesystem.newFileInputStream(getBlobPath(manifest.wholeArtifact.get()));
+             OutputStream out =
+                 output.wrapOutputStream(filesystem.newFileOutputStream(outputPath))) {
+          ByteStreams.copy(in, out);
+        }
+      }
+      return;
+    }
+
+    Optional<UnpackedArtifactSink> sink = output.getUnpackedArtifactSink();
+    if (sink.isPresent()) {
+      // Whoever asked still expects the zip's path to exist, if only to delete it.
+      output.get();
+      putEntriesInPlace(manifest, sink.get());
+    } else {
+      writeZip(manifest, output);
+    }
+  }
+
+  private void putEntriesInPlace(Manifest manifest, UnpackedArtifactSink sink) throws IOException {
+    Path directory = sink.getDirectory();
+    ImmutableList.Builder<Path> entriesPutInPlace = ImmutableList.builder();
+    for (Entry entry : manifest.entries) {
+      Path entryPath = directory.getFileSystem().getPath(entry.name).normalize();
+      Path target = directory.resolve(entryPath);
+      if (!entry.blob.isPresent()) {
+        Files.createDirectories(target);
+      } else {
+        Files.createDirectories(target.getParent());
+        Path blobPath = getBlobPath(entry.blob.get());
+        // The blob may be shared with files that aren't executable, so executables are copied.
+        if (entry.isExecutable() || !tryToHardLink(blobPath, target)) {
+          Files.copy(filesystem.resolve(blobPath), target);
+          if (entry.isExecutable()) {
+            MoreFiles.makeExecutable(target);
+          }
+        }
+      }
+      entriesPutInPlace.add(entryPath);
+    }
+    sink.onUnpacked(entriesPutInPlace.build());
+  }
+
+  private void writeZip(Manifest manifest, LazyPath output) throws IOException {
+    Path outputPath = filesystem.resolve(output.get());
+    Files.deleteIfExists(outputPath);
+    try (CustomZipOutputStream zip = ZipOutputStreams.newOutputStream(
+        output.wrapOutputStream(filesystem.newFileOutputStream(outputPath)))) {
+      for (Entry entry : manifest.entries) {
+        CustomZipEntry zipEntry = new CustomZipEntry(entry.name);
+        zipEntry.setFakeTime();
+        zipEntry.setExternalAttributes(entry.externalAttributes);
+        zip.putNextEntry(zipEntry);
+        if (entry.blob.isPresent()) {
+          try (InputStream in = filesystem.newFileInputStream(getBlobPath(entry.blob.get()))) {
+            ByteStreams.copy(in, zip);
+          }
+        }
+        zip.closeEntry();
+      }
+    }
+  }
+
+  /**
+   * @return whether the blob is now hard linked at the target, which must not exist.
+   */
+  private boolean tryToHardLink(Path blobPath, Path target) throws IOException {
+    if (!useHardLinks) {
+      return false;
+    }
+    try {
+      Files.createLink(target, filesystem.resolve(blobPath));
+      return true;
+    } catch (NoSuchFileException e) {
+      throw e;
+    } catch (IOException | UnsupportedOperationException e) {
+      // Most likely the output is on another file system than the cache.
+      LOG.info(e, "Cannot hard link from %s, falling back to copying artifacts.", cacheDir);
+      useHardLinks = false;
+      return false;
+    }
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiFetch(ImmutableMap<RuleKey, LazyPath> requests) {
+    // Local disk reads gain nothing from batching, so just fetch one after another.
+    ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+    for (Map.Entry<RuleKey, LazyPath> request : requests.entrySet()) {
+      results.put(request.getKey(), fetch(request.getKey(), request.getValue()));
+    }
+    return results.build();
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+    ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+    for (RuleKey ruleKey : ruleKeys) {
+      results.put(
+          ruleKey,
+          filesystem.exists(getManifestPath(ruleKey)) ?
+              CacheResult.contains(name) :
+              CacheResult.miss());
+    }
+    return results.build();
+  }
+
+  @Override
+  public ListenableFuture<Void> store(ArtifactInfo info, BorrowablePath output) {
+    if (!doStore) {
+      return Futures.immediateFuture(null);
+    }
+
+    try {
+      long size = filesystem.getFileSize(output.getPath());
+      Map<Sha1HashCode, Long> blobs = new HashMap<>();
+      Optional<ImmutableList<Entry>> entries = storeEntries(output.getPath(), blobs);
+      Manifest manifest;
+      if (entries.isPresent()) {
+        manifest = new Manifest(size, info.getMetadata(), Optional.empty(), entries.get());
+      } else {
+        Sha1HashCode blob = storeWholeArtifact(output);
+        blobs.put(blob, size);
+        manifest = new Manifest(size, info.getMetadata(), Optional.of(blob), ImmutableList.of());
+      }
+
+      ImmutableSet.Builder<RuleKey> storedRuleKeys = ImmutableSet.builder();
+      for (RuleKey ruleKey : info.getRuleKeys()) {
+        Path manifestPath = getManifestPath(ruleKey);
+        if (filesystem.exists(manifestPath)) {
+          continue;
+        }
+        filesystem.mkdirs(manifestPath.getParent());
+        Path tmp = filesystem.createTempFile(getPreparedTempFolder(), "manifest", TMP_EXTENSION);
+        try {
+          try (DataOutputStream out = new DataOutputStream(filesystem.newFileOutputStream(tmp))) {
+            manifest.write(out);
+          }
+          filesystem.move(tmp, manifestPath, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+          filesystem.deleteFileAtPathIfExists(tmp);
+        }
+        storedRuleKeys.add(ruleKey);
+      }
+
+      recordStore(blobs, storedRuleKeys.build());
+    } catch (IOException e) {
+      LOG.warn(
+          e,
+          "Artifact store(%s, %s) error",
+          info.getRuleKeys(),
+          output);
+    }
+
+    return Futures.immediateFuture(null);
+  }
+
+  /**
+   * Stores each file of a zip artifact as a blob of its own.
+   *
+   * @param blobs the blobs stored along the way, and their sizes, are added to this.
+   * @return the entries of the artifact, or nothing if it isn't a zip whose entries can be put
+   *     back in place from blobs, in which case nothing was stored.
+   */
+  private Optional<ImmutableList<Entry>> storeEntries(
+      Path artifact,
+      Map<Sha1HashCode, Long> blobs) throws IOException {
+    try (ZipFile zip = new ZipFile(filesystem.resolve(artifact).toFile())) {
+      List<ZipArchiveEntry> zipEntries = Collections.list(zip.getEntries());
+      Set<String> names = new HashSet<>();
+      for (ZipArchiveEntry zipEntry : zipEntries) {
+        if (zipEntry.isUnixSymlink() ||
+            !isEntryNameInsideItsDirectory(zipEntry.getName()) ||
+            !names.add(zipEntry.getName())) {
+          return Optional.empty();
+        }
+      }
+
+      ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+      for (ZipArchiveEntry zipEntry : zipEntries) {
+        Optional<Sha1HashCode> blob = Optional.empty();
+        if (!zipEntry.isDirectory()) {
+          try (InputStream in = zip.getInputStream(zipEntry)) {
+            blob = Optional.of(storeBlob(in, blobs));
+          }
+        }
+        entries.add(new Entry(zipEntry.getName(), zipEntry.getExternalAttributes(), blob));
+      }
+      return Optional.of(entries.build());
+    } catch (ZipException e) {
+      return Optional.empty();
+    }
+  }
+
+  private static boolean isEntryNameInsideItsDirectory(String name) {
+    Path entry = Paths.get(name).normalize();
+    return !name.startsWith("/") &&
+        !entry.isAbsolute() &&
+        !entry.toString().isEmpty() &&
+        !entry.startsWith("..");
+  }
+
+  private Sha1HashCode storeBlob(InputStream in, Map<Sha1HashCode, Long> blobs)
+      throws IOException {
+    // Write to a temporary file and move the file to its final location atomically to protect
+    // against partial blobs (whether due to buck interruption or filesystem failure) posing as
+    // valid blobs during subsequent buck runs.
+    Path tmp = filesystem.createTempFile(getPreparedTempFolder(), "blob", TMP_EXTENSION);
+    try {
+      HashingInputStream hashingIn = new HashingInputStream(Hashing.sha1(), in);
+      long size;
+      try (OutputStream out = filesystem.newFileOutputStream(tmp)) {
+        size = ByteStreams.copy(hashingIn, out);
+      }
+      Sha1HashCode blob = Sha1HashCode.fromHashCode(hashingIn.hash());
+      moveIntoBlobs(tmp, blob);
+      blobs.put(blob, size);
+      return blob;
+    } finally {
+      filesystem.deleteFileAtPathIfExists(tmp);
+    }
+  }
+
+  private Sha1HashCode storeWholeArtifact(BorrowablePath output) throws IOException {
+    Sha1HashCode blob = filesystem.computeSha1(output.getPath());
+    if (filesystem.exists(getBlobPath(blob))) {
+      return blob;
+    }
+    Path tmp = filesystem.createTempFile(getPreparedTempFolder(), "blob", TMP_EXTENSION);
+    try {
+      if (output.canBorrow()) {
+        filesystem.move(output.getPath(), tmp, StandardCopyOption.REPLACE_EXISTING);
+      } else {
+        filesystem.copyFile(output.getPath(), tmp);
+      }
+      moveIntoBlobs(tmp, blob);
+      return blob;
+    } finally {
+      filesystem.deleteFileAtPathIfExists(tmp);
+    }
+  }
+
+  private void moveIntoBlobs(Path tmp, Sha1HashCode blob) throws IOException {
+    Path blobPath = getBlobPath(blob);
+    if (filesystem.exists(blobPath)) {
+      return;
+    }
+    filesystem.mkdirs(blobPath.getParent());
+    if (useHardLinks) {
+      // Fetched files share the blob's inode, so nobody may write to them in place.
+      filesystem.resolve(tmp).toFile().setWritable(false, false);
+    }
+    filesystem.move(tmp, blobPath, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  @Override
+  public boolean isStoreSupported() {
+    return doStore;
+  }
+
+  @Override
+  public void close() {
+    // The journal is only ever open while its lock is held, so there is nothing left to close.
+  }
+
+  private void recordAccess(RuleKey ruleKey, Manifest manifest) throws IOException {
+    withJournalLock(records -> {
+      for (Sha1HashCode blob : manifest.getBlobs()) {
+        if (!blobSizes.containsKey(blob)) {
+          // Missing from the journal, which was most likely deleted since the blob was stored.
+          long size = filesystem.getFileSize(getBlobPath(blob));
+          indexBlob(blob, size);
+          records.add(storeRecord(blob, size));
+        }
+      }
+      if (!blobsByRuleKey.containsKey(ruleKey)) {
+        indexRuleKey(ruleKey, manifest.getBlobs());
+        records.add(keyRecord(ruleKey, manifest.getBlobs()));
+      }
+      touchRuleKey(ruleKey);
+      records.add(ACCESS_RECORD + " " + ruleKey);
+      return null;
+    });
+  }
+
+  private void recordStore(
+      Map<Sha1HashCode, Long> blobs,
+      ImmutableSet<RuleKey> ruleKeys) throws IOException {
+    withJournalLock(records -> {
+      for (Sha1HashCode blob : blobs.keySet()) {
+        if (!filesystem.exists(getBlobPath(blob))) {
+          // Another process evicted a blob we meant to reuse before we got the lock.
+          for (RuleKey ruleKey : ruleKeys) {
+            filesystem.deleteFileAtPathIfExists(getManifestPath(ruleKey));
+          }
+          return null;
+        }
+      }
+      for (Map.Entry<Sha1HashCode, Long> blob : blobs.entrySet()) {
+        if (blobSizes.get(blob.getKey()) == null) {
+          indexBlob(blob.getKey(), blob.getValue());
+          records.add(storeRecord(blob.getKey(), blob.getValue()));
+        }
+      }
+      for (RuleKey ruleKey : ruleKeys) {
+        indexRuleKey(ruleKey, blobs.keySet());
+        records.add(keyRecord(ruleKey, blobs.keySet()));
+      }
+
+      if (maxCacheSizeBytes.isPresent() && totalBlobBytes > maxCacheSizeBytes.get()) {
+        deleteLeastRecentlyUsedBlobs(
+            (long) (maxCacheSizeBytes.get() * MAX_BYTES_TRIM_RATIO),
+            records);
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Runs an operation on the index while holding the journal lock, once the index has caught up
+   * with the journal, and appends the records the operation adds to the journal.
+   */
+  private <T> T withJournalLock(JournalOperation<T> operation) throws IOException {
+    synchronized (journalMonitor) {
+      try (FileChannel lockChannel = FileChannel.open(
+               filesystem.resolve(cacheDir.resolve("journal.lock")),
+               StandardOpenOption.CREATE,
+               StandardOpenOption.WRITE);
+           FileLock lock = lockChannel.lock()) {
+        if (filesystem.exists(getJournalPath())) {
+          catchUpWithJournal();
+        } else {
+          resetIndex();
+          rebuildIndexFromDisk();
+          compactJournal();
+        }
+
+        List<String> records = new ArrayList<>();
+        T result = operation.run(records);
+        appendToJournal(records);
+
+        if (journalRecords > Math.max(
+                MIN_JOURNAL_RECORDS_BEFORE_COMPACTION,
+                JOURNAL_RECORDS_PER_ENTRY_BEFORE_COMPACTION *
+                    (blobSizes.size() + blobsByRuleKey.keySet().size()))) {
+          compactJournal();
+        }
+        return result;
+      }
+    }
+  }
+
+  /**
+   * Must be called while holding the journal lock.
+   */
+  private void deleteLeastRecentlyUsedBlobs(long maxBytesAfterDeletion, List<String> records) {
+    Iterator<Map.Entry<Sha1HashCode, Long>> leastRecentlyUsed = blobSizes.entrySet().iterator();
+    while (totalBlobBytes > maxBytesAfterDeletion && leastRecentlyUsed.hasNext()) {
+      Map.Entry<Sha1HashCode, Long> entry = leastRecentlyUsed.next();
+      Sha1HashCode blob = entry.getKey();
+      try {
+        // Drop the manifests first, so no fetch finds one pointing at a missing blob.
+        for (RuleKey ruleKey : ImmutableSet.copyOf(ruleKeysByBlob.get(blob))) {
+          filesystem.deleteFileAtPathIfExists(getManifestPath(ruleKey));
+          forgetRuleKey(ruleKey);
+        }
+        filesystem.deleteFileAtPathIfExists(getBlobPath(blob));
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to delete blob %s from %s.", blob, cacheDir);
+        continue;
+      }
+      leastRecentlyUsed.remove();
+      totalBlobBytes -= entry.getValue();
+      records.add(DELETE_RECORD + " " + blob.getHash());
+    }
+  }
+
+  /**
+   * Must be called while holding the journal lock.
+   */
+  private void indexBlob(Sha1HashCode blob, long size) {
+    Long previousSize = blobSizes.put(blob, size);
+    totalBlobBytes += size - (previousSize == null ? 0L : previousSize);
+  }
+
+  /**
+   * Must be called while holding the journal lock.
+   */
+  private void indexRuleKey(RuleKey ruleKey, Iterable<Sha1HashCode> blobs) {
+    for (Sha1HashCode blob : blobs) {
+      ruleKeysByBlob.put(blob, ruleKey);
+      blobsByRuleKey.put(ruleKey, blob);
+    }
+  }
+
+  /**
+   * Marks the blobs of a rule key as the most recently used. Must be called while holding the
+   * journal lock.
+   */
+  private void touchRuleKey(RuleKey ruleKey) {
+    for (Sha1HashCode blob : blobsByRuleKey.get(ruleKey)) {
+      blobSizes.get(blob);
+    }
+  }
+
+  /**
+   * Must be called while holding the journal lock.
+   */
+  private void forgetRuleKey(RuleKey ruleKey) {
+    for (Sha1HashCode blob : blobsByRuleKey.removeAll(ruleKey)) {
+      ruleKeysByBlob.remove(blob, ruleKey);
+    }
+  }
+
+  /**
+   * Must be called while holding the journal lock.
+   */
+  private void forgetBlob(Sha1HashCode blob) {
+    Long size = blobSizes.remove(blob);
+    if (size != null) {
+      totalBlobBytes -= size;
+    }
+    for (RuleKey ruleKey : ImmutableSet.copyOf(ruleKeysByBlob.get(blob))) {
+      forgetRuleKey(ruleKey);
+    }
+  }
+
+  /**
+   * Must be called while holding the journal lock.
+   */
+  private void resetIndex() {
+    blobSizes.clear();
+    ruleKeysByBlob.clear();
+    blobsByRuleKey.clear();
+    totalBlobBytes = 0L;
+    journalRecords = 0;
+    journalGeneration = null;
+    journalOffset = 0L;
+  }
+
+  private static String storeRecord(Sha1HashCode blob, long size) {
+    return STORE_RECORD + " " + blob.getHash() + " " + size;
+  }
+
+  private static String keyRecord(RuleKey ruleKey, Iterable<Sha1HashCode> blobs) {
+    StringBuilder record = new StringBuilder(KEY_RECORD).append(' ').append(ruleKey);
+    for (Sha1HashCode blob : blobs) {
+      record.append(' ').append(blob.getHash());
+    }
+    return record.toString();
+  }
+
+  /**
+   * Must be called while holding the journal lock. Losing records only makes the LRU order a
+   * little less accurate, so failures are logged rather than failing the build.
+   */
+  private void appendToJournal(List<String> records) {
+    if (records.isEmpty()) {
+      return;
+    }
+    Path journalPath = filesystem.resolve(getJournalPath());
+    try (Writer writer = Files.newBufferedWriter(
+             journalPath,
+             Charsets.UTF_8,
+             StandardOpenOption.CREATE,
+             StandardOpenOption.APPEND)) {
+      for (String record : records) {
+        writer.write(record);
+        writer.write('\n');
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to write to the cache journal in %s.", cacheDir);
+      return;
+    }
+    journalRecords += records.size();
+    try {
+      journalOffset = Files.size(journalPath);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to read the cache journal in %s.", cacheDir);
+    }
+  }
+
+  /**
+   * Replays whatever other processes appended to the journal since this one last read it, or the
+   * whole journal if another process rewrote it in the meantime. Must be called while holding the
+   * journal lock.
+   */
+  private void catchUpWithJournal() throws IOException {
+    try (FileChannel channel =
+             FileChannel.open(filesystem.resolve(getJournalPath()), StandardOpenOption.READ)) {
+      long size = channel.size();
+      BufferedReader reader =
+          new BufferedReader(Channels.newReader(channel, Charsets.UTF_8.name()));
+      String header = reader.readLine();
+      // Journals written before they had generations start with a record instead.
+      String generation = header != null && header.startsWith(GENERATION_RECORD + " ") ?
+          header.substring(GENERATION_RECORD.length() + 1) :
+          "";
+      if (!generation.equals(journalGeneration)) {
+        resetIndex();
+        journalGeneration = generation;
+        if (header != null && generation.isEmpty()) {
+          replayLine(header);
+        }
+        replayLines(reader);
+      } else if (journalOffset < size) {
+        channel.position(journalOffset);
+        replayLines(new BufferedReader(Channels.newReader(channel, Charsets.UTF_8.name())));
+      }
+      journalOffset = size;
+    }
+  }
+
+  private void replayLines(BufferedReader reader) throws IOException {
+    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+      replayLine(line);
+    }
+  }
+
+  private void replayLine(String line) {
+    List<String> fields = Splitter.on(' ').splitToList(line);
+    try {
+      replayRecord(fields);
+      journalRecords++;
+    } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+      // Most likely the tail of a journal that was being written when buck was killed.
+      LOG.debug(e, "Ignoring malformed cache journal record: %s", line);
+    }
+  }
+
+  private void replayRecord(List<String> fields) {
+    switch (fields.get(0)) {
+      case STORE_RECORD:
+        indexBlob(Sha1HashCode.of(fields.get(1)), Long.parseLong(fields.get(2)));
+        break;
+      case KEY_RECORD:
+        RuleKey ruleKey = new RuleKey(fields.get(1));
+        List<Sha1HashCode> blobs = new ArrayList<>();
+        for (String blob : fields.subList(2, fields.size())) {
+          blobs.add(Sha1HashCode.of(blob));
+        }
+        indexRuleKey(ruleKey, blobs);
+        break;
+      case ACCESS_RECORD:
+        touchRuleKey(new RuleKey(fields.get(1)));
+        break;
+      case DELETE_RECORD:
+        forgetBlob(Sha1HashCode.of(fields.get(1)));
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown record type " + fields.get(0));
+    }
+  }
+
+  /**
+   * Without a journal, the best guess at the LRU order is the blobs' modification times. Must be
+   * called while holding the journal lock.
+   */
+  private void rebuildIndexFromDisk() throws IOException {
+    List<Map.Entry<Sha1HashCode, BasicFileAttributes>> blobs = new ArrayList<>();
+    walkFiles(getBlobsDir(), (file, attrs) -> {
+      try {
+        blobs.add(
+            new AbstractMap.SimpleEntry<>(Sha1HashCode.of(file.getFileName().toString()), attrs));
+      } catch (IllegalArgumentException e) {
+        LOG.debug(e, "Ignoring stray file %s in the cache.", file);
+      }
+    });
+    blobs.sort(Comparator.comparing(entry -> entry.getValue().lastModifiedTime()));
+    for (Map.Entry<Sha1HashCode, BasicFileAttributes> entry : blobs) {
+      indexBlob(entry.getKey(), entry.getValue().size());
+    }
+
+    walkFiles(getKeysDir(), (file, attrs) -> {
+      try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+        Optional<Manifest> manifest = Manifest.read(in);
+        if (manifest.isPresent()) {
+          indexRuleKey(new RuleKey(file.getFileName().toString()), manifest.get().getBlobs());
+        }
+      } catch (IOException | IllegalArgumentException e) {
+        LOG.debug(e, "Ignoring unreadable cache manifest %s.", file);
+      }
+    });
+  }
+
+  private void walkFiles(Path dir, final FileConsumer consumer) throws IOException {
+    Path root = filesystem.resolve(dir);
+    if (!Files.isDirectory(root)) {
+      return;
+    }
+    Files.walkFileTree(
+        root,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(
+              Path file,
+              BasicFileAttributes attrs) throws IOException {
+            consumer.accept(file, attrs);
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  /**
+   * Rewrites the journal with only the records needed to rebuild the current index, under a new
+   * generation so other processes know to read it afresh. Must be called while holding the
+   * journal lock.
+   */
+  private void compactJournal() throws IOException {
+    String generation = UUID.randomUUID().toString();
+    Path tmp = filesystem.createTempFile(getPreparedTempFolder(), "journal", TMP_EXTENSION);
+    try {
+      int records = 0;
+      try (Writer writer =
+               Files.newBufferedWriter(filesystem.resolve(tmp), Charsets.UTF_8)) {
+        writer.write(GENERATION_RECORD + " " + generation + "\n");
+        for (Map.Entry<Sha1HashCode, Long> entry : blobSizes.entrySet()) {
+          writer.write(storeRecord(entry.getKey(), entry.getValue()) + "\n");
+          records++;
+        }
+        for (Map.Entry<RuleKey, Collection<Sha1HashCode>> entry :
+            blobsByRuleKey.asMap().entrySet()) {
+          writer.write(keyRecord(entry.getKey(), entry.getValue()) + "\n");
+          records++;
+        }
+      }
+      filesystem.move(tmp, getJournalPath(), StandardCopyOption.REPLACE_EXISTING);
+      journalRecords = records;
+      journalGeneration = generation;
+      journalOffset = filesystem.getFileSize(getJournalPath());
+    } finally {
+      filesystem.deleteFileAtPathIfExists(tmp);
+    }
+  }
+
+  private Path getBlobsDir() {
+    return cacheDir.resolve("blobs");
+  }
+
+  private Path getKeysDir() {
+    return cacheDir.resolve("keys");
+  }
+
+  private Path getJournalPath() {
+    return cacheDir.resolve("journal");
+  }
+
+  private Path getPreparedTempFolder() throws IOException {
+    Path tmp = cacheDir.resolve("tmp");
+    if (!filesystem.exists(tmp)) {
+      filesystem.mkdirs(tmp);
+    }
+    return tmp;
+  }
+
+  @VisibleForTesting
+  Path getBlobPath(Sha1HashCode blob) {
+    String hash = blob.getHash();
+    return getBlobsDir().resolve(hash.substring(0, 2)).resolve(hash);
+  }
+
+  @VisibleForTesting
+  Path getManifestPath(RuleKey ruleKey) {
+    String key = ruleKey.toString();
+    Path dir = key.length() < 2 ? getKeysDir() : getKeysDir().resolve(key.substring(0, 2));
+    return dir.resolve(key);
+  }
+
+  @VisibleForTesting
+  long getTotalBlobBytes() throws IOException {
+    return withJournalLock(records -> totalBlobBytes);
+  }
+
+  private interface FileConsumer {
+    void accept(Path file, BasicFileAttributes attrs) throws IOException;
+  }
+
+  private interface JournalOperation<T> {
+    /**
+     * @param records records to append to the journal once the operation is done.
+     */
+    T run(List<String> records) throws IOException;
+  }
+
+  /**
+   * A file or directory of an artifact, and the blob holding its contents if it is a file.
+   */
+  private static class Entry {
+    private final String name;
+    private final long externalAttributes;
+    private final Optional<Sha1HashCode> blob;
+
+    private Entry(String name, long externalAttributes, Optional<Sha1HashCode> blob) {
+      this.name = name;
+      this.externalAttributes = externalAttributes;
+      this.blob = blob;
+    }
+
+    private boolean isExecutable() {
+      // See Unzip, which reads the permissions from the same place.
+      Set<PosixFilePermission> permissions =
+          MorePosixFilePermissions.fromMode(externalAttributes >> 16);
+      return permissions.contains(PosixFilePermission.OWNER_EXECUTE);
+    }
+  }
+
+  /**
+   * What a rule key maps to: the entries of its artifact or, for an artifact that isn't stored
+   * file by file, the blob holding all of it, and the artifact's metadata.
+   */
+  private static class Manifest {
+    private static final int VERSION = 2;
+
+    private final long size;
+    private final ImmutableMap<String, String> metadata;
+    private final Optional<Sha1HashCode> wholeArtifact;
+    private final ImmutableList<Entry> entries;
+
+    private Manifest(
+        long size,
+        ImmutableMap<String, String> metadata,
+        Optional<Sha1HashCode> wholeArtifact,
+        ImmutableList<Entry> entries) {
+      this.size = size;
+      this.metadata = metadata;
+      this.wholeArtifact = wholeArtifact;
+      this.entries = entries;
+    }
+
+    private ImmutableSet<Sha1HashCode> getBlobs() {
+      ImmutableSet.Builder<Sha1HashCode> blobs = ImmutableSet.builder();
+      if (wholeArtifact.isPresent()) {
+        blobs.add(wholeArtifact.get());
+      }
+      for (Entry entry : entries) {
+        if (entry.blob.isPresent()) {
+          blobs.add(entry.blob.get());
+        }
+      }
+      return blobs.build();
+    }
+
+    /**
+     * @return the manifest, or nothing if it was written by another version of buck.
+     */
+    private static Optional<Manifest> read(DataInputStream in) throws IOException {
+      if (in.readInt() != VERSION) {
+        return Optional.empty();
+      }
+      try {
+        long size = in.readLong();
+        ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
+        int sz = in.readInt();
+        for (int i = 0; i < sz; i++) {
+          String key = in.readUTF();
+          int valSize = in.readInt();
+          byte[] val = new byte[valSize];
+          ByteStreams.readFully(in, val);
+          metadata.put(key, new String(val, Charsets.UTF_8));
+        }
+        Optional<Sha1HashCode> wholeArtifact = readBlob(in);
+        ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+        int entryCount = in.readInt();
+        for (int i = 0; i < entryCount; i++) {
+          String name = in.readUTF();
+          if (!isEntryNameInsideItsDirectory(name)) {
+            throw new IOException("Malformed cache manifest entry: " + name);
+          }
+          entries.add(new Entry(name, in.readLong(), readBlob(in)));
+        }
+        return Optional.of(new Manifest(size, metadata.build(), wholeArtifact, entries.build()));
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Malformed cache manifest.", e);
+      }
+    }
+
+    private static Optional<Sha1HashCode> readBlob(DataInputStream in) throws IOException {
+      return in.readBoolean() ? Optional.of(Sha1HashCode.of(in.readUTF())) : Optional.empty();
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+      out.writeInt(VERSION);
+      out.writeLong(size);
+      out.writeInt(metadata.size());
+      for (Map.Entry<String, String> ent : metadata.entrySet()) {
+        out.writeUTF(ent.getKey());
+        byte[] val = ent.getValue().getBytes(Charsets.UTF_8);
+        out.writeInt(val.length);
+        out.write(val);
+      }
+      writeBlob(out, wholeArtifact);
+      out.writeInt(entries.size());
+      for (Entry entry : entries) {
+        out.writeUTF(entry.name);
+        out.writeLong(entry.externalAttributes);
+        writeBlob(out, entry.blob);
+      }
+    }
+
+    private static void writeBlob(DataOutputStream out, Optional<Sha1HashCode> blob)
+        throws IOException {
+      out.writeBoolean(blob.isPresent());
+      if (blob.isPresent()) {
+        out.writeUTF(blob.get().getHash());
+      }
+    }
+  }
+}
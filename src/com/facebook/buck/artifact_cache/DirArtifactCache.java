@@ -36,6 +36,8 @@ import com.google.common.util.concurrent.ListenableFuture;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
@@ -105,8 +107,15 @@ public class DirArtifactCache implements ArtifactCache {
         }
       }
 
-      // Now copy the artifact out.
-      filesystem.copyFile(getPathForRuleKey(ruleKey, Optional.empty()), output.get());
+      // Now copy the artifact out, streaming it so the caller can unpack it along the way. Replace
+      // rather than overwrite the output, which may be a hard link into another cache.
+      filesystem.deleteFileAtPathIfExists(output.get());
+      try (InputStream in =
+               filesystem.newFileInputStream(getPathForRuleKey(ruleKey, Optional.empty()));
+           OutputStream out =
+               output.wrapOutputStream(filesystem.newFileOutputStream(output.get()))) {
+        ByteStreams.copy(in, out);
+      }
 
       result = CacheResult.hit(name, metadata.build(), filesystem.getFileSize(output.get()));
     } catch (NoSuchFileException e) {
@@ -128,6 +137,28 @@ public class DirArtifactCache implements ArtifactCache {
     return result;
   }
 
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiFetch(ImmutableMap<RuleKey, LazyPath> requests) {
+    // Local disk reads gain nothing from batching, so just fetch one after another.
+    ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+    for (Map.Entry<RuleKey, LazyPath> request : requests.entrySet()) {
+      results.put(request.getKey(), fetch(request.getKey(), request.getValue()));
+    }
+    return results.build();
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+    ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+    for (RuleKey ruleKey : ruleKeys) {
+      boolean present =
+          filesystem.exists(getPathForRuleKey(ruleKey, Optional.empty())) &&
+          filesystem.exists(getPathForRuleKey(ruleKey, Optional.of(".metadata")));
+      results.put(ruleKey, present ? CacheResult.contains(name) : CacheResult.miss());
+    }
+    return results.build();
+  }
+
   @Override
   public ListenableFuture<Void> store(
       ArtifactInfo info,
@@ -21,7 +21,11 @@ import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.slb.HttpResponse;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteSource;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import java.io.DataInputStream;
 import java.io.IOException;
@@ -30,6 +34,8 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import okhttp3.MediaType;
 import okhttp3.Request;
@@ -91,7 +97,8 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
             ".tmp");
 
         FetchResponseReadResult fetchedData;
-        try (OutputStream tempFileOutputStream = projectFilesystem.newFileOutputStream(temp)) {
+        try (OutputStream tempFileOutputStream =
+                 output.wrapOutputStream(projectFilesystem.newFileOutputStream(temp))) {
           fetchedData = HttpArtifactCacheBinaryProtocol.readFetchResponse(
               input,
               tempFileOutputStream);
@@ -127,6 +134,83 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
     }
   }
 
+  /**
+   * The binary protocol has no batch endpoint, so each key is still its own GET. When a fetch
+   * executor is available the GETs are issued concurrently, so the whole batch costs roughly one
+   * round trip instead of one per key.
+   */
+  @Override
+  protected ImmutableMap<RuleKey, CacheResult> multiFetchImpl(
+      ImmutableMap<RuleKey, LazyPath> requests,
+      ImmutableMap<RuleKey, Finished.Builder> eventBuilders) throws IOException {
+    ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+    if (!httpFetchExecutorService.isPresent() || requests.size() == 1) {
+      for (Map.Entry<RuleKey, LazyPath> request : requests.entrySet()) {
+        results.put(
+            request.getKey(),
+            fetchOrError(
+                request.getKey(),
+                request.getValue(),
+                eventBuilders.get(request.getKey())));
+      }
+      return results.build();
+    }
+
+    Map<RuleKey, ListenableFuture<CacheResult>> futures = new LinkedHashMap<>();
+    for (Map.Entry<RuleKey, LazyPath> request : requests.entrySet()) {
+      futures.put(
+          request.getKey(),
+          httpFetchExecutorService.get().submit(
+              () -> fetchOrError(
+                  request.getKey(),
+                  request.getValue(),
+                  eventBuilders.get(request.getKey()))));
+    }
+    for (Map.Entry<RuleKey, ListenableFuture<CacheResult>> future : futures.entrySet()) {
+      results.put(future.getKey(), Futures.getUnchecked(future.getValue()));
+    }
+    return results.build();
+  }
+
+  @Override
+  protected ImmutableMap<RuleKey, CacheResult> multiContainsImpl(ImmutableSet<RuleKey> ruleKeys)
+      throws IOException {
+    ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+    for (RuleKey ruleKey : ruleKeys) {
+      Request.Builder requestBuilder =
+          new Request.Builder()
+              .head();
+      try (HttpResponse response = fetchClient.makeRequest(
+          "/artifacts/key/" + ruleKey.toString(),
+          requestBuilder)) {
+        if (response.code() == HttpURLConnection.HTTP_OK) {
+          results.put(ruleKey, CacheResult.contains(name));
+        } else if (response.code() == HttpURLConnection.HTTP_NOT_FOUND) {
+          results.put(ruleKey, CacheResult.miss());
+        } else {
+          String msg = String.format("unexpected response: %d", response.code());
+          reportFailure("contains(%s, %s): %s", response.requestUrl(), ruleKey, msg);
+          results.put(ruleKey, CacheResult.error(name, msg));
+        }
+      }
+    }
+    return results.build();
+  }
+
+  private CacheResult fetchOrError(
+      RuleKey ruleKey,
+      LazyPath output,
+      Finished.Builder eventBuilder) {
+    try {
+      return fetchImpl(ruleKey, output, eventBuilder);
+    } catch (IOException e) {
+      String msg = String.format("%s: %s", e.getClass().getName(), e.getMessage());
+      reportFailure(e, "fetch(%s): %s", ruleKey, msg);
+      eventBuilder.setErrorMessage(msg);
+      return CacheResult.error(name, msg);
+    }
+  }
+
   @Override
   protected void storeImpl(
       ArtifactInfo info,
@@ -20,9 +20,12 @@ import com.facebook.buck.io.BorrowablePath;
 import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.rules.RuleKey;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListenableFuture;
 
+import java.util.Map;
+
 /**
  * Decorator for wrapping a {@link ArtifactCache} to log a {@link ArtifactCacheEvent} for the start
  * and finish of each event.
@@ -54,6 +57,29 @@ public class LoggingArtifactCacheDecorator implements ArtifactCache {
     return fetchResult;
   }
 
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiFetch(ImmutableMap<RuleKey, LazyPath> requests) {
+    ImmutableMap.Builder<RuleKey, ArtifactCacheEvent.Started> started = ImmutableMap.builder();
+    for (RuleKey ruleKey : requests.keySet()) {
+      ArtifactCacheEvent.Started fetchStarted =
+          eventFactory.newFetchStartedEvent(ImmutableSet.of(ruleKey));
+      eventBus.post(fetchStarted);
+      started.put(ruleKey, fetchStarted);
+    }
+    ImmutableMap<RuleKey, CacheResult> fetchResults = delegate.multiFetch(requests);
+    for (Map.Entry<RuleKey, ArtifactCacheEvent.Started> entry : started.build().entrySet()) {
+      eventBus.post(eventFactory.newFetchFinishedEvent(
+          entry.getValue(),
+          fetchResults.get(entry.getKey())));
+    }
+    return fetchResults;
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+    return delegate.multiContains(ruleKeys);
+  }
+
   @Override
   public ListenableFuture<Void> store(
       ArtifactInfo info,
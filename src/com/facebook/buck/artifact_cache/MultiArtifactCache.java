@@ -20,13 +20,23 @@ import com.facebook.buck.io.BorrowablePath;
 import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.rules.RuleKey;
 import com.google.common.base.Functions;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -56,35 +66,125 @@ public class MultiArtifactCache implements ArtifactCache {
   public CacheResult fetch(RuleKey ruleKey, LazyPath output) {
     CacheResult cacheResult = CacheResult.miss();
     for (ArtifactCache artifactCache : artifactCaches) {
-      cacheResult = artifactCache.fetch(ruleKey, output);
+      cacheResult = artifactCache.fetch(ruleKey, forCache(artifactCache, output));
       if (cacheResult.getType().isSuccess()) {
         // Success; terminate search for a cached artifact, and propagate artifact to caches
         // earlier in the search order so that subsequent searches terminate earlier.
-        for (ArtifactCache priorArtifactCache : artifactCaches) {
-          if (priorArtifactCache.equals(artifactCache)) {
-            break;
-          }
-          // since cache fetch finished, it should be fine to get the path
-          BorrowablePath outputPath;
-          // allow borrowing the path if no other caches are expected to use it
-          if (priorArtifactCache.equals(artifactCaches.get(artifactCaches.size() - 1))) {
-            outputPath = BorrowablePath.borrowablePath(output.getUnchecked());
-          } else {
-            outputPath = BorrowablePath.notBorrowablePath(output.getUnchecked());
-          }
-          priorArtifactCache.store(
-              ArtifactInfo.builder()
-                  .addRuleKeys(ruleKey)
-                  .setMetadata(cacheResult.getMetadata())
-                  .build(),
-              outputPath);
-        }
+        storeToPriorCaches(artifactCache, ruleKey, output, cacheResult);
         return cacheResult;
       }
     }
     return cacheResult;
   }
 
+  /**
+   * Fetch the artifacts matching the requested keys. Each encapsulated ArtifactCache is asked in
+   * a single batch for the keys that none of the caches before it had, and hits are propagated to
+   * the earlier caches just like {@link #fetch(RuleKey, LazyPath)} does.
+   */
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiFetch(ImmutableMap<RuleKey, LazyPath> requests) {
+    Map<RuleKey, CacheResult> results = new HashMap<>();
+    ImmutableMap<RuleKey, LazyPath> remaining = requests;
+    for (ArtifactCache artifactCache : artifactCaches) {
+      if (remaining.isEmpty()) {
+        break;
+      }
+      ImmutableMap<RuleKey, CacheResult> cacheResults = artifactCache.multiFetch(
+          ImmutableMap.copyOf(
+              Maps.transformValues(remaining, output -> forCache(artifactCache, output))));
+      ImmutableMap.Builder<RuleKey, LazyPath> misses = ImmutableMap.builder();
+      for (Map.Entry<RuleKey, LazyPath> request : remaining.entrySet()) {
+        CacheResult cacheResult = Preconditions.checkNotNull(cacheResults.get(request.getKey()));
+        results.put(request.getKey(), cacheResult);
+        if (cacheResult.getType().isSuccess()) {
+          storeToPriorCaches(artifactCache, request.getKey(), request.getValue(), cacheResult);
+        } else {
+          misses.put(request);
+        }
+      }
+      remaining = misses.build();
+    }
+    return Maps.toMap(
+        requests.keySet(),
+        ruleKey -> results.getOrDefault(ruleKey, CacheResult.miss()));
+  }
+
+  /**
+   * Probe the encapsulated ArtifactCaches in order, each one only for the keys that none of the
+   * caches before it contained.
+   */
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+    Map<RuleKey, CacheResult> results = new HashMap<>();
+    ImmutableSet<RuleKey> remaining = ruleKeys;
+    for (ArtifactCache artifactCache : artifactCaches) {
+      if (remaining.isEmpty()) {
+        break;
+      }
+      ImmutableMap<RuleKey, CacheResult> cacheResults = artifactCache.multiContains(remaining);
+      results.putAll(cacheResults);
+      remaining = ImmutableSet.copyOf(
+          Sets.filter(
+              remaining,
+              ruleKey -> cacheResults.get(ruleKey).getType() != CacheResultType.CONTAINS));
+    }
+    return Maps.toMap(ruleKeys, ruleKey -> results.getOrDefault(ruleKey, CacheResult.miss()));
+  }
+
+  /**
+   * A hit in any but the first cache is stored in the caches before it, so that cache has to write
+   * out the artifact's zip even if the owner of {@code output} could do without it.
+   */
+  private LazyPath forCache(ArtifactCache artifactCache, final LazyPath output) {
+    if (artifactCache.equals(artifactCaches.get(0)) ||
+        !output.getUnpackedArtifactSink().isPresent()) {
+      return output;
+    }
+    return new LazyPath() {
+      @Override
+      protected Path create() throws IOException {
+        return output.get();
+      }
+
+      @Override
+      public OutputStream wrapOutputStream(OutputStream sink) {
+        return output.wrapOutputStream(sink);
+      }
+
+      @Override
+      public boolean needsOutputStream() {
+        return output.needsOutputStream();
+      }
+    };
+  }
+
+  private void storeToPriorCaches(
+      ArtifactCache sourceArtifactCache,
+      RuleKey ruleKey,
+      LazyPath output,
+      CacheResult cacheResult) {
+    for (ArtifactCache priorArtifactCache : artifactCaches) {
+      if (priorArtifactCache.equals(sourceArtifactCache)) {
+        break;
+      }
+      // since cache fetch finished, it should be fine to get the path
+      BorrowablePath outputPath;
+      // allow borrowing the path if no other caches are expected to use it
+      if (priorArtifactCache.equals(artifactCaches.get(artifactCaches.size() - 1))) {
+        outputPath = BorrowablePath.borrowablePath(output.getUnchecked());
+      } else {
+        outputPath = BorrowablePath.notBorrowablePath(output.getUnchecked());
+      }
+      priorArtifactCache.store(
+          ArtifactInfo.builder()
+              .addRuleKeys(ruleKey)
+              .setMetadata(cacheResult.getMetadata())
+              .build(),
+          outputPath);
+    }
+  }
+
   /**
    * Store the artifact to all encapsulated ArtifactCaches.
    */
@@ -18,6 +18,8 @@ package com.facebook.buck.artifact_cache;
 import com.facebook.buck.artifact_cache.thrift.ArtifactMetadata;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheFetchRequest;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheFetchResponse;
+import com.facebook.buck.artifact_cache.thrift.BuckCacheMultiContainsRequest;
+import com.facebook.buck.artifact_cache.thrift.BuckCacheMultiFetchRequest;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheRequest;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheRequestType;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheResponse;
@@ -31,6 +33,7 @@ import com.facebook.buck.slb.ThriftProtocol;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.io.ByteSource;
 
@@ -39,6 +42,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
 
 import okhttp3.MediaType;
 import okhttp3.Request;
@@ -76,10 +81,7 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
       HttpArtifactCacheEvent.Finished.Builder eventBuilder) throws IOException {
 
     BuckCacheFetchRequest fetchRequest = new BuckCacheFetchRequest();
-    com.facebook.buck.artifact_cache.thrift.RuleKey thriftRuleKey =
-        new com.facebook.buck.artifact_cache.thrift.RuleKey();
-    thriftRuleKey.setHashString(ruleKey.getHashCode().toString());
-    fetchRequest.setRuleKey(thriftRuleKey);
+    fetchRequest.setRuleKey(toThriftRuleKey(ruleKey));
     fetchRequest.setRepository(repository);
     fetchRequest.setScheduleType(scheduleType);
 
@@ -110,41 +112,172 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
           return CacheResult.error(name, cacheResponse.getErrorMessage());
         }
 
-        BuckCacheFetchResponse fetchResponse = cacheResponse.getFetchResponse();
-        if (!fetchResponse.isArtifactExists()) {
-          return CacheResult.miss();
+        return readFetchResponse(response, cacheResponse.getFetchResponse(), output);
+      }
+    }
+  }
+
+  /**
+   * Fetches all requested keys with a single MULTI_FETCH request. The server answers with one
+   * {@link BuckCacheFetchResponse} per key, and the payloads of the artifacts that exist follow
+   * in the same order.
+   */
+  @Override
+  protected ImmutableMap<RuleKey, CacheResult> multiFetchImpl(
+      ImmutableMap<RuleKey, LazyPath> requests,
+      ImmutableMap<RuleKey, HttpArtifactCacheEvent.Finished.Builder> eventBuilders)
+      throws IOException {
+
+    BuckCacheMultiFetchRequest multiFetchRequest = new BuckCacheMultiFetchRequest();
+    multiFetchRequest.setRuleKeys(toThriftRuleKeys(requests.keySet()));
+    multiFetchRequest.setRepository(repository);
+    multiFetchRequest.setScheduleType(scheduleType);
+
+    BuckCacheRequest cacheRequest = new BuckCacheRequest();
+    cacheRequest.setType(BuckCacheRequestType.MULTI_FETCH);
+    cacheRequest.setMultiFetchRequest(multiFetchRequest);
+
+    final ThriftArtifactCacheProtocol.Request request =
+        ThriftArtifactCacheProtocol.createRequest(PROTOCOL, cacheRequest);
+    Request.Builder builder = toOkHttpRequest(request);
+    try (HttpResponse httpResponse = fetchClient.makeRequest(hybridThriftEndpoint, builder)) {
+      if (httpResponse.code() != 200) {
+        String message = String.format(
+            "Failed to multi-fetch [%d] cache artifacts with HTTP status code [%d] " +
+                " to url [%s].",
+            requests.size(),
+            httpResponse.code(),
+            httpResponse.requestUrl());
+        LOG.error(message);
+        return allResults(requests.keySet(), CacheResult.error(name, message));
+      }
+
+      try (ThriftArtifactCacheProtocol.Response response =
+          ThriftArtifactCacheProtocol.parseResponse(PROTOCOL, httpResponse.getBody())) {
+
+        BuckCacheResponse cacheResponse = response.getThriftData();
+        if (!cacheResponse.isWasSuccessful()) {
+          return allResults(
+              requests.keySet(),
+              CacheResult.error(name, cacheResponse.getErrorMessage()));
+        }
+
+        List<BuckCacheFetchResponse> fetchResponses =
+            cacheResponse.getMultiFetchResponse().getResults();
+        if (fetchResponses.size() != requests.size()) {
+          throw new IOException(String.format(
+              "Requested [%d] artifacts but the multi-fetch response has [%d] results.",
+              requests.size(),
+              fetchResponses.size()));
+        }
+
+        // Payloads have to be consumed in order, so every result is read even if some fail.
+        ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+        int index = 0;
+        for (Map.Entry<RuleKey, LazyPath> entry : requests.entrySet()) {
+          results.put(
+              entry.getKey(),
+              readFetchResponse(response, fetchResponses.get(index++), entry.getValue()));
         }
+        return results.build();
+      }
+    }
+  }
+
+  @Override
+  protected ImmutableMap<RuleKey, CacheResult> multiContainsImpl(ImmutableSet<RuleKey> ruleKeys)
+      throws IOException {
+
+    BuckCacheMultiContainsRequest multiContainsRequest = new BuckCacheMultiContainsRequest();
+    multiContainsRequest.setRuleKeys(toThriftRuleKeys(ruleKeys));
+    multiContainsRequest.setRepository(repository);
+    multiContainsRequest.setScheduleType(scheduleType);
+
+    BuckCacheRequest cacheRequest = new BuckCacheRequest();
+    cacheRequest.setType(BuckCacheRequestType.MULTI_CONTAINS);
+    cacheRequest.setMultiContainsRequest(multiContainsRequest);
+
+    final ThriftArtifactCacheProtocol.Request request =
+        ThriftArtifactCacheProtocol.createRequest(PROTOCOL, cacheRequest);
+    Request.Builder builder = toOkHttpRequest(request);
+    try (HttpResponse httpResponse = fetchClient.makeRequest(hybridThriftEndpoint, builder)) {
+      if (httpResponse.code() != 200) {
+        String message = String.format(
+            "Failed to check for [%d] cache artifacts with HTTP status code [%d] " +
+                " to url [%s].",
+            ruleKeys.size(),
+            httpResponse.code(),
+            httpResponse.requestUrl());
+        LOG.error(message);
+        return allResults(ruleKeys, CacheResult.error(name, message));
+      }
+
+      try (ThriftArtifactCacheProtocol.Response response =
+          ThriftArtifactCacheProtocol.parseResponse(PROTOCOL, httpResponse.getBody())) {
 
-        Path tmp = createTempFileForDownload();
-        ThriftArtifactCacheProtocol.Response.ReadPayloadInfo readResult;
-        try (OutputStream tmpFile = projectFilesystem.newFileOutputStream(tmp)) {
-          readResult = response.readPayload(tmpFile);
+        BuckCacheResponse cacheResponse = response.getThriftData();
+        if (!cacheResponse.isWasSuccessful()) {
+          return allResults(ruleKeys, CacheResult.error(name, cacheResponse.getErrorMessage()));
         }
 
-        ArtifactMetadata metadata = fetchResponse.getMetadata();
-        if (!metadata.isSetArtifactPayloadMd5()) {
-          String msg = "Fetched artifact is missing the MD5 hash.";
-          LOG.warn(msg);
-        } else if (!readResult.getMd5Hash()
-            .equals(fetchResponse.getMetadata().getArtifactPayloadMd5())) {
-          String msg = String.format(
-              "The artifact fetched from cache is corrupted. ExpectedMD5=[%s] ActualMD5=[%s]",
-              fetchResponse.getMetadata().getArtifactPayloadMd5(),
-              readResult.getMd5Hash());
-          LOG.error(msg);
-          return CacheResult.error(name, msg);
+        List<Boolean> artifactExists =
+            cacheResponse.getMultiContainsResponse().getArtifactExists();
+        if (artifactExists.size() != ruleKeys.size()) {
+          throw new IOException(String.format(
+              "Probed for [%d] artifacts but the multi-contains response has [%d] results.",
+              ruleKeys.size(),
+              artifactExists.size()));
         }
 
-        // This makes sure we don't have 'half downloaded files' in the dir cache.
-        projectFilesystem.move(tmp, output.get(), StandardCopyOption.REPLACE_EXISTING);
-        return CacheResult.hit(
-            name,
-            ImmutableMap.copyOf(fetchResponse.getMetadata().getMetadata()),
-            readResult.getBytesRead());
+        ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+        int index = 0;
+        for (RuleKey ruleKey : ruleKeys) {
+          results.put(
+              ruleKey,
+              artifactExists.get(index++) ? CacheResult.contains(name) : CacheResult.miss());
+        }
+        return results.build();
       }
     }
   }
 
+  private CacheResult readFetchResponse(
+      ThriftArtifactCacheProtocol.Response response,
+      BuckCacheFetchResponse fetchResponse,
+      LazyPath output) throws IOException {
+    if (!fetchResponse.isArtifactExists()) {
+      return CacheResult.miss();
+    }
+
+    Path tmp = createTempFileForDownload();
+    ThriftArtifactCacheProtocol.Response.ReadPayloadInfo readResult;
+    try (OutputStream tmpFile =
+             output.wrapOutputStream(projectFilesystem.newFileOutputStream(tmp))) {
+      readResult = response.readPayload(tmpFile);
+    }
+
+    ArtifactMetadata metadata = fetchResponse.getMetadata();
+    if (!metadata.isSetArtifactPayloadMd5()) {
+      String msg = "Fetched artifact is missing the MD5 hash.";
+      LOG.warn(msg);
+    } else if (!readResult.getMd5Hash()
+        .equals(fetchResponse.getMetadata().getArtifactPayloadMd5())) {
+      String msg = String.format(
+          "The artifact fetched from cache is corrupted. ExpectedMD5=[%s] ActualMD5=[%s]",
+          fetchResponse.getMetadata().getArtifactPayloadMd5(),
+          readResult.getMd5Hash());
+      LOG.error(msg);
+      return CacheResult.error(name, msg);
+    }
+
+    // This makes sure we don't have 'half downloaded files' in the dir cache.
+    projectFilesystem.move(tmp, output.get(), StandardCopyOption.REPLACE_EXISTING);
+    return CacheResult.hit(
+        name,
+        ImmutableMap.copyOf(fetchResponse.getMetadata().getMetadata()),
+        readResult.getBytesRead());
+  }
+
   @Override
   protected void storeImpl(
       final ArtifactInfo info,
@@ -216,14 +349,7 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
       metadata.setBuildTarget(info.getBuildTarget().get().toString());
     }
 
-    metadata.setRuleKeys(ImmutableList.copyOf(Iterables.transform(
-        info.getRuleKeys(),
-        input -> {
-          com.facebook.buck.artifact_cache.thrift.RuleKey ruleKey =
-              new com.facebook.buck.artifact_cache.thrift.RuleKey();
-          ruleKey.setHashString(input.getHashCode().toString());
-          return ruleKey;
-        })));
+    metadata.setRuleKeys(toThriftRuleKeys(info.getRuleKeys()));
 
     metadata.setMetadata(info.getMetadata());
     // TODO(ruibm): Keep this temporarily for backwards compatibility.
@@ -235,6 +361,19 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
     return metadata;
   }
 
+  private static com.facebook.buck.artifact_cache.thrift.RuleKey toThriftRuleKey(RuleKey ruleKey) {
+    com.facebook.buck.artifact_cache.thrift.RuleKey thriftRuleKey =
+        new com.facebook.buck.artifact_cache.thrift.RuleKey();
+    thriftRuleKey.setHashString(ruleKey.getHashCode().toString());
+    return thriftRuleKey;
+  }
+
+  private static ImmutableList<com.facebook.buck.artifact_cache.thrift.RuleKey> toThriftRuleKeys(
+      Iterable<RuleKey> ruleKeys) {
+    return ImmutableList.copyOf(
+        Iterables.transform(ruleKeys, ThriftArtifactCache::toThriftRuleKey));
+  }
+
   private static Request.Builder toOkHttpRequest(
       final ThriftArtifactCacheProtocol.Request request) {
     Request.Builder builder = new Request.Builder()
@@ -37,6 +37,8 @@ import com.google.common.util.concurrent.ListenableFuture;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -132,6 +134,64 @@ public class TwoLevelArtifactCacheDecorator implements ArtifactCache {
     CacheResult outputFileFetchResult = delegate.fetch(
         new RuleKey(fetchResult.getMetadata().get(METADATA_KEY)),
         output);
+    return recordSecondLevelFetch(fetchResult, outputFileFetchResult);
+  }
+
+  /**
+   * Fetches the first level of all requested keys in one batch, followed by a second batch for
+   * the content hashes they point to.
+   */
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiFetch(ImmutableMap<RuleKey, LazyPath> requests) {
+    ImmutableMap<RuleKey, CacheResult> fetchResults = delegate.multiFetch(requests);
+
+    // Rules with identical outputs share a content hash, so only the first of them can be part of
+    // the batch; the others are fetched on their own afterwards.
+    Map<RuleKey, RuleKey> contentKeys = new LinkedHashMap<>();
+    Map<RuleKey, LazyPath> secondLevelRequests = new LinkedHashMap<>();
+    for (Map.Entry<RuleKey, CacheResult> entry : fetchResults.entrySet()) {
+      CacheResult fetchResult = entry.getValue();
+      if (fetchResult.getType().isSuccess() &&
+          fetchResult.getMetadata().containsKey(METADATA_KEY)) {
+        RuleKey contentKey = new RuleKey(fetchResult.getMetadata().get(METADATA_KEY));
+        contentKeys.put(entry.getKey(), contentKey);
+        secondLevelRequests.putIfAbsent(contentKey, requests.get(entry.getKey()));
+      }
+    }
+    if (contentKeys.isEmpty()) {
+      return fetchResults;
+    }
+    ImmutableMap<RuleKey, CacheResult> secondLevelResults =
+        delegate.multiFetch(ImmutableMap.copyOf(secondLevelRequests));
+
+    ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+    for (Map.Entry<RuleKey, CacheResult> entry : fetchResults.entrySet()) {
+      RuleKey contentKey = contentKeys.get(entry.getKey());
+      if (contentKey == null) {
+        results.put(entry);
+        continue;
+      }
+      LazyPath output = requests.get(entry.getKey());
+      CacheResult outputFileFetchResult = secondLevelRequests.get(contentKey) == output ?
+          secondLevelResults.get(contentKey) :
+          delegate.fetch(contentKey, output);
+      results.put(entry.getKey(), recordSecondLevelFetch(entry.getValue(), outputFileFetchResult));
+    }
+    return results.build();
+  }
+
+  /**
+   * Only the first level is probed, so a key is reported as present even if the content it points
+   * to has since been evicted.
+   */
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+    return delegate.multiContains(ruleKeys);
+  }
+
+  private CacheResult recordSecondLevelFetch(
+      CacheResult fetchResult,
+      CacheResult outputFileFetchResult) {
     if (!outputFileFetchResult.getType().isSuccess()) {
       secondLevelCacheMisses.inc();
       return outputFileFetchResult;
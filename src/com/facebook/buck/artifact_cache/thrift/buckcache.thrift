@@ -14,6 +14,8 @@ enum BuckCacheRequestType {
   UNKNOWN = 0,
   FETCH = 100,
   STORE = 101,
+  MULTI_FETCH = 102,
+  MULTI_CONTAINS = 103,
 }
 
 struct RuleKey {
@@ -56,6 +58,29 @@ struct BuckCacheFetchResponse {
   100: optional binary payload;
 }
 
+struct BuckCacheMultiFetchRequest {
+  1: optional list<RuleKey> ruleKeys;
+  2: optional string repository;
+  3: optional string scheduleType;
+}
+
+struct BuckCacheMultiFetchResponse {
+  // One entry per requested RuleKey, in request order. The payloads of the
+  // artifacts that exist are passed out of band in the same order.
+  1: optional list<BuckCacheFetchResponse> results;
+}
+
+struct BuckCacheMultiContainsRequest {
+  1: optional list<RuleKey> ruleKeys;
+  2: optional string repository;
+  3: optional string scheduleType;
+}
+
+struct BuckCacheMultiContainsResponse {
+  // One entry per requested RuleKey, in request order.
+  1: optional list<bool> artifactExists;
+}
+
 struct PayloadInfo {
   1: optional i64 sizeBytes;
 }
@@ -66,6 +91,8 @@ struct BuckCacheRequest {
   100: optional list<PayloadInfo> payloads;
   101: optional BuckCacheFetchRequest fetchRequest;
   102: optional BuckCacheStoreRequest storeRequest;
+  103: optional BuckCacheMultiFetchRequest multiFetchRequest;
+  104: optional BuckCacheMultiContainsRequest multiContainsRequest;
 }
 
 struct BuckCacheResponse {
@@ -77,4 +104,6 @@ struct BuckCacheResponse {
   100: optional list<PayloadInfo> payloads;
   101: optional BuckCacheFetchResponse fetchResponse;
   102: optional BuckCacheStoreResponse storeResponse;
+  103: optional BuckCacheMultiFetchResponse multiFetchResponse;
+  104: optional BuckCacheMultiContainsResponse multiContainsResponse;
 }
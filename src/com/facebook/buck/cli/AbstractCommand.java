@@ -156,7 +156,8 @@ public abstract class AbstractCommand implements Command {
   @Option(
       name = PROFILE_PARSER_LONG_ARG,
       usage = "Enable profiling of buck.py internals (not the target being compiled) in the debug" +
-          "log and trace.")
+          " log and trace, and print where parsing spent its time per build file, include, glob" +
+          " and rule function.")
   private boolean enableParserProfiling = false;
 
   @Option(
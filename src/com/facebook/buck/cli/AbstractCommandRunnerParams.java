@@ -20,6 +20,7 @@ import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.httpserver.WebServer;
 import com.facebook.buck.jvm.core.JavaPackageFinder;
+import com.facebook.buck.jvm.java.ClasspathJarCache;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.rules.ActionGraphCache;
 import com.facebook.buck.rules.Cell;
@@ -78,6 +79,8 @@ public interface AbstractCommandRunnerParams {
 
   Optional<ConcurrentMap<String, WorkerProcessPool>> getPersistentWorkerPools();
 
+  Optional<ClasspathJarCache> getClasspathJarCache();
+
   BuckConfig getBuckConfig();
 
   FileHashCache getFileHashCache();
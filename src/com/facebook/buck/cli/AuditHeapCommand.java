@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.parser.ParserCacheStats;
+import com.facebook.buck.rules.TargetNodeInterner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.kohsuke.args4j.Option;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+
+/**
+ * Reports how much heap the process running buck uses, and how much of the build graph the parser
+ * keeps in it between commands. This is mostly interesting when run against the daemon.
+ */
+public class AuditHeapCommand extends AbstractCommand {
+
+  private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+
+  @Option(name = "--json",
+      usage = "Output in JSON format")
+  private boolean generateJsonOutput;
+
+  @Option(name = "--gc",
+      usage = "Collect garbage before measuring, so that only reachable objects are counted.")
+  private boolean collectGarbage;
+
+  public boolean shouldGenerateJsonOutput() {
+    return generateJsonOutput;
+  }
+
+  public boolean shouldCollectGarbage() {
+    return collectGarbage;
+  }
+
+  @Override
+  public int runWithoutHelp(CommandRunnerParams params) throws IOException, InterruptedException {
+    if (shouldCollectGarbage()) {
+      System.gc();
+    }
+    MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    ImmutableList<ParserCacheStats> cacheStats = params.getParser().getCacheStats();
+    TargetNodeInterner interner = params.getParser().getTargetNodeInterner();
+
+    if (shouldGenerateJsonOutput()) {
+      ImmutableList.Builder<Object> cells = ImmutableList.builder();
+      for (ParserCacheStats stats : cacheStats) {
+        cells.add(
+            ImmutableMap.of(
+                "cell", stats.getCellRoot().toString(),
+                "build_files", stats.getBuildFileCount(),
+                "raw_nodes", stats.getRawNodeCount(),
+                "computed_nodes", stats.getComputedNodeCounts()));
+      }
+      params.getObjectMapper().writeValue(
+          params.getConsole().getStdOut(),
+          ImmutableMap.of(
+              "heap", ImmutableMap.of(
+                  "used", heap.getUsed(),
+                  "committed", heap.getCommitted(),
+                  "max", heap.getMax()),
+              "cells", cells.build(),
+              "interner", ImmutableMap.of(
+                  "lookups", interner.getLookupCount(),
+                  "duplicates", interner.getDuplicateCount())));
+      return 0;
+    }
+
+    PrintStream out = params.getConsole().getStdOut();
+    out.printf(
+        "Heap: %d MB used, %d MB committed, %s max%n",
+        heap.getUsed() / BYTES_PER_MEGABYTE,
+        heap.getCommitted() / BYTES_PER_MEGABYTE,
+        heap.getMax() < 0 ? "no" : (heap.getMax() / BYTES_PER_MEGABYTE) + " MB");
+    for (ParserCacheStats stats : cacheStats) {
+      out.printf(
+          "Cell %s: %d build files, %d raw nodes",
+          stats.getCellRoot(),
+          stats.getBuildFileCount(),
+          stats.getRawNodeCount());
+      for (Map.Entry<String, Integer> entry : stats.getComputedNodeCounts().entrySet()) {
+        out.printf(", %d %s", entry.getValue(), entry.getKey());
+      }
+      out.println();
+    }
+    out.printf(
+        "Interned: %d lookups, %d duplicates shared%n",
+        interner.getLookupCount(),
+        interner.getDuplicateCount());
+    return 0;
+  }
+
+  @Override
+  public boolean isReadOnly() {
+    return true;
+  }
+
+  @Override
+  public String getShortDescription() {
+    return "Reports the heap usage of buck and the size of the parser caches.";
+  }
+}
@@ -21,6 +21,8 @@ import static java.lang.Integer.parseInt;
 import com.facebook.buck.config.Config;
 import com.facebook.buck.config.ConfigView;
 import com.facebook.buck.config.ConfigViewCache;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.EventListenerQueue;
 import com.facebook.buck.io.MorePaths;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.model.BuildTarget;
@@ -52,6 +54,7 @@ import com.facebook.buck.util.environment.EnvironmentFilter;
 import com.facebook.buck.util.environment.Platform;
 import com.facebook.buck.util.network.hostname.HostnameFetching;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicates;
@@ -68,6 +71,7 @@ import java.net.URI;
 import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -563,6 +567,21 @@ public class BuckConfig {
     return getBooleanValue("cache", "action_graph_cache_check_enabled", false);
   }
 
+  /**
+   * Whether the action graph cache carries the rules of unchanged targets over to the action
+   * graph of a changed target graph, instead of building it from scratch.
+   */
+  public boolean isIncrementalActionGraphEnabled() {
+    return getBooleanValue("cache", "incremental_action_graph", false);
+  }
+
+  /**
+   * @return how many threads create the rules of new action graphs.
+   */
+  public int getActionGraphParallelism() {
+    return getBooleanValue("cache", "parallel_action_graph", false) ? getNumThreads() : 1;
+  }
+
   public Optional<String> getRepository() {
     return config.get("cache", "repository");
   }
@@ -942,6 +961,56 @@ public class BuckConfig {
     return getBooleanValue("project", "buck_out_compat_link", false);
   }
 
+  /**
+   * @return whether the daemon should record the hashes of source files in buck-out, so that the
+   *         next daemon does not have to hash them again.
+   */
+  public boolean isPersistentFileHashIndexEnabled() {
+    return getBooleanValue("project", "persistent_file_hash_index", false);
+  }
+
+  /**
+   * @return whether the daemon should subscribe to Watchman and apply file changes as they happen,
+   *         rather than querying for them when each command starts.
+   */
+  public boolean isWatchmanSubscriptionEnabled() {
+    return getBooleanValue("project", "watchman_subscription", false);
+  }
+
+  /**
+   * @return the number of events that each listener of the event bus may have waiting before its
+   *     overflow policy applies.
+   */
+  public int getEventBusListenerQueueCapacity() {
+    return getInteger("event_bus", "listener_queue_capacity")
+        .orElse(BuckEventBus.DEFAULT_LISTENER_QUEUE_CAPACITY);
+  }
+
+  /**
+   * @return the overflow policies of event bus listeners, keyed by the simple name of the
+   *     listener's class. Listeners which are not mentioned block.
+   */
+  public ImmutableMap<String, EventListenerQueue.OverflowPolicy>
+      getEventBusListenerOverflowPolicies() {
+    ImmutableMap.Builder<String, EventListenerQueue.OverflowPolicy> policies =
+        ImmutableMap.builder();
+    for (Map.Entry<String, String> entry : getMap("event_bus", "overflow_policies").entrySet()) {
+      String policy = entry.getValue().trim();
+      try {
+        policies.put(
+            entry.getKey().trim(),
+            EventListenerQueue.OverflowPolicy.valueOf(policy.toUpperCase(Locale.ROOT)));
+      } catch (IllegalArgumentException e) {
+        throw new HumanReadableException(
+            ".buckconfig: event_bus:overflow_policies must map listeners to one of %s " +
+                "(case insensitive) (was \"%s\")",
+            Joiner.on(", ").join(EventListenerQueue.OverflowPolicy.values()),
+            policy);
+      }
+    }
+    return policies.build();
+  }
+
   public ResourceAllocationFairness getResourceAllocationFairness() {
     return config.getEnum(
         RESOURCES_SECTION_HEADER,
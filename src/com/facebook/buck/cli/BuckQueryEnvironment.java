@@ -16,6 +16,7 @@
 
 package com.facebook.buck.cli;
 
+import com.facebook.buck.graph.IndexedDirectedGraph;
 import com.facebook.buck.io.MorePaths;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.json.BuildFileParseException;
@@ -36,7 +37,6 @@ import com.facebook.buck.rules.Cell;
 import com.facebook.buck.rules.TargetGraph;
 import com.facebook.buck.rules.TargetNode;
 import com.facebook.buck.rules.TargetNodes;
-import com.facebook.buck.util.concurrent.MostExecutors;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
@@ -48,6 +48,7 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -55,6 +56,8 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 /**
  * The environment of a Buck query that can evaluate queries to produce a result.
  *
@@ -73,6 +76,12 @@ public class BuckQueryEnvironment implements QueryEnvironment {
   private final Map<BuildTarget, QueryTarget> buildTargetToQueryTarget = new HashMap<>();
 
   private TargetGraph graph = TargetGraph.EMPTY;
+  // Built from graph the first time a transitive closure needs it. Single steps, like those of
+  // deps(x, 1), are taken in graph itself until they stepped from as many nodes as indexing graph
+  // takes, so that a few of them don't pay for the index.
+  @Nullable
+  private IndexedDirectedGraph<TargetNode<?>> graphIndex;
+  private int nodesSteppedFromWithoutIndex = 0;
 
   private BuckQueryEnvironment(
       Cell rootCell,
@@ -185,18 +194,39 @@ public class BuckQueryEnvironment implements QueryEnvironment {
           target,
           target.getClass().getName()));
     }
-    ListeningExecutorService executor = null;
+    BuildTarget buildTarget = ((QueryBuildTarget) target).getBuildTarget();
+    // Nodes already in the graph are looked up there, rather than in the parser's caches.
+    TargetNode<?> node = graph.getInternal(buildTarget);
+    if (node != null && graph.getNodes().contains(node)) {
+      return node;
+    }
     try {
-      executor = com.google.common.util.concurrent.MoreExecutors.listeningDecorator(
-          MostExecutors.newSingleThreadExecutor("buck query.getNode"));
-      return parserState.getTargetNode(((QueryBuildTarget) target).getBuildTarget());
+      return parserState.getTargetNode(buildTarget);
     } catch (BuildTargetException | BuildFileParseException e) {
       throw new QueryException(e, "Error getting target node for %s\n%s", target, e.getMessage());
-    } finally {
-      if (executor != null) {
-        executor.shutdown();
+    }
+  }
+
+  private IndexedDirectedGraph<TargetNode<?>> getGraphIndex() {
+    if (graphIndex == null) {
+      graphIndex = IndexedDirectedGraph.of(graph);
+    }
+    return graphIndex;
+  }
+
+  /**
+   * @return the index to take a step from {@code targets} in, or null if the step should be taken
+   *     in the graph itself.
+   */
+  @Nullable
+  private IndexedDirectedGraph<TargetNode<?>> getGraphIndexForSteps(Iterable<QueryTarget> targets) {
+    if (graphIndex == null) {
+      nodesSteppedFromWithoutIndex += Iterables.size(targets);
+      if (nodesSteppedFromWithoutIndex <= graph.getNodes().size()) {
+        return null;
       }
     }
+    return getGraphIndex();
   }
 
   private QueryTarget getOrCreateQueryBuildTarget(BuildTarget buildTarget) {
@@ -238,41 +268,81 @@ public class BuckQueryEnvironment implements QueryEnvironment {
   @Override
   public Set<QueryTarget> getFwdDeps(Iterable<QueryTarget> targets)
       throws QueryException, InterruptedException {
-    Set<QueryTarget> result = new LinkedHashSet<>();
-    for (QueryTarget target : targets) {
-      TargetNode<?> node = getNode(target);
-      result.addAll(getTargetsFromBuildTargetsContainer(graph.getOutgoingNodesFor(node)));
+    IndexedDirectedGraph<TargetNode<?>> index = getGraphIndexForSteps(targets);
+    if (index == null) {
+      Set<QueryTarget> result = new LinkedHashSet<>();
+      for (QueryTarget target : targets) {
+        TargetNode<?> node = getNode(target);
+        result.addAll(getTargetsFromBuildTargetsContainer(graph.getOutgoingNodesFor(node)));
+      }
+      return result;
     }
-    return result;
+    return getTargetsFromBuildTargetsContainer(
+        index.getNodes(index.getOutgoingNodesFor(getIndexes(index, targets))));
   }
 
   @Override
   public Set<QueryTarget> getReverseDeps(Iterable<QueryTarget> targets)
       throws QueryException, InterruptedException {
-    Set<QueryTarget> result = new LinkedHashSet<>();
+    IndexedDirectedGraph<TargetNode<?>> index = getGraphIndexForSteps(targets);
+    if (index == null) {
+      Set<QueryTarget> result = new LinkedHashSet<>();
+      for (QueryTarget target : targets) {
+        TargetNode<?> node = getNode(target);
+        result.addAll(getTargetsFromBuildTargetsContainer(graph.getIncomingNodesFor(node)));
+      }
+      return result;
+    }
+    return getTargetsFromBuildTargetsContainer(
+        index.getNodes(index.getIncomingNodesFor(getIndexes(index, targets))));
+  }
+
+  /**
+   * @return the indexes of the nodes of {@code targets} which are in the graph. The others have
+   *     no edges in it.
+   */
+  private BitSet getIndexes(
+      IndexedDirectedGraph<TargetNode<?>> index,
+      Iterable<QueryTarget> targets) throws QueryException {
+    BitSet indexes = new BitSet(index.getNodeCount());
     for (QueryTarget target : targets) {
-      TargetNode<?> node = getNode(target);
-      result.addAll(getTargetsFromBuildTargetsContainer(graph.getIncomingNodesFor(node)));
+      int nodeIndex = index.getIndex(getNode(target));
+      if (nodeIndex >= 0) {
+        indexes.set(nodeIndex);
+      }
     }
-    return result;
+    return indexes;
   }
 
   @Override
   public ImmutableSet<QueryTarget> getTransitiveClosure(Set<QueryTarget> targets)
       throws QueryException, InterruptedException {
-    Set<TargetNode<?>> nodes = new LinkedHashSet<>();
+    IndexedDirectedGraph<TargetNode<?>> index = getGraphIndex();
+    BitSet roots = new BitSet(index.getNodeCount());
+    Set<TargetNode<?>> nodesNotInGraph = new LinkedHashSet<>();
     for (QueryTarget target : targets) {
-      nodes.add(getNode(target));
+      TargetNode<?> node = getNode(target);
+      int nodeIndex = index.getIndex(node);
+      if (nodeIndex < 0) {
+        nodesNotInGraph.add(node);
+      } else {
+        roots.set(nodeIndex);
+      }
     }
-    // Reusing the existing getSubgraph() for simplicity. It builds the graph when we only need the
-    // nodes. The impact of creating the edges in terms of time and space should be minimal.
-    return getTargetsFromBuildTargetsContainer(graph.getSubgraph(nodes).getNodes());
+    // Sorted like the other results, but hashed, as callers mostly test the closure for membership.
+    return ImmutableSet.copyOf(
+        getTargetsFromBuildTargetsContainer(
+            Iterables.concat(
+                index.getNodes(index.getTransitiveClosure(roots)),
+                nodesNotInGraph)));
   }
 
   private void buildGraphForBuildTargets(Set<BuildTarget> targets)
       throws QueryException, InterruptedException {
     try {
       graph = parserState.buildTargetGraph(targets);
+      graphIndex = null;
+      nodesSteppedFromWithoutIndex = 0;
     } catch (BuildFileParseException | BuildTargetException | IOException e) {
       throw new QueryException(e, "Error in building dependency graph");
     }
@@ -35,6 +35,7 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.json.BuildFileParseException;
+import com.facebook.buck.jvm.java.ClasspathJarCache;
 import com.facebook.buck.jvm.java.JavaBuckConfig;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargetException;
@@ -284,6 +285,7 @@ public class BuildCommand extends AbstractCommand {
       BuckEventBus eventBus,
       Optional<TargetDevice> targetDevice,
       Optional<ConcurrentMap<String, WorkerProcessPool>> persistentWorkerPools,
+      Optional<ClasspathJarCache> classpathJarCache,
       Platform platform,
       ImmutableMap<String, String> environment,
       ObjectMapper objectMapper,
@@ -317,6 +319,7 @@ public class BuildCommand extends AbstractCommand {
         adbOptions,
         targetDeviceOptions,
         persistentWorkerPools,
+        classpathJarCache,
         executors);
   }
 
@@ -604,6 +607,8 @@ public class BuildCommand extends AbstractCommand {
         params.getActionGraphCache().getActionGraph(
             params.getBuckEventBus(),
             params.getBuckConfig().isActionGraphCheckingEnabled(),
+            params.getBuckConfig().isIncrementalActionGraphEnabled(),
+            params.getBuckConfig().getActionGraphParallelism(),
             targetGraphAndBuildTargets.getTargetGraph(),
             params.getBuckConfig().getKeySeed()));
 
@@ -677,12 +682,15 @@ public class BuildCommand extends AbstractCommand {
             params.getObjectMapper(),
             actionGraphAndResolver.getResolver(),
             rootCellBuckConfig.getKeySeed(),
-            cachingBuildEngineBuckConfig.getResourceAwareSchedulingInfo()),
+            cachingBuildEngineBuckConfig.getResourceAwareSchedulingInfo(),
+            cachingBuildEngineBuckConfig.getCacheFetchBatchingInfo(),
+            cachingBuildEngineBuckConfig.getCachePrefetchInfo()),
         artifactCache,
         params.getConsole(),
         params.getBuckEventBus(),
         Optional.empty(),
         params.getPersistentWorkerPools(),
+        params.getClasspathJarCache(),
         rootCellBuckConfig.getPlatform(),
         rootCellBuckConfig.getEnvironment(),
         params.getObjectMapper(),
@@ -116,12 +116,15 @@ public class FetchCommand extends BuildCommand {
               params.getObjectMapper(),
               actionGraphAndResolver.getResolver(),
               params.getBuckConfig().getKeySeed(),
-              cachingBuildEngineBuckConfig.getResourceAwareSchedulingInfo()),
+              cachingBuildEngineBuckConfig.getResourceAwareSchedulingInfo(),
+              cachingBuildEngineBuckConfig.getCacheFetchBatchingInfo(),
+              cachingBuildEngineBuckConfig.getCachePrefetchInfo()),
           params.getArtifactCache(),
           params.getConsole(),
           params.getBuckEventBus(),
           Optional.empty(),
           params.getPersistentWorkerPools(),
+          params.getClasspathJarCache(),
           params.getPlatform(),
           params.getEnvironment(),
           params.getObjectMapper(),
@@ -141,7 +141,9 @@ final class JavaBuildGraphProcessor {
           params.getObjectMapper(),
           buildRuleResolver,
           params.getBuckConfig().getKeySeed(),
-          cachingBuildEngineBuckConfig.getResourceAwareSchedulingInfo());
+          cachingBuildEngineBuckConfig.getResourceAwareSchedulingInfo(),
+          cachingBuildEngineBuckConfig.getCacheFetchBatchingInfo(),
+          cachingBuildEngineBuckConfig.getCachePrefetchInfo());
 
       // Create a BuildEngine because we store symbol information as build artifacts.
       BuckEventBus eventBus = params.getBuckEventBus();
@@ -32,11 +32,13 @@ import com.facebook.buck.config.Config;
 import com.facebook.buck.config.Configs;
 import com.facebook.buck.counters.CounterRegistry;
 import com.facebook.buck.counters.CounterRegistryImpl;
+import com.facebook.buck.counters.EventListenerQueueCounter;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventListener;
 import com.facebook.buck.event.CommandEvent;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.DaemonEvent;
+import com.facebook.buck.event.EventListenerQueue;
 import com.facebook.buck.event.listener.AbstractConsoleEventBusListener;
 import com.facebook.buck.event.listener.BroadcastEventListener;
 import com.facebook.buck.event.listener.CacheRateStatsListener;
@@ -62,6 +64,8 @@ import com.facebook.buck.io.ProjectWatch;
 import com.facebook.buck.io.Watchman;
 import com.facebook.buck.io.WatchmanCursor;
 import com.facebook.buck.io.WatchmanDiagnosticEventListener;
+import com.facebook.buck.io.WatchmanSubscription;
+import com.facebook.buck.jvm.java.ClasspathJarCache;
 import com.facebook.buck.jvm.java.JavaBuckConfig;
 import com.facebook.buck.jvm.java.JavacOptions;
 import com.facebook.buck.log.CommandThreadFactory;
@@ -111,6 +115,7 @@ import com.facebook.buck.util.WatchmanWatcher;
 import com.facebook.buck.util.WatchmanWatcherException;
 import com.facebook.buck.util.cache.DefaultFileHashCache;
 import com.facebook.buck.util.cache.FileHashCache;
+import com.facebook.buck.util.cache.PersistentFileHashIndex;
 import com.facebook.buck.util.cache.StackedFileHashCache;
 import com.facebook.buck.util.cache.WatchedFileHashCache;
 import com.facebook.buck.util.concurrent.MostExecutors;
@@ -324,22 +329,27 @@ public final class Main {
 
     private final Cell cell;
     private final Parser parser;
+    private final Optional<PersistentFileHashIndex> persistentFileHashIndex;
     private final DefaultFileHashCache hashCache;
     private final FileHashCache buckOutHashCache;
     private final EventBus fileEventBus;
     private final Optional<WebServer> webServer;
     private final ConcurrentMap<String, WorkerProcessPool> persistentWorkerPools;
+    private final Optional<ClasspathJarCache> classpathJarCache;
     private final ActionGraphCache actionGraphCache;
     private final BroadcastEventListener broadcastEventListener;
 
     private WatchmanCursor cursor;
+    private Optional<WatchmanSubscription> watchmanSubscription = Optional.empty();
+    private Optional<Thread> watchmanChangesThread = Optional.empty();
 
     public Daemon(
         Cell cell,
         ObjectMapper objectMapper,
         Optional<WebServer> webServerToReuse) {
       this.cell = cell;
-      this.hashCache = new WatchedFileHashCache(cell.getFilesystem());
+      this.persistentFileHashIndex = openPersistentFileHashIndex(cell);
+      this.hashCache = new WatchedFileHashCache(cell.getFilesystem(), persistentFileHashIndex);
         this.buckOutHashCache =
             DefaultFileHashCache.createBuckOutFileHashCache(
                 createProjectFilesystem(cell.getFilesystem().getRootPath()),
@@ -382,9 +392,26 @@ public final class Main {
         LOG.debug("Using a named Watchman Cursor: %s", cursor.get());
       }
       persistentWorkerPools = new ConcurrentHashMap<>();
+      classpathJarCache = cell.getBuckConfig().getView(JavaBuckConfig.class)
+          .getClasspathJarCacheMaxSizeBytes()
+          .map(ClasspathJarCache::new);
       JavaUtilsLoggingBuildListener.ensureLogFileIsWritten(cell.getFilesystem());
     }
 
+    private static Optional<PersistentFileHashIndex> openPersistentFileHashIndex(Cell cell) {
+      if (!cell.getBuckConfig().isPersistentFileHashIndexEnabled()) {
+        return Optional.empty();
+      }
+      ProjectFilesystem filesystem = cell.getFilesystem();
+      try {
+        return PersistentFileHashIndex.open(
+            filesystem.resolve(filesystem.getBuckPaths().getBuckOut().resolve("file_hashes")));
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to open the persistent file hash index.");
+        return Optional.empty();
+      }
+    }
+
     private Optional<WebServer> createWebServer(
         BuckConfig config,
         ProjectFilesystem filesystem,
@@ -460,6 +487,10 @@ public final class Main {
       return persistentWorkerPools;
     }
 
+    private Optional<ClasspathJarCache> getClasspathJarCache() {
+      return classpathJarCache;
+    }
+
     private void watchClient(final NGContext context) {
       context.addClientListener(() -> {
         if (isSessionLeader && commandSemaphoreNgClient.orElse(null) == context) {
@@ -529,10 +560,95 @@ public final class Main {
       return cursor;
     }
 
+    /**
+     * Makes {@code watchmanWatcher} catch up with the Watchman subscription of the daemon, if it
+     * is enabled, subscribing first if there is no subscription yet or the last one was lost.
+     * Otherwise, the watcher keeps querying for changes. Between commands, the changes of the
+     * subscription are applied in the background as they arrive.
+     */
+    private synchronized void useWatchmanSubscription(
+        WatchmanWatcher watchmanWatcher,
+        Watchman watchman,
+        WatchmanWatcher.FreshInstanceAction watchmanFreshInstanceAction)
+        throws InterruptedException {
+      if (!cell.getBuckConfig().isWatchmanSubscriptionEnabled() ||
+          !watchman.getCapabilities().contains(Watchman.Capability.FLUSH_SUBSCRIPTIONS) ||
+          !watchman.getSocketPath().isPresent()) {
+        return;
+      }
+      if (watchmanSubscription.isPresent() && watchmanSubscription.get().isAlive()) {
+        watchmanWatcher.useSubscription(watchmanSubscription.get());
+        return;
+      }
+      try {
+        closeWatchmanSubscription();
+        WatchmanSubscription subscription = watchmanWatcher.subscribe(
+            watchman.getSocketPath().get(),
+            "buckd-" + UUID.randomUUID(),
+            watchmanFreshInstanceAction);
+        watchmanSubscription = Optional.of(subscription);
+        Thread thread = new Thread(
+            () -> applyWatchmanChanges(subscription, watchmanWatcher),
+            "Watchman subscription changes");
+        thread.setDaemon(true);
+        thread.start();
+        watchmanChangesThread = Optional.of(thread);
+      } catch (IOException e) {
+        LOG.warn(e, "Could not subscribe to Watchman, querying for changes instead.");
+      }
+    }
+
+    /**
+     * Posts the changes of {@code subscription} as they are queued, each time holding the command
+     * lock, so that no command runs meanwhile, and the parser, as {@link #watchFileSystem} does.
+     * Commands only post the changes queued since, once they start.
+     */
+    private void applyWatchmanChanges(
+        WatchmanSubscription subscription,
+        WatchmanWatcher watchmanWatcher) {
+      try {
+        while (subscription.awaitChanges()) {
+          commandSemaphore.acquire();
+          try {
+            synchronized (parser) {
+              watchmanWatcher.postQueuedEvents();
+            }
+          } finally {
+            commandSemaphore.release();
+          }
+        }
+      } catch (WatchmanWatcherException e) {
+        LOG.error(e, "Error in Watchman subscription, closing it.");
+        try {
+          subscription.close();
+        } catch (IOException closeException) {
+          LOG.warn(closeException, "Could not close the Watchman subscription");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      LOG.debug("Stopped applying the changes of the Watchman subscription.");
+    }
+
+    private synchronized void closeWatchmanSubscription() throws IOException {
+      if (watchmanChangesThread.isPresent()) {
+        watchmanChangesThread.get().interrupt();
+        watchmanChangesThread = Optional.empty();
+      }
+      if (watchmanSubscription.isPresent()) {
+        watchmanSubscription.get().close();
+        watchmanSubscription = Optional.empty();
+      }
+    }
+
     @Override
     public void close() throws IOException {
+      closeWatchmanSubscription();
       shutdownPersistentWorkerPools();
       shutdownWebServer();
+      if (persistentFileHashIndex.isPresent()) {
+        persistentFileHashIndex.get().close();
+      }
     }
 
     private void shutdownPersistentWorkerPools() {
@@ -608,13 +724,17 @@ public final class Main {
       ProjectWatch projectWatch,
       EventBus fileChangeEventBus,
       ImmutableSet<PathOrGlobMatcher> ignorePaths,
-      Watchman watchman) {
-    return new WatchmanWatcher(
+      Watchman watchman,
+      WatchmanWatcher.FreshInstanceAction watchmanFreshInstanceAction)
+      throws InterruptedException {
+    WatchmanWatcher watchmanWatcher = new WatchmanWatcher(
         projectWatch,
         fileChangeEventBus,
         ignorePaths,
         watchman,
         daemon.getWatchmanCursor());
+    daemon.useWatchmanSubscription(watchmanWatcher, watchman, watchmanFreshInstanceAction);
+    return watchmanWatcher;
   }
 
   private static BroadcastEventListener getBroadcastEventListener(
@@ -992,6 +1112,8 @@ public final class Main {
         Optional<WebServer> webServer = getWebServerIfDaemon(context, rootCell);
         Optional<ConcurrentMap<String, WorkerProcessPool>> persistentWorkerPools =
             getPersistentWorkerPoolsIfDaemon(context, rootCell);
+        Optional<ClasspathJarCache> classpathJarCache =
+            getClasspathJarCacheIfDaemon(context, rootCell);
 
         TestConfig testConfig = new TestConfig(buckConfig);
         ArtifactCacheBuckConfig cacheBuckConfig = new ArtifactCacheBuckConfig(buckConfig);
@@ -1051,7 +1173,12 @@ public final class Main {
                     locale,
                     filesystem.getBuckPaths().getLogDir().resolve("test.log"));
             AsyncCloseable asyncCloseable = new AsyncCloseable(diskIoExecutorService);
-            BuckEventBus buildEventBus = new BuckEventBus(clock, buildId);
+            BuckEventBus buildEventBus = new BuckEventBus(
+                clock,
+                /* async */ true,
+                buildId,
+                BuckEventBus.DEFAULT_SHUTDOWN_TIMEOUT_MS,
+                buckConfig.getEventBusListenerQueueCapacity());
             BroadcastEventListener.BroadcastEventBusClosable broadcastEventBusClosable =
                 broadcastEventListener.addEventBus(buildEventBus);
 
@@ -1171,7 +1298,8 @@ public final class Main {
                       .addAll(filesystem.getIgnorePaths())
                       .addAll(DEFAULT_IGNORE_GLOBS)
                       .build(),
-                  watchman);
+                  watchman,
+                  watchmanFreshInstanceAction);
               parser = getParserFromDaemon(
                   context,
                   rootCell,
@@ -1235,6 +1363,9 @@ public final class Main {
             }
           }
 
+          counterRegistry.registerCounters(
+              EventListenerQueueCounter.forListenersOf(buildEventBus));
+
           exitCode = command.run(
               CommandRunnerParams.builder()
                   .setConsole(console)
@@ -1253,6 +1384,7 @@ public final class Main {
                   .setClock(clock)
                   .setProcessManager(processManager)
                   .setPersistentWorkerPools(persistentWorkerPools)
+                  .setClasspathJarCache(classpathJarCache)
                   .setWebServer(webServer)
                   .setBuckConfig(buckConfig)
                   .setFileHashCache(fileHashCache)
@@ -1591,6 +1723,17 @@ public final class Main {
     return Optional.empty();
   }
 
+  private Optional<ClasspathJarCache> getClasspathJarCacheIfDaemon(
+      Optional<NGContext> context,
+      Cell cell)
+      throws IOException {
+    if (context.isPresent()) {
+      Daemon daemon = getDaemon(cell, objectMapper);
+      return daemon.getClasspathJarCache();
+    }
+    return Optional.empty();
+  }
+
   private void loadListenersFromBuckConfig(
       ImmutableList.Builder<BuckEventListener> eventListeners,
       ProjectFilesystem projectFilesystem,
@@ -1723,7 +1866,15 @@ public final class Main {
     eventListenersBuilder.add(new WatchmanDiagnosticEventListener(buckEventBus));
 
     ImmutableList<BuckEventListener> eventListeners = eventListenersBuilder.build();
-    eventListeners.forEach(buckEventBus::register);
+    ImmutableMap<String, EventListenerQueue.OverflowPolicy> overflowPolicies =
+        config.getEventBusListenerOverflowPolicies();
+    for (BuckEventListener eventListener : eventListeners) {
+      buckEventBus.register(
+          eventListener,
+          overflowPolicies.getOrDefault(
+              eventListener.getClass().getSimpleName(),
+              EventListenerQueue.OverflowPolicy.BLOCK));
+    }
 
 
     return eventListeners;
@@ -21,53 +21,51 @@ import com.facebook.buck.query.QueryBuildTarget;
 import com.facebook.buck.query.QueryFileTarget;
 import com.facebook.buck.query.QueryTarget;
 import com.facebook.buck.rules.BuildTargetSourcePath;
+import com.facebook.buck.rules.CoercedTypeCache;
 import com.facebook.buck.rules.ParamInfo;
 import com.facebook.buck.rules.PathSourcePath;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.TargetNode;
 import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
-import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.ObjectMappers;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 
-import java.lang.reflect.Field;
 import java.nio.file.Path;
 
+import javax.annotation.Nullable;
+
 public class QueryTargetAccessor {
 
-  private static final TypeCoercerFactory typeCoercerFactory = new DefaultTypeCoercerFactory(
-      ObjectMappers.newDefaultInstance());
+  private static final CoercedTypeCache coercedTypes = new CoercedTypeCache(
+      new DefaultTypeCoercerFactory(ObjectMappers.newDefaultInstance()));
 
   private QueryTargetAccessor() { }
 
   public static <T> ImmutableSet<QueryTarget> getTargetsInAttribute(
       TargetNode<T> node,
       String attribute) {
-    try {
-      final ImmutableSet.Builder<QueryTarget> builder = ImmutableSortedSet.naturalOrder();
-      Class<?> constructorArgClass = node.getConstructorArg().getClass();
-      Field field = constructorArgClass.getField(attribute);
-      ParamInfo info = new ParamInfo(typeCoercerFactory, constructorArgClass, field);
-      info.traverse(
-          value -> {
-            if (value instanceof Path) {
-              builder.add(QueryFileTarget.of((Path) value));
-            } else if (value instanceof SourcePath) {
-              builder.add(extractSourcePath((SourcePath) value));
-            } else if (value instanceof HasBuildTarget) {
-              builder.add(extractBuildTargetContainer((HasBuildTarget) value));
-            }
-          },
-          node.getConstructorArg()
-      );
-      return builder.build();
-    } catch (NoSuchFieldException e) {
+    ParamInfo info = getParamInfo(node, attribute);
+    if (info == null) {
       // Ignore if the field does not exist in this rule.
       return ImmutableSet.of();
     }
+    final ImmutableSet.Builder<QueryTarget> builder = ImmutableSortedSet.naturalOrder();
+    info.traverse(
+        value -> {
+          if (value instanceof Path) {
+            builder.add(QueryFileTarget.of((Path) value));
+          } else if (value instanceof SourcePath) {
+            builder.add(extractSourcePath((SourcePath) value));
+          } else if (value instanceof HasBuildTarget) {
+            builder.add(extractBuildTargetContainer((HasBuildTarget) value));
+          }
+        },
+        node.getConstructorArg()
+    );
+    return builder.build();
   }
 
   /**
@@ -77,24 +75,26 @@ public class QueryTargetAccessor {
       TargetNode<T> node,
       String attribute,
       final Predicate<Object> predicate) {
-    try {
-      final ImmutableSet.Builder<Object> builder = ImmutableSet.builder();
-      Class<?> constructorArgClass = node.getConstructorArg().getClass();
-      Field field = constructorArgClass.getField(attribute);
-      ParamInfo info = new ParamInfo(typeCoercerFactory, constructorArgClass, field);
-      info.traverse(
-          value -> {
-            if (predicate.apply(value)) {
-              builder.add(value);
-            }
-          },
-          node.getConstructorArg()
-      );
-      return builder.build();
-    } catch (NoSuchFieldException e) {
+    ParamInfo info = getParamInfo(node, attribute);
+    if (info == null) {
       // Ignore if the field does not exist in this rule.
       return ImmutableSet.of();
     }
+    final ImmutableSet.Builder<Object> builder = ImmutableSet.builder();
+    info.traverse(
+        value -> {
+          if (predicate.apply(value)) {
+            builder.add(value);
+          }
+        },
+        node.getConstructorArg()
+    );
+    return builder.build();
+  }
+
+  @Nullable
+  private static ParamInfo getParamInfo(TargetNode<?> node, String attribute) {
+    return coercedTypes.getParamInfo(node.getConstructorArg().getClass(), attribute);
   }
 
   public static QueryTarget extractSourcePath(SourcePath sourcePath) {
@@ -484,6 +484,8 @@ public class TestCommand extends BuildCommand {
           params.getActionGraphCache().getActionGraph(
               params.getBuckEventBus(),
               params.getBuckConfig().isActionGraphCheckingEnabled(),
+              params.getBuckConfig().isIncrementalActionGraphEnabled(),
+              params.getBuckConfig().getActionGraphParallelism(),
               targetGraph,
               params.getBuckConfig().getKeySeed()));
       // Look up all of the test rules in the action graph.
@@ -516,7 +518,9 @@ public class TestCommand extends BuildCommand {
               params.getObjectMapper(),
               actionGraphAndResolver.getResolver(),
               params.getBuckConfig().getKeySeed(),
-              cachingBuildEngineBuckConfig.getResourceAwareSchedulingInfo());
+              cachingBuildEngineBuckConfig.getResourceAwareSchedulingInfo(),
+              cachingBuildEngineBuckConfig.getCacheFetchBatchingInfo(),
+              cachingBuildEngineBuckConfig.getCachePrefetchInfo());
       try (Build build = createBuild(
           params.getBuckConfig(),
           actionGraphAndResolver.getActionGraph(),
@@ -529,6 +533,7 @@ public class TestCommand extends BuildCommand {
           params.getBuckEventBus(),
           getTargetDeviceOptional(),
           params.getPersistentWorkerPools(),
+          params.getClasspathJarCache(),
           params.getPlatform(),
           params.getEnvironment(),
           params.getObjectMapper(),
@@ -115,6 +115,8 @@ public class UninstallCommand extends AbstractCommand {
           params.getActionGraphCache().getActionGraph(
               params.getBuckEventBus(),
               params.getBuckConfig().isActionGraphCheckingEnabled(),
+              params.getBuckConfig().isIncrementalActionGraphEnabled(),
+              params.getBuckConfig().getActionGraphParallelism(),
               result.getTargetGraph(),
               params.getBuckConfig().getKeySeed())
           ).getResolver();
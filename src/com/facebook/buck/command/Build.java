@@ -25,6 +25,7 @@ import com.facebook.buck.event.ThrowableConsoleEvent;
 import com.facebook.buck.io.BuckPaths;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.jvm.core.JavaPackageFinder;
+import com.facebook.buck.jvm.java.ClasspathJarCache;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.model.BuildTarget;
@@ -120,6 +121,7 @@ public class Build implements Closeable {
       Optional<AdbOptions> adbOptions,
       Optional<TargetDeviceOptions> targetDeviceOptions,
       Optional<ConcurrentMap<String, WorkerProcessPool>> persistentWorkerPools,
+      Optional<ClasspathJarCache> classpathJarCache,
       Map<ExecutorPool, ListeningExecutorService> executors) {
     this.actionGraph = actionGraph;
     this.ruleResolver = ruleResolver;
@@ -140,6 +142,7 @@ public class Build implements Closeable {
         .setConcurrencyLimit(concurrencyLimit)
         .setAdbOptions(adbOptions)
         .setPersistentWorkerPools(persistentWorkerPools)
+        .setClasspathJarCache(classpathJarCache)
         .setTargetDeviceOptions(targetDeviceOptions)
         .setExecutors(executors)
         .build();
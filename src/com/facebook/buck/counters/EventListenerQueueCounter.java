@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.counters;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.EventListenerQueue;
+import com.facebook.buck.util.MoreCollectors;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Optional;
+
+/**
+ * Reports how well an event bus listener keeps up: the deepest its queue got, and how many
+ * posted events had to wait, were dropped, were coalesced or spilled past its capacity.
+ */
+public class EventListenerQueueCounter extends Counter {
+
+  public static final String CATEGORY = "buck_event_bus";
+
+  private final EventListenerQueue queue;
+  private long lastBlockedPosts;
+  private long lastDroppedEvents;
+  private long lastCoalescedEvents;
+  private long lastSpilledEvents;
+
+  public EventListenerQueueCounter(EventListenerQueue queue) {
+    super(
+        CATEGORY,
+        "listener_queue",
+        ImmutableMap.of(
+            "listener", queue.getListenerName(),
+            "overflow_policy", queue.getOverflowPolicy().toString()));
+    this.queue = queue;
+  }
+
+  public static ImmutableList<Counter> forListenersOf(BuckEventBus eventBus) {
+    return eventBus.getListenerQueues().stream()
+        .map(EventListenerQueueCounter::new)
+        .collect(MoreCollectors.toImmutableList());
+  }
+
+  @Override
+  public Optional<CounterSnapshot> flush() {
+    synchronized (this) {
+      int maxDepth = queue.takeMaxDepth();
+      long blockedPosts = queue.getBlockedPosts();
+      long droppedEvents = queue.getDroppedEvents();
+      long coalescedEvents = queue.getCoalescedEvents();
+      long spilledEvents = queue.getSpilledEvents();
+      CounterSnapshot snapshot = CounterSnapshot.builderForCounter(this)
+          .putValues("max_queue_depth", maxDepth)
+          .putValues("blocked_posts", blockedPosts - lastBlockedPosts)
+          .putValues("dropped_events", droppedEvents - lastDroppedEvents)
+          .putValues("coalesced_events", coalescedEvents - lastCoalescedEvents)
+          .putValues("spilled_events", spilledEvents - lastSpilledEvents)
+          .build();
+      lastBlockedPosts = blockedPosts;
+      lastDroppedEvents = droppedEvents;
+      lastCoalescedEvents = coalescedEvents;
+      lastSpilledEvents = spilledEvents;
+      if (snapshot.getValues().values().stream().allMatch(value -> value == 0)) {
+        return Optional.empty();
+      }
+      return Optional.of(snapshot);
+    }
+  }
+}
@@ -148,20 +148,15 @@ abstract class AbstractCxxSourceRuleFactory {
    * files in a target, and m is the number of targets.
    */
   private BuildRule requireAggregatedPreprocessDepsRule() {
-    BuildTarget target = createAggregatedPreprocessDepsBuildTarget();
-    Optional<DependencyAggregation> existingRule =
-        getResolver().getRuleOptionalWithType(target, DependencyAggregation.class);
-    if (existingRule.isPresent()) {
-      return existingRule.get();
-    } else {
-      BuildRuleParams params = getParams().copyWithChanges(
-          target,
-          Suppliers.ofInstance(getPreprocessDeps()),
-          Suppliers.ofInstance(ImmutableSortedSet.of()));
-      DependencyAggregation rule = new DependencyAggregation(params, getPathResolver());
-      getResolver().addToIndex(rule);
-      return rule;
-    }
+    return getResolver().computeIfAbsent(
+        createAggregatedPreprocessDepsBuildTarget(),
+        DependencyAggregation.class,
+        target -> new DependencyAggregation(
+            getParams().copyWithChanges(
+                target,
+                Suppliers.ofInstance(getPreprocessDeps()),
+                Suppliers.ofInstance(ImmutableSortedSet.of())),
+            getPathResolver()));
   }
 
   @VisibleForTesting
@@ -277,13 +272,10 @@ abstract class AbstractCxxSourceRuleFactory {
 
   @VisibleForTesting
   CxxPreprocessAndCompile requirePreprocessBuildRule(String name, CxxSource source) {
-    BuildTarget target = createPreprocessBuildTarget(name, source.getType());
-    Optional<CxxPreprocessAndCompile> existingRule = getResolver().getRuleOptionalWithType(
-        target, CxxPreprocessAndCompile.class);
-    if (existingRule.isPresent()) {
-      return existingRule.get();
-    }
-    return createPreprocessBuildRule(name, source);
+    return getResolver().computeIfAbsent(
+        createPreprocessBuildTarget(name, source.getType()),
+        CxxPreprocessAndCompile.class,
+        target -> createPreprocessBuildRule(name, source));
   }
 
   /**
@@ -424,19 +416,15 @@ abstract class AbstractCxxSourceRuleFactory {
   @VisibleForTesting
   CxxPreprocessAndCompile requireCompileBuildRule(String name, CxxSource source) {
 
-    BuildTarget target = createCompileBuildTarget(name);
-    Optional<CxxPreprocessAndCompile> existingRule = getResolver().getRuleOptionalWithType(
-        target, CxxPreprocessAndCompile.class);
-    if (existingRule.isPresent()) {
-      if (!existingRule.get().getInput().equals(source.getPath())) {
-        throw new RuntimeException(
-            String.format("Hash collision for %s; a build rule would have been ignored.", name));
-      }
-      return existingRule.get();
+    CxxPreprocessAndCompile rule = getResolver().computeIfAbsent(
+        createCompileBuildTarget(name),
+        CxxPreprocessAndCompile.class,
+        target -> createCompileBuildRule(name, source));
+    if (!rule.getInput().equals(source.getPath())) {
+      throw new RuntimeException(
+          String.format("Hash collision for %s; a build rule would have been ignored.", name));
     }
-
-    return createCompileBuildRule(name, source);
-
+    return rule;
   }
 
   private CxxToolFlags computePreprocessorFlags(
@@ -475,15 +463,10 @@ abstract class AbstractCxxSourceRuleFactory {
       String name,
       CxxSource source,
       InferBuckConfig inferConfig) {
-    BuildTarget target = createInferCaptureBuildTarget(name);
-
-    Optional<CxxInferCapture> existingRule = getResolver().getRuleOptionalWithType(
-        target, CxxInferCapture.class);
-    if (existingRule.isPresent()) {
-      return existingRule.get();
-    }
-
-    return createInferCaptureBuildRule(target, name, source, inferConfig);
+    return getResolver().computeIfAbsent(
+        createInferCaptureBuildTarget(name),
+        CxxInferCapture.class,
+        target -> createInferCaptureBuildRule(target, name, source, inferConfig));
   }
 
   public CxxInferCapture createInferCaptureBuildRule(
@@ -590,18 +573,15 @@ abstract class AbstractCxxSourceRuleFactory {
       CxxSource source,
       CxxPreprocessMode strategy) {
 
-    BuildTarget target = createCompileBuildTarget(name);
-    Optional<CxxPreprocessAndCompile> existingRule = getResolver().getRuleOptionalWithType(
-        target, CxxPreprocessAndCompile.class);
-    if (existingRule.isPresent()) {
-      if (!existingRule.get().getInput().equals(source.getPath())) {
-        throw new RuntimeException(
-            String.format("Hash collision for %s; a build rule would have been ignored.", name));
-      }
-      return existingRule.get();
+    CxxPreprocessAndCompile rule = getResolver().computeIfAbsent(
+        createCompileBuildTarget(name),
+        CxxPreprocessAndCompile.class,
+        target -> createPreprocessAndCompileBuildRule(name, source, strategy));
+    if (!rule.getInput().equals(source.getPath())) {
+      throw new RuntimeException(
+          String.format("Hash collision for %s; a build rule would have been ignored.", name));
     }
-
-    return createPreprocessAndCompileBuildRule(name, source, strategy);
+    return rule;
   }
 
   @VisibleForTesting
@@ -636,11 +616,21 @@ abstract class AbstractCxxSourceRuleFactory {
         .addFlavors(getCxxPlatform().getFlavor())
         .addFlavors(ImmutableFlavor.of(Flavor.replaceInvalidCharacters(pchIdentifier)))
         .build();
-    Optional<CxxPrecompiledHeader> existingRule =
-        getResolver().getRuleOptionalWithType(target, CxxPrecompiledHeader.class);
-    if (existingRule.isPresent()) {
-      return existingRule.get();
-    }
+    return getResolver().computeIfAbsent(
+        target,
+        CxxPrecompiledHeader.class,
+        pchTarget -> createPrecompiledHeaderBuildRule(
+            pchTarget,
+            preprocessorDelegateCacheValue,
+            source,
+            compilerFlags));
+  }
+
+  private CxxPrecompiledHeader createPrecompiledHeaderBuildRule(
+      BuildTarget target,
+      PreprocessorDelegateCacheValue preprocessorDelegateCacheValue,
+      CxxSource source,
+      CxxToolFlags compilerFlags) {
     Path output = BuildTargets.getGenPath(getParams().getProjectFilesystem(), target, "%s.gch");
     PreprocessorDelegate preprocessorDelegate =
         preprocessorDelegateCacheValue.getPreprocessorDelegate();
@@ -656,7 +646,7 @@ abstract class AbstractCxxSourceRuleFactory {
             compiler,
             computeCompilerFlags(source.getType(), source.getFlags()));
     SourcePath path = Preconditions.checkNotNull(preprocessorDelegate.getPrefixHeader().get());
-    CxxPrecompiledHeader rule = new CxxPrecompiledHeader(
+    return new CxxPrecompiledHeader(
         getParams().copyWithChanges(
             target,
             Suppliers.ofInstance(
@@ -675,8 +665,6 @@ abstract class AbstractCxxSourceRuleFactory {
         source.getType(),
         getCxxPlatform().getCompilerDebugPathSanitizer(),
         getCxxPlatform().getAssemblerDebugPathSanitizer());
-    getResolver().addToIndex(rule);
-    return rule;
   }
 
   public ImmutableSet<CxxInferCapture> requireInferCaptureBuildRules(
@@ -144,26 +144,25 @@ public final class CxxInferEnhancer {
 
     BuildRuleParams paramsWithInferFlavor = cleanParams.withFlavor(InferFlavors.INFER.get());
 
-    Optional<CxxInferComputeReport> existingRule = resolver.getRuleOptionalWithType(
-        paramsWithInferFlavor.getBuildTarget(), CxxInferComputeReport.class);
-    if (existingRule.isPresent()) {
-      return existingRule.get();
-    }
-
-    CxxInferAnalyze analysisRule = requireInferAnalyzeBuildRuleForCxxDescriptionArg(
-        cleanParams,
-        resolver,
-        pathResolver,
-        cxxBuckConfig,
-        cxxPlatform,
-        args,
-        inferConfig,
-        sourceFilter);
-    return createInferReportRule(
-        paramsWithInferFlavor,
-        resolver,
-        pathResolver,
-        analysisRule);
+    return resolver.computeIfAbsent(
+        paramsWithInferFlavor.getBuildTarget(),
+        CxxInferComputeReport.class,
+        target -> {
+          CxxInferAnalyze analysisRule = requireInferAnalyzeBuildRuleForCxxDescriptionArg(
+              cleanParams,
+              resolver,
+              pathResolver,
+              cxxBuckConfig,
+              cxxPlatform,
+              args,
+              inferConfig,
+              sourceFilter);
+          return createInferReportRule(
+              paramsWithInferFlavor,
+              resolver,
+              pathResolver,
+              analysisRule);
+        });
   }
 
   private static <T extends BuildRule> CxxInferCaptureAndAggregatingRules<T>
@@ -223,30 +222,29 @@ public final class CxxInferEnhancer {
         .paramsWithoutAnyInferFlavor(params)
         .withFlavor(inferAnalyze);
 
-    Optional<CxxInferAnalyze> existingRule = resolver.getRuleOptionalWithType(
-        paramsWithInferAnalyzeFlavor.getBuildTarget(), CxxInferAnalyze.class);
-    if (existingRule.isPresent()) {
-      return existingRule.get();
-    }
-
-    CxxInferCaptureAndAggregatingRules<CxxInferAnalyze> cxxInferCaptureAndAnalyzeRules =
-        requireTransitiveCaptureAndAggregatingRules(
-            params,
-            resolver,
-            cxxBuckConfig,
-            cxxPlatform,
-            args,
-            inferConfig,
-            sourceFilter,
-            inferAnalyze,
-            CxxInferAnalyze.class);
-
-    return createInferAnalyzeRule(
-        paramsWithInferAnalyzeFlavor,
-        resolver,
-        pathResolver,
-        inferConfig,
-        cxxInferCaptureAndAnalyzeRules);
+    return resolver.computeIfAbsent(
+        paramsWithInferAnalyzeFlavor.getBuildTarget(),
+        CxxInferAnalyze.class,
+        target -> {
+          CxxInferCaptureAndAggregatingRules<CxxInferAnalyze> cxxInferCaptureAndAnalyzeRules =
+              requireTransitiveCaptureAndAggregatingRules(
+                  params,
+                  resolver,
+                  cxxBuckConfig,
+                  cxxPlatform,
+                  args,
+                  inferConfig,
+                  sourceFilter,
+                  inferAnalyze,
+                  CxxInferAnalyze.class);
+
+          return createInferAnalyzeRule(
+              paramsWithInferAnalyzeFlavor,
+              resolver,
+              pathResolver,
+              inferConfig,
+              cxxInferCaptureAndAnalyzeRules);
+        });
   }
 
   public static CxxInferCaptureRulesAggregator
@@ -266,29 +264,28 @@ public final class CxxInferEnhancer {
         .paramsWithoutAnyInferFlavor(params)
         .withFlavor(inferCaptureOnly);
 
-    Optional<CxxInferCaptureRulesAggregator> existingRule = resolver.getRuleOptionalWithType(
-        paramsWithInferCaptureOnlyFlavor.getBuildTarget(), CxxInferCaptureRulesAggregator.class);
-    if (existingRule.isPresent()) {
-      return existingRule.get();
-    }
-
-    CxxInferCaptureAndAggregatingRules<CxxInferCaptureRulesAggregator>
-        cxxInferCaptureAndAnalyzeRules = requireTransitiveCaptureAndAggregatingRules(
-            params,
-            resolver,
-            cxxBuckConfig,
-            cxxPlatform,
-            args,
-            inferConfig,
-            sourceFilter,
-            inferCaptureOnly,
-            CxxInferCaptureRulesAggregator.class);
-
-    return createInferCaptureAggregatorRule(
-        paramsWithInferCaptureOnlyFlavor,
-        resolver,
-        pathResolver,
-        cxxInferCaptureAndAnalyzeRules);
+    return resolver.computeIfAbsent(
+        paramsWithInferCaptureOnlyFlavor.getBuildTarget(),
+        CxxInferCaptureRulesAggregator.class,
+        target -> {
+          CxxInferCaptureAndAggregatingRules<CxxInferCaptureRulesAggregator>
+              cxxInferCaptureAndAnalyzeRules = requireTransitiveCaptureAndAggregatingRules(
+                  params,
+                  resolver,
+                  cxxBuckConfig,
+                  cxxPlatform,
+                  args,
+                  inferConfig,
+                  sourceFilter,
+                  inferCaptureOnly,
+                  CxxInferCaptureRulesAggregator.class);
+
+          return createInferCaptureAggregatorRule(
+              paramsWithInferCaptureOnlyFlavor,
+              resolver,
+              pathResolver,
+              cxxInferCaptureAndAnalyzeRules);
+        });
   }
 
   private static <T extends BuildRule> ImmutableSet<T> requireTransitiveDependentLibraries(
@@ -47,9 +47,9 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 
 import java.nio.file.Path;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 public class PrebuiltCxxLibrary
@@ -78,7 +78,7 @@ public class PrebuiltCxxLibrary
   private final boolean canBeAsset;
 
   private final Map<Pair<Flavor, Linker.LinkableDepType>, NativeLinkableInput> nativeLinkableCache =
-      new HashMap<>();
+      new ConcurrentHashMap<>();
 
   private final LoadingCache<
           CxxPreprocessables.CxxPreprocessorInputCacheKey,
@@ -381,7 +381,10 @@ public class PrebuiltCxxLibrary
     NativeLinkableInput input = nativeLinkableCache.get(key);
     if (input == null) {
       input = getNativeLinkableInputUncached(cxxPlatform, type);
-      nativeLinkableCache.put(key, input);
+      NativeLinkableInput existing = nativeLinkableCache.putIfAbsent(key, input);
+      if (existing != null) {
+        input = existing;
+      }
     }
     return input;
   }
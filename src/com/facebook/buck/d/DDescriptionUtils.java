@@ -237,31 +237,30 @@ abstract class DDescriptionUtils {
       SourcePath src,
       DIncludes includes)
       throws NoSuchBuildTargetException {
-    Optional<BuildRule> existingRule = buildRuleResolver.getRuleOptional(compileTarget);
-    if (existingRule.isPresent()) {
-      return (DCompileBuildRule) existingRule.get();
-    } else {
-      Tool compiler = dBuckConfig.getDCompiler();
+    return buildRuleResolver.computeIfAbsent(
+        compileTarget,
+        DCompileBuildRule.class,
+        target -> {
+          Tool compiler = dBuckConfig.getDCompiler();
 
-      Map<BuildTarget, DIncludes> transitiveIncludes = new TreeMap<>();
-      transitiveIncludes.put(baseParams.getBuildTarget(), includes);
-      for (Map.Entry<BuildTarget, DLibrary> library :
-           getTransitiveDLibraryRules(baseParams.getDeps()).entrySet()) {
-        transitiveIncludes.put(library.getKey(), library.getValue().getIncludes());
-      }
+          Map<BuildTarget, DIncludes> transitiveIncludes = new TreeMap<>();
+          transitiveIncludes.put(baseParams.getBuildTarget(), includes);
+          for (Map.Entry<BuildTarget, DLibrary> library :
+               getTransitiveDLibraryRules(baseParams.getDeps()).entrySet()) {
+            transitiveIncludes.put(library.getKey(), library.getValue().getIncludes());
+          }
 
-      ImmutableSortedSet.Builder<BuildRule> depsBuilder = ImmutableSortedSet.naturalOrder();
-      depsBuilder.addAll(compiler.getDeps(sourcePathResolver));
-      depsBuilder.addAll(sourcePathResolver.filterBuildRuleInputs(src));
-      for (DIncludes dIncludes : transitiveIncludes.values()) {
-        depsBuilder.addAll(dIncludes.getDeps(sourcePathResolver));
-      }
-      ImmutableSortedSet<BuildRule> deps = depsBuilder.build();
+          ImmutableSortedSet.Builder<BuildRule> depsBuilder = ImmutableSortedSet.naturalOrder();
+          depsBuilder.addAll(compiler.getDeps(sourcePathResolver));
+          depsBuilder.addAll(sourcePathResolver.filterBuildRuleInputs(src));
+          for (DIncludes dIncludes : transitiveIncludes.values()) {
+            depsBuilder.addAll(dIncludes.getDeps(sourcePathResolver));
+          }
+          ImmutableSortedSet<BuildRule> deps = depsBuilder.build();
 
-      return buildRuleResolver.addToIndex(
-          new DCompileBuildRule(
+          return new DCompileBuildRule(
               baseParams.copyWithChanges(
-                  compileTarget,
+                  target,
                   Suppliers.ofInstance(deps),
                   Suppliers.ofInstance(ImmutableSortedSet.of())),
               sourcePathResolver,
@@ -272,8 +271,8 @@ abstract class DDescriptionUtils {
                   .build(),
               name,
               ImmutableSortedSet.of(src),
-              ImmutableList.copyOf(transitiveIncludes.values())));
-    }
+              ImmutableList.copyOf(transitiveIncludes.values()));
+        });
   }
 
   /**
@@ -90,7 +90,9 @@ public class DistBuildSlaveExecutor {
         args.getObjectMapper(),
         Preconditions.checkNotNull(actionGraphAndResolver).getResolver(),
         config.getKeySeed(),
-        cachingBuildEngineBuckConfig.getResourceAwareSchedulingInfo());
+        cachingBuildEngineBuckConfig.getResourceAwareSchedulingInfo(),
+        cachingBuildEngineBuckConfig.getCacheFetchBatchingInfo(),
+        cachingBuildEngineBuckConfig.getCachePrefetchInfo());
 
     // TODO(ruibm): Fix this to work with Android.
     try (Build build = new Build(
@@ -122,6 +124,7 @@ public class DistBuildSlaveExecutor {
         Optional.empty(),
         Optional.empty(),
         Optional.empty(),
+        Optional.empty(),
         args.getExecutors())) {
 
       // TODO(ruibm): We need to pass to the distbuild target via de distributed build
@@ -24,32 +24,44 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.EventBus;
 import com.google.common.util.concurrent.MoreExecutors;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Thin wrapper around guava event bus.
+ * <p>
+ * An asynchronous bus gives every listener its own bounded {@link EventListenerQueue}, so a
+ * listener that is slow to process events does not hold up the others. A synchronous bus
+ * delivers every event to all listeners on the posting thread.
  */
 public class BuckEventBus implements Closeable {
 
   private static final Logger LOG = Logger.get(BuckEventBus.class);
 
   public static final int DEFAULT_SHUTDOWN_TIMEOUT_MS = 15000;
+  public static final int DEFAULT_LISTENER_QUEUE_CAPACITY = 8192;
 
   private static final Supplier<Long> DEFAULT_THREAD_ID_SUPPLIER =
       () -> Thread.currentThread().getId();
 
   private final Clock clock;
+  private final boolean async;
   private final ExecutorService executorService;
   private final EventBus eventBus;
   private final Supplier<Long> threadIdSupplier;
   private final BuildId buildId;
   private final int shutdownTimeoutMillis;
+  private final int listenerQueueCapacity;
+  private final Object idleMonitor = new Object();
+  private volatile ImmutableList<EventListenerQueue> listenerQueues = ImmutableList.of();
 
   public BuckEventBus(Clock clock, BuildId buildId) {
     this(clock, true, buildId, DEFAULT_SHUTDOWN_TIMEOUT_MS);
@@ -61,20 +73,44 @@ public class BuckEventBus implements Closeable {
       boolean async,
       BuildId buildId,
       int shutdownTimeoutMillis) {
+    this(clock, async, buildId, shutdownTimeoutMillis, DEFAULT_LISTENER_QUEUE_CAPACITY);
+  }
+
+  public BuckEventBus(
+      Clock clock,
+      boolean async,
+      BuildId buildId,
+      int shutdownTimeoutMillis,
+      int listenerQueueCapacity) {
     this.clock = clock;
+    this.async = async;
+    // Each listener is drained by at most one thread at a time, so this never has more threads
+    // than there are listeners.
     this.executorService = async ?
-        MostExecutors.newSingleThreadExecutor(
-            new CommandThreadFactory(BuckEventBus.class.getSimpleName())) :
+        new ThreadPoolExecutor(
+            /* corePoolSize */ 0,
+            /* maximumPoolSize */ Integer.MAX_VALUE,
+            /* keepAliveTime */ 60L, TimeUnit.SECONDS,
+            /* workQueue */ new SynchronousQueue<>(),
+            /* threadFactory */ new CommandThreadFactory(
+                new MostExecutors.NamedThreadFactory(BuckEventBus.class.getSimpleName())),
+            /* handler */ new ThreadPoolExecutor.DiscardPolicy()) :
         MoreExecutors.newDirectExecutorService();
     this.eventBus = new EventBus("buck-build-events");
     this.threadIdSupplier = DEFAULT_THREAD_ID_SUPPLIER;
     this.buildId = buildId;
     this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    this.listenerQueueCapacity = listenerQueueCapacity;
   }
 
   private void dispatch(final BuckEvent event) {
-    executorService.submit(
-        () -> eventBus.post(event));
+    if (!async) {
+      eventBus.post(event);
+      return;
+    }
+    for (EventListenerQueue listenerQueue : listenerQueues) {
+      listenerQueue.post(event);
+    }
   }
 
   public void post(BuckEvent event) {
@@ -106,13 +142,44 @@ public class BuckEventBus implements Closeable {
   }
 
   public void register(Object object) {
-    eventBus.register(object);
+    register(object, EventListenerQueue.OverflowPolicy.BLOCK);
+  }
+
+  /**
+   * @param overflowPolicy what to do with events posted while the listener's queue is full. Has
+   *     no effect on a synchronous bus.
+   */
+  public synchronized void register(
+      Object object,
+      EventListenerQueue.OverflowPolicy overflowPolicy) {
+    if (!async) {
+      eventBus.register(object);
+      return;
+    }
+    listenerQueues = ImmutableList.<EventListenerQueue>builder()
+        .addAll(listenerQueues)
+        .add(
+            new EventListenerQueue(
+                object,
+                overflowPolicy,
+                listenerQueueCapacity,
+                executorService,
+                this::notifyIdle))
+        .build();
+  }
+
+  /**
+   * @return the queues of the listeners of an asynchronous bus, which expose how well each
+   *     listener is keeping up.
+   */
+  public ImmutableList<EventListenerQueue> getListenerQueues() {
+    return listenerQueues;
   }
 
   @VisibleForTesting
   public void postWithoutConfiguring(BuckEvent event) {
     Preconditions.checkState(event.isConfigured());
-    eventBus.post(event);
+    dispatch(event);
   }
 
   @VisibleForTesting
@@ -136,25 +203,51 @@ public class BuckEventBus implements Closeable {
     return buildId;
   }
 
+  private void notifyIdle() {
+    synchronized (idleMonitor) {
+      idleMonitor.notifyAll();
+    }
+  }
+
+  private boolean awaitListenerQueuesIdle(long deadlineNanos) throws InterruptedException {
+    synchronized (idleMonitor) {
+      while (!listenerQueues.stream().allMatch(EventListenerQueue::isIdle)) {
+        long remainingNanos = deadlineNanos - System.nanoTime();
+        if (remainingNanos <= 0) {
+          return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(idleMonitor, remainingNanos);
+      }
+    }
+    return true;
+  }
+
   /**
-   * {@link ExecutorService#awaitTermination(long, java.util.concurrent.TimeUnit)} is called
-   * to wait for events which have been posted, but which have been queued by the
-   * {@link EventBus}, to be delivered. This allows listeners to record or report as much
-   * information as possible. This aids debugging when close is called during exception processing.
+   * Waits for events which have been posted, but which are still queued, to be delivered. This
+   * allows listeners to record or report as much information as possible. This aids debugging when
+   * close is called during exception processing.
    */
   @Override
   public void close() throws IOException {
-    executorService.shutdown();
+    long deadlineNanos =
+        System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutMillis);
     try {
-      if (!executorService.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS)) {
+      boolean drained = awaitListenerQueuesIdle(deadlineNanos);
+      executorService.shutdown();
+      if (!drained ||
+          !executorService.awaitTermination(
+              Math.max(0, deadlineNanos - System.nanoTime()),
+              TimeUnit.NANOSECONDS)) {
         LOG.warn(Joiner.on(System.lineSeparator()).join(
           "The BuckEventBus failed to shut down within the standard timeout.",
           "Your build might have succeeded, but some messages were probably lost.",
           "Here's some debugging information:",
-          executorService.toString()));
+          executorService.toString(),
+          Joiner.on(", ").join(listenerQueues)));
         executorService.shutdownNow();
       }
     } catch (InterruptedException e) {
+      executorService.shutdownNow();
       Thread.currentThread().interrupt();
     }
   }
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.facebook.buck.util.concurrent.BoundedMpscQueue;
+import com.google.common.eventbus.EventBus;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nullable;
+
+/**
+ * Delivers the events of an asynchronous {@link BuckEventBus} to a single listener.
+ * <p>
+ * Events are posted into a bounded ring buffer without taking locks, and drained on a thread of
+ * the bus's executor whenever there is something to deliver, so a slow listener only delays
+ * itself. What happens when the buffer is full is decided by the listener's
+ * {@link OverflowPolicy}.
+ */
+public class EventListenerQueue {
+
+  /**
+   * What to do with an event that is posted while the listener's queue is full.
+   */
+  public enum OverflowPolicy {
+    /** Wait until the listener has caught up. No events are lost. */
+    BLOCK,
+    /** Discard the event. */
+    DROP,
+    /**
+     * Keep only the latest overflowing event of each type, and deliver it once the queue has
+     * drained. Suited to listeners which only care about the most recent state.
+     */
+    COALESCE
+  }
+
+  private static final long BLOCKED_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  /**
+   * Whether the current thread is delivering events to a listener. Listeners may post events
+   * themselves, and two listeners blocked on each other's full queue would never make progress,
+   * so these threads never block.
+   */
+  private static final ThreadLocal<Boolean> isDispatchThread =
+      ThreadLocal.withInitial(() -> false);
+
+  private final String listenerName;
+  private final OverflowPolicy overflowPolicy;
+  private final EventBus eventBus;
+  private final ExecutorService executorService;
+  private final Runnable onIdle;
+  private final BoundedMpscQueue<BuckEvent> queue;
+  // Events from dispatch threads that overflowed a blocking queue. While it is non-empty, new
+  // events from dispatch threads are added here too, so that they stay in order.
+  private final ConcurrentLinkedQueue<BuckEvent> spilled = new ConcurrentLinkedQueue<>();
+  private final ConcurrentMap<Class<?>, BuckEvent> coalesced = new ConcurrentHashMap<>();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+
+  private final AtomicInteger maxDepth = new AtomicInteger();
+  private final AtomicLong blockedPosts = new AtomicLong();
+  private final AtomicLong droppedEvents = new AtomicLong();
+  private final AtomicLong coalescedEvents = new AtomicLong();
+  private final AtomicLong spilledEvents = new AtomicLong();
+
+  EventListenerQueue(
+      Object listener,
+      OverflowPolicy overflowPolicy,
+      int capacity,
+      ExecutorService executorService,
+      Runnable onIdle) {
+    String name = listener.getClass().getSimpleName();
+    this.listenerName = name.isEmpty() ? listener.getClass().getName() : name;
+    this.overflowPolicy = overflowPolicy;
+    this.eventBus = new EventBus("buck-build-events");
+    this.eventBus.register(listener);
+    this.executorService = executorService;
+    this.onIdle = onIdle;
+    this.queue = new BoundedMpscQueue<>(capacity);
+  }
+
+  void post(BuckEvent event) {
+    if (spilled.isEmpty() && queue.offer(event)) {
+      int depth = queue.size();
+      if (depth > maxDepth.get()) {
+        maxDepth.accumulateAndGet(depth, Math::max);
+      }
+    } else {
+      overflow(event);
+    }
+    schedule();
+  }
+
+  private void overflow(BuckEvent event) {
+    if (overflowPolicy == OverflowPolicy.DROP) {
+      droppedEvents.incrementAndGet();
+    } else if (overflowPolicy == OverflowPolicy.COALESCE) {
+      if (coalesced.put(event.getClass(), event) != null) {
+        coalescedEvents.incrementAndGet();
+      }
+    } else if (isDispatchThread.get()) {
+      spilled.add(event);
+      spilledEvents.incrementAndGet();
+    } else {
+      blockedPosts.incrementAndGet();
+      while (!(spilled.isEmpty() && queue.offer(event))) {
+        if (executorService.isShutdown() || Thread.currentThread().isInterrupted()) {
+          // Nobody is going to drain the queue, or the poster wants to stop waiting.
+          droppedEvents.incrementAndGet();
+          return;
+        }
+        schedule();
+        LockSupport.parkNanos(this, BLOCKED_PARK_NANOS);
+      }
+    }
+  }
+
+  private void schedule() {
+    if (scheduled.compareAndSet(false, true)) {
+      executorService.execute(this::drain);
+    }
+  }
+
+  private void drain() {
+    isDispatchThread.set(true);
+    try {
+      do {
+        BuckEvent event;
+        while ((event = nextEvent()) != null) {
+          eventBus.post(event);
+        }
+        scheduled.set(false);
+        // A producer may have added an event after we last looked, but then seen that we were
+        // still scheduled and left it to us.
+      } while (hasPendingEvents() && scheduled.compareAndSet(false, true));
+    } finally {
+      isDispatchThread.set(false);
+    }
+    onIdle.run();
+  }
+
+  @Nullable
+  private BuckEvent nextEvent() {
+    BuckEvent event = queue.poll();
+    if (event != null) {
+      return event;
+    }
+    event = spilled.poll();
+    if (event != null) {
+      return event;
+    }
+    for (Class<?> type : coalesced.keySet()) {
+      event = coalesced.remove(type);
+      if (event != null) {
+        return event;
+      }
+    }
+    return null;
+  }
+
+  private boolean hasPendingEvents() {
+    return !queue.isEmpty() || !spilled.isEmpty() || !coalesced.isEmpty();
+  }
+
+  /**
+   * @return whether every event posted so far has been delivered.
+   */
+  boolean isIdle() {
+    return !scheduled.get() && !hasPendingEvents();
+  }
+
+  /**
+   * @return the simple name of the listener's class.
+   */
+  public String getListenerName() {
+    return listenerName;
+  }
+
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  public int getCapacity() {
+    return queue.capacity();
+  }
+
+  /**
+   * @return the number of events waiting in the ring buffer.
+   */
+  public int getDepth() {
+    return queue.size();
+  }
+
+  /**
+   * @return the highest depth reached since the previous call.
+   */
+  public int takeMaxDepth() {
+    return maxDepth.getAndSet(queue.size());
+  }
+
+  /**
+   * @return the number of posts which had to wait for the listener to catch up.
+   */
+  public long getBlockedPosts() {
+    return blockedPosts.get();
+  }
+
+  public long getDroppedEvents() {
+    return droppedEvents.get();
+  }
+
+  /**
+   * @return the number of events which were replaced by a later event of the same type.
+   */
+  public long getCoalescedEvents() {
+    return coalescedEvents.get();
+  }
+
+  /**
+   * @return the number of events posted by listeners to a full blocking queue, which were
+   *     queued beyond its capacity instead.
+   */
+  public long getSpilledEvents() {
+    return spilledEvents.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s (%s, %d/%d queued)",
+        listenerName,
+        overflowPolicy,
+        getDepth(),
+        getCapacity());
+  }
+}
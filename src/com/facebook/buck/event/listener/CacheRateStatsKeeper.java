@@ -67,6 +67,7 @@ public class CacheRateStatsKeeper {
         break;
       case IGNORED:
       case LOCAL_KEY_UNCHANGED_HIT:
+      case CONTAINS:
         break;
     }
     if (cacheResult.getType() != CacheResultType.LOCAL_KEY_UNCHANGED_HIT) {
@@ -31,6 +31,8 @@ import com.facebook.buck.event.StartActivityEvent;
 import com.facebook.buck.event.UninstallEvent;
 import com.facebook.buck.io.PathListing;
 import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.json.BuildFileTimingSpan;
+import com.facebook.buck.json.BuildFileTimings;
 import com.facebook.buck.json.ParseBuckFileEvent;
 import com.facebook.buck.jvm.java.AnnotationProcessingEvent;
 import com.facebook.buck.jvm.java.tracing.JavacPhaseEvent;
@@ -69,7 +71,12 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Path;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.Deque;
+import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
 import java.util.TimeZone;
@@ -424,6 +431,9 @@ public class ChromeTraceBuildListener implements BuckEventListener {
 
   @Subscribe
   public void parseBuckFileFinished(ParseBuckFileEvent.Finished finished) {
+    if (finished.getTimings().isPresent()) {
+      writeBuildFileTimingSpans(finished, finished.getTimings().get());
+    }
     writeChromeTraceEvent(
         "buck",
         "parse_file",
@@ -438,6 +448,66 @@ public class ChromeTraceBuildListener implements BuckEventListener {
         finished);
   }
 
+  /**
+   * Writes the parts of processing a build file which buck.py timed as spans within its
+   * parse_file span. Spans have to nest properly in the trace, so they are written in the order
+   * they started, and each is cut short at the end of the span it is nested in.
+   */
+  private void writeBuildFileTimingSpans(
+      ParseBuckFileEvent.Finished finished,
+      BuildFileTimings timings) {
+    long startedMicros = TimeUnit.NANOSECONDS.toMicros(finished.getStartedNanoTime());
+    long finishedMicros = TimeUnit.NANOSECONDS.toMicros(finished.getNanoTime());
+    List<BuildFileTimingSpan> spans = new ArrayList<>(timings.getSpans());
+    spans.sort(
+        Comparator.comparingLong(BuildFileTimingSpan::getStartMicros)
+            .thenComparing(
+                Comparator.comparingLong(BuildFileTimingSpan::getDurationMicros).reversed()));
+
+    Deque<BuildFileTimingSpan> openSpans = new ArrayDeque<>();
+    Deque<Long> openSpanEnds = new ArrayDeque<>();
+    for (BuildFileTimingSpan span : spans) {
+      long start = Math.min(startedMicros + span.getStartMicros(), finishedMicros);
+      while (!openSpanEnds.isEmpty() && openSpanEnds.peek() <= start) {
+        writeBuildFileTimingEvent(
+            openSpans.pop(),
+            ChromeTraceEvent.Phase.END,
+            openSpanEnds.pop(),
+            finished);
+      }
+      long end = Math.min(
+          start + span.getDurationMicros(),
+          openSpanEnds.isEmpty() ? finishedMicros : openSpanEnds.peek());
+      writeBuildFileTimingEvent(span, ChromeTraceEvent.Phase.BEGIN, start, finished);
+      openSpans.push(span);
+      openSpanEnds.push(end);
+    }
+    while (!openSpans.isEmpty()) {
+      writeBuildFileTimingEvent(
+          openSpans.pop(),
+          ChromeTraceEvent.Phase.END,
+          openSpanEnds.pop(),
+          finished);
+    }
+  }
+
+  private void writeBuildFileTimingEvent(
+      BuildFileTimingSpan span,
+      ChromeTraceEvent.Phase phase,
+      long microTime,
+      ParseBuckFileEvent.Finished finished) {
+    submitTraceEvent(
+        new ChromeTraceEvent(
+            "buck",
+            "parse_" + span.getCategory().toString().toLowerCase(Locale.US),
+            phase,
+            0,
+            finished.getThreadId(),
+            microTime,
+            TimeUnit.NANOSECONDS.toMicros(finished.getThreadUserNanoTime()),
+            ImmutableMap.of("name", span.getName())));
+  }
+
   @Subscribe
   public void actionGraphStarted(ActionGraphEvent.Started started) {
     writeChromeTraceEvent(
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.BitSet;
+
+/**
+ * An immutable copy of a graph in which nodes are numbered, and the outgoing and incoming edges of
+ * every node are stored as ranges of a pair of int arrays, so that sets of nodes are bit sets and
+ * traversals do not hash nodes.
+ */
+public class IndexedDirectedGraph<T> {
+
+  private final ImmutableList<T> nodes;
+  private final ImmutableMap<T, Integer> indexes;
+  // The edges of node i are edges[offsets[i]] to edges[offsets[i + 1] - 1].
+  private final int[] outgoingOffsets;
+  private final int[] outgoingEdges;
+  private final int[] incomingOffsets;
+  private final int[] incomingEdges;
+
+  private IndexedDirectedGraph(DefaultTraversableGraph<T> graph) {
+    this.nodes = graph.getNodes().asList();
+    ImmutableMap.Builder<T, Integer> indexes = ImmutableMap.builder();
+    for (int i = 0; i < nodes.size(); i++) {
+      indexes.put(nodes.get(i), i);
+    }
+    this.indexes = indexes.build();
+
+    this.outgoingOffsets = new int[nodes.size() + 1];
+    this.incomingOffsets = new int[nodes.size() + 1];
+    for (int i = 0; i < nodes.size(); i++) {
+      T node = nodes.get(i);
+      outgoingOffsets[i + 1] = outgoingOffsets[i] + graph.getOutgoingNodesFor(node).size();
+      incomingOffsets[i + 1] = incomingOffsets[i] + graph.getIncomingNodesFor(node).size();
+    }
+    this.outgoingEdges = new int[outgoingOffsets[nodes.size()]];
+    this.incomingEdges = new int[incomingOffsets[nodes.size()]];
+    for (int i = 0; i < nodes.size(); i++) {
+      T node = nodes.get(i);
+      int edge = outgoingOffsets[i];
+      for (T sink : graph.getOutgoingNodesFor(node)) {
+        outgoingEdges[edge++] = this.indexes.get(sink);
+      }
+      edge = incomingOffsets[i];
+      for (T source : graph.getIncomingNodesFor(node)) {
+        incomingEdges[edge++] = this.indexes.get(source);
+      }
+    }
+  }
+
+  public static <T> IndexedDirectedGraph<T> of(DefaultTraversableGraph<T> graph) {
+    return new IndexedDirectedGraph<>(graph);
+  }
+
+  public int getNodeCount() {
+    return nodes.size();
+  }
+
+  public T getNode(int index) {
+    return nodes.get(index);
+  }
+
+  /**
+   * @return the index of {@code node}, or -1 if it is not in the graph.
+   */
+  public int getIndex(T node) {
+    Integer index = indexes.get(node);
+    return index == null ? -1 : index;
+  }
+
+  public ImmutableList<T> getNodes(BitSet indexes) {
+    ImmutableList.Builder<T> builder = ImmutableList.builder();
+    for (int i = indexes.nextSetBit(0); i >= 0; i = indexes.nextSetBit(i + 1)) {
+      builder.add(nodes.get(i));
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return the nodes with an edge to any of {@code sinks}.
+   */
+  public BitSet getIncomingNodesFor(BitSet sinks) {
+    BitSet result = new BitSet(nodes.size());
+    for (int i = sinks.nextSetBit(0); i >= 0; i = sinks.nextSetBit(i + 1)) {
+      for (int edge = incomingOffsets[i]; edge < incomingOffsets[i + 1]; edge++) {
+        result.set(incomingEdges[edge]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the nodes with an edge from any of {@code sources}.
+   */
+  public BitSet getOutgoingNodesFor(BitSet sources) {
+    BitSet result = new BitSet(nodes.size());
+    for (int i = sources.nextSetBit(0); i >= 0; i = sources.nextSetBit(i + 1)) {
+      for (int edge = outgoingOffsets[i]; edge < outgoingOffsets[i + 1]; edge++) {
+        result.set(outgoingEdges[edge]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return {@code roots} and every node reachable from them.
+   */
+  public BitSet getTransitiveClosure(BitSet roots) {
+    BitSet visited = (BitSet) roots.clone();
+    int[] stack = new int[nodes.size()];
+    int size = 0;
+    for (int i = roots.nextSetBit(0); i >= 0; i = roots.nextSetBit(i + 1)) {
+      stack[size++] = i;
+    }
+    while (size > 0) {
+      int node = stack[--size];
+      for (int edge = outgoingOffsets[node]; edge < outgoingOffsets[node + 1]; edge++) {
+        int next = outgoingEdges[edge];
+        if (!visited.get(next)) {
+          visited.set(next);
+          stack[size++] = next;
+        }
+      }
+    }
+    return visited;
+  }
+}
@@ -107,35 +107,28 @@ public class GwtBinaryDescription implements Description<GwtBinaryDescription.Ar
         BuildTarget gwtModuleTarget = BuildTargets.createFlavoredBuildTarget(
             javaLibrary.getBuildTarget().checkUnflavored(),
             JavaLibrary.GWT_MODULE_FLAVOR);
-        Optional<BuildRule> gwtModule = resolver.getRuleOptional(gwtModuleTarget);
-        if (!gwtModule.isPresent() && javaLibrary.getPathToOutput() != null) {
-          ImmutableSortedSet<SourcePath> filesForGwtModule =
-              ImmutableSortedSet.<SourcePath>naturalOrder()
-                  .addAll(javaLibrary.getSources())
-                  .addAll(javaLibrary.getResources())
-                  .build();
-          ImmutableSortedSet<BuildRule> deps =
-              ImmutableSortedSet.copyOf(
-                  new SourcePathResolver(resolver).filterBuildRuleInputs(filesForGwtModule));
-
-          BuildRule module = resolver.addToIndex(
-              new GwtModule(
+        GwtModule gwtModule = resolver.computeIfAbsent(
+            gwtModuleTarget,
+            GwtModule.class,
+            target -> {
+              ImmutableSortedSet<SourcePath> filesForGwtModule =
+                  ImmutableSortedSet.<SourcePath>naturalOrder()
+                      .addAll(javaLibrary.getSources())
+                      .addAll(javaLibrary.getResources())
+                      .build();
+              ImmutableSortedSet<BuildRule> deps =
+                  ImmutableSortedSet.copyOf(
+                      new SourcePathResolver(resolver).filterBuildRuleInputs(filesForGwtModule));
+              return new GwtModule(
                   params.copyWithChanges(
-                      gwtModuleTarget,
+                      target,
                       Suppliers.ofInstance(deps),
                       Suppliers.ofInstance(ImmutableSortedSet.of())),
                   new SourcePathResolver(resolver),
-                  filesForGwtModule));
-          gwtModule = Optional.of(module);
-        }
-
-        // Note that gwtModule could be absent if javaLibrary is a rule with no srcs of its own,
-        // but a rule that exists only as a collection of deps.
-        if (gwtModule.isPresent()) {
-          extraDeps.add(gwtModule.get());
-          gwtModuleJarsBuilder.add(
-              Preconditions.checkNotNull(gwtModule.get().getPathToOutput()));
-        }
+                  filesForGwtModule);
+            });
+        extraDeps.add(gwtModule);
+        gwtModuleJarsBuilder.add(Preconditions.checkNotNull(gwtModule.getPathToOutput()));
 
         // Traverse all of the deps of this rule.
         return rule.getDeps();
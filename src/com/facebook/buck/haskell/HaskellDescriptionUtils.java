@@ -187,17 +187,11 @@ public class HaskellDescriptionUtils {
       HaskellSources srcs)
       throws NoSuchBuildTargetException {
 
-    BuildTarget target = getCompileBuildTarget(params.getBuildTarget(), cxxPlatform, depType);
-
     // If this rule has already been generated, return it.
-    Optional<HaskellCompileRule> existing =
-        resolver.getRuleOptionalWithType(target, HaskellCompileRule.class);
-    if (existing.isPresent()) {
-      return existing.get();
-    }
-
-    return resolver.addToIndex(
-        HaskellDescriptionUtils.createCompileRule(
+    return resolver.computeIfAbsent(
+        getCompileBuildTarget(params.getBuildTarget(), cxxPlatform, depType),
+        HaskellCompileRule.class,
+        target -> HaskellDescriptionUtils.createCompileRule(
             target,
             params,
             resolver,
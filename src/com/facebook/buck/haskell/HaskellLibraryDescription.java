@@ -183,13 +183,11 @@ public class HaskellLibraryDescription implements
                 Type.STATIC.getFlavor() :
                 Type.STATIC_PIC.getFlavor(),
             cxxPlatform.getFlavor());
-    Optional<Archive> archive = resolver.getRuleOptionalWithType(target, Archive.class);
-    if (archive.isPresent()) {
-      return archive.get();
-    }
-    return resolver.addToIndex(
-        createStaticLibrary(
-            target,
+    return resolver.computeIfAbsent(
+        target,
+        Archive.class,
+        archiveTarget -> createStaticLibrary(
+            archiveTarget,
             baseParams,
             resolver,
             pathResolver,
@@ -292,13 +290,17 @@ public class HaskellLibraryDescription implements
       default:
         throw new IllegalStateException();
     }
-    Optional<HaskellPackageRule> packageRule =
-        resolver.getRuleOptionalWithType(target, HaskellPackageRule.class);
-    if (packageRule.isPresent()) {
-      return packageRule.get();
-    }
-    return resolver.addToIndex(
-        createPackage(target, baseParams, resolver, pathResolver, cxxPlatform, args, depType));
+    return resolver.computeIfAbsent(
+        target,
+        HaskellPackageRule.class,
+        packageTarget -> createPackage(
+            packageTarget,
+            baseParams,
+            resolver,
+            pathResolver,
+            cxxPlatform,
+            args,
+            depType));
   }
 
   private HaskellLinkRule createSharedLibrary(
@@ -345,13 +347,16 @@ public class HaskellLibraryDescription implements
             Sets.union(Type.FLAVOR_VALUES, cxxPlatforms.getFlavors()))
             .isEmpty());
     BuildTarget target = baseTarget.withFlavors(Type.SHARED.getFlavor(), cxxPlatform.getFlavor());
-    Optional<HaskellLinkRule> linkRule =
-        resolver.getRuleOptionalWithType(target, HaskellLinkRule.class);
-    if (linkRule.isPresent()) {
-      return linkRule.get();
-    }
-    return resolver.addToIndex(
-        createSharedLibrary(target, baseParams, resolver, pathResolver, cxxPlatform, args));
+    return resolver.computeIfAbsent(
+        target,
+        HaskellLinkRule.class,
+        linkTarget -> createSharedLibrary(
+            linkTarget,
+            baseParams,
+            resolver,
+            pathResolver,
+            cxxPlatform,
+            args));
   }
 
   @Override
@@ -19,6 +19,7 @@ package com.facebook.buck.httpserver;
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.ArtifactInfo;
 import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.CacheResultType;
 import com.facebook.buck.artifact_cache.HttpArtifactCacheBinaryProtocol;
 import com.facebook.buck.artifact_cache.StoreResponseReadResult;
 import com.facebook.buck.io.BorrowablePath;
@@ -73,6 +74,8 @@ public class ArtifactCacheHandler extends AbstractHandler {
       String method = baseRequest.getMethod();
       if (method.equals("GET")) {
         status = handleGet(baseRequest, response);
+      } else if (method.equals("HEAD")) {
+        status = handleHead(baseRequest, response);
       } else if (method.equals("PUT")) {
         status = handlePut(baseRequest, response);
       }
@@ -135,6 +138,28 @@ public class ArtifactCacheHandler extends AbstractHandler {
     }
   }
 
+  private int handleHead(Request baseRequest, HttpServletResponse response) throws IOException {
+    if (!artifactCache.isPresent()) {
+      response.getWriter().write("Serving local cache is disabled for this instance.");
+      return HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+    }
+
+    String path = baseRequest.getUri().getPath();
+    String[] pathElements = path.split("/");
+    if (pathElements.length != 4 || !pathElements[2].equals("key")) {
+      response.getWriter().write("Incorrect url format.");
+      return HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+    }
+
+    RuleKey ruleKey = new RuleKey(pathElements[3]);
+    CacheResult containsResult =
+        artifactCache.get().multiContains(ImmutableSet.of(ruleKey)).get(ruleKey);
+    if (containsResult == null || containsResult.getType() != CacheResultType.CONTAINS) {
+      return HttpServletResponse.SC_NOT_FOUND;
+    }
+    return HttpServletResponse.SC_OK;
+  }
+
   private int handlePut(Request baseRequest, HttpServletResponse response) throws IOException {
     if (!artifactCache.isPresent()) {
       response.getWriter().write("Serving local cache is disabled for this instance.");
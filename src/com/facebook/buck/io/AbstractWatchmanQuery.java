@@ -39,4 +39,15 @@ abstract class AbstractWatchmanQuery {
             .putAll(getQueryParams())
             .build());
   }
+
+  /**
+   * @return the command subscribing to the changes which match this query under {@code name}.
+   */
+  public ImmutableList<Object> toSubscribeList(String name) {
+    return ImmutableList.of(
+        "subscribe",
+        getQueryPath(),
+        name,
+        getQueryParams());
+  }
 }
@@ -19,6 +19,7 @@ import com.facebook.buck.log.Logger;
 import com.google.common.base.Preconditions;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.nio.file.Path;
@@ -90,6 +91,35 @@ public abstract class LazyPath {
     }
   }
 
+  /**
+   * Lets the owner of this path watch the bytes a cache writes to it as they arrive, e.g. to start
+   * unpacking an artifact before its download finishes. Everything written to the returned stream
+   * must end up in {@code sink}.
+   */
+  public OutputStream wrapOutputStream(OutputStream sink) {
+    return sink;
+  }
+
+  /**
+   * @return whether the owner of this path needs to see the bytes written to it through
+   *     {@link #wrapOutputStream(OutputStream)}, so that a cache must not put the artifact in place
+   *     any other way, such as by linking it.
+   */
+  public boolean needsOutputStream() {
+    return false;
+  }
+
+  /**
+   * Lets a cache that keeps the files of artifacts, rather than their zips, place those files
+   * itself instead of writing out a zip for its owner to unpack again.
+   *
+   * @return where to put the files of the artifact, if the owner of this path has no use for the
+   *     zip itself.
+   */
+  public Optional<UnpackedArtifactSink> getUnpackedArtifactSink() {
+    return Optional.empty();
+  }
+
   /**
    * @return Path that will be created lazily and memoized.
    * @throws IOException
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.io;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Where a cache puts the files of an artifact, laid out as unzipping the artifact would lay them
+ * out, when whoever fetches the artifact has no use for its zip.
+ *
+ * @see LazyPath#getUnpackedArtifactSink()
+ */
+public interface UnpackedArtifactSink {
+
+  /**
+   * @return the absolute path of the directory to put the files of the artifact in. It is empty
+   *     when first returned.
+   */
+  Path getDirectory() throws IOException;
+
+  /**
+   * Called once every entry of the artifact has been put in place.
+   *
+   * @param entries the entries of the artifact, directories included, in the order they appear in
+   *     its zip and relative to {@link #getDirectory()}.
+   */
+  void onUnpacked(ImmutableList<Path> entries);
+}
@@ -51,7 +51,8 @@ public class Watchman implements AutoCloseable {
     WILDMATCH_GLOB,
     WILDMATCH_MULTISLASH,
     GLOB_GENERATOR,
-    CLOCK_SYNC_TIMEOUT
+    CLOCK_SYNC_TIMEOUT,
+    FLUSH_SUBSCRIPTIONS,
   }
 
   public static final String NULL_CLOCK = "c:0:0";
@@ -70,6 +71,7 @@ public class Watchman implements AutoCloseable {
           .put("wildmatch_multislash", Capability.WILDMATCH_MULTISLASH)
           .put("glob_generator", Capability.GLOB_GENERATOR)
           .put("clock-sync-timeout", Capability.CLOCK_SYNC_TIMEOUT)
+          .put("cmd-flush-subscriptions", Capability.FLUSH_SUBSCRIPTIONS)
           .build();
 
   private static final Logger LOG = Logger.get(Watchman.class);
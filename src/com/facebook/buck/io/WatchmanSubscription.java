@@ -0,0 +1,306 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.io;
+
+import com.facebook.buck.bser.BserDeserializer;
+import com.facebook.buck.bser.BserSerializer;
+import com.facebook.buck.io.unixsocket.UnixDomainSocket;
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A Watchman subscription, on a connection of its own, which streams the changes matching a query
+ * as they happen rather than waiting to be asked for them.
+ * <p>
+ * Changes are read off the connection by a background thread and queued, in the order Watchman
+ * sent them, until they are drained. {@link #flush} returns once every change made before it was
+ * called is queued, so that a command can catch up with the file system without a since-query.
+ * The queue holds a bounded number of changed files: past that, the changes are dropped, as
+ * subscribers then invalidate everything anyway.
+ */
+public class WatchmanSubscription implements AutoCloseable {
+
+  private static final Logger LOG = Logger.get(WatchmanSubscription.class);
+
+  private final String name;
+  private final String watchRoot;
+  private final InputStream input;
+  private final OutputStream output;
+  private final Closeable connection;
+  private final boolean reportInitialFreshInstance;
+  private final int maxPendingFiles;
+  private final BserSerializer bserSerializer = new BserSerializer();
+  private final BserDeserializer bserDeserializer =
+      new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
+  private final Thread readerThread;
+
+  // Replies to the commands we send, as opposed to the changes Watchman sends on its own.
+  private final BlockingQueue<Map<String, Object>> responses = new LinkedBlockingQueue<>();
+  // Held while waiting for a response, which must not keep the reader from queueing changes.
+  private final Object commandLock = new Object();
+
+  @GuardedBy("this")
+  private final List<Map<String, Object>> pendingChanges = new ArrayList<>();
+  @GuardedBy("this")
+  private int pendingFiles = 0;
+  @GuardedBy("this")
+  private boolean droppedChanges = false;
+
+  private volatile boolean closed = false;
+  @Nullable
+  private volatile IOException failure = null;
+
+  @VisibleForTesting
+  WatchmanSubscription(
+      String name,
+      String watchRoot,
+      InputStream input,
+      OutputStream output,
+      Closeable connection,
+      boolean reportInitialFreshInstance,
+      int maxPendingFiles) {
+    this.name = name;
+    this.watchRoot = watchRoot;
+    this.input = input;
+    this.output = output;
+    this.connection = connection;
+    this.reportInitialFreshInstance = reportInitialFreshInstance;
+    this.maxPendingFiles = maxPendingFiles;
+    this.readerThread = new Thread(this::readResponses, "Watchman subscription " + name);
+    this.readerThread.setDaemon(true);
+  }
+
+  /**
+   * Connects to the Watchman server listening on {@code socketPath} and subscribes to the changes
+   * which match {@code query}.
+   *
+   * @param reportInitialFreshInstance whether to queue the fresh instance Watchman reports when
+   *     the subscription starts. Only subscribers holding state from before the subscription
+   *     need to hear about it.
+   * @param maxPendingFiles how many changed files are queued at most until they are drained.
+   */
+  public static WatchmanSubscription subscribe(
+      Path socketPath,
+      String name,
+      WatchmanQuery query,
+      boolean reportInitialFreshInstance,
+      int maxPendingFiles,
+      long timeoutNanos) throws IOException, InterruptedException {
+    Socket socket = UnixDomainSocket.createSocketWithPath(socketPath);
+    WatchmanSubscription subscription = new WatchmanSubscription(
+        name,
+        query.getQueryPath(),
+        socket.getInputStream(),
+        socket.getOutputStream(),
+        socket,
+        reportInitialFreshInstance,
+        maxPendingFiles);
+    subscription.start(query, timeoutNanos);
+    return subscription;
+  }
+
+  @VisibleForTesting
+  void start(WatchmanQuery query, long timeoutNanos) throws IOException, InterruptedException {
+    readerThread.start();
+    Optional<Map<String, Object>> response =
+        sendCommand(timeoutNanos, query.toSubscribeList(name));
+    if (!response.isPresent() || response.get().containsKey("error")) {
+      close();
+      throw new IOException(
+          String.format(
+              "Could not subscribe to Watchman: %s",
+              response.isPresent() ? response.get().get("error") : "timed out"));
+    }
+    LOG.debug("Subscribed to Watchman as %s", name);
+  }
+
+  /**
+   * Waits until Watchman has sent every change made before this was called.
+   *
+   * @return the response of Watchman, or nothing if it did not respond in time.
+   */
+  public Optional<Map<String, Object>> flush(long timeoutNanos)
+      throws IOException, InterruptedException {
+    return sendCommand(
+        timeoutNanos,
+        ImmutableList.of(
+            "flush-subscriptions",
+            watchRoot,
+            ImmutableMap.of(
+                "sync_timeout", TimeUnit.NANOSECONDS.toMillis(timeoutNanos),
+                "subscriptions", ImmutableList.of(name))));
+  }
+
+  private Optional<Map<String, Object>> sendCommand(
+      long timeoutNanos,
+      List<Object> command) throws IOException, InterruptedException {
+    synchronized (commandLock) {
+      checkAlive();
+      LOG.debug("Sending command: %s", command);
+      bserSerializer.serializeToStream(command, output);
+      Map<String, Object> response = responses.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+      if (response == null) {
+        checkAlive();
+        // A late response would be taken as the response to the next command.
+        LOG.warn("Watchman did not respond to %s, closing the subscription.", command);
+        close();
+      }
+      return Optional.ofNullable(response);
+    }
+  }
+
+  private void checkAlive() throws IOException {
+    IOException failure = this.failure;
+    if (failure != null) {
+      throw new IOException("Watchman subscription failed", failure);
+    }
+    if (closed) {
+      throw new IOException("Watchman subscription is closed");
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void readResponses() {
+    boolean seenChanges = false;
+    while (!closed) {
+      Object value;
+      try {
+        value = bserDeserializer.deserializeBserValue(input);
+      } catch (IOException e) {
+        if (!closed) {
+          LOG.warn(e, "Lost the Watchman subscription %s", name);
+          failure = e;
+        }
+        break;
+      }
+      if (!(value instanceof Map)) {
+        LOG.warn("Unrecognized Watchman response: %s", value);
+        continue;
+      }
+      Map<String, Object> response = (Map<String, Object>) value;
+      if (response.containsKey("log") ||
+          response.containsKey("state-enter") ||
+          response.containsKey("state-leave")) {
+        continue;
+      }
+      if (!response.containsKey("subscription")) {
+        responses.add(response);
+        continue;
+      }
+      boolean initial = !seenChanges;
+      seenChanges = true;
+      if (initial &&
+          !reportInitialFreshInstance &&
+          Boolean.TRUE.equals(response.get("is_fresh_instance"))) {
+        continue;
+      }
+      synchronized (this) {
+        if (!droppedChanges) {
+          pendingFiles += countFiles(response);
+          if (pendingFiles > maxPendingFiles) {
+            LOG.warn("More than %d changed files queued, dropping them.", maxPendingFiles);
+            pendingChanges.clear();
+            droppedChanges = true;
+          } else {
+            pendingChanges.add(response);
+          }
+        }
+        notifyAll();
+      }
+    }
+    synchronized (this) {
+      notifyAll();
+    }
+  }
+
+  /**
+   * Waits until changes are queued, or the subscription ends.
+   *
+   * @return whether there are changes to drain.
+   */
+  public synchronized boolean awaitChanges() throws InterruptedException {
+    while (pendingChanges.isEmpty() && !droppedChanges && isAlive()) {
+      wait();
+    }
+    return !pendingChanges.isEmpty() || droppedChanges;
+  }
+
+  /**
+   * @return the changes queued so far, in the order Watchman sent them, which are removed from
+   *     the queue, or nothing if more files changed than the queue holds since it was last
+   *     drained.
+   */
+  public synchronized Optional<ImmutableList<Map<String, Object>>> drainChanges() {
+    Optional<ImmutableList<Map<String, Object>>> changes =
+        droppedChanges ? Optional.empty() : Optional.of(ImmutableList.copyOf(pendingChanges));
+    pendingChanges.clear();
+    pendingFiles = 0;
+    droppedChanges = false;
+    return changes;
+  }
+
+  /**
+   * @return the number of changed files in a response of Watchman.
+   */
+  public static int countFiles(Map<String, ? extends Object> response) {
+    Object files = response.get("files");
+    return files instanceof List ? ((List<?>) files).size() : 0;
+  }
+
+  /**
+   * @return whether changes are still being received. Once they are not, changes made since may
+   *     have been missed.
+   */
+  public boolean isAlive() {
+    return !closed && failure == null;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    LOG.debug("Closing Watchman subscription %s", name);
+    try {
+      connection.close();
+    } finally {
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+  }
+}
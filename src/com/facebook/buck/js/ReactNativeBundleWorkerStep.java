@@ -61,6 +61,9 @@ public class ReactNativeBundleWorkerStep extends WorkerShellStep {
                     resourcePath.toString(),
                     sourceMapFile.toString()),
                 1,
+                1,
+                Optional.empty(),
+                Optional.empty(),
                 Optional.empty(),
                 Optional.empty())),
         Optional.empty(),
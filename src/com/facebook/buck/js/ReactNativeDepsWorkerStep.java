@@ -52,6 +52,9 @@ public class ReactNativeDepsWorkerStep extends WorkerShellStep {
                     entryFile.toString(),
                     outputFile.toString()),
                 1,
+                1,
+                Optional.empty(),
+                Optional.empty(),
                 Optional.empty(),
                 Optional.empty())),
         Optional.empty(),
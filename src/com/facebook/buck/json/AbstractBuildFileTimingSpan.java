@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import com.facebook.buck.util.immutables.BuckStyleTuple;
+
+import org.immutables.value.Value;
+
+/**
+ * A part of processing a build file which buck.py timed when profiling, such as loading an
+ * include or evaluating a glob.
+ */
+@Value.Immutable
+@BuckStyleTuple
+interface AbstractBuildFileTimingSpan {
+  BuildFileParseProfile.Category getCategory();
+
+  /**
+   * @return what was timed within the category, such as the name of an include or the patterns
+   *     of a glob.
+   */
+  String getName();
+
+  /**
+   * @return when the span started, relative to when buck.py started processing the build file.
+   */
+  long getStartMicros();
+  long getDurationMicros();
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import com.facebook.buck.util.immutables.BuckStyleTuple;
+import com.google.common.collect.ImmutableList;
+
+import org.immutables.value.Value;
+
+/**
+ * Where the time buck.py took to process a build file went, as reported when profiling.
+ */
+@Value.Immutable
+@BuckStyleTuple
+interface AbstractBuildFileTimings {
+  long getTotalMicros();
+
+  /**
+   * @return the timed parts of processing the build file, in the order they ended. Spans may
+   *     nest, for instance when an include loads another include.
+   */
+  ImmutableList<BuildFileTimingSpan> getSpans();
+}
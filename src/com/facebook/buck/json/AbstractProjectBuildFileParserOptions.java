@@ -73,6 +73,15 @@ abstract class AbstractProjectBuildFileParserOptions {
     return false;
   }
 
+  /**
+   * How many workers buck.py forks to process build files with. When non-zero, requests carry an
+   * id and any number of them may be in flight at once.
+   */
+  @Value.Default
+  public int getForkedWorkers() {
+    return 0;
+  }
+
   abstract Optional<Long> getWatchmanQueryTimeoutMs();
   abstract boolean getEnableBuildFileSandboxing();
   abstract List<String> getBuildFileImportWhitelist();
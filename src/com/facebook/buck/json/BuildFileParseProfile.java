@@ -0,0 +1,248 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import com.google.common.collect.ImmutableList;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Aggregates the timings buck.py reports for each build file, to show which build files,
+ * includes, globs and rules parsing spends its time on.
+ * <p>
+ * Nested spans of the same category are only counted once towards the time of their build file,
+ * so that an include which loads other includes is not counted twice.
+ */
+public class BuildFileParseProfile {
+
+  public enum Category {
+    INCLUDE("include", "includes"),
+    GLOB("glob", "globs"),
+    WATCHMAN("watchman", "Watchman queries"),
+    RULE("rule", "rule functions");
+
+    private final String pythonName;
+    private final String description;
+
+    Category(String pythonName, String description) {
+      this.pythonName = pythonName;
+      this.description = description;
+    }
+
+    /**
+     * @return the category buck.py names {@code pythonName}.
+     * @throws IllegalArgumentException if there is no such category.
+     */
+    public static Category fromPythonName(String pythonName) {
+      for (Category category : values()) {
+        if (category.pythonName.equals(pythonName)) {
+          return category;
+        }
+      }
+      throw new IllegalArgumentException("Unknown timing category: " + pythonName);
+    }
+  }
+
+  private final List<BuildFileEntry> buildFiles = new ArrayList<>();
+  private final Map<Category, Map<String, NameEntry>> names = new EnumMap<>(Category.class);
+
+  public synchronized void record(Path buildFile, BuildFileTimings timings) {
+    buildFiles.add(
+        new BuildFileEntry(buildFile, timings.getTotalMicros(), getMicrosPerCategory(timings)));
+    for (BuildFileTimingSpan span : timings.getSpans()) {
+      names
+          .computeIfAbsent(span.getCategory(), category -> new HashMap<>())
+          .merge(
+              span.getName(),
+              new NameEntry(span.getCategory(), span.getName(), span.getDurationMicros(), 1),
+              NameEntry::plus);
+    }
+  }
+
+  private static EnumMap<Category, Long> getMicrosPerCategory(BuildFileTimings timings) {
+    List<BuildFileTimingSpan> spans = new ArrayList<>(timings.getSpans());
+    // Outer spans first, so that the spans nested in them can be skipped.
+    spans.sort(
+        Comparator.comparingLong(BuildFileTimingSpan::getStartMicros)
+            .thenComparing(
+                Comparator.comparingLong(BuildFileTimingSpan::getDurationMicros).reversed()));
+    EnumMap<Category, Long> micros = new EnumMap<>(Category.class);
+    EnumMap<Category, Long> countedUntil = new EnumMap<>(Category.class);
+    for (BuildFileTimingSpan span : spans) {
+      Long until = countedUntil.get(span.getCategory());
+      if (until != null && span.getStartMicros() < until) {
+        continue;
+      }
+      micros.merge(span.getCategory(), span.getDurationMicros(), Long::sum);
+      countedUntil.put(span.getCategory(), span.getStartMicros() + span.getDurationMicros());
+    }
+    return micros;
+  }
+
+  public synchronized boolean isEmpty() {
+    return buildFiles.isEmpty();
+  }
+
+  /**
+   * @return the time spent on each build file recorded so far, in the given order.
+   */
+  public synchronized ImmutableList<BuildFileEntry> getBuildFiles(
+      Comparator<BuildFileEntry> order) {
+    List<BuildFileEntry> sorted = new ArrayList<>(buildFiles);
+    sorted.sort(order);
+    return ImmutableList.copyOf(sorted);
+  }
+
+  /**
+   * @return the time spent on each include, glob, Watchman query or rule function in
+   *     {@code category} over all build files, slowest first.
+   */
+  public synchronized ImmutableList<NameEntry> getNames(Category category) {
+    List<NameEntry> sorted =
+        new ArrayList<>(names.getOrDefault(category, new HashMap<>()).values());
+    sorted.sort(Comparator.comparingLong(NameEntry::getTotalMicros).reversed());
+    return ImmutableList.copyOf(sorted);
+  }
+
+  public static Comparator<BuildFileEntry> byTotalTime() {
+    return Comparator.comparingLong(BuildFileEntry::getTotalMicros).reversed();
+  }
+
+  public static Comparator<BuildFileEntry> byTime(Category category) {
+    return Comparator.<BuildFileEntry>comparingLong(entry -> entry.getMicros(category))
+        .reversed();
+  }
+
+  /**
+   * @return a table of the {@code maxRows} first build files in the given order, followed by the
+   *     {@code maxRows} slowest names of each category.
+   */
+  public String formatReport(Comparator<BuildFileEntry> order, int maxRows) {
+    ImmutableList<BuildFileEntry> sortedBuildFiles = getBuildFiles(order);
+    StringBuilder report = new StringBuilder();
+    report.append(
+        String.format(
+            "Time spent parsing %d build files (ms):%n", sortedBuildFiles.size()));
+    report.append(String.format("%10s", "total"));
+    for (Category category : Category.values()) {
+      report.append(String.format("%10s", category.pythonName));
+    }
+    report.append(String.format("  build file%n"));
+    for (BuildFileEntry entry : sortedBuildFiles.subList(
+        0,
+        Math.min(maxRows, sortedBuildFiles.size()))) {
+      report.append(formatMillis(entry.getTotalMicros()));
+      for (Category category : Category.values()) {
+        report.append(formatMillis(entry.getMicros(category)));
+      }
+      report.append(String.format("  %s%n", entry.getBuildFile()));
+    }
+
+    for (Category category : Category.values()) {
+      ImmutableList<NameEntry> sortedNames = getNames(category);
+      if (sortedNames.isEmpty()) {
+        continue;
+      }
+      report.append(String.format("Slowest %s (ms, count):%n", category.description));
+      for (NameEntry entry : sortedNames.subList(0, Math.min(maxRows, sortedNames.size()))) {
+        report.append(formatMillis(entry.getTotalMicros()));
+        report.append(String.format("%10d  %s%n", entry.getCount(), entry.getName()));
+      }
+    }
+    return report.toString();
+  }
+
+  private static String formatMillis(long micros) {
+    return String.format(Locale.US, "%10.1f", micros / 1000.0);
+  }
+
+  /**
+   * The time buck.py spent on one build file.
+   */
+  public static class BuildFileEntry {
+    private final Path buildFile;
+    private final long totalMicros;
+    private final EnumMap<Category, Long> micros;
+
+    private BuildFileEntry(Path buildFile, long totalMicros, EnumMap<Category, Long> micros) {
+      this.buildFile = buildFile;
+      this.totalMicros = totalMicros;
+      this.micros = micros;
+    }
+
+    public Path getBuildFile() {
+      return buildFile;
+    }
+
+    public long getTotalMicros() {
+      return totalMicros;
+    }
+
+    public long getMicros(Category category) {
+      return micros.getOrDefault(category, 0L);
+    }
+  }
+
+  /**
+   * The time buck.py spent on an include, glob, Watchman query or rule function, over all the
+   * build files using it.
+   */
+  public static class NameEntry {
+    private final Category category;
+    private final String name;
+    private final long totalMicros;
+    private final int count;
+
+    private NameEntry(Category category, String name, long totalMicros, int count) {
+      this.category = category;
+      this.name = name;
+      this.totalMicros = totalMicros;
+      this.count = count;
+    }
+
+    private NameEntry plus(NameEntry other) {
+      return new NameEntry(
+          category,
+          name,
+          totalMicros + other.totalMicros,
+          count + other.count);
+    }
+
+    public Category getCategory() {
+      return category;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getTotalMicros() {
+      return totalMicros;
+    }
+
+    public int getCount() {
+      return count;
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import com.facebook.buck.io.MorePaths;
+import com.facebook.buck.log.Logger;
+import com.google.common.collect.ImmutableList;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+/**
+ * Results of {@code glob()} calls in build files, kept by the daemon so that they are shared by
+ * all build files and parser processes, and outlive reparses of the build files which made them.
+ * <p>
+ * Results are dropped when a file they could match is added or removed, which is decided from the
+ * include patterns only, so that a result is never kept when it may have changed.
+ */
+public class GlobResultCache {
+
+  private static final Logger LOG = Logger.get(GlobResultCache.class);
+
+  // Keyed by cell root, then by base path, so that the globs a changed path could affect are
+  // found by looking up the directories containing it.
+  private final ConcurrentMap<Path, ConcurrentMap<String, ConcurrentMap<GlobSpec, CachedGlob>>>
+      results = new ConcurrentHashMap<>();
+  private final AtomicLong generation = new AtomicLong();
+
+  /**
+   * @return the cached results of {@code spec} in the cell at {@code cellRoot}, if any.
+   */
+  public Optional<ImmutableList<String>> get(Path cellRoot, GlobSpec spec) {
+    Map<String, ConcurrentMap<GlobSpec, CachedGlob>> cellGlobs = results.get(cellRoot);
+    Map<GlobSpec, CachedGlob> globs =
+        cellGlobs == null ? null : cellGlobs.get(spec.getBasePath());
+    CachedGlob cached = globs == null ? null : globs.get(spec);
+    if (cached == null) {
+      return Optional.empty();
+    }
+    return Optional.of(cached.files);
+  }
+
+  /**
+   * @return a token to pass to {@link #put} along with results which are computed from here on.
+   */
+  public long getGeneration() {
+    return generation.get();
+  }
+
+  /**
+   * Caches {@code files} as the results of {@code spec}, unless files were added or removed since
+   * {@code generation} was obtained, in which case the results may already be stale.
+   */
+  public void put(Path cellRoot, GlobSpec spec, ImmutableList<String> files, long generation) {
+    ConcurrentMap<GlobSpec, CachedGlob> globs = getGlobsInBasePath(cellRoot, spec.getBasePath());
+    synchronized (this) {
+      if (generation == this.generation.get()) {
+        globs.put(spec, new CachedGlob(spec, files));
+      }
+    }
+  }
+
+  private ConcurrentMap<GlobSpec, CachedGlob> getGlobsInBasePath(Path cellRoot, String basePath) {
+    return results
+        .computeIfAbsent(cellRoot, root -> new ConcurrentHashMap<>())
+        .computeIfAbsent(basePath, base -> new ConcurrentHashMap<>());
+  }
+
+  /**
+   * Drops the results which may change because the file at {@code path}, relative to a cell
+   * root, was added or removed. Watch events are not reported for directories, but for each file
+   * in them.
+   */
+  public void invalidateForAddedOrRemovedPath(Path path) {
+    String pathString = MorePaths.pathWithUnixSeparators(path);
+    synchronized (this) {
+      generation.incrementAndGet();
+    }
+    for (ConcurrentMap<String, ConcurrentMap<GlobSpec, CachedGlob>> cellGlobs :
+         results.values()) {
+      // Only globs based in the directories containing the path can match it.
+      invalidateMatching(cellGlobs.get(""), pathString);
+      int separator = pathString.indexOf('/');
+      while (separator >= 0) {
+        invalidateMatching(
+            cellGlobs.get(pathString.substring(0, separator)),
+            pathString.substring(separator + 1));
+        separator = pathString.indexOf('/', separator + 1);
+      }
+    }
+  }
+
+  private static void invalidateMatching(
+      @Nullable Map<GlobSpec, CachedGlob> globs,
+      String relativePath) {
+    if (globs == null) {
+      return;
+    }
+    Iterator<CachedGlob> iterator = globs.values().iterator();
+    while (iterator.hasNext()) {
+      CachedGlob cached = iterator.next();
+      if (cached.isAffectedBy(relativePath)) {
+        LOG.verbose("Invalidating glob %s because of %s", cached.spec, relativePath);
+        iterator.remove();
+      }
+    }
+  }
+
+  public void invalidateAll() {
+    synchronized (this) {
+      generation.incrementAndGet();
+    }
+    results.clear();
+  }
+
+  private static class CachedGlob {
+    private final GlobSpec spec;
+    private final ImmutableList<String> files;
+    private final ImmutableList<Pattern> includePatterns;
+
+    private CachedGlob(GlobSpec spec, ImmutableList<String> files) {
+      this.spec = spec;
+      this.files = files;
+      ImmutableList.Builder<Pattern> patterns = ImmutableList.builder();
+      for (String include : spec.getIncludes()) {
+        patterns.add(globToPattern(include));
+      }
+      this.includePatterns = patterns.build();
+    }
+
+    /**
+     * Whether adding or removing the file at {@code relativePath} could change the results.
+     */
+    private boolean isAffectedBy(String relativePath) {
+      for (Pattern pattern : includePatterns) {
+        if (pattern.matcher(relativePath).matches()) {
+          return true;
+        }
+      }
+      return files.contains(relativePath);
+    }
+  }
+
+  /**
+   * Translates a glob into a regular expression which matches at least the paths the glob does.
+   * Character classes are widened to any character, as the glob implementations buck.py may use
+   * differ in how they treat them.
+   */
+  static Pattern globToPattern(String glob) {
+    StringBuilder regex = new StringBuilder();
+    int i = 0;
+    while (i < glob.length()) {
+      char c = glob.charAt(i);
+      if (glob.startsWith("**/", i)) {
+        regex.append("(?:.*/)?");
+        i += 3;
+      } else if (glob.startsWith("**", i)) {
+        regex.append(".*");
+        i += 2;
+      } else if (c == '*') {
+        regex.append("[^/]*");
+        i++;
+      } else if (c == '?') {
+        regex.append("[^/]");
+        i++;
+      } else if (c == '[' && glob.indexOf(']', i + 2) > 0) {
+        regex.append("[^/]");
+        i = glob.indexOf(']', i + 2) + 1;
+      } else if (c == '/') {
+        // Duplicate slashes are collapsed by the glob implementations.
+        regex.append('/');
+        while (i < glob.length() && glob.charAt(i) == '/') {
+          i++;
+        }
+      } else {
+        regex.append(Pattern.quote(String.valueOf(c)));
+        i++;
+      }
+    }
+    return Pattern.compile(regex.toString());
+  }
+}
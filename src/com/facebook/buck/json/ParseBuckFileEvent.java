@@ -24,6 +24,7 @@ import com.google.common.base.Objects;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 /**
  * Base class for events about parsing build files..
@@ -52,8 +53,9 @@ public abstract class ParseBuckFileEvent extends AbstractBuckEvent implements Wo
   public static Finished finished(
       Started started,
       List<Map<String, Object>> rules,
-      String profile) {
-    return new Finished(started, rules, profile);
+      String profile,
+      Optional<BuildFileTimings> timings) {
+    return new Finished(started, rules, profile, timings);
   }
 
   public static class Started extends ParseBuckFileEvent {
@@ -68,13 +70,21 @@ public abstract class ParseBuckFileEvent extends AbstractBuckEvent implements Wo
   }
 
   public static class Finished extends ParseBuckFileEvent {
+    private final Started started;
     private final List<Map<String, Object>> rules;
     private final String profile;
+    private final Optional<BuildFileTimings> timings;
 
-    protected Finished(Started started, List<Map<String, Object>> rules, String profile) {
+    protected Finished(
+        Started started,
+        List<Map<String, Object>> rules,
+        String profile,
+        Optional<BuildFileTimings> timings) {
       super(started.getEventKey(), started.getBuckFilePath());
+      this.started = started;
       this.rules = rules;
       this.profile = profile;
+      this.timings = timings;
     }
 
     @Override
@@ -94,6 +104,21 @@ public abstract class ParseBuckFileEvent extends AbstractBuckEvent implements Wo
       return profile;
     }
 
+    /**
+     * @return where buck.py spent its time on the build file, if profiling was enabled.
+     */
+    public Optional<BuildFileTimings> getTimings() {
+      return timings;
+    }
+
+    /**
+     * @return the time the {@link Started} event was posted at. buck.py starts timing the build
+     *     file shortly after, so the spans of {@link #getTimings()} can be placed relative to it.
+     */
+    public long getStartedNanoTime() {
+      return started.getNanoTime();
+    }
+
     @Override
     public boolean equals(Object o) {
       if (!super.equals(o)) {
@@ -51,6 +51,7 @@ import org.immutables.value.Value;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -60,8 +61,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 
@@ -73,6 +79,13 @@ public class ProjectBuildFileParser implements AutoCloseable {
 
   private static final Logger LOG = Logger.get(ProjectBuildFileParser.class);
 
+  // Messages buck.py sends while evaluating a build file, to look up or add glob results.
+  private static final String GLOB_LOOKUP_REQUEST = "glob_lookup";
+  private static final String GLOB_STORE_REQUEST = "glob_store";
+
+  // Queued for the requests still waiting for a response when buck.py stops sending output.
+  private static final Object PARSER_EXITED = new Object();
+
   private final ImmutableMap<String, String> environment;
 
   @Nullable private BuckPythonProgram buckPythonProgram;
@@ -91,10 +104,21 @@ public class ProjectBuildFileParser implements AutoCloseable {
   private final AssertScopeExclusiveAccess assertSingleThreadedParsing;
   private final boolean ignoreBuckAutodepsFiles;
 
-  private boolean isInitialized;
-  private boolean isClosed;
+  private volatile boolean isInitialized;
+  private volatile boolean isClosed;
+
+  // When buck.py forks workers, it answers requests in the order they complete rather than the
+  // order they were sent, so its output is read by a thread of its own and handed to the request
+  // whose id it carries.
+  private final AtomicLong nextRequestId = new AtomicLong();
+  private final ConcurrentMap<Long, BlockingQueue<Object>> pendingResponses =
+      new ConcurrentHashMap<>();
+  @Nullable private Thread buckPyOutputReaderThread;
+  private volatile boolean buckPyOutputEnded;
 
   private boolean enableProfiling;
+  private Optional<GlobResultCache> globResultCache = Optional.empty();
+  private Optional<BuildFileParseProfile> parseProfile = Optional.empty();
   @Nullable private FutureTask<Void> stderrConsumerTerminationFuture;
   @Nullable private Thread stderrConsumerThread;
   @Nullable private ProjectBuildFileParseEvents.Started projectBuildFileParseEventStarted;
@@ -159,6 +183,26 @@ public class ProjectBuildFileParser implements AutoCloseable {
     this.enableProfiling = enableProfiling;
   }
 
+  /**
+   * Makes buck.py look up the results of {@code glob()} calls in {@code globResultCache} before
+   * evaluating them, and add the results it evaluates.
+   */
+  public void setGlobResultCache(GlobResultCache globResultCache) {
+    ensureNotClosed();
+    ensureNotInitialized();
+    this.globResultCache = Optional.of(globResultCache);
+  }
+
+  /**
+   * Has buck.py report where the time to process each build file went, and records it in
+   * {@code parseProfile}.
+   */
+  public void setParseProfile(BuildFileParseProfile parseProfile) {
+    ensureNotClosed();
+    ensureNotInitialized();
+    this.parseProfile = Optional.of(parseProfile);
+  }
+
   @VisibleForTesting
   public boolean isClosed() {
     return isClosed;
@@ -178,7 +222,7 @@ public class ProjectBuildFileParser implements AutoCloseable {
    * to the actual parse phase.
    */
   @VisibleForTesting
-  public void initIfNeeded() throws IOException {
+  public synchronized void initIfNeeded() throws IOException {
     ensureNotClosed();
     if (!isInitialized) {
       init();
@@ -231,9 +275,33 @@ public class ProjectBuildFileParser implements AutoCloseable {
       stderrConsumerThread.start();
 
       buckPyStdinWriter = new BufferedOutputStream(stdin);
+
+      if (isMultiplexed()) {
+        InputStream stdout = buckPyProcess.getInputStream();
+        buckPyOutputReaderThread = Threads.namedThread(
+            ProjectBuildFileParser.class.getSimpleName() + " output",
+            () -> readMultiplexedOutput(stdout));
+        buckPyOutputReaderThread.setDaemon(true);
+        buckPyOutputReaderThread.start();
+      }
     }
   }
 
+  /**
+   * @return whether any number of requests may be sent to buck.py without waiting for the
+   *     responses to the previous ones.
+   */
+  private boolean isMultiplexed() {
+    return options.getForkedWorkers() > 0;
+  }
+
+  /**
+   * @return whether the parser can no longer be used, as buck.py exited or it was closed.
+   */
+  public boolean isDefunct() {
+    return isClosed || buckPyOutputEnded;
+  }
+
   private ImmutableList<String> buildArgs() throws IOException {
     // Invoking buck.py and read JSON-formatted build rules from its stdout.
     ImmutableList.Builder<String> argBuilder = ImmutableList.builder();
@@ -250,6 +318,10 @@ public class ProjectBuildFileParser implements AutoCloseable {
       argBuilder.add("--profile");
     }
 
+    if (parseProfile.isPresent()) {
+      argBuilder.add("--timings");
+    }
+
     if (ignoreBuckAutodepsFiles) {
       argBuilder.add("--ignore_buck_autodeps_files");
     }
@@ -286,6 +358,14 @@ public class ProjectBuildFileParser implements AutoCloseable {
       argBuilder.add("--use_mercurial_glob");
     }
 
+    if (isMultiplexed()) {
+      argBuilder.add("--fork_workers", Integer.toString(options.getForkedWorkers()));
+    }
+
+    if (globResultCache.isPresent()) {
+      argBuilder.add("--use_daemon_glob_cache");
+    }
+
     if (options.getEnableBuildFileSandboxing()) {
       argBuilder.add("--enable_build_file_sandboxing");
     }
@@ -370,24 +450,28 @@ public class ProjectBuildFileParser implements AutoCloseable {
 
     ImmutableList<Map<String, Object>> values = ImmutableList.of();
     String profile = "";
-    try (AssertScopeExclusiveAccess.Scope scope = assertSingleThreadedParsing.scope()) {
+    Optional<BuildFileTimings> timings = Optional.empty();
+    try {
       ProjectWatch projectWatch = options.getWatchman().getProjectWatch();
-      bserSerializer.serializeToStream(
-          ImmutableMap.of(
-              "buildFile", buildFile.toString(),
-              "watchRoot", projectWatch.getWatchRoot(),
-              "projectPrefix", projectWatch.getProjectPrefix().orElse("")),
-          buckPyStdinWriter);
-      buckPyStdinWriter.flush();
-
-      LOG.debug("Parsing output of process %s...", buckPyProcess);
+      ImmutableMap<String, Object> request = ImmutableMap.of(
+          "buildFile", buildFile.toString(),
+          "watchRoot", projectWatch.getWatchRoot(),
+          "projectPrefix", projectWatch.getProjectPrefix().orElse(""));
       Object deserializedValue;
-      try {
-        deserializedValue = bserDeserializer.deserializeBserValue(
-            buckPyProcess.getInputStream());
-      } catch (BserDeserializer.BserEofException e) {
-        LOG.warn(e, "Parser exited while decoding BSER data");
-        throw new IOException("Parser exited unexpectedly", e);
+      if (isMultiplexed()) {
+        deserializedValue = sendMultiplexedRequest(request);
+      } else {
+        try (AssertScopeExclusiveAccess.Scope scope = assertSingleThreadedParsing.scope()) {
+          writeToBuckPy(request);
+
+          LOG.debug("Parsing output of process %s...", buckPyProcess);
+          deserializedValue = readBuckPyOutput(buckPyProcess);
+          // While evaluating the build file, buck.py may ask us about its globs.
+          while (isGlobRequest(deserializedValue)) {
+            handleGlobRequest((Map<?, ?>) deserializedValue, Optional.empty());
+            deserializedValue = readBuckPyOutput(buckPyProcess);
+          }
+        }
       }
       BuildFilePythonResult resultObject = handleDeserializedValue(deserializedValue);
       Path buckPyPath = getPathToBuckPy(options.getDescriptions());
@@ -403,10 +487,158 @@ public class ProjectBuildFileParser implements AutoCloseable {
       if (profile != null) {
         LOG.debug("Profile result: %s", profile);
       }
+      timings = resultObject.getTimings();
+      if (timings.isPresent() && parseProfile.isPresent()) {
+        parseProfile.get().record(buildFile, timings.get());
+      }
       return values;
     } finally {
-      buckEventBus.post(ParseBuckFileEvent.finished(parseBuckFileStarted, values, profile));
+      buckEventBus.post(
+          ParseBuckFileEvent.finished(parseBuckFileStarted, values, profile, timings));
+    }
+  }
+
+  @Nullable
+  private Object sendMultiplexedRequest(ImmutableMap<String, Object> request) throws IOException {
+    long requestId = nextRequestId.incrementAndGet();
+    BlockingQueue<Object> responses = getResponseQueue(requestId);
+    try {
+      // Checked once the queue is registered, so that it is ended either by the reader or here.
+      if (buckPyOutputEnded) {
+        responses.add(PARSER_EXITED);
+      }
+      writeToBuckPy(
+          ImmutableMap.<String, Object>builder()
+              .putAll(request)
+              .put("id", requestId)
+              .build());
+
+      LOG.debug("Waiting for the output of process %s for request %d...", buckPyProcess, requestId);
+      Object deserializedValue = takeResponse(responses);
+      while (isGlobRequest(deserializedValue)) {
+        handleGlobRequest((Map<?, ?>) deserializedValue, Optional.of(requestId));
+        deserializedValue = takeResponse(responses);
+      }
+      return deserializedValue;
+    } finally {
+      pendingResponses.remove(requestId);
+    }
+  }
+
+  private BlockingQueue<Object> getResponseQueue(long requestId) {
+    return pendingResponses.computeIfAbsent(requestId, id -> new LinkedBlockingQueue<>());
+  }
+
+  private static Object takeResponse(BlockingQueue<Object> responses) throws IOException {
+    Object response;
+    try {
+      response = responses.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the parser");
+    }
+    if (response == PARSER_EXITED) {
+      throw new IOException("Parser exited unexpectedly");
+    }
+    return response;
+  }
+
+  private void readMultiplexedOutput(InputStream buckPyStdout) {
+    try {
+      while (true) {
+        Object deserializedValue = bserDeserializer.deserializeBserValue(buckPyStdout);
+        Object requestId = deserializedValue instanceof Map<?, ?> ?
+            ((Map<?, ?>) deserializedValue).get("id") :
+            null;
+        if (!(requestId instanceof Number)) {
+          LOG.warn("Ignoring parser output without a request id: %s", deserializedValue);
+          continue;
+        }
+        getResponseQueue(((Number) requestId).longValue()).add(deserializedValue);
+      }
+    } catch (BserDeserializer.BserEofException e) {
+      LOG.debug("Process %s closed its output", buckPyProcess);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to read the output of process %s", buckPyProcess);
+    } finally {
+      buckPyOutputEnded = true;
+      for (BlockingQueue<Object> responses : pendingResponses.values()) {
+        responses.add(PARSER_EXITED);
+      }
+    }
+  }
+
+  private void writeToBuckPy(Object value) throws IOException {
+    BufferedOutputStream writer = Preconditions.checkNotNull(buckPyStdinWriter);
+    synchronized (writer) {
+      bserSerializer.serializeToStream(value, writer);
+      writer.flush();
+    }
+  }
+
+  @Nullable
+  private Object readBuckPyOutput(ProcessExecutor.LaunchedProcess buckPyProcess)
+      throws IOException {
+    try {
+      return bserDeserializer.deserializeBserValue(buckPyProcess.getInputStream());
+    } catch (BserDeserializer.BserEofException e) {
+      LOG.warn(e, "Parser exited while decoding BSER data");
+      throw new IOException("Parser exited unexpectedly", e);
+    }
+  }
+
+  private static boolean isGlobRequest(@Nullable Object deserializedValue) {
+    if (!(deserializedValue instanceof Map<?, ?>)) {
+      return false;
     }
+    Object type = ((Map<?, ?>) deserializedValue).get("type");
+    return GLOB_LOOKUP_REQUEST.equals(type) || GLOB_STORE_REQUEST.equals(type);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void handleGlobRequest(Map<?, ?> request, Optional<Long> requestId)
+      throws IOException {
+    if (!globResultCache.isPresent()) {
+      throw new IOException("Parser sent a glob request, but no glob cache is in use");
+    }
+    GlobResultCache cache = globResultCache.get();
+    Path cellRoot = options.getProjectRoot();
+    GlobSpec spec;
+    try {
+      spec = GlobSpec.of(
+          (String) request.get("basePath"),
+          ImmutableList.copyOf((List<String>) request.get("includes")),
+          ImmutableList.copyOf((List<String>) request.get("excludes")),
+          (Boolean) request.get("includeDotfiles"));
+    } catch (ClassCastException | NullPointerException e) {
+      throw new IOException(String.format("Invalid glob request %s", request), e);
+    }
+
+    if (GLOB_STORE_REQUEST.equals(request.get("type"))) {
+      try {
+        cache.put(
+            cellRoot,
+            spec,
+            ImmutableList.copyOf((List<String>) request.get("files")),
+            ((Number) request.get("generation")).longValue());
+      } catch (ClassCastException | NullPointerException e) {
+        throw new IOException(String.format("Invalid glob results %s", request), e);
+      }
+      return;
+    }
+
+    Optional<ImmutableList<String>> files = cache.get(cellRoot, spec);
+    LOG.verbose("Glob %s in %s: %s", spec, cellRoot, files.isPresent() ? "hit" : "miss");
+    ImmutableMap.Builder<String, Object> response = ImmutableMap.builder();
+    if (files.isPresent()) {
+      response.put("files", files.get());
+    } else {
+      response.put("generation", cache.getGeneration());
+    }
+    if (requestId.isPresent()) {
+      response.put("id", requestId.get());
+    }
+    writeToBuckPy(response.build());
   }
 
   @SuppressWarnings("unchecked")
@@ -435,10 +667,32 @@ public class ProjectBuildFileParser implements AutoCloseable {
     } catch (ClassCastException e) {
       throw new IOException("Invalid parser profile", e);
     }
+    Optional<BuildFileTimings> timings;
+    try {
+      timings = Optional.ofNullable((Map<String, Object>) decodedResult.get("timings"))
+          .map(ProjectBuildFileParser::parseTimings);
+    } catch (ClassCastException | IllegalArgumentException | NullPointerException e) {
+      throw new IOException("Invalid parser timings", e);
+    }
     return BuildFilePythonResult.of(
         values,
         diagnostics == null ? ImmutableList.of() : diagnostics,
-        profile == null ? "" : profile);
+        profile == null ? "" : profile,
+        timings);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static BuildFileTimings parseTimings(Map<String, Object> timings) {
+    ImmutableList.Builder<BuildFileTimingSpan> spans = ImmutableList.builder();
+    for (Map<String, Object> span : (List<Map<String, Object>>) timings.get("spans")) {
+      spans.add(
+          BuildFileTimingSpan.of(
+              BuildFileParseProfile.Category.fromPythonName((String) span.get("category")),
+              (String) span.get("name"),
+              ((Number) span.get("start_us")).longValue(),
+              ((Number) span.get("duration_us")).longValue()));
+    }
+    return BuildFileTimings.of(((Number) timings.get("total_us")).longValue(), spans.build());
   }
 
   private static void handleDiagnostics(
@@ -701,6 +955,11 @@ public class ProjectBuildFileParser implements AutoCloseable {
           stderrConsumerTerminationFuture = null;
         }
 
+        if (buckPyOutputReaderThread != null) {
+          buckPyOutputReaderThread.join();
+          buckPyOutputReaderThread = null;
+        }
+
         LOG.debug("Waiting for process %s to exit...", buckPyProcess);
         ProcessExecutor.Result result = processExecutor.waitForLaunchedProcess(buckPyProcess);
         if (result.getExitCode() != 0) {
@@ -745,5 +1004,6 @@ public class ProjectBuildFileParser implements AutoCloseable {
     List<Map<String, Object>> getValues();
     List<Map<String, String>> getDiagnostics();
     String getProfile();
+    Optional<BuildFileTimings> getTimings();
   }
 }
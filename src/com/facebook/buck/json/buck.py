@@ -5,7 +5,7 @@ import __builtin__
 import __future__
 
 import contextlib
-from collections import namedtuple
+from collections import deque, namedtuple
 from pathlib import _Accessor, Path, PureWindowsPath, PurePath, PosixPath
 from pywatchman import bser, WatchmanError
 from contextlib import contextmanager, nested
@@ -24,8 +24,10 @@ import os.path
 import pstats
 import pywatchman
 import re
+import select
 import subprocess
 import sys
+import time
 import traceback
 import types
 
@@ -86,7 +88,8 @@ class BuildFileContext(object):
     def __init__(self, project_root, base_path, dirname, autodeps, allow_empty_globs, ignore_paths,
                  watchman_client, watchman_watch_root, watchman_project_prefix,
                  sync_cookie_state, watchman_glob_stat_results,
-                 watchman_use_glob_generator, use_mercurial_glob):
+                 watchman_use_glob_generator, use_mercurial_glob, glob_cache=None,
+                 timings=None):
         self.globals = {}
         self.includes = set()
         self.used_configs = {}
@@ -104,6 +107,8 @@ class BuildFileContext(object):
         self.watchman_glob_stat_results = watchman_glob_stat_results
         self.watchman_use_glob_generator = watchman_use_glob_generator
         self.use_mercurial_glob = use_mercurial_glob
+        self.glob_cache = glob_cache
+        self.timings = timings
         self.diagnostics = []
         self.rules = {}
 
@@ -123,6 +128,60 @@ class IncludeContext(object):
         self.diagnostics = []
 
 
+class BuildFileTimings(object):
+    """
+    Records where the time to process a build file goes, with --timings: loading includes,
+    evaluating globs, waiting for Watchman and defining rules.
+
+    Spans are reported with their start relative to when processing of the build file began, so
+    the parent can place them on its own timeline.
+    """
+
+    INCLUDE = 'include'
+    GLOB = 'glob'
+    WATCHMAN = 'watchman'
+    RULE = 'rule'
+
+    def __init__(self):
+        self._start = time.time()
+        self._spans = []
+
+    @contextmanager
+    def span(self, category, name):
+        start = time.time()
+        try:
+            yield
+        finally:
+            self._spans.append({
+                'category': category,
+                'name': name,
+                'start_us': self._to_micros(start - self._start),
+                'duration_us': self._to_micros(time.time() - start),
+            })
+
+    def encode(self):
+        return {
+            'total_us': self._to_micros(time.time() - self._start),
+            'spans': self._spans,
+        }
+
+    @staticmethod
+    def _to_micros(seconds):
+        return int(seconds * 1000000)
+
+
+@contextmanager
+def _not_timed():
+    yield
+
+
+def timed(timings, category, name):
+    """Times a `with` block as a span of `timings`, unless it is None."""
+    if timings is None:
+        return _not_timed()
+    return timings.span(category, name)
+
+
 class LazyBuildEnvPartial(object):
     """Pairs a function with a build environment in which it will be executed.
 
@@ -159,6 +218,13 @@ def add_rule(rule, build_env):
         "Cannot use `{}()` at the top-level of an included file."
         .format(rule['buck.type']))
 
+    # Timed here rather than around every build function, which include glob() and
+    # get_base_path(), so that only the functions which define rules are timed as rules.
+    with timed(build_env.timings, BuildFileTimings.RULE, rule['buck.type']):
+        _add_rule(rule, build_env)
+
+
+def _add_rule(rule, build_env):
     # Include the base path of the BUCK file so the reader consuming this
     # output will know which BUCK file the rule came from.
     if 'name' not in rule:
@@ -272,10 +338,30 @@ def glob(includes, excludes=None, include_dotfiles=False, build_env=None, search
     assert not isinstance(excludes, basestring), \
         "The excludes argument must be a list of strings."
 
+    # The daemon's cache only knows about globs relative to the build file's directory.
+    use_glob_cache = build_env.glob_cache is not None and search_base is None
     if search_base is None:
         search_base = Path(build_env.dirname)
     mercurial_repo_info = load_mercurial_repo_info(build_env, search_base, allow_safe_import)
 
+    with timed(build_env.timings, BuildFileTimings.GLOB, ', '.join(includes)):
+        results = _glob_with_build_env(
+            includes, excludes, include_dotfiles, build_env, search_base, use_glob_cache,
+            mercurial_repo_info)
+
+    assert build_env.allow_empty_globs or results, (
+        "glob(includes={includes}, excludes={excludes}, include_dotfiles={include_dotfiles}) " +
+        "returned no results.  (allow_empty_globs is set to false in the Buck " +
+        "configuration)").format(
+            includes=includes,
+            excludes=excludes,
+            include_dotfiles=include_dotfiles)
+
+    return results
+
+
+def _glob_with_build_env(includes, excludes, include_dotfiles, build_env, search_base,
+                         use_glob_cache, mercurial_repo_info):
     results = None
     if not includes:
         results = []
@@ -283,19 +369,38 @@ def glob(includes, excludes=None, include_dotfiles=False, build_env=None, search
         results = glob_mercurial_manifest(
             includes, excludes, build_env.ignore_paths, include_dotfiles, search_base,
             build_env.project_root, mercurial_repo_info)
-    elif build_env.watchman_client:
-        results = glob_watchman(
-            includes,
-            excludes,
-            include_dotfiles,
-            build_env.base_path,
-            build_env.watchman_watch_root,
-            build_env.watchman_project_prefix,
-            build_env.sync_cookie_state,
-            build_env.watchman_client,
-            build_env.diagnostics,
-            build_env.watchman_glob_stat_results,
-            build_env.watchman_use_glob_generator)
+    elif use_glob_cache:
+        results, generation = build_env.glob_cache.lookup(
+            build_env.base_path, includes, excludes, include_dotfiles)
+        if results is None:
+            num_diagnostics = len(build_env.diagnostics)
+            results = glob_files(includes, excludes, include_dotfiles, build_env, search_base)
+            # Results which came with warnings or errors are worth another try next time.
+            if len(build_env.diagnostics) == num_diagnostics:
+                build_env.glob_cache.store(
+                    build_env.base_path, includes, excludes, include_dotfiles, results,
+                    generation)
+    else:
+        results = glob_files(includes, excludes, include_dotfiles, build_env, search_base)
+    return results
+
+
+def glob_files(includes, excludes, include_dotfiles, build_env, search_base):
+    results = None
+    if build_env.watchman_client:
+        with timed(build_env.timings, BuildFileTimings.WATCHMAN, ', '.join(includes)):
+            results = glob_watchman(
+                includes,
+                excludes,
+                include_dotfiles,
+                build_env.base_path,
+                build_env.watchman_watch_root,
+                build_env.watchman_project_prefix,
+                build_env.sync_cookie_state,
+                build_env.watchman_client,
+                build_env.diagnostics,
+                build_env.watchman_glob_stat_results,
+                build_env.watchman_use_glob_generator)
 
     if results is None:
         results = glob_internal(
@@ -305,17 +410,53 @@ def glob(includes, excludes=None, include_dotfiles=False, build_env=None, search
             include_dotfiles,
             search_base,
             build_env.project_root)
-    assert build_env.allow_empty_globs or results, (
-        "glob(includes={includes}, excludes={excludes}, include_dotfiles={include_dotfiles}) " +
-        "returned no results.  (allow_empty_globs is set to false in the Buck " +
-        "configuration)").format(
-            includes=includes,
-            excludes=excludes,
-            include_dotfiles=include_dotfiles)
-
     return results
 
 
+class DaemonGlobCache(object):
+    """
+    Looks up the results of globs in the cache kept by the Buck daemon, and adds the results of
+    the globs it did not have.
+
+    The requests are sent to the parent on the same channel as the build file results, and the
+    parent answers lookups on our stdin, before it sends the next build file to process. They
+    carry the id of the build file request they are made for, if it has one.
+    """
+
+    def __init__(self, to_parent, from_parent):
+        self._to_parent = to_parent
+        self._from_parent = from_parent
+        self.request_id = None
+
+    def _request(self, request_type, base_path, includes, excludes, include_dotfiles, **kwargs):
+        request = {
+            'type': request_type,
+            'basePath': base_path,
+            'includes': list(includes),
+            'excludes': list(excludes),
+            'includeDotfiles': bool(include_dotfiles),
+        }
+        request.update(kwargs)
+        if self.request_id is not None:
+            request['id'] = self.request_id
+        self._to_parent.write(bser.dumps(request))
+        self._to_parent.flush()
+
+    def lookup(self, base_path, includes, excludes, include_dotfiles):
+        """
+        Returns the cached results, or None, and a token to pass to store() along with the
+        results if there were none.
+        """
+        self._request('glob_lookup', base_path, includes, excludes, include_dotfiles)
+        response = bser.load(self._from_parent)
+        return response.get('files'), response.get('generation')
+
+    def store(self, base_path, includes, excludes, include_dotfiles, results, generation):
+        self._request(
+            'glob_store', base_path, includes, excludes, include_dotfiles,
+            files=list(results), generation=generation)
+
+
 def merge_maps(*header_maps):
     result = {}
     for header_map in header_maps:
@@ -735,7 +876,7 @@ class BuildFileProcessor(object):
                  watchman_use_glob_generator, use_mercurial_glob, enable_build_file_sandboxing,
                  project_import_whitelist=None, implicit_includes=None,
                  extra_funcs=None, configs=None, env_vars=None,
-                 ignore_paths=None):
+                 ignore_paths=None, glob_cache=None):
         if project_import_whitelist is None:
             project_import_whitelist = []
         if implicit_includes is None:
@@ -767,6 +908,8 @@ class BuildFileProcessor(object):
         self._configs = configs
         self._env_vars = env_vars
         self._ignore_paths = ignore_paths
+        self._glob_cache = glob_cache
+        self._timings = None
 
         lazy_functions = {}
         for func in BUILD_FUNCTIONS + extra_funcs:
@@ -993,9 +1136,10 @@ class BuildFileProcessor(object):
         # Resolve the named include to its path and process it to get its
         # build context and module.
         path = self._get_include_path(name)
-        inner_env, mod = self._process_include(
-            path,
-            implicit_includes=implicit_includes)
+        with timed(self._timings, BuildFileTimings.INCLUDE, name):
+            inner_env, mod = self._process_include(
+                path,
+                implicit_includes=implicit_includes)
 
         # Look up the caller's stack frame and merge the include's globals
         # into it's symbol table.
@@ -1324,7 +1468,8 @@ class BuildFileProcessor(object):
         # If any implicit includes were specified, process them first.
         for include in implicit_includes:
             include_path = self._get_include_path(include)
-            inner_env, mod = self._process_include(include_path)
+            with timed(self._timings, BuildFileTimings.INCLUDE, include):
+                inner_env, mod = self._process_include(include_path)
             self._merge_globals(mod, default_globals)
             build_env.includes.add(include_path)
             build_env.includes.update(inner_env.includes)
@@ -1409,7 +1554,9 @@ class BuildFileProcessor(object):
             self._sync_cookie_state,
             self._watchman_glob_stat_results,
             self._watchman_use_glob_generator,
-            self._use_mercurial_glob)
+            self._use_mercurial_glob,
+            glob_cache=self._glob_cache,
+            timings=self._timings)
 
         # If the .autodeps file has been successfully parsed, then treat it as if it were
         # a file loaded via include_defs() in that a change to the .autodeps file should
@@ -1489,13 +1636,45 @@ class BuildFileProcessor(object):
                                             format(autodeps_file))
 
 
-    def process(self, watch_root, project_prefix, path, diagnostics):
+    def preload_includes(self):
+        """
+        Evaluates the implicit includes, so that processes forked from this one start out with
+        them cached instead of each evaluating them again.
+        """
+        for include in self._implicit_includes:
+            try:
+                self._process_include(self._get_include_path(include))
+            except Exception:
+                # The error is reported for the build files which pull the include in.
+                del self._build_env_stack[:]
+
+    def use_parent_channel(self, to_parent, from_parent, watchman_client):
+        """
+        Talks to the parent, and to Watchman, over the given channels from now on. Forked
+        processes must not share the ones of the process they were forked from.
+        """
+        if self._glob_cache is not None:
+            self._glob_cache = DaemonGlobCache(to_parent, from_parent)
+        self._watchman_client = watchman_client
+
+    def set_request_id(self, request_id):
+        """
+        Tags the requests made while processing a build file with the id of its request.
+        """
+        if self._glob_cache is not None:
+            self._glob_cache.request_id = request_id
+
+    def process(self, watch_root, project_prefix, path, diagnostics, timings=None):
         """
         Process a build file returning a dict of its rules and includes.
         """
-        build_env, mod = self._process_build_file(watch_root, project_prefix,
-                                                  os.path.join(self._project_root, path),
-                                                  implicit_includes=self._implicit_includes)
+        self._timings = timings
+        try:
+            build_env, mod = self._process_build_file(watch_root, project_prefix,
+                                                      os.path.join(self._project_root, path),
+                                                      implicit_includes=self._implicit_includes)
+        finally:
+            self._timings = None
 
         # Initialize the output object to a map of the parsed rules.
         values = build_env.rules.values()
@@ -1557,8 +1736,10 @@ def format_exception_info(exception_info):
     return formatted
 
 
-def encode_result(values, diagnostics, profile):
+def encode_result(values, diagnostics, profile, timings=None, request_id=None):
     result = {'values': values}
+    if request_id is not None:
+        result['id'] = request_id
     if diagnostics:
         encoded_diagnostics = []
         for d in diagnostics:
@@ -1573,6 +1754,8 @@ def encode_result(values, diagnostics, profile):
         result['diagnostics'] = encoded_diagnostics
     if profile is not None:
         result['profile'] = profile
+    if timings is not None:
+        result['timings'] = timings.encode()
     try:
         return bser.dumps(result)
     except Exception as e:
@@ -1590,10 +1773,12 @@ def encode_result(values, diagnostics, profile):
 
 
 def process_with_diagnostics(build_file_query, build_file_processor, to_parent,
-                             should_profile=False):
+                             should_profile=False, should_time=False):
     build_file = build_file_query.get('buildFile')
     watch_root = build_file_query.get('watchRoot')
     project_prefix = build_file_query.get('projectPrefix')
+    request_id = build_file_query.get('id')
+    build_file_processor.set_request_id(request_id)
 
     build_file = cygwin_adjusted_path(build_file).rstrip().encode('ascii')
     watch_root = cygwin_adjusted_path(watch_root).rstrip().encode('ascii')
@@ -1602,6 +1787,8 @@ def process_with_diagnostics(build_file_query, build_file_processor, to_parent,
 
     diagnostics = []
     values = []
+    # Timings are cheap to collect, unlike a cProfile profile, so they are asked for separately.
+    timings = BuildFileTimings() if should_time else None
     if should_profile:
         profile = cProfile.Profile()
         profile.enable()
@@ -1612,7 +1799,8 @@ def process_with_diagnostics(build_file_query, build_file_processor, to_parent,
             watch_root,
             project_prefix,
             build_file,
-            diagnostics=diagnostics)
+            diagnostics=diagnostics,
+            timings=timings)
     except Exception as e:
         # Control-C and sys.exit() don't emit diagnostics.
         if not (e is KeyboardInterrupt or e is SystemExit):
@@ -1636,10 +1824,166 @@ def process_with_diagnostics(build_file_query, build_file_processor, to_parent,
         else:
             profile_result = None
 
-        to_parent.write(encode_result(values, diagnostics, profile_result))
+        to_parent.write(
+            encode_result(values, diagnostics, profile_result, timings, request_id))
         to_parent.flush()
 
 
+class ForkedWorker(object):
+    """
+    A process forked from the parser once it has loaded what all build files share, which
+    processes the build files the parser hands to it one at a time.
+    """
+
+    def __init__(self, pid, to_worker, from_worker):
+        self.pid = pid
+        self.to_worker = to_worker
+        self.from_worker = from_worker
+        self.request = None
+
+    def send(self, message):
+        try:
+            self.to_worker.write(bser.dumps(message))
+            self.to_worker.flush()
+        except IOError:
+            # The worker exited, which is handled once its end of the pipe is read.
+            pass
+
+    def close(self):
+        self.to_worker.close()
+        self.from_worker.close()
+        os.waitpid(self.pid, 0)
+
+
+def fork_worker(build_file_processor, watchman_client_factory, other_workers, should_profile,
+                should_time):
+    requests_read, requests_write = os.pipe()
+    results_read, results_write = os.pipe()
+    pid = os.fork()
+    if pid != 0:
+        os.close(requests_read)
+        os.close(results_write)
+        # Unbuffered, so that select() sees every message which has not been read yet.
+        return ForkedWorker(
+            pid, os.fdopen(requests_write, 'wb'), os.fdopen(results_read, 'rb', 0))
+
+    os.close(requests_write)
+    os.close(results_read)
+    # Only the parser may hold the other workers' pipes, or they never see the end of them.
+    for worker in other_workers:
+        worker.to_worker.close()
+        worker.from_worker.close()
+    from_parent = os.fdopen(requests_read, 'rb')
+    to_parent = os.fdopen(results_write, 'wb')
+    build_file_processor.use_parent_channel(to_parent, from_parent, watchman_client_factory())
+    exit_code = 0
+    try:
+        for build_file_query in iter(lambda: bser.load(from_parent), None):
+            process_with_diagnostics(build_file_query, build_file_processor, to_parent,
+                                     should_profile=should_profile, should_time=should_time)
+    except BaseException:
+        # The error was sent with the results, and the parser forks a new worker.
+        exit_code = 1
+    finally:
+        try:
+            to_parent.close()
+        except IOError:
+            pass
+    os._exit(exit_code)
+
+
+def process_with_forked_workers(build_file_processor, watchman_client_factory, to_parent,
+                                from_parent, worker_count, should_profile=False,
+                                should_time=False):
+    """
+    Processes build files in workers forked once the implicit includes are loaded, so that they
+    neither start an interpreter nor evaluate the includes again.
+
+    Requests carry an id, which the results and glob cache requests of the workers carry too, so
+    the parent can have as many requests in flight as it likes. Requests wait for an idle worker,
+    and results are passed on as soon as a worker sends them.
+    """
+    build_file_processor.preload_includes()
+    workers = []
+    for _ in range(worker_count):
+        workers.append(
+            fork_worker(build_file_processor, watchman_client_factory, workers, should_profile,
+                        should_time))
+    idle_workers = deque(workers)
+    queued_requests = deque()
+    request_workers = {}
+    retried_requests = set()
+    from_parent_open = True
+
+    while from_parent_open or request_workers:
+        readable = [worker.from_worker for worker in workers]
+        if from_parent_open:
+            readable.append(from_parent)
+        ready, _, _ = select.select(readable, [], [])
+
+        if from_parent in ready:
+            message = bser.load(from_parent)
+            if message is None:
+                from_parent_open = False
+            elif 'buildFile' in message:
+                queued_requests.append(message)
+            else:
+                # The answer to a glob cache lookup, which the worker processing the request
+                # is waiting for.
+                worker = request_workers.get(message.get('id'))
+                if worker is not None:
+                    worker.send(message)
+
+        for worker in list(workers):
+            if worker.from_worker not in ready:
+                continue
+            message = bser.load(worker.from_worker)
+            if message is not None:
+                to_parent.write(bser.dumps(message))
+                to_parent.flush()
+                if 'values' in message:
+                    del request_workers[worker.request.get('id')]
+                    worker.request = None
+                    # Workers exit once they reported an error, so wait for them to.
+                    if not any(d.get('level') == 'fatal'
+                               for d in message.get('diagnostics', [])):
+                        idle_workers.append(worker)
+                continue
+            workers.remove(worker)
+            if worker in idle_workers:
+                idle_workers.remove(worker)
+            if worker.request is not None:
+                request_id = worker.request.get('id')
+                del request_workers[request_id]
+                if request_id in retried_requests:
+                    to_parent.write(encode_result([], [Diagnostic(
+                        message='Parser worker exited unexpectedly',
+                        level='fatal',
+                        source='parse',
+                        exception=None)], None, request_id=request_id))
+                    to_parent.flush()
+                else:
+                    # The worker may have been on its way out when it got the request.
+                    retried_requests.add(request_id)
+                    queued_requests.appendleft(worker.request)
+            worker.close()
+            replacement = fork_worker(
+                build_file_processor, watchman_client_factory, workers, should_profile,
+                should_time)
+            workers.append(replacement)
+            idle_workers.append(replacement)
+
+        while queued_requests and idle_workers:
+            request = queued_requests.popleft()
+            worker = idle_workers.popleft()
+            worker.request = request
+            request_workers[request.get('id')] = worker
+            worker.send(request)
+
+    for worker in workers:
+        worker.close()
+
+
 def silent_excepthook(exctype, value, tb):
     # We already handle all exceptions by writing them to the parent, so
     # no need to dump them again to stderr.
@@ -1754,6 +2098,11 @@ def main():
         action='store_true',
         dest='use_mercurial_glob',
         help='Use the mercurial manifest to get lists of files instead of globbing from disk.')
+    parser.add_option(
+        '--use_daemon_glob_cache',
+        action='store_true',
+        dest='use_daemon_glob_cache',
+        help='Asks the parent for the results of globs before evaluating them.')
     parser.add_option(
         '--include',
         action='append',
@@ -1782,6 +2131,10 @@ def main():
         '--profile',
         action='store_true',
         help='Profile every buck file execution')
+    parser.add_option(
+        '--timings',
+        action='store_true',
+        help='Report the time spent on includes, globs, Watchman and rules per buck file')
     parser.add_option(
         '--enable_build_file_sandboxing',
         action='store_true',
@@ -1790,6 +2143,13 @@ def main():
         '--build_file_import_whitelist',
         action='append',
         dest='build_file_import_whitelist')
+    parser.add_option(
+        '--fork_workers',
+        action='store',
+        type='int',
+        dest='fork_workers',
+        default=0,
+        help='Processes build files in this many workers forked once the includes are loaded.')
     (options, args) = parser.parse_args()
 
     # Even though project_root is absolute path, it may not be concise. For
@@ -1805,6 +2165,7 @@ def main():
                       for (k, v) in options.cell_roots.iteritems())
 
     watchman_client = None
+    watchman_client_factory = lambda: None
     use_mercurial_glob = False
     if options.use_watchman_glob:
         client_args = {}
@@ -1818,6 +2179,7 @@ def main():
             client_args['sockpath'] = options.watchman_socket_path
             client_args['transport'] = 'local'
         watchman_client = pywatchman.client(**client_args)
+        watchman_client_factory = lambda: pywatchman.client(**client_args)
     elif options.use_mercurial_glob:
         # mercurial libraries
         try:
@@ -1861,7 +2223,8 @@ def main():
         project_import_whitelist=options.build_file_import_whitelist or [],
         implicit_includes=options.include or [],
         configs=configs,
-        ignore_paths=ignore_paths)
+        ignore_paths=ignore_paths,
+        glob_cache=DaemonGlobCache(to_parent, sys.stdin) if options.use_daemon_glob_cache else None)
 
     # While processing, we'll write exceptions as diagnostic messages
     # to the parent then re-raise them to crash the process. While
@@ -1885,11 +2248,23 @@ def main():
                 'projectPrefix': project_root,
             }
             process_with_diagnostics(query, buildFileProcessor, to_parent,
-                                     should_profile=options.profile)
-
-        for build_file_query in iter(lambda: bser.load(sys.stdin), None):
-            process_with_diagnostics(build_file_query, buildFileProcessor, to_parent,
-                                     should_profile=options.profile)
+                                     should_profile=options.profile,
+                                     should_time=options.timings)
+
+        if options.fork_workers > 0 and hasattr(os, 'fork'):
+            process_with_forked_workers(
+                buildFileProcessor,
+                watchman_client_factory,
+                to_parent,
+                os.fdopen(os.dup(sys.stdin.fileno()), 'rb', 0),
+                options.fork_workers,
+                should_profile=options.profile,
+                should_time=options.timings)
+        else:
+            for build_file_query in iter(lambda: bser.load(sys.stdin), None):
+                process_with_diagnostics(build_file_query, buildFileProcessor, to_parent,
+                                         should_profile=options.profile,
+                                         should_time=options.timings)
 
     if options.quiet:
         sys.excepthook = orig_excepthook
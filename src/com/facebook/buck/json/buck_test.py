@@ -1,15 +1,22 @@
 from buck import (
     BuildFileContext,
+    BuildFileTimings,
+    DaemonGlobCache,
     LazyBuildEnvPartial,
     _load_manifest_trie,
+    add_rule,
     flatten_dicts,
     format_watchman_query_params,
+    get_base_path,
     glob_internal,
     glob_mercurial_manifest,
     path_component_contains_dot,
     subdir_glob,
+    timed,
 )
 from pathlib import Path, PurePosixPath, PureWindowsPath
+from pywatchman import bser
+import io
 import itertools
 import os
 import shutil
@@ -285,6 +292,89 @@ class TestBuckSubdirGlobMixin(object):
                         search_base=search_base))
 
 
+class TestBuildFileTimings(unittest.TestCase):
+    def test_spans_are_recorded_when_they_end(self):
+        timings = BuildFileTimings()
+        with timed(timings, BuildFileTimings.INCLUDE, '//DEFS'):
+            with timed(timings, BuildFileTimings.RULE, 'java_library'):
+                pass
+
+        encoded = timings.encode()
+        self.assertEqual(
+            [(BuildFileTimings.RULE, 'java_library'), (BuildFileTimings.INCLUDE, '//DEFS')],
+            [(span['category'], span['name']) for span in encoded['spans']])
+        include = encoded['spans'][1]
+        self.assertTrue(include['start_us'] + include['duration_us'] <= encoded['total_us'])
+
+    def test_spans_are_recorded_when_the_block_raises(self):
+        timings = BuildFileTimings()
+        with self.assertRaises(ValueError):
+            with timed(timings, BuildFileTimings.GLOB, '*.java'):
+                raise ValueError()
+
+        self.assertEqual(1, len(timings.encode()['spans']))
+
+    def test_rules_are_timed_but_other_build_functions_are_not(self):
+        timings = BuildFileTimings()
+        build_env = BuildFileContext(
+            '/project', 'foo', '/project/foo', {}, False, [], None, None, None, None, False,
+            False, False, timings=timings)
+        base_path = LazyBuildEnvPartial(get_base_path)
+        base_path.build_env = build_env
+        self.assertEqual('foo', base_path.invoke())
+        add_rule({'buck.type': 'java_library', 'name': 'lib'}, build_env)
+
+        self.assertEqual(
+            [(BuildFileTimings.RULE, 'java_library')],
+            [(span['category'], span['name']) for span in timings.encode()['spans']])
+
+    def test_nothing_is_timed_without_timings(self):
+        with timed(None, BuildFileTimings.GLOB, '*.java'):
+            pass
+
+
+class TestDaemonGlobCache(unittest.TestCase):
+    def test_lookup_returns_the_files_sent_by_the_parent(self):
+        to_parent = io.BytesIO()
+        from_parent = io.BytesIO(bser.dumps({'files': ['A.java']}))
+        cache = DaemonGlobCache(to_parent, from_parent)
+
+        self.assertEqual(
+            (['A.java'], None),
+            cache.lookup('foo', ['*.java'], ['B.java'], False))
+        self.assertEqual(
+            {
+                'type': 'glob_lookup',
+                'basePath': 'foo',
+                'includes': ['*.java'],
+                'excludes': ['B.java'],
+                'includeDotfiles': False,
+            },
+            bser.loads(to_parent.getvalue()))
+
+    def test_store_sends_the_results_with_the_generation_of_the_lookup(self):
+        to_parent = io.BytesIO()
+        from_parent = io.BytesIO(bser.dumps({'generation': 3}))
+        cache = DaemonGlobCache(to_parent, from_parent)
+
+        files, generation = cache.lookup('foo', ['*.java'], [], True)
+        self.assertIsNone(files)
+        to_parent.seek(0)
+        to_parent.truncate()
+        cache.store('foo', ['*.java'], [], True, ['A.java'], generation)
+        self.assertEqual(
+            {
+                'type': 'glob_store',
+                'basePath': 'foo',
+                'includes': ['*.java'],
+                'excludes': [],
+                'includeDotfiles': True,
+                'files': ['A.java'],
+                'generation': 3,
+            },
+            bser.loads(to_parent.getvalue()))
+
+
 class TestBuckPosix(TestBuckGlobMixin, TestBuckSubdirGlobMixin, unittest.TestCase):
     @staticmethod
     def fake_path(*args, **kwargs):
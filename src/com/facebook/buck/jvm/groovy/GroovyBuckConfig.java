@@ -51,6 +51,10 @@ public class GroovyBuckConfig {
       }
     }
 
+    if (delegate.getBooleanValue("groovy", "compile_in_process", false)) {
+      return Suppliers.ofInstance(new InProcessGroovyc(groovyHomePath));
+    }
+
     Path compiler =
         new ExecutableFinder().getExecutable(
             groovyHomePath.resolve("bin/groovyc"),
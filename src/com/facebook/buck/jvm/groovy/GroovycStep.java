@@ -20,6 +20,7 @@ import static com.google.common.collect.Iterables.any;
 import static com.google.common.collect.Iterables.transform;
 
 import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.jvm.java.InProcessCompiler;
 import com.facebook.buck.jvm.java.Javac;
 import com.facebook.buck.jvm.java.JavacOptions;
 import com.facebook.buck.jvm.java.OptionsConsumer;
@@ -40,6 +41,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Optional;
+import java.util.function.Function;
 
 class GroovycStep implements Step {
   private final Tool groovyc;
@@ -77,6 +79,13 @@ class GroovycStep implements Step {
   public StepExecutionResult execute(ExecutionContext context)
       throws IOException, InterruptedException {
     try {
+      if (groovyc instanceof InProcessCompiler) {
+        // The compiler is not run in the project root, so give it absolute paths.
+        writePathToSourcesList(
+            FluentIterable.from(sourceFilePaths).transform(filesystem::resolve));
+        return StepExecutionResult.of(
+            ((InProcessCompiler) groovyc).compile(context, createArguments(/* inProcess */ true)));
+      }
       ProcessExecutorParams params = ProcessExecutorParams.builder()
           .setCommand(createCommand())
           .setEnvironment(context.getEnvironment())
@@ -102,22 +111,31 @@ class GroovycStep implements Step {
   }
 
   private ImmutableList<String> createCommand() {
-    final ImmutableList.Builder<String> command = ImmutableList.builder();
+    return ImmutableList.<String>builder()
+        .addAll(groovyc.getCommandPrefix(resolver))
+        .addAll(createArguments(/* inProcess */ false))
+        .build();
+  }
 
-    command.addAll(groovyc.getCommandPrefix(resolver));
+  private ImmutableList<String> createArguments(boolean inProcess) {
+    final ImmutableList.Builder<String> command = ImmutableList.builder();
 
-    String classpath =
-        Joiner.on(File.pathSeparator).join(transform(declaredClasspathEntries, Object::toString));
+    Function<Path, Path> toArgument = inProcess ? filesystem::resolve : path -> path;
+    String classpath = Joiner.on(File.pathSeparator).join(
+        transform(declaredClasspathEntries, path -> toArgument.apply(path).toString()));
+    if (!classpath.isEmpty()) {
+      command.add("-cp").add(classpath);
+    } else if (!inProcess) {
+      command.add("-cp").add("''");
+    }
     command
-        .add("-cp")
-        .add(classpath.isEmpty() ? "''" : classpath)
         .add("-d")
-        .add(outputDirectory.toString());
+        .add(toArgument.apply(outputDirectory).toString());
     addCrossCompilationOptions(command);
 
     command.addAll(extraArguments.orElse(ImmutableList.of()));
 
-    command.add("@" + pathToSrcsList);
+    command.add("@" + toArgument.apply(pathToSrcsList));
 
     return command.build();
   }
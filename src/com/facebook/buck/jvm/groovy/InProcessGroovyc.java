@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.groovy;
+
+import com.facebook.buck.jvm.java.InProcessCompiler;
+import com.google.common.collect.ImmutableList;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
+
+/**
+ * groovyc, run from the jars of a Groovy distribution.
+ */
+class InProcessGroovyc extends InProcessCompiler {
+
+  private static final String COMPILATION_FAILED_EXCEPTION =
+      "org.codehaus.groovy.control.CompilationFailedException";
+  private static final String COMPILATION_UNIT = "org.codehaus.groovy.control.CompilationUnit";
+  private static final String GROOVY_POSIX_PARSER =
+      "org.codehaus.groovy.cli.GroovyInternalPosixParser";
+
+  InProcessGroovyc(Path groovyHome) {
+    super(
+        "org.codehaus.groovy.tools.FileSystemCompiler",
+        InProcessCompiler.getJarsIn(groovyHome.resolve("lib")),
+        ImmutableList.of());
+  }
+
+  @Override
+  protected int compile(Class<?> mainClass, String[] args, PrintStream stdErr)
+      throws ReflectiveOperationException {
+    ClassLoader classLoader = mainClass.getClassLoader();
+    try {
+      // Does what FileSystemCompiler.commandLineCompile does, but points the configuration's
+      // output at the step's stderr rather than System.err.
+      Object options = mainClass.getMethod("createCompilationOptions").invoke(null);
+      Object parser = newCommandLineParser(classLoader, options.getClass());
+      Object commandLine = parser.getClass()
+          .getMethod("parse", options.getClass(), String[].class)
+          .invoke(parser, options, args);
+      Object configuration = mainClass
+          .getMethod("generateCompilerConfigurationFromOptions", commandLine.getClass())
+          .invoke(null, commandLine);
+      configuration.getClass()
+          .getMethod("setOutput", PrintWriter.class)
+          .invoke(configuration, new PrintWriter(stdErr, true));
+      String[] fileNames = (String[]) mainClass
+          .getMethod("generateFileNamesFromOptions", commandLine.getClass())
+          .invoke(null, commandLine);
+      if (fileNames == null) {
+        // groovyc has already reported the missing source files.
+        return 1;
+      }
+      mainClass
+          .getMethod(
+              "doCompilation",
+              configuration.getClass(),
+              classLoader.loadClass(COMPILATION_UNIT),
+              String[].class)
+          .invoke(null, configuration, null, fileNames);
+      return 0;
+    } catch (InvocationTargetException e) {
+      // Errors in the sources are reported by throwing, so print them as groovyc would.
+      Class<?> compilationFailed = classLoader.loadClass(COMPILATION_FAILED_EXCEPTION);
+      if (!compilationFailed.isInstance(e.getCause())) {
+        throw e;
+      }
+      stdErr.println(e.getCause().getMessage());
+      return 1;
+    }
+  }
+
+  /**
+   * @return the parser groovyc reads its command line with, which older distributions do not
+   *     have, in which case the commons-cli one it is based on.
+   */
+  private static Object newCommandLineParser(ClassLoader classLoader, Class<?> optionsClass)
+      throws ReflectiveOperationException {
+    Class<?> parserClass;
+    try {
+      parserClass = classLoader.loadClass(GROOVY_POSIX_PARSER);
+    } catch (ClassNotFoundException e) {
+      String optionsClassName = optionsClass.getName();
+      parserClass = classLoader.loadClass(
+          optionsClassName.substring(0, optionsClassName.lastIndexOf('.')) + ".PosixParser");
+    }
+    return parserClass.newInstance();
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.util.immutables.BuckStyleImmutable;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import org.immutables.value.Value;
+
+import java.util.Set;
+
+/**
+ * What {@link IncrementalJavacStep} records about one class file it compiled.
+ */
+@Value.Immutable
+@BuckStyleImmutable
+@JsonSerialize(as = CompiledClassInfo.class)
+@JsonDeserialize(as = CompiledClassInfo.class)
+abstract class AbstractCompiledClassInfo {
+
+  /**
+   * The source file the class was compiled from.
+   */
+  public abstract String getSource();
+
+  /**
+   * A hash of the stub of the class, which changes whenever its ABI does.
+   */
+  public abstract String getAbiHash();
+
+  /**
+   * A hash of the compile-time constants the class declares. Their values are inlined into the
+   * classes using them, which then no longer refer to this one, so there is no telling which
+   * classes need recompiling when they change.
+   */
+  public abstract String getConstantsHash();
+
+  /**
+   * The internal names of the superclass and interfaces of the class.
+   */
+  public abstract Set<String> getSuperTypes();
+
+  /**
+   * The internal names of the classes the class file refers to.
+   */
+  public abstract Set<String> getReferencedClasses();
+}
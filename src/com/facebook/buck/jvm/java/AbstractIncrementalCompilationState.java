@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.util.immutables.BuckStyleImmutable;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import org.immutables.value.Value;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What {@link IncrementalJavacStep} records about the last compilation of a library, from which
+ * the next one works out which of its sources need to be recompiled.
+ */
+@Value.Immutable
+@BuckStyleImmutable
+@JsonSerialize(as = IncrementalCompilationState.class)
+@JsonDeserialize(as = IncrementalCompilationState.class)
+abstract class AbstractIncrementalCompilationState {
+
+  /**
+   * A hash of the options javac was run with, classpath included. Any change to them means every
+   * source has to be recompiled.
+   */
+  public abstract String getOptionsHash();
+
+  /**
+   * The SHA-1 of each source file compiled, by path.
+   */
+  public abstract Map<String, String> getSourceHashes();
+
+  /**
+   * The classes compiled from the sources, by internal name.
+   */
+  public abstract Map<String, CompiledClassInfo> getClasses();
+
+  /**
+   * For each jar javac read classes from, the CRC of each of the class files it read.
+   */
+  public abstract Map<String, Map<String, Long>> getUsedClasses();
+
+  /**
+   * For each jar javac read classes from, those of the class files it read that declare constants.
+   * Their values may have been inlined into classes that don't otherwise refer to them.
+   */
+  public abstract Map<String, Set<String>> getUsedClassesWithConstants();
+}
@@ -69,6 +69,20 @@ abstract class AbstractJavacOptions implements RuleKeyAppendable {
     INTERMEDIATE_TO_DISK,
   }
 
+  /**
+   * How the ABI jars of java libraries, against which the rule keys of their dependents are
+   * computed, are generated.
+   */
+  public enum AbiGenerationMode {
+    /** Stub the classes compiled into the library's jar. */
+    CLASS,
+    /**
+     * Stub the classes declared in the library's sources, without compiling them, so the ABI jar
+     * does not wait for the library to be compiled.
+     */
+    SOURCE,
+  }
+
   public enum JavacSource {
     /** Shell out to the javac in the JDK */
     EXTERNAL,
@@ -86,6 +100,20 @@ abstract class AbstractJavacOptions implements RuleKeyAppendable {
     return SpoolMode.INTERMEDIATE_TO_DISK;
   }
 
+  @Value.Default
+  public AbiGenerationMode getAbiGenerationMode() {
+    return AbiGenerationMode.CLASS;
+  }
+
+  /**
+   * Whether libraries compiled in-process only recompile the sources that changed since their last
+   * build, and the sources depending on them.
+   */
+  @Value.Default
+  public boolean isIncrementalCompilationEnabled() {
+    return false;
+  }
+
   @Value.Default
   protected boolean isProductionBuild() {
     return false;
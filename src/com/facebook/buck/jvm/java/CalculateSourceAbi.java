@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargets;
+import com.facebook.buck.rules.AbstractBuildRule;
+import com.facebook.buck.rules.AddToRuleKey;
+import com.facebook.buck.rules.BuildContext;
+import com.facebook.buck.rules.BuildRuleParams;
+import com.facebook.buck.rules.BuildableContext;
+import com.facebook.buck.rules.SourcePath;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.rules.keys.SupportsInputBasedRuleKey;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.fs.MkdirStep;
+import com.facebook.buck.step.fs.RmStep;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+
+import java.nio.file.Path;
+
+/**
+ * Calculates the ABI jar of a java library from its sources rather than from its compiled jar, so
+ * that the ABI jars of a chain of libraries, and so the rule keys of the libraries depending on
+ * them, are available without waiting for any of them to be compiled.
+ * <p>
+ * Only libraries that run no annotation processors can have their ABI calculated this way, as
+ * processors may generate classes which are part of the ABI.
+ */
+public class CalculateSourceAbi extends AbstractBuildRule implements SupportsInputBasedRuleKey {
+
+  @AddToRuleKey
+  private final ImmutableSortedSet<SourcePath> srcs;
+  @AddToRuleKey
+  private final ImmutableSortedSet<SourcePath> abiClasspath;
+  @AddToRuleKey
+  private final JavacOptions javacOptions;
+  private final Path outputPath;
+
+  public CalculateSourceAbi(
+      BuildRuleParams buildRuleParams,
+      SourcePathResolver resolver,
+      ImmutableSortedSet<SourcePath> srcs,
+      ImmutableSortedSet<SourcePath> abiClasspath,
+      JavacOptions javacOptions) {
+    super(buildRuleParams, resolver);
+    this.srcs = srcs;
+    this.abiClasspath = abiClasspath;
+    this.javacOptions = javacOptions;
+    this.outputPath = getAbiJarPath();
+  }
+
+  /**
+   * @param abiClasspath the ABI jars of the dependencies of the library.
+   */
+  public static CalculateSourceAbi of(
+      BuildTarget target,
+      SourcePathResolver pathResolver,
+      BuildRuleParams libraryParams,
+      ImmutableSortedSet<SourcePath> srcs,
+      ImmutableSortedSet<SourcePath> abiClasspath,
+      JavacOptions javacOptions) {
+    return new CalculateSourceAbi(
+        libraryParams.copyWithChanges(
+            target,
+            Suppliers.ofInstance(
+                ImmutableSortedSet.copyOf(
+                    pathResolver.filterBuildRuleInputs(
+                        Iterables.concat(
+                            srcs,
+                            abiClasspath,
+                            javacOptions.getInputs(pathResolver))))),
+            Suppliers.ofInstance(ImmutableSortedSet.of())),
+        pathResolver,
+        srcs,
+        abiClasspath,
+        javacOptions);
+  }
+
+  private Path getAbiJarPath() {
+    return BuildTargets.getGenPath(getProjectFilesystem(), getBuildTarget(), "%s")
+        .resolve(String.format("%s-abi.jar", getBuildTarget().getShortName()));
+  }
+
+  @Override
+  public ImmutableList<Step> getBuildSteps(
+      BuildContext context,
+      BuildableContext buildableContext) {
+    return ImmutableList.of(
+        new MkdirStep(getProjectFilesystem(), getAbiJarPath().getParent()),
+        new RmStep(getProjectFilesystem(), getAbiJarPath(), /* shouldForceDeletion */ true),
+        new CalculateSourceAbiStep(
+            buildableContext,
+            getProjectFilesystem(),
+            ImmutableSortedSet.copyOf(getResolver().getAllAbsolutePaths(srcs)),
+            ImmutableSortedSet.copyOf(getResolver().getAllAbsolutePaths(abiClasspath)),
+            javacOptions,
+            getPathToOutput()));
+  }
+
+  @Override
+  public Path getPathToOutput() {
+    return outputPath;
+  }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.event.ConsoleEvent;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.jvm.java.abi.SourceStubJar;
+import com.facebook.buck.rules.BuildableContext;
+import com.facebook.buck.rules.keys.AbiRule;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.util.MoreCollectors;
+import com.facebook.buck.util.sha1.Sha1HashCode;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.Collection;
+
+/**
+ * Writes the ABI jar of a java library from its sources, resolving the types they refer to against
+ * the ABI jars of its dependencies.
+ */
+public class CalculateSourceAbiStep implements Step {
+
+  private final BuildableContext buildableContext;
+  private final ProjectFilesystem filesystem;
+  private final ImmutableSortedSet<Path> sourceFiles;
+  private final ImmutableSortedSet<Path> abiClasspath;
+  private final JavacOptions javacOptions;
+  private final Path abiJar;
+
+  public CalculateSourceAbiStep(
+      BuildableContext buildableContext,
+      ProjectFilesystem filesystem,
+      ImmutableSortedSet<Path> sourceFiles,
+      ImmutableSortedSet<Path> abiClasspath,
+      JavacOptions javacOptions,
+      Path abiJar) {
+    this.buildableContext = buildableContext;
+    this.filesystem = filesystem;
+    this.sourceFiles = sourceFiles;
+    this.abiClasspath = abiClasspath;
+    this.javacOptions = javacOptions;
+    this.abiJar = abiJar;
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context) {
+    StringWriter diagnostics = new StringWriter();
+    Sha1HashCode abiKey;
+    try {
+      SourceStubJar stubJar = new SourceStubJar(
+          sourceFiles.stream()
+              .map(filesystem::resolve)
+              .collect(MoreCollectors.toImmutableList()),
+          getOptions());
+      if (!stubJar.writeTo(filesystem, abiJar, diagnostics)) {
+        context.postEvent(ConsoleEvent.severe(diagnostics.toString()));
+        return StepExecutionResult.ERROR;
+      }
+      abiKey = filesystem.computeSha1(abiJar);
+    } catch (IOException e) {
+      context.logError(e, "Failed to calculate ABI from %s.", sourceFiles);
+      return StepExecutionResult.ERROR;
+    }
+
+    buildableContext.recordArtifact(abiJar);
+    buildableContext.addMetadata(AbiRule.ABI_KEY_ON_DISK_METADATA, abiKey.getHash());
+
+    return StepExecutionResult.SUCCESS;
+  }
+
+  private ImmutableList<String> getOptions() {
+    final ImmutableList.Builder<String> builder = ImmutableList.builder();
+
+    javacOptions.appendOptionsTo(new OptionsConsumer() {
+      @Override
+      public void addOptionValue(String option, String value) {
+        builder.add("-" + option).add(value);
+      }
+
+      @Override
+      public void addFlag(String flagName) {
+        builder.add("-" + flagName);
+      }
+
+      @Override
+      public void addExtras(Collection<String> extras) {
+        builder.addAll(extras);
+      }
+    }, filesystem::resolve);
+
+    builder.add("-classpath").add(
+        Joiner.on(File.pathSeparator).join(
+            abiClasspath.stream()
+                .map(filesystem::resolve)
+                .iterator()));
+    return builder.build();
+  }
+
+  @Override
+  public String getShortName() {
+    return "calculate_source_abi";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return String.format("%s %s", getShortName(), abiJar);
+  }
+}
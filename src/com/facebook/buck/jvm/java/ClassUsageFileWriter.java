@@ -18,12 +18,23 @@ package com.facebook.buck.jvm.java;
 
 import com.facebook.buck.io.ProjectFilesystem;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableSetMultimap;
+
+import java.nio.file.Path;
 
 import javax.tools.StandardJavaFileManager;
 
 public interface ClassUsageFileWriter {
   StandardJavaFileManager wrapFileManager(StandardJavaFileManager inner);
 
+  /**
+   * Records classes used by the compilation that were not read through a wrapped file manager,
+   * such as those read by an earlier compilation whose outputs are being reused.
+   *
+   * @param classUsageMap a map from JAR path on disk to .class file paths within the jar.
+   */
+  void addUsedClasses(ImmutableSetMultimap<Path, Path> classUsageMap);
+
   void writeFile(
       ProjectFilesystem filesystem,
       ObjectMapper objectMapper);
@@ -72,6 +72,14 @@ class ClassUsageTracker {
     return result;
   }
 
+  /**
+   * Records classes as used without them having been read through a wrapped file manager.
+   */
+  public void addUsedClasses(ImmutableSetMultimap<Path, Path> classUsageMap) {
+    Preconditions.checkState(result == null);  // Can't add after having built
+    resultBuilder.putAll(classUsageMap);
+  }
+
   private void addReadFile(FileObject fileObject) {
     Preconditions.checkState(result == null);  // Can't add after having built
 
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.annotation.Nullable;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * Keeps the classes in the jars on javac's classpath in memory, so that consecutive in-process
+ * compilations against the same jars do not each open them, read their central directories and
+ * inflate the classes they use again. A buckd keeps one for as long as it runs.
+ * <p>
+ * Jars are read whole the first time a compilation looks for a class in them, and evicted least
+ * recently used first once the classes held exceed the cache's size. A jar is read again if its
+ * size, modification time or file key changed since, which each compilation checks once.
+ */
+public class ClasspathJarCache {
+
+  private static final Logger LOG = Logger.get(ClasspathJarCache.class);
+
+  private static final Set<JavaFileObject.Kind> CLASS_KIND = EnumSet.of(JavaFileObject.Kind.CLASS);
+
+  private final Cache<Path, JarContents> jars;
+  private final AtomicLong jarsRead = new AtomicLong();
+  private final AtomicLong jarsStamped = new AtomicLong();
+
+  public ClasspathJarCache(long maxSizeBytes) {
+    this.jars = CacheBuilder.newBuilder()
+        .maximumWeight(maxSizeBytes)
+        .weigher((Path jar, JarContents contents) -> contents.getWeight())
+        .build();
+  }
+
+  /**
+   * Returns a file manager which, for as long as only jars are on the classpath of {@code inner},
+   * lists the classes in them from this cache, and otherwise forwards to {@code inner}.
+   */
+  public StandardJavaFileManager wrapFileManager(StandardJavaFileManager inner) {
+    return new CachingFileManager(inner);
+  }
+
+  /**
+   * @return how many times jars had to be read, rather than being found in the cache.
+   */
+  @VisibleForTesting
+  long getJarsRead() {
+    return jarsRead.get();
+  }
+
+  /**
+   * @return how many times the attributes of jars were read to check they did not change.
+   */
+  @VisibleForTesting
+  long getJarsStamped() {
+    return jarsStamped.get();
+  }
+
+  private JarContents getContents(Path jar) throws IOException {
+    jarsStamped.incrementAndGet();
+    JarStamp stamp = JarStamp.of(jar);
+    JarContents contents = getContents(jar, stamp);
+    if (!contents.stamp.equals(stamp)) {
+      // The jar was rewritten since it was cached.
+      jars.asMap().remove(jar, contents);
+      contents = getContents(jar, stamp);
+    }
+    return contents;
+  }
+
+  private JarContents getContents(Path jar, JarStamp stamp) throws IOException {
+    try {
+      return jars.get(
+          jar,
+          () -> {
+            jarsRead.incrementAndGet();
+            return JarContents.read(jar, stamp);
+          });
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * What identifies the version of a jar we have read.
+   */
+  private static class JarStamp {
+    private final long size;
+    private final long lastModifiedMillis;
+    @Nullable
+    private final Object fileKey;
+
+    private JarStamp(long size, long lastModifiedMillis, @Nullable Object fileKey) {
+      this.size = size;
+      this.lastModifiedMillis = lastModifiedMillis;
+      this.fileKey = fileKey;
+    }
+
+    public static JarStamp of(Path jar) throws IOException {
+      BasicFileAttributes attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+      return new JarStamp(
+          attributes.size(),
+          attributes.lastModifiedTime().toMillis(),
+          attributes.fileKey());
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof JarStamp)) {
+        return false;
+      }
+      JarStamp that = (JarStamp) other;
+      return size == that.size &&
+          lastModifiedMillis == that.lastModifiedMillis &&
+          Objects.equals(fileKey, that.fileKey);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(size, lastModifiedMillis, fileKey);
+    }
+  }
+
+  /**
+   * The classes in a jar, by package.
+   */
+  private static class JarContents {
+    // Roughly what an entry costs besides its name and bytes.
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    private final JarStamp stamp;
+    private final ImmutableMap<String, ImmutableList<CachedClassFileObject>> classesByPackage;
+    private final int weight;
+
+    private JarContents(
+        JarStamp stamp,
+        ImmutableMap<String, ImmutableList<CachedClassFileObject>> classesByPackage,
+        int weight) {
+      this.stamp = stamp;
+      this.classesByPackage = classesByPackage;
+      this.weight = weight;
+    }
+
+    public static JarContents read(Path jar, JarStamp stamp) throws IOException {
+      Map<String, ImmutableList.Builder<CachedClassFileObject>> classesByPackage = new HashMap<>();
+      long weight = 0;
+      try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+        for (ZipEntry entry : Collections.list(zipFile.entries())) {
+          String name = entry.getName();
+          if (entry.isDirectory() || !name.endsWith(".class")) {
+            continue;
+          }
+          byte[] bytes;
+          try (InputStream in = zipFile.getInputStream(entry)) {
+            bytes = ByteStreams.toByteArray(in);
+          }
+          int lastSlash = name.lastIndexOf('/');
+          String packageName = lastSlash < 0 ? "" : name.substring(0, lastSlash).replace('/', '.');
+          classesByPackage
+              .computeIfAbsent(packageName, key -> ImmutableList.builder())
+              .add(new CachedClassFileObject(jar, name, stamp.lastModifiedMillis, bytes));
+          weight += bytes.length + 2 * name.length() + ENTRY_OVERHEAD_BYTES;
+        }
+      }
+      LOG.verbose("Read %d packages from %s.", classesByPackage.size(), jar);
+
+      ImmutableMap.Builder<String, ImmutableList<CachedClassFileObject>> builder =
+          ImmutableMap.builder();
+      for (Map.Entry<String, ImmutableList.Builder<CachedClassFileObject>> entry :
+          classesByPackage.entrySet()) {
+        builder.put(entry.getKey(), entry.getValue().build());
+      }
+      return new JarContents(stamp, builder.build(), (int) Math.min(weight, Integer.MAX_VALUE));
+    }
+
+    public ImmutableList<CachedClassFileObject> getClasses(String packageName) {
+      ImmutableList<CachedClassFileObject> classes = classesByPackage.get(packageName);
+      return classes == null ? ImmutableList.of() : classes;
+    }
+
+    public int getWeight() {
+      return weight;
+    }
+  }
+
+  /**
+   * A class file in a jar, held in memory.
+   */
+  private static class CachedClassFileObject implements JavaFileObject {
+    private final Path jar;
+    private final String entryName;
+    private final URI uri;
+    private final long lastModifiedMillis;
+    private final byte[] bytes;
+
+    public CachedClassFileObject(
+        Path jar,
+        String entryName,
+        long lastModifiedMillis,
+        byte[] bytes) {
+      this.jar = jar;
+      this.entryName = entryName;
+      // The same URI javac gives classes in jars, which the ClassUsageTracker relies on.
+      this.uri = URI.create("jar:" + jar.toUri() + "!/" + entryName);
+      this.lastModifiedMillis = lastModifiedMillis;
+      this.bytes = bytes;
+    }
+
+    public String getBinaryName() {
+      return entryName.substring(0, entryName.length() - ".class".length()).replace('/', '.');
+    }
+
+    @Override
+    public URI toUri() {
+      return uri;
+    }
+
+    @Override
+    public String getName() {
+      return jar + "(" + entryName + ")";
+    }
+
+    @Override
+    public InputStream openInputStream() {
+      return new ByteArrayInputStream(bytes);
+    }
+
+    @Override
+    public OutputStream openOutputStream() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Reader openReader(boolean ignoreEncodingErrors) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Writer openWriter() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long getLastModified() {
+      return lastModifiedMillis;
+    }
+
+    @Override
+    public boolean delete() {
+      return false;
+    }
+
+    @Override
+    public Kind getKind() {
+      return Kind.CLASS;
+    }
+
+    @Override
+    public boolean isNameCompatible(String simpleName, Kind kind) {
+      if (kind != Kind.CLASS) {
+        return false;
+      }
+      String fileName = entryName.substring(entryName.lastIndexOf('/') + 1);
+      return fileName.equals(simpleName + ".class");
+    }
+
+    @Override
+    @Nullable
+    public NestingKind getNestingKind() {
+      return null;
+    }
+
+    @Override
+    @Nullable
+    public Modifier getAccessLevel() {
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      return getName();
+    }
+  }
+
+  private class CachingFileManager extends ForwardingStandardJavaFileManager {
+
+    private boolean classpathChecked;
+    // The contents of the jars on the classpath, stamped once when the classpath was checked, or
+    // absent if it has entries which are not jars, or jars which could not be read.
+    private Optional<ImmutableList<JarContents>> classpathContents = Optional.empty();
+
+    public CachingFileManager(StandardJavaFileManager fileManager) {
+      super(fileManager);
+    }
+
+    @Override
+    public boolean handleOption(String current, Iterator<String> remaining) {
+      classpathChecked = false;
+      return super.handleOption(current, remaining);
+    }
+
+    @Override
+    public void setLocation(Location location, Iterable<? extends File> path) throws IOException {
+      classpathChecked = false;
+      super.setLocation(location, path);
+    }
+
+    @Override
+    public Iterable<JavaFileObject> list(
+        Location location,
+        String packageName,
+        Set<JavaFileObject.Kind> kinds,
+        boolean recurse) throws IOException {
+      if (location != StandardLocation.CLASS_PATH || recurse || !CLASS_KIND.equals(kinds)) {
+        return super.list(location, packageName, kinds, recurse);
+      }
+      if (!classpathChecked) {
+        classpathContents = getClasspathContents();
+        classpathChecked = true;
+      }
+      if (!classpathContents.isPresent()) {
+        return super.list(location, packageName, kinds, recurse);
+      }
+
+      List<JavaFileObject> classes = new ArrayList<>();
+      for (JarContents contents : classpathContents.get()) {
+        classes.addAll(contents.getClasses(packageName));
+      }
+      return classes;
+    }
+
+    @Override
+    public String inferBinaryName(Location location, JavaFileObject file) {
+      if (file instanceof CachedClassFileObject) {
+        return ((CachedClassFileObject) file).getBinaryName();
+      }
+      return super.inferBinaryName(location, file);
+    }
+
+    @Override
+    public boolean isSameFile(FileObject a, FileObject b) {
+      if (a instanceof CachedClassFileObject || b instanceof CachedClassFileObject) {
+        return a.toUri().equals(b.toUri());
+      }
+      return super.isSameFile(a, b);
+    }
+
+    private Optional<ImmutableList<JarContents>> getClasspathContents() {
+      Iterable<? extends File> classpath = getLocation(StandardLocation.CLASS_PATH);
+      if (classpath == null) {
+        return Optional.empty();
+      }
+      ImmutableList.Builder<JarContents> jars = ImmutableList.builder();
+      for (File entry : classpath) {
+        if (entry.isFile()) {
+          try {
+            jars.add(getContents(entry.toPath()));
+          } catch (IOException e) {
+            // Let javac report the jar it cannot read, as it would without the cache.
+            LOG.debug(e, "Unable to read %s. Not caching the classpath.", entry);
+            return Optional.empty();
+          }
+        } else if (entry.exists()) {
+          // javac looks for classes in directories on the classpath too, which we do not cache.
+          return Optional.empty();
+        }
+        // javac ignores missing classpath entries.
+      }
+      return Optional.of(jars.build());
+    }
+  }
+}
@@ -20,6 +20,7 @@ import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.rules.ArchiveMemberSourcePath;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.SourcePath;
+import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.ObjectMappers;
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -47,6 +48,7 @@ class DefaultClassUsageFileReader {
   private DefaultClassUsageFileReader() {}
 
   private static ImmutableMap<Path, SourcePath> buildJarToAbiJarMap(
+      SourcePathResolver resolver,
       ImmutableSortedSet<BuildRule> deps) {
     ImmutableMap.Builder<Path, SourcePath> jarAbsolutePathToAbiJarSourcePathBuilder =
         ImmutableMap.builder();
@@ -65,6 +67,12 @@ class DefaultClassUsageFileReader {
       Path jarAbsolutePath = dep.getProjectFilesystem().resolve(dep.getPathToOutput());
 
       jarAbsolutePathToAbiJarSourcePathBuilder.put(jarAbsolutePath, depAbiJar.get());
+
+      // Rules may be compiled against the ABI jars of their deps rather than the full ones.
+      Path abiJarAbsolutePath = resolver.getAbsolutePath(depAbiJar.get());
+      if (!abiJarAbsolutePath.equals(jarAbsolutePath)) {
+        jarAbsolutePathToAbiJarSourcePathBuilder.put(abiJarAbsolutePath, depAbiJar.get());
+      }
     }
 
     return jarAbsolutePathToAbiJarSourcePathBuilder.build();
@@ -80,10 +88,11 @@ class DefaultClassUsageFileReader {
 
   public static ImmutableList<SourcePath> loadFromFile(
       ProjectFilesystem projectFilesystem,
+      SourcePathResolver resolver,
       Path classUsageFilePath,
       ImmutableSortedSet<BuildRule> deps) {
     final ImmutableMap<Path, SourcePath> jarAbsolutePathToAbiJarSourcePath =
-        buildJarToAbiJarMap(deps);
+        buildJarToAbiJarMap(resolver, deps);
     final ImmutableList.Builder<SourcePath> builder = ImmutableList.builder();
     try {
       final ImmutableSet<Map.Entry<String, ImmutableList<String>>> classUsageEntries =
@@ -45,6 +45,11 @@ public final class DefaultClassUsageFileWriter implements ClassUsageFileWriter {
     return tracker.wrapFileManager(inner);
   }
 
+  @Override
+  public void addUsedClasses(ImmutableSetMultimap<Path, Path> classUsageMap) {
+    tracker.addUsedClasses(classUsageMap);
+  }
+
   @Override
   public void writeFile(ProjectFilesystem filesystem, ObjectMapper objectMapper) {
     ImmutableSetMultimap<Path, Path> classUsageMap = tracker.getClassUsageMap();
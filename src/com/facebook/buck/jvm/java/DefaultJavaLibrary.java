@@ -32,10 +32,12 @@ import com.facebook.buck.rules.BuildContext;
 import com.facebook.buck.rules.BuildOutputInitializer;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleParams;
+import com.facebook.buck.rules.BuildRules;
 import com.facebook.buck.rules.BuildTargetSourcePath;
 import com.facebook.buck.rules.BuildableContext;
 import com.facebook.buck.rules.BuildableProperties;
 import com.facebook.buck.rules.ExportDependencies;
+import com.facebook.buck.rules.HasRuntimeDeps;
 import com.facebook.buck.rules.InitializableFromDisk;
 import com.facebook.buck.rules.OnDiskBuildInfo;
 import com.facebook.buck.rules.SourcePath;
@@ -58,6 +60,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import com.google.common.hash.HashCode;
 import com.google.common.reflect.ClassPath;
@@ -95,7 +99,8 @@ import javax.annotation.Nullable;
 public class DefaultJavaLibrary extends AbstractBuildRule
     implements JavaLibrary, HasClasspathEntries, ExportDependencies,
     InitializableFromDisk<JavaLibrary.Data>, AndroidPackageable,
-    SupportsInputBasedRuleKey, SupportsDependencyFileRuleKey, JavaLibraryWithTests {
+    SupportsInputBasedRuleKey, SupportsDependencyFileRuleKey, JavaLibraryWithTests,
+    HasRuntimeDeps {
 
   private static final BuildableProperties OUTPUT_TYPE = new BuildableProperties(LIBRARY);
 
@@ -114,8 +119,10 @@ public class DefaultJavaLibrary extends AbstractBuildRule
   private final Optional<SourcePath> proguardConfig;
   @AddToRuleKey
   private final ImmutableList<String> postprocessClassesCommands;
+  private final Supplier<ImmutableSortedSet<BuildRule>> fullJarDeclaredDeps;
   private final ImmutableSortedSet<BuildRule> exportedDeps;
   private final ImmutableSortedSet<BuildRule> providedDeps;
+  private final Supplier<ImmutableSortedSet<BuildRule>> fullJarClasspathDeps;
   // Some classes need to override this when enhancing deps (see AndroidLibrary).
   private final ImmutableSet<Path> additionalClasspathEntries;
   private final Supplier<ImmutableSet<Path>>
@@ -127,6 +134,8 @@ public class DefaultJavaLibrary extends AbstractBuildRule
   private final SourcePath abiJar;
   private final boolean trackClassUsage;
   @AddToRuleKey
+  private final boolean compileAgainstAbis;
+  @AddToRuleKey
   @SuppressWarnings("PMD.UnusedPrivateField")
   private final JarArchiveDependencySupplier abiClasspath;
   private final ImmutableSortedSet<BuildRule> deps;
@@ -171,6 +180,52 @@ public class DefaultJavaLibrary extends AbstractBuildRule
         return topLevelSymbolsBuilder.build();
       };
 
+  public DefaultJavaLibrary(
+      BuildRuleParams params,
+      SourcePathResolver resolver,
+      Set<? extends SourcePath> srcs,
+      Set<? extends SourcePath> resources,
+      Optional<Path> generatedSourceFolder,
+      Optional<SourcePath> proguardConfig,
+      ImmutableList<String> postprocessClassesCommands,
+      ImmutableSortedSet<BuildRule> exportedDeps,
+      ImmutableSortedSet<BuildRule> providedDeps,
+      SourcePath abiJar,
+      boolean trackClassUsage,
+      ImmutableSet<Path> additionalClasspathEntries,
+      CompileToJarStepFactory compileStepFactory,
+      Optional<Path> resourcesRoot,
+      Optional<SourcePath> manifestFile,
+      Optional<String> mavenCoords,
+      ImmutableSortedSet<BuildTarget> tests,
+      ImmutableSet<Pattern> classesToRemoveFromJar) {
+    this(
+        params,
+        resolver,
+        srcs,
+        resources,
+        generatedSourceFolder,
+        proguardConfig,
+        postprocessClassesCommands,
+        exportedDeps,
+        providedDeps,
+        abiJar,
+        trackClassUsage,
+        /* compileAgainstAbis */ false,
+        additionalClasspathEntries,
+        compileStepFactory,
+        resourcesRoot,
+        manifestFile,
+        mavenCoords,
+        tests,
+        classesToRemoveFromJar);
+  }
+
+  /**
+   * @param compileAgainstAbis whether to compile against the ABI jars of the libraries on the
+   *     classpath rather than their full jars. The rule then only depends on their ABI rules to
+   *     build, and on the libraries themselves at runtime.
+   */
   public DefaultJavaLibrary(
       final BuildRuleParams params,
       SourcePathResolver resolver,
@@ -183,6 +238,7 @@ public class DefaultJavaLibrary extends AbstractBuildRule
       ImmutableSortedSet<BuildRule> providedDeps,
       SourcePath abiJar,
       boolean trackClassUsage,
+      boolean compileAgainstAbis,
       ImmutableSet<Path> additionalClasspathEntries,
       CompileToJarStepFactory compileStepFactory,
       Optional<Path> resourcesRoot,
@@ -202,6 +258,7 @@ public class DefaultJavaLibrary extends AbstractBuildRule
         providedDeps,
         abiJar,
         trackClassUsage,
+        compileAgainstAbis,
         new JarArchiveDependencySupplier(
             Suppliers.memoize(() -> JavaLibraryRules.getAbiInputs(params.getDeps())),
             params.getProjectFilesystem()),
@@ -226,6 +283,7 @@ public class DefaultJavaLibrary extends AbstractBuildRule
       ImmutableSortedSet<BuildRule> providedDeps,
       SourcePath abiJar,
       boolean trackClassUsage,
+      boolean compileAgainstAbis,
       final JarArchiveDependencySupplier abiClasspath,
       ImmutableSet<Path> additionalClasspathEntries,
       CompileToJarStepFactory compileStepFactory,
@@ -235,7 +293,13 @@ public class DefaultJavaLibrary extends AbstractBuildRule
       ImmutableSortedSet<BuildTarget> tests,
       ImmutableSet<Pattern> classesToRemoveFromJar) {
     super(
-        params.appendExtraDeps(() -> resolver.filterBuildRuleInputs(abiClasspath.get())),
+        getBuildParams(
+            params,
+            resolver,
+            exportedDeps,
+            providedDeps,
+            compileAgainstAbis,
+            abiClasspath),
         resolver);
     this.compileStepFactory = compileStepFactory;
 
@@ -254,8 +318,11 @@ public class DefaultJavaLibrary extends AbstractBuildRule
     this.resources = ImmutableSortedSet.copyOf(resources);
     this.proguardConfig = proguardConfig;
     this.postprocessClassesCommands = postprocessClassesCommands;
+    this.fullJarDeclaredDeps = params.getDeclaredDeps();
     this.exportedDeps = exportedDeps;
     this.providedDeps = providedDeps;
+    this.fullJarClasspathDeps = Suppliers.memoize(
+        () -> getFullJarClasspathDeps(params.getDeclaredDeps().get(), exportedDeps, providedDeps));
     this.additionalClasspathEntries = additionalClasspathEntries.stream()
         .map(getProjectFilesystem()::resolve)
         .collect(MoreCollectors.toImmutableSet());
@@ -266,6 +333,7 @@ public class DefaultJavaLibrary extends AbstractBuildRule
 
     this.abiJar = abiJar;
     this.trackClassUsage = trackClassUsage;
+    this.compileAgainstAbis = compileAgainstAbis;
     this.abiClasspath = abiClasspath;
     this.deps = params.getDeps();
     if (!srcs.isEmpty() || !resources.isEmpty() || manifestFile.isPresent()) {
@@ -294,6 +362,56 @@ public class DefaultJavaLibrary extends AbstractBuildRule
     this.classesToRemoveFromJar = classesToRemoveFromJar;
   }
 
+  private static BuildRuleParams getBuildParams(
+      BuildRuleParams params,
+      SourcePathResolver resolver,
+      ImmutableSortedSet<BuildRule> exportedDeps,
+      ImmutableSortedSet<BuildRule> providedDeps,
+      boolean compileAgainstAbis,
+      JarArchiveDependencySupplier abiClasspath) {
+    BuildRuleParams paramsWithAbis =
+        params.appendExtraDeps(() -> resolver.filterBuildRuleInputs(abiClasspath.get()));
+    if (!compileAgainstAbis) {
+      return paramsWithAbis;
+    }
+
+    // Only the ABI rules of the libraries on the classpath need to be built before compiling, so
+    // that a chain of libraries can be compiled as soon as the ABIs below it are stubbed.
+    Supplier<ImmutableSortedSet<BuildRule>> fullJarDeps = Suppliers.memoize(
+        () -> getFullJarClasspathDeps(params.getDeclaredDeps().get(), exportedDeps, providedDeps));
+    return paramsWithAbis.copyWithDeps(
+        () -> ImmutableSortedSet.copyOf(
+            Sets.difference(paramsWithAbis.getDeclaredDeps().get(), fullJarDeps.get())),
+        () -> ImmutableSortedSet.copyOf(
+            Sets.difference(paramsWithAbis.getExtraDeps().get(), fullJarDeps.get())));
+  }
+
+  /**
+   * @return the libraries with an ABI jar among its declared, exported and provided deps, and the
+   *     deps those export, which it compiles against the ABI jars of when compiling against ABIs.
+   */
+  private static ImmutableSortedSet<BuildRule> getFullJarClasspathDeps(
+      ImmutableSortedSet<BuildRule> declaredDeps,
+      ImmutableSortedSet<BuildRule> exportedDeps,
+      ImmutableSortedSet<BuildRule> providedDeps) {
+    Iterable<BuildRule> classpathDeps = Iterables.concat(declaredDeps, exportedDeps, providedDeps);
+    return FluentIterable.from(
+        Iterables.concat(classpathDeps, BuildRules.getExportedRules(classpathDeps)))
+        .filter(rule -> rule instanceof HasJavaAbi && ((HasJavaAbi) rule).getAbiJar().isPresent())
+        .toSortedSet(Ordering.natural());
+  }
+
+  /**
+   * @return the ABI jars of the libraries this one would otherwise compile against the full jars
+   *     of.
+   */
+  private ImmutableSet<Path> getAbiClasspath() {
+    return JavaLibraryRules.getAbiInputs(fullJarClasspathDeps.get())
+        .stream()
+        .map(getResolver()::getAbsolutePath)
+        .collect(MoreCollectors.toImmutableSet());
+  }
+
   private Path getPathToAbiOutputDir() {
     return BuildTargets.getGenPath(getProjectFilesystem(), getBuildTarget(), "lib__%s__abi");
   }
@@ -348,7 +466,7 @@ public class DefaultJavaLibrary extends AbstractBuildRule
 
   @Override
   public ImmutableSortedSet<BuildRule> getDepsForTransitiveClasspathEntries() {
-    return ImmutableSortedSet.copyOf(Sets.union(getDeclaredDeps(), exportedDeps));
+    return ImmutableSortedSet.copyOf(Sets.union(fullJarDeclaredDeps.get(), exportedDeps));
   }
 
   @Override
@@ -448,11 +566,19 @@ public class DefaultJavaLibrary extends AbstractBuildRule
           }
         }).transform(projectFilesystem::resolve);
     // Only override the bootclasspath if this rule is supposed to compile Android code.
-    ImmutableSortedSet<Path> declared = ImmutableSortedSet.<Path>naturalOrder()
-        .addAll(declaredClasspaths)
-        .addAll(additionalClasspathEntries)
-        .addAll(provided)
-        .build();
+    ImmutableSortedSet<Path> declared;
+    if (compileAgainstAbis) {
+      declared = ImmutableSortedSet.<Path>naturalOrder()
+          .addAll(getAbiClasspath())
+          .addAll(additionalClasspathEntries)
+          .build();
+    } else {
+      declared = ImmutableSortedSet.<Path>naturalOrder()
+          .addAll(declaredClasspaths)
+          .addAll(additionalClasspathEntries)
+          .addAll(provided)
+          .build();
+    }
 
 
     // Make sure that this directory exists because ABI information will be written here.
@@ -602,10 +728,19 @@ public class DefaultJavaLibrary extends AbstractBuildRule
   public Iterable<AndroidPackageable> getRequiredPackageables() {
     return AndroidPackageableCollector.getPackageableRules(ImmutableSortedSet.copyOf(
             Sets.difference(
-                Sets.union(getDeclaredDeps(), exportedDeps),
+                Sets.union(fullJarDeclaredDeps.get(), exportedDeps),
                 providedDeps)));
   }
 
+  /**
+   * When compiling against ABI jars, the libraries on the classpath are not built before this one,
+   * but their jars are still needed wherever this one's is.
+   */
+  @Override
+  public ImmutableSortedSet<BuildRule> getRuntimeDeps() {
+    return compileAgainstAbis ? fullJarClasspathDeps.get() : ImmutableSortedSet.of();
+  }
+
   @Override
   public Optional<String> getMavenCoords() {
     return mavenCoords;
@@ -638,6 +773,7 @@ public class DefaultJavaLibrary extends AbstractBuildRule
     Preconditions.checkState(useDependencyFileRuleKeys());
     return DefaultClassUsageFileReader.loadFromFile(
         getProjectFilesystem(),
+        getResolver(),
         Preconditions.checkNotNull(depFileOutputPath),
         deps);
   }
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.RuleKeyObjectSink;
+import com.facebook.buck.rules.SourcePath;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.rules.Tool;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.MoreCollectors;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+/**
+ * A compiler for a JVM language which, rather than being started in a JVM of its own for every
+ * rule, is loaded from its jars once per build by the
+ * {@link com.facebook.buck.util.ClassLoaderCache} and called in buck's JVM, so later rules run it
+ * warmed up.
+ * <p>
+ * As a {@link Tool}, it runs the same compiler in a new JVM. Steps that know about it call
+ * {@link #compile(ExecutionContext, ImmutableList)} instead.
+ */
+public abstract class InProcessCompiler implements Tool {
+
+  private final String mainClassName;
+  private final ImmutableList<Path> classpath;
+  private final ImmutableList<String> arguments;
+
+  protected InProcessCompiler(
+      String mainClassName,
+      ImmutableList<Path> classpath,
+      ImmutableList<String> arguments) {
+    this.mainClassName = mainClassName;
+    this.classpath = classpath;
+    this.arguments = arguments;
+  }
+
+  /**
+   * Calls the compiler's entry point in {@code mainClass}.
+   *
+   * @return the exit code of the compilation.
+   */
+  protected abstract int compile(Class<?> mainClass, String[] args, PrintStream stdErr)
+      throws ReflectiveOperationException;
+
+  /**
+   * Runs the compiler with the given command line arguments, following the ones the compiler was
+   * created with. As the compiler runs in buck's JVM, relative paths in them are not resolved
+   * against the project root.
+   *
+   * @return the exit code of the compilation.
+   */
+  public int compile(ExecutionContext context, ImmutableList<String> args) {
+    ClassLoader classLoader = context.getClassLoaderCache().getClassLoaderForClassPath(
+        // Only the JDK is shared, so the compiler's dependencies do not clash with buck's.
+        null,
+        classpath.stream()
+            .map(InProcessCompiler::toUrl)
+            .collect(MoreCollectors.toImmutableList()));
+    Thread currentThread = Thread.currentThread();
+    ClassLoader previousClassLoader = currentThread.getContextClassLoader();
+    currentThread.setContextClassLoader(classLoader);
+    try {
+      return compile(
+          classLoader.loadClass(mainClassName),
+          Stream.concat(arguments.stream(), args.stream()).toArray(String[]::new),
+          context.getStdErr());
+    } catch (InvocationTargetException e) {
+      e.getCause().printStackTrace(context.getStdErr());
+      return 1;
+    } catch (ReflectiveOperationException e) {
+      throw new HumanReadableException(
+          e,
+          "Unable to run %s from %s: %s",
+          mainClassName,
+          classpath,
+          e.getMessage());
+    } finally {
+      currentThread.setContextClassLoader(previousClassLoader);
+    }
+  }
+
+  @Override
+  @SuppressWarnings("deprecation")
+  public void appendToRuleKey(RuleKeyObjectSink sink) {
+    sink.setReflectively("compiler", "in-process")
+        .setReflectively("compiler.classname", mainClassName)
+        .setReflectively("compiler.arguments", arguments);
+    try {
+      for (Path jar : classpath) {
+        sink.setPath(jar.toAbsolutePath(), jar);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public ImmutableCollection<BuildRule> getDeps(SourcePathResolver resolver) {
+    return ImmutableSortedSet.of();
+  }
+
+  @Override
+  public ImmutableCollection<SourcePath> getInputs() {
+    return ImmutableSortedSet.of();
+  }
+
+  @Override
+  public ImmutableList<String> getCommandPrefix(SourcePathResolver resolver) {
+    return ImmutableList.<String>builder()
+        .add(Paths.get(System.getProperty("java.home"), "bin", "java").toString())
+        .add("-cp")
+        .add(Joiner.on(File.pathSeparator).join(classpath))
+        .add(mainClassName)
+        .addAll(arguments)
+        .build();
+  }
+
+  @Override
+  public ImmutableMap<String, String> getEnvironment(SourcePathResolver resolver) {
+    return ImmutableMap.of();
+  }
+
+  /**
+   * @return the directory a compiler's distribution was unpacked to, given the script that starts
+   *     it, which is conventionally in its {@code bin} directory, possibly through a symlink.
+   */
+  public static Path getDistributionHome(Path compilerScript) {
+    try {
+      return compilerScript.toRealPath().getParent().getParent();
+    } catch (IOException e) {
+      throw new HumanReadableException(e, "Unable to resolve %s: %s", compilerScript, e);
+    }
+  }
+
+  /**
+   * @return the jars in {@code directory}, in a stable order.
+   */
+  public static ImmutableList<Path> getJarsIn(Path directory) {
+    try (Stream<Path> files = Files.list(directory)) {
+      ImmutableList<Path> jars = files
+          .filter(file -> file.getFileName().toString().endsWith(".jar"))
+          .sorted()
+          .collect(MoreCollectors.toImmutableList());
+      if (jars.isEmpty()) {
+        throw new HumanReadableException("No compiler jars found in %s.", directory);
+      }
+      return jars;
+    } catch (IOException e) {
+      throw new HumanReadableException(e, "Unable to list compiler jars in %s: %s", directory, e);
+    }
+  }
+
+  private static URL toUrl(Path path) {
+    try {
+      return path.toUri().toURL();
+    } catch (MalformedURLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,783 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.objectweb.asm.ClassReader.SKIP_CODE;
+import static org.objectweb.asm.ClassReader.SKIP_DEBUG;
+import static org.objectweb.asm.ClassReader.SKIP_FRAMES;
+
+import com.facebook.buck.io.MorePaths;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.jvm.core.SuggestBuildRules;
+import com.facebook.buck.jvm.java.abi.StubJar;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.util.MoreCollectors;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.SetMultimap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+
+/**
+ * Compiles the sources of a java library in-process, recompiling only those that changed since the
+ * library was last built and those depending on classes whose ABI changed as a result.
+ * <p>
+ * Classes are compiled into a directory kept between builds, next to an
+ * {@link IncrementalCompilationState} recording which source each class came from, which classes
+ * it refers to and which classes javac read from the classpath, and are then copied to the output
+ * directory to be jarred up as usual. Every source is recompiled whenever that record can't be
+ * relied upon: on the first build, when the options or classpath javac runs with change, when a
+ * compile-time constant changes, or when a class read from the classpath changes without any of
+ * the library's classes referring to it.
+ */
+public class IncrementalJavacStep implements Step {
+
+  private static final Logger LOG = Logger.get(IncrementalJavacStep.class);
+
+  private static final String STATE_FILE_NAME = "state.json";
+  private static final String CLASSES_DIRECTORY_NAME = "classes";
+  private static final String CLASS_FILE_SUFFIX = ".class";
+
+  /**
+   * How many times the dependents of classes whose ABI changed are recompiled before giving up and
+   * recompiling everything.
+   */
+  private static final int MAX_ROUNDS = 5;
+
+  // Constant pool tags, from section 4.4 of the JVM specification.
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_CLASS = 7;
+
+  private static final Pattern CLASS_IN_DESCRIPTOR = Pattern.compile("L([\\w/$]+)[;<]");
+
+  private final Path outputDirectory;
+  private final ClassUsageFileWriter usedClassesFileWriter;
+  private final Optional<Path> workingDirectory;
+  private final ImmutableSortedSet<Path> javaSourceFilePaths;
+  private final Path pathToSrcsList;
+  private final ImmutableSortedSet<Path> declaredClasspathEntries;
+  private final Javac javac;
+  private final JavacOptions javacOptions;
+  private final BuildTarget invokingRule;
+  private final Optional<SuggestBuildRules> suggestBuildRules;
+  private final SourcePathResolver resolver;
+  private final ProjectFilesystem filesystem;
+  private final Path stateFile;
+  private final Path classesDirectory;
+
+  /**
+   * @param stateDirectory where the classes and the state of the last compilation are kept between
+   *     builds. Nothing else should write to it.
+   */
+  public IncrementalJavacStep(
+      Path outputDirectory,
+      ClassUsageFileWriter usedClassesFileWriter,
+      Optional<Path> workingDirectory,
+      ImmutableSortedSet<Path> javaSourceFilePaths,
+      Path pathToSrcsList,
+      ImmutableSortedSet<Path> declaredClasspathEntries,
+      Javac javac,
+      JavacOptions javacOptions,
+      BuildTarget invokingRule,
+      Optional<SuggestBuildRules> suggestBuildRules,
+      SourcePathResolver resolver,
+      ProjectFilesystem filesystem,
+      Path stateDirectory) {
+    this.outputDirectory = outputDirectory;
+    this.usedClassesFileWriter = usedClassesFileWriter;
+    this.workingDirectory = workingDirectory;
+    this.javaSourceFilePaths = javaSourceFilePaths;
+    this.pathToSrcsList = pathToSrcsList;
+    this.declaredClasspathEntries = declaredClasspathEntries;
+    this.javac = javac;
+    this.javacOptions = javacOptions;
+    this.invokingRule = invokingRule;
+    this.suggestBuildRules = suggestBuildRules;
+    this.resolver = resolver;
+    this.filesystem = filesystem;
+    this.stateFile = stateDirectory.resolve(STATE_FILE_NAME);
+    this.classesDirectory = stateDirectory.resolve(CLASSES_DIRECTORY_NAME);
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context)
+      throws IOException, InterruptedException {
+    String optionsHash = hashOptions(context);
+    ImmutableMap<String, String> sourceHashes = hashSources();
+
+    // Classes read from directories on the classpath aren't tracked, so changes to them would go
+    // unnoticed.
+    boolean canCompileIncrementally = declaredClasspathEntries.stream()
+        .noneMatch(Files::isDirectory);
+    Optional<IncrementalCompilationState> previousState = canCompileIncrementally ?
+        readState(context.getObjectMapper(), optionsHash) :
+        Optional.empty();
+
+    // Forget about the last compilation before touching the classes it produced, so that if this
+    // one fails the next starts from scratch.
+    filesystem.deleteFileAtPathIfExists(stateFile);
+
+    Compilation compilation = new Compilation(context, sourceHashes);
+    int exitCode = previousState.isPresent() ?
+        compilation.compileIncrementally(previousState.get()) :
+        compilation.compileEverything();
+    if (exitCode != 0) {
+      return StepExecutionResult.of(exitCode);
+    }
+
+    ImmutableSetMultimap<Path, Path> usedClasses = compilation.getUsedClasses();
+    usedClassesFileWriter.addUsedClasses(usedClasses);
+    usedClassesFileWriter.writeFile(filesystem, context.getObjectMapper());
+
+    if (canCompileIncrementally) {
+      IncrementalCompilationState.Builder state = IncrementalCompilationState.builder()
+          .setOptionsHash(optionsHash)
+          .setSourceHashes(sourceHashes)
+          .setClasses(compilation.classes);
+      recordUsedClasses(usedClasses, previousState, state);
+      context.getObjectMapper().writeValue(filesystem.resolve(stateFile).toFile(), state.build());
+    }
+
+    filesystem.copyFolder(classesDirectory, outputDirectory);
+    return StepExecutionResult.SUCCESS;
+  }
+
+  /**
+   * The state of one run of this step: the classes in the classes directory, and the classes
+   * javac read from the classpath while compiling them.
+   */
+  private class Compilation {
+
+    private final ExecutionContext context;
+    private final ImmutableMap<String, String> sourceHashes;
+    private final Map<String, CompiledClassInfo> classes = new HashMap<>();
+    private final ClassUsageTracker classUsageTracker = new ClassUsageTracker();
+    private final Map<String, Set<String>> previouslyUsedClasses = new HashMap<>();
+
+    public Compilation(ExecutionContext context, ImmutableMap<String, String> sourceHashes) {
+      this.context = context;
+      this.sourceHashes = sourceHashes;
+    }
+
+    public int compileEverything() throws IOException, InterruptedException {
+      filesystem.deleteRecursivelyIfExists(classesDirectory);
+      filesystem.mkdirs(classesDirectory);
+      classes.clear();
+      previouslyUsedClasses.clear();
+      return compile(sourceHashes.keySet());
+    }
+
+    public int compileIncrementally(IncrementalCompilationState previousState)
+        throws IOException, InterruptedException {
+      classes.putAll(previousState.getClasses());
+      for (Map.Entry<String, Map<String, Long>> jar :
+          previousState.getUsedClasses().entrySet()) {
+        previouslyUsedClasses.put(jar.getKey(), new HashSet<>(jar.getValue().keySet()));
+      }
+
+      Set<String> changedClasses = new HashSet<>();
+      for (String source : previousState.getSourceHashes().keySet()) {
+        if (!sourceHashes.containsKey(source)) {
+          Map<String, CompiledClassInfo> removed = removeClassesOf(Collections.singleton(source));
+          if (removed.values().stream().anyMatch(info -> !info.getConstantsHash().isEmpty())) {
+            LOG.debug(
+                "%s: %s declared constants and was removed, recompiling everything.",
+                invokingRule,
+                source);
+            return compileEverything();
+          }
+          changedClasses.addAll(removed.keySet());
+        }
+      }
+
+      Set<String> classpathClassesWithConstants = new HashSet<>();
+      for (Set<String> entries : previousState.getUsedClassesWithConstants().values()) {
+        for (String entry : entries) {
+          classpathClassesWithConstants.add(getClassName(entry));
+        }
+      }
+      Set<String> changedClasspathClasses =
+          findChangedClasspathClasses(previousState.getUsedClasses());
+      for (String changedClass : changedClasspathClasses) {
+        // Constants are inlined by javac, so the classes using one needn't refer to its class.
+        if (classpathClassesWithConstants.contains(changedClass) ||
+            classes.values().stream()
+            .noneMatch(info -> info.getReferencedClasses().contains(changedClass))) {
+          LOG.debug(
+              "%s: %s changed on the classpath, recompiling everything.",
+              invokingRule,
+              changedClass);
+          return compileEverything();
+        }
+      }
+      changedClasses.addAll(changedClasspathClasses);
+
+      Set<String> toCompile = new TreeSet<>(getDependentSources(changedClasses));
+      for (Map.Entry<String, String> source : sourceHashes.entrySet()) {
+        if (!source.getValue().equals(previousState.getSourceHashes().get(source.getKey()))) {
+          toCompile.add(source.getKey());
+        }
+      }
+
+      for (int round = 1; !toCompile.isEmpty(); round++) {
+        if (round > MAX_ROUNDS) {
+          LOG.debug("%s: ABI changes still spreading, recompiling everything.", invokingRule);
+          return compileEverything();
+        }
+
+        Map<String, CompiledClassInfo> oldClasses = removeClassesOf(toCompile);
+        int exitCode = compile(toCompile);
+        if (exitCode != 0) {
+          return exitCode;
+        }
+
+        Set<String> newClasses = new HashSet<>();
+        for (Map.Entry<String, CompiledClassInfo> compiledClass : classes.entrySet()) {
+          if (toCompile.contains(compiledClass.getValue().getSource())) {
+            newClasses.add(compiledClass.getKey());
+          }
+        }
+
+        Set<String> abiChangedClasses = new HashSet<>();
+        Set<String> addedClasses = new HashSet<>();
+        for (String className : union(oldClasses.keySet(), newClasses)) {
+          CompiledClassInfo oldClass = oldClasses.get(className);
+          CompiledClassInfo newClass = classes.get(className);
+          if (oldClass != null && !oldClass.getConstantsHash().isEmpty() &&
+              (newClass == null ||
+                  !oldClass.getConstantsHash().equals(newClass.getConstantsHash()))) {
+            LOG.debug(
+                "%s: constants of %s changed, recompiling everything.",
+                invokingRule,
+                className);
+            return compileEverything();
+          }
+          if (oldClass == null) {
+            addedClasses.add(className);
+          }
+          if (oldClass == null || newClass == null ||
+              !oldClass.getAbiHash().equals(newClass.getAbiHash())) {
+            abiChangedClasses.add(className);
+          }
+        }
+
+        Set<String> dependents = getDependentSources(abiChangedClasses);
+        dependents.addAll(getSourcesReferringToSimpleNamesOf(addedClasses));
+        dependents.removeAll(toCompile);
+        toCompile = new TreeSet<>(dependents);
+      }
+      return 0;
+    }
+
+    /**
+     * @return the classes javac read from jars on the classpath, both while compiling now and, for
+     *     the classes left as they were, while compiling them before.
+     */
+    public ImmutableSetMultimap<Path, Path> getUsedClasses() throws IOException {
+      ImmutableSetMultimap.Builder<Path, Path> usedClasses = ImmutableSetMultimap.builder();
+      usedClasses.putAll(classUsageTracker.getClassUsageMap());
+      for (Map.Entry<String, Set<String>> jar : previouslyUsedClasses.entrySet()) {
+        Path jarPath = Paths.get(jar.getKey());
+        Map<String, Long> crcs = readCrcs(jarPath, jar.getValue());
+        for (String entry : crcs.keySet()) {
+          usedClasses.put(jarPath, Paths.get(entry));
+        }
+      }
+      return usedClasses.build();
+    }
+
+    private int compile(Set<String> sources) throws IOException, InterruptedException {
+      Map<Path, String> sourcesByAbsolutePath = new HashMap<>();
+      for (String source : sources) {
+        sourcesByAbsolutePath.put(filesystem.resolve(Paths.get(source)).normalize(), source);
+      }
+      SetMultimap<String, String> outputClasses = HashMultimap.create();
+
+      JavacStep javacStep = new JavacStep(
+          classesDirectory,
+          new ClassUsageFileWriter() {
+            @Override
+            public StandardJavaFileManager wrapFileManager(StandardJavaFileManager inner) {
+              return classUsageTracker.wrapFileManager(inner);
+            }
+
+            @Override
+            public void addUsedClasses(ImmutableSetMultimap<Path, Path> classUsageMap) {
+              classUsageTracker.addUsedClasses(classUsageMap);
+            }
+
+            @Override
+            public void writeFile(ProjectFilesystem projectFilesystem, ObjectMapper objectMapper) {
+              // Written once all the rounds of compilation are done.
+            }
+          },
+          Optional.of(
+              compiler -> new OutputRecordingFileManager(
+                  compiler.getStandardFileManager(null, null, null),
+                  sourcesByAbsolutePath,
+                  outputClasses)),
+          workingDirectory,
+          sources.stream()
+              .map(Paths::get)
+              .collect(MoreCollectors.toImmutableSortedSet(Comparator.<Path>naturalOrder())),
+          pathToSrcsList,
+          ImmutableSortedSet.<Path>naturalOrder()
+              .addAll(declaredClasspathEntries)
+              .add(filesystem.resolve(classesDirectory))
+              .build(),
+          javac,
+          javacOptions,
+          invokingRule,
+          suggestBuildRules,
+          resolver,
+          filesystem);
+      LOG.debug(
+          "%s: compiling %d of %d sources.",
+          invokingRule,
+          sources.size(),
+          sourceHashes.size());
+      int exitCode = javacStep.execute(context).getExitCode();
+      if (exitCode != 0) {
+        return exitCode;
+      }
+
+      for (Map.Entry<String, String> outputClass : outputClasses.entries()) {
+        classes.put(
+            outputClass.getValue(),
+            analyzeClass(outputClass.getKey(), outputClass.getValue()));
+      }
+      return 0;
+    }
+
+    /**
+     * Deletes the classes compiled from the given sources.
+     *
+     * @return the classes deleted.
+     */
+    private Map<String, CompiledClassInfo> removeClassesOf(Collection<String> sources)
+        throws IOException {
+      Map<String, CompiledClassInfo> removed = new HashMap<>();
+      for (Map.Entry<String, CompiledClassInfo> compiledClass : classes.entrySet()) {
+        if (sources.contains(compiledClass.getValue().getSource())) {
+          removed.put(compiledClass.getKey(), compiledClass.getValue());
+        }
+      }
+      for (String className : removed.keySet()) {
+        classes.remove(className);
+        filesystem.deleteFileAtPathIfExists(getClassFile(className));
+      }
+      return removed;
+    }
+
+    /**
+     * @return the sources of the classes referring to any of the given classes or to a class
+     *     inheriting from one of them, through which the members they declare can also be used.
+     */
+    private Set<String> getDependentSources(Set<String> changedClasses) {
+      Set<String> affectedClasses = new HashSet<>(changedClasses);
+      boolean foundSubclass = true;
+      while (foundSubclass) {
+        foundSubclass = false;
+        for (Map.Entry<String, CompiledClassInfo> compiledClass : classes.entrySet()) {
+          if (!affectedClasses.contains(compiledClass.getKey()) &&
+              !Collections.disjoint(compiledClass.getValue().getSuperTypes(), affectedClasses)) {
+            affectedClasses.add(compiledClass.getKey());
+            foundSubclass = true;
+          }
+        }
+      }
+
+      Set<String> sources = new HashSet<>();
+      for (CompiledClassInfo compiledClass : classes.values()) {
+        if (!Collections.disjoint(compiledClass.getReferencedClasses(), affectedClasses)) {
+          sources.add(compiledClass.getSource());
+        }
+      }
+      return sources;
+    }
+
+    /**
+     * @return the sources of the classes referring to a class with the same simple name as any of
+     *     the given classes, since a new class can shadow one they found through an on-demand
+     *     import or an outer scope.
+     */
+    private Set<String> getSourcesReferringToSimpleNamesOf(Set<String> addedClasses) {
+      Set<String> simpleNames = new HashSet<>();
+      for (String className : addedClasses) {
+        simpleNames.add(getSimpleName(className));
+      }
+
+      Set<String> sources = new HashSet<>();
+      for (CompiledClassInfo compiledClass : classes.values()) {
+        for (String referencedClass : compiledClass.getReferencedClasses()) {
+          if (simpleNames.contains(getSimpleName(referencedClass))) {
+            sources.add(compiledClass.getSource());
+            break;
+          }
+        }
+      }
+      return sources;
+    }
+
+    private Set<String> findChangedClasspathClasses(Map<String, Map<String, Long>> usedClasses)
+        throws IOException {
+      Set<String> changedClasses = new HashSet<>();
+      for (Map.Entry<String, Map<String, Long>> jar : usedClasses.entrySet()) {
+        Map<String, Long> crcs = readCrcs(Paths.get(jar.getKey()), jar.getValue().keySet());
+        for (Map.Entry<String, Long> entry : jar.getValue().entrySet()) {
+          if (!entry.getValue().equals(crcs.get(entry.getKey()))) {
+            changedClasses.add(getClassName(entry.getKey()));
+          }
+        }
+      }
+      return changedClasses;
+    }
+  }
+
+  private static String getClassName(String classFile) {
+    return classFile.substring(0, classFile.length() - CLASS_FILE_SUFFIX.length());
+  }
+
+  private static String getSimpleName(String className) {
+    return className.substring(
+        Math.max(className.lastIndexOf('/'), className.lastIndexOf('$')) + 1);
+  }
+
+  private Path getClassFile(String className) {
+    return classesDirectory.resolve(className + CLASS_FILE_SUFFIX);
+  }
+
+  private CompiledClassInfo analyzeClass(String source, String className) throws IOException {
+    byte[] classFile = Files.readAllBytes(filesystem.resolve(getClassFile(className)));
+    ClassReader reader = new ClassReader(classFile);
+    ConstantsHasher constantsHasher = new ConstantsHasher();
+    reader.accept(constantsHasher, SKIP_CODE | SKIP_DEBUG | SKIP_FRAMES);
+
+    CompiledClassInfo.Builder info = CompiledClassInfo.builder()
+        .setSource(source)
+        .setAbiHash(
+            StubJar.getStubClassBytes(
+                new ByteArrayInputStream(classFile),
+                className + CLASS_FILE_SUFFIX)
+                .hash(Hashing.sha1())
+                .toString())
+        .setConstantsHash(constantsHasher.getHash())
+        .addSuperTypes(reader.getInterfaces())
+        .setReferencedClasses(getReferencedClasses(reader));
+    if (reader.getSuperName() != null) {
+      info.addSuperTypes(reader.getSuperName());
+    }
+    return info.build();
+  }
+
+  /**
+   * @return the classes named in the constant pool of a class file, whether as the owner of a
+   *     member it uses or in the descriptor of one.
+   */
+  @VisibleForTesting
+  static Set<String> getReferencedClasses(ClassReader reader) {
+    Set<String> classes = new TreeSet<>();
+    char[] buffer = new char[reader.getMaxStringLength()];
+    for (int item = 1; item < reader.getItemCount(); item++) {
+      int offset = reader.getItem(item);
+      if (offset == 0) {
+        // The unusable entry after a long or a double.
+        continue;
+      }
+      switch (reader.b[offset - 1]) {
+        case CONSTANT_CLASS:
+          String className = reader.readUTF8(offset, buffer);
+          // Array classes are named by their descriptor, which is covered below.
+          if (!className.startsWith("[")) {
+            classes.add(className);
+          }
+          break;
+        case CONSTANT_UTF8:
+          Matcher matcher = CLASS_IN_DESCRIPTOR.matcher(
+              new String(
+                  reader.b,
+                  offset + 2,
+                  reader.readUnsignedShort(offset),
+                  StandardCharsets.UTF_8));
+          while (matcher.find()) {
+            classes.add(matcher.group(1));
+          }
+          break;
+      }
+    }
+    classes.remove(reader.getClassName());
+    return classes;
+  }
+
+  private String hashOptions(ExecutionContext context) {
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (String option : JavacStep.getOptions(
+        javacOptions,
+        filesystem,
+        classesDirectory,
+        context,
+        declaredClasspathEntries)) {
+      if (!"-verbose".equals(option)) {
+        hasher.putString(option, StandardCharsets.UTF_8).putByte((byte) 0);
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+  private ImmutableMap<String, String> hashSources() throws IOException {
+    ImmutableMap.Builder<String, String> sourceHashes = ImmutableMap.builder();
+    for (Path source : javaSourceFilePaths) {
+      sourceHashes.put(source.toString(), filesystem.computeSha1(source).getHash());
+    }
+    return sourceHashes.build();
+  }
+
+  private Optional<IncrementalCompilationState> readState(
+      ObjectMapper objectMapper,
+      String optionsHash) {
+    if (!filesystem.isFile(stateFile) || !filesystem.isDirectory(classesDirectory)) {
+      return Optional.empty();
+    }
+
+    IncrementalCompilationState state;
+    try {
+      state = objectMapper.readValue(
+          filesystem.resolve(stateFile).toFile(),
+          IncrementalCompilationState.class);
+    } catch (IOException e) {
+      LOG.warn(e, "%s: unable to read the state of the last compilation.", invokingRule);
+      return Optional.empty();
+    }
+    if (!state.getOptionsHash().equals(optionsHash)) {
+      LOG.debug("%s: javac options changed, recompiling everything.", invokingRule);
+      return Optional.empty();
+    }
+    return Optional.of(state);
+  }
+
+  /**
+   * Records the CRC of each class javac read from a jar, and which of those classes declare
+   * constants. The latter is only worked out again for classes that changed since last time.
+   */
+  private static void recordUsedClasses(
+      ImmutableSetMultimap<Path, Path> usedClasses,
+      Optional<IncrementalCompilationState> previousState,
+      IncrementalCompilationState.Builder state) throws IOException {
+    for (Map.Entry<Path, Collection<Path>> jar : usedClasses.asMap().entrySet()) {
+      String jarName = jar.getKey().toString();
+      Map<String, Long> previousCrcs = previousState
+          .map(s -> s.getUsedClasses().get(jarName))
+          .orElse(Collections.emptyMap());
+      Set<String> previousClassesWithConstants = previousState
+          .map(s -> s.getUsedClassesWithConstants().get(jarName))
+          .orElse(Collections.emptySet());
+
+      SortedMap<String, Long> crcs = new TreeMap<>();
+      SortedSet<String> classesWithConstants = new TreeSet<>();
+      if (Files.isRegularFile(jar.getKey())) {
+        try (ZipFile zipFile = new ZipFile(jar.getKey().toFile())) {
+          for (Path entryPath : jar.getValue()) {
+            String entryName = MorePaths.pathWithUnixSeparators(entryPath);
+            ZipEntry entry = zipFile.getEntry(entryName);
+            if (entry == null) {
+              continue;
+            }
+            crcs.put(entryName, entry.getCrc());
+
+            boolean declaresConstants;
+            if (Long.valueOf(entry.getCrc()).equals(previousCrcs.get(entryName))) {
+              declaresConstants = previousClassesWithConstants.contains(entryName);
+            } else if (entryName.endsWith(CLASS_FILE_SUFFIX)) {
+              ConstantsHasher constantsHasher = new ConstantsHasher();
+              try (InputStream in = zipFile.getInputStream(entry)) {
+                new ClassReader(in).accept(constantsHasher, SKIP_CODE | SKIP_DEBUG | SKIP_FRAMES);
+              }
+              declaresConstants = !constantsHasher.getHash().isEmpty();
+            } else {
+              declaresConstants = false;
+            }
+            if (declaresConstants) {
+              classesWithConstants.add(entryName);
+            }
+          }
+        }
+      }
+      state.putUsedClasses(jarName, crcs);
+      if (!classesWithConstants.isEmpty()) {
+        state.putUsedClassesWithConstants(jarName, classesWithConstants);
+      }
+    }
+  }
+
+  /**
+   * @return the CRC of each of the given entries that the jar has.
+   */
+  private static Map<String, Long> readCrcs(Path jar, Set<String> entries) throws IOException {
+    SortedMap<String, Long> crcs = new TreeMap<>();
+    if (!Files.isRegularFile(jar)) {
+      return crcs;
+    }
+    try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+      for (String entryName : entries) {
+        ZipEntry entry = zipFile.getEntry(entryName);
+        if (entry != null) {
+          crcs.put(entryName, entry.getCrc());
+        }
+      }
+    }
+    return crcs;
+  }
+
+  private static <T> Set<T> union(Set<T> first, Set<T> second) {
+    Set<T> union = new HashSet<>(first);
+    union.addAll(second);
+    return union;
+  }
+
+  @Override
+  public String getShortName() {
+    return javac.getShortName();
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return javac.getDescription(
+        JavacStep.getOptions(
+            javacOptions,
+            filesystem,
+            classesDirectory,
+            context,
+            declaredClasspathEntries),
+        javaSourceFilePaths,
+        pathToSrcsList);
+  }
+
+  /**
+   * Hashes the compile-time constants a class declares and other classes can use.
+   */
+  private static class ConstantsHasher extends ClassVisitor {
+
+    private final SortedMap<String, String> constants = new TreeMap<>();
+
+    public ConstantsHasher() {
+      super(Opcodes.ASM5);
+    }
+
+    @Override
+    public FieldVisitor visitField(
+        int access,
+        String name,
+        String desc,
+        String signature,
+        Object value) {
+      if ((access & Opcodes.ACC_PRIVATE) == 0 && value != null) {
+        constants.put(name, desc + "=" + value);
+      }
+      return null;
+    }
+
+    /**
+     * @return a hash of the constants, or the empty string if there aren't any.
+     */
+    public String getHash() {
+      if (constants.isEmpty()) {
+        return "";
+      }
+      Hasher hasher = Hashing.sha1().newHasher();
+      for (Map.Entry<String, String> constant : constants.entrySet()) {
+        hasher.putString(constant.getKey(), StandardCharsets.UTF_8).putByte((byte) 0);
+        hasher.putString(constant.getValue(), StandardCharsets.UTF_8).putByte((byte) 0);
+      }
+      return hasher.hash().toString();
+    }
+  }
+
+  /**
+   * Records which classes javac writes for each source.
+   */
+  private static class OutputRecordingFileManager extends ForwardingStandardJavaFileManager {
+
+    private final Map<Path, String> sourcesByAbsolutePath;
+    private final SetMultimap<String, String> outputClasses;
+
+    public OutputRecordingFileManager(
+        StandardJavaFileManager fileManager,
+        Map<Path, String> sourcesByAbsolutePath,
+        SetMultimap<String, String> outputClasses) {
+      super(fileManager);
+      this.sourcesByAbsolutePath = sourcesByAbsolutePath;
+      this.outputClasses = outputClasses;
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(
+        Location location,
+        String className,
+        JavaFileObject.Kind kind,
+        FileObject sibling) throws IOException {
+      if (kind == JavaFileObject.Kind.CLASS && sibling != null) {
+        String source = sourcesByAbsolutePath.get(Paths.get(sibling.toUri()).normalize());
+        if (source != null) {
+          outputClasses.put(source, className.replace('.', '/'));
+        }
+      }
+      return super.getJavaFileForOutput(location, className, kind, sibling);
+    }
+  }
+}
@@ -21,6 +21,7 @@ import com.facebook.buck.config.ConfigView;
 import com.facebook.buck.model.Either;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.unit.SizeUnit;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -86,6 +87,13 @@ public class JavaBuckConfig implements ConfigView<BuckConfig> {
         .getEnum("java", "jar_spool_mode", AbstractJavacOptions.SpoolMode.class).orElse(
             AbstractJavacOptions.SpoolMode.INTERMEDIATE_TO_DISK);
 
+    AbstractJavacOptions.AbiGenerationMode abiGenerationMode = delegate
+        .getEnum("java", "abi_generation_mode", AbstractJavacOptions.AbiGenerationMode.class)
+        .orElse(AbstractJavacOptions.AbiGenerationMode.CLASS);
+
+    boolean incrementalCompilation =
+        delegate.getBooleanValue("java", "incremental_compilation", false);
+
     // This is just to make it possible to turn off dep-based rulekeys in case anything goes wrong
     // and can be removed when we're sure class usage tracking and dep-based keys for Java
     // work fine.
@@ -106,6 +114,8 @@ public class JavaBuckConfig implements ConfigView<BuckConfig> {
         .setSourceLevel(sourceLevel.orElse(TARGETED_JAVA_VERSION))
         .setTargetLevel(targetLevel.orElse(TARGETED_JAVA_VERSION))
         .setSpoolMode(spoolMode)
+        .setAbiGenerationMode(abiGenerationMode)
+        .setIncrementalCompilationEnabled(incrementalCompilation)
         .putAllSourceToBootclasspath(bootclasspaths.build())
         .addAllExtraArguments(extraArguments)
         .setSafeAnnotationProcessors(safeAnnotationProcessors)
@@ -113,6 +123,14 @@ public class JavaBuckConfig implements ConfigView<BuckConfig> {
         .build();
   }
 
+  /**
+   * @return the memory budget of the classpath jar cache kept by buckd for in-process javac, or
+   *     absent if classpath jars should not be cached.
+   */
+  public Optional<Long> getClasspathJarCacheMaxSizeBytes() {
+    return delegate.getValue("java", "classpath_jar_cache_max_size").map(SizeUnit::parseBytes);
+  }
+
   public ImmutableSet<String> getSrcRoots() {
     return ImmutableSet.copyOf(delegate.getListWithoutComments("java", "src_roots"));
   }
@@ -128,20 +128,25 @@ public class JavaLibraryDescription implements Description<JavaLibraryDescriptio
     );
 
     BuildTarget abiJarTarget = params.getBuildTarget().withAppendedFlavors(CalculateAbi.FLAVOR);
+    // Annotation processors may need the full classes of the libraries they run against.
+    boolean abisFromSource =
+        javacOptions.getAbiGenerationMode() == AbstractJavacOptions.AbiGenerationMode.SOURCE &&
+        javacOptions.getAnnotationProcessingParams().isEmpty();
 
     ImmutableSortedSet<BuildRule> exportedDeps = resolver.getAllRules(args.exportedDeps);
+    BuildRuleParams javaLibraryParams = params.appendExtraDeps(
+        Iterables.concat(
+            BuildRules.getExportedRules(
+                Iterables.concat(
+                    params.getDeclaredDeps().get(),
+                    exportedDeps,
+                    resolver.getAllRules(args.providedDeps))),
+            pathResolver.filterBuildRuleInputs(
+                javacOptions.getInputs(pathResolver))));
     DefaultJavaLibrary defaultJavaLibrary =
         resolver.addToIndex(
             new DefaultJavaLibrary(
-                params.appendExtraDeps(
-                    Iterables.concat(
-                        BuildRules.getExportedRules(
-                            Iterables.concat(
-                                params.getDeclaredDeps().get(),
-                                exportedDeps,
-                                resolver.getAllRules(args.providedDeps))),
-                        pathResolver.filterBuildRuleInputs(
-                            javacOptions.getInputs(pathResolver)))),
+                javaLibraryParams,
                 pathResolver,
                 args.srcs,
                 validateResources(
@@ -156,6 +161,7 @@ public class JavaLibraryDescription implements Description<JavaLibraryDescriptio
                 resolver.getAllRules(args.providedDeps),
                 new BuildTargetSourcePath(abiJarTarget),
                 javacOptions.trackClassUsage(),
+                /* compileAgainstAbis */ abisFromSource,
                 /* additionalClasspathEntries */ ImmutableSet.of(),
                 new JavacToJarStepFactory(javacOptions, JavacOptionsAmender.IDENTITY),
                 args.resourcesRoot,
@@ -164,12 +170,25 @@ public class JavaLibraryDescription implements Description<JavaLibraryDescriptio
                 args.tests,
                 javacOptions.getClassesToRemoveFromJar()));
 
-    resolver.addToIndex(
-        CalculateAbi.of(
-            abiJarTarget,
-            pathResolver,
-            params,
-            new BuildTargetSourcePath(defaultJavaLibrary.getBuildTarget())));
+    if (abisFromSource) {
+      // The ABI is stubbed against the ABIs of the rules the library compiles against, so it needs
+      // none of them to have been compiled.
+      resolver.addToIndex(
+          CalculateSourceAbi.of(
+              abiJarTarget,
+              pathResolver,
+              params,
+              args.srcs,
+              JavaLibraryRules.getAbiInputs(javaLibraryParams.getDeps()),
+              javacOptions));
+    } else {
+      resolver.addToIndex(
+          CalculateAbi.of(
+              abiJarTarget,
+              pathResolver,
+              params,
+              new BuildTargetSourcePath(defaultJavaLibrary.getBuildTarget())));
+    }
 
   if (!flavors.contains(JavaLibrary.MAVEN_JAR)) {
       return defaultJavaLibrary;
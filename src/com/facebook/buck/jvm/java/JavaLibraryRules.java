@@ -25,6 +25,7 @@ import com.facebook.buck.model.BuildTargets;
 import com.facebook.buck.parser.NoSuchBuildTargetException;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildableContext;
+import com.facebook.buck.rules.HasRuntimeDeps;
 import com.facebook.buck.rules.OnDiskBuildInfo;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.keys.AbiRule;
@@ -37,6 +38,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
 import com.google.common.hash.HashCode;
 
 import java.io.IOException;
@@ -108,7 +110,11 @@ public class JavaLibraryRules {
           NativeLinkable linkable = (NativeLinkable) rule;
           libraries.putAll(linkable.getSharedLibraries(cxxPlatform));
         }
-        if (rule instanceof NativeLinkable ||
+        if (rule instanceof JavaLibrary && rule instanceof HasRuntimeDeps) {
+          // Libraries compiled against ABI jars only reach the full libraries at runtime.
+          return ImmutableSet.copyOf(
+              Iterables.concat(rule.getDeps(), ((HasRuntimeDeps) rule).getRuntimeDeps()));
+        } else if (rule instanceof NativeLinkable ||
             rule instanceof JavaLibrary) {
           return rule.getDeps();
         } else {
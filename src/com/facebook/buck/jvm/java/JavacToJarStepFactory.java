@@ -22,6 +22,7 @@ import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.jvm.core.SuggestBuildRules;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargets;
 import com.facebook.buck.rules.BuildContext;
 import com.facebook.buck.rules.BuildableContext;
 import com.facebook.buck.rules.RuleKeyObjectSink;
@@ -124,7 +125,44 @@ public class JavacToJarStepFactory extends BaseCompileToJarStepFactory {
         spoolMode,
         postprocessClassesCommands.toString());
 
-    if (isSpoolingToJarEnabled) {
+    // Incremental compilation needs to know which sources each class came from, which it can only
+    // tell when running javac in-process and without annotation processors, which may generate
+    // classes from any of them.
+    boolean isIncrementalCompilationEnabled =
+        postprocessClassesCommands.isEmpty() &&
+            javacOptions.isIncrementalCompilationEnabled() &&
+            javacOptions.getAnnotationProcessingParams().isEmpty() &&
+            javacOptions.getJavac() instanceof Jsr199Javac &&
+            sourceFilePaths.stream().allMatch(path -> path.toString().endsWith(".java"));
+
+    if (isIncrementalCompilationEnabled) {
+      LOG.info("Target: %s compiling incrementally", invokingRule.getBaseName());
+      final JavacOptions buildTimeOptions = amender.amend(javacOptions, context);
+      steps.add(
+          new IncrementalJavacStep(
+              outputDirectory,
+              usedClassesFileWriter,
+              workingDirectory,
+              sourceFilePaths,
+              pathToSrcsList,
+              declaredClasspathEntries,
+              buildTimeOptions.getJavac(),
+              buildTimeOptions,
+              invokingRule,
+              suggestBuildRules,
+              resolver,
+              filesystem,
+              BuildTargets.getScratchPath(filesystem, invokingRule, "lib__%s__incremental")));
+      steps.add(
+          new JarDirectoryStep(
+              filesystem,
+              outputJar,
+              ImmutableSortedSet.of(outputDirectory),
+              mainClass.orElse(null),
+              manifestFile.orElse(null),
+              true,
+              javacOptions.getClassesToRemoveFromJar()));
+    } else if (isSpoolingToJarEnabled) {
       final JavacOptions buildTimeOptions = amender.amend(javacOptions, context);
       // Javac requires that the root directory for generated sources already exists.
       addAnnotationGenFolderStep(buildTimeOptions, filesystem, steps, buildableContext);
@@ -132,6 +132,9 @@ public abstract class Jsr199Javac implements Javac {
 
     StandardJavaFileManager fileManager =
         fileManagerFactory.orElse(DEFAULT_FILE_MANAGER_FACTORY).create(compiler);
+    if (context.getClasspathJarCache().isPresent()) {
+      fileManager = context.getClasspathJarCache().get().wrapFileManager(fileManager);
+    }
     try {
       Iterable<? extends JavaFileObject> compilationUnits;
       try {
@@ -18,6 +18,9 @@ package com.facebook.buck.jvm.java;
 
 import com.facebook.buck.io.ProjectFilesystem;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableSetMultimap;
+
+import java.nio.file.Path;
 
 import javax.tools.StandardJavaFileManager;
 
@@ -36,6 +39,10 @@ public class NoOpClassUsageFileWriter implements ClassUsageFileWriter {
     return inner;
   }
 
+  @Override
+  public void addUsedClasses(ImmutableSetMultimap<Path, Path> classUsageMap) {
+  }
+
   @Override
   public void writeFile(
       ProjectFilesystem filesystem,
@@ -0,0 +1,388 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java.abi;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.reflect.Array;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+import javax.annotation.Nullable;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.SimpleAnnotationValueVisitor8;
+
+/**
+ * Calls a {@link ClassVisitor} with what javac would write to the class file of a type it entered
+ * from source, leaving out code and anything else that javac only knows once it attributed the
+ * bodies of methods, such as bridge methods and synthetic members.
+ */
+class ClassVisitorDriverFromElement {
+
+  private final int classFileVersion;
+  private final Elements elements;
+  private final DescriptorAndSignatureFactory descriptorFactory;
+
+  /**
+   * @param classFileVersion one of the {@code V1_*} versions in {@link Opcodes}.
+   */
+  public ClassVisitorDriverFromElement(
+      int classFileVersion,
+      Elements elements,
+      DescriptorAndSignatureFactory descriptorFactory) {
+    this.classFileVersion = classFileVersion;
+    this.elements = elements;
+    this.descriptorFactory = descriptorFactory;
+  }
+
+  public void driveVisitor(TypeElement type, ClassVisitor visitor) {
+    String superName = type.getSuperclass().getKind() == TypeKind.NONE ||
+        type.getKind().isInterface() ?
+        "java/lang/Object" :
+        descriptorFactory.getInternalName(type.getSuperclass());
+    List<? extends TypeMirror> interfaceTypes = type.getInterfaces();
+    String[] interfaces = new String[interfaceTypes.size()];
+    for (int i = 0; i < interfaces.length; i++) {
+      interfaces[i] = descriptorFactory.getInternalName(interfaceTypes.get(i));
+    }
+    visitor.visit(
+        classFileVersion,
+        getClassAccessFlags(type),
+        descriptorFactory.getInternalName(type),
+        descriptorFactory.getSignature(type),
+        superName,
+        interfaces);
+
+    // Like javac, record how this class and its member classes are nested.
+    for (Element enclosing = type;
+         enclosing instanceof TypeElement &&
+             ((TypeElement) enclosing).getNestingKind() == NestingKind.MEMBER;
+         enclosing = enclosing.getEnclosingElement()) {
+      visitInnerClass((TypeElement) enclosing, visitor);
+    }
+    for (TypeElement memberType : ElementFilter.typesIn(type.getEnclosedElements())) {
+      visitInnerClass(memberType, visitor);
+    }
+
+    visitAnnotations(type, visitor::visitAnnotation);
+
+    for (Element member : type.getEnclosedElements()) {
+      switch (member.getKind()) {
+        case FIELD:
+        case ENUM_CONSTANT:
+          visitField((VariableElement) member, visitor);
+          break;
+        case METHOD:
+        case CONSTRUCTOR:
+          visitMethod((ExecutableElement) member, visitor);
+          break;
+        //$CASES-OMITTED$
+        default:
+          break;
+      }
+    }
+
+    visitor.visitEnd();
+  }
+
+  private void visitInnerClass(TypeElement type, ClassVisitor visitor) {
+    int access = getAccessFlags(type);
+    if (type.getKind().isInterface()) {
+      access |= Opcodes.ACC_ABSTRACT;
+    }
+    visitor.visitInnerClass(
+        descriptorFactory.getInternalName(type),
+        descriptorFactory.getInternalName((TypeElement) type.getEnclosingElement()),
+        type.getSimpleName().toString(),
+        access);
+  }
+
+  private void visitField(VariableElement field, ClassVisitor visitor) {
+    int access = getAccessFlags(field);
+    if (field.getKind() == ElementKind.ENUM_CONSTANT) {
+      access |= Opcodes.ACC_ENUM;
+    }
+    FieldVisitor fieldVisitor = visitor.visitField(
+        access,
+        field.getSimpleName().toString(),
+        descriptorFactory.getDescriptor(field.asType()),
+        descriptorFactory.getSignature(field),
+        field.getConstantValue());
+    if (fieldVisitor == null) {
+      return;
+    }
+    visitAnnotations(field, fieldVisitor::visitAnnotation);
+    fieldVisitor.visitEnd();
+  }
+
+  private void visitMethod(ExecutableElement method, ClassVisitor visitor) {
+    int access = getAccessFlags(method);
+    if (method.isVarArgs()) {
+      access |= Opcodes.ACC_VARARGS;
+    }
+    List<? extends TypeMirror> thrownTypes = method.getThrownTypes();
+    String[] exceptions = new String[thrownTypes.size()];
+    for (int i = 0; i < exceptions.length; i++) {
+      exceptions[i] = descriptorFactory.getInternalName(thrownTypes.get(i));
+    }
+    MethodVisitor methodVisitor = visitor.visitMethod(
+        access,
+        method.getKind() == ElementKind.CONSTRUCTOR ?
+            "<init>" :
+            method.getSimpleName().toString(),
+        descriptorFactory.getDescriptor(method),
+        descriptorFactory.getSignature(method),
+        exceptions);
+    if (methodVisitor == null) {
+      return;
+    }
+
+    visitAnnotations(method, methodVisitor::visitAnnotation);
+    List<? extends VariableElement> parameters = method.getParameters();
+    for (int i = 0; i < parameters.size(); i++) {
+      final int parameter = i;
+      visitAnnotations(
+          parameters.get(i),
+          (desc, visible) -> methodVisitor.visitParameterAnnotation(parameter, desc, visible));
+    }
+    AnnotationValue defaultValue = method.getDefaultValue();
+    if (defaultValue != null) {
+      AnnotationVisitor defaultVisitor = methodVisitor.visitAnnotationDefault();
+      visitAnnotationValue(null, defaultValue, defaultVisitor);
+      defaultVisitor.visitEnd();
+    }
+    methodVisitor.visitEnd();
+  }
+
+  /**
+   * Visits the annotations of {@code element} which are kept in class files.
+   */
+  private void visitAnnotations(
+      Element element,
+      BiFunction<String, Boolean, AnnotationVisitor> visitAnnotation) {
+    for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+      RetentionPolicy retention = getRetention(annotation);
+      if (retention != RetentionPolicy.SOURCE) {
+        visitAnnotationValues(
+            annotation,
+            visitAnnotation.apply(getDescriptor(annotation), retention == RetentionPolicy.RUNTIME));
+      }
+    }
+  }
+
+  private void visitAnnotationValues(AnnotationMirror annotation, AnnotationVisitor visitor) {
+    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+        annotation.getElementValues().entrySet()) {
+      visitAnnotationValue(
+          entry.getKey().getSimpleName().toString(),
+          entry.getValue(),
+          visitor);
+    }
+    visitor.visitEnd();
+  }
+
+  private void visitAnnotationValue(
+      @Nullable final String name,
+      AnnotationValue value,
+      final AnnotationVisitor visitor) {
+    value.accept(new SimpleAnnotationValueVisitor8<Void, Void>() {
+      @Override
+      protected Void defaultAction(Object primitiveOrString, Void aVoid) {
+        visitor.visit(name, primitiveOrString);
+        return null;
+      }
+
+      @Override
+      public Void visitType(TypeMirror type, Void aVoid) {
+        visitor.visit(name, Type.getType(descriptorFactory.getDescriptor(type)));
+        return null;
+      }
+
+      @Override
+      public Void visitEnumConstant(VariableElement constant, Void aVoid) {
+        visitor.visitEnum(
+            name,
+            descriptorFactory.getDescriptor(constant.asType()),
+            constant.getSimpleName().toString());
+        return null;
+      }
+
+      @Override
+      public Void visitAnnotation(AnnotationMirror annotation, Void aVoid) {
+        visitAnnotationValues(
+            annotation,
+            visitor.visitAnnotation(name, getDescriptor(annotation)));
+        return null;
+      }
+
+      @Override
+      public Void visitArray(List<? extends AnnotationValue> values, Void aVoid) {
+        // Like ASM's ClassReader, pass non-empty arrays of primitives as a single value.
+        Class<?> primitiveType = values.isEmpty() ?
+            null :
+            getPrimitiveType(values.get(0).getValue());
+        if (primitiveType != null) {
+          Object array = Array.newInstance(primitiveType, values.size());
+          for (int i = 0; i < values.size(); i++) {
+            Array.set(array, i, values.get(i).getValue());
+          }
+          visitor.visit(name, array);
+          return null;
+        }
+
+        AnnotationVisitor arrayVisitor = visitor.visitArray(name);
+        for (AnnotationValue element : values) {
+          visitAnnotationValue(null, element, arrayVisitor);
+        }
+        arrayVisitor.visitEnd();
+        return null;
+      }
+
+      @Override
+      public Void visitUnknown(AnnotationValue unknown, Void aVoid) {
+        throw new IllegalArgumentException(
+            String.format("Unexpected annotation value: %s", unknown));
+      }
+    }, null);
+  }
+
+  @Nullable
+  private static Class<?> getPrimitiveType(Object value) {
+    if (value instanceof Boolean) {
+      return boolean.class;
+    } else if (value instanceof Byte) {
+      return byte.class;
+    } else if (value instanceof Character) {
+      return char.class;
+    } else if (value instanceof Short) {
+      return short.class;
+    } else if (value instanceof Integer) {
+      return int.class;
+    } else if (value instanceof Long) {
+      return long.class;
+    } else if (value instanceof Float) {
+      return float.class;
+    } else if (value instanceof Double) {
+      return double.class;
+    }
+    return null;
+  }
+
+  private String getDescriptor(AnnotationMirror annotation) {
+    return descriptorFactory.getDescriptor(annotation.getAnnotationType());
+  }
+
+  private static RetentionPolicy getRetention(AnnotationMirror annotation) {
+    Retention retention =
+        annotation.getAnnotationType().asElement().getAnnotation(Retention.class);
+    return retention == null ? RetentionPolicy.CLASS : retention.value();
+  }
+
+  private int getClassAccessFlags(TypeElement type) {
+    int access = getAccessFlags(type);
+    // The class file of a nested class only tells whether it is public, the rest is recorded with
+    // the enclosing class.
+    if ((access & Opcodes.ACC_PROTECTED) != 0) {
+      access |= Opcodes.ACC_PUBLIC;
+    }
+    access &= ~(Opcodes.ACC_PROTECTED | Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC);
+    if (type.getKind().isInterface()) {
+      access |= Opcodes.ACC_ABSTRACT;
+    } else {
+      access |= Opcodes.ACC_SUPER;
+    }
+    return access;
+  }
+
+  private int getAccessFlags(Element element) {
+    int access = 0;
+    Set<Modifier> modifiers = element.getModifiers();
+    for (Modifier modifier : modifiers) {
+      access |= getAccessFlag(modifier);
+    }
+    switch (element.getKind()) {
+      case ANNOTATION_TYPE:
+        access |= Opcodes.ACC_ANNOTATION | Opcodes.ACC_INTERFACE;
+        break;
+      case INTERFACE:
+        access |= Opcodes.ACC_INTERFACE;
+        break;
+      case ENUM:
+        access |= Opcodes.ACC_ENUM;
+        break;
+      //$CASES-OMITTED$
+      default:
+        break;
+    }
+    if (elements.isDeprecated(element)) {
+      access |= Opcodes.ACC_DEPRECATED;
+    }
+    return access;
+  }
+
+  private static int getAccessFlag(Modifier modifier) {
+    switch (modifier) {
+      case PUBLIC:
+        return Opcodes.ACC_PUBLIC;
+      case PROTECTED:
+        return Opcodes.ACC_PROTECTED;
+      case PRIVATE:
+        return Opcodes.ACC_PRIVATE;
+      case ABSTRACT:
+        return Opcodes.ACC_ABSTRACT;
+      case STATIC:
+        return Opcodes.ACC_STATIC;
+      case FINAL:
+        return Opcodes.ACC_FINAL;
+      case TRANSIENT:
+        return Opcodes.ACC_TRANSIENT;
+      case VOLATILE:
+        return Opcodes.ACC_VOLATILE;
+      case SYNCHRONIZED:
+        return Opcodes.ACC_SYNCHRONIZED;
+      case NATIVE:
+        return Opcodes.ACC_NATIVE;
+      case STRICTFP:
+        return Opcodes.ACC_STRICT;
+      //$CASES-OMITTED$
+      default:
+        // Default methods are just not abstract.
+        return 0;
+    }
+  }
+}
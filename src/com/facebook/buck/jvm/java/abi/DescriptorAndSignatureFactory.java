@@ -0,0 +1,330 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java.abi;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.TypeVariable;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+/**
+ * Computes the names, descriptors and generic signatures that javac would write to class files for
+ * the elements it entered from source.
+ *
+ * @see <a href="http://docs.oracle.com/javase/specs/jvms/se8/html/jvms-4.html#jvms-4.7.9.1">
+ *     Signatures</a>
+ */
+class DescriptorAndSignatureFactory {
+
+  private static final String OBJECT_DESCRIPTOR = "Ljava/lang/Object;";
+
+  private final Elements elements;
+  private final Types types;
+
+  public DescriptorAndSignatureFactory(Elements elements, Types types) {
+    this.elements = elements;
+    this.types = types;
+  }
+
+  public String getInternalName(TypeElement type) {
+    return elements.getBinaryName(type).toString().replace('.', '/');
+  }
+
+  /**
+   * @return the internal name of the erasure of {@code type}, which must be a class or interface.
+   */
+  public String getInternalName(TypeMirror type) {
+    TypeMirror erasure = types.erasure(type);
+    checkNotError(erasure);
+    return getInternalName((TypeElement) ((DeclaredType) erasure).asElement());
+  }
+
+  public String getDescriptor(TypeMirror type) {
+    StringBuilder builder = new StringBuilder();
+    appendDescriptor(types.erasure(type), builder);
+    return builder.toString();
+  }
+
+  public String getDescriptor(ExecutableElement method) {
+    StringBuilder builder = new StringBuilder("(");
+    if (method.getKind() == ElementKind.CONSTRUCTOR) {
+      // Constructors take what javac passes them implicitly before the declared parameters.
+      TypeElement owner = (TypeElement) method.getEnclosingElement();
+      if (owner.getKind() == ElementKind.ENUM) {
+        builder.append("Ljava/lang/String;I");
+      } else if (owner.getNestingKind() == NestingKind.MEMBER &&
+          !owner.getModifiers().contains(Modifier.STATIC)) {
+        appendDescriptor(types.erasure(owner.getEnclosingElement().asType()), builder);
+      }
+    }
+    for (VariableElement parameter : method.getParameters()) {
+      appendDescriptor(types.erasure(parameter.asType()), builder);
+    }
+    builder.append(')');
+    appendDescriptor(types.erasure(method.getReturnType()), builder);
+    return builder.toString();
+  }
+
+  /**
+   * @return the signature of {@code type}, or null if it is not generic and extends no
+   *     parameterized type.
+   */
+  @Nullable
+  public String getSignature(TypeElement type) {
+    boolean needsSignature = !type.getTypeParameters().isEmpty() ||
+        needsSignature(type.getSuperclass());
+    for (TypeMirror anInterface : type.getInterfaces()) {
+      needsSignature |= needsSignature(anInterface);
+    }
+    if (!needsSignature) {
+      return null;
+    }
+
+    StringBuilder builder = new StringBuilder();
+    appendTypeParameters(type.getTypeParameters(), builder);
+    if (type.getSuperclass().getKind() == TypeKind.NONE) {
+      builder.append(OBJECT_DESCRIPTOR);
+    } else {
+      appendSignature(type.getSuperclass(), builder);
+    }
+    for (TypeMirror anInterface : type.getInterfaces()) {
+      appendSignature(anInterface, builder);
+    }
+    return builder.toString();
+  }
+
+  /**
+   * @return the signature of {@code field}, or null if its type is neither a type variable nor
+   *     parameterized.
+   */
+  @Nullable
+  public String getSignature(VariableElement field) {
+    if (!needsSignature(field.asType())) {
+      return null;
+    }
+    StringBuilder builder = new StringBuilder();
+    appendSignature(field.asType(), builder);
+    return builder.toString();
+  }
+
+  /**
+   * @return the signature of {@code method}, or null if it is not generic and none of the types in
+   *     its declaration are type variables or parameterized.
+   */
+  @Nullable
+  public String getSignature(ExecutableElement method) {
+    boolean needsSignature = !method.getTypeParameters().isEmpty() ||
+        needsSignature(method.getReturnType());
+    for (VariableElement parameter : method.getParameters()) {
+      needsSignature |= needsSignature(parameter.asType());
+    }
+    boolean throwsTypeVariable = false;
+    for (TypeMirror thrownType : method.getThrownTypes()) {
+      throwsTypeVariable |= thrownType.getKind() == TypeKind.TYPEVAR;
+    }
+    if (!needsSignature && !throwsTypeVariable) {
+      return null;
+    }
+
+    StringBuilder builder = new StringBuilder();
+    appendTypeParameters(method.getTypeParameters(), builder);
+    builder.append('(');
+    for (VariableElement parameter : method.getParameters()) {
+      appendSignature(parameter.asType(), builder);
+    }
+    builder.append(')');
+    appendSignature(method.getReturnType(), builder);
+    // Like javac, only name the thrown types when the erased ones in the descriptor are not enough.
+    if (throwsTypeVariable) {
+      for (TypeMirror thrownType : method.getThrownTypes()) {
+        builder.append('^');
+        appendSignature(thrownType, builder);
+      }
+    }
+    return builder.toString();
+  }
+
+  private boolean needsSignature(TypeMirror type) {
+    checkNotError(type);
+    return type.getKind() != TypeKind.NONE && !types.isSameType(types.erasure(type), type);
+  }
+
+  private void appendDescriptor(TypeMirror erasure, StringBuilder builder) {
+    switch (erasure.getKind()) {
+      case ARRAY:
+        builder.append('[');
+        appendDescriptor(((ArrayType) erasure).getComponentType(), builder);
+        break;
+      case DECLARED:
+        builder.append('L')
+            .append(getInternalName((TypeElement) ((DeclaredType) erasure).asElement()))
+            .append(';');
+        break;
+      //$CASES-OMITTED$
+      default:
+        appendPrimitiveDescriptor(erasure, builder);
+        break;
+    }
+  }
+
+  private void appendSignature(TypeMirror type, StringBuilder builder) {
+    switch (type.getKind()) {
+      case ARRAY:
+        builder.append('[');
+        appendSignature(((ArrayType) type).getComponentType(), builder);
+        break;
+      case DECLARED:
+        appendClassTypeSignature((DeclaredType) type, builder);
+        builder.append(';');
+        break;
+      case TYPEVAR:
+        builder.append('T').append(((TypeVariable) type).asElement().getSimpleName()).append(';');
+        break;
+      //$CASES-OMITTED$
+      default:
+        appendPrimitiveDescriptor(type, builder);
+        break;
+    }
+  }
+
+  private void appendClassTypeSignature(DeclaredType type, StringBuilder builder) {
+    TypeElement element = (TypeElement) type.asElement();
+    TypeMirror enclosingType = type.getEnclosingType();
+    // An inner class of a parameterized type is named after its parameterized outer class.
+    if (enclosingType.getKind() == TypeKind.DECLARED &&
+        isParameterized((DeclaredType) enclosingType)) {
+      appendClassTypeSignature((DeclaredType) enclosingType, builder);
+      builder.append('.').append(element.getSimpleName());
+    } else {
+      builder.append('L').append(getInternalName(element));
+    }
+
+    List<? extends TypeMirror> typeArguments = type.getTypeArguments();
+    if (typeArguments.isEmpty()) {
+      return;
+    }
+    builder.append('<');
+    for (TypeMirror typeArgument : typeArguments) {
+      if (typeArgument.getKind() != TypeKind.WILDCARD) {
+        appendSignature(typeArgument, builder);
+        continue;
+      }
+      WildcardType wildcard = (WildcardType) typeArgument;
+      if (wildcard.getExtendsBound() != null) {
+        builder.append('+');
+        appendSignature(wildcard.getExtendsBound(), builder);
+      } else if (wildcard.getSuperBound() != null) {
+        builder.append('-');
+        appendSignature(wildcard.getSuperBound(), builder);
+      } else {
+        builder.append('*');
+      }
+    }
+    builder.append('>');
+  }
+
+  private boolean isParameterized(DeclaredType type) {
+    if (!type.getTypeArguments().isEmpty()) {
+      return true;
+    }
+    TypeMirror enclosingType = type.getEnclosingType();
+    return enclosingType.getKind() == TypeKind.DECLARED &&
+        isParameterized((DeclaredType) enclosingType);
+  }
+
+  private void appendTypeParameters(
+      List<? extends TypeParameterElement> typeParameters,
+      StringBuilder builder) {
+    if (typeParameters.isEmpty()) {
+      return;
+    }
+    builder.append('<');
+    for (TypeParameterElement typeParameter : typeParameters) {
+      builder.append(typeParameter.getSimpleName());
+      List<? extends TypeMirror> bounds = typeParameter.getBounds();
+      // A type parameter bounded by interfaces only has an empty class bound.
+      TypeMirror firstBound = bounds.get(0);
+      if (firstBound.getKind() == TypeKind.DECLARED &&
+          ((DeclaredType) firstBound).asElement().getKind().isInterface()) {
+        builder.append(':');
+      }
+      for (TypeMirror bound : bounds) {
+        builder.append(':');
+        appendSignature(bound, builder);
+      }
+    }
+    builder.append('>');
+  }
+
+  private static void appendPrimitiveDescriptor(TypeMirror type, StringBuilder builder) {
+    switch (type.getKind()) {
+      case BOOLEAN:
+        builder.append('Z');
+        break;
+      case BYTE:
+        builder.append('B');
+        break;
+      case CHAR:
+        builder.append('C');
+        break;
+      case SHORT:
+        builder.append('S');
+        break;
+      case INT:
+        builder.append('I');
+        break;
+      case LONG:
+        builder.append('J');
+        break;
+      case FLOAT:
+        builder.append('F');
+        break;
+      case DOUBLE:
+        builder.append('D');
+        break;
+      case VOID:
+        builder.append('V');
+        break;
+      //$CASES-OMITTED$
+      default:
+        checkNotError(type);
+        throw new IllegalArgumentException(
+            String.format("Unexpected %s type in a declaration: %s", type.getKind(), type));
+    }
+  }
+
+  private static void checkNotError(TypeMirror type) {
+    if (type.getKind() == TypeKind.ERROR) {
+      // javac reports the missing type itself.
+      throw new IllegalArgumentException(String.format("Unresolved type: %s", type));
+    }
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java.abi;
+
+import com.facebook.buck.io.HashingDeterministicJarWriter;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.util.MoreCollectors;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.io.ByteSource;
+
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.jar.JarOutputStream;
+
+import javax.annotation.Nullable;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Writes a stub jar for the classes of a library straight from its sources, so that it does not
+ * have to be compiled first as for a {@link StubJar}.
+ * <p>
+ * javac only parses the sources and enters their declarations, resolving the types in them against
+ * the classpath, and then stops as if it had been asked to only run annotation processors.
+ * Annotation processors of the library are not run, so the classes they would generate are not
+ * stubbed.
+ */
+public class SourceStubJar {
+
+  private final ImmutableSortedSet<Path> sourceFiles;
+  private final ImmutableList<String> javacOptions;
+
+  /**
+   * @param sourceFiles the absolute paths of the sources.
+   * @param javacOptions options for javac, such as the classpath and the source level.
+   */
+  public SourceStubJar(Iterable<Path> sourceFiles, Iterable<String> javacOptions) {
+    this.sourceFiles = ImmutableSortedSet.copyOf(sourceFiles);
+    this.javacOptions = ImmutableList.copyOf(javacOptions);
+  }
+
+  /**
+   * @return false if javac found errors in the sources, which it reported to {@code diagnostics},
+   *     and no jar was written.
+   */
+  public boolean writeTo(
+      ProjectFilesystem filesystem,
+      Path path,
+      Writer diagnostics) throws IOException {
+    Preconditions.checkState(!filesystem.exists(path), "Output file already exists: %s)", path);
+
+    JavaCompiler compiler;
+    synchronized (ToolProvider.class) {
+      // ToolProvider has no synchronization internally.
+      compiler = ToolProvider.getSystemJavaCompiler();
+    }
+    StubGenerator stubGenerator = new StubGenerator(getTarget(javacOptions));
+    try (StandardJavaFileManager fileManager =
+             compiler.getStandardFileManager(null, null, null)) {
+      ImmutableList.Builder<String> options = ImmutableList.builder();
+      for (String option : javacOptions) {
+        if (!option.startsWith("-proc:")) {
+          options.add(option);
+        }
+      }
+      options.add("-proc:only");
+      JavaCompiler.CompilationTask task = compiler.getTask(
+          diagnostics,
+          fileManager,
+          null,
+          options.build(),
+          null,
+          fileManager.getJavaFileObjectsFromFiles(
+              sourceFiles.stream()
+                  .map(Path::toFile)
+                  .collect(MoreCollectors.toImmutableList())));
+      task.setProcessors(ImmutableList.of(stubGenerator));
+      if (!task.call()) {
+        return false;
+      }
+    }
+    if (stubGenerator.stubClasses == null) {
+      diagnostics.write("Unable to stub the classes in " + sourceFiles + "\n");
+      return false;
+    }
+
+    if (path.getParent() != null && !filesystem.exists(path.getParent())) {
+      filesystem.createParentDirs(path);
+    }
+    try (
+        HashingDeterministicJarWriter jar = new HashingDeterministicJarWriter(
+            new JarOutputStream(
+                filesystem.newFileOutputStream(path)))) {
+      for (Map.Entry<String, ByteSource> entry : stubGenerator.stubClasses.entrySet()) {
+        try (InputStream stubClassBytes = entry.getValue().openStream()) {
+          jar.writeEntry(entry.getKey(), stubClassBytes);
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the value of the last {@code -target} option, if any.
+   */
+  private static Optional<String> getTarget(ImmutableList<String> javacOptions) {
+    Optional<String> target = Optional.empty();
+    for (int i = 0; i < javacOptions.size() - 1; i++) {
+      if (javacOptions.get(i).equals("-target")) {
+        target = Optional.of(javacOptions.get(i + 1));
+      }
+    }
+    return target;
+  }
+
+  private static int getClassFileVersion(String target) {
+    switch (target) {
+      case "1.1":
+      case "1.2":
+      case "1.3":
+      case "1.4":
+      case "1.5":
+      case "5":
+        return Opcodes.V1_5;
+      case "1.6":
+      case "6":
+        return Opcodes.V1_6;
+      case "1.7":
+      case "7":
+        return Opcodes.V1_7;
+      default:
+        return Opcodes.V1_8;
+    }
+  }
+
+  private static int getClassFileVersion(SourceVersion sourceVersion) {
+    switch (sourceVersion) {
+      case RELEASE_0:
+      case RELEASE_1:
+      case RELEASE_2:
+      case RELEASE_3:
+      case RELEASE_4:
+      case RELEASE_5:
+        return Opcodes.V1_5;
+      case RELEASE_6:
+        return Opcodes.V1_6;
+      case RELEASE_7:
+        return Opcodes.V1_7;
+      //$CASES-OMITTED$
+      default:
+        return Opcodes.V1_8;
+    }
+  }
+
+  /**
+   * Collects the types javac entered, and stubs them all once it is done, so that the types they
+   * refer to are complete.
+   */
+  @SupportedAnnotationTypes("*")
+  private static class StubGenerator extends AbstractProcessor {
+
+    // The -target javac was given, which the stubs are written for, like the classes javac writes.
+    private final Optional<String> target;
+    private final List<TypeElement> rootTypes = new ArrayList<>();
+    // By class file name, or null if some could not be stubbed.
+    @Nullable
+    private SortedMap<String, ByteSource> stubClasses;
+
+    StubGenerator(Optional<String> target) {
+      this.target = target;
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+      return SourceVersion.latest();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+      if (!roundEnv.processingOver()) {
+        rootTypes.addAll(ElementFilter.typesIn(roundEnv.getRootElements()));
+        return false;
+      }
+
+      ClassVisitorDriverFromElement driver = new ClassVisitorDriverFromElement(
+          target.isPresent() ?
+              getClassFileVersion(target.get()) :
+              getClassFileVersion(processingEnv.getSourceVersion()),
+          processingEnv.getElementUtils(),
+          new DescriptorAndSignatureFactory(
+              processingEnv.getElementUtils(),
+              processingEnv.getTypeUtils()));
+      SortedMap<String, ByteSource> stubs = new TreeMap<>();
+      try {
+        for (TypeElement rootType : rootTypes) {
+          stub(rootType, driver, stubs);
+        }
+      } catch (IllegalArgumentException e) {
+        // A type could not be resolved, which javac reports as an error itself.
+        return false;
+      }
+      stubClasses = stubs;
+      return false;
+    }
+
+    private void stub(
+        TypeElement type,
+        ClassVisitorDriverFromElement driver,
+        SortedMap<String, ByteSource> stubs) {
+      String fileName =
+          processingEnv.getElementUtils().getBinaryName(type).toString().replace('.', '/') +
+              ".class";
+      ClassMirror mirror = new ClassMirror(fileName);
+      driver.driveVisitor(type, mirror);
+      stubs.put(fileName, mirror.getStubClassBytes());
+
+      for (TypeElement memberType : ElementFilter.typesIn(type.getEnclosedElements())) {
+        stub(memberType, driver, stubs);
+      }
+    }
+  }
+}
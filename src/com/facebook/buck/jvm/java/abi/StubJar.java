@@ -24,6 +24,7 @@ import com.facebook.buck.io.HashingDeterministicJarWriter;
 import com.facebook.buck.io.MorePaths;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.google.common.base.Preconditions;
+import com.google.common.io.ByteSource;
 
 import org.objectweb.asm.ClassReader;
 
@@ -57,6 +58,17 @@ public class StubJar {
     }
   }
 
+  /**
+   * @return the stub of a single class file, which only changes when the ABI of the class does.
+   */
+  public static ByteSource getStubClassBytes(InputStream stream, String fileName)
+      throws IOException {
+    ClassReader classReader = new ClassReader(stream);
+    ClassMirror visitor = new ClassMirror(fileName);
+    classReader.accept(visitor, SKIP_CODE | SKIP_DEBUG | SKIP_FRAMES);
+    return visitor.getStubClassBytes();
+  }
+
   private static class CreateStubAction implements FileAction {
     private final HashingDeterministicJarWriter writer;
 
@@ -78,10 +90,7 @@ public class StubJar {
 
     private InputStream getStubClassBytes(InputStream stream,
         String fileName) throws IOException {
-      ClassReader classReader = new ClassReader(stream);
-      ClassMirror visitor = new ClassMirror(fileName);
-      classReader.accept(visitor, SKIP_CODE | SKIP_DEBUG | SKIP_FRAMES);
-      return visitor.getStubClassBytes().openStream();
+      return StubJar.getStubClassBytes(stream, fileName).openStream();
     }
   }
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.kotlin;
+
+import com.facebook.buck.jvm.java.InProcessCompiler;
+import com.google.common.collect.ImmutableList;
+
+import java.io.PrintStream;
+import java.nio.file.Path;
+
+/**
+ * kotlinc, run from the {@code kotlin-compiler.jar} of a Kotlin distribution.
+ */
+class InProcessKotlinc extends InProcessCompiler {
+
+  InProcessKotlinc(Path kotlinHome) {
+    super(
+        "org.jetbrains.kotlin.cli.jvm.K2JVMCompiler",
+        ImmutableList.of(kotlinHome.resolve("lib").resolve("kotlin-compiler.jar")),
+        ImmutableList.of());
+  }
+
+  @Override
+  protected int compile(Class<?> mainClass, String[] args, PrintStream stdErr)
+      throws ReflectiveOperationException {
+    // A compiler keeps the state of its compilation, so each needs a new one.
+    Object compiler = mainClass.newInstance();
+    Object exitCode = mainClass.getMethod("exec", PrintStream.class, String[].class)
+        .invoke(compiler, stdErr, args);
+    return (Integer) exitCode.getClass().getMethod("getCode").invoke(exitCode);
+  }
+}
@@ -18,6 +18,7 @@ package com.facebook.buck.jvm.kotlin;
 
 import com.facebook.buck.cli.BuckConfig;
 import com.facebook.buck.io.ExecutableFinder;
+import com.facebook.buck.jvm.java.InProcessCompiler;
 import com.facebook.buck.rules.HashedFileTool;
 import com.facebook.buck.rules.Tool;
 import com.google.common.base.Supplier;
@@ -27,6 +28,8 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 
 public class KotlinBuckConfig {
+  private static final String SECTION = "kotlin";
+
   private static final Path DEFAULT_KOTLIN_COMPILER = Paths.get("kotlinc");
 
   private final BuckConfig delegate;
@@ -36,10 +39,14 @@ public class KotlinBuckConfig {
   }
 
   public Supplier<Tool> getKotlinCompiler() {
-    Path compilerPath = delegate.getPath("kotlin", "compiler").orElse(DEFAULT_KOTLIN_COMPILER);
+    Path compilerPath = delegate.getPath(SECTION, "compiler").orElse(DEFAULT_KOTLIN_COMPILER);
 
     Path compiler = new ExecutableFinder().getExecutable(compilerPath, delegate.getEnvironment());
 
+    if (delegate.getBooleanValue(SECTION, "compile_in_process", false)) {
+      return Suppliers.ofInstance(
+          new InProcessKotlinc(InProcessCompiler.getDistributionHome(compiler)));
+    }
     return Suppliers.ofInstance(new HashedFileTool(compiler));
   }
 }
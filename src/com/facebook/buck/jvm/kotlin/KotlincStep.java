@@ -20,16 +20,20 @@ package com.facebook.buck.jvm.kotlin;
 import static com.google.common.collect.Iterables.transform;
 
 import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.jvm.java.InProcessCompiler;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.rules.Tool;
 import com.facebook.buck.shell.ShellStep;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.StepExecutionResult;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedSet;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
+import java.util.function.Function;
 
 public class KotlincStep extends ShellStep {
 
@@ -43,6 +47,7 @@ public class KotlincStep extends ShellStep {
   private final Path outputDirectory;
   private final ImmutableList<String> extraArguments;
   private final ImmutableSortedSet<Path> sourceFilePaths;
+  private final ProjectFilesystem filesystem;
 
   KotlincStep(
       Tool kotlinc,
@@ -59,6 +64,17 @@ public class KotlincStep extends ShellStep {
     this.outputDirectory = outputDirectory;
     this.extraArguments = extraArguments;
     this.sourceFilePaths = sourceFilePaths;
+    this.filesystem = filesystem;
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context)
+      throws IOException, InterruptedException {
+    if (kotlinc instanceof InProcessCompiler) {
+      return StepExecutionResult.of(
+          ((InProcessCompiler) kotlinc).compile(context, getArguments(/* inProcess */ true)));
+    }
+    return super.execute(context);
   }
 
   @Override
@@ -68,21 +84,33 @@ public class KotlincStep extends ShellStep {
 
   @Override
   protected ImmutableList<String> getShellCommandInternal(ExecutionContext context) {
+    return ImmutableList.<String>builder()
+        .addAll(kotlinc.getCommandPrefix(resolver))
+        .addAll(getArguments(/* inProcess */ false))
+        .build();
+  }
+
+  private ImmutableList<String> getArguments(boolean inProcess) {
+    // The compiler is not run in the project root when in process, so give it absolute paths.
+    Function<Path, String> toArgument =
+        inProcess ? path -> filesystem.resolve(path).toString() : Object::toString;
     final ImmutableList.Builder<String> command = ImmutableList.<String>builder()
-        .addAll(kotlinc.getCommandPrefix(resolver));
+        .add(INCLUDE_RUNTIME_FLAG);
 
     String classpath =
-        Joiner.on(File.pathSeparator).join(transform(declaredClassPathEntries, Object::toString));
+        Joiner.on(File.pathSeparator).join(transform(declaredClassPathEntries, toArgument::apply));
+    if (!classpath.isEmpty()) {
+      command.add(CLASSPATH_FLAG).add(classpath);
+    } else if (!inProcess) {
+      command.add(CLASSPATH_FLAG).add("''");
+    }
     command
-        .add(INCLUDE_RUNTIME_FLAG)
-        .add(CLASSPATH_FLAG)
-        .add(classpath.isEmpty() ? "''" : classpath)
         .add(DESTINATION_FLAG)
-        .add(outputDirectory.toString());
+        .add(toArgument.apply(outputDirectory));
 
     command
         .addAll(extraArguments)
-        .addAll(transform(sourceFilePaths, Object::toString));
+        .addAll(transform(sourceFilePaths, toArgument::apply));
     return command.build();
   }
 }
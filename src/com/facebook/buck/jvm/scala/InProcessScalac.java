@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.scala;
+
+import com.facebook.buck.jvm.java.InProcessCompiler;
+import com.google.common.collect.ImmutableList;
+
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+
+/**
+ * scalac, run from the jars of a Scala distribution.
+ */
+class InProcessScalac extends InProcessCompiler {
+
+  InProcessScalac(Path scalaHome, ImmutableList<String> arguments) {
+    super(
+        "scala.tools.nsc.MainClass",
+        InProcessCompiler.getJarsIn(scalaHome.resolve("lib")),
+        arguments);
+  }
+
+  @Override
+  protected int compile(Class<?> mainClass, String[] args, PrintStream stdErr)
+      throws ReflectiveOperationException {
+    // Unlike the scala.tools.nsc.Main singleton, a driver of our own does not share its reporter
+    // with compilations on other threads.
+    Object driver = mainClass.newInstance();
+    Method process = mainClass.getMethod("process", String[].class);
+    // The driver's ConsoleReporter prints to Console.err, which withErr only rebinds for this
+    // thread, so the diagnostics end up in the step's stderr.
+    ClassLoader classLoader = mainClass.getClassLoader();
+    Class<?> function0 = classLoader.loadClass("scala.Function0");
+    Object thunk = Proxy.newProxyInstance(
+        classLoader,
+        new Class<?>[] {function0},
+        (proxy, method, methodArgs) -> {
+          switch (method.getName()) {
+            case "apply":
+              try {
+                return process.invoke(driver, (Object) args);
+              } catch (InvocationTargetException e) {
+                throw e.getCause();
+              }
+            case "equals":
+              return proxy == methodArgs[0];
+            case "hashCode":
+              return System.identityHashCode(proxy);
+            case "toString":
+              return "scalac";
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+    boolean succeeded = (Boolean) classLoader.loadClass("scala.Console")
+        .getMethod("withErr", PrintStream.class, function0)
+        .invoke(null, stdErr, thunk);
+    return succeeded ? 0 : 1;
+  }
+}
@@ -18,6 +18,7 @@ package com.facebook.buck.jvm.scala;
 
 import com.facebook.buck.cli.BuckConfig;
 import com.facebook.buck.io.ExecutableFinder;
+import com.facebook.buck.jvm.java.InProcessCompiler;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.rules.BuildRuleResolver;
 import com.facebook.buck.rules.CommandTool;
@@ -41,16 +42,33 @@ public class ScalaBuckConfig {
   }
 
   public Tool getScalac(BuildRuleResolver resolver) {
+    if (delegate.getBooleanValue(SECTION, "compile_in_process", false)) {
+      if (delegate.getValue(SECTION, "compiler").isPresent()) {
+        throw new HumanReadableException(
+            "scala.compile_in_process runs the scalac of $SCALA_HOME or the $PATH, so it cannot " +
+                "be used with scala.compiler.");
+      }
+      return new InProcessScalac(
+          InProcessCompiler.getDistributionHome(findScalacExecutable()),
+          getStandardOptions());
+    }
+
     CommandTool.Builder scalac = new CommandTool.Builder(findScalac(resolver));
+    for (String option : getStandardOptions()) {
+      scalac.addArg(option);
+    }
+    return scalac.build();
+  }
 
-    // Add some standard options.
-    scalac.addArg("-target:" + delegate.getValue(SECTION, "target_level").orElse("jvm-1.7"));
+  private ImmutableList<String> getStandardOptions() {
+    ImmutableList.Builder<String> options = ImmutableList.builder();
+    options.add("-target:" + delegate.getValue(SECTION, "target_level").orElse("jvm-1.7"));
 
     if (delegate.getBooleanValue(SECTION, "optimize", false)) {
-      scalac.addArg("-optimize");
+      options.add("-optimize");
     }
 
-    return scalac.build();
+    return options.build();
   }
 
   public BuildTarget getScalaLibraryTarget() {
@@ -77,17 +95,21 @@ public class ScalaBuckConfig {
       return configScalac.get();
     }
 
+    return new HashedFileTool(findScalacExecutable());
+  }
+
+  private Path findScalacExecutable() {
     Optional<Path> externalScalac = new ExecutableFinder().getOptionalExecutable(
         Paths.get("scalac"), delegate.getEnvironment());
     if (externalScalac.isPresent()) {
-      return new HashedFileTool(externalScalac.get());
+      return externalScalac.get();
     }
 
     String scalaHome = delegate.getEnvironment().get("SCALA_HOME");
     if (scalaHome != null) {
       Path scalacInHomePath = Paths.get(scalaHome, "bin", "scalac");
       if (scalacInHomePath.toFile().exists()) {
-        return new HashedFileTool(scalacInHomePath);
+        return scalacInHomePath;
       }
       throw new HumanReadableException("Could not find scalac at $SCALA_HOME/bin/scalac.");
     }
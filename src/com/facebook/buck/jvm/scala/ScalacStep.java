@@ -17,16 +17,19 @@
 package com.facebook.buck.jvm.scala;
 
 import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.jvm.java.InProcessCompiler;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.rules.Tool;
 import com.facebook.buck.shell.ShellStep;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.util.Verbosity;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.util.stream.Collectors;
 
@@ -58,6 +61,18 @@ public class ScalacStep extends ShellStep {
     this.filesystem = filesystem;
   }
 
+  @Override
+  public StepExecutionResult execute(ExecutionContext context)
+      throws IOException, InterruptedException {
+    if (scalac instanceof InProcessCompiler) {
+      return StepExecutionResult.of(
+          ((InProcessCompiler) scalac).compile(
+              context,
+              getArguments(context, /* inProcess */ true)));
+    }
+    return super.execute(context);
+  }
+
   @Override
   public String getShortName() {
     return "scalac";
@@ -66,8 +81,14 @@ public class ScalacStep extends ShellStep {
 
   @Override
   protected ImmutableList<String> getShellCommandInternal(ExecutionContext context) {
-    ImmutableList.Builder<String> commandBuilder = ImmutableList.<String>builder()
+    return ImmutableList.<String>builder()
         .addAll(scalac.getCommandPrefix(resolver))
+        .addAll(getArguments(context, /* inProcess */ false))
+        .build();
+  }
+
+  private ImmutableList<String> getArguments(ExecutionContext context, boolean inProcess) {
+    ImmutableList.Builder<String> commandBuilder = ImmutableList.<String>builder()
         .addAll(extraArguments);
 
     Verbosity verbosity = context.getVerbosity();
@@ -82,12 +103,17 @@ public class ScalacStep extends ShellStep {
         .map(filesystem::resolve)
         .map(Path::toString)
         .collect(Collectors.joining(File.pathSeparator));
-    if (classpath.isEmpty()) {
-      commandBuilder.add("-classpath", "''");
-    } else {
+    if (!classpath.isEmpty()) {
       commandBuilder.add("-classpath", classpath);
+    } else if (!inProcess) {
+      commandBuilder.add("-classpath", "''");
     }
-    commandBuilder.addAll(sourceFilePaths.stream().map(Object::toString).iterator());
+    // The compiler is not run in the project root when in process, so give it absolute paths.
+    commandBuilder.addAll(
+        sourceFilePaths.stream()
+            .map(inProcess ? filesystem::resolve : path -> path)
+            .map(Object::toString)
+            .iterator());
 
     return commandBuilder.build();
   }
@@ -104,36 +104,37 @@ abstract class AbstractNativeExecutableStarter implements Starter, NativeLinkTar
         BuildTarget.builder(getBaseParams().getBuildTarget())
             .addFlavors(ImmutableFlavor.of("native-starter-cxx-source"))
             .build();
-    if (!getRuleResolver().getRuleOptional(target).isPresent()) {
+    getRuleResolver().computeIfAbsent(
+        target,
+        WriteStringTemplateRule.class,
+        sourceTarget -> {
+          BuildTarget templateTarget =
+              BuildTarget.builder(getBaseParams().getBuildTarget())
+                  .addFlavors(ImmutableFlavor.of("native-starter-cxx-source-template"))
+                  .build();
+          getRuleResolver().addToIndex(
+              new WriteFile(
+                  getBaseParams().copyWithChanges(
+                      templateTarget,
+                      Suppliers.ofInstance(ImmutableSortedSet.of()),
+                      Suppliers.ofInstance(ImmutableSortedSet.of())),
+                  getPathResolver(),
+                  getNativeStarterCxxSourceTemplate(),
+                  BuildTargets.getGenPath(
+                      getBaseParams().getProjectFilesystem(),
+                      templateTarget,
+                      "%s/native-starter.cpp.in"),
+                  /* executable */ false));
 
-      BuildTarget templateTarget =
-          BuildTarget.builder(getBaseParams().getBuildTarget())
-              .addFlavors(ImmutableFlavor.of("native-starter-cxx-source-template"))
-              .build();
-      getRuleResolver().addToIndex(
-          new WriteFile(
-              getBaseParams().copyWithChanges(
-                  templateTarget,
-                  Suppliers.ofInstance(ImmutableSortedSet.of()),
-                  Suppliers.ofInstance(ImmutableSortedSet.of())),
-              getPathResolver(),
-              getNativeStarterCxxSourceTemplate(),
+          Path output =
               BuildTargets.getGenPath(
                   getBaseParams().getProjectFilesystem(),
-                  templateTarget,
-                  "%s/native-starter.cpp.in"),
-            /* executable */ false));
-
-      Path output =
-          BuildTargets.getGenPath(
-              getBaseParams().getProjectFilesystem(),
-              target,
-              "%s/native-starter.cpp");
-      getRuleResolver().addToIndex(
-          WriteStringTemplateRule.from(
+                  sourceTarget,
+                  "%s/native-starter.cpp");
+          return WriteStringTemplateRule.from(
               getBaseParams(),
               getPathResolver(),
-              target,
+              sourceTarget,
               output,
               new BuildTargetSourcePath(templateTarget),
               ImmutableMap.of(
@@ -145,12 +146,13 @@ abstract class AbstractNativeExecutableStarter implements Starter, NativeLinkTar
                       "NULL",
                   "PY_MODULES_DIR",
                   getRelativePythonModulesDir().isPresent() ?
-                      Escaper.escapeAsPythonString(getRelativePythonModulesDir().get().toString()) :
+                      Escaper.escapeAsPythonString(
+                          getRelativePythonModulesDir().get().toString()) :
                       "NULL",
                   "EXT_SUFFIX",
                   Escaper.escapeAsPythonString(getCxxPlatform().getSharedLibraryExtension())),
-            /* executable */ false));
-    }
+              /* executable */ false);
+        });
 
     return CxxSource.of(
         CxxSource.Type.CXX,
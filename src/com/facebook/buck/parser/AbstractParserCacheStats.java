@@ -0,0 +1,47 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.util.immutables.BuckStyleImmutable;
+import com.google.common.collect.ImmutableMap;
+
+import org.immutables.value.Value;
+
+import java.nio.file.Path;
+
+/**
+ * How much the parser keeps between commands for one cell.
+ */
+@Value.Immutable
+@BuckStyleImmutable
+abstract class AbstractParserCacheStats {
+
+  public abstract Path getCellRoot();
+
+  /**
+   * @return the number of build files whose raw nodes are kept.
+   */
+  public abstract int getBuildFileCount();
+
+  public abstract int getRawNodeCount();
+
+  /**
+   * @return the number of nodes computed from raw nodes which are kept, by the simple name of
+   *     their type.
+   */
+  public abstract ImmutableMap<String, Integer> getComputedNodeCounts();
+}
@@ -184,6 +184,63 @@ abstract class AbstractParserConfig implements ConfigView<BuckConfig> {
     return getDelegate().getBooleanValue("project", "enable_build_file_sandboxing", false);
   }
 
+  /**
+   * Whether raw nodes are kept on disk, so they outlive the daemon.
+   */
+  @Value.Lazy
+  public boolean getEnablePersistentCache() {
+    return getDelegate().getBooleanValue("parser", "enable_persistent_cache", false);
+  }
+
+  /**
+   * Whether the results of globs in build files are kept by the daemon, and shared between build
+   * files and parses.
+   */
+  @Value.Lazy
+  public boolean getEnableDaemonGlobCache() {
+    return getDelegate().getBooleanValue("parser", "daemon_glob_cache", true);
+  }
+
+  /**
+   * Whether buck.py reports where the time to parse each build file went, without profiling it.
+   */
+  @Value.Lazy
+  public boolean getEnableBuildFileTimings() {
+    return getDelegate().getBooleanValue("parser", "build_file_timings", false);
+  }
+
+  /**
+   * Whether the daemon remembers where the build files of the root cell are, so that recursive
+   * specs do not search the file system for them again.
+   */
+  @Value.Lazy
+  public boolean getEnableBuildFileIndex() {
+    return getDelegate().getBooleanValue("parser", "build_file_index", true);
+  }
+
+  /**
+   * Whether the daemon shares equal strings, paths and build targets between the raw and target
+   * nodes it keeps, trading some parse time for a smaller heap on large graphs.
+   */
+  @Value.Lazy
+  public boolean getEnableCompactNodeStorage() {
+    return getDelegate().getBooleanValue("parser", "compact_node_storage", false);
+  }
+
+  /**
+   * How many workers a single buck.py process forks to parse build files with, sharing the
+   * configuration and includes it loaded, or 0 when each parsing thread starts a buck.py process
+   * of its own.
+   */
+  @Value.Lazy
+  public int getBuildFileParserForks() {
+    if (!getDelegate().getBooleanValue("parser", "fork_build_file_parsers", false) ||
+        getNumParsingThreads() <= 1) {
+      return 0;
+    }
+    return getNumParsingThreads();
+  }
+
   @Value.Lazy
   public ImmutableList<String> getBuildFileImportWhitelist() {
     return getDelegate().getListWithoutComments("project", "build_file_import_whitelist");
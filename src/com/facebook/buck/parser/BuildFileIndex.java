@@ -0,0 +1,172 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.rules.Cell;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * The locations of the build files in each cell, kept by the daemon so that recursive specs such
+ * as {@code //foo/...} are resolved without searching the file system again.
+ * <p>
+ * A directory is searched the first time a spec asks for the build files under it. From then on
+ * the build files under it are looked up in a sorted set, and kept up to date as build files are
+ * added and removed.
+ */
+class BuildFileIndex {
+
+  private static final Logger LOG = Logger.get(BuildFileIndex.class);
+
+  private final ConcurrentMap<Path, CellIndex> cells = new ConcurrentHashMap<>();
+
+  /**
+   * @return paths to the build files {@code spec} matches in {@code cell}, which are only searched
+   *     for if no spec matching them was resolved before.
+   */
+  public ImmutableSet<Path> findBuildFiles(
+      Cell cell,
+      BuildFileSpec spec,
+      ParserConfig.BuildFileSearchMethod buildFileSearchMethod)
+      throws IOException, InterruptedException {
+    if (!spec.isRecursive()) {
+      return spec.findBuildFiles(cell, buildFileSearchMethod);
+    }
+    ProjectFilesystem filesystem = cell.getFilesystem();
+    Optional<Path> basePath = filesystem.getPathRelativeToProjectRoot(spec.getBasePath());
+    if (!basePath.isPresent()) {
+      return spec.findBuildFiles(cell, buildFileSearchMethod);
+    }
+    CellIndex index = cells.computeIfAbsent(cell.getRoot(), root -> new CellIndex());
+    return index.findBuildFiles(cell, spec, basePath.get(), buildFileSearchMethod);
+  }
+
+  /**
+   * Records that {@code path}, relative to the root of {@code cell} and named like its build
+   * files, was added or removed.
+   */
+  public void onBuildFileAddedOrRemoved(Cell cell, Path path) {
+    CellIndex index = cells.get(cell.getRoot());
+    if (index == null) {
+      return;
+    }
+    Optional<Path> relativePath = cell.getFilesystem().getPathRelativeToProjectRoot(path);
+    if (relativePath.isPresent()) {
+      index.update(cell.getFilesystem(), relativePath.get());
+    }
+  }
+
+  public void invalidate(Path cellRoot) {
+    cells.remove(cellRoot);
+  }
+
+  public void invalidateAll() {
+    cells.clear();
+  }
+
+  private static class CellIndex {
+
+    // Relative paths to build files, sorted so that those under a directory are a contiguous range.
+    @GuardedBy("this")
+    private final NavigableSet<String> buildFiles = new TreeSet<>();
+    // The directories every build file under which is in buildFiles.
+    @GuardedBy("this")
+    private final List<Path> searchedDirectories = new ArrayList<>();
+
+    public synchronized ImmutableSet<Path> findBuildFiles(
+        Cell cell,
+        BuildFileSpec spec,
+        Path basePath,
+        ParserConfig.BuildFileSearchMethod buildFileSearchMethod)
+        throws IOException, InterruptedException {
+      ProjectFilesystem filesystem = cell.getFilesystem();
+      if (!isSearched(basePath)) {
+        LOG.debug("Searching for build files under %s in %s", basePath, cell.getRoot());
+        List<String> found = new ArrayList<>();
+        spec.forEachBuildFile(
+            filesystem,
+            cell.getBuildFileName(),
+            buildFileSearchMethod,
+            cell.getWatchman(),
+            buildFile -> found.add(filesystem.getRootPath().relativize(buildFile).toString()));
+        getBuildFilesUnder(basePath).clear();
+        buildFiles.addAll(found);
+        searchedDirectories.removeIf(directory -> isUnder(directory, basePath));
+        searchedDirectories.add(basePath);
+      }
+
+      ImmutableSet.Builder<Path> result = ImmutableSet.builder();
+      for (String buildFile : getBuildFilesUnder(basePath)) {
+        result.add(filesystem.getRootPath().resolve(buildFile));
+      }
+      return result.build();
+    }
+
+    public synchronized void update(ProjectFilesystem filesystem, Path buildFile) {
+      if (!isSearched(buildFile)) {
+        return;
+      }
+      // The event may be for another cell, or already be out of date, so check the file system.
+      if (filesystem.isFile(buildFile) && !filesystem.isIgnored(buildFile)) {
+        buildFiles.add(buildFile.toString());
+      } else {
+        buildFiles.remove(buildFile.toString());
+      }
+    }
+
+    @GuardedBy("this")
+    private boolean isSearched(Path path) {
+      for (Path directory : searchedDirectories) {
+        if (isUnder(path, directory)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @GuardedBy("this")
+    private SortedSet<String> getBuildFilesUnder(Path directory) {
+      String prefix = directory.toString();
+      if (prefix.isEmpty()) {
+        return buildFiles;
+      }
+      prefix += directory.getFileSystem().getSeparator();
+      // Strings starting with the prefix sort before the prefix with its last character bumped.
+      int last = prefix.length() - 1;
+      String end = prefix.substring(0, last) + (char) (prefix.charAt(last) + 1);
+      return buildFiles.subSet(prefix, true, end, false);
+    }
+
+    private static boolean isUnder(Path path, Path directory) {
+      return directory.toString().isEmpty() || path.startsWith(directory);
+    }
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.parser;
 
+import java.util.Collection;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -66,4 +67,12 @@ class ConcurrentMapCache<K, V> {
   public void invalidate(K key) {
     values.remove(key);
   }
+
+  public int size() {
+    return values.size();
+  }
+
+  public Collection<V> values() {
+    return values.values();
+  }
 }
@@ -157,6 +157,27 @@ class DaemonicCellState {
     }
   }
 
+  ParserCacheStats getCacheStats() {
+    try (AutoCloseableLock readLock = rawAndComputedNodesLock.readLock()) {
+      int rawNodeCount = 0;
+      for (ImmutableSet<Map<String, Object>> rawNodes : allRawNodes.values()) {
+        rawNodeCount += rawNodes.size();
+      }
+      ImmutableMap.Builder<String, Integer> computedNodeCounts = ImmutableMap.builder();
+      for (Map.Entry<Class<?>, CacheImpl<?>> entry : typedNodeCaches.entrySet()) {
+        computedNodeCounts.put(
+            entry.getKey().getSimpleName(),
+            entry.getValue().allComputedNodes.size());
+      }
+      return ParserCacheStats.builder()
+          .setCellRoot(cellRoot)
+          .setBuildFileCount(allRawNodes.size())
+          .setRawNodeCount(rawNodeCount)
+          .setComputedNodeCounts(computedNodeCounts.build())
+          .build();
+    }
+  }
+
   int invalidatePath(Path path) {
     try (AutoCloseableLock writeLock = rawAndComputedNodesLock.writeLock()) {
       int invalidatedRawNodes = 0;
@@ -16,7 +16,6 @@
 
 package com.facebook.buck.parser;
 
-import com.facebook.buck.cli.BuckConfig;
 import com.facebook.buck.counters.Counter;
 import com.facebook.buck.counters.IntegerCounter;
 import com.facebook.buck.counters.TagSetCounter;
@@ -24,6 +23,7 @@ import com.facebook.buck.event.ParsingEvent;
 import com.facebook.buck.event.listener.BroadcastEventListener;
 import com.facebook.buck.io.WatchEvents;
 import com.facebook.buck.json.BuildFileParseException;
+import com.facebook.buck.json.GlobResultCache;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildFileTree;
 import com.facebook.buck.model.BuildTarget;
@@ -31,7 +31,9 @@ import com.facebook.buck.model.BuildTargetException;
 import com.facebook.buck.model.FilesystemBackedBuildFileTree;
 import com.facebook.buck.parser.PipelineNodeCache.Cache;
 import com.facebook.buck.rules.Cell;
+import com.facebook.buck.rules.TargetNodeInterner;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
+import com.facebook.buck.util.MoreCollectors;
 import com.facebook.buck.util.OptionalCompat;
 import com.facebook.buck.util.concurrent.AutoCloseableLock;
 import com.facebook.buck.util.concurrent.AutoCloseableReadWriteUpdateLock;
@@ -53,6 +55,7 @@ import com.google.common.util.concurrent.UncheckedExecutionException;
 import java.nio.file.Path;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -81,8 +84,8 @@ class DaemonicParserState {
    * The value is a list of strings with the root build file as the head and included
    * build files as the tail, for example: {"__includes":["/foo/BUCK", "/foo/buck_includes"]}
    */
-  private static final String INCLUDES_META_RULE = "__includes";
-  private static final String CONFIGS_META_RULE = "__configs";
+  static final String INCLUDES_META_RULE = "__includes";
+  static final String CONFIGS_META_RULE = "__configs";
   private static final String ENV_META_RULE = "__env";
 
   private static final String COUNTER_CATEGORY = "buck_parser_state";
@@ -194,6 +197,8 @@ class DaemonicParserState {
       // invalidated mid-way through the parse).
       invalidateIfProjectBuildFileParserStateChanged(cell);
 
+      ParserConfig parserConfig = cell.getBuckConfig().getView(ParserConfig.class);
+      boolean compactNodeStorage = parserConfig.getEnableCompactNodeStorage();
       final ImmutableSet.Builder<Map<String, Object>> withoutMetaIncludesBuilder =
           ImmutableSet.builder();
       ImmutableSet.Builder<Path> dependentsOfEveryNode = ImmutableSet.builder();
@@ -222,6 +227,8 @@ class DaemonicParserState {
           configs = builder.build();
         } else if (rawNode.containsKey(ENV_META_RULE)) {
           // Skip the env meta rule for now.
+        } else if (compactNodeStorage) {
+          withoutMetaIncludesBuilder.add(targetNodeInterner.internRawNode(rawNode));
         } else {
           withoutMetaIncludesBuilder.add(rawNode);
         }
@@ -231,9 +238,7 @@ class DaemonicParserState {
 
       // We also know that the rules all depend on the default includes for the
       // cell.
-      BuckConfig buckConfig = cell.getBuckConfig();
-      Iterable<String> defaultIncludes =
-          buckConfig.getView(ParserConfig.class).getDefaultIncludes();
+      Iterable<String> defaultIncludes = parserConfig.getDefaultIncludes();
       for (String include : defaultIncludes) {
         // Default includes are given as "//path/to/file". They look like targets
         // but they are not. However, I bet someone will try and treat it like a
@@ -271,6 +276,10 @@ class DaemonicParserState {
   @GuardedBy("cellStateLock")
   private final ConcurrentMap<Class<?>, DaemonicCache<?>> typedNodeCaches;
   private final DaemonicRawCache rawNodeCache;
+  private final PersistentRawNodeCache persistentRawNodeCache;
+  private final GlobResultCache globResultCache = new GlobResultCache();
+  private final BuildFileIndex buildFileIndex = new BuildFileIndex();
+  private final TargetNodeInterner targetNodeInterner = new TargetNodeInterner();
 
   private final int parsingThreads;
 
@@ -348,6 +357,7 @@ class DaemonicParserState {
             parsingThreads);
 
     this.rawNodeCache = new DaemonicRawCache();
+    this.persistentRawNodeCache = new PersistentRawNodeCache();
     this.typedNodeCaches =
         new ConcurrentHashMap<>(
             DEFAULT_TYPE_CACHE_COUNT,
@@ -383,6 +393,31 @@ class DaemonicParserState {
     return rawNodeCache;
   }
 
+  PersistentRawNodeCache getPersistentRawNodeCache() {
+    return persistentRawNodeCache;
+  }
+
+  GlobResultCache getGlobResultCache() {
+    return globResultCache;
+  }
+
+  BuildFileIndex getBuildFileIndex() {
+    return buildFileIndex;
+  }
+
+  TargetNodeInterner getTargetNodeInterner() {
+    return targetNodeInterner;
+  }
+
+  ImmutableList<ParserCacheStats> getCacheStats() {
+    try (AutoCloseableLock readLock = cellStateLock.readLock()) {
+      return cellPathToDaemonicState.values().stream()
+          .map(DaemonicCellState::getCacheStats)
+          .sorted(Comparator.comparing(ParserCacheStats::getCellRoot))
+          .collect(MoreCollectors.toImmutableList());
+    }
+  }
+
   @Nullable
   private DaemonicCellState getCellState(Cell cell) {
     try (AutoCloseableLock readLock = cellStateLock.readLock()) {
@@ -419,6 +454,9 @@ class DaemonicParserState {
 
     try (AutoCloseableLock readLock = cellStateLock.readLock()) {
       for (DaemonicCellState state : cellPathToDaemonicState.values()) {
+        persistentRawNodeCache.invalidatePath(
+            state.getCellRoot().resolve(path),
+            isPathCreateOrDeleteEvent(event));
         try {
           // We only care about creation and deletion events because modified should result in a
           // rule key change.  For parsing, these are the only events we need to care about.
@@ -433,6 +471,7 @@ class DaemonicParserState {
                   cell);
               // If a build file has been added or removed, reconstruct the build file tree.
               buildFileTrees.invalidate(cell);
+              buildFileIndex.onBuildFileAddedOrRemoved(cell, path);
             }
 
             // Added or removed files can affect globs, so invalidate the package build file
@@ -456,6 +495,9 @@ class DaemonicParserState {
       }
     }
 
+    if (isPathCreateOrDeleteEvent(event)) {
+      globResultCache.invalidateForAddedOrRemovedPath(path);
+    }
     invalidatePath(path);
   }
 
@@ -617,6 +659,9 @@ class DaemonicParserState {
 
   public boolean invalidateCellCaches(Cell cell) {
     LOG.debug("Starting to invalidate caches for %s..", cell.getRoot());
+    buildFileIndex.invalidate(cell.getRoot());
+    // Events for the cell's files stop reaching the persistent cache along with its state.
+    persistentRawNodeCache.invalidateAll();
     try (AutoCloseableLock writeLock = cellStateLock.writeLock()) {
       boolean invalidated = cellPathToDaemonicState.containsKey(cell.getRoot());
       cellPathToDaemonicState.remove(cell.getRoot());
@@ -632,6 +677,9 @@ class DaemonicParserState {
 
   public boolean invalidateAllCaches() {
     LOG.debug("Starting to invalidate all caches..");
+    globResultCache.invalidateAll();
+    buildFileIndex.invalidateAll();
+    persistentRawNodeCache.invalidateAll();
     try (AutoCloseableLock writeLock = cellStateLock.writeLock()) {
       boolean invalidated = !cellPathToDaemonicState.isEmpty();
       cellPathToDaemonicState.clear();
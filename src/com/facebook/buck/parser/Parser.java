@@ -39,6 +39,7 @@ import com.facebook.buck.rules.TargetGraph;
 import com.facebook.buck.rules.TargetGraphAndBuildTargets;
 import com.facebook.buck.rules.TargetGroup;
 import com.facebook.buck.rules.TargetNode;
+import com.facebook.buck.rules.TargetNodeInterner;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.MoreCollectors;
@@ -521,10 +522,18 @@ public class Parser {
           PerfEventId.of("FindBuildFiles"),
           "targetNodeSpec",
           spec)) {
-        // Iterate over the build files the given target node spec returns.
-        buildFiles = spec.getBuildFileSpec().findBuildFiles(
-            cell,
-            buildFileSearchMethod);
+        // Iterate over the build files the given target node spec returns. Only changes to the
+        // root cell are watched, so the build files of other cells are not indexed.
+        if (parserConfig.getEnableBuildFileIndex() && cell.getRoot().equals(rootCell.getRoot())) {
+          buildFiles = permState.getBuildFileIndex().findBuildFiles(
+              cell,
+              spec.getBuildFileSpec(),
+              buildFileSearchMethod);
+        } else {
+          buildFiles = spec.getBuildFileSpec().findBuildFiles(
+              cell,
+              buildFileSearchMethod);
+        }
       }
       for (Path buildFile : buildFiles) {
         perBuildFileSpecs.put(buildFile, index);
@@ -676,4 +685,15 @@ public class Parser {
     return permState.getCounters();
   }
 
+  /**
+   * @return how much is kept for each cell between commands.
+   */
+  public ImmutableList<ParserCacheStats> getCacheStats() {
+    return permState.getCacheStats();
+  }
+
+  public TargetNodeInterner getTargetNodeInterner() {
+    return permState.getTargetNodeInterner();
+  }
+
 }
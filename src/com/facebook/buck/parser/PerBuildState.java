@@ -21,6 +21,7 @@ import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.ParsingEvent;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.json.BuildFileParseException;
+import com.facebook.buck.json.BuildFileParseProfile;
 import com.facebook.buck.json.ProjectBuildFileParser;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
@@ -62,9 +63,12 @@ import java.util.concurrent.ConcurrentHashMap;
 public class PerBuildState implements AutoCloseable {
   private static final Logger LOG = Logger.get(PerBuildState.class);
 
+  private static final int PARSE_PROFILE_REPORT_ROWS = 20;
+
   private final Parser parser;
   private final BuckEventBus eventBus;
   private final boolean enableProfiling;
+  private final Optional<BuildFileParseProfile> parseProfile;
   private final boolean ignoreBuckAutodepsFiles;
 
   private final PrintStream stdout;
@@ -102,6 +106,10 @@ public class PerBuildState implements AutoCloseable {
     this.parser = parser;
     this.eventBus = eventBus;
     this.enableProfiling = enableProfiling;
+    ParserConfig parserConfig = rootCell.getBuckConfig().getView(ParserConfig.class);
+    this.parseProfile = enableProfiling || parserConfig.getEnableBuildFileTimings() ?
+        Optional.of(new BuildFileParseProfile()) :
+        Optional.empty();
     this.ignoreBuckAutodepsFiles = ignoreBuckAutodepsFiles;
 
     this.cells = new ConcurrentHashMap<>();
@@ -115,14 +123,21 @@ public class PerBuildState implements AutoCloseable {
 
     TargetNodeListener<TargetNode<?>> symlinkCheckers =
         this::registerInputsUnderSymlinks;
-    ParserConfig parserConfig = rootCell.getBuckConfig().getView(ParserConfig.class);
     int numParsingThreads = parserConfig.getNumParsingThreads();
-    this.projectBuildFileParserPool = new ProjectBuildFileParserPool(
-        numParsingThreads, // Max parsers to create per cell.
-        input -> createBuildFileParser(input, PerBuildState.this.ignoreBuckAutodepsFiles));
+    int buildFileParserForks = parserConfig.getBuildFileParserForks();
+    // A parser which forks workers handles as many requests at once as it has workers.
+    this.projectBuildFileParserPool = buildFileParserForks > 0 ?
+        new ProjectBuildFileParserPool(
+            1,
+            buildFileParserForks,
+            input -> createBuildFileParser(input, PerBuildState.this.ignoreBuckAutodepsFiles)) :
+        new ProjectBuildFileParserPool(
+            numParsingThreads, // Max parsers to create per cell.
+            input -> createBuildFileParser(input, PerBuildState.this.ignoreBuckAutodepsFiles));
 
     this.rawNodeParsePipeline = new RawNodeParsePipeline(
         parser.getPermState().getRawNodeCache(),
+        parser.getPermState().getPersistentRawNodeCache(),
         projectBuildFileParserPool,
         executorService);
     this.targetNodeParsePipeline = new TargetNodeParsePipeline(
@@ -131,7 +146,11 @@ public class PerBuildState implements AutoCloseable {
             parser.getMarshaller(),
             parser.getPermState().getBuildFileTrees(),
             symlinkCheckers,
-            new TargetNodeFactory(parser.getPermState().getTypeCoercerFactory())),
+            new TargetNodeFactory(
+                parser.getPermState().getTypeCoercerFactory(),
+                parserConfig.getEnableCompactNodeStorage() ?
+                    Optional.of(parser.getPermState().getTargetNodeInterner()) :
+                    Optional.empty())),
         parserConfig.getEnableParallelParsing() ?
             executorService :
             MoreExecutors.newDirectExecutorService(),
@@ -201,6 +220,12 @@ public class PerBuildState implements AutoCloseable {
         eventBus,
         ignoreBuckAutodepsFiles);
     parser.setEnableProfiling(enableProfiling);
+    if (parseProfile.isPresent()) {
+      parser.setParseProfile(parseProfile.get());
+    }
+    if (cell.getBuckConfig().getView(ParserConfig.class).getEnableDaemonGlobCache()) {
+      parser.setGlobResultCache(this.parser.getPermState().getGlobResultCache());
+    }
     return parser;
   }
 
@@ -348,6 +373,14 @@ public class PerBuildState implements AutoCloseable {
     rawNodeParsePipeline.close();
     projectBuildFileParserPool.close();
 
+    if (parseProfile.isPresent() && !parseProfile.get().isEmpty()) {
+      eventBus.post(
+          ConsoleEvent.info(
+              parseProfile.get().formatReport(
+                  BuildFileParseProfile.byTotalTime(),
+                  PARSE_PROFILE_REPORT_ROWS)));
+    }
+
     if (ignoreBuckAutodepsFiles) {
       LOG.debug("Invalidating all caches because buck autodeps ran.");
       parser.getPermState().invalidateAllCaches();
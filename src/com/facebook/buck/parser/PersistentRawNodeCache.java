@@ -0,0 +1,427 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.bser.BserDeserializer;
+import com.facebook.buck.bser.BserSerializer;
+import com.facebook.buck.cli.BuckConfig;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuckVersion;
+import com.facebook.buck.rules.Cell;
+import com.facebook.buck.util.sha1.Sha1HashCode;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the raw nodes of each build file on disk, so that a new daemon does not have to run
+ * buck.py again for build files that have not changed since they were last parsed.
+ * <p>
+ * A persisted entry is only used if nothing that went into it has changed: the build file and the
+ * files it included (compared by content), the config values it read, the config sections that
+ * steer the parser, the environment, the buck version, and the names of the files in the package,
+ * which decide what its globs return. Entries are written as build files are parsed, and read the
+ * first time a build file is asked for that is not in memory.
+ * <p>
+ * Entries record the files they were parsed from, and the hashes of those files and the listings
+ * of the packages are kept in memory for as long as the daemon runs, so that build files sharing
+ * includes don't hash them over and over. Watchman events tell which of those to drop, just as
+ * they do for the parsed nodes themselves.
+ */
+class PersistentRawNodeCache {
+
+  private static final Logger LOG = Logger.get(PersistentRawNodeCache.class);
+
+  private static final String FORMAT_VERSION = "2";
+  private static final ImmutableSet<String> PARSER_CONFIG_SECTIONS =
+      ImmutableSet.of("buildfile", "parser", "project", "repositories");
+  // A file modified this close to the start of a parse may have changed after buck.py read it
+  // without its timestamp telling, given coarse file system timestamps.
+  private static final long RACY_MODIFICATION_WINDOW_MILLIS = 1000L;
+
+  private static final String FINGERPRINT_KEY = "fingerprint";
+  private static final String INPUTS_KEY = "inputs";
+  private static final String NODES_KEY = "nodes";
+
+  // Keyed by absolute path.
+  private final ConcurrentMap<Path, Sha1HashCode> inputHashes = new ConcurrentHashMap<>();
+  // Keyed by absolute path of the package directory.
+  private final ConcurrentMap<Path, HashCode> packageListings = new ConcurrentHashMap<>();
+  // Bumped on every invalidation, so that what was read from disk before an invalidation is not
+  // remembered after it.
+  private final AtomicLong generation = new AtomicLong();
+
+  public boolean isEnabled(Cell cell) {
+    return cell.getBuckConfig().getView(ParserConfig.class).getEnablePersistentCache();
+  }
+
+  /**
+   * @return the raw nodes, including meta rules, last parsed from {@code buildFile}, if parsing it
+   *     again would give the same result.
+   */
+  @SuppressWarnings("unchecked")
+  public Optional<ImmutableSet<Map<String, Object>>> lookup(Cell cell, Path buildFile) {
+    ProjectFilesystem filesystem = cell.getFilesystem();
+    try (InputStream in = filesystem.newFileInputStream(getEntryPath(cell, buildFile))) {
+      Map<String, Object> entry = (Map<String, Object>)
+          new BserDeserializer(BserDeserializer.KeyOrdering.SORTED).deserializeBserValue(in);
+      if (entry == null ||
+          !(entry.get(NODES_KEY) instanceof List) ||
+          !(entry.get(INPUTS_KEY) instanceof List)) {
+        return Optional.empty();
+      }
+      List<Map<String, Object>> rawNodes = (List<Map<String, Object>>) entry.get(NODES_KEY);
+      SortedSet<Path> inputs = new TreeSet<>();
+      for (String input : (List<String>) entry.get(INPUTS_KEY)) {
+        inputs.add(buildFile.getFileSystem().getPath(input));
+      }
+      Optional<String> fingerprint = computeFingerprint(
+          cell,
+          buildFile,
+          inputs,
+          rawNodes,
+          /* parseStartMillis */ Long.MAX_VALUE);
+      if (!fingerprint.isPresent() || !fingerprint.get().equals(entry.get(FINGERPRINT_KEY))) {
+        LOG.verbose("Persisted raw nodes of %s are out of date.", buildFile);
+        return Optional.empty();
+      }
+      return Optional.of(ImmutableSet.copyOf(rawNodes));
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    } catch (IOException | ClassCastException | InvalidPathException e) {
+      LOG.debug(e, "Could not read persisted raw nodes of %s.", buildFile);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Persists the raw nodes, including meta rules, that parsing {@code buildFile} gave, unless one
+   * of its inputs was modified around the time buck.py read it.
+   */
+  public void store(
+      Cell cell,
+      Path buildFile,
+      ImmutableSet<Map<String, Object>> rawNodes,
+      long parseStartMillis) {
+    ProjectFilesystem filesystem = cell.getFilesystem();
+    try {
+      SortedSet<Path> inputs = getInputs(cell, buildFile, rawNodes);
+      Optional<String> fingerprint =
+          computeFingerprint(cell, buildFile, inputs, rawNodes, parseStartMillis);
+      if (!fingerprint.isPresent()) {
+        LOG.verbose("Not persisting raw nodes of %s, its inputs changed while parsing.", buildFile);
+        return;
+      }
+
+      Path entryPath = getEntryPath(cell, buildFile);
+      filesystem.mkdirs(entryPath.getParent());
+      Path tmp = filesystem.createTempFile(
+          entryPath.getParent(),
+          entryPath.getFileName().toString(),
+          ".tmp");
+      try {
+        try (OutputStream out = filesystem.newFileOutputStream(tmp)) {
+          new BserSerializer().serializeToStream(
+              ImmutableMap.of(
+                  FINGERPRINT_KEY, fingerprint.get(),
+                  INPUTS_KEY, inputs.stream().map(Path::toString).collect(Collectors.toList()),
+                  NODES_KEY, rawNodes),
+              out);
+        }
+        filesystem.move(tmp, entryPath, StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        filesystem.deleteFileAtPathIfExists(tmp);
+      }
+    } catch (IOException e) {
+      LOG.debug(e, "Could not persist raw nodes of %s.", buildFile);
+    }
+  }
+
+  /**
+   * Forgets what is remembered about the file at {@code path}, which must be absolute, and, if it
+   * was added or removed, about the packages it may belong to.
+   */
+  public void invalidatePath(Path path, boolean createdOrDeleted) {
+    generation.incrementAndGet();
+    inputHashes.remove(path);
+    if (createdOrDeleted) {
+      // Without package boundaries, a package's listing covers everything below it.
+      for (Path dir = path.getParent(); dir != null; dir = dir.getParent()) {
+        packageListings.remove(dir);
+      }
+    }
+  }
+
+  public void invalidateAll() {
+    generation.incrementAndGet();
+    inputHashes.clear();
+    packageListings.clear();
+  }
+
+  private Path getEntryPath(Cell cell, Path buildFile) {
+    return cell.getFilesystem().getBuckPaths().getBuckOut()
+        .resolve("parser_cache")
+        .resolve(Hashing.sha1().hashString(buildFile.toString(), Charsets.UTF_8).toString());
+  }
+
+  /**
+   * @return the build file and the files it included.
+   */
+  @SuppressWarnings("unchecked")
+  private static SortedSet<Path> getInputs(
+      Cell cell,
+      Path buildFile,
+      Iterable<Map<String, Object>> rawNodes) {
+    SortedSet<Path> inputs = new TreeSet<>();
+    inputs.add(buildFile);
+    for (String include : cell.getBuckConfig().getView(ParserConfig.class).getDefaultIncludes()) {
+      inputs.add(cell.getFilesystem().resolve(include.substring(2)));
+    }
+    for (Map<String, Object> rawNode : rawNodes) {
+      if (rawNode.containsKey(DaemonicParserState.INCLUDES_META_RULE)) {
+        for (String include : (List<String>) rawNode.get(DaemonicParserState.INCLUDES_META_RULE)) {
+          inputs.add(cell.getFilesystem().resolve(include));
+        }
+      }
+    }
+    return inputs;
+  }
+
+  /**
+   * @return a hash of everything that went into parsing {@code buildFile}, or nothing if any of its
+   *     inputs is missing or was modified after {@code parseStartMillis}, give or take the racy
+   *     modification window.
+   */
+  @SuppressWarnings("unchecked")
+  private Optional<String> computeFingerprint(
+      Cell cell,
+      Path buildFile,
+      SortedSet<Path> inputs,
+      Iterable<Map<String, Object>> rawNodes,
+      long parseStartMillis) throws IOException {
+    long racyModificationMillis = parseStartMillis == Long.MAX_VALUE ?
+        Long.MAX_VALUE :
+        parseStartMillis - RACY_MODIFICATION_WINDOW_MILLIS;
+    BuckConfig buckConfig = cell.getBuckConfig();
+    Hasher hasher = Hashing.sha1().newHasher();
+    putString(hasher, FORMAT_VERSION);
+    putString(hasher, BuckVersion.getVersion());
+    putString(hasher, buildFile.toString());
+    for (String section : PARSER_CONFIG_SECTIONS) {
+      putMap(hasher, buckConfig.getEntriesForSection(section));
+    }
+    putString(
+        hasher,
+        String.valueOf(buckConfig.getView(ParserConfig.class).getAllowEmptyGlobs()));
+    putMap(hasher, buckConfig.getFilteredEnvironment());
+
+    for (Map<String, Object> rawNode : rawNodes) {
+      if (rawNode.containsKey(DaemonicParserState.CONFIGS_META_RULE)) {
+        // Hash the values the build file would read now, not the ones it read back then.
+        Map<String, Map<String, Object>> configs =
+            (Map<String, Map<String, Object>>) rawNode.get(DaemonicParserState.CONFIGS_META_RULE);
+        for (Map.Entry<String, Map<String, Object>> section :
+            ImmutableSortedMap.copyOf(configs).entrySet()) {
+          for (String key : ImmutableSortedMap.copyOf(section.getValue()).keySet()) {
+            putString(hasher, section.getKey());
+            putString(hasher, key);
+            putString(hasher, buckConfig.getValue(section.getKey(), key).orElse("\0"));
+          }
+        }
+      }
+    }
+
+    for (Path input : inputs) {
+      Optional<Sha1HashCode> inputHash = hashInput(cell, input, racyModificationMillis);
+      if (!inputHash.isPresent()) {
+        return Optional.empty();
+      }
+      putString(hasher, input.toString());
+      inputHash.get().update(hasher);
+    }
+
+    Optional<HashCode> listing = listPackage(cell, buildFile.getParent(), racyModificationMillis);
+    if (!listing.isPresent()) {
+      return Optional.empty();
+    }
+    hasher.putBytes(listing.get().asBytes());
+
+    return Optional.of(hasher.hash().toString());
+  }
+
+  /**
+   * @return the hash of the contents of {@code input}, or nothing if it is missing or was modified
+   *     after {@code racyModificationMillis}.
+   */
+  private Optional<Sha1HashCode> hashInput(
+      Cell cell,
+      Path input,
+      long racyModificationMillis) throws IOException {
+    Sha1HashCode hash = inputHashes.get(input);
+    if (hash != null) {
+      return Optional.of(hash);
+    }
+    long generation = this.generation.get();
+    BasicFileAttributes attrs;
+    try {
+      attrs = Files.readAttributes(input, BasicFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    }
+    if (attrs.lastModifiedTime().toMillis() >= racyModificationMillis) {
+      return Optional.empty();
+    }
+    hash = cell.getFilesystem().computeSha1(input);
+    remember(inputHashes, input, hash, generation);
+    return Optional.of(hash);
+  }
+
+  /**
+   * @return a hash of the names of everything in the package at {@code packageDir}, or nothing if
+   *     it was modified after {@code racyModificationMillis}.
+   */
+  private Optional<HashCode> listPackage(
+      Cell cell,
+      Path packageDir,
+      long racyModificationMillis) throws IOException {
+    HashCode listingHash = packageListings.get(packageDir);
+    if (listingHash != null) {
+      return Optional.of(listingHash);
+    }
+    long generation = this.generation.get();
+    PackageListing listing = new PackageListing(cell, packageDir, racyModificationMillis);
+    Files.walkFileTree(packageDir, listing);
+    if (listing.modifiedDuringParse) {
+      return Optional.empty();
+    }
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (String entry : listing.entries) {
+      putString(hasher, entry);
+    }
+    listingHash = hasher.hash();
+    remember(packageListings, packageDir, listingHash, generation);
+    return Optional.of(listingHash);
+  }
+
+  /**
+   * Remembers a value read from disk, unless something was invalidated since {@code generation}
+   * was obtained, in which case the value may already be stale.
+   */
+  private synchronized <V> void remember(
+      ConcurrentMap<Path, V> values,
+      Path path,
+      V value,
+      long generation) {
+    if (generation == this.generation.get()) {
+      values.put(path, value);
+    }
+  }
+
+  private static void putString(Hasher hasher, String value) {
+    hasher.putString(value, Charsets.UTF_8);
+    hasher.putByte((byte) 0);
+  }
+
+  private static void putMap(Hasher hasher, ImmutableMap<String, String> map) {
+    for (Map.Entry<String, String> entry : ImmutableSortedMap.copyOf(map).entrySet()) {
+      putString(hasher, entry.getKey());
+      putString(hasher, entry.getValue());
+    }
+    hasher.putByte((byte) 0);
+  }
+
+  /**
+   * Collects the names of everything in a package that its globs might match, stopping at nested
+   * packages when package boundaries are enforced, as that's where the daemon stops invalidating
+   * too.
+   */
+  private static class PackageListing extends SimpleFileVisitor<Path> {
+    private final ProjectFilesystem filesystem;
+    private final Path packageDir;
+    private final String buildFileName;
+    private final boolean enforcingPackageBoundaries;
+    private final long racyModificationMillis;
+    private final SortedSet<String> entries = new TreeSet<>();
+    private boolean modifiedDuringParse = false;
+
+    private PackageListing(Cell cell, Path packageDir, long racyModificationMillis) {
+      this.filesystem = cell.getFilesystem();
+      this.packageDir = packageDir;
+      this.buildFileName = cell.getBuildFileName();
+      this.enforcingPackageBoundaries = cell.isEnforcingBuckPackageBoundaries();
+      this.racyModificationMillis = racyModificationMillis;
+    }
+
+    @Override
+    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+      if (!dir.equals(packageDir)) {
+        if (filesystem.isIgnored(filesystem.getRootPath().relativize(dir))) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        entries.add(packageDir.relativize(dir) + "/");
+        if (enforcingPackageBoundaries && Files.isRegularFile(dir.resolve(buildFileName))) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+      }
+      // Adding or removing a file changes the modification time of its directory.
+      if (attrs.lastModifiedTime().toMillis() >= racyModificationMillis) {
+        modifiedDuringParse = true;
+        return FileVisitResult.TERMINATE;
+      }
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+      entries.add(packageDir.relativize(file).toString());
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFileFailed(Path file, IOException exc) {
+      entries.add(packageDir.relativize(file) + "!");
+      return FileVisitResult.CONTINUE;
+    }
+  }
+}
@@ -54,11 +54,16 @@ import javax.annotation.concurrent.GuardedBy;
  * requested the associated 'requests' are queued up in the parserRequests field. As soon as
  * a parser is returned it will be used to satisfy the first pending request, otherwise it
  * is stored in the parkedParsers queue.
+ *
+ * Parsers which can have several requests in flight at once are lent to up to
+ * maxRequestsPerParser requests, and stay at the head of the parkedParsers queue until they are
+ * lent to that many.
  */
 class ProjectBuildFileParserPool implements AutoCloseable {
   private static final Logger LOG = Logger.get(ProjectBuildFileParserPool.class);
 
   private final int maxParsersPerCell;
+  private final int maxRequestsPerParser;
   @GuardedBy("this")
   private final Function<Cell, ProjectBuildFileParser> parserFactory;
   @GuardedBy("this")
@@ -67,6 +72,8 @@ class ProjectBuildFileParserPool implements AutoCloseable {
   private final Map<Cell, Deque<ProjectBuildFileParser>> parkedParsers;
   @GuardedBy("this")
   private final Map<Cell, Deque<SettableFuture<Void>>> parserRequests;
+  @GuardedBy("this")
+  private final Map<ProjectBuildFileParser, Integer> activeRequests;
   private final AtomicBoolean closing;
   @GuardedBy("this")
   private final Set<ListenableFuture<?>> pendingWork;
@@ -78,13 +85,28 @@ class ProjectBuildFileParserPool implements AutoCloseable {
   public ProjectBuildFileParserPool(
       int maxParsersPerCell,
       Function<Cell, ProjectBuildFileParser> parserFactory) {
+    this(maxParsersPerCell, 1, parserFactory);
+  }
+
+  /**
+   * @param maxParsersPerCell maximum number of parsers to create for a single cell.
+   * @param maxRequestsPerParser maximum number of requests a single parser handles at once.
+   * @param parserFactory function used to create a new parser.
+   */
+  public ProjectBuildFileParserPool(
+      int maxParsersPerCell,
+      int maxRequestsPerParser,
+      Function<Cell, ProjectBuildFileParser> parserFactory) {
     Preconditions.checkArgument(maxParsersPerCell > 0);
+    Preconditions.checkArgument(maxRequestsPerParser > 0);
 
     this.maxParsersPerCell = maxParsersPerCell;
+    this.maxRequestsPerParser = maxRequestsPerParser;
     this.parserFactory = parserFactory;
     this.createdParsers = ArrayListMultimap.create();
     this.parkedParsers = new HashMap<>();
     this.parserRequests = new HashMap<>();
+    this.activeRequests = new HashMap<>();
     this.closing = new AtomicBoolean(false);
     this.pendingWork = new HashSet<>();
   }
@@ -192,26 +214,48 @@ class ProjectBuildFileParserPool implements AutoCloseable {
       return Optional.empty();
     }
     Deque<ProjectBuildFileParser> parserQueue = getParkedParserQueue(cell);
-    ProjectBuildFileParser parser = parserQueue.pollFirst();
-    if (parser != null) {
-      return Optional.of(parser);
+    ProjectBuildFileParser parser = parserQueue.peekFirst();
+    if (parser == null) {
+      Optional<ProjectBuildFileParser> createdParser = createIfAllowed(cell);
+      if (!createdParser.isPresent()) {
+        return Optional.empty();
+      }
+      parser = createdParser.get();
+      parserQueue.addFirst(parser);
+    }
+    int requests = activeRequests.getOrDefault(parser, 0) + 1;
+    activeRequests.put(parser, requests);
+    if (requests >= maxRequestsPerParser) {
+      parserQueue.removeFirst();
     }
-    return createIfAllowed(cell);
+    return Optional.of(parser);
   }
 
   private synchronized void returnParser(
       Cell cell,
       ProjectBuildFileParser parser,
-      boolean parserIsDefunct) {
+      boolean hadErrorDuringParsing) {
+    int requests = activeRequests.get(parser) - 1;
+    if (requests == 0) {
+      activeRequests.remove(parser);
+    } else {
+      activeRequests.put(parser, requests);
+    }
+    Deque<ProjectBuildFileParser> parkedParsersQueue = getParkedParserQueue(cell);
+    // A parser handling a single request at a time may be left in any state by an error. One
+    // handling several only reports errors in the build files it parses, unless it died.
+    boolean parserIsDefunct = hadErrorDuringParsing &&
+        (maxRequestsPerParser == 1 || parser.isDefunct());
     if (parserIsDefunct) {
-      createdParsers.remove(cell, parser);
-      try {
-        parser.close();
-      } catch (Exception e) {
-        LOG.info(e, "Error shutting down a defunct parser.");
+      parkedParsersQueue.remove(parser);
+      if (createdParsers.remove(cell, parser)) {
+        try {
+          parser.close();
+        } catch (Exception e) {
+          LOG.info(e, "Error shutting down a defunct parser.");
+        }
       }
-    } else {
-      Deque<ProjectBuildFileParser> parkedParsersQueue = getParkedParserQueue(cell);
+    } else if (!parkedParsersQueue.contains(parser) && createdParsers.containsEntry(cell, parser)) {
       parkedParsersQueue.add(parser);
     }
     scheduleNextRequest(cell);
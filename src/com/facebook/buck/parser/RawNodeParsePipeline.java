@@ -36,14 +36,17 @@ public class RawNodeParsePipeline extends ParsePipeline<Map<String, Object>> {
   private final PipelineNodeCache<Path, ImmutableSet<Map<String, Object>>> cache;
   private final ListeningExecutorService executorService;
   private final ProjectBuildFileParserPool projectBuildFileParserPool;
+  private final PersistentRawNodeCache persistentCache;
 
   public RawNodeParsePipeline(
       Cache<Path, ImmutableSet<Map<String, Object>>> cache,
+      PersistentRawNodeCache persistentCache,
       ProjectBuildFileParserPool projectBuildFileParserPool,
       ListeningExecutorService executorService) {
     super();
     this.executorService = executorService;
     this.cache = new PipelineNodeCache<>(cache);
+    this.persistentCache = persistentCache;
     this.projectBuildFileParserPool = projectBuildFileParserPool;
   }
 
@@ -94,10 +97,35 @@ public class RawNodeParsePipeline extends ParsePipeline<Map<String, Object>> {
             return Futures.immediateCancelledFuture();
           }
 
-          return projectBuildFileParserPool.getAllRulesAndMetaRules(
-              cell,
-              buildFile,
-              executorService);
+          if (!persistentCache.isEnabled(cell)) {
+            return projectBuildFileParserPool.getAllRulesAndMetaRules(
+                cell,
+                buildFile,
+                executorService);
+          }
+
+          // Checking whether the persisted nodes are still good means hashing files, so do it on
+          // the executor rather than on the thread asking for the nodes.
+          return Futures.transformAsync(
+              executorService.submit(() -> persistentCache.lookup(cell, buildFile)),
+              persistedRawNodes -> {
+                if (persistedRawNodes.isPresent()) {
+                  return Futures.immediateFuture(persistedRawNodes.get());
+                }
+                return parseAndPersist(cell, buildFile);
+              });
+        });
+  }
+
+  private ListenableFuture<ImmutableSet<Map<String, Object>>> parseAndPersist(
+      final Cell cell,
+      final Path buildFile) {
+    final long parseStartMillis = System.currentTimeMillis();
+    return Futures.transformAsync(
+        projectBuildFileParserPool.getAllRulesAndMetaRules(cell, buildFile, executorService),
+        rawNodes -> {
+          persistentCache.store(cell, buildFile, rawNodes, parseStartMillis);
+          return Futures.immediateFuture(rawNodes);
         });
   }
 
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.util.immutables.BuckStyleTuple;
+import com.google.common.base.Preconditions;
+
+import org.immutables.value.Value;
+
+/**
+ * How the {@link CachingBuildEngine} batches the artifact cache fetches of rules that are ready
+ * at the same time.
+ */
+@Value.Immutable
+@BuckStyleTuple
+abstract class AbstractCacheFetchBatchingInfo {
+
+  public static final CacheFetchBatchingInfo NO_BATCHING = CacheFetchBatchingInfo.of(1, 1);
+
+  /**
+   * @return the most rule keys to send to the cache in one request.
+   */
+  public abstract int getMaxBatchSize();
+
+  /**
+   * @return how many batches may be fetched at the same time.
+   */
+  public abstract int getMaxInFlightBatches();
+
+  public boolean isBatchingEnabled() {
+    return getMaxBatchSize() > 1;
+  }
+
+  @Value.Check
+  protected void check() {
+    Preconditions.checkState(getMaxBatchSize() > 0);
+    Preconditions.checkState(getMaxInFlightBatches() > 0);
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.util.immutables.BuckStyleTuple;
+import com.google.common.base.Preconditions;
+
+import org.immutables.value.Value;
+
+import java.util.Optional;
+
+/**
+ * How the {@link CachingBuildEngine} downloads artifacts from the cache ahead of the rules that
+ * need them being scheduled.
+ */
+@Value.Immutable
+@BuckStyleTuple
+abstract class AbstractCachePrefetchInfo {
+
+  public static final CachePrefetchInfo DISABLED = CachePrefetchInfo.of(0, Optional.empty());
+
+  /**
+   * @return how many artifacts may be prefetched at the same time, 0 disables prefetching.
+   */
+  public abstract int getMaxConcurrentPrefetches();
+
+  /**
+   * @return the rate, in bytes per second, above which prefetched artifacts are throttled.
+   */
+  public abstract Optional<Long> getMaxBytesPerSecond();
+
+  public boolean isPrefetchEnabled() {
+    return getMaxConcurrentPrefetches() > 0;
+  }
+
+  @Value.Check
+  protected void check() {
+    Preconditions.checkState(getMaxConcurrentPrefetches() >= 0);
+    Preconditions.checkState(getMaxBytesPerSecond().orElse(1L) > 0);
+  }
+}
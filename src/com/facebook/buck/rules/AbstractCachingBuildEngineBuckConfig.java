@@ -15,6 +15,7 @@
  */
 package com.facebook.buck.rules;
 
+import com.facebook.buck.artifact_cache.ArtifactCacheBuckConfig;
 import com.facebook.buck.cli.BuckConfig;
 import com.facebook.buck.config.ConfigView;
 import com.facebook.buck.util.immutables.BuckStyleTuple;
@@ -68,6 +69,24 @@ abstract class AbstractCachingBuildEngineBuckConfig implements ConfigView<BuckCo
         .orElse(Long.MAX_VALUE);
   }
 
+  /**
+   * @return how to batch the artifact cache fetches of rules that are ready at the same time.
+   */
+  public CacheFetchBatchingInfo getCacheFetchBatchingInfo() {
+    return CacheFetchBatchingInfo.of(
+        new ArtifactCacheBuckConfig(getDelegate()).getFetchBatchSize(),
+        getDelegate().getInteger("build", "cache_fetch_max_in_flight_batches").orElse(4));
+  }
+
+  /**
+   * @return how to download artifacts from the cache before their rules are scheduled.
+   */
+  public CachePrefetchInfo getCachePrefetchInfo() {
+    return CachePrefetchInfo.of(
+        getDelegate().getInteger("build", "cache_prefetch_max_concurrency").orElse(0),
+        getDelegate().getLong("build", "cache_prefetch_max_bytes_per_second"));
+  }
+
   public ResourceAwareSchedulingInfo getResourceAwareSchedulingInfo() {
     return ResourceAwareSchedulingInfo.of(
         getDelegate().isResourceAwareSchedulingEnabled(),
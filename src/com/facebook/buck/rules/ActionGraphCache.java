@@ -29,17 +29,26 @@ import com.facebook.buck.parser.NoSuchBuildTargetException;
 import com.facebook.buck.rules.keys.ContentAgnosticRuleKeyBuilderFactory;
 import com.facebook.buck.util.HumanReadableException;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.MapDifference;
 import com.google.common.collect.Maps;
 import com.google.common.eventbus.Subscribe;
 
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 /**
  * Class that transforms {@link TargetGraph} to {@link ActionGraph}. It also holds a cache for the
@@ -48,8 +57,17 @@ import javax.annotation.Nullable;
 public class ActionGraphCache {
   private static final Logger LOG = Logger.get(ActionGraphCache.class);
 
+  /**
+   * Reused rules keep the resolvers they were created with, and so everything those refer to, so
+   * the action graph is built from scratch again after this many incremental updates.
+   */
+  private static final int MAX_INCREMENTAL_UPDATES = 16;
+
   @Nullable
+  @GuardedBy("this")
   private Pair<TargetGraph, ActionGraphAndResolver> lastActionGraph;
+  @GuardedBy("this")
+  private int incrementalUpdates;
   private BroadcastEventListener broadcastEventListener;
 
   public ActionGraphCache(BroadcastEventListener broadcastEventListener) {
@@ -69,33 +87,73 @@ public class ActionGraphCache {
       final boolean checkActionGraphs,
       final TargetGraph targetGraph,
       int keySeed) {
+    return getActionGraph(eventBus, checkActionGraphs, false, 1, targetGraph, keySeed);
+  }
+
+  /**
+   * Like {@link #getActionGraph(BuckEventBus, boolean, TargetGraph, int)}, but if
+   * {@code incremental} is set and the {@code targetGraph} differs from the cached one, the rules
+   * of targets which did not change, and whose deps did not either, are carried over from the
+   * cached action graph rather than created again.
+   * @param parallelism how many threads create the rules of a new action graph. Rules are created
+   *     once all the rules of their deps are.
+   */
+  public synchronized ActionGraphAndResolver getActionGraph(
+      final BuckEventBus eventBus,
+      final boolean checkActionGraphs,
+      final boolean incremental,
+      final int parallelism,
+      final TargetGraph targetGraph,
+      int keySeed) {
     ActionGraphEvent.Started started = ActionGraphEvent.started();
     eventBus.post(started);
+    ActionGraphAndResolver actionGraph;
     try {
       if (lastActionGraph != null && lastActionGraph.getFirst().equals(targetGraph)) {
         eventBus.post(ActionGraphEvent.Cache.hit());
         LOG.info("ActionGraph cache hit.");
+        actionGraph = lastActionGraph.getSecond();
         if (checkActionGraphs) {
-          compareActionGraphs(eventBus, lastActionGraph.getSecond(), targetGraph, keySeed);
+          compareActionGraphs(eventBus, actionGraph, targetGraph, keySeed);
         }
       } else {
         eventBus.post(ActionGraphEvent.Cache.miss());
+        ImmutableList<BuildRule> unchangedRules = ImmutableList.of();
+        Optional<BuildRuleResolver> previousResolver = Optional.empty();
         if (lastActionGraph == null) {
           LOG.info("ActionGraph cache miss. Cache was empty.");
+        } else if (incremental && incrementalUpdates < MAX_INCREMENTAL_UPDATES) {
+          previousResolver = Optional.of(lastActionGraph.getSecond().getResolver());
+          unchangedRules = UnchangedBuildRules.find(
+              lastActionGraph.getFirst(),
+              previousResolver.get(),
+              targetGraph);
+          LOG.info(
+              "ActionGraph cache miss. TargetGraphs mismatched, reusing %d unchanged rules.",
+              unchangedRules.size());
         } else {
           LOG.info("ActionGraph cache miss. TargetGraphs mismatched.");
         }
-        lastActionGraph = new Pair<TargetGraph, ActionGraphAndResolver>(
+        incrementalUpdates = unchangedRules.isEmpty() ? 0 : incrementalUpdates + 1;
+        // The previous resolver forwards to the new one once rules are carried over, so it must
+        // not be used as the cached one again if creating the new action graph fails.
+        lastActionGraph = null;
+        actionGraph = createActionGraph(
+            eventBus,
+            new DefaultTargetNodeToBuildRuleTransformer(),
             targetGraph,
-            createActionGraph(
-                eventBus,
-                new DefaultTargetNodeToBuildRuleTransformer(),
-                targetGraph));
+            unchangedRules,
+            unchangedRules.isEmpty() ? Optional.empty() : previousResolver,
+            parallelism);
+        lastActionGraph = new Pair<TargetGraph, ActionGraphAndResolver>(targetGraph, actionGraph);
+        if (checkActionGraphs && (!unchangedRules.isEmpty() || parallelism > 1)) {
+          compareActionGraphs(eventBus, actionGraph, targetGraph, keySeed);
+        }
       }
     } finally {
       eventBus.post(ActionGraphEvent.finished(started));
     }
-    return lastActionGraph.getSecond();
+    return actionGraph;
   }
 
   /**
@@ -128,7 +186,14 @@ public class ActionGraphCache {
     ActionGraphEvent.Started started = ActionGraphEvent.started();
     eventBus.post(started);
 
-    ActionGraphAndResolver actionGraph = createActionGraph(eventBus, transformer, targetGraph);
+    ActionGraphAndResolver actionGraph =
+        createActionGraph(
+            eventBus,
+            transformer,
+            targetGraph,
+            ImmutableList.of(),
+            Optional.empty(),
+            1);
 
     eventBus.post(ActionGraphEvent.finished(started));
     return actionGraph;
@@ -137,28 +202,39 @@ public class ActionGraphCache {
   private static ActionGraphAndResolver createActionGraph(
       final BuckEventBus eventBus,
       TargetNodeToBuildRuleTransformer transformer,
-      TargetGraph targetGraph) {
+      TargetGraph targetGraph,
+      ImmutableList<BuildRule> unchangedRules,
+      Optional<BuildRuleResolver> previousResolver,
+      int parallelism) {
     final BuildRuleResolver resolver = new BuildRuleResolver(targetGraph, transformer, eventBus);
+    // Rules already in the index are returned as they are when required.
+    resolver.addAllToIndex(unchangedRules);
+    // The unchanged rules still refer to the resolver they were created with.
+    previousResolver.ifPresent(previous -> previous.forwardTo(resolver));
 
     final int numberOfNodes = targetGraph.getNodes().size();
     final AtomicInteger processedNodes = new AtomicInteger(0);
+    Consumer<TargetNode<?>> requireRule = node -> {
+      try {
+        resolver.requireRule(node.getBuildTarget());
+      } catch (NoSuchBuildTargetException e) {
+        throw new HumanReadableException(e);
+      }
+      eventBus.post(ActionGraphEvent.processed(
+          processedNodes.incrementAndGet(),
+          numberOfNodes));
+    };
 
-    AbstractBottomUpTraversal<TargetNode<?>, RuntimeException> bottomUpTraversal =
-        new AbstractBottomUpTraversal<TargetNode<?>, RuntimeException>(targetGraph) {
-
-          @Override
-          public void visit(TargetNode<?> node) {
-            try {
-              resolver.requireRule(node.getBuildTarget());
-            } catch (NoSuchBuildTargetException e) {
-              throw new HumanReadableException(e);
-            }
-            eventBus.post(ActionGraphEvent.processed(
-                processedNodes.incrementAndGet(),
-                numberOfNodes));
-          }
-        };
-    bottomUpTraversal.traverse();
+    if (parallelism > 1) {
+      requireRulesInParallel(targetGraph, requireRule, parallelism);
+    } else {
+      new AbstractBottomUpTraversal<TargetNode<?>, RuntimeException>(targetGraph) {
+        @Override
+        public void visit(TargetNode<?> node) {
+          requireRule.accept(node);
+        }
+      }.traverse();
+    }
 
     return ActionGraphAndResolver.builder()
         .setActionGraph(new ActionGraph(resolver.getBuildRules()))
@@ -166,6 +242,66 @@ public class ActionGraphCache {
         .build();
   }
 
+  /**
+   * Calls {@code requireRule} for every node of {@code targetGraph} on a fork-join pool, each once
+   * it was called for all the deps of the node, so that independent parts of the graph are
+   * transformed at the same time.
+   */
+  private static void requireRulesInParallel(
+      TargetGraph targetGraph,
+      final Consumer<TargetNode<?>> requireRule,
+      int parallelism) {
+    final Map<TargetNode<?>, RequireRuleAction> actions = new HashMap<>();
+    final List<RequireRuleAction> bottomUpActions = new ArrayList<>();
+    new AbstractBottomUpTraversal<TargetNode<?>, RuntimeException>(targetGraph) {
+      @Override
+      public void visit(TargetNode<?> node) {
+        List<RequireRuleAction> depActions = new ArrayList<>();
+        for (TargetNode<?> dep : targetGraph.getOutgoingNodesFor(node)) {
+          depActions.add(Preconditions.checkNotNull(actions.get(dep)));
+        }
+        RequireRuleAction action = new RequireRuleAction(node, depActions, requireRule);
+        actions.put(node, action);
+        bottomUpActions.add(action);
+      }
+    }.traverse();
+
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      for (RequireRuleAction action : bottomUpActions) {
+        pool.execute(action);
+      }
+      for (RequireRuleAction action : bottomUpActions) {
+        action.join();
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private static class RequireRuleAction extends RecursiveAction {
+    private final TargetNode<?> node;
+    private final List<RequireRuleAction> depActions;
+    private final Consumer<TargetNode<?>> requireRule;
+
+    private RequireRuleAction(
+        TargetNode<?> node,
+        List<RequireRuleAction> depActions,
+        Consumer<TargetNode<?>> requireRule) {
+      this.node = node;
+      this.depActions = depActions;
+      this.requireRule = requireRule;
+    }
+
+    @Override
+    protected void compute() {
+      for (RequireRuleAction depAction : depActions) {
+        depAction.join();
+      }
+      requireRule.accept(node);
+    }
+  }
+
   private static Map<BuildRule, RuleKey> getRuleKeysFromBuildRules(
       Iterable<BuildRule> buildRules,
       BuildRuleResolver buildRuleResolver,
@@ -207,7 +343,10 @@ public class ActionGraphCache {
               createActionGraph(
                   eventBus,
                   new DefaultTargetNodeToBuildRuleTransformer(),
-                  targetGraph));
+                  targetGraph,
+                  ImmutableList.of(),
+                  Optional.empty(),
+                  1));
 
       Map<BuildRule, RuleKey> lastActionGraphRuleKeys = getRuleKeysFromBuildRules(
           lastActionGraphAndResolver.getActionGraph().getNodes(),
@@ -255,12 +394,12 @@ public class ActionGraphCache {
     }
   }
 
-  private void invalidateCache() {
+  private synchronized void invalidateCache() {
     lastActionGraph = null;
   }
 
   @VisibleForTesting
-  boolean isEmpty() {
+  synchronized boolean isEmpty() {
     return lastActionGraph == null;
   }
 }
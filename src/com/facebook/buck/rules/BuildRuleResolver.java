@@ -53,8 +53,16 @@ public class BuildRuleResolver {
   private final BuckEventBus eventBus;
 
   private final ConcurrentHashMap<BuildTarget, BuildRule> buildRuleIndex;
+  private final ConcurrentHashMap<BuildTarget, Object> ruleCreationLocks;
   private final LoadingCache<Pair<BuildTarget, Class<?>>, Optional<?>> metadataCache;
 
+  /**
+   * The resolver of the action graph this one's rules were carried over into, if any, which then
+   * answers in place of this one.
+   */
+  @Nullable
+  private volatile BuildRuleResolver successor;
+
   public BuildRuleResolver(
       TargetGraph targetGraph,
       TargetNodeToBuildRuleTransformer buildRuleGenerator) {
@@ -69,6 +77,7 @@ public class BuildRuleResolver {
     this.buildRuleGenerator = buildRuleGenerator;
     this.eventBus = eventBus;
     this.buildRuleIndex = new ConcurrentHashMap<>();
+    this.ruleCreationLocks = new ConcurrentHashMap<>();
     this.metadataCache = CacheBuilder.newBuilder()
         .build(
             new CacheLoader<Pair<BuildTarget, Class<?>>, Optional<?>>() {
@@ -106,6 +115,10 @@ public class BuildRuleResolver {
    * @return an unmodifiable view of the rules in the index
    */
   public Iterable<BuildRule> getBuildRules() {
+    BuildRuleResolver successor = this.successor;
+    if (successor != null) {
+      return successor.getBuildRules();
+    }
     return Iterables.unmodifiableIterable(buildRuleIndex.values());
   }
 
@@ -120,29 +133,97 @@ public class BuildRuleResolver {
    * Returns the {@link BuildRule} with the {@code buildTarget}.
    */
   public BuildRule getRule(BuildTarget buildTarget) {
+    BuildRuleResolver successor = this.successor;
+    if (successor != null) {
+      return successor.getRule(buildTarget);
+    }
     return fromNullable(buildTarget, buildRuleIndex.get(buildTarget));
   }
 
   public Optional<BuildRule> getRuleOptional(BuildTarget buildTarget) {
+    BuildRuleResolver successor = this.successor;
+    if (successor != null) {
+      return successor.getRuleOptional(buildTarget);
+    }
     return Optional.ofNullable(buildRuleIndex.get(buildTarget));
   }
 
+  /**
+   * Returns the {@link BuildRule} with the {@code target}, creating it from its target node if it
+   * is not in the index yet. This may be called from several threads at once, in which case each
+   * rule is still only created once, as creating a rule may add others to the index.
+   */
   public BuildRule requireRule(BuildTarget target) throws NoSuchBuildTargetException {
+    BuildRuleResolver successor = this.successor;
+    if (successor != null) {
+      return successor.requireRule(target);
+    }
     BuildRule rule = buildRuleIndex.get(target);
     if (rule != null) {
       return rule;
     }
-    TargetNode<?> node = targetGraph.get(target);
-    rule = buildRuleGenerator.transform(targetGraph, this, node);
-    BuildRule oldRule = buildRuleIndex.put(target, rule);
-    Preconditions.checkState(
-        oldRule == null || oldRule.equals(rule),
-        "Race condition while requiring rule for target '%s':\n" +
-            "created rule '%s' does not match existing rule '%s'.",
-        target,
-        rule,
-        oldRule);
-    return rule;
+    synchronized (getRuleCreationLock(target)) {
+      rule = buildRuleIndex.get(target);
+      if (rule != null) {
+        return rule;
+      }
+      TargetNode<?> node = targetGraph.get(target);
+      rule = buildRuleGenerator.transform(targetGraph, this, node);
+      BuildRule oldRule = buildRuleIndex.put(target, rule);
+      Preconditions.checkState(
+          oldRule == null || oldRule.equals(rule),
+          "Race condition while requiring rule for target '%s':\n" +
+              "created rule '%s' does not match existing rule '%s'.",
+          target,
+          rule,
+          oldRule);
+      return rule;
+    }
+  }
+
+  /**
+   * Returns the {@link BuildRule} with the {@code target} if it is in the index, or else adds the
+   * one {@code creator} creates for it. Like {@link #requireRule(BuildTarget)}, this may be called
+   * from several threads at once, and the rule is still only created once. Descriptions which
+   * create rules that others may have created already should use this, rather than checking the
+   * index before adding to it.
+   */
+  public <T extends BuildRule, E extends Exception> T computeIfAbsent(
+      BuildTarget target,
+      Class<T> cls,
+      RuleCreator<? extends T, E> creator) throws E {
+    BuildRuleResolver successor = this.successor;
+    if (successor != null) {
+      return successor.computeIfAbsent(target, cls, creator);
+    }
+    Optional<T> rule = getRuleOptionalWithType(target, cls);
+    if (rule.isPresent()) {
+      return rule.get();
+    }
+    synchronized (getRuleCreationLock(target)) {
+      rule = getRuleOptionalWithType(target, cls);
+      if (rule.isPresent()) {
+        return rule.get();
+      }
+      T newRule = creator.create(target);
+      Preconditions.checkState(
+          newRule.getBuildTarget().equals(target),
+          "Created rule '%s' for target '%s'.",
+          newRule,
+          target);
+      // Creators may have added the rule themselves.
+      return addToIndex(newRule);
+    }
+  }
+
+  /**
+   * The lock held while the rule of {@code target} is created. Locks are kept for as long as the
+   * resolver, so that a rule whose creation failed is not created by two threads at once
+   * afterwards. Rules only wait for the locks of the rules they depend on, so there are no
+   * cycles to deadlock on.
+   */
+  private Object getRuleCreationLock(BuildTarget target) {
+    return ruleCreationLocks.computeIfAbsent(target, key -> new Object());
   }
 
   public ImmutableSortedSet<BuildRule> requireAllRules(Iterable<BuildTarget> buildTargets)
@@ -157,6 +238,10 @@ public class BuildRuleResolver {
   @SuppressWarnings("unchecked")
   public <T> Optional<T> requireMetadata(BuildTarget target, Class<T> metadataClass)
       throws NoSuchBuildTargetException {
+    BuildRuleResolver successor = this.successor;
+    if (successor != null) {
+      return successor.requireMetadata(target, metadataClass);
+    }
     try {
       return (Optional<T>) metadataCache.get(
           new Pair<BuildTarget, Class<?>>(target, metadataClass));
@@ -170,6 +255,10 @@ public class BuildRuleResolver {
   public <T> Optional<T> getRuleOptionalWithType(
       BuildTarget buildTarget,
       Class<T> cls) {
+    BuildRuleResolver successor = this.successor;
+    if (successor != null) {
+      return successor.getRuleOptionalWithType(buildTarget, cls);
+    }
     BuildRule rule = buildRuleIndex.get(buildTarget);
     if (rule != null) {
       if (cls.isInstance(rule)) {
@@ -203,6 +292,10 @@ public class BuildRuleResolver {
    */
   @VisibleForTesting
   public <T extends BuildRule> T addToIndex(T buildRule) {
+    BuildRuleResolver successor = this.successor;
+    if (successor != null) {
+      return successor.addToIndex(buildRule);
+    }
     BuildRule oldValue = buildRuleIndex.put(buildRule.getBuildTarget(), buildRule);
     // Yuck! This is here to make it possible for a rule to depend on a flavor of itself but it
     // would be much much better if we just got rid of the BuildRuleResolver entirely.
@@ -225,6 +318,31 @@ public class BuildRuleResolver {
 
   @Nullable
   public BuckEventBus getEventBus() {
+    BuildRuleResolver successor = this.successor;
+    if (successor != null) {
+      return successor.getEventBus();
+    }
     return eventBus;
   }
+
+  /**
+   * Makes this resolver answer everything from {@code successor} from now on. Rules carried over
+   * from this resolver into the action graph {@code successor} resolves keep a reference to this
+   * one, and some call it again later, for example to require a flavor of their target on behalf
+   * of a dependent, which must then find and add rules in the new action graph.
+   */
+  void forwardTo(BuildRuleResolver successor) {
+    Preconditions.checkState(this.successor == null, "Resolver was already forwarded.");
+    Preconditions.checkArgument(successor != this);
+    this.successor = successor;
+  }
+
+  /**
+   * Creates the rule of a target which is not in the index yet.
+   *
+   * @see #computeIfAbsent(BuildTarget, Class, RuleCreator)
+   */
+  public interface RuleCreator<T extends BuildRule, E extends Exception> {
+    T create(BuildTarget target) throws E;
+  }
 }
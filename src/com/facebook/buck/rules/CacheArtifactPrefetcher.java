@@ -0,0 +1,275 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.io.LazyPath;
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads artifacts from the cache as soon as their rule keys are known, rather than when the
+ * {@link CachingBuildEngine} gets around to checking the cache for their rules. The downloaded
+ * zips are only staged: the engine claims them and unzips them when it actually schedules the
+ * rule, so prefetching an artifact that turns out not to be needed only costs bandwidth.
+ * <p>
+ * At most {@code maxConcurrentPrefetches} downloads run at a time, those closest to the build's
+ * top-level rules first, as a cache hit for a rule means the artifacts of its deps are not needed.
+ * If a bandwidth budget is configured, downloads are slowed down to it as their bytes arrive, on
+ * the threads of {@code service}, which should therefore not be the build's own.
+ */
+class CacheArtifactPrefetcher {
+
+  private static final Logger LOG = Logger.get(CacheArtifactPrefetcher.class);
+
+  private final ListeningExecutorService service;
+  private final int maxConcurrentPrefetches;
+  private final Optional<RateLimiter> bandwidthLimiter;
+
+  // Every artifact that was queued for prefetching and not claimed or discarded yet.
+  private final ConcurrentMap<RuleKey, StagedArtifact> stagedArtifacts = Maps.newConcurrentMap();
+
+  private final AtomicLong queuedArtifactCount = new AtomicLong();
+
+  // Guarded by this. Closest to the top-level rules first, then in the order they were queued.
+  private final Queue<StagedArtifact> queuedArtifacts = new PriorityQueue<>(
+      Comparator.<StagedArtifact>comparingInt(artifact -> artifact.distanceFromTop)
+          .thenComparingLong(artifact -> artifact.queuedOrder));
+  private int runningPrefetches = 0;
+
+  CacheArtifactPrefetcher(ListeningExecutorService service, CachePrefetchInfo cachePrefetchInfo) {
+    this.service = service;
+    this.maxConcurrentPrefetches = cachePrefetchInfo.getMaxConcurrentPrefetches();
+    this.bandwidthLimiter = cachePrefetchInfo.getMaxBytesPerSecond().map(RateLimiter::create);
+  }
+
+  /**
+   * Queues the artifact for {@code ruleKey} to be downloaded into {@code output}, unless it has
+   * been queued already.
+   *
+   * @param distanceFromTop how many dependency edges the rule is away from the build's top-level
+   *     rules, the closest of which are downloaded first.
+   */
+  public void prefetch(
+      RuleKey ruleKey,
+      LazyPath output,
+      ArtifactCache artifactCache,
+      int distanceFromTop) {
+    StagedArtifact artifact = new StagedArtifact(
+        ruleKey,
+        bandwidthLimiter.isPresent() ? new RateLimitedLazyPath(output, bandwidthLimiter.get()) :
+            output,
+        artifactCache,
+        distanceFromTop,
+        queuedArtifactCount.getAndIncrement());
+    if (stagedArtifacts.putIfAbsent(ruleKey, artifact) != null) {
+      return;
+    }
+    synchronized (this) {
+      queuedArtifacts.add(artifact);
+    }
+    startQueuedPrefetches();
+  }
+
+  /**
+   * Takes ownership of the prefetched artifact for {@code ruleKey}. Nothing is returned if the
+   * artifact was never queued, or if its download had not started yet, in which case it never
+   * will and the caller is expected to fetch the artifact itself.
+   */
+  public Optional<StagedArtifact> claim(RuleKey ruleKey) {
+    StagedArtifact artifact = stagedArtifacts.remove(ruleKey);
+    if (artifact == null || artifact.started.compareAndSet(false, true)) {
+      return Optional.empty();
+    }
+    return Optional.of(artifact);
+  }
+
+  /**
+   * Deletes every artifact that was prefetched but never claimed, and cancels the queued ones.
+   */
+  public void discardStagedArtifacts() {
+    for (RuleKey ruleKey : ImmutableList.copyOf(stagedArtifacts.keySet())) {
+      final StagedArtifact artifact = stagedArtifacts.remove(ruleKey);
+      if (artifact == null || artifact.started.compareAndSet(false, true)) {
+        continue;
+      }
+      artifact.result.addListener(artifact::delete, MoreExecutors.directExecutor());
+    }
+  }
+
+  @VisibleForTesting
+  int getStagedArtifactCount() {
+    return stagedArtifacts.size();
+  }
+
+  private void startQueuedPrefetches() {
+    while (true) {
+      final StagedArtifact artifact;
+      synchronized (this) {
+        if (runningPrefetches >= maxConcurrentPrefetches || queuedArtifacts.isEmpty()) {
+          return;
+        }
+        artifact = queuedArtifacts.remove();
+        runningPrefetches++;
+      }
+      try {
+        service.submit(
+            () -> {
+              try {
+                download(artifact);
+              } finally {
+                synchronized (CacheArtifactPrefetcher.this) {
+                  runningPrefetches--;
+                }
+                startQueuedPrefetches();
+              }
+            });
+      } catch (RejectedExecutionException e) {
+        // The build is shutting down, the engine will fetch whatever it still needs.
+        synchronized (this) {
+          runningPrefetches--;
+        }
+        return;
+      }
+    }
+  }
+
+  private void download(StagedArtifact artifact) {
+    if (!artifact.started.compareAndSet(false, true)) {
+      // Claimed or discarded before we got to it.
+      return;
+    }
+
+    CacheResult result;
+    try {
+      result = artifact.artifactCache.fetch(artifact.ruleKey, artifact.output);
+    } catch (Throwable t) {
+      LOG.error(t, "Buck internal error when prefetching from the cache.");
+      result = CacheResult.error("unknown", String.valueOf(t.getMessage()));
+    }
+    artifact.result.set(result);
+  }
+
+  /**
+   * A path whose writers are held back so that, together with every other prefetch, they don't
+   * write faster than {@code limiter} allows. As caches write artifacts as they download them,
+   * this slows the downloads down too. Only the prefetches write to these paths, so only the
+   * prefetch threads wait for permits.
+   */
+  private static class RateLimitedLazyPath extends LazyPath {
+    private final LazyPath delegate;
+    private final RateLimiter limiter;
+
+    private RateLimitedLazyPath(LazyPath delegate, RateLimiter limiter) {
+      this.delegate = delegate;
+      this.limiter = limiter;
+    }
+
+    @Override
+    protected Path create() throws IOException {
+      return delegate.get();
+    }
+
+    @Override
+    public OutputStream wrapOutputStream(OutputStream sink) {
+      return new FilterOutputStream(delegate.wrapOutputStream(sink)) {
+        @Override
+        public void write(int b) throws IOException {
+          limiter.acquire();
+          out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          if (len > 0) {
+            limiter.acquire(len);
+          }
+          out.write(b, off, len);
+        }
+      };
+    }
+  }
+
+  /**
+   * An artifact that is, or will be, downloaded into the staging area.
+   */
+  static class StagedArtifact {
+    private final RuleKey ruleKey;
+    private final LazyPath output;
+    private final ArtifactCache artifactCache;
+    private final int distanceFromTop;
+    private final long queuedOrder;
+    // Set by whoever gets to the artifact first: the download, or a claim or discard which
+    // happened before the download started, and so prevents it.
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final SettableFuture<CacheResult> result = SettableFuture.create();
+
+    private StagedArtifact(
+        RuleKey ruleKey,
+        LazyPath output,
+        ArtifactCache artifactCache,
+        int distanceFromTop,
+        long queuedOrder) {
+      this.ruleKey = ruleKey;
+      this.output = output;
+      this.artifactCache = artifactCache;
+      this.distanceFromTop = distanceFromTop;
+      this.queuedOrder = queuedOrder;
+    }
+
+    public LazyPath getOutput() {
+      return output;
+    }
+
+    public ListenableFuture<CacheResult> getResult() {
+      return result;
+    }
+
+    private void delete() {
+      try {
+        if (result.get().getType() == CacheResultType.HIT) {
+          Files.deleteIfExists(output.getUnchecked());
+        }
+      } catch (Exception e) {
+        LOG.debug(e, "Could not delete prefetched artifact for %s.", ruleKey);
+      }
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package com.facebook.buck.rules;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.BatchingArtifactCacheDecorator;
 import com.facebook.buck.artifact_cache.ArtifactInfo;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
@@ -54,6 +55,7 @@ import com.facebook.buck.util.OptionalCompat;
 import com.facebook.buck.util.cache.DefaultFileHashCache;
 import com.facebook.buck.util.cache.FileHashCache;
 import com.facebook.buck.util.concurrent.MoreFutures;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.concurrent.ResourceAmounts;
 import com.facebook.buck.util.concurrent.WeightedListeningExecutorService;
 import com.facebook.buck.zip.Unzip;
@@ -98,6 +100,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -105,6 +108,10 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -161,6 +168,14 @@ public class CachingBuildEngine implements BuildEngine {
   private final LoadingCache<ProjectFilesystem, FileHashCache> fileHashCaches;
   private final LoadingCache<ProjectFilesystem, RuleKeyFactories> ruleKeyFactories;
   private final ResourceAwareSchedulingInfo resourceAwareSchedulingInfo;
+  private final CacheFetchBatchingInfo cacheFetchBatchingInfo;
+  private final LoadingCache<ArtifactCache, ArtifactCache> batchingArtifactCaches;
+  private final Optional<CacheArtifactPrefetcher> cacheArtifactPrefetcher;
+  private final LoadingCache<ProjectFilesystem, RuleDurationHistory> ruleDurationHistories;
+  private final CriticalPathPriorities criticalPathPriorities;
+  // The number of build() calls in progress. Once the last of them finishes, unclaimed prefetched
+  // artifacts are discarded and the recorded rule durations are saved.
+  private final AtomicInteger activeBuilds = new AtomicInteger(0);
 
   public CachingBuildEngine(
       CachingBuildEngineDelegate cachingBuildEngineDelegate,
@@ -174,7 +189,9 @@ public class CachingBuildEngine implements BuildEngine {
       ObjectMapper objectMapper,
       final BuildRuleResolver resolver,
       final int keySeed,
-      ResourceAwareSchedulingInfo resourceAwareSchedulingInfo) {
+      ResourceAwareSchedulingInfo resourceAwareSchedulingInfo,
+      CacheFetchBatchingInfo cacheFetchBatchingInfo,
+      CachePrefetchInfo cachePrefetchInfo) {
     this.cachingBuildEngineDelegate = cachingBuildEngineDelegate;
 
     this.ruleDeps = new RuleDepsCache(service);
@@ -202,6 +219,11 @@ public class CachingBuildEngine implements BuildEngine {
           }
         });
     this.resourceAwareSchedulingInfo = resourceAwareSchedulingInfo;
+    this.cacheFetchBatchingInfo = cacheFetchBatchingInfo;
+    this.batchingArtifactCaches = createBatchingArtifactCaches(cacheFetchBatchingInfo);
+    this.cacheArtifactPrefetcher = createCacheArtifactPrefetcher(cachePrefetchInfo);
+    this.ruleDurationHistories = createRuleDurationHistories(this.objectMapper);
+    this.criticalPathPriorities = new CriticalPathPriorities(this::getEstimatedDurationMillis);
   }
 
   /**
@@ -218,7 +240,9 @@ public class CachingBuildEngine implements BuildEngine {
       Optional<Long> artifactCacheSizeLimit,
       SourcePathResolver pathResolver,
       final Function<? super ProjectFilesystem, RuleKeyFactories> ruleKeyFactoriesFunction,
-      ResourceAwareSchedulingInfo resourceAwareSchedulingInfo) {
+      ResourceAwareSchedulingInfo resourceAwareSchedulingInfo,
+      CacheFetchBatchingInfo cacheFetchBatchingInfo,
+      CachePrefetchInfo cachePrefetchInfo) {
     this.cachingBuildEngineDelegate = cachingBuildEngineDelegate;
 
     this.ruleDeps = new RuleDepsCache(service);
@@ -242,6 +266,11 @@ public class CachingBuildEngine implements BuildEngine {
           }
         });
     this.resourceAwareSchedulingInfo = resourceAwareSchedulingInfo;
+    this.cacheFetchBatchingInfo = cacheFetchBatchingInfo;
+    this.batchingArtifactCaches = createBatchingArtifactCaches(cacheFetchBatchingInfo);
+    this.cacheArtifactPrefetcher = createCacheArtifactPrefetcher(cachePrefetchInfo);
+    this.ruleDurationHistories = createRuleDurationHistories(this.objectMapper);
+    this.criticalPathPriorities = new CriticalPathPriorities(this::getEstimatedDurationMillis);
   }
 
   /**
@@ -257,6 +286,75 @@ public class CachingBuildEngine implements BuildEngine {
     return service;
   }
 
+  /**
+   * The artifact cache comes with each build context, so batching is set up lazily for every
+   * cache the engine encounters.
+   */
+  private static LoadingCache<ArtifactCache, ArtifactCache> createBatchingArtifactCaches(
+      final CacheFetchBatchingInfo cacheFetchBatchingInfo) {
+    return CacheBuilder.newBuilder()
+        .weakKeys()
+        .build(new CacheLoader<ArtifactCache, ArtifactCache>() {
+          @Override
+          public ArtifactCache load(@Nonnull ArtifactCache artifactCache) {
+            return new BatchingArtifactCacheDecorator(
+                artifactCache,
+                cacheFetchBatchingInfo.getMaxBatchSize(),
+                cacheFetchBatchingInfo.getMaxInFlightBatches());
+          }
+        });
+  }
+
+  private Optional<CacheArtifactPrefetcher> createCacheArtifactPrefetcher(
+      CachePrefetchInfo cachePrefetchInfo) {
+    if (!cachePrefetchInfo.isPrefetchEnabled()) {
+      return Optional.empty();
+    }
+    // Prefetches get threads of their own, which wait for the bandwidth budget and the network
+    // without holding up the build, and which go away when there is nothing to prefetch.
+    int threadCount = cachePrefetchInfo.getMaxConcurrentPrefetches();
+    MostExecutors.NamedThreadFactory namedThreadFactory =
+        new MostExecutors.NamedThreadFactory("cache-prefetch");
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        /* corePoolSize */ threadCount,
+        /* maximumPoolSize */ threadCount,
+        /* keepAliveTime */ 10L, TimeUnit.SECONDS,
+        /* workQueue */ new LinkedBlockingQueue<>(),
+        /* threadFactory */ runnable -> {
+          Thread thread = namedThreadFactory.newThread(runnable);
+          thread.setDaemon(true);
+          return thread;
+        });
+    executor.allowCoreThreadTimeOut(true);
+    return Optional.of(
+        new CacheArtifactPrefetcher(
+            MoreExecutors.listeningDecorator(executor),
+            cachePrefetchInfo));
+  }
+
+  private static LoadingCache<ProjectFilesystem, RuleDurationHistory> createRuleDurationHistories(
+      final ObjectMapper objectMapper) {
+    return CacheBuilder.newBuilder()
+        .build(new CacheLoader<ProjectFilesystem, RuleDurationHistory>() {
+          @Override
+          public RuleDurationHistory load(@Nonnull ProjectFilesystem filesystem) {
+            return RuleDurationHistory.load(filesystem, objectMapper);
+          }
+        });
+  }
+
+  private long getEstimatedDurationMillis(BuildRule rule) {
+    return ruleDurationHistories.getUnchecked(rule.getProjectFilesystem())
+        .getEstimatedDurationMillis(rule);
+  }
+
+  private void saveRuleDurationHistories() {
+    for (Map.Entry<ProjectFilesystem, RuleDurationHistory> entry :
+         ruleDurationHistories.asMap().entrySet()) {
+      entry.getValue().save(entry.getKey(), objectMapper);
+    }
+  }
+
   private static Optional<UnskippedRulesTracker> createUnskippedRulesTracker(
       BuildMode buildMode,
       RuleDepsCache ruleDeps,
@@ -298,16 +396,22 @@ public class CachingBuildEngine implements BuildEngine {
       ConcurrentLinkedQueue<ListenableFuture<Void>> asyncCallbacks) {
     List<ListenableFuture<BuildResult>> depResults =
         Lists.newArrayListWithExpectedSize(rule.getDeps().size());
-    for (BuildRule dep : shuffled(rule.getDeps())) {
+    for (BuildRule dep : byDescendingPriority(rule.getDeps())) {
       depResults.add(
           getBuildRuleResultWithRuntimeDeps(dep, buildContext, executionContext, asyncCallbacks));
     }
     return Futures.allAsList(depResults);
   }
 
-  private static List<BuildRule> shuffled(Iterable<BuildRule> rules) {
+  /**
+   * Deps on the critical path are dispatched first, and the others in random order, as before
+   * priorities were known.
+   */
+  private List<BuildRule> byDescendingPriority(Iterable<BuildRule> rules) {
     ArrayList<BuildRule> rulesList = Lists.newArrayList(rules);
     Collections.shuffle(rulesList);
+    rulesList.sort(
+        Comparator.comparingLong(criticalPathPriorities::getPriority).reversed());
     return rulesList;
   }
 
@@ -337,18 +441,24 @@ public class CachingBuildEngine implements BuildEngine {
                 buildContext.getEventBus(),
                 rule,
                 ruleKeyFactory.defaultRuleKeyBuilderFactory)) {
+              long startNanos = buildContext.getClock().nanoTime();
               executeCommandsNowThatDepsAreBuilt(
                   rule,
                   buildContext,
                   executionContext,
                   buildableContext);
+              ruleDurationHistories.getUnchecked(rule.getProjectFilesystem()).recordDuration(
+                  rule,
+                  TimeUnit.NANOSECONDS.toMillis(
+                      buildContext.getClock().nanoTime() - startNanos));
               return BuildResult.success(
                   rule,
                   BuildRuleSuccessType.BUILT_LOCALLY,
                   cacheResult);
             }
           },
-          getRuleResourceAmounts(rule));
+          getRuleResourceAmounts(rule),
+          criticalPathPriorities.getPriority(rule));
     };
   }
 
@@ -464,7 +574,6 @@ public class CachingBuildEngine implements BuildEngine {
 
     final RuleKeyFactories ruleKeyFactory =
         ruleKeyFactories.getUnchecked(rule.getProjectFilesystem());
-    final CacheResult cacheResult;
 
     try (BuildRuleEvent.Scope scope =
              BuildRuleEvent.resumeSuspendScope(
@@ -486,7 +595,74 @@ public class CachingBuildEngine implements BuildEngine {
                     CacheResult.localKeyUnchangedHit())));
       }
 
-      // 2. Rule key cache lookup.
+      // 2. Rule key cache lookup. If the artifact is being prefetched, wait for its download to
+      // finish without holding on to a build thread.
+      Optional<CacheArtifactPrefetcher.StagedArtifact> prefetched =
+          cacheArtifactPrefetcher.flatMap(prefetcher -> prefetcher.claim(defaultRuleKey));
+      if (prefetched.isPresent()) {
+        return Futures.transformAsync(
+            prefetched.get().getResult(),
+            ruleAsyncFunction(
+                rule,
+                buildContext.getEventBus(),
+                prefetchResult -> fetchOrBuildRule(
+                    rule,
+                    buildContext,
+                    executionContext,
+                    onDiskBuildInfo,
+                    buildInfoRecorder,
+                    buildableContext,
+                    asyncCallbacks,
+                    ruleKeyFactory,
+                    defaultRuleKey,
+                    prefetched)),
+            serviceByAdjustingDefaultWeightsTo(CACHE_CHECK_RESOURCE_AMOUNTS));
+      }
+      return fetchOrBuildRule(
+          rule,
+          buildContext,
+          executionContext,
+          onDiskBuildInfo,
+          buildInfoRecorder,
+          buildableContext,
+          asyncCallbacks,
+          ruleKeyFactory,
+          defaultRuleKey,
+          Optional.empty());
+    }
+  }
+
+  /**
+   * Looks the rule up in the cache by its rule key and, if that misses, builds its deps and then
+   * the rule itself. Errors in prefetching the artifact are retried, in case the cache has
+   * recovered since.
+   */
+  private ListenableFuture<BuildResult> fetchOrBuildRule(
+      final BuildRule rule,
+      final BuildEngineBuildContext buildContext,
+      final ExecutionContext executionContext,
+      final OnDiskBuildInfo onDiskBuildInfo,
+      final BuildInfoRecorder buildInfoRecorder,
+      final BuildableContext buildableContext,
+      final ConcurrentLinkedQueue<ListenableFuture<Void>> asyncCallbacks,
+      final RuleKeyFactories ruleKeyFactory,
+      final RuleKey defaultRuleKey,
+      Optional<CacheArtifactPrefetcher.StagedArtifact> prefetched) {
+    // The download of a prefetched artifact has finished by the time we get here.
+    Optional<CacheResult> prefetchedResult =
+        prefetched.map(artifact -> Futures.getUnchecked(artifact.getResult()));
+    final CacheResult cacheResult;
+    if (prefetchedResult.isPresent() &&
+        prefetchedResult.get().getType() != CacheResultType.ERROR) {
+      cacheResult = unzipArtifactFromCacheResult(
+          rule,
+          defaultRuleKey,
+          prefetched.get().getOutput(),
+          /* alreadyUnzipped */ false,
+          buildContext,
+          rule.getProjectFilesystem(),
+          prefetchedResult.get());
+    } else {
       cacheResult = tryToFetchArtifactFromBuildCacheAndOverlayOnTopOfProjectFilesystem(
           rule,
           defaultRuleKey,
@@ -495,48 +671,48 @@ public class CachingBuildEngine implements BuildEngine {
           // TODO(shs96c): This should be a shared between all tests, not one per cell
           rule.getProjectFilesystem(),
           buildContext);
+    }
 
-      if (cacheResult.getType().isSuccess()) {
-        return Futures.transform(
-            markRuleAsUsed(rule, buildContext.getEventBus()), Functions.constant(
-                BuildResult.success(
-                    rule,
-                    BuildRuleSuccessType.FETCHED_FROM_CACHE,
-                    cacheResult)));
-      }
+    if (cacheResult.getType().isSuccess()) {
+      return Futures.transform(
+          markRuleAsUsed(rule, buildContext.getEventBus()), Functions.constant(
+              BuildResult.success(
+                  rule,
+                  BuildRuleSuccessType.FETCHED_FROM_CACHE,
+                  cacheResult)));
+    }
 
-      // 3. Build deps.
-      ListenableFuture<List<BuildResult>> getDepResults =
-          Futures.transformAsync(
-              getDepResults(rule, buildContext, executionContext, asyncCallbacks),
-              input -> Futures.transform(
-                  markRuleAsUsed(rule, buildContext.getEventBus()),
-                  Functions.constant(input)),
-              serviceByAdjustingDefaultWeightsTo(SCHEDULING_MORE_WORK_RESOURCE_AMOUNTS));
+    // 3. Build deps.
+    ListenableFuture<List<BuildResult>> getDepResults =
+        Futures.transformAsync(
+            getDepResults(rule, buildContext, executionContext, asyncCallbacks),
+            input -> Futures.transform(
+                markRuleAsUsed(rule, buildContext.getEventBus()),
+                Functions.constant(input)),
+            serviceByAdjustingDefaultWeightsTo(SCHEDULING_MORE_WORK_RESOURCE_AMOUNTS));
 
-      // 4. Return to the current rule and check caches to see if we can avoid building
-      // locally.
-      AsyncFunction<List<BuildResult>, Optional<BuildResult>> checkCachesCallback =
-          checkCaches(rule, buildContext, onDiskBuildInfo, buildInfoRecorder, ruleKeyFactory);
+    // 4. Return to the current rule and check caches to see if we can avoid building
+    // locally.
+    AsyncFunction<List<BuildResult>, Optional<BuildResult>> checkCachesCallback =
+        checkCaches(rule, buildContext, onDiskBuildInfo, buildInfoRecorder, ruleKeyFactory);
 
-      ListenableFuture<Optional<BuildResult>> checkCachesResult =
-          Futures.transformAsync(
-              getDepResults,
-              ruleAsyncFunction(rule, buildContext.getEventBus(), checkCachesCallback),
-              serviceByAdjustingDefaultWeightsTo(CACHE_CHECK_RESOURCE_AMOUNTS));
-
-      // 5. Build the current rule locally, if we have to.
-      return Futures.transformAsync(
-          checkCachesResult,
-          buildLocally(
-              rule,
-              buildContext,
-              executionContext,
-              ruleKeyFactory,
-              buildableContext,
-              cacheResult),
-          serviceByAdjustingDefaultWeightsTo(SCHEDULING_MORE_WORK_RESOURCE_AMOUNTS));
-    }
+    ListenableFuture<Optional<BuildResult>> checkCachesResult =
+        Futures.transformAsync(
+            getDepResults,
+            ruleAsyncFunction(rule, buildContext.getEventBus(), checkCachesCallback),
+            serviceByAdjustingDefaultWeightsTo(CACHE_CHECK_RESOURCE_AMOUNTS));
+
+    // 5. Build the current rule locally, if we have to.
+    return Futures.transformAsync(
+        checkCachesResult,
+        buildLocally(
+            rule,
+            buildContext,
+            executionContext,
+            ruleKeyFactory,
+            buildableContext,
+            cacheResult),
+        serviceByAdjustingDefaultWeightsTo(SCHEDULING_MORE_WORK_RESOURCE_AMOUNTS));
   }
 
   private boolean verifyRecordedPathHashes(
@@ -1133,6 +1309,7 @@ public class CachingBuildEngine implements BuildEngine {
       }
     }
     Futures.getUnchecked(Futures.allAsList(results.build()));
+    criticalPathPriorities.compute(rules);
     return seen.size();
   }
 
@@ -1166,13 +1343,20 @@ public class CachingBuildEngine implements BuildEngine {
           new Function<List<RuleKey>, RuleKey>() {
             @Override
             public RuleKey apply(List<RuleKey> input) {
+              RuleKey defaultRuleKey;
               try (BuildRuleEvent.Scope scope =
                        BuildRuleEvent.startSuspendScope(
                            context.getEventBus(),
                            rule,
                            keyFactories.defaultRuleKeyBuilderFactory)) {
-                return keyFactories.defaultRuleKeyBuilderFactory.build(rule);
+                defaultRuleKey = keyFactories.defaultRuleKeyBuilderFactory.build(rule);
+              }
+              // Start downloading the artifact now, rather than once the rule's dependents find
+              // they need it.
+              if (cacheArtifactPrefetcher.isPresent()) {
+                prefetchArtifact(cacheArtifactPrefetcher.get(), rule, defaultRuleKey, context);
               }
+              return defaultRuleKey;
             }
           },
           serviceByAdjustingDefaultWeightsTo(RULE_KEY_COMPUTATION_RESOURCE_AMOUNTS));
@@ -1184,6 +1368,27 @@ public class CachingBuildEngine implements BuildEngine {
     return ruleKey;
   }
 
+  private void prefetchArtifact(
+      CacheArtifactPrefetcher prefetcher,
+      BuildRule rule,
+      RuleKey defaultRuleKey,
+      BuildEngineBuildContext context) {
+    if (!rule.isCacheable()) {
+      return;
+    }
+    OnDiskBuildInfo onDiskBuildInfo =
+        context.createOnDiskBuildInfoFor(rule.getBuildTarget(), rule.getProjectFilesystem());
+    if (defaultRuleKey.equals(
+            onDiskBuildInfo.getRuleKey(BuildInfo.METADATA_KEY_FOR_RULE_KEY).orElse(null))) {
+      return;
+    }
+    prefetcher.prefetch(
+        defaultRuleKey,
+        createLazyZipPath(rule),
+        getArtifactCacheForFetches(context.getArtifactCache()),
+        criticalPathPriorities.getDistanceFromTop(rule));
+  }
+
   @Override
   public ListenableFuture<BuildResult> build(
       BuildEngineBuildContext buildContext,
@@ -1193,16 +1398,30 @@ public class CachingBuildEngine implements BuildEngine {
     // to make sure we wait for these before calling yielding the final build result.
     final ConcurrentLinkedQueue<ListenableFuture<Void>> asyncCallbacks =
         new ConcurrentLinkedQueue<>();
+    // Builds which did not count their rules first still get their rules prioritized.
+    if (!criticalPathPriorities.hasPriority(rule)) {
+      criticalPathPriorities.compute(ImmutableList.of(rule));
+    }
     ListenableFuture<BuildResult> resultFuture = MoreFutures.chainExceptions(
         registerTopLevelRule(rule, buildContext.getEventBus()),
         getBuildRuleResultWithRuntimeDeps(rule, buildContext, executionContext, asyncCallbacks),
         serviceByAdjustingDefaultWeightsTo(SCHEDULING_MORE_WORK_RESOURCE_AMOUNTS));
-    return Futures.transformAsync(
+    ListenableFuture<BuildResult> buildResult = Futures.transformAsync(
         resultFuture,
         result -> Futures.transform(
             Futures.allAsList(asyncCallbacks),
             Functions.constant(result)),
         serviceByAdjustingDefaultWeightsTo(SCHEDULING_MORE_WORK_RESOURCE_AMOUNTS));
+    activeBuilds.incrementAndGet();
+    buildResult.addListener(
+        () -> {
+          if (activeBuilds.decrementAndGet() == 0) {
+            cacheArtifactPrefetcher.ifPresent(CacheArtifactPrefetcher::discardStagedArtifacts);
+            saveRuleDurationHistories();
+          }
+        },
+        MoreExecutors.directExecutor());
+    return buildResult;
   }
 
   private CacheResult tryToFetchArtifactFromBuildCacheAndOverlayOnTopOfProjectFilesystem(
@@ -1217,36 +1436,50 @@ public class CachingBuildEngine implements BuildEngine {
       return CacheResult.ignored();
     }
 
-    // Create a temp file whose extension must be ".zip" for Filesystems.newFileSystem() to infer
-    // that we are creating a zip-based FileSystem.
-    final LazyPath lazyZipPath = new LazyPath() {
-      @Override
-      protected Path create() throws IOException {
-        return Files.createTempFile(
-            "buck_artifact_" + MoreFiles.sanitize(rule.getBuildTarget().getShortName()),
-            ".zip");
-      }
-    };
-
-    // TODO(bolinfest): Change ArtifactCache.fetch() so that it returns a File instead of takes one.
-    // Then we could download directly from the remote cache into the on-disk cache and unzip it
-    // from there.
+    // The artifact is unpacked while it downloads, and the zip is only kept around for the caches
+    // to store and, should unpacking along the way fail, to unzip it from. What was unpacked only
+    // replaces the rule's outputs once the cache has checked the artifact.
+    final UnzippingLazyPath lazyZipPath =
+        new UnzippingLazyPath(getArtifactTempFilePrefix(rule), filesystem);
     CacheResult cacheResult =
         fetchArtifactForBuildable(ruleKey, lazyZipPath, artifactCache, buildInfoRecorder);
+    boolean alreadyUnzipped = false;
+    if (cacheResult.getType().isSuccess()) {
+      alreadyUnzipped = lazyZipPath.moveUnzippedFilesIntoPlace();
+    } else {
+      lazyZipPath.deleteStagingDirectory();
+    }
 
     return unzipArtifactFromCacheResult(
                     rule,
                     ruleKey,
                     lazyZipPath,
+                    alreadyUnzipped,
                     buildContext,
                     filesystem,
                     cacheResult);
   }
 
+  private static String getArtifactTempFilePrefix(BuildRule rule) {
+    return "buck_artifact_" + MoreFiles.sanitize(rule.getBuildTarget().getShortName());
+  }
+
+  private static LazyPath createLazyZipPath(final BuildRule rule) {
+    // Create a temp file whose extension must be ".zip" for Filesystems.newFileSystem() to infer
+    // that we are creating a zip-based FileSystem.
+    return new LazyPath() {
+      @Override
+      protected Path create() throws IOException {
+        return Files.createTempFile(getArtifactTempFilePrefix(rule), ".zip");
+      }
+    };
+  }
+
   private CacheResult unzipArtifactFromCacheResult(
       BuildRule rule,
       RuleKey ruleKey,
       LazyPath lazyZipPath,
+      boolean alreadyUnzipped,
       BuildEngineBuildContext buildContext,
       ProjectFilesystem filesystem,
       CacheResult cacheResult) {
@@ -1274,10 +1507,12 @@ public class CachingBuildEngine implements BuildEngine {
         ImmutableSet.of(ruleKey));
     buildContext.getEventBus().post(started);
     try {
-      Unzip.extractZipFile(
-          zipPath.toAbsolutePath(),
-          filesystem,
-          Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+      if (!alreadyUnzipped) {
+        Unzip.extractZipFile(
+            zipPath.toAbsolutePath(),
+            filesystem,
+            Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+      }
 
       // We only delete the ZIP file when it has been unzipped successfully. Otherwise, we leave it
       // around for debugging purposes.
@@ -1321,7 +1556,18 @@ public class CachingBuildEngine implements BuildEngine {
       final LazyPath lazyZipPath,
       final ArtifactCache artifactCache,
       final BuildInfoRecorder buildInfoRecorder) {
-    return buildInfoRecorder.fetchArtifactForBuildable(ruleKey, lazyZipPath, artifactCache);
+    return buildInfoRecorder.fetchArtifactForBuildable(
+        ruleKey,
+        lazyZipPath,
+        getArtifactCacheForFetches(artifactCache));
+  }
+
+  private ArtifactCache getArtifactCacheForFetches(ArtifactCache artifactCache) {
+    // Rules tend to become ready for their cache checks in waves, so concurrent fetches are
+    // coalesced into batches instead of paying a round trip each.
+    return cacheFetchBatchingInfo.isBatchingEnabled() ?
+        batchingArtifactCaches.getUnchecked(artifactCache) :
+        artifactCache;
   }
 
 
@@ -237,6 +237,7 @@ public class Cell {
             .setRawConfig(getBuckConfig().getRawConfigForParser())
             .setEnableBuildFileSandboxing(parserConfig.getEnableBuildFileSandboxing())
             .setBuildFileImportWhitelist(parserConfig.getBuildFileImportWhitelist())
+            .setForkedWorkers(parserConfig.getBuildFileParserForks())
             .build());
   }
 
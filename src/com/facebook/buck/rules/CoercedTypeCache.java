@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.rules.coercer.TypeCoercerFactory;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import javax.annotation.Nullable;
+
+/**
+ * The {@link ParamInfo}s of constructor arg classes, computed once per class rather than for every
+ * target node. Computing them reads annotations and default values reflectively, binds accessors
+ * and picks type coercers, which is far more work than populating or traversing a constructor arg
+ * with them.
+ *
+ * Each cache belongs to whatever holds its {@link TypeCoercerFactory}, so it goes away with it.
+ */
+public class CoercedTypeCache {
+
+  private final LoadingCache<Class<?>, ClassParamInfo> classParamInfo;
+
+  public CoercedTypeCache(final TypeCoercerFactory typeCoercerFactory) {
+    this.classParamInfo = CacheBuilder.newBuilder()
+        .weakKeys()
+        .build(
+            new CacheLoader<Class<?>, ClassParamInfo>() {
+              @Override
+              public ClassParamInfo load(Class<?> argClass) {
+                ImmutableMap.Builder<Field, ParamInfo> byField = ImmutableMap.builder();
+                ImmutableList.Builder<ParamInfo> settable = ImmutableList.builder();
+                for (Field field : argClass.getFields()) {
+                  ParamInfo info = new ParamInfo(typeCoercerFactory, argClass, field);
+                  byField.put(field, info);
+                  if (!Modifier.isFinal(field.getModifiers())) {
+                    settable.add(info);
+                  }
+                }
+                return new ClassParamInfo(byField.build(), settable.build());
+              }
+            });
+  }
+
+  /**
+   * @return the {@link ParamInfo}s of all the public fields of {@code argClass}, in the order
+   *     {@link Class#getFields()} lists them.
+   */
+  public ImmutableCollection<ParamInfo> getAllParamInfo(Class<?> argClass) {
+    return getClassParamInfo(argClass).byField.values();
+  }
+
+  /**
+   * @return the {@link ParamInfo}s of the fields of {@code argClass} which can be set from build
+   *     files, that is its public fields which are not final.
+   */
+  public ImmutableCollection<ParamInfo> getSettableParamInfo(Class<?> argClass) {
+    return getClassParamInfo(argClass).settable;
+  }
+
+  /**
+   * @return the {@link ParamInfo} of the public field {@code name} of {@code argClass}, or null if
+   *     it has no such field.
+   */
+  @Nullable
+  public ParamInfo getParamInfo(Class<?> argClass, String name) {
+    Field field;
+    try {
+      field = argClass.getField(name);
+    } catch (NoSuchFieldException e) {
+      return null;
+    }
+    return getClassParamInfo(argClass).byField.get(field);
+  }
+
+  private ClassParamInfo getClassParamInfo(Class<?> argClass) {
+    try {
+      return classParamInfo.getUnchecked(argClass);
+    } catch (UncheckedExecutionException e) {
+      // Keep the exceptions thrown by bad constructor arg classes as they were.
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  private static class ClassParamInfo {
+    private final ImmutableMap<Field, ParamInfo> byField;
+    private final ImmutableList<ParamInfo> settable;
+
+    private ClassParamInfo(
+        ImmutableMap<Field, ParamInfo> byField,
+        ImmutableList<ParamInfo> settable) {
+      this.byField = byField;
+      this.settable = settable;
+    }
+  }
+}
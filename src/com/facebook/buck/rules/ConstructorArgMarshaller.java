@@ -21,18 +21,14 @@ import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.util.HumanReadableException;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableSet;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
 
 /**
  * Used to derive information from the constructor args returned by {@link Description} instances.
@@ -42,8 +38,7 @@ import java.util.concurrent.ExecutionException;
  */
 public class ConstructorArgMarshaller {
 
-  private final TypeCoercerFactory typeCoercerFactory;
-  private final Cache<Class<?>, ImmutableSet<ParamInfo>> coercedTypes;
+  private final CoercedTypeCache coercedTypes;
 
   /**
    * Constructor. {@code pathFromProjectRootToBuildFile} is the path relative to the project root to
@@ -52,8 +47,7 @@ public class ConstructorArgMarshaller {
    * instances to be fully qualified.
    */
   public ConstructorArgMarshaller(TypeCoercerFactory typeCoercerFactory) {
-    this.typeCoercerFactory = typeCoercerFactory;
-    this.coercedTypes = CacheBuilder.newBuilder().build();
+    this.coercedTypes = new CoercedTypeCache(typeCoercerFactory);
   }
 
   /**
@@ -172,26 +166,7 @@ public class ConstructorArgMarshaller {
     }
   }
 
-  ImmutableSet<ParamInfo> getAllParamInfo(Object dto) {
-    final Class<?> argClass = dto.getClass();
-    try {
-      return coercedTypes.get(argClass, () -> {
-        ImmutableSet.Builder<ParamInfo> allInfo = ImmutableSet.builder();
-
-        for (Field field : argClass.getFields()) {
-          if (Modifier.isFinal(field.getModifiers())) {
-            continue;
-          }
-          allInfo.add(new ParamInfo(typeCoercerFactory, argClass, field));
-        }
-
-        return allInfo.build();
-      });
-    } catch (ExecutionException e) {
-      // This gets thrown if we saw an error when loading the value. Nothing sane to do here, and
-      // we (previously, before using a cache), simply allowed a RuntimeException to bubble up.
-      // Maintain that behaviour.
-      throw new RuntimeException(e);
-    }
+  ImmutableCollection<ParamInfo> getAllParamInfo(Object dto) {
+    return coercedTypes.getSettableParamInfo(dto.getClass());
   }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.model.BuildTarget;
+import com.google.common.collect.Iterables;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * Scheduling priorities for build rules, so that the rules on the longest chain of work still
+ * ahead of the build start first.
+ * <p>
+ * The priority of a rule is its estimated remaining critical path: the longest total estimated
+ * duration of any chain of rules from it up to a top-level rule, itself included. Starting rules
+ * in that order keeps long poles, such as a large link or dex step, from being left until the
+ * end of the build with most cores idle.
+ * <p>
+ * The distance of each rule from the top-level rules, in dependency edges, is kept as well.
+ */
+class CriticalPathPriorities {
+
+  private final ToLongFunction<BuildRule> durationEstimator;
+  private final ConcurrentMap<BuildTarget, Long> priorities = new ConcurrentHashMap<>();
+  private final ConcurrentMap<BuildTarget, Integer> distancesFromTop = new ConcurrentHashMap<>();
+
+  CriticalPathPriorities(ToLongFunction<BuildRule> durationEstimator) {
+    this.durationEstimator = durationEstimator;
+  }
+
+  /**
+   * Computes the priorities of the given top-level rules and all their transitive deps, in time
+   * linear to the size of the graph. Rules which were already given a priority by an earlier call
+   * keep the higher of both, and the lower of both distances from the top.
+   */
+  void compute(Iterable<BuildRule> topLevelRules) {
+    List<BuildRule> postOrder = getPostOrder(topLevelRules);
+
+    // Longest path from a rule's dependents to the top, for rules some dependent was seen of.
+    Map<BuildRule, Long> longestPathAbove = new HashMap<>();
+    // Fewest edges from a top-level rule, for top-level rules and rules some dependent was seen of.
+    Map<BuildRule, Integer> shortestDistance = new HashMap<>();
+    for (BuildRule topLevelRule : topLevelRules) {
+      shortestDistance.put(topLevelRule, 0);
+    }
+    for (int i = postOrder.size() - 1; i >= 0; i--) {
+      // Going backwards, all dependents of a rule are visited before it.
+      BuildRule rule = postOrder.get(i);
+      long priority =
+          durationEstimator.applyAsLong(rule) + longestPathAbove.getOrDefault(rule, 0L);
+      int distance = shortestDistance.get(rule);
+      for (BuildRule dep : getDeps(rule)) {
+        longestPathAbove.merge(dep, priority, Math::max);
+        shortestDistance.merge(dep, distance + 1, Math::min);
+      }
+      priorities.merge(rule.getBuildTarget(), priority, Math::max);
+      distancesFromTop.merge(rule.getBuildTarget(), distance, Math::min);
+    }
+  }
+
+  private static List<BuildRule> getPostOrder(Iterable<BuildRule> topLevelRules) {
+    List<BuildRule> postOrder = new ArrayList<>();
+    Set<BuildRule> seen = new HashSet<>();
+    // Walk iteratively, as dependency chains can be deeper than the stack.
+    Deque<BuildRule> rules = new ArrayDeque<>();
+    Deque<Iterator<BuildRule>> remainingDeps = new ArrayDeque<>();
+    for (BuildRule topLevelRule : topLevelRules) {
+      if (!seen.add(topLevelRule)) {
+        continue;
+      }
+      rules.push(topLevelRule);
+      remainingDeps.push(getDeps(topLevelRule).iterator());
+      while (!rules.isEmpty()) {
+        Iterator<BuildRule> deps = remainingDeps.peek();
+        if (deps.hasNext()) {
+          BuildRule dep = deps.next();
+          if (seen.add(dep)) {
+            rules.push(dep);
+            remainingDeps.push(getDeps(dep).iterator());
+          }
+        } else {
+          postOrder.add(rules.pop());
+          remainingDeps.pop();
+        }
+      }
+    }
+    return postOrder;
+  }
+
+  /**
+   * The same deps as {@link RuleDepsCache} uses, as runtime deps have to be built before a
+   * rule's dependents are done too.
+   */
+  private static Iterable<BuildRule> getDeps(BuildRule rule) {
+    if (rule instanceof HasRuntimeDeps) {
+      return Iterables.concat(rule.getDeps(), ((HasRuntimeDeps) rule).getRuntimeDeps());
+    }
+    return rule.getDeps();
+  }
+
+  boolean hasPriority(BuildRule rule) {
+    return priorities.containsKey(rule.getBuildTarget());
+  }
+
+  /**
+   * @return the estimated remaining critical path of {@code rule} in milliseconds, or 0 if it was
+   *     not computed.
+   */
+  long getPriority(BuildRule rule) {
+    return priorities.getOrDefault(rule.getBuildTarget(), 0L);
+  }
+
+  /**
+   * @return the fewest dependency edges between {@code rule} and a top-level rule, or
+   *     {@link Integer#MAX_VALUE} if it was not computed.
+   */
+  int getDistanceFromTop(BuildRule rule) {
+    return distancesFromTop.getOrDefault(rule.getBuildTarget(), Integer.MAX_VALUE);
+  }
+}
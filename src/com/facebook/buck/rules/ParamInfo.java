@@ -21,11 +21,16 @@ import com.facebook.buck.rules.coercer.CoerceFailedException;
 import com.facebook.buck.rules.coercer.TypeCoercer;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.google.common.base.CaseFormat;
+import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.nio.file.Path;
 import java.util.Map;
 import java.util.Optional;
@@ -46,7 +51,11 @@ public class ParamInfo implements Comparable<ParamInfo> {
   private final String pythonName;
   private final boolean isDep;
   private final boolean isInput;
-  private final Field field;
+  // Bound once, as they are called for every field of every target node, and need no access checks
+  // on each call unlike Field.get and Field.set. Both take the DTO as an Object.
+  private final MethodHandle getter;
+  @Nullable
+  private final MethodHandle setter;
 
   private static final LoadingCache<Class<?>, Object> EMPTY_CONSTRUCTOR_ARGS =
       CacheBuilder.newBuilder().build(
@@ -66,7 +75,6 @@ public class ParamInfo implements Comparable<ParamInfo> {
           });
 
   public ParamInfo(TypeCoercerFactory typeCoercerFactory, Class<?> cls, Field field) {
-    this.field = field;
     this.name = field.getName();
     Hint hint = field.getAnnotation(Hint.class);
     this.pythonName = determinePythonName(this.name, hint);
@@ -85,6 +93,30 @@ public class ParamInfo implements Comparable<ParamInfo> {
       this.isOptional = Optional.class.isAssignableFrom(field.getType());
     }
     this.typeCoercer = typeCoercerFactory.typeCoercerForType(field.getGenericType());
+
+    try {
+      // Constructor args are not always public classes, such as those declared in tests.
+      field.setAccessible(true);
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      boolean isStatic = Modifier.isStatic(field.getModifiers());
+      MethodHandle getter = lookup.unreflectGetter(field);
+      if (isStatic) {
+        getter = MethodHandles.dropArguments(getter, 0, Object.class);
+      }
+      this.getter = getter.asType(MethodType.methodType(Object.class, Object.class));
+      if (Modifier.isFinal(field.getModifiers())) {
+        this.setter = null;
+      } else {
+        MethodHandle setter = lookup.unreflectSetter(field);
+        if (isStatic) {
+          setter = MethodHandles.dropArguments(setter, 0, Object.class);
+        }
+        this.setter =
+            setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+      }
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   public String getName() {
@@ -132,12 +164,13 @@ public class ParamInfo implements Comparable<ParamInfo> {
 
   @SuppressWarnings("unchecked")
   private <U> void traverseHelper(TypeCoercer<U> typeCoercer, Traversal traversal, Object dto) {
-    U object;
+    Object value;
     try {
-      object = (U) field.get(dto);
-    } catch (ReflectiveOperationException e) {
-      throw new RuntimeException(e);
+      value = getter.invokeExact(dto);
+    } catch (Throwable e) {
+      throw Throwables.propagate(e);
     }
+    U object = (U) value;
 
     if (object != null) {
       typeCoercer.traverse(object, traversal);
@@ -200,10 +233,13 @@ public class ParamInfo implements Comparable<ParamInfo> {
       }
     }
 
+    if (setter == null) {
+      throw new IllegalStateException("Cannot set final field " + name);
+    }
     try {
-      field.set(dto, result);
-    } catch (ReflectiveOperationException e) {
-      throw new RuntimeException(e);
+      setter.invokeExact(dto, result);
+    } catch (Throwable e) {
+      throw Throwables.propagate(e);
     }
   }
 
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+
+import javax.annotation.Nullable;
+
+/**
+ * A SHA-1 {@link Hasher} producing the same hashes as {@code Hashing.sha1().newHasher()}, but
+ * whose digest is reset and handed to the next hasher created on the same thread once
+ * {@link #hash()} is called. Rule keys are computed recursively, so a thread holds one digest per
+ * rule key it is in the middle of, and reuses them for every rule after that.
+ */
+final class PooledSha1Hasher implements Hasher {
+
+  private static final ThreadLocal<ArrayDeque<MessageDigest>> DIGESTS =
+      ThreadLocal.withInitial(ArrayDeque::new);
+
+  /** Multi-byte values are fed little-endian, as Guava's hashers do. */
+  private final byte[] scratch = new byte[8];
+  @Nullable
+  private MessageDigest digest;
+
+  PooledSha1Hasher() {
+    digest = DIGESTS.get().poll();
+    if (digest == null) {
+      try {
+        digest = MessageDigest.getInstance("SHA-1");
+      } catch (NoSuchAlgorithmException e) {
+        throw new AssertionError(e);
+      }
+    }
+  }
+
+  private MessageDigest getDigest() {
+    Preconditions.checkState(digest != null, "Cannot re-use a Hasher after calling hash() on it");
+    return digest;
+  }
+
+  private Hasher putScratch(long value, int bytes) {
+    for (int i = 0; i < bytes; i++) {
+      scratch[i] = (byte) (value >>> (i * 8));
+    }
+    getDigest().update(scratch, 0, bytes);
+    return this;
+  }
+
+  @Override
+  public Hasher putByte(byte b) {
+    getDigest().update(b);
+    return this;
+  }
+
+  @Override
+  public Hasher putBytes(byte[] bytes) {
+    getDigest().update(bytes);
+    return this;
+  }
+
+  @Override
+  public Hasher putBytes(byte[] bytes, int off, int len) {
+    getDigest().update(bytes, off, len);
+    return this;
+  }
+
+  @Override
+  public Hasher putShort(short s) {
+    return putScratch(s, Short.BYTES);
+  }
+
+  @Override
+  public Hasher putInt(int i) {
+    return putScratch(i, Integer.BYTES);
+  }
+
+  @Override
+  public Hasher putLong(long l) {
+    return putScratch(l, Long.BYTES);
+  }
+
+  @Override
+  public Hasher putFloat(float f) {
+    return putInt(Float.floatToRawIntBits(f));
+  }
+
+  @Override
+  public Hasher putDouble(double d) {
+    return putLong(Double.doubleToRawLongBits(d));
+  }
+
+  @Override
+  public Hasher putBoolean(boolean b) {
+    return putByte(b ? (byte) 1 : (byte) 0);
+  }
+
+  @Override
+  public Hasher putChar(char c) {
+    return putScratch(c, Character.BYTES);
+  }
+
+  @Override
+  public Hasher putUnencodedChars(CharSequence charSequence) {
+    for (int i = 0; i < charSequence.length(); i++) {
+      putChar(charSequence.charAt(i));
+    }
+    return this;
+  }
+
+  @Override
+  public Hasher putString(CharSequence charSequence, Charset charset) {
+    return putBytes(charSequence.toString().getBytes(charset));
+  }
+
+  @Override
+  public <T> Hasher putObject(T instance, Funnel<? super T> funnel) {
+    funnel.funnel(instance, this);
+    return this;
+  }
+
+  @Override
+  public HashCode hash() {
+    MessageDigest digest = getDigest();
+    this.digest = null;
+    // digest() resets the digest, so it is ready for the next rule.
+    HashCode hashCode = HashCode.fromBytes(digest.digest());
+    DIGESTS.get().push(digest);
+    return hashCode;
+  }
+}
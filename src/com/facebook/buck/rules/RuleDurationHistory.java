@@ -0,0 +1,156 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * How long rules took to build locally in previous builds, kept in buck-out so that the build
+ * engine can tell which rules are likely to be long poles before building them.
+ * <p>
+ * Durations are remembered for each target, and averaged for each rule type so that new targets
+ * of a known type get a reasonable estimate too.
+ */
+public class RuleDurationHistory {
+
+  private static final Logger LOG = Logger.get(RuleDurationHistory.class);
+
+  public static final String STORAGE_FILE_NAME = ".ruledurations.json";
+
+  private static final String TARGETS_KEY = "targets";
+  private static final String TYPES_KEY = "types";
+
+  /**
+   * Rules we know nothing about are assumed to take this long, plus
+   * {@link #UNKNOWN_DURATION_PER_DEP_MILLIS} for each of their deps, as rules which pull many
+   * others together, such as linking and packaging rules, tend to take longer.
+   */
+  private static final long UNKNOWN_DURATION_MILLIS = 1000;
+  private static final long UNKNOWN_DURATION_PER_DEP_MILLIS = 50;
+
+  // Weight of a new measurement in the average duration of its rule type, in 1/16ths.
+  private static final long TYPE_AVERAGE_NEW_WEIGHT = 2;
+
+  // Bounds the size of the storage file. Durations of targets we already know are still updated.
+  private static final int MAX_TARGETS = 200000;
+
+  private final ConcurrentMap<String, Long> targetDurations;
+  private final ConcurrentMap<String, Long> typeDurations;
+  private final AtomicBoolean modified = new AtomicBoolean(false);
+
+  @VisibleForTesting
+  RuleDurationHistory(Map<String, Long> targetDurations, Map<String, Long> typeDurations) {
+    this.targetDurations = new ConcurrentHashMap<>(targetDurations);
+    this.typeDurations = new ConcurrentHashMap<>(typeDurations);
+  }
+
+  /**
+   * Loads the durations stored in the buck-out directory of {@code filesystem}. If they are
+   * missing or cannot be read, the history starts out empty.
+   */
+  public static RuleDurationHistory load(ProjectFilesystem filesystem, ObjectMapper objectMapper) {
+    Path storageFile = getStorageFile(filesystem);
+    Map<String, Map<String, Long>> stored = null;
+    if (filesystem.exists(storageFile)) {
+      try (InputStream input = filesystem.newFileInputStream(storageFile)) {
+        stored = objectMapper.readValue(
+            input,
+            new TypeReference<Map<String, Map<String, Long>>>(){});
+      } catch (IOException | RuntimeException e) {
+        LOG.warn("Unable to load rule durations from %s: %s", storageFile, e.getMessage());
+      }
+    }
+    if (stored == null) {
+      stored = ImmutableMap.of();
+    }
+    return new RuleDurationHistory(
+        stored.getOrDefault(TARGETS_KEY, ImmutableMap.of()),
+        stored.getOrDefault(TYPES_KEY, ImmutableMap.of()));
+  }
+
+  private static Path getStorageFile(ProjectFilesystem filesystem) {
+    return filesystem.getBuckPaths().getBuckOut().resolve(STORAGE_FILE_NAME);
+  }
+
+  /**
+   * @return how long {@code rule} is expected to take to build locally, in milliseconds.
+   */
+  public long getEstimatedDurationMillis(BuildRule rule) {
+    Long duration = targetDurations.get(rule.getBuildTarget().getFullyQualifiedName());
+    if (duration == null) {
+      duration = typeDurations.get(rule.getType());
+    }
+    if (duration == null) {
+      duration =
+          UNKNOWN_DURATION_MILLIS + UNKNOWN_DURATION_PER_DEP_MILLIS * rule.getDeps().size();
+    }
+    return duration;
+  }
+
+  /**
+   * Records that {@code rule} took {@code durationMillis} to build locally.
+   */
+  public void recordDuration(BuildRule rule, long durationMillis) {
+    String target = rule.getBuildTarget().getFullyQualifiedName();
+    if (targetDurations.size() < MAX_TARGETS || targetDurations.containsKey(target)) {
+      targetDurations.put(target, durationMillis);
+    }
+    typeDurations.merge(
+        rule.getType(),
+        durationMillis,
+        (average, duration) ->
+            (average * (16 - TYPE_AVERAGE_NEW_WEIGHT) + duration * TYPE_AVERAGE_NEW_WEIGHT) / 16);
+    modified.set(true);
+  }
+
+  /**
+   * Writes the durations to the buck-out directory of {@code filesystem}, if any were recorded
+   * since the last save.
+   */
+  public void save(ProjectFilesystem filesystem, ObjectMapper objectMapper) {
+    if (!modified.getAndSet(false)) {
+      return;
+    }
+    Path storageFile = getStorageFile(filesystem);
+    try {
+      filesystem.createParentDirs(storageFile);
+      try (OutputStream output = filesystem.newFileOutputStream(storageFile)) {
+        objectMapper.writeValue(
+            output,
+            ImmutableMap.of(
+                TARGETS_KEY, targetDurations,
+                TYPES_KEY, typeDurations));
+      }
+    } catch (IOException e) {
+      LOG.warn("Unable to save rule durations to %s: %s", storageFile, e.getMessage());
+    }
+  }
+}
@@ -31,16 +31,15 @@ import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
-import com.google.common.hash.Hashing;
 import com.google.common.primitives.Primitives;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Optional;
 import java.util.SortedMap;
-import java.util.Stack;
 import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
@@ -52,20 +51,28 @@ public abstract class RuleKeyBuilder<T> implements RuleKeyObjectSink {
 
   private static final Logger logger = Logger.get(RuleKeyBuilder.class);
 
+  /**
+   * Strings are encoded into this buffer and handed to the hasher in chunks. A string is always
+   * fully encoded and flushed before anything else can use the buffer, so one per thread is
+   * enough even when rule keys are computed recursively.
+   */
+  private static final ThreadLocal<byte[]> ENCODING_BUFFER =
+      ThreadLocal.withInitial(() -> new byte[1024]);
+
   private final SourcePathResolver resolver;
   private final Hasher hasher;
   private final FileHashLoader hashLoader;
   private final RuleKeyLogger ruleKeyLogger;
-  private Stack<String> keyStack;
+  private final ArrayDeque<String> keyStack;
 
   public RuleKeyBuilder(
       SourcePathResolver resolver,
       FileHashLoader hashLoader,
       RuleKeyLogger ruleKeyLogger) {
     this.resolver = resolver;
-    this.hasher = Hashing.sha1().newHasher();
+    this.hasher = new PooledSha1Hasher();
     this.hashLoader = hashLoader;
-    this.keyStack = new Stack<>();
+    this.keyStack = new ArrayDeque<>();
     this.ruleKeyLogger = ruleKeyLogger;
   }
 
@@ -80,8 +87,45 @@ public abstract class RuleKeyBuilder<T> implements RuleKeyObjectSink {
             new NullRuleKeyLogger());
   }
 
+  /**
+   * Feeds the UTF-8 encoding of {@code string} to the hasher without allocating.
+   */
   private void putBytes(String string) {
-    hasher.putUnencodedChars(string);
+    byte[] buffer = ENCODING_BUFFER.get();
+    // Leave room for the longest encoding of a code point, so we only check once per char.
+    int limit = buffer.length - 4;
+    int position = 0;
+    int length = string.length();
+    for (int i = 0; i < length; i++) {
+      if (position > limit) {
+        hasher.putBytes(buffer, 0, position);
+        position = 0;
+      }
+      char c = string.charAt(i);
+      if (c < 0x80) {
+        buffer[position++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[position++] = (byte) (0xc0 | (c >>> 6));
+        buffer[position++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isSurrogate(c)) {
+        int codePoint = Character.codePointAt(string, i);
+        if (Character.isSupplementaryCodePoint(codePoint)) {
+          buffer[position++] = (byte) (0xf0 | (codePoint >>> 18));
+          buffer[position++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3f));
+          buffer[position++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3f));
+          buffer[position++] = (byte) (0x80 | (codePoint & 0x3f));
+          i++;
+        } else {
+          // An unpaired surrogate, which String.getBytes() would also replace.
+          buffer[position++] = '?';
+        }
+      } else {
+        buffer[position++] = (byte) (0xe0 | (c >>> 12));
+        buffer[position++] = (byte) (0x80 | ((c >>> 6) & 0x3f));
+        buffer[position++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+    hasher.putBytes(buffer, 0, position);
   }
 
   /**
@@ -24,15 +24,26 @@ import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Sets;
 import com.google.common.hash.HashCode;
 
-import java.lang.reflect.Field;
 import java.nio.file.Path;
 import java.util.Optional;
 
 public class TargetNodeFactory {
-  private final TypeCoercerFactory typeCoercerFactory;
+  private final CoercedTypeCache coercedTypes;
+  private final Optional<TargetNodeInterner> interner;
 
   public TargetNodeFactory(TypeCoercerFactory typeCoercerFactory) {
-    this.typeCoercerFactory = typeCoercerFactory;
+    this(typeCoercerFactory, Optional.empty());
+  }
+
+  /**
+   * @param interner if present, the build targets and paths of the nodes created are shared with
+   *     those of other nodes created with it.
+   */
+  public TargetNodeFactory(
+      TypeCoercerFactory typeCoercerFactory,
+      Optional<TargetNodeInterner> interner) {
+    this.coercedTypes = new CoercedTypeCache(typeCoercerFactory);
+    this.interner = interner;
   }
 
   /**
@@ -79,8 +90,7 @@ public class TargetNodeFactory {
 
     // Scan the input to find possible BuildTargets, necessary for loading dependent rules.
     T arg = description.createUnpopulatedConstructorArg();
-    for (Field field : arg.getClass().getFields()) {
-      ParamInfo info = new ParamInfo(typeCoercerFactory, arg.getClass(), field);
+    for (ParamInfo info : coercedTypes.getAllParamInfo(arg.getClass())) {
       if (info.isDep() && info.isInput() &&
           info.hasElementTypes(BuildTarget.class, SourcePath.class, Path.class)) {
         detectBuildTargetsAndPathsForConstructorArg(
@@ -107,6 +117,16 @@ public class TargetNodeFactory {
                       constructorArg));
     }
 
+    ImmutableSet<BuildTarget> extraDeps =
+        ImmutableSortedSet.copyOf(Sets.difference(extraDepsBuilder.build(), declaredDeps));
+    ImmutableSet<Path> paths = pathsBuilder.build();
+    if (interner.isPresent()) {
+      params = params.withTarget(interner.get().intern(params.target));
+      declaredDeps = interner.get().internTargets(declaredDeps);
+      extraDeps = interner.get().internTargets(extraDeps);
+      paths = interner.get().internPaths(paths);
+    }
+
     return new TargetNode<>(
         this,
         rawInputsHashCode,
@@ -114,9 +134,9 @@ public class TargetNodeFactory {
         constructorArg,
         params,
         declaredDeps,
-        ImmutableSortedSet.copyOf(Sets.difference(extraDepsBuilder.build(), declaredDeps)),
+        extraDeps,
         visibilityPatterns,
-        pathsBuilder.build(),
+        paths,
         cellRoots,
         Optional.empty());
   }
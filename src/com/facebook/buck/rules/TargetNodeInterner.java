@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.model.BuildTarget;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+/**
+ * Shares equal build targets, paths and strings between the nodes of a target graph, so that a
+ * daemon holding the graph of a whole repository keeps a single copy of each, rather than one for
+ * every node which refers to it.
+ * <p>
+ * Interned values are only weakly held, so nothing is kept alive once the nodes referring to it
+ * are gone.
+ */
+public class TargetNodeInterner {
+
+  private final Interner<BuildTarget> targets = Interners.newWeakInterner();
+  private final Interner<Path> paths = Interners.newWeakInterner();
+  private final Interner<String> strings = Interners.newWeakInterner();
+
+  private final AtomicLong lookups = new AtomicLong();
+  private final AtomicLong duplicates = new AtomicLong();
+
+  public BuildTarget intern(BuildTarget target) {
+    return count(target, targets.intern(target));
+  }
+
+  public Path intern(Path path) {
+    return count(path, paths.intern(path));
+  }
+
+  public String intern(String string) {
+    return count(string, strings.intern(string));
+  }
+
+  private <T> T count(T value, T interned) {
+    lookups.incrementAndGet();
+    if (interned != value) {
+      duplicates.incrementAndGet();
+    }
+    return interned;
+  }
+
+  public ImmutableSet<BuildTarget> internTargets(ImmutableSet<BuildTarget> targets) {
+    ImmutableSet.Builder<BuildTarget> builder = ImmutableSet.builder();
+    for (BuildTarget target : targets) {
+      builder.add(intern(target));
+    }
+    return builder.build();
+  }
+
+  public ImmutableSet<Path> internPaths(ImmutableSet<Path> paths) {
+    ImmutableSet.Builder<Path> builder = ImmutableSet.builder();
+    for (Path path : paths) {
+      builder.add(intern(path));
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return a copy of a raw node, as read from a build file, in which strings are interned and
+   *     maps and lists are immutable and sized to fit. Iteration order is kept, so the copy
+   *     hashes the same as the original.
+   */
+  public Map<String, Object> internRawNode(Map<String, Object> rawNode) {
+    return internRawMap(rawNode);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Nullable
+  private Object internRawValue(@Nullable Object value) {
+    if (value instanceof String) {
+      return intern((String) value);
+    } else if (value instanceof Map) {
+      return internRawMap((Map<String, Object>) value);
+    } else if (value instanceof List) {
+      return internRawList((List<Object>) value);
+    }
+    return value;
+  }
+
+  private Map<String, Object> internRawMap(Map<String, Object> map) {
+    Map<String, Object> interned = new LinkedHashMap<>(map.size() * 4 / 3 + 1);
+    boolean hasNulls = false;
+    for (Map.Entry<String, Object> entry : map.entrySet()) {
+      Object value = internRawValue(entry.getValue());
+      hasNulls |= value == null;
+      interned.put(intern(entry.getKey()), value);
+    }
+    // Build files may leave attributes as None, which immutable collections do not hold.
+    return hasNulls ? Collections.unmodifiableMap(interned) : ImmutableMap.copyOf(interned);
+  }
+
+  private List<Object> internRawList(List<Object> list) {
+    List<Object> interned = new ArrayList<>(list.size());
+    boolean hasNulls = false;
+    for (Object element : list) {
+      Object value = internRawValue(element);
+      hasNulls |= value == null;
+      interned.add(value);
+    }
+    return hasNulls ? Collections.unmodifiableList(interned) : ImmutableList.copyOf(interned);
+  }
+
+  /**
+   * @return how many values were looked up in this interner.
+   */
+  public long getLookupCount() {
+    return lookups.get();
+  }
+
+  /**
+   * @return how many of the values looked up were equal to one already held, and so replaced by
+   *     it.
+   */
+  public long getDuplicateCount() {
+    return duplicates.get();
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.graph.AbstractBottomUpTraversal;
+import com.facebook.buck.model.BuildTarget;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the build rules of a previous action graph which can be reused as they are when building
+ * the action graph of a new target graph.
+ * <p>
+ * The parser keeps target nodes until their build file changes, so a node which is the very same
+ * instance in both target graphs, and whose transitive deps all are too, would be turned into an
+ * equivalent rule again. Rules are attributed to the node of their own target or, for the rules
+ * descriptions create for flavors of their target, to the node of the unflavored target. A rule
+ * is only reused if all of its deps are reused too, so that no reused rule refers to one which is
+ * being replaced.
+ * <p>
+ * Reused rules keep the {@link BuildRuleResolver} they were created with, which is made to
+ * forward to the new one, so rules a reused rule requires later on behalf of a dependent which is
+ * created again still land in the new action graph.
+ */
+class UnchangedBuildRules {
+
+  private final TargetGraph oldTargetGraph;
+  private final TargetGraph newTargetGraph;
+  private final Set<BuildTarget> newTargets = new HashSet<>();
+  private final Set<BuildTarget> unchangedTargets = new HashSet<>();
+
+  private UnchangedBuildRules(TargetGraph oldTargetGraph, TargetGraph newTargetGraph) {
+    this.oldTargetGraph = oldTargetGraph;
+    this.newTargetGraph = newTargetGraph;
+  }
+
+  /**
+   * @return the rules in {@code oldResolver}, which was built from {@code oldTargetGraph}, which
+   *     are still valid for {@code newTargetGraph}.
+   */
+  static ImmutableList<BuildRule> find(
+      TargetGraph oldTargetGraph,
+      BuildRuleResolver oldResolver,
+      TargetGraph newTargetGraph) {
+    UnchangedBuildRules unchanged = new UnchangedBuildRules(oldTargetGraph, newTargetGraph);
+    unchanged.findUnchangedTargets();
+    return unchanged.findReusableRules(oldResolver.getBuildRules());
+  }
+
+  private void findUnchangedTargets() {
+    new AbstractBottomUpTraversal<TargetNode<?>, RuntimeException>(newTargetGraph) {
+      @Override
+      public void visit(TargetNode<?> node) {
+        BuildTarget target = node.getBuildTarget();
+        newTargets.add(target);
+        if (oldTargetGraph.getInternal(target) != node) {
+          return;
+        }
+        for (TargetNode<?> dep : newTargetGraph.getOutgoingNodesFor(node)) {
+          if (!unchangedTargets.contains(dep.getBuildTarget())) {
+            return;
+          }
+        }
+        unchangedTargets.add(target);
+      }
+    }.traverse();
+  }
+
+  private boolean isOwnNodeUnchanged(BuildRule rule) {
+    BuildTarget target = rule.getBuildTarget();
+    if (newTargets.contains(target)) {
+      return unchangedTargets.contains(target);
+    }
+    return unchangedTargets.contains(BuildTarget.of(target.getUnflavoredBuildTarget()));
+  }
+
+  private ImmutableList<BuildRule> findReusableRules(Iterable<BuildRule> oldRules) {
+    Map<BuildRule, Boolean> reusable = new HashMap<>();
+    ImmutableList.Builder<BuildRule> reusableRules = ImmutableList.builder();
+    // Walk iteratively, as dependency chains can be deeper than the stack.
+    Deque<BuildRule> rules = new ArrayDeque<>();
+    Deque<Iterator<BuildRule>> remainingDeps = new ArrayDeque<>();
+    for (BuildRule oldRule : oldRules) {
+      if (reusable.containsKey(oldRule)) {
+        continue;
+      }
+      rules.push(oldRule);
+      remainingDeps.push(getDeps(oldRule).iterator());
+      reusable.put(oldRule, isOwnNodeUnchanged(oldRule));
+      while (!rules.isEmpty()) {
+        BuildRule rule = rules.peek();
+        Iterator<BuildRule> deps = remainingDeps.peek();
+        if (reusable.get(rule) && deps.hasNext()) {
+          BuildRule dep = deps.next();
+          Boolean depReusable = reusable.get(dep);
+          if (depReusable == null) {
+            rules.push(dep);
+            remainingDeps.push(getDeps(dep).iterator());
+            reusable.put(dep, isOwnNodeUnchanged(dep));
+          } else if (!depReusable) {
+            reusable.put(rule, false);
+          }
+        } else {
+          rules.pop();
+          remainingDeps.pop();
+          if (reusable.get(rule)) {
+            reusableRules.add(rule);
+          }
+          // Deps are only decided once they are popped, so propagate to the rule waiting on them.
+          BuildRule dependent = rules.peek();
+          if (dependent != null && !reusable.get(rule)) {
+            reusable.put(dependent, false);
+          }
+        }
+      }
+    }
+    return reusableRules.build();
+  }
+
+  private static Iterable<BuildRule> getDeps(BuildRule rule) {
+    if (rule instanceof HasRuntimeDeps) {
+      return Iterables.concat(rule.getDeps(), ((HasRuntimeDeps) rule).getRuntimeDeps());
+    }
+    return rule.getDeps();
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.io.LazyPath;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.io.UnpackedArtifactSink;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.zip.Unzip;
+import com.facebook.buck.zip.UnzippingOutputStream;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+
+import javax.annotation.Nullable;
+
+/**
+ * The temp zip a rule's artifact is fetched into. While a cache writes the artifact, its entries
+ * are also unpacked as they arrive, so network and disk time overlap and a hit does not have to
+ * read the zip back in to unpack it. Caches that keep artifacts unpacked may also put the files in
+ * place themselves, see {@link #getUnpackedArtifactSink()}.
+ * <p>
+ * Entries are unpacked into a staging directory, and only moved into the project filesystem once
+ * the cache has verified the artifact. Unpacking along the way is best effort: if it fails, the
+ * download carries on regardless and the zip can be unpacked the usual way.
+ */
+class UnzippingLazyPath extends LazyPath {
+
+  private static final Logger LOG = Logger.get(UnzippingLazyPath.class);
+
+  private final String tempFilePrefix;
+  private final ProjectFilesystem filesystem;
+
+  // A cache may write an artifact more than once, only the last write counts. Each write gets a
+  // staging directory of its own, which the entries are either unpacked or put into.
+  @Nullable
+  private Path stagingDirectory = null;
+  @Nullable
+  private Session lastSession = null;
+  @Nullable
+  private ImmutableList<Path> entriesPutInPlace = null;
+
+  UnzippingLazyPath(String tempFilePrefix, ProjectFilesystem filesystem) {
+    this.tempFilePrefix = tempFilePrefix;
+    this.filesystem = filesystem;
+  }
+
+  @Override
+  protected Path create() throws IOException {
+    // The extension must be ".zip" for Filesystems.newFileSystem() to infer that we are creating a
+    // zip-based FileSystem.
+    return Files.createTempFile(tempFilePrefix, ".zip");
+  }
+
+  @Override
+  public synchronized OutputStream wrapOutputStream(OutputStream sink) {
+    Path directory;
+    try {
+      directory = createStagingDirectory();
+    } catch (IOException e) {
+      LOG.debug(e, "Could not create a directory to unpack %s into.", sink);
+      return sink;
+    }
+    Session session = new Session(sink, directory);
+    lastSession = session;
+    return session;
+  }
+
+  @Override
+  public boolean needsOutputStream() {
+    return true;
+  }
+
+  @Override
+  public Optional<UnpackedArtifactSink> getUnpackedArtifactSink() {
+    return Optional.of(
+        new UnpackedArtifactSink() {
+          @Override
+          public Path getDirectory() throws IOException {
+            synchronized (UnzippingLazyPath.this) {
+              return filesystem.resolve(createStagingDirectory());
+            }
+          }
+
+          @Override
+          public void onUnpacked(ImmutableList<Path> entries) {
+            synchronized (UnzippingLazyPath.this) {
+              entriesPutInPlace = entries;
+            }
+          }
+        });
+  }
+
+  /**
+   * @return whether the artifact now at this path was completely unpacked while it was written.
+   */
+  public synchronized boolean isUnzipped() {
+    if (entriesPutInPlace != null) {
+      return true;
+    }
+    if (lastSession == null || !lastSession.unzipper.isComplete()) {
+      return false;
+    }
+    // Guard against a cache that wrote the final zip without going through wrapOutputStream().
+    try {
+      return Files.size(getUnchecked()) == lastSession.bytesWritten;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Moves what was unpacked while the artifact was written into the project filesystem, replacing
+   * whatever was at the paths of its entries as unzipping it would. Meant to be called once the
+   * cache has verified the artifact.
+   *
+   * @return whether the artifact was moved into place. If not, it should be unzipped instead.
+   */
+  public synchronized boolean moveUnzippedFilesIntoPlace() {
+    if (!isUnzipped() || stagingDirectory == null) {
+      deleteStagingDirectory();
+      return false;
+    }
+    ImmutableList<Path> entries = entriesPutInPlace != null ?
+        entriesPutInPlace :
+        Preconditions.checkNotNull(lastSession).unzipper.getEntriesExtracted();
+    try {
+      for (Path entry : entries) {
+        filesystem.deleteRecursivelyIfExists(entry);
+      }
+      for (Path entry : entries) {
+        Path staged = stagingDirectory.resolve(entry);
+        if (filesystem.isDirectory(staged, LinkOption.NOFOLLOW_LINKS)) {
+          filesystem.mkdirs(entry);
+        } else {
+          filesystem.createParentDirs(entry);
+          filesystem.move(staged, entry, StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+      return true;
+    } catch (IOException e) {
+      LOG.debug(e, "Could not move %s into place, will unzip it instead.", stagingDirectory);
+      return false;
+    } finally {
+      deleteStagingDirectory();
+    }
+  }
+
+  /**
+   * Deletes what was unpacked while the artifact was written, for when the fetch didn't hit after
+   * all.
+   */
+  public synchronized void deleteStagingDirectory() {
+    if (stagingDirectory == null) {
+      return;
+    }
+    try {
+      filesystem.deleteRecursivelyIfExists(stagingDirectory);
+    } catch (IOException e) {
+      LOG.debug(e, "Could not delete %s.", stagingDirectory);
+    }
+    stagingDirectory = null;
+  }
+
+  /**
+   * Replaces whatever an earlier write left behind with a new, empty staging directory. Must be
+   * called while holding the lock on this.
+   */
+  private Path createStagingDirectory() throws IOException {
+    deleteStagingDirectory();
+    lastSession = null;
+    entriesPutInPlace = null;
+    Path tmpDir = filesystem.getBuckPaths().getTmpDir();
+    filesystem.mkdirs(tmpDir);
+    stagingDirectory = filesystem.getRootPath().relativize(
+        Files.createTempDirectory(filesystem.resolve(tmpDir), tempFilePrefix));
+    return stagingDirectory;
+  }
+
+  /**
+   * Passes everything through to the cache's stream, and on to the unzipper until it fails.
+   */
+  private class Session extends OutputStream {
+    private final OutputStream sink;
+    private final UnzippingOutputStream unzipper;
+    private boolean unzipping = true;
+    private long bytesWritten = 0;
+
+    private Session(OutputStream sink, Path stagingDirectory) {
+      this.sink = sink;
+      this.unzipper = new UnzippingOutputStream(
+          filesystem,
+          stagingDirectory,
+          Unzip.ExistingFileMode.OVERWRITE);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      sink.write(b, off, len);
+      bytesWritten += len;
+      if (unzipping) {
+        try {
+          unzipper.write(b, off, len);
+        } catch (IOException e) {
+          LOG.debug(e, "Could not unpack %s while it was written, will unzip it afterwards.", sink);
+          unzipping = false;
+        }
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      sink.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        sink.close();
+      } finally {
+        try {
+          unzipper.close();
+        } catch (IOException e) {
+          LOG.debug(e, "Could not unpack %s while it was written, will unzip it afterwards.", sink);
+        }
+      }
+    }
+  }
+}
@@ -119,6 +119,18 @@ public class WorkerMacroArg extends MacroArg {
     return workerTool.getMaxWorkers();
   }
 
+  public int getMaxJobsPerWorker() {
+    return workerTool.getMaxJobsPerWorker();
+  }
+
+  public Optional<Integer> getMaxIdleSeconds() {
+    return workerTool.getMaxIdleSeconds();
+  }
+
+  public Optional<Integer> getMaxMemoryMegabytes() {
+    return workerTool.getMaxMemoryMegabytes();
+  }
+
   public String getJobArgs() {
     return jobArgs;
   }
@@ -44,6 +44,8 @@ import java.lang.reflect.TypeVariable;
 import java.lang.reflect.WildcardType;
 import java.nio.file.Path;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
 /**
@@ -57,6 +59,10 @@ public class AbstractTypeCoercerFactory implements TypeCoercerFactory {
   private final TypeCoercer<?>[] nonParameterizedTypeCoercers;
   private final ObjectMapper jacksonObjectMapper;
 
+  // Type coercers hold no state, so the coercer of each type is shared by every field of that type
+  // rather than built again, which takes a scan of all the coercers above for each leaf type.
+  private final ConcurrentMap<Type, TypeCoercer<?>> typeCoercers = new ConcurrentHashMap<>();
+
   public AbstractTypeCoercerFactory(ObjectMapper mapper, PathTypeCoercer pathTypeCoercer) {
     // Cached instance for any type coercers that utilize Jackson
     jacksonObjectMapper = mapper.copy()
@@ -136,6 +142,20 @@ public class AbstractTypeCoercerFactory implements TypeCoercerFactory {
 
   @Override
   public TypeCoercer<?> typeCoercerForType(Type type) {
+    TypeCoercer<?> typeCoercer = typeCoercers.get(type);
+    if (typeCoercer == null) {
+      // Not computeIfAbsent, as creating the coercer of a parameterized type recursively looks up
+      // the coercers of its type parameters.
+      typeCoercer = createTypeCoercer(type);
+      TypeCoercer<?> existingTypeCoercer = typeCoercers.putIfAbsent(type, typeCoercer);
+      if (existingTypeCoercer != null) {
+        typeCoercer = existingTypeCoercer;
+      }
+    }
+    return typeCoercer;
+  }
+
+  private TypeCoercer<?> createTypeCoercer(Type type) {
     if (type instanceof TypeVariable) {
       type = ((TypeVariable<?>) type).getBounds()[0];
       if (Object.class.equals(type)) {
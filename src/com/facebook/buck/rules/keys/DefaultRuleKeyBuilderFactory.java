@@ -74,7 +74,9 @@ public class DefaultRuleKeyBuilderFactory
       public RuleKeyBuilder<RuleKey> setAppendableRuleKey(
           String key,
           RuleKeyAppendable appendable) {
-        RuleKey subKey = ruleKeyCache.getUnchecked(appendable);
+        // Sub-keys only depend on the factory that keys build rules, so factories sharing one
+        // also share the sub-keys of large appendables such as platforms and tools.
+        RuleKey subKey = getDefaultRuleKeyBuilderFactory().ruleKeyCache.getUnchecked(appendable);
         return setAppendableRuleKey(key, subKey);
       }
 
@@ -35,6 +35,9 @@ interface AbstractWorkerJobParams {
   ImmutableMap<String, String> getStartupEnvironment();
   String getJobArgs();
   int getMaxWorkers();
+  int getMaxJobsPerWorker();
+  Optional<Integer> getMaxIdleSeconds();
+  Optional<Integer> getMaxMemoryMegabytes();
   Optional<String> getPersistentWorkerKey();
   Optional<HashCode> getWorkerHash();
 }
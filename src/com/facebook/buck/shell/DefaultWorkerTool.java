@@ -52,6 +52,9 @@ public class DefaultWorkerTool extends NoopBuildRule implements
 
   private final BinaryBuildRule exe;
   private final int maxWorkers;
+  private final int maxJobsPerWorker;
+  private final Optional<Integer> maxIdleSeconds;
+  private final Optional<Integer> maxMemoryMegabytes;
   private final boolean isPersistent;
   private final BuildOutputInitializer<Data> buildOutputInitializer;
 
@@ -62,12 +65,18 @@ public class DefaultWorkerTool extends NoopBuildRule implements
       String args,
       ImmutableMap<String, String> env,
       int maxWorkers,
+      int maxJobsPerWorker,
+      Optional<Integer> maxIdleSeconds,
+      Optional<Integer> maxMemoryMegabytes,
       boolean isPersistent) {
     super(ruleParams, resolver);
     this.exe = exe;
     this.args = args;
     this.env = env;
     this.maxWorkers = maxWorkers;
+    this.maxJobsPerWorker = maxJobsPerWorker;
+    this.maxIdleSeconds = maxIdleSeconds;
+    this.maxMemoryMegabytes = maxMemoryMegabytes;
     this.isPersistent = isPersistent;
     this.buildOutputInitializer = new BuildOutputInitializer<>(getBuildTarget(), this);
   }
@@ -102,6 +111,21 @@ public class DefaultWorkerTool extends NoopBuildRule implements
     return maxWorkers;
   }
 
+  @Override
+  public int getMaxJobsPerWorker() {
+    return maxJobsPerWorker;
+  }
+
+  @Override
+  public Optional<Integer> getMaxIdleSeconds() {
+    return maxIdleSeconds;
+  }
+
+  @Override
+  public Optional<Integer> getMaxMemoryMegabytes() {
+    return maxMemoryMegabytes;
+  }
+
   @Override
   public boolean isPersistent() {
     return isPersistent;
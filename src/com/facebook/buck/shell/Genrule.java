@@ -335,6 +335,9 @@ public class Genrule extends AbstractBuildRule
           workerMacroArg.getEnvironment(),
           workerMacroArg.getJobArgs(),
           workerMacroArg.getMaxWorkers(),
+          workerMacroArg.getMaxJobsPerWorker(),
+          workerMacroArg.getMaxIdleSeconds(),
+          workerMacroArg.getMaxMemoryMegabytes(),
           workerMacroArg.getPersistentWorkerKey(),
           Optional.of(workerMacroArg.getWorkerHash()));
     });
@@ -22,9 +22,13 @@ import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.MoreStrings;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
+import com.facebook.buck.util.ProcessHelper;
+import com.facebook.buck.util.ProcessResourceConsumption;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 
@@ -37,9 +41,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 public class WorkerProcess {
 
@@ -51,18 +60,44 @@ public class WorkerProcess {
   private final Path tmpPath;
   private final Path stdErr;
   private final AtomicInteger currentMessageID = new AtomicInteger();
+  private final int maxJobs;
   private boolean handshakePerformed = false;
   @Nullable
   private WorkerProcessProtocol protocol;
   @Nullable
   private ProcessExecutor.LaunchedProcess launchedProcess;
+  private volatile boolean isMultiplexed = false;
+
+  // Responses to the jobs sent to a multiplexed worker, which are read by whichever of the threads
+  // waiting for them gets to read first.
+  private final ConcurrentMap<Integer, SettableFuture<Integer>> pendingResponses =
+      new ConcurrentHashMap<>();
+  // The jobs which were cancelled, whose responses are dropped when they are read.
+  private final Set<Integer> cancelledJobs = ConcurrentHashMap.newKeySet();
+  private final Object responseReaderLock = new Object();
+  @GuardedBy("responseReaderLock")
+  private boolean isReadingResponse = false;
 
   public WorkerProcess(
       ProcessExecutor executor,
       ProcessExecutorParams processParams,
       ProjectFilesystem filesystem,
       Path tmpPath) throws IOException {
+    this(executor, processParams, filesystem, tmpPath, 1);
+  }
+
+  /**
+   * @param maxJobs how many jobs may be sent to the process at once, should it report the
+   *     multiplexed capability.
+   */
+  public WorkerProcess(
+      ProcessExecutor executor,
+      ProcessExecutorParams processParams,
+      ProjectFilesystem filesystem,
+      Path tmpPath,
+      int maxJobs) throws IOException {
     this.executor = executor;
+    this.maxJobs = maxJobs;
     this.stdErr = Files.createTempFile("buck-worker-", "-stderr.log");
     this.processParams = processParams.withRedirectError(
         ProcessBuilder.Redirect.to(stdErr.toFile()));
@@ -87,17 +122,39 @@ public class WorkerProcess {
         launchedProcess,
         processStdinWriter,
         processStdoutReader,
-        stdErr);
+        stdErr,
+        maxJobs > 1 ?
+            ImmutableSet.of(WorkerProcessProtocolZero.CAPABILITY_MULTIPLEXED) :
+            ImmutableSet.of());
 
     int messageID = currentMessageID.getAndAdd(1);
     LOG.debug("Sending handshake to process %d", this.hashCode());
     protocol.sendHandshake(messageID);
     LOG.debug("Receiving handshake from process %d", this.hashCode());
-    protocol.receiveHandshake(messageID);
+    isMultiplexed = protocol.receiveHandshake(messageID)
+        .contains(WorkerProcessProtocolZero.CAPABILITY_MULTIPLEXED);
     handshakePerformed = true;
   }
 
-  public synchronized WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+  /**
+   * @return how many jobs may be sent to the process at once.
+   */
+  public int getMaxJobs() {
+    return isMultiplexed ? maxJobs : 1;
+  }
+
+  public WorkerJobResult submitAndWaitForJob(String jobArgs)
+      throws IOException, InterruptedException {
+    if (!isMultiplexed) {
+      synchronized (this) {
+        return submitAndWaitForJob(jobArgs, /* isMultiplexed */ false);
+      }
+    }
+    return submitAndWaitForJob(jobArgs, /* isMultiplexed */ true);
+  }
+
+  private WorkerJobResult submitAndWaitForJob(String jobArgs, boolean isMultiplexed)
+      throws IOException, InterruptedException {
     Preconditions.checkState(
         protocol != null,
         "Tried to submit a job to the worker process before the handshake was performed.");
@@ -119,11 +176,21 @@ public class WorkerProcess {
         messageID,
         this.hashCode(),
         jobArgs);
-    protocol.sendCommand(messageID, argsPath, stdoutPath, stderrPath);
-    LOG.debug("Receiving response for job %d from process %d",
-        messageID,
-        this.hashCode());
-    int exitCode = protocol.receiveCommandResponse(messageID);
+    int exitCode;
+    if (isMultiplexed) {
+      SettableFuture<Integer> response = SettableFuture.create();
+      pendingResponses.put(messageID, response);
+      synchronized (protocol) {
+        protocol.sendCommand(messageID, argsPath, stdoutPath, stderrPath);
+      }
+      exitCode = waitForResponse(messageID, response);
+    } else {
+      protocol.sendCommand(messageID, argsPath, stdoutPath, stderrPath);
+      LOG.debug("Receiving response for job %d from process %d",
+          messageID,
+          this.hashCode());
+      exitCode = protocol.receiveCommandResponse(messageID);
+    }
     Optional<String> stdout = filesystem.readFileIfItExists(stdoutPath);
     Optional<String> stderr = filesystem.readFileIfItExists(stderrPath);
     LOG.debug(
@@ -140,6 +207,85 @@ public class WorkerProcess {
     return WorkerJobResult.of(exitCode, stdout, stderr);
   }
 
+  private int waitForResponse(int messageID, SettableFuture<Integer> response)
+      throws IOException, InterruptedException {
+    Preconditions.checkNotNull(protocol);
+    while (!response.isDone()) {
+      synchronized (responseReaderLock) {
+        try {
+          while (isReadingResponse && !response.isDone()) {
+            responseReaderLock.wait();
+          }
+        } catch (InterruptedException e) {
+          // The response is still read, but dropped.
+          LOG.debug("Cancelling job %d for process %d", messageID, this.hashCode());
+          if (pendingResponses.remove(messageID) != null) {
+            cancelledJobs.add(messageID);
+          }
+          synchronized (protocol) {
+            protocol.sendCancel(messageID);
+          }
+          throw e;
+        }
+        if (response.isDone()) {
+          break;
+        }
+        isReadingResponse = true;
+      }
+      try {
+        LOG.debug("Receiving a response for job %d from process %d", messageID, this.hashCode());
+        WorkerCommandResponse next = protocol.receiveNextCommandResponse();
+        SettableFuture<Integer> nextResponse = pendingResponses.remove(next.getMessageID());
+        if (nextResponse == null && cancelledJobs.remove(next.getMessageID())) {
+          continue;
+        }
+        if (nextResponse == null) {
+          throw new HumanReadableException(
+              "Received a response for job %d from %s, which was not sent to it.",
+              next.getMessageID(),
+              Joiner.on(' ').join(processParams.getCommand()));
+        }
+        nextResponse.set(next.getExitCode());
+      } catch (IOException | RuntimeException e) {
+        // The process can no longer be read from, so no job sent to it will be answered.
+        for (SettableFuture<Integer> pendingResponse : pendingResponses.values()) {
+          pendingResponse.setException(e);
+        }
+        pendingResponses.clear();
+        throw e;
+      } finally {
+        synchronized (responseReaderLock) {
+          isReadingResponse = false;
+          responseReaderLock.notifyAll();
+        }
+      }
+    }
+    try {
+      return response.get();
+    } catch (ExecutionException e) {
+      throw new IOException(
+          String.format("Error while waiting for the response to job %d.", messageID),
+          e.getCause());
+    }
+  }
+
+  /**
+   * @return the resident memory of the process in bytes, if it can be read.
+   */
+  public Optional<Long> getResidentMemoryBytes() {
+    ProcessExecutor.LaunchedProcess process = launchedProcess;
+    if (!(process instanceof ProcessExecutor.LaunchedProcessImpl)) {
+      return Optional.empty();
+    }
+    ProcessHelper processHelper = ProcessHelper.getInstance();
+    Long pid = processHelper.getPid(((ProcessExecutor.LaunchedProcessImpl) process).process);
+    if (pid == null) {
+      return Optional.empty();
+    }
+    ProcessResourceConsumption consumption = processHelper.getProcessResourceConsumption(pid);
+    return consumption == null ? Optional.empty() : Optional.of(consumption.getMemResident());
+  }
+
   public void close() {
     LOG.debug("Closing process %d", this.hashCode());
     try {
@@ -16,42 +16,206 @@
 
 package com.facebook.buck.shell;
 
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.timing.Clock;
+import com.facebook.buck.timing.DefaultClock;
+import com.facebook.buck.util.HumanReadableException;
+import com.google.common.collect.ImmutableList;
 import com.google.common.hash.HashCode;
 
 import java.io.IOException;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.Semaphore;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Lends worker processes to jobs, starting new ones as long as every process has as many jobs as
+ * it takes, and there are fewer than {@code maxWorkers}.
+ * <p>
+ * Processes which went without jobs for longer than {@code maxIdleMillis} are closed whenever a
+ * process is borrowed or returned. Processes found to use more than {@code maxMemoryBytes} of
+ * resident memory when they are returned get no new jobs, and are closed once they finish theirs.
+ */
 public abstract class WorkerProcessPool {
 
-  private final Semaphore available;
+  private static final Logger LOG = Logger.get(WorkerProcessPool.class);
+
   private final int capacity;
-  private final LinkedBlockingQueue<WorkerProcess> workerProcesses;
   private final HashCode poolHash;
+  private final Optional<Long> maxIdleMillis;
+  private final Optional<Long> maxMemoryBytes;
+  private final Clock clock;
+
+  // The processes which can take another job, least recently returned first.
+  @GuardedBy("this")
+  private final Deque<WorkerProcess> availableWorkerProcesses = new ArrayDeque<>();
+  @GuardedBy("this")
+  private final Map<WorkerProcess, Integer> jobsPerWorkerProcess = new HashMap<>();
+  // Includes the processes which are being started.
+  @GuardedBy("this")
+  private int workerProcessCount = 0;
+  // When each process without jobs finished its last one.
+  @GuardedBy("this")
+  private final Map<WorkerProcess, Long> idleSinceMillis = new HashMap<>();
+  // The processes which are closed as soon as they finish their jobs, and get no new ones.
+  @GuardedBy("this")
+  private final Set<WorkerProcess> retiredWorkerProcesses = new HashSet<>();
+  @GuardedBy("this")
+  private boolean closed = false;
 
   public WorkerProcessPool(int maxWorkers, HashCode poolHash) {
+    this(maxWorkers, poolHash, Optional.empty(), Optional.empty(), new DefaultClock());
+  }
+
+  /**
+   * @param maxIdleMillis how long a process may go without jobs before it is closed.
+   * @param maxMemoryBytes how much resident memory a process may use before it is closed, once it
+   *     finished the jobs it has.
+   */
+  public WorkerProcessPool(
+      int maxWorkers,
+      HashCode poolHash,
+      Optional<Long> maxIdleMillis,
+      Optional<Long> maxMemoryBytes,
+      Clock clock) {
     capacity = maxWorkers;
-    available = new Semaphore(capacity, true);
-    workerProcesses = new LinkedBlockingQueue<>();
     this.poolHash = poolHash;
+    this.maxIdleMillis = maxIdleMillis;
+    this.maxMemoryBytes = maxMemoryBytes;
+    this.clock = clock;
   }
 
   public WorkerProcess borrowWorkerProcess()
       throws IOException, InterruptedException {
-    available.acquire();
-    WorkerProcess workerProcess = workerProcesses.poll();
-    return workerProcess != null ? workerProcess : startWorkerProcess();
+    closeWorkerProcesses(removeIdleWorkerProcesses());
+    synchronized (this) {
+      while (true) {
+        WorkerProcess workerProcess = availableWorkerProcesses.peekFirst();
+        if (workerProcess != null) {
+          idleSinceMillis.remove(workerProcess);
+          int jobs = jobsPerWorkerProcess.merge(workerProcess, 1, Integer::sum);
+          if (jobs >= workerProcess.getMaxJobs()) {
+            availableWorkerProcesses.removeFirst();
+          }
+          return workerProcess;
+        }
+        if (workerProcessCount < capacity) {
+          workerProcessCount++;
+          break;
+        }
+        wait();
+      }
+    }
+
+    // Started without holding the lock, as it takes a while.
+    WorkerProcess workerProcess;
+    try {
+      workerProcess = startWorkerProcess();
+    } catch (IOException | RuntimeException e) {
+      synchronized (this) {
+        workerProcessCount--;
+        notifyAll();
+      }
+      throw e;
+    }
+    synchronized (this) {
+      jobsPerWorkerProcess.put(workerProcess, 1);
+      if (closed) {
+        retiredWorkerProcesses.add(workerProcess);
+      } else if (workerProcess.getMaxJobs() > 1) {
+        availableWorkerProcesses.addLast(workerProcess);
+        notifyAll();
+      }
+    }
+    return workerProcess;
   }
 
-  public void returnWorkerProcess(WorkerProcess workerProcess) throws InterruptedException {
-    workerProcesses.put(workerProcess);
-    available.release();
+  public void returnWorkerProcess(WorkerProcess workerProcess)
+      throws InterruptedException {
+    // Read before taking the lock, as it may take a while.
+    boolean isOverMemoryLimit = isOverMemoryLimit(workerProcess);
+    synchronized (this) {
+      int jobs = jobsPerWorkerProcess.merge(workerProcess, -1, Integer::sum);
+      if (isOverMemoryLimit && retiredWorkerProcesses.add(workerProcess)) {
+        LOG.info("Retiring worker process %d, as it uses too much memory.",
+            workerProcess.hashCode());
+        availableWorkerProcesses.remove(workerProcess);
+      }
+      if (jobs == 0) {
+        idleSinceMillis.put(workerProcess, clock.currentTimeMillis());
+      }
+      if (jobs == workerProcess.getMaxJobs() - 1 &&
+          !retiredWorkerProcesses.contains(workerProcess)) {
+        availableWorkerProcesses.addLast(workerProcess);
+      }
+      notifyAll();
+    }
+    closeWorkerProcesses(removeIdleWorkerProcesses());
   }
 
+  /**
+   * Closes the processes without jobs. The others are left to finish theirs, and are closed once
+   * they are returned. Processes borrowed afterwards are closed once they are returned as well.
+   */
   public void close() {
-    for (WorkerProcess process : workerProcesses) {
-      process.close();
+    synchronized (this) {
+      closed = true;
+      availableWorkerProcesses.clear();
+      retiredWorkerProcesses.addAll(jobsPerWorkerProcess.keySet());
+    }
+    for (WorkerProcess workerProcess : removeIdleWorkerProcesses()) {
+      workerProcess.close();
+    }
+  }
+
+  /**
+   * Removes the retired processes without jobs, and those which were idle for too long.
+   *
+   * @return the removed processes, which the caller should close without holding the lock.
+   */
+  private synchronized ImmutableList<WorkerProcess> removeIdleWorkerProcesses() {
+    ImmutableList.Builder<WorkerProcess> removed = ImmutableList.builder();
+    long now = clock.currentTimeMillis();
+    Iterator<Map.Entry<WorkerProcess, Long>> iterator = idleSinceMillis.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<WorkerProcess, Long> entry = iterator.next();
+      WorkerProcess workerProcess = entry.getKey();
+      if (retiredWorkerProcesses.remove(workerProcess) ||
+          (maxIdleMillis.isPresent() && now - entry.getValue() > maxIdleMillis.get())) {
+        iterator.remove();
+        availableWorkerProcesses.remove(workerProcess);
+        jobsPerWorkerProcess.remove(workerProcess);
+        workerProcessCount--;
+        removed.add(workerProcess);
+      }
+    }
+    return removed.build();
+  }
+
+  private void closeWorkerProcesses(ImmutableList<WorkerProcess> workerProcesses) {
+    for (WorkerProcess workerProcess : workerProcesses) {
+      try {
+        workerProcess.close();
+      } catch (HumanReadableException e) {
+        // The build does not depend on the process any more, so it only gets a warning.
+        LOG.warn(e, "Error closing worker process %d.", workerProcess.hashCode());
+      }
+    }
+  }
+
+  private boolean isOverMemoryLimit(WorkerProcess workerProcess) {
+    if (!maxMemoryBytes.isPresent()) {
+      return false;
     }
+    Optional<Long> memoryBytes = workerProcess.getResidentMemoryBytes();
+    return memoryBytes.isPresent() && memoryBytes.get() > maxMemoryBytes.get();
   }
 
   public int getCapacity() {
@@ -15,15 +15,33 @@
  */
 package com.facebook.buck.shell;
 
+import com.google.common.collect.ImmutableSet;
+
 import java.io.IOException;
 import java.nio.file.Path;
 
 public interface WorkerProcessProtocol {
 
   void sendHandshake(int handshakeID) throws IOException;
-  void receiveHandshake(int handshakeID) throws IOException;
+
+  /**
+   * @return the capabilities offered in the handshake which the worker also reported.
+   */
+  ImmutableSet<String> receiveHandshake(int handshakeID) throws IOException;
   void sendCommand(int messageID, Path argsPath, Path stdoutPath, Path stderrPath)
       throws IOException;
+
+  /**
+   * Asks the worker to abandon a command it was sent, which it still answers. Only sent to
+   * workers which reported the multiplexed capability.
+   */
+  void sendCancel(int messageID) throws IOException;
   int receiveCommandResponse(int messageID) throws IOException;
+
+  /**
+   * Receives the response to whichever command the worker finished first, for workers which
+   * reported the multiplexed capability.
+   */
+  WorkerCommandResponse receiveNextCommandResponse() throws IOException;
   void close() throws IOException;
 }
@@ -17,6 +17,8 @@ package com.facebook.buck.shell;
 
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.ProcessExecutor;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 
@@ -33,13 +35,21 @@ public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
   private static final String TYPE_COMMAND = "command";
   private static final String TYPE_RESULT = "result";
   private static final String TYPE_ERROR = "error";
+  private static final String TYPE_CANCEL = "cancel";
   private static final String PROTOCOL_VERSION = "0";
 
+  /**
+   * Workers with this capability may be sent commands before they answered the previous ones, and
+   * answer each as soon as it is done.
+   */
+  public static final String CAPABILITY_MULTIPLEXED = "multiplexed";
+
   private final ProcessExecutor executor;
   private final ProcessExecutor.LaunchedProcess launchedProcess;
   private final JsonWriter processStdinWriter;
   private final JsonReader processStdoutReader;
   private final Path stdErr;
+  private final ImmutableSet<String> capabilities;
 
   public WorkerProcessProtocolZero(
       ProcessExecutor executor,
@@ -47,11 +57,28 @@ public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
       JsonWriter processStdinWriter,
       JsonReader processStdoutReader,
       Path stdErr) {
+    this(
+        executor,
+        launchedProcess,
+        processStdinWriter,
+        processStdoutReader,
+        stdErr,
+        ImmutableSet.of());
+  }
+
+  public WorkerProcessProtocolZero(
+      ProcessExecutor executor,
+      ProcessExecutor.LaunchedProcess launchedProcess,
+      JsonWriter processStdinWriter,
+      JsonReader processStdoutReader,
+      Path stdErr,
+      ImmutableSet<String> capabilities) {
     this.executor = executor;
     this.launchedProcess = launchedProcess;
     this.processStdinWriter = processStdinWriter;
     this.processStdoutReader = processStdoutReader;
     this.stdErr = stdErr;
+    this.capabilities = capabilities;
   }
 
   /*
@@ -61,7 +88,7 @@ public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
           id: <handshakeID>,
           type: 'handshake',
           protocol_version: '0',
-          capabilities: []
+          capabilities: [<capability>, ...]
         }
    */
   @Override
@@ -71,7 +98,11 @@ public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
     processStdinWriter.name("id").value(handshakeID);
     processStdinWriter.name("type").value(TYPE_HANDSHAKE);
     processStdinWriter.name("protocol_version").value(PROTOCOL_VERSION);
-    processStdinWriter.name("capabilities").beginArray().endArray();
+    processStdinWriter.name("capabilities").beginArray();
+    for (String capability : capabilities) {
+      processStdinWriter.value(capability);
+    }
+    processStdinWriter.endArray();
     processStdinWriter.endObject();
     processStdinWriter.flush();
   }
@@ -83,14 +114,15 @@ public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
           id: <handshakeID>,
           type: 'handshake',
           protocol_version: '0',
-          capabilities: []
+          capabilities: [<capability>, ...]
         }
    */
   @Override
-  public void receiveHandshake(int handshakeID) throws IOException {
+  public ImmutableSet<String> receiveHandshake(int handshakeID) throws IOException {
     int id = -1;
     String type = "";
     String protocolVersion = "";
+    ImmutableSet.Builder<String> reportedCapabilities = ImmutableSet.builder();
 
     try {
       processStdoutReader.beginArray();
@@ -106,11 +138,14 @@ public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
         } else if (property.equals("capabilities")) {
           try {
             processStdoutReader.beginArray();
+            while (processStdoutReader.hasNext()) {
+              reportedCapabilities.add(processStdoutReader.nextString());
+            }
             processStdoutReader.endArray();
           } catch (IllegalStateException e) {
             throw new HumanReadableException(
                 "Expected handshake response's \"capabilities\" to " +
-                    "be an empty array.");
+                    "be an array of strings.");
           }
         } else {
           processStdoutReader.skipValue();
@@ -137,6 +172,8 @@ public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
           "\"protocol_version\" to be \"%s\", got \"%s\" instead.",
           PROTOCOL_VERSION, protocolVersion));
     }
+    // Capabilities which were not offered are not used.
+    return Sets.intersection(capabilities, reportedCapabilities.build()).immutableCopy();
   }
 
   /*
@@ -165,6 +202,22 @@ public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
     processStdinWriter.flush();
   }
 
+  /*
+    Sends a message that looks like this:
+      ,{
+        id: <id>,
+        type: 'cancel'
+      }
+  */
+  @Override
+  public void sendCancel(int messageID) throws IOException {
+    processStdinWriter.beginObject();
+    processStdinWriter.name("id").value(messageID);
+    processStdinWriter.name("type").value(TYPE_CANCEL);
+    processStdinWriter.endObject();
+    processStdinWriter.flush();
+  }
+
   /*
     Expects a message that looks like this if the job was successful:
       ,{
@@ -191,6 +244,19 @@ public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
   */
   @Override
   public int receiveCommandResponse(int messageID) throws IOException {
+    WorkerCommandResponse response = receiveNextCommandResponse();
+    if (response.getMessageID() != messageID) {
+      throw new HumanReadableException(String.format("Expected response's \"id\" value to be " +
+          "\"%d\", got \"%d\" instead.", messageID, response.getMessageID()));
+    }
+    return response.getExitCode();
+  }
+
+  /*
+    Expects a message like those of receiveCommandResponse(), for any command that was sent.
+  */
+  @Override
+  public WorkerCommandResponse receiveNextCommandResponse() throws IOException {
     int id = -1;
     int exitCode = -1;
     String type = "";
@@ -217,15 +283,11 @@ public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
           getStdErrorOutput());
     }
 
-    if (id != messageID) {
-      throw new HumanReadableException(String.format("Expected response's \"id\" value to be " +
-          "\"%d\", got \"%d\" instead.", messageID, id));
-    }
     if (!type.equals(TYPE_RESULT) && !type.equals(TYPE_ERROR)) {
       throw new HumanReadableException(String.format("Expected response's \"type\" " +
           "to be one of [\"%s\",\"%s\"], got \"%s\" instead.", TYPE_RESULT, TYPE_ERROR, type));
     }
-    return exitCode;
+    return WorkerCommandResponse.of(id, exitCode);
   }
 
   /*
@@ -21,6 +21,7 @@ import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.timing.DefaultClock;
 import com.facebook.buck.util.Escaper;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.ProcessExecutorParams;
@@ -41,6 +42,7 @@ import java.nio.file.Path;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class WorkerShellStep implements Step {
@@ -133,7 +135,11 @@ public class WorkerShellStep implements Step {
       final AtomicInteger workerNumber = new AtomicInteger(0);
 
       WorkerProcessPool newPool = new WorkerProcessPool(
-          paramsToUse.getMaxWorkers(), workerHash) {
+          paramsToUse.getMaxWorkers(),
+          workerHash,
+          paramsToUse.getMaxIdleSeconds().map(seconds -> TimeUnit.SECONDS.toMillis(seconds)),
+          paramsToUse.getMaxMemoryMegabytes().map(megabytes -> megabytes * 1024L * 1024L),
+          new DefaultClock()) {
         @Override
         protected WorkerProcess startWorkerProcess() throws IOException {
           Path tmpDir = workerTmpDir.resolve(Integer.toString(workerNumber.getAndIncrement()));
@@ -253,7 +259,8 @@ public class WorkerShellStep implements Step {
         context.getProcessExecutor(),
         processParams,
         filesystem,
-        tmpDir);
+        tmpDir,
+        getWorkerJobParamsToUse(context.getPlatform()).getMaxJobsPerWorker());
   }
 
   @Override
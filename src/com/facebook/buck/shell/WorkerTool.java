@@ -20,12 +20,16 @@ import com.facebook.buck.rules.Tool;
 import com.google.common.hash.HashCode;
 
 import java.nio.file.Path;
+import java.util.Optional;
 
 public interface WorkerTool {
   Tool getTool();
   String getArgs();
   Path getTempDir();
   int getMaxWorkers();
+  int getMaxJobsPerWorker();
+  Optional<Integer> getMaxIdleSeconds();
+  Optional<Integer> getMaxMemoryMegabytes();
   boolean isPersistent();
   HashCode getInstanceKey();
 }
@@ -129,6 +129,16 @@ public class WorkerToolDescription implements Description<WorkerToolDescription.
       maxWorkers = 1;
     }
 
+    int maxJobsPerWorker;
+    if (args.maxJobsPerWorker.isPresent()) {
+      // negative or zero: as many jobs as the worker process is sent
+      maxJobsPerWorker =
+          args.maxJobsPerWorker.get() < 1 ? Integer.MAX_VALUE : args.maxJobsPerWorker.get();
+    } else {
+      // default is one job at a time, which any worker process supports
+      maxJobsPerWorker = 1;
+    }
+
     return new DefaultWorkerTool(
         params,
         new SourcePathResolver(resolver),
@@ -136,6 +146,9 @@ public class WorkerToolDescription implements Description<WorkerToolDescription.
         expandedStartupArgs,
         expandedEnv,
         maxWorkers,
+        maxJobsPerWorker,
+        args.maxIdleSeconds,
+        args.maxMemoryMb,
         args.persistent.orElse(
             buckConfig.getBooleanValue(CONFIG_SECTION, CONFIG_PERSISTENT_KEY, false)));
   }
@@ -170,6 +183,9 @@ public class WorkerToolDescription implements Description<WorkerToolDescription.
     public Optional<String> args;
     public BuildTarget exe;
     public Optional<Integer> maxWorkers;
+    public Optional<Integer> maxJobsPerWorker;
+    public Optional<Integer> maxIdleSeconds;
+    public Optional<Integer> maxMemoryMb;
     public Optional<Boolean> persistent;
   }
 }
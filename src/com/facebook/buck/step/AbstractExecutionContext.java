@@ -22,6 +22,7 @@ import com.facebook.buck.event.BuckEvent;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ThrowableConsoleEvent;
 import com.facebook.buck.jvm.core.JavaPackageFinder;
+import com.facebook.buck.jvm.java.ClasspathJarCache;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.util.Ansi;
@@ -88,6 +89,11 @@ abstract class AbstractExecutionContext implements Closeable {
   @Value.Parameter
   abstract Optional<ConcurrentMap<String, WorkerProcessPool>> getPersistentWorkerPools();
 
+  /**
+   * The cache of classpath jars kept by buckd for javac running in buck's JVM, if any.
+   */
+  public abstract Optional<ClasspathJarCache> getClasspathJarCache();
+
   /**
    * Returns an {@link AndroidPlatformTarget} if the user specified one. If the user failed to
    * specify one, an exception will be thrown.
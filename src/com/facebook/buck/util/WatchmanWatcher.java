@@ -28,6 +28,7 @@ import com.facebook.buck.io.WatchmanClient;
 import com.facebook.buck.io.WatchmanCursor;
 import com.facebook.buck.io.WatchmanDiagnostic;
 import com.facebook.buck.io.WatchmanQuery;
+import com.facebook.buck.io.WatchmanSubscription;
 import com.facebook.buck.log.Logger;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
@@ -80,6 +81,7 @@ public class WatchmanWatcher {
   private final WatchmanClient watchmanClient;
   private final WatchmanQuery query;
   private WatchmanCursor sinceCursor;
+  private Optional<WatchmanSubscription> subscription = Optional.empty();
 
   /**
    * The maximum number of watchman changes to process in each call to postEvents before
@@ -212,14 +214,22 @@ public class WatchmanWatcher {
    * IOExceptions are propagated to callers, but typically if overflow events are handled
    * conservatively by subscribers then no other remedial action is required.
    *
+   * When this watcher uses a subscription, this waits for Watchman to deliver the changes made so
+   * far and posts the ones queued since they were last posted, all of them counting against the
+   * same overflow threshold. The fresh instances Watchman reports past the start of the
+   * subscription always post an overflow event.
+   *
    * Any diagnostics posted by Watchman are added to watchmanDiagnosticCache.
    */
-  @SuppressWarnings("unchecked")
   public void postEvents(
       BuckEventBus buckEventBus,
       FreshInstanceAction freshInstanceAction
   ) throws IOException, InterruptedException {
     try {
+      if (subscription.isPresent()) {
+        postSubscribedEvents(buckEventBus);
+        return;
+      }
       Optional<? extends Map<String, ? extends Object>> queryResponse =
           watchmanClient.queryWithTimeout(
               TimeUnit.MILLISECONDS.toNanos(timeoutMillis),
@@ -233,80 +243,7 @@ public class WatchmanWatcher {
             createOverflowEvent("Query to Watchman timed out after " + timeoutMillis + "ms"));
         return;
       }
-
-      Map<String, ? extends Object> response = queryResponse.get();
-      String error = (String) response.get("error");
-      if (error != null) {
-        // This message is not de-duplicated via WatchmanDiagnostic.
-        WatchmanWatcherException e = new WatchmanWatcherException(error);
-        LOG.error(
-            e,
-            "Error in Watchman output. Posting an overflow event to flush the caches");
-        postWatchEvent(createOverflowEvent("Watchman Error occurred - " + e.getMessage()));
-        throw e;
-      }
-
-      String warning = (String) response.get("warning");
-      if (warning != null) {
-        buckEventBus.post(
-            new WatchmanDiagnosticEvent(
-                WatchmanDiagnostic.of(WatchmanDiagnostic.Level.WARNING, warning)));
-      }
-
-      Boolean isFreshInstance = (Boolean) response.get("is_fresh_instance");
-      if (isFreshInstance != null && isFreshInstance) {
-        LOG.debug(
-            "Watchman indicated a fresh instance (fresh instance action %s)",
-            freshInstanceAction);
-        switch (freshInstanceAction) {
-          case NONE:
-            break;
-          case POST_OVERFLOW_EVENT:
-            postWatchEvent(createOverflowEvent("New Buck instance"));
-            break;
-        }
-        return;
-      }
-      if (sinceCursor.get().startsWith("c:")) {
-        // Update the clockId
-        String newCursor = Optional
-          .ofNullable((String) response.get("clock"))
-          .orElse(Watchman.NULL_CLOCK);
-        LOG.debug("Updating Watchman Cursor from %s to %s", sinceCursor.get(), newCursor);
-        sinceCursor.set(newCursor);
-      }
-
-      List<Map<String, Object>> files = (List<Map<String, Object>>) response.get("files");
-      if (files != null) {
-        if (files.size() > overflow) {
-          String message = "Too many changed files (" + files.size() + " > " + overflow + ")";
-          LOG.warn(message + ", posting overflow event");
-          postWatchEvent(createOverflowEvent(message));
-          return;
-        }
-
-        for (Map<String, Object> file : files) {
-          String fileName = (String) file.get("name");
-          if (fileName == null) {
-            LOG.warn("Filename missing from Watchman file response %s", file);
-            postWatchEvent(createOverflowEvent("Filename missing from Watchman response"));
-            return;
-          }
-          PathEventBuilder builder = new PathEventBuilder();
-          builder.setPath(Paths.get(fileName));
-          Boolean fileNew = (Boolean) file.get("new");
-          if (fileNew != null && fileNew) {
-            builder.setCreationEvent();
-          }
-          Boolean fileExists = (Boolean) file.get("exists");
-          if (fileExists != null && !fileExists) {
-            builder.setDeletionEvent();
-          }
-          postWatchEvent(builder.build());
-        }
-
-        LOG.debug("Posted %d Watchman events.", files.size());
-      }
+      postEvents(queryResponse.get(), Optional.of(buckEventBus), freshInstanceAction);
     } catch (InterruptedException e) {
       String message = "Watchman communication interrupted";
       LOG.warn(e, message);
@@ -323,6 +260,174 @@ public class WatchmanWatcher {
     }
   }
 
+  private void postSubscribedEvents(BuckEventBus buckEventBus)
+      throws IOException, InterruptedException {
+    Optional<Map<String, Object>> flushResponse =
+        subscription.get().flush(TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+    if (!flushResponse.isPresent()) {
+      LOG.warn("Could not flush the Watchman subscription within %d ms", timeoutMillis);
+      postWatchEvent(
+          createOverflowEvent("Flushing Watchman timed out after " + timeoutMillis + "ms"));
+      return;
+    }
+    postOverflowIfError(flushResponse.get());
+    postQueuedEvents(Optional.of(buckEventBus));
+  }
+
+  /**
+   * Posts the changes the subscription of this watcher queued so far, without waiting for Watchman
+   * to deliver more. The daemon calls this between commands, so that commands find the caches
+   * already invalidated. Warnings from Watchman are only logged.
+   */
+  public void postQueuedEvents() throws WatchmanWatcherException {
+    Preconditions.checkState(subscription.isPresent());
+    postQueuedEvents(Optional.empty());
+  }
+
+  private void postQueuedEvents(Optional<BuckEventBus> buckEventBus)
+      throws WatchmanWatcherException {
+    Optional<ImmutableList<Map<String, Object>>> queuedChanges =
+        subscription.get().drainChanges();
+    if (!queuedChanges.isPresent()) {
+      String message = "Too many changed files queued (> " + overflow + ")";
+      LOG.warn(message + ", posting overflow event");
+      postWatchEvent(createOverflowEvent(message));
+      return;
+    }
+    int files = 0;
+    for (Map<String, Object> changes : queuedChanges.get()) {
+      files += WatchmanSubscription.countFiles(changes);
+    }
+    if (files > overflow) {
+      String message = "Too many changed files (" + files + " > " + overflow + ")";
+      LOG.warn(message + ", posting overflow event");
+      postWatchEvent(createOverflowEvent(message));
+      return;
+    }
+    for (Map<String, Object> changes : queuedChanges.get()) {
+      postEvents(changes, buckEventBus, FreshInstanceAction.POST_OVERFLOW_EVENT);
+    }
+  }
+
+  /**
+   * Subscribes to the changes this watcher queries for. They are queued as they arrive, up to the
+   * overflow threshold, and {@link #postQueuedEvents()} or later calls to {@link #postEvents}
+   * post them rather than querying Watchman, so that caches are never invalidated while a
+   * command is running.
+   *
+   * @param freshInstanceAction what to do about the changes made before the subscription.
+   */
+  public WatchmanSubscription subscribe(
+      Path socketPath,
+      String name,
+      FreshInstanceAction freshInstanceAction) throws IOException, InterruptedException {
+    WatchmanSubscription subscription = WatchmanSubscription.subscribe(
+        socketPath,
+        name,
+        query,
+        freshInstanceAction == FreshInstanceAction.POST_OVERFLOW_EVENT,
+        Math.max(overflow, 0),
+        TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+    useSubscription(subscription);
+    return subscription;
+  }
+
+  /**
+   * Makes {@link #postEvents} catch up with {@code subscription}, which was set up by
+   * {@link #subscribe}, instead of querying Watchman.
+   */
+  public void useSubscription(WatchmanSubscription subscription) {
+    this.subscription = Optional.of(subscription);
+  }
+
+  private void postOverflowIfError(Map<String, ? extends Object> response)
+      throws WatchmanWatcherException {
+    String error = (String) response.get("error");
+    if (error != null) {
+      // This message is not de-duplicated via WatchmanDiagnostic.
+      WatchmanWatcherException e = new WatchmanWatcherException(error);
+      LOG.error(
+          e,
+          "Error in Watchman output. Posting an overflow event to flush the caches");
+      postWatchEvent(createOverflowEvent("Watchman Error occurred - " + e.getMessage()));
+      throw e;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void postEvents(
+      Map<String, ? extends Object> response,
+      Optional<BuckEventBus> buckEventBus,
+      FreshInstanceAction freshInstanceAction) throws WatchmanWatcherException {
+    postOverflowIfError(response);
+
+    String warning = (String) response.get("warning");
+    if (warning != null) {
+      if (buckEventBus.isPresent()) {
+        buckEventBus.get().post(
+            new WatchmanDiagnosticEvent(
+                WatchmanDiagnostic.of(WatchmanDiagnostic.Level.WARNING, warning)));
+      } else {
+        LOG.warn("Warning from Watchman: %s", warning);
+      }
+    }
+
+    Boolean isFreshInstance = (Boolean) response.get("is_fresh_instance");
+    if (isFreshInstance != null && isFreshInstance) {
+      LOG.debug(
+          "Watchman indicated a fresh instance (fresh instance action %s)",
+          freshInstanceAction);
+      switch (freshInstanceAction) {
+        case NONE:
+          break;
+        case POST_OVERFLOW_EVENT:
+          postWatchEvent(createOverflowEvent("New Buck instance"));
+          break;
+      }
+      return;
+    }
+    if (sinceCursor.get().startsWith("c:")) {
+      // Update the clockId
+      String newCursor = Optional
+        .ofNullable((String) response.get("clock"))
+        .orElse(Watchman.NULL_CLOCK);
+      LOG.debug("Updating Watchman Cursor from %s to %s", sinceCursor.get(), newCursor);
+      sinceCursor.set(newCursor);
+    }
+
+    List<Map<String, Object>> files = (List<Map<String, Object>>) response.get("files");
+    if (files != null) {
+      if (files.size() > overflow) {
+        String message = "Too many changed files (" + files.size() + " > " + overflow + ")";
+        LOG.warn(message + ", posting overflow event");
+        postWatchEvent(createOverflowEvent(message));
+        return;
+      }
+
+      for (Map<String, Object> file : files) {
+        String fileName = (String) file.get("name");
+        if (fileName == null) {
+          LOG.warn("Filename missing from Watchman file response %s", file);
+          postWatchEvent(createOverflowEvent("Filename missing from Watchman response"));
+          return;
+        }
+        PathEventBuilder builder = new PathEventBuilder();
+        builder.setPath(Paths.get(fileName));
+        Boolean fileNew = (Boolean) file.get("new");
+        if (fileNew != null && fileNew) {
+          builder.setCreationEvent();
+        }
+        Boolean fileExists = (Boolean) file.get("exists");
+        if (fileExists != null && !fileExists) {
+          builder.setDeletionEvent();
+        }
+        postWatchEvent(builder.build());
+      }
+
+      LOG.debug("Posted %d Watchman events.", files.size());
+    }
+  }
+
   private void postWatchEvent(WatchEvent<?> event) {
     LOG.warn("Posting WatchEvent: %s", event);
     fileChangeEventBus.post(event);
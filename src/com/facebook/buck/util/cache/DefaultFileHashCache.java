@@ -34,6 +34,7 @@ import com.google.common.hash.Hashing;
 import java.io.IOException;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
 
@@ -46,6 +47,7 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
 
   private final ProjectFilesystem projectFilesystem;
   private final Optional<Path> buckOutPath;
+  private final Optional<PersistentFileHashIndex> persistentIndex;
 
   @VisibleForTesting
   final LoadingCache<Path, HashCodeAndFileType> loadingCache;
@@ -57,8 +59,20 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
   DefaultFileHashCache(
       ProjectFilesystem projectFilesystem,
       Optional<Path> buckOutPath) {
+    this(projectFilesystem, buckOutPath, Optional.empty());
+  }
+
+  /**
+   * @param persistentIndex if present, consulted before hashing a file, and updated with the
+   *     hashes of files that aren't in it yet.
+   */
+  DefaultFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      Optional<Path> buckOutPath,
+      Optional<PersistentFileHashIndex> persistentIndex) {
     this.projectFilesystem = projectFilesystem;
     this.buckOutPath = buckOutPath;
+    this.persistentIndex = persistentIndex;
 
     this.loadingCache =
         CacheBuilder.newBuilder().build(
@@ -103,7 +117,20 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
   }
 
   private HashCode getFileHashCode(Path path) throws IOException {
-    return projectFilesystem.computeSha1(path).asHashCode();
+    if (!persistentIndex.isPresent()) {
+      return projectFilesystem.computeSha1(path).asHashCode();
+    }
+
+    BasicFileAttributes attributes =
+        projectFilesystem.readAttributes(path, BasicFileAttributes.class);
+    Optional<HashCode> recorded = persistentIndex.get().get(path, attributes);
+    if (recorded.isPresent()) {
+      return recorded.get();
+    }
+    long hashStartMillis = System.currentTimeMillis();
+    HashCode hashCode = projectFilesystem.computeSha1(path).asHashCode();
+    persistentIndex.get().put(path, attributes, hashCode, hashStartMillis);
+    return hashCode;
   }
 
   private long getPathSize(Path path) throws IOException {
@@ -0,0 +1,424 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache;
+
+import com.facebook.buck.io.MorePaths;
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * An on-disk record of the sha1 of files in a project, keyed by their path and validated by
+ * their size, modification time and file key (the inode on most file systems), so that a new
+ * daemon does not have to re-hash every input it has hashed before.
+ * <p>
+ * The index is a single append-only file. It is memory-mapped and read in full when opened, and
+ * every newly computed hash is appended to it. Later records for a path override earlier ones,
+ * and the file is rewritten without the overridden records when they make up most of it. Only
+ * one process can use the index at a time; others get {@link Optional#empty()} from
+ * {@link #open(Path)} and hash as usual.
+ */
+public class PersistentFileHashIndex implements Closeable {
+
+  private static final Logger LOG = Logger.get(PersistentFileHashIndex.class);
+
+  private static final int MAGIC = 0x42464849;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+  private static final int SHA1_SIZE = 20;
+  // path length, size, modification time, file key, sha1 and checksum.
+  private static final int FIXED_RECORD_SIZE = 2 + 8 + 8 + 8 + SHA1_SIZE + 4;
+  private static final int MIN_RECORDS_TO_COMPACT = 1024;
+
+  /**
+   * Files modified this close to the time we started hashing them might be modified again
+   * without their modification time changing, so their hashes are not recorded.
+   */
+  private static final long RACY_MODIFICATION_WINDOW_MILLIS = 1000;
+
+  private final Map<String, Entry> entries;
+  private final FileChannel lockChannel;
+  private final FileLock lock;
+  private final FileChannel channel;
+
+  private PersistentFileHashIndex(
+      Map<String, Entry> entries,
+      FileChannel lockChannel,
+      FileLock lock,
+      FileChannel channel) {
+    this.entries = entries;
+    this.lockChannel = lockChannel;
+    this.lock = lock;
+    this.channel = channel;
+  }
+
+  /**
+   * Opens the index stored in {@code directory}, creating it if necessary.
+   *
+   * @return the index, or {@link Optional#empty()} if another process is using it.
+   */
+  public static Optional<PersistentFileHashIndex> open(Path directory) throws IOException {
+    Files.createDirectories(directory);
+    FileChannel lockChannel = FileChannel.open(
+        directory.resolve("lock"),
+        StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE);
+    FileLock lock = null;
+    try {
+      try {
+        lock = lockChannel.tryLock();
+      } catch (OverlappingFileLockException e) {
+        // Already open in this process.
+      }
+      if (lock == null) {
+        LOG.info("%s is already in use, not persisting file hashes.", directory);
+        lockChannel.close();
+        return Optional.empty();
+      }
+
+      Path indexFile = directory.resolve("index");
+      Map<String, Entry> entries = new ConcurrentHashMap<>();
+      long validLength = read(indexFile, entries);
+      if (validLength >= 0 && needsCompaction(validLength, entries.size())) {
+        validLength = compact(directory, indexFile, entries, validLength);
+      }
+
+      FileChannel channel = FileChannel.open(
+          indexFile,
+          StandardOpenOption.CREATE,
+          StandardOpenOption.READ,
+          StandardOpenOption.WRITE);
+      try {
+        if (validLength < 0) {
+          // Missing, from another version, or corrupt: start over.
+          entries.clear();
+          channel.truncate(0);
+          ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+          header.putInt(MAGIC).putInt(VERSION).flip();
+          writeFully(channel, header);
+        } else {
+          // Drop whatever is left of a record that was only partially written.
+          channel.truncate(validLength);
+          channel.position(validLength);
+        }
+      } catch (IOException e) {
+        channel.close();
+        throw e;
+      }
+      return Optional.of(new PersistentFileHashIndex(entries, lockChannel, lock, channel));
+    } catch (IOException | RuntimeException e) {
+      if (lock != null) {
+        lock.release();
+      }
+      lockChannel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Reads all valid records of {@code indexFile} into {@code entries}.
+   *
+   * @return the length of the valid prefix of the file, or -1 if it can't be used at all.
+   */
+  private static long read(Path indexFile, Map<String, Entry> entries) throws IOException {
+    if (!Files.isRegularFile(indexFile)) {
+      return -1;
+    }
+    try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+        return -1;
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      try {
+        return read(buffer, entries);
+      } finally {
+        // Compacting replaces the file, which Windows refuses to do while it is mapped.
+        unmap(buffer);
+      }
+    }
+  }
+
+  /**
+   * @return the length of the valid prefix of {@code buffer}, or -1 if it can't be used at all.
+   */
+  private static int read(ByteBuffer buffer, Map<String, Entry> entries) {
+    if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+      return -1;
+    }
+    int validLength = buffer.position();
+    byte[] sha1 = new byte[SHA1_SIZE];
+    CRC32 crc = new CRC32();
+    try {
+      while (buffer.remaining() >= FIXED_RECORD_SIZE) {
+        int start = buffer.position();
+        int pathLength = buffer.getShort() & 0xffff;
+        if (pathLength == 0) {
+          break;
+        }
+        byte[] path = new byte[pathLength];
+        buffer.get(path);
+        long fileSize = buffer.getLong();
+        long lastModified = buffer.getLong();
+        long fileKey = buffer.getLong();
+        buffer.get(sha1);
+        int end = buffer.position();
+        int checksum = buffer.getInt();
+
+        crc.reset();
+        ByteBuffer record = buffer.duplicate();
+        record.position(start).limit(end);
+        crc.update(record);
+        if ((int) crc.getValue() != checksum) {
+          break;
+        }
+        entries.put(
+            new String(path, StandardCharsets.UTF_8),
+            new Entry(fileSize, lastModified, fileKey, HashCode.fromBytes(sha1.clone())));
+        validLength = buffer.position();
+      }
+    } catch (BufferUnderflowException e) {
+      // A partially written record at the end of the file.
+    }
+    return validLength;
+  }
+
+  /**
+   * Unmaps {@code buffer} right away instead of whenever it is garbage collected. The buffer must
+   * not be used afterwards.
+   */
+  private static void unmap(MappedByteBuffer buffer) {
+    try {
+      Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+      cleanerMethod.setAccessible(true);
+      Object cleaner = cleanerMethod.invoke(buffer);
+      if (cleaner != null) {
+        cleaner.getClass().getMethod("clean").invoke(cleaner);
+      }
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      LOG.debug(e, "Could not unmap the index, it stays mapped until garbage collected.");
+    }
+  }
+
+  /**
+   * Rewrites {@code indexFile} with only the live {@code entries}. Failing to do so only costs
+   * some disk space, so the index is kept as it is in that case.
+   *
+   * @return the length of the valid prefix of the index file afterwards.
+   */
+  private static long compact(
+      Path directory,
+      Path indexFile,
+      Map<String, Entry> entries,
+      long validLength) throws IOException {
+    LOG.debug("Compacting %s down to %d entries.", indexFile, entries.size());
+    Path tmp = directory.resolve("index.tmp");
+    try {
+      write(tmp, entries);
+      Files.move(
+          tmp,
+          indexFile,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOG.warn(e, "Could not compact %s.", indexFile);
+      Files.deleteIfExists(tmp);
+      return validLength;
+    }
+    return Files.size(indexFile);
+  }
+
+  private static boolean needsCompaction(long length, int liveRecords) {
+    long averageRecordSize = FIXED_RECORD_SIZE + 64;
+    long records = (length - HEADER_SIZE) / averageRecordSize;
+    return records > MIN_RECORDS_TO_COMPACT && records > 2L * liveRecords;
+  }
+
+  private static void write(Path indexFile, Map<String, Entry> entries) throws IOException {
+    try (FileChannel channel = FileChannel.open(
+        indexFile,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC).putInt(VERSION).flip();
+      writeFully(channel, header);
+      for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+        writeFully(channel, encode(entry.getKey(), entry.getValue()));
+      }
+    }
+  }
+
+  private static ByteBuffer encode(String path, Entry entry) {
+    byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer record = ByteBuffer.allocate(FIXED_RECORD_SIZE + pathBytes.length);
+    record.putShort((short) pathBytes.length);
+    record.put(pathBytes);
+    record.putLong(entry.size);
+    record.putLong(entry.lastModified);
+    record.putLong(entry.fileKey);
+    record.put(entry.sha1.asBytes());
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), 0, record.position());
+    record.putInt((int) crc.getValue());
+    record.flip();
+    return record;
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static long getFileKey(BasicFileAttributes attributes) {
+    Object fileKey = attributes.fileKey();
+    if (fileKey == null) {
+      return 0;
+    }
+    return Hashing.murmur3_128().hashUnencodedChars(fileKey.toString()).asLong();
+  }
+
+  private static String getKey(Path relativePath) {
+    return MorePaths.pathWithUnixSeparators(relativePath);
+  }
+
+  /**
+   * @return the recorded sha1 of the file at {@code relativePath}, if the file still looks the
+   *     way it did when it was recorded.
+   */
+  public Optional<HashCode> get(Path relativePath, BasicFileAttributes attributes) {
+    Entry entry = entries.get(getKey(relativePath));
+    if (entry == null ||
+        entry.size != attributes.size() ||
+        entry.lastModified != attributes.lastModifiedTime().toMillis() ||
+        entry.fileKey != getFileKey(attributes)) {
+      return Optional.empty();
+    }
+    return Optional.of(entry.sha1);
+  }
+
+  /**
+   * Records the sha1 of the file at {@code relativePath}.
+   *
+   * @param attributes the attributes of the file, read before it was hashed.
+   * @param hashStartMillis when hashing the file started.
+   */
+  public void put(
+      Path relativePath,
+      BasicFileAttributes attributes,
+      HashCode sha1,
+      long hashStartMillis) {
+    long lastModified = attributes.lastModifiedTime().toMillis();
+    if (lastModified >= hashStartMillis - RACY_MODIFICATION_WINDOW_MILLIS) {
+      return;
+    }
+    String key = getKey(relativePath);
+    if (key.isEmpty() || key.getBytes(StandardCharsets.UTF_8).length > 0xffff) {
+      return;
+    }
+    Entry entry = new Entry(attributes.size(), lastModified, getFileKey(attributes), sha1);
+    if (entry.equals(entries.get(key))) {
+      return;
+    }
+    ByteBuffer record = encode(key, entry);
+    synchronized (channel) {
+      if (!channel.isOpen()) {
+        return;
+      }
+      try {
+        writeFully(channel, record);
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to record the hash of %s.", relativePath);
+        return;
+      }
+      entries.put(key, entry);
+    }
+  }
+
+  @VisibleForTesting
+  int getEntryCount() {
+    return entries.size();
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (channel) {
+      try {
+        channel.close();
+      } finally {
+        try {
+          lock.release();
+        } finally {
+          lockChannel.close();
+        }
+      }
+    }
+  }
+
+  private static class Entry {
+    private final long size;
+    private final long lastModified;
+    private final long fileKey;
+    private final HashCode sha1;
+
+    private Entry(long size, long lastModified, long fileKey, HashCode sha1) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.fileKey = fileKey;
+      this.sha1 = sha1;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Entry)) {
+        return false;
+      }
+      Entry that = (Entry) other;
+      return size == that.size &&
+          lastModified == that.lastModified &&
+          fileKey == that.fileKey &&
+          sha1.equals(that.sha1);
+    }
+
+    @Override
+    public int hashCode() {
+      return sha1.hashCode();
+    }
+  }
+}
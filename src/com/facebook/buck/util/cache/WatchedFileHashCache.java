@@ -31,7 +31,17 @@ public class WatchedFileHashCache extends DefaultFileHashCache {
   private static final Logger LOG = Logger.get(WatchedFileHashCache.class);
 
   public WatchedFileHashCache(ProjectFilesystem projectFilesystem) {
-    super(projectFilesystem, Optional.empty());
+    this(projectFilesystem, Optional.empty());
+  }
+
+  /**
+   * @param persistentIndex if present, hashes are looked up in and recorded to it, so they can be
+   *     reused by the next daemon.
+   */
+  public WatchedFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      Optional<PersistentFileHashIndex> persistentIndex) {
+    super(projectFilesystem, Optional.empty(), persistentIndex);
   }
 
   /**
@@ -25,4 +25,14 @@ import org.immutables.value.Value;
 abstract class AbstractListeningSemaphoreArrayPendingItem {
   public abstract SettableFuture<Void> getFuture();
   public abstract ResourceAmounts getResources();
+
+  /**
+   * Pending items with a higher priority are granted their resources first.
+   */
+  public abstract long getPriority();
+
+  /**
+   * Order in which the item was queued, used to keep items of equal priority in FIFO order.
+   */
+  public abstract long getSequenceNumber();
 }
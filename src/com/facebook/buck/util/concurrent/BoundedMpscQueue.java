@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.concurrent;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nullable;
+
+/**
+ * A bounded FIFO ring buffer that any number of threads may {@link #offer} to without locking,
+ * but that only one thread at a time may {@link #poll} from.
+ * <p>
+ * Each slot carries a sequence number which tells producers whether the slot is free for the
+ * position they claimed and tells the consumer whether the element in it has been published, so
+ * the only contended operation is the producers' compare-and-set on the tail.
+ *
+ * @param <E> Type of contained elements.
+ */
+public class BoundedMpscQueue<E> {
+
+  private final int mask;
+  private final AtomicReferenceArray<E> elements;
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong();
+  // Only written by the consumer, but read by producers to estimate the size.
+  private volatile long head;
+
+  /**
+   * @param capacity the minimum number of elements the queue can hold. It is rounded up to the
+   *     next power of two, and to at least two, since with a single slot the sequence number of
+   *     a published element would be the same as that of a free slot in the next lap.
+   */
+  public BoundedMpscQueue(int capacity) {
+    Preconditions.checkArgument(
+        capacity > 0 && capacity <= 1 << 30,
+        "Capacity must be between 1 and 2^30, was %s",
+        capacity);
+    int size = Math.max(2, Integer.highestOneBit(capacity));
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.mask = size - 1;
+    this.elements = new AtomicReferenceArray<>(size);
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * @return true if {@code element} was added, false if the queue was full.
+   */
+  public boolean offer(E element) {
+    Preconditions.checkNotNull(element);
+    long position = tail.get();
+    while (true) {
+      int index = (int) position & mask;
+      long difference = sequences.get(index) - position;
+      if (difference == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          elements.lazySet(index, element);
+          // Publishes the element to the consumer.
+          sequences.set(index, position + 1);
+          return true;
+        }
+        position = tail.get();
+      } else if (difference < 0) {
+        // The consumer has not yet freed the slot from the previous lap.
+        return false;
+      } else {
+        // Another producer claimed this position first.
+        position = tail.get();
+      }
+    }
+  }
+
+  /**
+   * Must only be called by one thread at a time.
+   *
+   * @return the oldest published element, or null if there is none.
+   */
+  @Nullable
+  public E poll() {
+    long position = head;
+    int index = (int) position & mask;
+    if (sequences.get(index) != position + 1) {
+      return null;
+    }
+    E element = elements.get(index);
+    elements.lazySet(index, null);
+    // Hands the slot to the producers of the next lap.
+    sequences.set(index, position + mask + 1);
+    head = position + 1;
+    return element;
+  }
+
+  /**
+   * @return whether there is no element that {@link #poll} could return. Elements whose offer is
+   *     still in progress may not be counted.
+   */
+  public boolean isEmpty() {
+    long position = head;
+    return sequences.get((int) position & mask) != position + 1;
+  }
+
+  /**
+   * @return an estimate of the number of elements in the queue, including those whose offer is
+   *     still in progress.
+   */
+  public int size() {
+    long size = tail.get() - head;
+    return (int) Math.max(0, Math.min(size, capacity()));
+  }
+
+  public int capacity() {
+    return mask + 1;
+  }
+}
@@ -21,19 +21,34 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 
+import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
 
 /**
  * A semaphore using {@link ListenableFuture}s for acquisition of different resource types
  * rather than blocking.
+ * <p>
+ * Requests which cannot be satisfied immediately are granted in order of their priority, and
+ * in the order they were made among requests of the same priority.
  */
 public class ListeningMultiSemaphore {
 
+  /**
+   * Priority of requests which don't specify one.
+   */
+  public static final long DEFAULT_PRIORITY = 0;
+
+  private static final Comparator<ListeningSemaphoreArrayPendingItem> PENDING_ITEM_ORDER =
+      Comparator.comparingLong(ListeningSemaphoreArrayPendingItem::getPriority).reversed()
+          .thenComparingLong(ListeningSemaphoreArrayPendingItem::getSequenceNumber);
+
   private ResourceAmounts usedValues;
   private final ResourceAmounts maximumValues;
-  private final List<ListeningSemaphoreArrayPendingItem> pending = new LinkedList<>();
+  private final NavigableSet<ListeningSemaphoreArrayPendingItem> pending =
+      new TreeSet<>(PENDING_ITEM_ORDER);
+  private long nextSequenceNumber = 0;
   private final ResourceAllocationFairness fairness;
 
   public ListeningMultiSemaphore(
@@ -56,7 +71,15 @@ public class ListeningMultiSemaphore {
    *
    * @return Future that will be completed once resource will be acquired.
    */
-  public synchronized ListenableFuture<Void> acquire(ResourceAmounts resources) {
+  public ListenableFuture<Void> acquire(ResourceAmounts resources) {
+    return acquire(resources, DEFAULT_PRIORITY);
+  }
+
+  /**
+   * Like {@link #acquire(ResourceAmounts)}, but if the resources are not available right away,
+   * the request is granted before any pending request with a lower priority.
+   */
+  public synchronized ListenableFuture<Void> acquire(ResourceAmounts resources, long priority) {
     if (resources.equals(ResourceAmounts.ZERO)) {
       return Futures.immediateFuture(null);
     }
@@ -64,7 +87,12 @@ public class ListeningMultiSemaphore {
     resources = capResourceAmounts(resources);
     if (!checkIfResourcesAvailable(resources)) {
       SettableFuture<Void> pendingFuture = SettableFuture.create();
-      pending.add(ListeningSemaphoreArrayPendingItem.of(pendingFuture, resources));
+      pending.add(
+          ListeningSemaphoreArrayPendingItem.of(
+              pendingFuture,
+              resources,
+              priority,
+              nextSequenceNumber++));
       return pendingFuture;
     }
     increaseUsedResources(resources);
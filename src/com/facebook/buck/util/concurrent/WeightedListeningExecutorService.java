@@ -68,10 +68,11 @@ public class WeightedListeningExecutorService extends AbstractListeningExecutorS
 
   private <T> ListenableFuture<T> submitWithSemaphore(
       final Callable<T> callable,
-      final ResourceAmounts amounts) {
+      final ResourceAmounts amounts,
+      long priority) {
     ListenableFuture<T> future =
         Futures.transformAsync(
-            semaphore.acquire(amounts),
+            semaphore.acquire(amounts, priority),
             input -> {
               try {
                 return Futures.immediateFuture(callable.call());
@@ -105,7 +106,8 @@ public class WeightedListeningExecutorService extends AbstractListeningExecutorS
           task.run();
           return result;
         },
-        amounts);
+        amounts,
+        ListeningMultiSemaphore.DEFAULT_PRIORITY);
   }
 
   @Nonnull
@@ -115,7 +117,18 @@ public class WeightedListeningExecutorService extends AbstractListeningExecutorS
   }
 
   public <T> ListenableFuture<T> submit(Callable<T> task, ResourceAmounts amounts) {
-    return submitWithSemaphore(task, amounts);
+    return submitWithSemaphore(task, amounts, ListeningMultiSemaphore.DEFAULT_PRIORITY);
+  }
+
+  /**
+   * Submits a task which, while it waits for resources, runs before waiting tasks with a lower
+   * priority.
+   */
+  public <T> ListenableFuture<T> submit(
+      Callable<T> task,
+      ResourceAmounts amounts,
+      long priority) {
+    return submitWithSemaphore(task, amounts, priority);
   }
 
   @Nonnull
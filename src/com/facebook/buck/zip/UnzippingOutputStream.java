@@ -0,0 +1,473 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import com.facebook.buck.io.MoreFiles;
+import com.facebook.buck.io.MorePosixFilePermissions;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+
+import org.apache.commons.compress.archivers.zip.ZipUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+import javax.annotation.Nullable;
+
+/**
+ * Unpacks the zip written to it into a {@link ProjectFilesystem} as the bytes arrive, with the
+ * same results as {@link Unzip#extractZipFile(Path, ProjectFilesystem, Unzip.ExistingFileMode)},
+ * so that a zip can be unpacked while it is still being downloaded.
+ * <p>
+ * Entries are read from their local headers, and each entry's CRC is checked as soon as its data
+ * has been written out. File modes and symlinks are only recorded in the central directory, so
+ * they are applied when it arrives at the end of the zip. Only what {@link CustomZipOutputStream}
+ * writes is supported: stored or deflated entries, without encryption or zip64 extensions.
+ * Anything else fails with an {@link IOException}, and the zip should then be unpacked from a file
+ * instead. So do entries whose names would unpack them outside of the directory the zip is
+ * unpacked into.
+ */
+public class UnzippingOutputStream extends OutputStream {
+
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+  private static final int ENCRYPTED_FLAG = 1;
+  private static final int DATA_DESCRIPTOR_FLAG = 1 << 3;
+  private static final int UNIX_PLATFORM = 3;
+  private static final int UNIX_FILE_TYPE_MASK = 0170000;
+  private static final int UNIX_SYMLINK_TYPE = 0120000;
+
+  private enum State {
+    SIGNATURE,
+    LOCAL_FILE_HEADER,
+    ENTRY_NAME,
+    ENTRY_DATA,
+    DATA_DESCRIPTOR,
+    CENTRAL_DIRECTORY_FILE_HEADER,
+    CENTRAL_DIRECTORY_NAME,
+    DONE,
+  }
+
+  private final ProjectFilesystem filesystem;
+  private final Path relativePath;
+  private final Unzip.ExistingFileMode existingFileMode;
+
+  private final ImmutableList.Builder<Path> filesWritten = ImmutableList.builder();
+  private final ImmutableList.Builder<Path> entriesExtracted = ImmutableList.builder();
+  // Every path extracted so far, and all of their parents, so that cleaning a directory which
+  // shows up after its contents does not delete them again.
+  private final Set<Path> extractedPaths = new HashSet<>();
+  private final Set<Path> parentsOfExtractedPaths = new HashSet<>();
+
+  // The header, or other fixed-size record, currently being accumulated.
+  private byte[] header = new byte[64];
+  private int headerBytesNeeded;
+  private int headerBytesRead;
+  private State state;
+
+  // The local entry currently being unpacked.
+  private int entryFlags;
+  private int entryMethod;
+  private long entryTime;
+  private long entryCrc;
+  private long entryBytesRemaining;
+  private int entryNameLength;
+  @Nullable
+  private Path entryTarget;
+  @Nullable
+  private OutputStream entryOutput;
+  private final CRC32 crc = new CRC32();
+  private final Inflater inflater = new Inflater(/* nowrap */ true);
+  private final byte[] inflated = new byte[8192];
+
+  // The central directory file header currently being read.
+  private int versionMadeBy;
+  private long externalAttributes;
+
+  @Nullable
+  private IOException failure;
+
+  public UnzippingOutputStream(
+      ProjectFilesystem filesystem,
+      Path relativePath,
+      Unzip.ExistingFileMode existingFileMode) {
+    this.filesystem = filesystem;
+    this.relativePath = relativePath;
+    this.existingFileMode = existingFileMode;
+    expect(State.SIGNATURE, 4);
+  }
+
+  public UnzippingOutputStream(
+      ProjectFilesystem filesystem,
+      Unzip.ExistingFileMode existingFileMode) {
+    this(filesystem, filesystem.getRootPath().getFileSystem().getPath(""), existingFileMode);
+  }
+
+  /**
+   * @return whether the whole zip, up to and including its central directory, has been unpacked.
+   */
+  public boolean isComplete() {
+    return state == State.DONE && failure == null;
+  }
+
+  /**
+   * @return the paths of the files written so far, relative to the project root.
+   */
+  public ImmutableList<Path> getFilesWritten() {
+    return filesWritten.build();
+  }
+
+  /**
+   * @return the names of the entries unpacked so far, directories included, in the order they
+   *     appear in the zip, as paths relative to the directory the zip is unpacked into.
+   */
+  public ImmutableList<Path> getEntriesExtracted() {
+    return entriesExtracted.build();
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (failure != null) {
+      throw new IOException("Unzipping already failed.", failure);
+    }
+    try {
+      while (len > 0) {
+        int consumed;
+        if (state == State.ENTRY_DATA) {
+          consumed = writeEntryData(b, off, len);
+        } else if (state == State.DONE) {
+          // Whatever follows the end of the central directory, such as a comment, is ignored.
+          consumed = len;
+        } else {
+          consumed = readHeader(b, off, len);
+        }
+        off += consumed;
+        len -= consumed;
+      }
+    } catch (IOException e) {
+      fail(e);
+      throw e;
+    } catch (RuntimeException e) {
+      IOException wrapped = new IOException(e);
+      fail(wrapped);
+      throw wrapped;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    inflater.end();
+    if (failure == null && state != State.DONE) {
+      fail(new IOException("Zip ended before its central directory."));
+    }
+    closeEntryOutput();
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void fail(IOException e) {
+    if (failure == null) {
+      failure = e;
+    }
+    try {
+      closeEntryOutput();
+    } catch (IOException closeFailure) {
+      e.addSuppressed(closeFailure);
+    }
+  }
+
+  private void expect(State newState, int bytes) {
+    state = newState;
+    headerBytesNeeded = bytes;
+    headerBytesRead = 0;
+    if (header.length < bytes) {
+      header = new byte[bytes];
+    }
+  }
+
+  private int readHeader(byte[] b, int off, int len) throws IOException {
+    int toCopy = Math.min(len, headerBytesNeeded - headerBytesRead);
+    System.arraycopy(b, off, header, headerBytesRead, toCopy);
+    headerBytesRead += toCopy;
+    if (headerBytesRead == headerBytesNeeded) {
+      onHeaderRead();
+    }
+    return toCopy;
+  }
+
+  private void onHeaderRead() throws IOException {
+    switch (state) {
+      case SIGNATURE:
+        long signature = readInt(0);
+        if (signature == ZipEntry.LOCSIG) {
+          expect(State.LOCAL_FILE_HEADER, ZipEntry.LOCHDR - 4);
+        } else if (signature == ZipEntry.CENSIG) {
+          expect(State.CENTRAL_DIRECTORY_FILE_HEADER, ZipEntry.CENHDR - 4);
+        } else if (signature == ZipEntry.ENDSIG) {
+          state = State.DONE;
+        } else {
+          throw new IOException(String.format("Unexpected zip record signature %x.", signature));
+        }
+        break;
+
+      case LOCAL_FILE_HEADER:
+        entryFlags = readShort(2);
+        entryMethod = readShort(4);
+        entryTime = readInt(6);
+        entryCrc = readInt(10);
+        entryBytesRemaining = readInt(14);
+        entryNameLength = readShort(22);
+        expect(State.ENTRY_NAME, entryNameLength + readShort(24));
+        break;
+
+      case ENTRY_NAME:
+        startEntry(new String(header, 0, entryNameLength, Charsets.UTF_8));
+        break;
+
+      case DATA_DESCRIPTOR:
+        // The data descriptor's signature is optional, so we only know its length once we have
+        // looked at its first four bytes.
+        if (headerBytesNeeded == 4) {
+          headerBytesNeeded = readInt(0) == ZipEntry.EXTSIG ? ZipEntry.EXTHDR : ZipEntry.EXTHDR - 4;
+          return;
+        }
+        finishEntry(readInt(headerBytesNeeded == ZipEntry.EXTHDR ? 4 : 0));
+        break;
+
+      case CENTRAL_DIRECTORY_FILE_HEADER:
+        versionMadeBy = readShort(0);
+        externalAttributes = readInt(34);
+        entryNameLength = readShort(24);
+        expect(
+            State.CENTRAL_DIRECTORY_NAME,
+            entryNameLength + readShort(26) + readShort(28));
+        break;
+
+      case CENTRAL_DIRECTORY_NAME:
+        applyAttributes(new String(header, 0, entryNameLength, Charsets.UTF_8));
+        expect(State.SIGNATURE, 4);
+        break;
+
+      case ENTRY_DATA:
+      case DONE:
+        throw new IllegalStateException("Not reading a header in state " + state);
+    }
+  }
+
+  private void startEntry(String name) throws IOException {
+    if ((entryFlags & ENCRYPTED_FLAG) != 0) {
+      throw new IOException("Encrypted zip entries are not supported: " + name);
+    }
+    if (entryBytesRemaining == ZIP64_MAGIC) {
+      throw new IOException("Zip64 entries are not supported: " + name);
+    }
+    if (entryMethod == ZipEntry.STORED) {
+      if ((entryFlags & DATA_DESCRIPTOR_FLAG) != 0) {
+        throw new IOException("Stored zip entries of unknown size are not supported: " + name);
+      }
+    } else if (entryMethod == ZipEntry.DEFLATED) {
+      inflater.reset();
+    } else {
+      throw new IOException(
+          String.format("Unsupported compression method %d for %s.", entryMethod, name));
+    }
+    crc.reset();
+
+    Path entry = getEntryPath(name);
+    Path target = relativePath.resolve(entry);
+    if (name.endsWith("/")) {
+      entryTarget = null;
+      cleanBeforeExtracting(target);
+      filesystem.mkdirs(target);
+    } else {
+      entryTarget = target;
+      cleanBeforeExtracting(target);
+      filesystem.createParentDirs(target);
+      entryOutput = filesystem.newFileOutputStream(target);
+      filesWritten.add(target);
+    }
+    recordExtracted(target);
+    entriesExtracted.add(entry);
+
+    state = State.ENTRY_DATA;
+    if (entryMethod == ZipEntry.STORED && entryBytesRemaining == 0) {
+      finishEntryData();
+    }
+  }
+
+  private int writeEntryData(byte[] b, int off, int len) throws IOException {
+    if (entryMethod == ZipEntry.STORED) {
+      int toCopy = (int) Math.min(len, entryBytesRemaining);
+      writeEntryBytes(b, off, toCopy);
+      entryBytesRemaining -= toCopy;
+      if (entryBytesRemaining == 0) {
+        finishEntryData();
+      }
+      return toCopy;
+    }
+
+    inflater.setInput(b, off, len);
+    try {
+      while (!inflater.finished()) {
+        int inflatedBytes = inflater.inflate(inflated);
+        if (inflatedBytes > 0) {
+          writeEntryBytes(inflated, 0, inflatedBytes);
+        } else if (inflater.needsDictionary()) {
+          throw new IOException("Zip entries needing a preset dictionary are not supported.");
+        } else {
+          break;
+        }
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt deflated zip entry.", e);
+    }
+    // Whatever the inflater did not use belongs to the next record.
+    int consumed = len - inflater.getRemaining();
+    if (inflater.finished()) {
+      finishEntryData();
+    }
+    return consumed;
+  }
+
+  private void writeEntryBytes(byte[] b, int off, int len) throws IOException {
+    crc.update(b, off, len);
+    if (entryOutput != null) {
+      entryOutput.write(b, off, len);
+    }
+  }
+
+  private void finishEntryData() throws IOException {
+    if ((entryFlags & DATA_DESCRIPTOR_FLAG) != 0) {
+      expect(State.DATA_DESCRIPTOR, 4);
+    } else {
+      finishEntry(entryCrc);
+    }
+  }
+
+  private void finishEntry(long expectedCrc) throws IOException {
+    closeEntryOutput();
+    if (crc.getValue() != expectedCrc) {
+      throw new IOException("Invalid CRC for zip entry " + entryTarget);
+    }
+    if (entryTarget != null) {
+      // Restore the mtime of the file, as Unzip does.
+      filesystem.resolve(entryTarget).toFile().setLastModified(ZipUtil.dosToJavaTime(entryTime));
+    }
+    expect(State.SIGNATURE, 4);
+  }
+
+  private void closeEntryOutput() throws IOException {
+    if (entryOutput != null) {
+      OutputStream output = entryOutput;
+      entryOutput = null;
+      output.close();
+    }
+  }
+
+  private void applyAttributes(String name) throws IOException {
+    if (name.endsWith("/")) {
+      return;
+    }
+    Path target = relativePath.resolve(getEntryPath(name));
+    int unixMode = ((versionMadeBy >> 8) & 0xff) == UNIX_PLATFORM ?
+        (int) ((externalAttributes >> 16) & 0xffff) :
+        0;
+    if ((unixMode & UNIX_FILE_TYPE_MASK) == UNIX_SYMLINK_TYPE) {
+      // Symlinks were written out as files holding their target.
+      Path file = filesystem.resolve(target);
+      String linkTarget = new String(Files.readAllBytes(file), Charsets.UTF_8);
+      Files.delete(file);
+      filesystem.createSymLink(
+          target,
+          filesystem.getRootPath().getFileSystem().getPath(linkTarget),
+          /* force */ true);
+    } else if (MorePosixFilePermissions.fromMode(externalAttributes >> 16)
+        .contains(PosixFilePermission.OWNER_EXECUTE)) {
+      MoreFiles.makeExecutable(filesystem.resolve(target));
+    }
+  }
+
+  /**
+   * @return the path an entry unpacks to, relative to the directory the zip is unpacked into.
+   */
+  private Path getEntryPath(String name) throws IOException {
+    Path entry = relativePath.getFileSystem().getPath(name).normalize();
+    if (name.startsWith("/") ||
+        entry.isAbsolute() ||
+        entry.toString().isEmpty() ||
+        entry.startsWith("..")) {
+      throw new IOException("Zip entry would be unpacked outside of its directory: " + name);
+    }
+    return entry;
+  }
+
+  private void recordExtracted(Path target) {
+    extractedPaths.add(target);
+    for (Path parent = target.getParent(); parent != null; parent = parent.getParent()) {
+      if (!parentsOfExtractedPaths.add(parent)) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Unzip cleans every entry before extracting any of them. Here the entries arrive one at a time,
+   * so a directory entry showing up after some of its contents must not delete those again.
+   */
+  private void cleanBeforeExtracting(Path target) throws IOException {
+    if (existingFileMode != Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES ||
+        extractedPaths.contains(target)) {
+      return;
+    }
+    if (!parentsOfExtractedPaths.contains(target)) {
+      filesystem.deleteRecursivelyIfExists(target);
+      return;
+    }
+    try (DirectoryStream<Path> children = Files.newDirectoryStream(filesystem.resolve(target))) {
+      for (Path child : children) {
+        cleanBeforeExtracting(target.resolve(child.getFileName().toString()));
+      }
+    }
+  }
+
+  private long readInt(int offset) {
+    return (header[offset] & 0xffL) |
+        (header[offset + 1] & 0xffL) << 8 |
+        (header[offset + 2] & 0xffL) << 16 |
+        (header[offset + 3] & 0xffL) << 24;
+  }
+
+  private int readShort(int offset) {
+    return (header[offset] & 0xff) | (header[offset + 1] & 0xff) << 8;
+  }
+}
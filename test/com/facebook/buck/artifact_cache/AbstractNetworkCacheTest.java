@@ -23,6 +23,8 @@ import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.slb.HttpService;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.util.concurrent.FakeListeningExecutorService;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 
@@ -91,6 +93,20 @@ public class AbstractNetworkCacheTest {
         return null;
       }
 
+      @Override
+      protected ImmutableMap<RuleKey, CacheResult> multiFetchImpl(
+          ImmutableMap<RuleKey, LazyPath> requests,
+          ImmutableMap<RuleKey, HttpArtifactCacheEvent.Finished.Builder> eventBuilders)
+          throws IOException {
+        return null;
+      }
+
+      @Override
+      protected ImmutableMap<RuleKey, CacheResult> multiContainsImpl(
+          ImmutableSet<RuleKey> ruleKeys) throws IOException {
+        return null;
+      }
+
       @Override
       protected void storeImpl(
           ArtifactInfo info,
@@ -105,6 +105,14 @@ public class ArtifactCacheBuckConfigTest {
             ArtifactCacheBuckConfig.ArtifactCacheMode.http));
   }
 
+  @Test
+  public void fetchBatchingIsOnUnlessTheBatchSizeIsOne() throws IOException {
+    assertThat(createFromText("[cache]").isFetchBatchingEnabled(), Matchers.is(true));
+    assertThat(
+        createFromText("[build]", "cache_fetch_batch_size = 1").isFetchBatchingEnabled(),
+        Matchers.is(false));
+  }
+
   @Test
   public void testHttpCacheSettings() throws Exception {
     ArtifactCacheBuckConfig config = createFromText(
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.io.LazyPath;
+import com.facebook.buck.rules.RuleKey;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+public class BatchingArtifactCacheDecoratorTest {
+
+  private static final LazyPath OUTPUT = LazyPath.ofInstance(Paths.get("output"));
+
+  private static final RuleKey RULE_KEY_1 =
+      new RuleKey("1111111111111111111111111111111111111111");
+  private static final RuleKey RULE_KEY_2 =
+      new RuleKey("2222222222222222222222222222222222222222");
+  private static final RuleKey RULE_KEY_3 =
+      new RuleKey("3333333333333333333333333333333333333333");
+  private static final RuleKey RULE_KEY_4 =
+      new RuleKey("4444444444444444444444444444444444444444");
+
+  /**
+   * Records every request, and holds fetches of {@code blockedRuleKey} until released.
+   */
+  private static class RecordingArtifactCache extends NoopArtifactCache {
+    private final List<ImmutableSet<RuleKey>> requests =
+        Collections.synchronizedList(new ArrayList<>());
+    private final RuleKey blockedRuleKey;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private RecordingArtifactCache(RuleKey blockedRuleKey) {
+      this.blockedRuleKey = blockedRuleKey;
+    }
+
+    @Override
+    public CacheResult fetch(RuleKey ruleKey, LazyPath output) {
+      requests.add(ImmutableSet.of(ruleKey));
+      if (ruleKey.equals(blockedRuleKey)) {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      return CacheResult.hit("recording");
+    }
+
+    @Override
+    public ImmutableMap<RuleKey, CacheResult> multiFetch(ImmutableMap<RuleKey, LazyPath> batch) {
+      requests.add(batch.keySet());
+      ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+      for (RuleKey ruleKey : batch.keySet()) {
+        results.put(ruleKey, CacheResult.miss());
+      }
+      return results.build();
+    }
+  }
+
+  @Test
+  public void lonelyFetchIsSentStraightThrough() {
+    RecordingArtifactCache delegate = new RecordingArtifactCache(RULE_KEY_4);
+    try (BatchingArtifactCacheDecorator cache =
+             new BatchingArtifactCacheDecorator(delegate, /* maxBatchSize */ 8, /* inFlight */ 1)) {
+      assertEquals(CacheResultType.HIT, cache.fetch(RULE_KEY_1, OUTPUT).getType());
+      assertEquals(CacheResultType.HIT, cache.fetch(RULE_KEY_2, OUTPUT).getType());
+      assertEquals(
+          ImmutableList.of(ImmutableSet.of(RULE_KEY_1), ImmutableSet.of(RULE_KEY_2)),
+          delegate.requests);
+      assertEquals(0, cache.getPendingFetchCount());
+    }
+  }
+
+  @Test
+  public void fetchesQueuedBehindABusyCacheAreBatched() throws Exception {
+    RecordingArtifactCache delegate = new RecordingArtifactCache(RULE_KEY_1);
+    ListeningExecutorService executor =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+    try (BatchingArtifactCacheDecorator cache =
+             new BatchingArtifactCacheDecorator(delegate, /* maxBatchSize */ 8, /* inFlight */ 1)) {
+      ListenableFuture<CacheResult> first = executor.submit(() -> cache.fetch(RULE_KEY_1, OUTPUT));
+      while (delegate.requests.isEmpty()) {
+        Thread.sleep(1);
+      }
+
+      List<ListenableFuture<CacheResult>> queued = new ArrayList<>();
+      for (RuleKey ruleKey : ImmutableList.of(RULE_KEY_2, RULE_KEY_3, RULE_KEY_4)) {
+        queued.add(executor.submit(() -> cache.fetch(ruleKey, OUTPUT)));
+      }
+      while (cache.getPendingFetchCount() < 4) {
+        Thread.sleep(1);
+      }
+      delegate.release.countDown();
+
+      assertEquals(CacheResultType.HIT, first.get().getType());
+      for (ListenableFuture<CacheResult> result : queued) {
+        assertEquals(CacheResultType.MISS, result.get().getType());
+      }
+      assertEquals(
+          ImmutableList.of(
+              ImmutableSet.of(RULE_KEY_1),
+              ImmutableSet.of(RULE_KEY_2, RULE_KEY_3, RULE_KEY_4)),
+          delegate.requests);
+      assertEquals(0, cache.getPendingFetchCount());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
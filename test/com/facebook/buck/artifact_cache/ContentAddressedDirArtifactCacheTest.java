@@ -0,0 +1,425 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.artifact_cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeThat;
+
+import com.facebook.buck.io.BorrowablePath;
+import com.facebook.buck.io.LazyPath;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.io.UnpackedArtifactSink;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.facebook.buck.util.environment.Platform;
+import com.facebook.buck.util.sha1.Sha1HashCode;
+import com.facebook.buck.zip.CustomZipEntry;
+import com.facebook.buck.zip.CustomZipOutputStream;
+import com.facebook.buck.zip.Unzip;
+import com.facebook.buck.zip.ZipOutputStreams;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+public class ContentAddressedDirArtifactCacheTest {
+
+  private static final RuleKey RULE_KEY_A =
+      new RuleKey("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+  private static final RuleKey RULE_KEY_B =
+      new RuleKey("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+  private static final RuleKey RULE_KEY_C =
+      new RuleKey("cccccccccccccccccccccccccccccccccccccccc");
+  private static final RuleKey RULE_KEY_D =
+      new RuleKey("dddddddddddddddddddddddddddddddddddddddd");
+  private static final Path CACHE_DIR = Paths.get("cache");
+
+  @Rule
+  public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private ContentAddressedDirArtifactCache cache;
+
+  @Before
+  public void setUp() {
+    filesystem = new ProjectFilesystem(tmp.getRoot());
+  }
+
+  @After
+  public void tearDown() {
+    if (cache != null) {
+      cache.close();
+    }
+  }
+
+  @Test
+  public void identicalArtifactsAreStoredOnce() throws IOException {
+    cache = newCache(Optional.empty());
+    store("same contents", RULE_KEY_A);
+    store("same contents", RULE_KEY_B);
+
+    assertEquals("same contents".length(), cache.getTotalBlobBytes());
+
+    CacheResult result = cache.fetch(RULE_KEY_B, LazyPath.ofInstance(Paths.get("out")));
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertEquals(ImmutableMap.of("key", RULE_KEY_B.toString()), result.getMetadata());
+    assertEquals("same contents", filesystem.readFileIfItExists(Paths.get("out")).get());
+  }
+
+  @Test
+  public void fetchHardLinksTheArtifact() throws IOException {
+    assumeThat(Platform.detect(), Matchers.is(Matchers.not(Platform.WINDOWS)));
+    cache = newCache(Optional.empty());
+    store("contents", RULE_KEY_A);
+
+    Path output = Paths.get("out");
+    filesystem.writeContentsToPath("stale", output);
+    assertEquals(
+        CacheResultType.HIT,
+        cache.fetch(RULE_KEY_A, LazyPath.ofInstance(output)).getType());
+
+    assertTrue(
+        Files.isSameFile(
+            filesystem.resolve(output),
+            filesystem.resolve(cache.getBlobPath(filesystem.computeSha1(output)))));
+    assertThat(
+        filesystem.getPosixFilePermissions(output),
+        Matchers.not(Matchers.hasItem(PosixFilePermission.OWNER_WRITE)));
+  }
+
+  @Test
+  public void missingManifestOrBlobIsAMiss() throws IOException {
+    cache = newCache(Optional.empty());
+    store("contents", RULE_KEY_A);
+    LazyPath output = LazyPath.ofInstance(Paths.get("out"));
+
+    assertEquals(CacheResultType.MISS, cache.fetch(RULE_KEY_B, output).getType());
+
+    cache.fetch(RULE_KEY_A, output);
+    filesystem.deleteFileAtPathIfExists(cache.getBlobPath(filesystem.computeSha1(output.get())));
+    assertEquals(CacheResultType.MISS, cache.fetch(RULE_KEY_A, output).getType());
+    assertFalse(filesystem.exists(cache.getManifestPath(RULE_KEY_A)));
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedArtifacts() throws IOException {
+    // Room for three 10 byte artifacts, trimmed down to two when a fourth arrives.
+    cache = newCache(Optional.of(30L));
+    store("artifact A", RULE_KEY_A);
+    store("artifact B", RULE_KEY_B);
+    store("artifact C", RULE_KEY_C);
+    fetch(RULE_KEY_A);
+    store("artifact D", RULE_KEY_D);
+
+    assertEquals(20L, cache.getTotalBlobBytes());
+    assertEquals(
+        ImmutableSet.of(RULE_KEY_A, RULE_KEY_D),
+        getRuleKeysInCache());
+  }
+
+  @Test
+  public void accessOrderSurvivesRestarts() throws IOException {
+    cache = newCache(Optional.of(30L));
+    store("artifact A", RULE_KEY_A);
+    store("artifact B", RULE_KEY_B);
+    store("artifact C", RULE_KEY_C);
+    fetch(RULE_KEY_A);
+    cache.close();
+
+    cache = newCache(Optional.of(30L));
+    assertEquals(30L, cache.getTotalBlobBytes());
+    fetch(RULE_KEY_B);
+    store("artifact D", RULE_KEY_D);
+
+    assertEquals(
+        ImmutableSet.of(RULE_KEY_B, RULE_KEY_D),
+        getRuleKeysInCache());
+  }
+
+  @Test
+  public void filesSharedByZipArtifactsAreStoredOnce() throws IOException {
+    cache = newCache(Optional.empty());
+    storeZip(RULE_KEY_A, ImmutableMap.of("shared", "same contents", "a", "artifact A"));
+    storeZip(RULE_KEY_B, ImmutableMap.of("shared", "same contents", "b", "artifact B"));
+
+    assertEquals(
+        "same contents".length() + "artifact A".length() + "artifact B".length(),
+        cache.getTotalBlobBytes());
+  }
+
+  @Test
+  public void fetchHardLinksTheFilesOfAZipArtifactIntoTheSink() throws IOException {
+    assumeThat(Platform.detect(), Matchers.is(Matchers.not(Platform.WINDOWS)));
+    cache = newCache(Optional.empty());
+    storeZip(RULE_KEY_A, ImmutableMap.of("dir/file", "contents", "bin/tool", "#!/bin/sh"));
+
+    UnpackingLazyPath output =
+        new UnpackingLazyPath(Paths.get("out.zip"), filesystem.resolve("unpacked"));
+    assertEquals(CacheResultType.HIT, cache.fetch(RULE_KEY_A, output).getType());
+
+    assertEquals(
+        ImmutableList.of(Paths.get("dir"), Paths.get("dir/file"), Paths.get("bin/tool")),
+        output.entries);
+    Path file = Paths.get("unpacked/dir/file");
+    assertEquals("contents", filesystem.readFileIfItExists(file).get());
+    assertTrue(
+        Files.isSameFile(
+            filesystem.resolve(file),
+            filesystem.resolve(cache.getBlobPath(sha1("contents")))));
+    // Executables are copied, as their blob may be shared with files that aren't.
+    Path tool = Paths.get("unpacked/bin/tool");
+    assertEquals("#!/bin/sh", filesystem.readFileIfItExists(tool).get());
+    assertFalse(
+        Files.isSameFile(
+            filesystem.resolve(tool),
+            filesystem.resolve(cache.getBlobPath(sha1("#!/bin/sh")))));
+    assertTrue(filesystem.isExecutable(tool));
+  }
+
+  @Test
+  public void fetchWithoutASinkPutsTheZipBackTogether() throws IOException {
+    cache = newCache(Optional.empty());
+    storeZip(RULE_KEY_A, ImmutableMap.of("dir/file", "contents", "bin/tool", "#!/bin/sh"));
+
+    Path output = Paths.get("out.zip");
+    assertEquals(
+        CacheResultType.HIT,
+        cache.fetch(RULE_KEY_A, LazyPath.ofInstance(output)).getType());
+
+    Path unpacked = Paths.get("unpacked");
+    Unzip.extractZipFile(
+        filesystem.resolve(output),
+        filesystem,
+        unpacked,
+        Unzip.ExistingFileMode.OVERWRITE);
+    assertEquals("contents", filesystem.readFileIfItExists(unpacked.resolve("dir/file")).get());
+    assertTrue(filesystem.isExecutable(unpacked.resolve("bin/tool")));
+  }
+
+  @Test
+  public void fetchWritesThroughTheOutputsStreamWhenItNeedsOne() throws IOException {
+    cache = newCache(Optional.empty());
+    store("contents", RULE_KEY_A);
+
+    AtomicLong bytesWritten = new AtomicLong();
+    Path output = Paths.get("out");
+    LazyPath lazyOutput = new LazyPath() {
+      @Override
+      protected Path create() throws IOException {
+        return output;
+      }
+
+      @Override
+      public OutputStream wrapOutputStream(OutputStream sink) {
+        return new FilterOutputStream(sink) {
+          @Override
+          public void write(int b) throws IOException {
+            bytesWritten.incrementAndGet();
+            super.write(b);
+          }
+        };
+      }
+
+      @Override
+      public boolean needsOutputStream() {
+        return true;
+      }
+    };
+    assertEquals(CacheResultType.HIT, cache.fetch(RULE_KEY_A, lazyOutput).getType());
+
+    assertEquals("contents".length(), bytesWritten.get());
+    assertEquals("contents", filesystem.readFileIfItExists(output).get());
+    assertFalse(
+        Files.isSameFile(
+            filesystem.resolve(output),
+            filesystem.resolve(cache.getBlobPath(sha1("contents")))));
+  }
+
+  @Test
+  public void cachesSharingADirectorySeeEachOthersStoresAndAccesses() throws IOException {
+    cache = newCache(Optional.of(30L));
+    ContentAddressedDirArtifactCache otherCache = newCache(Optional.of(30L));
+    store("artifact A", RULE_KEY_A);
+    store("artifact B", RULE_KEY_B);
+    store("artifact C", RULE_KEY_C);
+
+    ContentAddressedDirArtifactCache firstCache = cache;
+    cache = otherCache;
+    assertEquals(30L, cache.getTotalBlobBytes());
+    fetch(RULE_KEY_A);
+
+    // The other cache's access to A makes B and C the least recently used.
+    cache = firstCache;
+    store("artifact D", RULE_KEY_D);
+    assertEquals(
+        ImmutableSet.of(RULE_KEY_A, RULE_KEY_D),
+        getRuleKeysInCache());
+    assertEquals(20L, otherCache.getTotalBlobBytes());
+    otherCache.close();
+  }
+
+  @Test
+  public void indexIsRebuiltWithoutAJournal() throws IOException {
+    cache = newCache(Optional.of(30L));
+    store("artifact A", RULE_KEY_A);
+    store("artifact B", RULE_KEY_B);
+    cache.close();
+    filesystem.deleteFileAtPathIfExists(CACHE_DIR.resolve("journal"));
+
+    cache = newCache(Optional.of(30L));
+    assertEquals(20L, cache.getTotalBlobBytes());
+    store("artifact C", RULE_KEY_C);
+    store("artifact D", RULE_KEY_D);
+
+    assertEquals(20L, cache.getTotalBlobBytes());
+    assertEquals(2, getRuleKeysInCache().size());
+  }
+
+  private ContentAddressedDirArtifactCache newCache(Optional<Long> maxCacheSizeBytes)
+      throws IOException {
+    return new ContentAddressedDirArtifactCache(
+        "dir",
+        filesystem,
+        CACHE_DIR,
+        /* doStore */ true,
+        maxCacheSizeBytes);
+  }
+
+  private void store(String contents, RuleKey ruleKey) throws IOException {
+    Path artifact = Paths.get("artifact");
+    filesystem.writeContentsToPath(contents, artifact);
+    cache.store(
+        ArtifactInfo.builder()
+            .addRuleKeys(ruleKey)
+            .setMetadata(ImmutableMap.of("key", ruleKey.toString()))
+            .build(),
+        BorrowablePath.borrowablePath(filesystem.resolve(artifact)));
+  }
+
+  private void storeZip(RuleKey ruleKey, ImmutableMap<String, String> files) throws IOException {
+    Path artifact = Paths.get("artifact.zip");
+    try (CustomZipOutputStream zip =
+             ZipOutputStreams.newOutputStream(filesystem.resolve(artifact))) {
+      for (Map.Entry<String, String> file : files.entrySet()) {
+        Path parent = Paths.get(file.getKey()).getParent();
+        if (parent != null && parent.toString().equals("dir")) {
+          zip.putNextEntry(new CustomZipEntry(parent, /* isDirectory */ true));
+          zip.closeEntry();
+        }
+        CustomZipEntry entry = new CustomZipEntry(file.getKey());
+        if (file.getKey().startsWith("bin/")) {
+          entry.setExternalAttributes(0100755L << 16);
+        }
+        zip.putNextEntry(entry);
+        zip.write(file.getValue().getBytes(UTF_8));
+        zip.closeEntry();
+      }
+    }
+    cache.store(
+        ArtifactInfo.builder()
+            .addRuleKeys(ruleKey)
+            .setMetadata(ImmutableMap.of("key", ruleKey.toString()))
+            .build(),
+        BorrowablePath.borrowablePath(filesystem.resolve(artifact)));
+  }
+
+  private static Sha1HashCode sha1(String contents) {
+    return Sha1HashCode.fromHashCode(Hashing.sha1().hashString(contents, UTF_8));
+  }
+
+  private void fetch(RuleKey ruleKey) throws IOException {
+    Path output = Paths.get("fetched");
+    assertEquals(
+        CacheResultType.HIT,
+        cache.fetch(ruleKey, LazyPath.ofInstance(output)).getType());
+    assertEquals(
+        new String(Files.readAllBytes(filesystem.resolve(output)), UTF_8),
+        "artifact " + ruleKey.toString().substring(0, 1).toUpperCase());
+  }
+
+  private ImmutableSet<RuleKey> getRuleKeysInCache() {
+    ImmutableSet.Builder<RuleKey> ruleKeys = ImmutableSet.builder();
+    for (RuleKey ruleKey : ImmutableSet.of(RULE_KEY_A, RULE_KEY_B, RULE_KEY_C, RULE_KEY_D)) {
+      if (cache.multiContains(ImmutableSet.of(ruleKey)).get(ruleKey).getType() ==
+          CacheResultType.CONTAINS) {
+        ruleKeys.add(ruleKey);
+      }
+    }
+    return ruleKeys.build();
+  }
+
+  /**
+   * Takes the files of an artifact, as the build engine does.
+   */
+  private static class UnpackingLazyPath extends LazyPath {
+    private final Path zip;
+    private final Path directory;
+    @Nullable
+    private ImmutableList<Path> entries;
+
+    private UnpackingLazyPath(Path zip, Path directory) {
+      this.zip = zip;
+      this.directory = directory;
+    }
+
+    @Override
+    protected Path create() throws IOException {
+      return zip;
+    }
+
+    @Override
+    public Optional<UnpackedArtifactSink> getUnpackedArtifactSink() {
+      return Optional.of(
+          new UnpackedArtifactSink() {
+            @Override
+            public Path getDirectory() throws IOException {
+              Files.createDirectories(directory);
+              return directory;
+            }
+
+            @Override
+            public void onUnpacked(ImmutableList<Path> entries) {
+              UnpackingLazyPath.this.entries = entries;
+            }
+          });
+    }
+  }
+}
@@ -19,6 +19,7 @@ package com.facebook.buck.artifact_cache;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.io.BorrowablePath;
 import com.facebook.buck.io.LazyPath;
@@ -26,13 +27,16 @@ import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.testutil.integration.TemporaryPaths;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
 import org.hamcrest.Matchers;
 import org.junit.Rule;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.stream.Collectors;
 
 public class MultiArtifactCacheTest {
 
@@ -146,4 +150,49 @@ public class MultiArtifactCacheTest {
     multiArtifactCache.close();
   }
 
+  @Test
+  public void multiFetchOnlyAsksLaterCachesForMisses() throws Exception {
+    RuleKey ruleKey1 = new RuleKey("1111111111111111111111111111111111111111");
+    RuleKey ruleKey2 = new RuleKey("2222222222222222222222222222222222222222");
+    RuleKey ruleKey3 = new RuleKey("3333333333333333333333333333333333333333");
+    InMemoryArtifactCache cache1 = new InMemoryArtifactCache();
+    InMemoryArtifactCache cache2 = new InMemoryArtifactCache();
+    MultiArtifactCache multiArtifactCache =
+        new MultiArtifactCache(ImmutableList.of(
+            cache1,
+            cache2));
+
+    cache1.store(ArtifactInfo.builder().addRuleKeys(ruleKey1).build(), new byte[] {1});
+    cache2.store(ArtifactInfo.builder().addRuleKeys(ruleKey1).build(), new byte[] {2});
+    cache2.store(ArtifactInfo.builder().addRuleKeys(ruleKey2).build(), new byte[] {3});
+
+    LazyPath output1 = LazyPath.ofInstance(tmp.newFile());
+    LazyPath output2 = LazyPath.ofInstance(tmp.newFile());
+    LazyPath output3 = LazyPath.ofInstance(tmp.newFile());
+    ImmutableMap<RuleKey, CacheResult> results = multiArtifactCache.multiFetch(
+        ImmutableMap.of(ruleKey1, output1, ruleKey2, output2, ruleKey3, output3));
+
+    assertThat(results.keySet(), Matchers.contains(ruleKey1, ruleKey2, ruleKey3));
+    assertEquals(CacheResultType.HIT, results.get(ruleKey1).getType());
+    assertEquals(CacheResultType.HIT, results.get(ruleKey2).getType());
+    assertEquals(CacheResultType.MISS, results.get(ruleKey3).getType());
+    assertThat(Files.readAllBytes(output1.get()), Matchers.equalTo(new byte[] {1}));
+    assertThat(Files.readAllBytes(output2.get()), Matchers.equalTo(new byte[] {3}));
+    assertTrue(
+        "Hits from a later cache should be pushed to the earlier ones",
+        cache1.hasArtifact(ruleKey2));
+
+    assertThat(
+        multiArtifactCache.multiContains(ImmutableSet.of(ruleKey1, ruleKey2, ruleKey3)).values()
+            .stream()
+            .map(CacheResult::getType)
+            .collect(Collectors.toList()),
+        Matchers.contains(
+            CacheResultType.CONTAINS,
+            CacheResultType.CONTAINS,
+            CacheResultType.MISS));
+
+    multiArtifactCache.close();
+  }
+
 }
@@ -82,6 +82,48 @@ public class TwoLevelArtifactCacheDecoratorTest {
     }
   }
 
+  @Test
+  public void testCacheMultiFetch() throws InterruptedException, IOException {
+    RuleKey missingRuleKey = new RuleKey("2222222222222222222222222222222222222222");
+    try (InMemoryArtifactCache inMemoryArtifactCache = new InMemoryArtifactCache();
+         TwoLevelArtifactCacheDecorator twoLevelCache = new TwoLevelArtifactCacheDecorator(
+             inMemoryArtifactCache,
+             new ProjectFilesystem(tmp.getRoot()),
+             BuckEventBusFactory.newInstance(),
+             /* performTwoLevelStores */ true,
+             /* minimumTwoLevelStoredArtifactSize */ 0L,
+             /* maximumTwoLevelStoredArtifactSize */ Optional.empty())) {
+      LazyPath artifact = LazyPath.ofInstance(tmp.newFile());
+      Files.write(artifact.get(), new byte[] {42});
+
+      // Both keys point at the same content hash.
+      twoLevelCache.store(
+          ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+          BorrowablePath.notBorrowablePath(artifact.get()));
+      twoLevelCache.store(
+          ArtifactInfo.builder().addRuleKeys(dummyRuleKey2).build(),
+          BorrowablePath.notBorrowablePath(artifact.get()));
+
+      LazyPath output1 = LazyPath.ofInstance(tmp.newFile());
+      LazyPath output2 = LazyPath.ofInstance(tmp.newFile());
+      LazyPath output3 = LazyPath.ofInstance(tmp.newFile());
+      ImmutableMap<RuleKey, CacheResult> results = twoLevelCache.multiFetch(
+          ImmutableMap.of(dummyRuleKey, output1, dummyRuleKey2, output2, missingRuleKey, output3));
+
+      assertThat(
+          results.get(dummyRuleKey).getType(),
+          Matchers.equalTo(CacheResultType.HIT));
+      assertThat(
+          results.get(dummyRuleKey2).getType(),
+          Matchers.equalTo(CacheResultType.HIT));
+      assertThat(
+          results.get(missingRuleKey).getType(),
+          Matchers.equalTo(CacheResultType.MISS));
+      assertThat(Files.readAllBytes(output1.get()), Matchers.equalTo(new byte[] {42}));
+      assertThat(Files.readAllBytes(output2.get()), Matchers.equalTo(new byte[] {42}));
+    }
+  }
+
   private void testStoreThresholds(
       int artifactSize,
       int expectedArtifactsInCache) throws InterruptedException, IOException {
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.benchmarks;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetPattern;
+import com.facebook.buck.parser.BuildTargetParser;
+import com.facebook.buck.parser.BuildTargetPatternParser;
+import com.facebook.buck.rules.CellPathResolver;
+import com.facebook.buck.rules.TestCellBuilder;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the kinds of build target strings found in the {@code deps} of build files: fully
+ * qualified, relative to the build file, and flavored.
+ */
+public class BuildTargetParserBenchmark {
+
+  @Param({"1000"})
+  private int targetCount = 1000;
+
+  private CellPathResolver cellRoots;
+  private BuildTargetPatternParser<BuildTargetPattern> fullyQualifiedParser;
+  private BuildTargetPatternParser<BuildTargetPattern> relativeParser;
+  private List<String> fullyQualified;
+  private List<String> relative;
+  private List<String> flavored;
+
+  @Before
+  public void setUpTest() throws Exception {
+    targetCount = 10;
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    cellRoots = TestCellBuilder.createCellRoots(null);
+    fullyQualifiedParser = BuildTargetPatternParser.fullyQualified();
+    relativeParser = BuildTargetPatternParser.forBaseName("//java/com/example/app");
+    fullyQualified = new ArrayList<>(targetCount);
+    relative = new ArrayList<>(targetCount);
+    flavored = new ArrayList<>(targetCount);
+    for (int i = 0; i < targetCount; i++) {
+      fullyQualified.add(String.format("//java/com/example/lib%d:lib%d", i, i));
+      relative.add(String.format(":lib%d", i));
+      flavored.add(String.format("//native/lib%d:lib%d#shared,android-armv7", i, i));
+    }
+  }
+
+  @Test
+  public void parsesAllTargets() {
+    BuildTarget target = parse(fullyQualified, fullyQualifiedParser).get(targetCount - 1);
+    assertEquals("//java/com/example/lib9:lib9", target.getFullyQualifiedName());
+    target = parse(relative, relativeParser).get(targetCount - 1);
+    assertEquals("//java/com/example/app:lib9", target.getFullyQualifiedName());
+    target = parse(flavored, fullyQualifiedParser).get(targetCount - 1);
+    assertEquals(2, target.getFlavors().size());
+  }
+
+  private List<BuildTarget> parse(
+      List<String> targets,
+      BuildTargetPatternParser<BuildTargetPattern> patternParser) {
+    List<BuildTarget> parsed = new ArrayList<>(targets.size());
+    for (String target : targets) {
+      parsed.add(BuildTargetParser.INSTANCE.parse(target, patternParser, cellRoots));
+    }
+    return parsed;
+  }
+
+  @Benchmark
+  public int parseFullyQualified(int reps) {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += parse(fullyQualified, fullyQualifiedParser).size();
+    }
+    return dummy;
+  }
+
+  @Benchmark
+  public int parseRelative(int reps) {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += parse(relative, relativeParser).size();
+    }
+    return dummy;
+  }
+
+  @Benchmark
+  public int parseFlavored(int reps) {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += parse(flavored, fullyQualifiedParser).size();
+    }
+    return dummy;
+  }
+}
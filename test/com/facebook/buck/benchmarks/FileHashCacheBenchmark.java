@@ -0,0 +1,174 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.benchmarks;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.io.ArchiveMemberPath;
+import com.facebook.buck.io.HashingDeterministicJarWriter;
+import com.facebook.buck.io.MoreFiles;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.util.cache.DefaultFileHashCache;
+import com.facebook.buck.util.cache.FileHashCache;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.hash.Hashing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Hashes a synthetic tree of source files and the members of a jar through
+ * {@link DefaultFileHashCache}, both from a fresh cache and from one that has seen them before.
+ */
+public class FileHashCacheBenchmark {
+
+  private static final int FILE_SIZE = 4096;
+  private static final int JAR_ENTRY_COUNT = 500;
+
+  @Param({"100", "1000"})
+  private int fileCount = 100;
+
+  private Path root;
+  private ProjectFilesystem filesystem;
+  private List<Path> files;
+  private List<ArchiveMemberPath> archiveMembers;
+  private FileHashCache warmCache;
+
+  @Before
+  public void setUpTest() throws Exception {
+    fileCount = 10;
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    root = Files.createTempDirectory("file-hash-cache-benchmark").toRealPath();
+    filesystem = new ProjectFilesystem(root);
+    Random random = new Random(0);
+    byte[] contents = new byte[FILE_SIZE];
+
+    files = new ArrayList<>(fileCount);
+    for (int i = 0; i < fileCount; i++) {
+      Path file = root.resolve(String.format("src/dir%d/File%d.java", i % 10, i));
+      Files.createDirectories(file.getParent());
+      random.nextBytes(contents);
+      Files.write(file, contents);
+      files.add(file);
+    }
+
+    Path jar = root.resolve("lib/library.jar");
+    Files.createDirectories(jar.getParent());
+    archiveMembers = new ArrayList<>(JAR_ENTRY_COUNT);
+    // The cache can only hash members of jars that record their hashes in the manifest.
+    try (HashingDeterministicJarWriter jarWriter =
+             new HashingDeterministicJarWriter(new JarOutputStream(Files.newOutputStream(jar)))) {
+      for (int i = 0; i < JAR_ENTRY_COUNT; i++) {
+        String name = String.format("com/example/Class%d.class", i);
+        random.nextBytes(contents);
+        jarWriter.writeEntry(name, new ByteArrayInputStream(contents, 0, FILE_SIZE / 4));
+        archiveMembers.add(ArchiveMemberPath.of(jar, Paths.get(name)));
+      }
+    }
+
+    warmCache = DefaultFileHashCache.createDefaultFileHashCache(filesystem);
+    hashFiles(warmCache);
+    hashArchiveMembers(warmCache);
+  }
+
+  @After
+  @AfterExperiment
+  public void cleanup() throws IOException {
+    MoreFiles.deleteRecursively(root);
+  }
+
+  @Test
+  public void hashesMatchTheFileContents() throws IOException {
+    FileHashCache cache = DefaultFileHashCache.createDefaultFileHashCache(filesystem);
+    for (Path file : files) {
+      assertEquals(
+          com.google.common.io.Files.asByteSource(file.toFile()).hash(Hashing.sha1()),
+          cache.get(file));
+    }
+    assertEquals(hashArchiveMembers(cache), hashArchiveMembers(warmCache));
+  }
+
+  private int hashFiles(FileHashCache cache) throws IOException {
+    int dummy = 0;
+    for (Path file : files) {
+      dummy += cache.get(file).hashCode();
+    }
+    return dummy;
+  }
+
+  private int hashArchiveMembers(FileHashCache cache) throws IOException {
+    int dummy = 0;
+    for (ArchiveMemberPath member : archiveMembers) {
+      dummy += cache.get(member).hashCode();
+    }
+    return dummy;
+  }
+
+  @Benchmark
+  public int hashFilesCold(int reps) throws IOException {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += hashFiles(DefaultFileHashCache.createDefaultFileHashCache(filesystem));
+    }
+    return dummy;
+  }
+
+  @Benchmark
+  public int hashFilesWarm(int reps) throws IOException {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += hashFiles(warmCache);
+    }
+    return dummy;
+  }
+
+  @Benchmark
+  public int hashArchiveMembersCold(int reps) throws IOException {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += hashArchiveMembers(DefaultFileHashCache.createDefaultFileHashCache(filesystem));
+    }
+    return dummy;
+  }
+
+  @Benchmark
+  public int hashArchiveMembersWarm(int reps) throws IOException {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += hashArchiveMembers(warmCache);
+    }
+    return dummy;
+  }
+}
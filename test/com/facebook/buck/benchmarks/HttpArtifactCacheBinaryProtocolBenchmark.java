@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.benchmarks;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.FetchResponseReadResult;
+import com.facebook.buck.artifact_cache.HttpArtifactCacheBinaryProtocol;
+import com.facebook.buck.artifact_cache.StoreResponseReadResult;
+import com.facebook.buck.rules.RuleKey;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Encodes and decodes the fetch responses and store requests of the HTTP cache protocol.
+ */
+public class HttpArtifactCacheBinaryProtocolBenchmark {
+
+  private static final ImmutableSet<RuleKey> RULE_KEYS = ImmutableSet.of(
+      new RuleKey("0000000000000000000000000000000000000000"),
+      new RuleKey("1111111111111111111111111111111111111111"));
+
+  @Param({"1024", "1048576"})
+  private int payloadSize = 1024;
+
+  private ImmutableMap<String, String> metadata;
+  private byte[] payload;
+  private byte[] fetchResponse;
+  private byte[] storeRequest;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    ImmutableMap.Builder<String, String> metadataBuilder = ImmutableMap.builder();
+    for (int i = 0; i < 10; i++) {
+      metadataBuilder.put("key" + i, "some fairly typical metadata value number " + i);
+    }
+    metadata = metadataBuilder.build();
+    payload = new byte[payloadSize];
+    new Random(0).nextBytes(payload);
+    fetchResponse = writeFetchResponse();
+    storeRequest = writeStoreRequest();
+  }
+
+  @Test
+  public void roundTrips() throws IOException {
+    ByteArrayOutputStream fetchedPayload = new ByteArrayOutputStream();
+    FetchResponseReadResult fetched =
+        HttpArtifactCacheBinaryProtocol.readFetchResponse(
+            new DataInputStream(new ByteArrayInputStream(fetchResponse)),
+            fetchedPayload);
+    assertEquals(RULE_KEYS, fetched.getRuleKeys());
+    assertEquals(metadata, fetched.getMetadata());
+    assertEquals(fetched.getExpectedHashCode(), fetched.getActualHashCode());
+    assertArrayEquals(payload, fetchedPayload.toByteArray());
+
+    ByteArrayOutputStream storedPayload = new ByteArrayOutputStream();
+    StoreResponseReadResult stored =
+        HttpArtifactCacheBinaryProtocol.readStoreRequest(
+            new DataInputStream(new ByteArrayInputStream(storeRequest)),
+            storedPayload);
+    assertEquals(RULE_KEYS, stored.getRawKeys());
+    assertEquals(metadata, stored.getMetadata());
+    assertArrayEquals(payload, storedPayload.toByteArray());
+  }
+
+  private byte[] writeFetchResponse() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new HttpArtifactCacheBinaryProtocol.FetchResponse(
+        RULE_KEYS,
+        metadata,
+        ByteSource.wrap(payload))
+        .write(out);
+    return out.toByteArray();
+  }
+
+  private byte[] writeStoreRequest() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new HttpArtifactCacheBinaryProtocol.StoreRequest(
+        ArtifactInfo.builder().setRuleKeys(RULE_KEYS).setMetadata(metadata).build(),
+        ByteSource.wrap(payload))
+        .write(out);
+    return out.toByteArray();
+  }
+
+  @Benchmark
+  public int writeFetchResponse(int reps) throws IOException {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += writeFetchResponse().length;
+    }
+    return dummy;
+  }
+
+  @Benchmark
+  public int writeStoreRequest(int reps) throws IOException {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += writeStoreRequest().length;
+    }
+    return dummy;
+  }
+
+  @Benchmark
+  public int readFetchResponse(int reps) throws IOException {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += HttpArtifactCacheBinaryProtocol.readFetchResponse(
+          new DataInputStream(new ByteArrayInputStream(fetchResponse)),
+          ByteStreams.nullOutputStream())
+          .getActualHashCode()
+          .hashCode();
+    }
+    return dummy;
+  }
+
+  @Benchmark
+  public int readStoreRequest(int reps) throws IOException {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += HttpArtifactCacheBinaryProtocol.readStoreRequest(
+          new DataInputStream(new ByteArrayInputStream(storeRequest)),
+          ByteStreams.nullOutputStream())
+          .getActualHashCode()
+          .hashCode();
+    }
+    return dummy;
+  }
+}
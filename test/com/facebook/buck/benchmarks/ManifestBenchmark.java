@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.benchmarks;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.DefaultTargetNodeToBuildRuleTransformer;
+import com.facebook.buck.rules.Manifest;
+import com.facebook.buck.rules.PathSourcePath;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.SourcePath;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.rules.TargetGraph;
+import com.facebook.buck.testutil.FakeFileHashCache;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Looks up a rule key in a manifest whose entries differ only in the hash of one header, the
+ * way a frequently edited header fills up the manifest of a C/C++ compile rule. The matching
+ * entry is the last one, so every lookup checks all of them.
+ */
+public class ManifestBenchmark {
+
+  private static final int UNIVERSE_SIZE = 1000;
+  private static final int INPUTS_PER_ENTRY = 200;
+
+  @Param({"10", "100"})
+  private int entryCount = 10;
+
+  private SourcePathResolver pathResolver;
+  private ImmutableSet<SourcePath> universe;
+  private FakeFileHashCache fileHashCache;
+  private Manifest manifest;
+  private RuleKey expectedRuleKey;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    pathResolver = new SourcePathResolver(
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer()));
+
+    Map<Path, HashCode> hashes = new HashMap<>();
+    ImmutableSet.Builder<SourcePath> universeBuilder = ImmutableSet.builder();
+    ImmutableSet.Builder<SourcePath> inputsBuilder = ImmutableSet.builder();
+    for (int i = 0; i < UNIVERSE_SIZE; i++) {
+      Path path = Paths.get(String.format("include/dir%d/header%d.h", i % 20, i));
+      SourcePath sourcePath = new PathSourcePath(filesystem, path);
+      universeBuilder.add(sourcePath);
+      if (i % (UNIVERSE_SIZE / INPUTS_PER_ENTRY) == 0) {
+        inputsBuilder.add(sourcePath);
+      }
+      hashes.put(filesystem.resolve(path), Hashing.sha1().hashUnencodedChars(path.toString()));
+    }
+    universe = universeBuilder.build();
+    ImmutableSet<SourcePath> inputs = inputsBuilder.build();
+    Path editedHeader = filesystem.resolve(pathResolver.getRelativePath(inputs.iterator().next()));
+
+    fileHashCache = new FakeFileHashCache(hashes);
+    manifest = new Manifest();
+    for (int i = 0; i < entryCount; i++) {
+      hashes.put(editedHeader, HashCode.fromInt(i));
+      expectedRuleKey = new RuleKey(Hashing.sha1().hashInt(i).toString());
+      manifest.addEntry(fileHashCache, expectedRuleKey, pathResolver, universe, inputs);
+    }
+  }
+
+  @Test
+  public void lookupFindsTheLastEntry() throws IOException {
+    assertEquals(entryCount, manifest.size());
+    assertEquals(
+        Optional.of(expectedRuleKey),
+        manifest.lookup(fileHashCache, pathResolver, universe));
+  }
+
+  @Benchmark
+  public int lookup(int reps) throws IOException {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += manifest.lookup(fileHashCache, pathResolver, universe).hashCode();
+    }
+    return dummy;
+  }
+}
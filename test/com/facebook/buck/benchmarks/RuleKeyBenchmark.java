@@ -0,0 +1,254 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.benchmarks;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.hashing.FileHashLoader;
+import com.facebook.buck.io.ArchiveMemberPath;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.jvm.java.JavaLibraryBuilder;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.BuildTargetSourcePath;
+import com.facebook.buck.rules.DefaultTargetNodeToBuildRuleTransformer;
+import com.facebook.buck.rules.PathSourcePath;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.RuleKeyAppendable;
+import com.facebook.buck.rules.RuleKeyBuilder;
+import com.facebook.buck.rules.SourcePath;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.rules.TargetGraph;
+import com.facebook.buck.rules.keys.DefaultRuleKeyBuilderFactory;
+import com.facebook.buck.rules.keys.InputBasedRuleKeyBuilderFactory;
+import com.facebook.buck.shell.GenruleBuilder;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Computes default and input-based rule keys over a synthetic graph of {@code java_library} and
+ * {@code genrule} rules, each depending on a handful of the rules created before it.
+ */
+public class RuleKeyBenchmark {
+
+  private static final int SOURCES_PER_RULE = 10;
+  private static final int DEPS_PER_RULE = 4;
+
+  @Param({"100", "1000"})
+  private int ruleCount = 100;
+
+  private SourcePathResolver pathResolver;
+  private FileHashLoader hashLoader;
+  private List<BuildRule> rules;
+  private ProjectFilesystem filesystem;
+
+  @Before
+  public void setUpTest() throws Exception {
+    ruleCount = 20;
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    filesystem = new FakeProjectFilesystem();
+    BuildRuleResolver resolver =
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer());
+    pathResolver = new SourcePathResolver(resolver);
+    hashLoader = new SyntheticFileHashLoader();
+    rules = new ArrayList<>(ruleCount);
+
+    for (int i = 0; i < ruleCount; i++) {
+      String basePath = String.format("java/com/example/lib%d", i);
+      BuildTarget target = BuildTargetFactory.newInstance("//" + basePath + ":lib");
+      List<BuildRule> deps = rules.subList(Math.max(0, i - DEPS_PER_RULE), i);
+
+      if (i % 5 == 4) {
+        ImmutableList.Builder<SourcePath> srcs = ImmutableList.builder();
+        for (BuildRule dep : deps) {
+          srcs.add(new BuildTargetSourcePath(dep.getBuildTarget()));
+        }
+        srcs.add(new PathSourcePath(filesystem, Paths.get(basePath, "template.txt")));
+        rules.add(
+            GenruleBuilder.newGenruleBuilder(target)
+                .setOut("out.txt")
+                .setCmd("cat $SRCS > $OUT")
+                .setSrcs(srcs.build())
+                .build(resolver, filesystem));
+      } else {
+        JavaLibraryBuilder builder = JavaLibraryBuilder.createBuilder(target);
+        for (int j = 0; j < SOURCES_PER_RULE; j++) {
+          builder.addSrc(Paths.get(basePath, String.format("Class%d.java", j)));
+        }
+        for (BuildRule dep : deps) {
+          builder.addDep(dep.getBuildTarget());
+        }
+        rules.add(builder.build(resolver, filesystem));
+      }
+    }
+  }
+
+  @Test
+  public void ruleKeysAreStableAndDistinct() {
+    List<RuleKey> ruleKeys = computeDefaultRuleKeys();
+    assertEquals(ruleKeys, computeDefaultRuleKeys());
+    assertEquals(ruleCount, new HashSet<>(ruleKeys).size());
+    assertEquals(computeInputBasedRuleKeys(), computeInputBasedRuleKeys());
+  }
+
+  private DefaultRuleKeyBuilderFactory newFactory() {
+    return new DefaultRuleKeyBuilderFactory(0, hashLoader, pathResolver);
+  }
+
+  /**
+   * A bare builder, keying build rules and appendables the way the default factory's builders do.
+   */
+  private RuleKeyBuilder<RuleKey> newBuilder(final DefaultRuleKeyBuilderFactory factory) {
+    return new RuleKeyBuilder<RuleKey>(pathResolver, hashLoader) {
+      @Override
+      protected RuleKeyBuilder<RuleKey> setBuildRule(BuildRule rule) {
+        return setSingleValue(factory.build(rule));
+      }
+
+      @Override
+      public RuleKeyBuilder<RuleKey> setAppendableRuleKey(
+          String key,
+          RuleKeyAppendable appendable) {
+        RuleKeyBuilder<RuleKey> subKeyBuilder = newBuilder(factory);
+        appendable.appendToRuleKey(subKeyBuilder);
+        return setAppendableRuleKey(key, subKeyBuilder.build());
+      }
+
+      @Override
+      public RuleKey build() {
+        return buildRuleKey();
+      }
+    };
+  }
+
+  private List<RuleKey> computeDefaultRuleKeys() {
+    DefaultRuleKeyBuilderFactory factory =
+        new DefaultRuleKeyBuilderFactory(0, hashLoader, pathResolver);
+    List<RuleKey> ruleKeys = new ArrayList<>(rules.size());
+    for (BuildRule rule : rules) {
+      ruleKeys.add(factory.build(rule));
+    }
+    return ruleKeys;
+  }
+
+  private List<Optional<RuleKey>> computeInputBasedRuleKeys() {
+    InputBasedRuleKeyBuilderFactory factory =
+        new InputBasedRuleKeyBuilderFactory(0, hashLoader, pathResolver);
+    List<Optional<RuleKey>> ruleKeys = new ArrayList<>(rules.size());
+    for (BuildRule rule : rules) {
+      ruleKeys.add(factory.build(rule));
+    }
+    return ruleKeys;
+  }
+
+  /**
+   * A fresh factory per rep, so that every rule key is computed rather than looked up.
+   */
+  @Benchmark
+  public int defaultRuleKeys(int reps) {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += computeDefaultRuleKeys().get(ruleCount - 1).hashCode();
+    }
+    return dummy;
+  }
+
+  @Benchmark
+  public int inputBasedRuleKeys(int reps) {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += computeInputBasedRuleKeys().get(ruleCount - 1).hashCode();
+    }
+    return dummy;
+  }
+
+  /**
+   * Feeds the kinds of values rules add to their keys straight into a {@link RuleKeyBuilder}.
+   */
+  @Benchmark
+  public int setReflectively(int reps) {
+    ImmutableList<String> flags = ImmutableList.of("-g", "-O2", "-Wall", "-Werror", "-fPIC");
+    ImmutableMap<String, String> env = ImmutableMap.of("LANG", "C", "TZ", "UTC");
+    SourcePath source = new PathSourcePath(filesystem, Paths.get("java/com/example/A.java"));
+    ImmutableSortedSet<BuildRule> deps =
+        ImmutableSortedSet.copyOf(rules.subList(0, Math.min(DEPS_PER_RULE, rules.size())));
+    RuleKeyAppendable tool = sink -> sink
+        .setReflectively("path", "/usr/bin/cc")
+        .setReflectively("version", "4.9");
+    DefaultRuleKeyBuilderFactory factory = newFactory();
+
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      RuleKeyBuilder<RuleKey> builder = newBuilder(factory);
+      builder
+          .setReflectively("name", "lib")
+          .setReflectively("flags", flags)
+          .setReflectively("env", env)
+          .setReflectively("source", source)
+          .setReflectively("optional", Optional.of("value"))
+          .setReflectively("count", i)
+          .setReflectively("enabled", true)
+          .setReflectively("deps", deps)
+          .setReflectively("tool", tool);
+      dummy += builder.build().hashCode();
+    }
+    return dummy;
+  }
+
+  /**
+   * Hashes the path instead of the contents, so no files need to exist.
+   */
+  private static class SyntheticFileHashLoader implements FileHashLoader {
+    @Override
+    public HashCode get(Path path) {
+      return Hashing.sha1().hashUnencodedChars(path.toString());
+    }
+
+    @Override
+    public long getSize(Path path) {
+      return path.toString().length();
+    }
+
+    @Override
+    public HashCode get(ArchiveMemberPath archiveMemberPath) {
+      return Hashing.sha1().hashUnencodedChars(archiveMemberPath.toString());
+    }
+  }
+}
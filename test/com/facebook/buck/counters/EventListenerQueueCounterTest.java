@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.counters;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.event.EventListenerQueue;
+import com.facebook.buck.timing.FakeClock;
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.Subscribe;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class EventListenerQueueCounterTest {
+
+  @Test
+  public void testSnapshotReportsDroppedEventsSinceTheLastFlush() throws Exception {
+    BuckEventBus eventBus = new BuckEventBus(
+        new FakeClock(0),
+        true,
+        BuckEventBusFactory.BUILD_ID_FOR_TEST,
+        BuckEventBus.DEFAULT_SHUTDOWN_TIMEOUT_MS,
+        2);
+    BlockingListener listener = new BlockingListener();
+    eventBus.register(listener, EventListenerQueue.OverflowPolicy.DROP);
+    ImmutableList<Counter> counters = EventListenerQueueCounter.forListenersOf(eventBus);
+    Assert.assertEquals(1, counters.size());
+    Counter counter = counters.get(0);
+    Assert.assertEquals("BlockingListener", counter.getTags().get("listener"));
+    Assert.assertFalse(counter.flush().isPresent());
+
+    eventBus.post(new CounterRegistry.AsyncCounterRegistrationEvent(ImmutableList.of()));
+    Assert.assertTrue(listener.started.await(5, TimeUnit.SECONDS));
+    for (int i = 0; i < 4; i++) {
+      eventBus.post(new CounterRegistry.AsyncCounterRegistrationEvent(ImmutableList.of()));
+    }
+
+    Optional<CounterSnapshot> snapshot = counter.flush();
+    Assert.assertTrue(snapshot.isPresent());
+    Assert.assertEquals(EventListenerQueueCounter.CATEGORY, snapshot.get().getCategory());
+    Assert.assertEquals(2L, (long) snapshot.get().getValues().get("max_queue_depth"));
+    Assert.assertEquals(2L, (long) snapshot.get().getValues().get("dropped_events"));
+
+    listener.release.countDown();
+    eventBus.close();
+    snapshot = counter.flush();
+    Assert.assertTrue(snapshot.isPresent());
+    Assert.assertEquals(0L, (long) snapshot.get().getValues().get("dropped_events"));
+    Assert.assertFalse(counter.flush().isPresent());
+  }
+
+  private static class BlockingListener {
+    public final CountDownLatch started = new CountDownLatch(1);
+    public final CountDownLatch release = new CountDownLatch(1);
+
+    @Subscribe
+    public void receive(CounterRegistry.AsyncCounterRegistrationEvent event)
+        throws InterruptedException {
+      Assert.assertTrue(event.getCounters().isEmpty());
+      started.countDown();
+      release.await();
+    }
+  }
+}
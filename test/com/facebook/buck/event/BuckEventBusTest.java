@@ -20,15 +20,20 @@ import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.facebook.buck.timing.DefaultClock;
 import com.facebook.buck.timing.SettableFakeClock;
+import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.Subscribe;
 
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 public class BuckEventBusTest {
@@ -123,6 +128,141 @@ public class BuckEventBusTest {
     assertEquals(event.getNanoTime(), 64738);
   }
 
+  @Test
+  public void slowListenerDoesNotDelayOtherListeners() throws Exception {
+    BuckEventBus eb = newAsyncEventBus(16);
+    BlockingSubscriber slow = new BlockingSubscriber();
+    RecordingSubscriber fast = new RecordingSubscriber();
+    eb.register(slow);
+    eb.register(fast);
+
+    eb.post(new NumberedEvent(0));
+    assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+    assertTrue(
+        "The fast listener should get the event while the slow one is still busy.",
+        fast.started.await(5, TimeUnit.SECONDS));
+    slow.release.countDown();
+    eb.close();
+    assertEquals(ImmutableList.of(0), slow.received);
+    assertEquals(ImmutableList.of(0), fast.received);
+  }
+
+  @Test
+  public void droppingListenerDiscardsEventsPostedWhileItsQueueIsFull() throws Exception {
+    BuckEventBus eb = newAsyncEventBus(2);
+    BlockingSubscriber slow = new BlockingSubscriber();
+    eb.register(slow, EventListenerQueue.OverflowPolicy.DROP);
+    EventListenerQueue queue = eb.getListenerQueues().get(0);
+
+    eb.post(new NumberedEvent(0));
+    assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+    for (int i = 1; i <= 5; i++) {
+      eb.post(new NumberedEvent(i));
+    }
+    assertEquals(2, queue.takeMaxDepth());
+    assertEquals(3, queue.getDroppedEvents());
+
+    slow.release.countDown();
+    eb.close();
+    assertEquals(ImmutableList.of(0, 1, 2), slow.received);
+  }
+
+  @Test
+  public void coalescingListenerGetsTheLatestOverflowingEvent() throws Exception {
+    BuckEventBus eb = newAsyncEventBus(2);
+    BlockingSubscriber slow = new BlockingSubscriber();
+    eb.register(slow, EventListenerQueue.OverflowPolicy.COALESCE);
+    EventListenerQueue queue = eb.getListenerQueues().get(0);
+
+    eb.post(new NumberedEvent(0));
+    assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+    for (int i = 1; i <= 5; i++) {
+      eb.post(new NumberedEvent(i));
+    }
+    assertEquals(2, queue.getCoalescedEvents());
+
+    slow.release.countDown();
+    eb.close();
+    assertEquals(ImmutableList.of(0, 1, 2, 5), slow.received);
+  }
+
+  @Test
+  public void blockingListenerMakesPostersWaitAndLosesNothing() throws Exception {
+    final BuckEventBus eb = newAsyncEventBus(2);
+    BlockingSubscriber slow = new BlockingSubscriber();
+    eb.register(slow);
+    EventListenerQueue queue = eb.getListenerQueues().get(0);
+
+    eb.post(new NumberedEvent(0));
+    assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+    eb.post(new NumberedEvent(1));
+    eb.post(new NumberedEvent(2));
+    Thread poster = new Thread(() -> eb.post(new NumberedEvent(3)));
+    poster.start();
+    while (queue.getBlockedPosts() == 0) {
+      Thread.sleep(1);
+    }
+    assertTrue("The poster should wait for the listener.", poster.isAlive());
+
+    slow.release.countDown();
+    poster.join();
+    eb.close();
+    assertEquals(ImmutableList.of(0, 1, 2, 3), slow.received);
+    assertEquals(0, queue.getDroppedEvents());
+  }
+
+  private static BuckEventBus newAsyncEventBus(int listenerQueueCapacity) {
+    return new BuckEventBus(
+        new DefaultClock(),
+        true,
+        BuckEventBusFactory.BUILD_ID_FOR_TEST,
+        BuckEventBus.DEFAULT_SHUTDOWN_TIMEOUT_MS,
+        listenerQueueCapacity);
+  }
+
+  private static class NumberedEvent extends AbstractBuckEvent {
+    public final int number;
+
+    private NumberedEvent(int number) {
+      super(EventKey.unique());
+      this.number = number;
+    }
+
+    @Override
+    protected String getValueString() {
+      return String.valueOf(number);
+    }
+
+    @Override
+    public String getEventName() {
+      return "NumberedEvent";
+    }
+  }
+
+  private static class BlockingSubscriber {
+    public final CountDownLatch started = new CountDownLatch(1);
+    public final CountDownLatch release = new CountDownLatch(1);
+    public final List<Integer> received = new CopyOnWriteArrayList<>();
+
+    @Subscribe
+    public void receive(NumberedEvent event) throws InterruptedException {
+      received.add(event.number);
+      started.countDown();
+      release.await();
+    }
+  }
+
+  private static class RecordingSubscriber {
+    public final CountDownLatch started = new CountDownLatch(1);
+    public final List<Integer> received = new CopyOnWriteArrayList<>();
+
+    @Subscribe
+    public void receive(NumberedEvent event) {
+      received.add(event.number);
+      started.countDown();
+    }
+  }
+
   private static class SleepEvent extends AbstractBuckEvent {
     public final long milliseconds;
 
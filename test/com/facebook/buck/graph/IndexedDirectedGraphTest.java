@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.BitSet;
+
+public class IndexedDirectedGraphTest {
+
+  private IndexedDirectedGraph<String> graph;
+
+  @Before
+  public void setUp() {
+    // A -> B -> D
+    // A -> C -> D -> E
+    // F
+    MutableDirectedGraph<String> mutableGraph = new MutableDirectedGraph<>();
+    for (String node : ImmutableSet.of("A", "B", "C", "D", "E", "F")) {
+      mutableGraph.addNode(node);
+    }
+    mutableGraph.addEdge("A", "B");
+    mutableGraph.addEdge("A", "C");
+    mutableGraph.addEdge("B", "D");
+    mutableGraph.addEdge("C", "D");
+    mutableGraph.addEdge("D", "E");
+    graph = IndexedDirectedGraph.of(new DefaultTraversableGraph<>(mutableGraph));
+  }
+
+  @Test
+  public void nodesAreNumbered() {
+    assertEquals(6, graph.getNodeCount());
+    for (String node : ImmutableSet.of("A", "B", "C", "D", "E", "F")) {
+      assertEquals(node, graph.getNode(graph.getIndex(node)));
+    }
+    assertEquals(-1, graph.getIndex("G"));
+  }
+
+  @Test
+  public void adjacentNodesAreFound() {
+    assertEquals(
+        ImmutableSet.of("B", "C", "E"),
+        ImmutableSet.copyOf(graph.getNodes(graph.getOutgoingNodesFor(nodes("A", "D")))));
+    assertEquals(
+        ImmutableSet.of("B", "C"),
+        ImmutableSet.copyOf(graph.getNodes(graph.getIncomingNodesFor(nodes("D")))));
+    assertEquals(
+        ImmutableSet.of(),
+        ImmutableSet.copyOf(graph.getNodes(graph.getIncomingNodesFor(nodes("A", "F")))));
+  }
+
+  @Test
+  public void transitiveClosuresIncludeTheRoots() {
+    assertEquals(
+        ImmutableSet.of("C", "D", "E", "F"),
+        ImmutableSet.copyOf(graph.getNodes(graph.getTransitiveClosure(nodes("C", "F")))));
+  }
+
+  private BitSet nodes(String... nodes) {
+    BitSet result = new BitSet(graph.getNodeCount());
+    for (String node : nodes) {
+      result.set(graph.getIndex(node));
+    }
+    return result;
+  }
+}
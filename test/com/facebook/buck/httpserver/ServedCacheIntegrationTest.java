@@ -43,6 +43,7 @@ import com.facebook.buck.util.environment.Platform;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
@@ -61,6 +62,7 @@ import java.io.InputStream;
 import java.io.StringReader;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Map;
 import java.util.Optional;
 
 public class ServedCacheIntegrationTest {
@@ -342,6 +344,29 @@ public class ServedCacheIntegrationTest {
         return CacheResult.miss();
       }
 
+      @Override
+      public ImmutableMap<RuleKey, CacheResult> multiFetch(
+          ImmutableMap<RuleKey, LazyPath> requests) {
+        ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+        for (Map.Entry<RuleKey, LazyPath> request : requests.entrySet()) {
+          results.put(request.getKey(), fetch(request.getKey(), request.getValue()));
+        }
+        return results.build();
+      }
+
+      @Override
+      public ImmutableMap<RuleKey, CacheResult> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+        ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+        for (RuleKey ruleKey : ruleKeys) {
+          results.put(
+              ruleKey,
+              ruleKey.equals(bFileRuleKey) ?
+                  CacheResult.contains("secondCache") :
+                  CacheResult.miss());
+        }
+        return results.build();
+      }
+
       @Override
       public ListenableFuture<Void> store(
           ArtifactInfo info,
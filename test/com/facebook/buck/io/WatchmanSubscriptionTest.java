@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.bser.BserDeserializer;
+import com.facebook.buck.bser.BserSerializer;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+public class WatchmanSubscriptionTest {
+
+  private static final WatchmanQuery QUERY =
+      WatchmanQuery.of("/root", ImmutableMap.of("fields", ImmutableList.of("name")));
+  private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private final BserSerializer serializer = new BserSerializer();
+  private PipedOutputStream fromWatchman;
+  private ByteArrayOutputStream toWatchman;
+  private WatchmanSubscription subscription;
+
+  @Before
+  public void setUp() throws IOException {
+    fromWatchman = new PipedOutputStream();
+    toWatchman = new ByteArrayOutputStream();
+    subscription = new WatchmanSubscription(
+        "sub",
+        "/root",
+        new PipedInputStream(fromWatchman, 64 * 1024),
+        toWatchman,
+        fromWatchman,
+        /* reportInitialFreshInstance */ false,
+        /* maxPendingFiles */ 2);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void flushWaitsForChangesSentBeforeItsResponse() throws Exception {
+    ImmutableMap<String, Object> change = ImmutableMap.of(
+        "subscription", "sub",
+        "files", ImmutableList.of(ImmutableMap.of("name", "foo/BUCK")));
+    send(ImmutableMap.of("subscribe", "sub"));
+    send(
+        ImmutableMap.of(
+            "subscription", "sub",
+            "is_fresh_instance", true,
+            "files", ImmutableList.of()));
+    send(change);
+    send(ImmutableMap.of("synced", ImmutableList.of("sub")));
+
+    subscription.start(QUERY, TIMEOUT_NANOS);
+    Optional<Map<String, Object>> flushResponse = subscription.flush(TIMEOUT_NANOS);
+
+    assertEquals(
+        Optional.of(ImmutableMap.of("synced", ImmutableList.of("sub"))),
+        flushResponse);
+    // The fresh instance reported when subscribing is not a change.
+    assertEquals(Optional.of(ImmutableList.of(change)), subscription.drainChanges());
+    assertEquals(Optional.of(ImmutableList.of()), subscription.drainChanges());
+
+    InputStream sent = new ByteArrayInputStream(toWatchman.toByteArray());
+    BserDeserializer deserializer = new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
+    assertEquals(QUERY.toSubscribeList("sub"), deserializer.deserializeBserValue(sent));
+    List<Object> flush = (List<Object>) deserializer.deserializeBserValue(sent);
+    assertEquals(ImmutableList.of("flush-subscriptions", "/root"), flush.subList(0, 2));
+    Map<String, Object> flushParams = (Map<String, Object>) flush.get(2);
+    assertEquals(ImmutableList.of("sub"), flushParams.get("subscriptions"));
+    assertEquals(
+        TimeUnit.NANOSECONDS.toMillis(TIMEOUT_NANOS),
+        ((Number) flushParams.get("sync_timeout")).longValue());
+  }
+
+  @Test
+  public void changesAreDroppedWhenMoreFilesChangedThanTheQueueHolds() throws Exception {
+    send(ImmutableMap.of("subscribe", "sub"));
+    send(
+        ImmutableMap.of(
+            "subscription", "sub",
+            "files", ImmutableList.of(ImmutableMap.of("name", "foo/BUCK"))));
+    send(
+        ImmutableMap.of(
+            "subscription", "sub",
+            "files", ImmutableList.of(
+                ImmutableMap.of("name", "bar/BUCK"),
+                ImmutableMap.of("name", "baz/BUCK"))));
+    send(ImmutableMap.of("synced", ImmutableList.of("sub")));
+
+    subscription.start(QUERY, TIMEOUT_NANOS);
+    subscription.flush(TIMEOUT_NANOS);
+
+    assertTrue(subscription.awaitChanges());
+    assertEquals(Optional.empty(), subscription.drainChanges());
+    assertEquals(Optional.of(ImmutableList.of()), subscription.drainChanges());
+  }
+
+  @Test
+  public void subscriptionEndsWhenTheConnectionIsLost() throws Exception {
+    send(ImmutableMap.of("subscribe", "sub"));
+    subscription.start(QUERY, TIMEOUT_NANOS);
+    assertTrue(subscription.isAlive());
+
+    fromWatchman.close();
+
+    assertFalse(subscription.awaitChanges());
+    assertFalse(subscription.isAlive());
+  }
+
+  private void send(Map<String, Object> response) throws IOException {
+    serializer.serializeToStream(response, fromWatchman);
+  }
+}
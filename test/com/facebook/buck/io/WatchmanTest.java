@@ -58,7 +58,8 @@ public class WatchmanTest {
               "wildmatch",
               "wildmatch_multislash",
               "glob_generator",
-              "clock-sync-timeout")));
+              "clock-sync-timeout",
+              "cmd-flush-subscriptions")));
   private static final Function<Path, Optional<WatchmanClient>> NULL_WATCHMAN_CONNECTOR =
       path -> Optional.empty();
 
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.json.BuildFileParseProfile.Category;
+import com.facebook.buck.util.MoreCollectors;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class BuildFileParseProfileTest {
+
+  private static final Path FOO = Paths.get("foo/BUCK");
+  private static final Path BAR = Paths.get("bar/BUCK");
+
+  @Test
+  public void nestedSpansOfTheSameCategoryAreCountedOnce() {
+    BuildFileParseProfile profile = new BuildFileParseProfile();
+    assertTrue(profile.isEmpty());
+    profile.record(
+        FOO,
+        BuildFileTimings.of(
+            1000,
+            ImmutableList.of(
+                BuildFileTimingSpan.of(Category.INCLUDE, "//INNER_DEFS", 20, 100),
+                BuildFileTimingSpan.of(Category.INCLUDE, "//DEFS", 10, 300),
+                BuildFileTimingSpan.of(Category.GLOB, "*.java", 400, 50),
+                BuildFileTimingSpan.of(Category.WATCHMAN, "*.java", 410, 30),
+                BuildFileTimingSpan.of(Category.RULE, "java_library", 500, 5),
+                BuildFileTimingSpan.of(Category.RULE, "java_library", 600, 7))));
+
+    BuildFileParseProfile.BuildFileEntry entry =
+        profile.getBuildFiles(BuildFileParseProfile.byTotalTime()).get(0);
+    assertEquals(FOO, entry.getBuildFile());
+    assertEquals(1000, entry.getTotalMicros());
+    assertEquals(300, entry.getMicros(Category.INCLUDE));
+    assertEquals(50, entry.getMicros(Category.GLOB));
+    assertEquals(30, entry.getMicros(Category.WATCHMAN));
+    assertEquals(12, entry.getMicros(Category.RULE));
+
+    BuildFileParseProfile.NameEntry rule = profile.getNames(Category.RULE).get(0);
+    assertEquals("java_library", rule.getName());
+    assertEquals(12, rule.getTotalMicros());
+    assertEquals(2, rule.getCount());
+  }
+
+  @Test
+  public void buildFilesAndNamesAreSortedBySlowestFirst() {
+    BuildFileParseProfile profile = new BuildFileParseProfile();
+    profile.record(
+        FOO,
+        BuildFileTimings.of(
+            1000,
+            ImmutableList.of(BuildFileTimingSpan.of(Category.GLOB, "*.java", 0, 100))));
+    profile.record(
+        BAR,
+        BuildFileTimings.of(
+            500,
+            ImmutableList.of(
+                BuildFileTimingSpan.of(Category.GLOB, "*.java", 0, 100),
+                BuildFileTimingSpan.of(Category.GLOB, "*.h", 100, 300))));
+
+    assertEquals(
+        ImmutableList.of(FOO, BAR),
+        profile.getBuildFiles(BuildFileParseProfile.byTotalTime()).stream()
+            .map(BuildFileParseProfile.BuildFileEntry::getBuildFile)
+            .collect(MoreCollectors.toImmutableList()));
+    assertEquals(
+        ImmutableList.of(BAR, FOO),
+        profile.getBuildFiles(BuildFileParseProfile.byTime(Category.GLOB)).stream()
+            .map(BuildFileParseProfile.BuildFileEntry::getBuildFile)
+            .collect(MoreCollectors.toImmutableList()));
+    assertEquals(
+        ImmutableList.of("*.h", "*.java"),
+        profile.getNames(Category.GLOB).stream()
+            .map(BuildFileParseProfile.NameEntry::getName)
+            .collect(MoreCollectors.toImmutableList()));
+  }
+
+  @Test
+  public void reportListsBuildFilesAndSlowestNames() {
+    BuildFileParseProfile profile = new BuildFileParseProfile();
+    profile.record(
+        FOO,
+        BuildFileTimings.of(
+            2500,
+            ImmutableList.of(BuildFileTimingSpan.of(Category.INCLUDE, "//DEFS", 0, 1500))));
+
+    String report = profile.formatReport(BuildFileParseProfile.byTotalTime(), 10);
+    assertThat(report, containsString("Time spent parsing 1 build files (ms):"));
+    assertThat(report, containsString("       2.5       1.5       0.0       0.0       0.0  "));
+    assertThat(report, containsString("Slowest includes (ms, count):"));
+    assertThat(report, containsString("       1.5         1  //DEFS"));
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+
+public class GlobResultCacheTest {
+
+  private static final Path CELL_ROOT = Paths.get("/cell");
+
+  private static final GlobSpec JAVA_SOURCES =
+      GlobSpec.of("java/foo", ImmutableList.of("**/*.java"), ImmutableList.of(), false);
+  private static final GlobSpec TOP_LEVEL_HEADERS =
+      GlobSpec.of("java/foo", ImmutableList.of("*.h"), ImmutableList.of(), false);
+
+  @Test
+  public void repeatedGlobsAreAnsweredFromTheCache() {
+    GlobResultCache cache = new GlobResultCache();
+    assertFalse(cache.get(CELL_ROOT, JAVA_SOURCES).isPresent());
+
+    cache.put(CELL_ROOT, JAVA_SOURCES, ImmutableList.of("A.java"), cache.getGeneration());
+
+    assertEquals(Optional.of(ImmutableList.of("A.java")), cache.get(CELL_ROOT, JAVA_SOURCES));
+    assertFalse(cache.get(Paths.get("/other"), JAVA_SOURCES).isPresent());
+  }
+
+  @Test
+  public void onlyGlobsWhichCanMatchAnAddedOrRemovedPathAreInvalidated() {
+    GlobResultCache cache = new GlobResultCache();
+    cache.put(CELL_ROOT, JAVA_SOURCES, ImmutableList.of("A.java"), cache.getGeneration());
+    cache.put(CELL_ROOT, TOP_LEVEL_HEADERS, ImmutableList.of("a.h"), cache.getGeneration());
+
+    cache.invalidateForAddedOrRemovedPath(Paths.get("java/foo/bar/b.h"));
+    cache.invalidateForAddedOrRemovedPath(Paths.get("java/other/C.java"));
+    assertTrue(cache.get(CELL_ROOT, JAVA_SOURCES).isPresent());
+    assertTrue(cache.get(CELL_ROOT, TOP_LEVEL_HEADERS).isPresent());
+
+    cache.invalidateForAddedOrRemovedPath(Paths.get("java/foo/bar/B.java"));
+    assertFalse(cache.get(CELL_ROOT, JAVA_SOURCES).isPresent());
+    assertTrue(cache.get(CELL_ROOT, TOP_LEVEL_HEADERS).isPresent());
+  }
+
+  @Test
+  public void resultsComputedBeforeAnInvalidationAreNotCached() {
+    GlobResultCache cache = new GlobResultCache();
+    long generation = cache.getGeneration();
+    cache.invalidateForAddedOrRemovedPath(Paths.get("unrelated/file"));
+
+    cache.put(CELL_ROOT, JAVA_SOURCES, ImmutableList.of("A.java"), generation);
+
+    assertFalse(cache.get(CELL_ROOT, JAVA_SOURCES).isPresent());
+  }
+
+  @Test
+  public void globsAreWidenedRatherThanNarrowed() {
+    assertTrue(GlobResultCache.globToPattern("**/*.java").matcher("A.java").matches());
+    assertTrue(GlobResultCache.globToPattern("**/*.java").matcher("a/b/A.java").matches());
+    assertFalse(GlobResultCache.globToPattern("*.java").matcher("a/A.java").matches());
+    assertTrue(GlobResultCache.globToPattern("src//[ab]?.c").matcher("src/xy.c").matches());
+    assertTrue(GlobResultCache.globToPattern("res/**").matcher("res/a/b").matches());
+  }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.MorePaths;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ImmutableSortedSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.function.Function;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+public class ClasspathJarCacheTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private JavaCompiler compiler;
+  private ClasspathJarCache cache;
+
+  @Before
+  public void setUp() {
+    compiler = ToolProvider.getSystemJavaCompiler();
+    cache = new ClasspathJarCache(/* maxSizeBytes */ 1024 * 1024);
+  }
+
+  @Test
+  public void consecutiveCompilationsReadJarsOnce() throws IOException {
+    Path library = compileToJar(
+        "package com.example.lib; public class Library { public static int get() { return 1; } }",
+        ImmutableList.of());
+    Path other = compileToJar(
+        "package com.example.other; public class Other { }",
+        ImmutableList.of());
+
+    for (int i = 0; i < 3; i++) {
+      compile(
+          "package com.example; public class A { int a = com.example.lib.Library.get(); }",
+          ImmutableList.of(library, other),
+          cache::wrapFileManager);
+    }
+
+    assertEquals(2, cache.getJarsRead());
+  }
+
+  @Test
+  public void jarsAreStampedOncePerCompilation() throws IOException {
+    Path library = compileToJar(
+        "package com.example.lib; public class Library { public static int get() { return 1; } }",
+        ImmutableList.of());
+    Path other = compileToJar(
+        "package com.example.other; public class Other { }",
+        ImmutableList.of());
+
+    // Resolving these names lists the classpath for several packages.
+    compile(
+        "package com.example; public class A extends java.util.ArrayList<java.io.File> {" +
+            " int a = com.example.lib.Library.get(); com.example.other.Other o; }",
+        ImmutableList.of(library, other),
+        cache::wrapFileManager);
+
+    assertEquals(2, cache.getJarsStamped());
+  }
+
+  @Test
+  public void rewrittenJarsAreReadAgain() throws IOException {
+    Path library = compileToJar(
+        "package com.example.lib; public class Library { }",
+        ImmutableList.of());
+    compile(
+        "package com.example; public class A extends com.example.lib.Library { }",
+        ImmutableList.of(library),
+        cache::wrapFileManager);
+
+    Path newLibrary = compileToJar(
+        "package com.example.lib; public class Library { public void added() { } }",
+        ImmutableList.of());
+    Files.copy(newLibrary, library, StandardCopyOption.REPLACE_EXISTING);
+    Files.setLastModifiedTime(
+        library,
+        FileTime.fromMillis(Files.getLastModifiedTime(library).toMillis() + 2000));
+    compile(
+        "package com.example; public class B { { new com.example.lib.Library().added(); } }",
+        ImmutableList.of(library),
+        cache::wrapFileManager);
+
+    assertEquals(2, cache.getJarsRead());
+  }
+
+  @Test
+  public void classUsageIsTrackedForCachedClasses() throws IOException {
+    Path library = compileToJar(
+        "package com.example.lib; public class Library { }",
+        ImmutableList.of());
+    ClassUsageTracker tracker = new ClassUsageTracker();
+
+    compile(
+        "package com.example; public class A extends com.example.lib.Library { }",
+        ImmutableList.of(library),
+        fileManager -> tracker.wrapFileManager(cache.wrapFileManager(fileManager)));
+
+    ImmutableSetMultimap<Path, Path> classUsage = tracker.getClassUsageMap();
+    assertTrue(
+        classUsage.toString(),
+        classUsage.containsEntry(library, Paths.get("com/example/lib/Library.class")));
+  }
+
+  @Test
+  public void classpathsWithDirectoriesAreNotCached() throws IOException {
+    Path library = compileToJar(
+        "package com.example.lib; public class Library { }",
+        ImmutableList.of());
+    Path directory = temp.newFolder().toPath();
+
+    compile(
+        "package com.example; public class A extends com.example.lib.Library { }",
+        ImmutableList.of(directory, library),
+        cache::wrapFileManager);
+
+    assertEquals(0, cache.getJarsRead());
+  }
+
+  @Test
+  public void missingClassesAreStillReported() throws IOException {
+    Path library = compileToJar(
+        "package com.example.lib; public class Library { }",
+        ImmutableList.of());
+
+    assertFalse(
+        tryCompile(
+            "package com.example; public class A extends com.example.lib.Missing { }",
+            ImmutableList.of(library),
+            cache::wrapFileManager));
+  }
+
+  private void compile(
+      String source,
+      ImmutableList<Path> classpath,
+      Function<StandardJavaFileManager, StandardJavaFileManager> wrapper) throws IOException {
+    assertTrue(tryCompile(source, classpath, wrapper));
+  }
+
+  private boolean tryCompile(
+      String source,
+      ImmutableList<Path> classpath,
+      Function<StandardJavaFileManager, StandardJavaFileManager> wrapper) throws IOException {
+    return compileTo(temp.newFolder().toPath(), source, classpath, wrapper);
+  }
+
+  private boolean compileTo(
+      Path outputDir,
+      String source,
+      ImmutableList<Path> classpath,
+      Function<StandardJavaFileManager, StandardJavaFileManager> wrapper) throws IOException {
+    Path sourceDir = temp.newFolder().toPath();
+    String className = source.replaceAll("(?s).* class (\\w+).*", "$1");
+    Path sourceFile = sourceDir.resolve(className + ".java");
+    Files.write(sourceFile, source.getBytes(StandardCharsets.UTF_8));
+
+    StringWriter diagnostics = new StringWriter();
+    try (StandardJavaFileManager fileManager =
+             wrapper.apply(compiler.getStandardFileManager(null, null, null))) {
+      ImmutableList.Builder<String> options = ImmutableList.builder();
+      options.add("-d", outputDir.toString(), "-sourcepath", "");
+      options.add(
+          "-classpath",
+          Joiner.on(File.pathSeparator).join(classpath));
+      return compiler.getTask(
+          diagnostics,
+          fileManager,
+          null,
+          options.build(),
+          null,
+          fileManager.getJavaFileObjects(sourceFile.toFile())).call();
+    }
+  }
+
+  private Path compileToJar(String source, ImmutableList<Path> classpath) throws IOException {
+    Path outputDir = temp.newFolder().toPath();
+    assertTrue(compileTo(outputDir, source, classpath, Function.identity()));
+
+    Path jar = temp.newFolder().toPath().resolve("output.jar");
+    try (
+        OutputStream out = Files.newOutputStream(jar);
+        JarOutputStream jarOut = new JarOutputStream(out);
+        Stream<Path> files = Files.walk(outputDir)) {
+      for (Path file : ImmutableSortedSet.copyOf(files.iterator())) {
+        if (!Files.isRegularFile(file)) {
+          continue;
+        }
+        jarOut.putNextEntry(
+            new ZipEntry(MorePaths.pathWithUnixSeparators(outputDir.relativize(file))));
+        Files.copy(file, jarOut);
+        jarOut.closeEntry();
+      }
+    }
+    return jar;
+  }
+}
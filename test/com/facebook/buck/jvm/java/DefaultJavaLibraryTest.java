@@ -408,6 +408,72 @@ public class DefaultJavaLibraryTest {
         javacStep.getClasspathEntries());
   }
 
+  @Test
+  public void testClasspathIsMadeOfAbiJarsWhenAbisAreGeneratedFromSource() throws Exception {
+    BuildRuleResolver ruleResolver = new BuildRuleResolver(
+        TargetGraph.EMPTY,
+        new DefaultTargetNodeToBuildRuleTransformer());
+    SourcePathResolver resolver = new SourcePathResolver(ruleResolver);
+    JavacOptions javacOptions = JavacOptions.builder(DEFAULT_JAVAC_OPTIONS)
+        .setAbiGenerationMode(AbstractJavacOptions.AbiGenerationMode.SOURCE)
+        .build();
+
+    JavaLibrary exported = (JavaLibrary) JavaLibraryBuilder
+        .createBuilder(BuildTargetFactory.newInstance("//:exported"), javacOptions)
+        .addSrc(Paths.get("java/src/com/exported/Bar.java"))
+        .build(ruleResolver);
+    JavaLibrary dep = (JavaLibrary) JavaLibraryBuilder
+        .createBuilder(BuildTargetFactory.newInstance("//:dep"), javacOptions)
+        .addSrc(Paths.get("java/src/com/dep/Foo.java"))
+        .addExportedDep(exported.getBuildTarget())
+        .build(ruleResolver);
+    BuildRule library = JavaLibraryBuilder
+        .createBuilder(BuildTargetFactory.newInstance("//:lib"), javacOptions)
+        .addSrc(Paths.get("java/src/com/lib/Lib.java"))
+        .addDep(dep.getBuildTarget())
+        .build(ruleResolver);
+
+    JavacStep javacStep = FluentIterable
+        .from(library.getBuildSteps(FakeBuildContext.NOOP_CONTEXT, new FakeBuildableContext()))
+        .filter(JavacStep.class)
+        .get(0);
+    assertEquals(
+        ImmutableSet.of(
+            resolver.getAbsolutePath(dep.getAbiJar().get()),
+            resolver.getAbsolutePath(exported.getAbiJar().get())),
+        javacStep.getClasspathEntries());
+  }
+
+  @Test
+  public void testLibrariesDependOnlyOnAbisToBuildWhenAbisAreGeneratedFromSource()
+      throws Exception {
+    BuildRuleResolver ruleResolver = new BuildRuleResolver(
+        TargetGraph.EMPTY,
+        new DefaultTargetNodeToBuildRuleTransformer());
+    JavacOptions javacOptions = JavacOptions.builder(DEFAULT_JAVAC_OPTIONS)
+        .setAbiGenerationMode(AbstractJavacOptions.AbiGenerationMode.SOURCE)
+        .build();
+
+    BuildTarget depTarget = BuildTargetFactory.newInstance("//:dep");
+    BuildRule dep = JavaLibraryBuilder
+        .createBuilder(depTarget, javacOptions)
+        .addSrc(Paths.get("java/src/com/dep/Foo.java"))
+        .build(ruleResolver);
+    DefaultJavaLibrary library = (DefaultJavaLibrary) JavaLibraryBuilder
+        .createBuilder(BuildTargetFactory.newInstance("//:lib"), javacOptions)
+        .addSrc(Paths.get("java/src/com/lib/Lib.java"))
+        .addDep(depTarget)
+        .build(ruleResolver);
+
+    assertThat(library.getDeps(), Matchers.not(Matchers.hasItem(dep)));
+    assertThat(
+        library.getDeps(),
+        Matchers.hasItem(
+            ruleResolver.getRule(depTarget.withAppendedFlavors(CalculateAbi.FLAVOR))));
+    assertEquals(ImmutableSortedSet.of(dep), library.getRuntimeDeps());
+    assertEquals(ImmutableSortedSet.of(dep), library.getDepsForTransitiveClasspathEntries());
+  }
+
   /**
    * Verify adding an annotation processor java binary with options.
    */
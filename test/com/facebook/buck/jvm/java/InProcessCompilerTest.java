@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.DefaultTargetNodeToBuildRuleTransformer;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.rules.TargetGraph;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TestConsole;
+import com.facebook.buck.util.ClassLoaderCache;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+public class InProcessCompilerTest {
+
+  private static final Path COMPILER_JAR = Paths.get("/opt/fake/lib/compiler.jar").toAbsolutePath();
+
+  @Nullable
+  private static ImmutableList<String> compiledArgs;
+  @Nullable
+  private static ClassLoader compilingClassLoader;
+
+  private ClassLoader compilerClassLoader;
+  private TestConsole console;
+  private ExecutionContext context;
+
+  @Before
+  public void setUp() throws Exception {
+    compiledArgs = null;
+    compilingClassLoader = null;
+    // Stands in for the class loader for the compiler's jars, which this test cannot create.
+    compilerClassLoader = new ClassLoader(InProcessCompilerTest.class.getClassLoader()) {};
+    ClassLoaderCache classLoaderCache = new ClassLoaderCache();
+    classLoaderCache.injectClassLoader(
+        null,
+        ImmutableList.of(COMPILER_JAR.toUri().toURL()),
+        compilerClassLoader);
+    console = new TestConsole();
+    context = TestExecutionContext.newBuilder()
+        .setConsole(console)
+        .setClassLoaderCache(classLoaderCache)
+        .build();
+  }
+
+  @Test
+  public void compilerIsCalledInItsClassLoaderWithItsArgumentsFirst() {
+    FakeCompiler compiler = new FakeCompiler(ImmutableList.of("-target", "1.7"));
+
+    assertEquals(0, compiler.compile(context, ImmutableList.of("-d", "out", "A.src")));
+
+    assertEquals(ImmutableList.of("-target", "1.7", "-d", "out", "A.src"), compiledArgs);
+    assertSame(compilerClassLoader, compilingClassLoader);
+    assertSame(
+        InProcessCompilerTest.class.getClassLoader(),
+        Thread.currentThread().getContextClassLoader());
+  }
+
+  @Test
+  public void exceptionsThrownByTheCompilerFailTheCompilation() {
+    FakeCompiler compiler = new FakeCompiler(ImmutableList.of());
+
+    assertEquals(1, compiler.compile(context, ImmutableList.of("--crash")));
+
+    assertThat(console.getTextWrittenToStdErr(), containsString("Compiler crashed"));
+  }
+
+  @Test
+  public void compilerRunsInANewJvmAsATool() {
+    FakeCompiler compiler = new FakeCompiler(ImmutableList.of("-target", "1.7"));
+
+    ImmutableList<String> prefix = compiler.getCommandPrefix(
+        new SourcePathResolver(
+            new BuildRuleResolver(
+                TargetGraph.EMPTY,
+                new DefaultTargetNodeToBuildRuleTransformer())));
+
+    assertEquals(
+        ImmutableList.of(
+            "-cp",
+            COMPILER_JAR.toString(),
+            FakeCompilerMain.class.getName(),
+            "-target",
+            "1.7"),
+        prefix.subList(1, prefix.size()));
+  }
+
+  public static class FakeCompilerMain {
+
+    public static int compile(String[] args) {
+      if (Arrays.asList(args).contains("--crash")) {
+        throw new IllegalStateException("Compiler crashed");
+      }
+      compiledArgs = ImmutableList.copyOf(args);
+      compilingClassLoader = Thread.currentThread().getContextClassLoader();
+      return 0;
+    }
+  }
+
+  private static class FakeCompiler extends InProcessCompiler {
+
+    FakeCompiler(ImmutableList<String> arguments) {
+      super(FakeCompilerMain.class.getName(), ImmutableList.of(COMPILER_JAR), arguments);
+    }
+
+    @Override
+    protected int compile(Class<?> mainClass, String[] args, PrintStream stdErr)
+        throws ReflectiveOperationException {
+      return (Integer) mainClass.getMethod("compile", String[].class).invoke(null, (Object) args);
+    }
+  }
+}
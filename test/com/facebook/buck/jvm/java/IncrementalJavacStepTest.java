@@ -0,0 +1,364 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.model.BuildTargets;
+import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.DefaultTargetNodeToBuildRuleTransformer;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.rules.TargetGraph;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.facebook.buck.util.MoreCollectors;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Ordering;
+
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+import javax.tools.ToolProvider;
+
+public class IncrementalJavacStepTest {
+
+  private static final FileTime BEFORE_BUILD = FileTime.fromMillis(0);
+
+  @Rule
+  public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private BuildTarget target;
+  private Path classesDirectory;
+
+  @Before
+  public void setUp() {
+    filesystem = new ProjectFilesystem(tmp.getRoot());
+    target = BuildTargetFactory.newInstance("//:lib");
+    classesDirectory =
+        BuildTargets.getScratchPath(filesystem, target, "lib__%s__incremental").resolve("classes");
+  }
+
+  @Test
+  public void firstBuildCompilesEverything() throws Exception {
+    writeSource("A", "public class A { public int get() { return 1; } }");
+    writeSource("B", "public class B { int b = new A().get(); }");
+
+    assertEquals(ImmutableSet.of("A", "B"), build(ImmutableList.of()));
+    assertTrue(filesystem.isFile(Paths.get("out/A.class")));
+    assertTrue(filesystem.isFile(Paths.get("out/B.class")));
+  }
+
+  @Test
+  public void changingAMethodBodyRecompilesOnlyItsSource() throws Exception {
+    writeSource("A", "public class A { public int get() { return 1; } }");
+    writeSource("B", "public class B { int b = new A().get(); }");
+    writeSource("C", "public class C { }");
+    build(ImmutableList.of());
+
+    writeSource("A", "public class A { public int get() { return 2; } }");
+
+    assertEquals(ImmutableSet.of("A"), build(ImmutableList.of()));
+    assertTrue(filesystem.isFile(Paths.get("out/B.class")));
+  }
+
+  @Test
+  public void changingAnAbiRecompilesTheClassesUsingIt() throws Exception {
+    writeSource("A", "public class A { public int get() { return 1; } }");
+    writeSource("B", "public class B { long b = new A().get(); }");
+    writeSource("C", "public class C { }");
+    build(ImmutableList.of());
+
+    writeSource("A", "public class A { public long get() { return 1; } }");
+
+    assertEquals(ImmutableSet.of("A", "B"), build(ImmutableList.of()));
+  }
+
+  @Test
+  public void changingAnAbiRecompilesTheClassesUsingItsSubclasses() throws Exception {
+    writeSource("A", "public class A { public int get() { return 1; } }");
+    writeSource("B", "public class B extends A { }");
+    writeSource("C", "public class C { long c = new B().get(); }");
+    writeSource("D", "public class D { }");
+    build(ImmutableList.of());
+
+    writeSource("A", "public class A { public long get() { return 1; } }");
+
+    assertEquals(ImmutableSet.of("A", "B", "C"), build(ImmutableList.of()));
+  }
+
+  @Test
+  public void changingAConstantRecompilesEverything() throws Exception {
+    writeSource("A", "public class A { public static final int VALUE = 1; }");
+    writeSource("B", "public class B { int b = A.VALUE; }");
+    writeSource("C", "public class C { }");
+    build(ImmutableList.of());
+
+    writeSource("A", "public class A { public static final int VALUE = 2; }");
+
+    assertEquals(ImmutableSet.of("A", "B", "C"), build(ImmutableList.of()));
+  }
+
+  @Test
+  public void addingAClassRecompilesTheClassesItShadowsANameFor() throws Exception {
+    writeSource("A", "import java.util.*; public class A { List a; }");
+    writeSource("B", "public class B { }");
+    build(ImmutableList.of());
+
+    writeSource("List", "public class List { }");
+
+    assertEquals(ImmutableSet.of("A", "List"), build(ImmutableList.of()));
+  }
+
+  @Test
+  public void removingASourceRemovesItsClasses() throws Exception {
+    writeSource("A", "public class A { class Inner { } }");
+    writeSource("B", "public class B { }");
+    build(ImmutableList.of());
+
+    filesystem.deleteFileAtPath(Paths.get("A.java"));
+
+    assertEquals(ImmutableSet.of(), build(ImmutableList.of()));
+    assertThat(
+        listClasses(classesDirectory),
+        Matchers.contains(classesDirectory.resolve("B.class")));
+  }
+
+  @Test
+  public void removingASourceDeclaringConstantsRecompilesEverything() throws Exception {
+    writeSource("A", "public class A { public static final int VALUE = 1; }");
+    writeSource("B", "public class B { int b = A.VALUE; }");
+    build(ImmutableList.of());
+
+    filesystem.deleteFileAtPath(Paths.get("A.java"));
+
+    assertNotEquals(0, execute(ImmutableList.of()));
+  }
+
+  @Test
+  public void breakingADependentFailsTheBuild() throws Exception {
+    writeSource("A", "public class A { public int get() { return 1; } }");
+    writeSource("B", "public class B { int b = new A().get(); }");
+    build(ImmutableList.of());
+
+    writeSource("A", "public class A { }");
+
+    assertNotEquals(0, execute(ImmutableList.of()));
+    // Having forgotten about the failed compilation, the next one starts from scratch.
+    writeSource("A", "public class A { public int get() { return 1; } }");
+    assertEquals(ImmutableSet.of("A", "B"), build(ImmutableList.of()));
+  }
+
+  @Test
+  public void changingAClassOnTheClasspathRecompilesTheClassesUsingIt() throws Exception {
+    Path library = tmp.getRoot().resolve("library.jar");
+    writeJar(library, "public class Library { public static int get() { return 1; } }");
+    writeSource("A", "public class A { long a = Library.get(); }");
+    writeSource("B", "public class B { }");
+    build(ImmutableList.of(library));
+
+    writeJar(library, "public class Library { public static long get() { return 1; } }");
+
+    assertEquals(ImmutableSet.of("A"), build(ImmutableList.of(library)));
+  }
+
+  @Test
+  public void changingAConstantOnTheClasspathRecompilesEverything() throws Exception {
+    Path library = tmp.getRoot().resolve("library.jar");
+    writeJar(library, "public class Library { public static final int VALUE = 1; }");
+    writeSource("A", "public class A { int a = Library.VALUE; }");
+    writeSource("B", "public class B { Library b; }");
+    build(ImmutableList.of(library));
+
+    writeJar(library, "public class Library { public static final int VALUE = 2; }");
+
+    assertEquals(ImmutableSet.of("A", "B"), build(ImmutableList.of(library)));
+  }
+
+  @Test
+  public void classesUsedByClassesNotRecompiledAreStillRecorded() throws Exception {
+    Path library = tmp.getRoot().resolve("library.jar");
+    writeJar(library, "public class Library { public static int get() { return 1; } }");
+    writeSource("A", "public class A { int a = Library.get(); }");
+    writeSource("B", "public class B { }");
+    build(ImmutableList.of(library));
+
+    writeSource("B", "public class B { int b; }");
+    Path usedClassesFile = Paths.get("used-classes.json");
+    assertEquals(
+        0,
+        execute(
+            ImmutableList.of(library),
+            new DefaultClassUsageFileWriter(usedClassesFile, new ClassUsageTracker())));
+
+    assertThat(
+        filesystem.readFileIfItExists(usedClassesFile).get(),
+        Matchers.containsString("\"library.jar\":[\"Library.class\"]"));
+  }
+
+  @Test
+  public void referencedClassesIncludeThoseInDescriptors() throws Exception {
+    writeSource(
+        "A",
+        "public class A extends java.util.AbstractList<String> {" +
+            "  public String get(int i) { return null; }" +
+            "  public int size() { return 0; }" +
+            "  void method(java.io.File[] files, java.util.List<java.net.URI> uris) { }" +
+            "}");
+    build(ImmutableList.of());
+
+    ClassReader reader = new ClassReader(
+        Files.readAllBytes(filesystem.resolve(classesDirectory.resolve("A.class"))));
+    assertThat(
+        IncrementalJavacStep.getReferencedClasses(reader),
+        Matchers.hasItems(
+            "java/util/AbstractList",
+            "java/lang/String",
+            "java/io/File",
+            "java/util/List",
+            "java/net/URI"));
+    assertThat(
+        IncrementalJavacStep.getReferencedClasses(reader),
+        Matchers.not(Matchers.hasItem("A")));
+  }
+
+  private void writeSource(String className, String source) throws IOException {
+    filesystem.writeContentsToPath(source, Paths.get(className + ".java"));
+  }
+
+  /**
+   * @return the classes the build wrote.
+   */
+  private ImmutableSet<String> build(ImmutableList<Path> classpath) throws Exception {
+    if (filesystem.isDirectory(classesDirectory)) {
+      for (Path classFile : listClasses(classesDirectory)) {
+        filesystem.setLastModifiedTime(classFile, BEFORE_BUILD);
+      }
+    }
+
+    assertEquals(0, execute(classpath));
+
+    ImmutableSet.Builder<String> written = ImmutableSet.builder();
+    for (Path classFile : listClasses(classesDirectory)) {
+      if (filesystem.getLastModifiedTime(classFile) != BEFORE_BUILD.toMillis()) {
+        String fileName = classFile.getFileName().toString();
+        written.add(fileName.substring(0, fileName.length() - ".class".length()));
+      }
+    }
+    return written.build();
+  }
+
+  private int execute(ImmutableList<Path> classpath) throws Exception {
+    return execute(classpath, NoOpClassUsageFileWriter.instance());
+  }
+
+  private int execute(
+      ImmutableList<Path> classpath,
+      ClassUsageFileWriter usedClassesFileWriter) throws Exception {
+    filesystem.deleteRecursivelyIfExists(Paths.get("out"));
+    filesystem.mkdirs(Paths.get("out"));
+
+    IncrementalJavacStep step = new IncrementalJavacStep(
+        Paths.get("out"),
+        usedClassesFileWriter,
+        Optional.empty(),
+        listSources(),
+        Paths.get("srcs_list"),
+        ImmutableSortedSet.copyOf(classpath),
+        new JdkProvidedInMemoryJavac(),
+        JavaCompilationConstants.DEFAULT_JAVAC_OPTIONS,
+        target,
+        Optional.empty(),
+        new SourcePathResolver(
+            new BuildRuleResolver(
+                TargetGraph.EMPTY,
+                new DefaultTargetNodeToBuildRuleTransformer())),
+        filesystem,
+        classesDirectory.getParent());
+    return step.execute(TestExecutionContext.newInstance()).getExitCode();
+  }
+
+  private ImmutableSortedSet<Path> listSources() throws IOException {
+    try (Stream<Path> files = Files.list(tmp.getRoot())) {
+      return files
+          .filter(path -> path.toString().endsWith(".java"))
+          .map(tmp.getRoot()::relativize)
+          .collect(MoreCollectors.toImmutableSortedSet(Ordering.natural()));
+    }
+  }
+
+  private ImmutableSortedSet<Path> listClasses(Path directory) throws IOException {
+    try (Stream<Path> files = Files.walk(filesystem.resolve(directory))) {
+      return files
+          .filter(path -> path.toString().endsWith(".class"))
+          .map(filesystem::relativize)
+          .collect(MoreCollectors.toImmutableSortedSet(Ordering.natural()));
+    }
+  }
+
+  private void writeJar(Path jar, String source) throws IOException {
+    Optional<FileTime> previousModifiedTime = Files.exists(jar) ?
+        Optional.of(Files.getLastModifiedTime(jar)) :
+        Optional.empty();
+    Path sourceDirectory = Files.createTempDirectory(tmp.getRoot(), "library");
+    Path sourceFile = sourceDirectory.resolve("Library.java");
+    Files.write(sourceFile, source.getBytes(StandardCharsets.UTF_8));
+    assertEquals(0, ToolProvider.getSystemJavaCompiler().run(
+        null,
+        null,
+        null,
+        "-d", sourceDirectory.toString(),
+        sourceFile.toString()));
+
+    try (
+        OutputStream out = Files.newOutputStream(jar);
+        JarOutputStream jarOut = new JarOutputStream(out)) {
+      jarOut.putNextEntry(new ZipEntry("Library.class"));
+      Files.copy(sourceDirectory.resolve("Library.class"), jarOut);
+      jarOut.closeEntry();
+    }
+    // Make sure a rewritten jar isn't mistaken for the one it replaced.
+    if (previousModifiedTime.isPresent()) {
+      Files.setLastModifiedTime(
+          jar,
+          FileTime.fromMillis(previousModifiedTime.get().toMillis() + 2000));
+    }
+  }
+}
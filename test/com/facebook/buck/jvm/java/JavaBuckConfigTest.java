@@ -303,6 +303,36 @@ public class JavaBuckConfigTest {
         .trackClassUsage());
   }
 
+  @Test
+  public void abiGenerationModeDefaultsToClass()
+      throws IOException, NoSuchBuildTargetException, InterruptedException {
+    assertEquals(
+        AbstractJavacOptions.AbiGenerationMode.CLASS,
+        createWithDefaultFilesystem(new StringReader(""))
+            .getDefaultJavacOptions()
+            .getAbiGenerationMode());
+
+    assertEquals(
+        AbstractJavacOptions.AbiGenerationMode.SOURCE,
+        createWithDefaultFilesystem(new StringReader("[java]\nabi_generation_mode = source"))
+            .getDefaultJavacOptions()
+            .getAbiGenerationMode());
+  }
+  @Test
+  public void incrementalCompilationIsDisabledByDefault()
+      throws IOException, NoSuchBuildTargetException, InterruptedException {
+    assertFalse(
+        createWithDefaultFilesystem(new StringReader(""))
+            .getDefaultJavacOptions()
+            .isIncrementalCompilationEnabled());
+
+    assertTrue(
+        createWithDefaultFilesystem(new StringReader("[java]\nincremental_compilation = true"))
+            .getDefaultJavacOptions()
+            .isIncrementalCompilationEnabled());
+  }
+
+
   private void assertOptionKeyAbsent(JavacOptions options, String key) {
     OptionAccumulator optionsConsumer = visitOptions(options);
     assertThat(optionsConsumer.keyVals, not(hasKey(key)));
@@ -0,0 +1,428 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java.abi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.MorePaths;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.annotation.Nullable;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+public class SourceStubJarTest {
+
+  private static final String ANNOTATIONS_SOURCE = Joiner.on('\n').join(
+      "package com.example.buck;",
+      "import java.lang.annotation.*;",
+      "@Retention(RetentionPolicy.RUNTIME)",
+      "public @interface Visible {",
+      "  int number() default 3;",
+      "  String[] names() default {\"a\", \"b\"};",
+      "  ElementType kind() default ElementType.TYPE;",
+      "  Class<?> type() default Object.class;",
+      "  Retention nested() default @Retention(RetentionPolicy.CLASS);",
+      "}");
+
+  private static final String LIBRARY_SOURCE = Joiner.on('\n').join(
+      "package com.example.buck;",
+      "import java.io.IOException;",
+      "import java.io.Serializable;",
+      "import java.lang.annotation.RetentionPolicy;",
+      "import java.util.*;",
+      "@Visible(number = 4, names = {\"c\"}, kind = java.lang.annotation.ElementType.FIELD)",
+      "public abstract class Library<K extends Comparable<K>, V extends Serializable & Runnable>",
+      "    extends AbstractMap<K, List<? super V>> implements Iterable<K> {",
+      "  public static final int CONSTANT = 42;",
+      "  public static final String NAME = \"library\";",
+      "  protected static final long[] NOT_CONSTANT = {1, 2};",
+      "  public Map<String, ? extends K> map;",
+      "  V value;",
+      "  private int hidden;",
+      "  @Deprecated public transient volatile int flags;",
+      "  public Library(V value) throws IOException { this.value = value; }",
+      "  protected Library() { }",
+      "  public abstract <T extends Exception> void fail(T e) throws T;",
+      "  public final synchronized String join(String... parts) { return null; }",
+      "  public static <E extends Enum<E>> E[] values(Class<E> type, int[][] counts) {",
+      "    return null;",
+      "  }",
+      "  @Visible public void annotated(",
+      "      @Visible(number = 1) int a,",
+      "      @SuppressWarnings(\"x\") int b) throws IOException, InterruptedException { }",
+      "  @SuppressWarnings(\"unused\") private void hidden() { }",
+      "  public native void natively();",
+      "  public Runnable anonymous() { return new Runnable() { public void run() { } }; }",
+      "  public class Inner<I> {",
+      "    public Inner(I i, K k) { }",
+      "    public Library<K, V>.Inner<I> self() { return this; }",
+      "    public class Deeper { }",
+      "  }",
+      "  public static class Nested implements Comparable<Nested> {",
+      "    public int compareTo(Nested other) { return 0; }",
+      "  }",
+      "  protected interface Callback<R> {",
+      "    R call();",
+      "    default R callTwice() { call(); return call(); }",
+      "    static int count() { return 0; }",
+      "    int LIMIT = 10;",
+      "  }",
+      "  public enum Kind implements Runnable {",
+      "    FIRST, SECOND(RetentionPolicy.SOURCE);",
+      "    Kind() { }",
+      "    Kind(RetentionPolicy policy) { }",
+      "    public void run() { }",
+      "  }",
+      "  public @interface Marker { }",
+      "}");
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+
+  @Before
+  public void createFilesystem() throws IOException {
+    filesystem = new ProjectFilesystem(temp.newFolder().toPath());
+  }
+
+  @Test
+  public void sourceStubsMatchClassStubs() throws IOException {
+    ImmutableList<Path> sources = writeSources(
+        "Visible.java", ANNOTATIONS_SOURCE,
+        "Library.java", LIBRARY_SOURCE);
+    Path classStubJar = Paths.get("class-stub.jar");
+    new StubJar(compileToJar(sources, ImmutableList.of())).writeTo(filesystem, classStubJar);
+    Path sourceStubJar = Paths.get("source-stub.jar");
+    StringWriter diagnostics = new StringWriter();
+    assertTrue(
+        diagnostics.toString(),
+        new SourceStubJar(sources, ImmutableList.of()).writeTo(
+            filesystem,
+            sourceStubJar,
+            diagnostics));
+
+    SortedMap<String, ClassNode> classStubs = readClasses(classStubJar);
+    SortedMap<String, ClassNode> sourceStubs = readClasses(sourceStubJar);
+    // Anonymous classes are not part of the ABI.
+    classStubs.keySet().removeIf(name -> name.matches(".*\\$[0-9]+\\.class"));
+    assertEquals(classStubs.keySet(), sourceStubs.keySet());
+    for (String name : classStubs.keySet()) {
+      assertClassEquals(name, classStubs.get(name), sourceStubs.get(name));
+    }
+  }
+
+  @Test
+  public void dependentCodeCompilesAgainstSourceStubs() throws IOException {
+    ImmutableList<Path> sources = writeSources(
+        "Visible.java", ANNOTATIONS_SOURCE,
+        "Library.java", LIBRARY_SOURCE);
+    Path stubJar = Paths.get("stub.jar");
+    assertTrue(
+        new SourceStubJar(sources, ImmutableList.of()).writeTo(
+            filesystem,
+            stubJar,
+            new StringWriter()));
+
+    ImmutableList<Path> dependentSources = writeSources(
+        "Dependent.java",
+        Joiner.on('\n').join(
+            "package com.example.other;",
+            "import com.example.buck.*;",
+            "import java.util.*;",
+            "@Visible(names = \"x\")",
+            "public abstract class Dependent extends Library<String, Dependent.Task> {",
+            "  public interface Task extends Runnable, java.io.Serializable { }",
+            "  public Dependent(Task task) throws java.io.IOException { super(task); }",
+            "  public void use(Library.Kind kind) {",
+            "    int constant = Library.CONSTANT;",
+            "    String joined = join(\"a\", \"b\");",
+            "    Map<String, ? extends String> m = map;",
+            "    Library.Nested n = new Library.Nested();",
+            "    n.compareTo(n);",
+            "  }",
+            "}"));
+    compileToJar(
+        dependentSources,
+        ImmutableList.of("-classpath", filesystem.resolve(stubJar).toString()));
+  }
+
+  @Test
+  public void usesTheClasspathToResolveTypes() throws IOException {
+    Path dependency = compileToJar(
+        writeSources("Base.java", "package com.example.dep; public class Base<T> { }"),
+        ImmutableList.of());
+    ImmutableList<Path> sources = writeSources(
+        "A.java",
+        "package com.example.buck; public class A extends com.example.dep.Base<String> { }");
+    Path stubJar = Paths.get("stub.jar");
+    StringWriter diagnostics = new StringWriter();
+
+    assertTrue(
+        diagnostics.toString(),
+        new SourceStubJar(
+            sources,
+            ImmutableList.of("-classpath", dependency.toString())).writeTo(
+                filesystem,
+                stubJar,
+                diagnostics));
+
+    ClassNode stub = readClasses(stubJar).get("com/example/buck/A.class");
+    assertEquals("com/example/dep/Base", stub.superName);
+    assertEquals("Lcom/example/dep/Base<Ljava/lang/String;>;", stub.signature);
+  }
+
+  @Test
+  public void stubsHaveTheClassFileVersionOfTheTarget() throws IOException {
+    ImmutableList<Path> sources = writeSources(
+        "A.java",
+        "package com.example.buck; public class A { }");
+    ImmutableList<String> options = ImmutableList.of("-source", "7", "-target", "8");
+    Path stubJar = Paths.get("stub.jar");
+    StringWriter diagnostics = new StringWriter();
+
+    assertTrue(
+        diagnostics.toString(),
+        new SourceStubJar(sources, options).writeTo(filesystem, stubJar, diagnostics));
+
+    assertEquals(
+        readClasses(compileToJar(sources, options)).get("com/example/buck/A.class").version,
+        readClasses(stubJar).get("com/example/buck/A.class").version);
+    assertEquals(Opcodes.V1_8, readClasses(stubJar).get("com/example/buck/A.class").version);
+  }
+
+  @Test
+  public void failsWhenATypeCannotBeResolved() throws IOException {
+    ImmutableList<Path> sources = writeSources(
+        "A.java",
+        "package com.example.buck; public class A { public Missing get() { return null; } }");
+    Path stubJar = Paths.get("stub.jar");
+    StringWriter diagnostics = new StringWriter();
+
+    assertFalse(
+        new SourceStubJar(sources, ImmutableList.of()).writeTo(
+            filesystem,
+            stubJar,
+            diagnostics));
+
+    assertThat(diagnostics.toString(), Matchers.containsString("Missing"));
+    assertFalse(filesystem.exists(stubJar));
+  }
+
+  private static void assertClassEquals(String name, ClassNode expected, ClassNode actual) {
+    assertEquals(name, expected.access, actual.access);
+    assertEquals(name, expected.name, actual.name);
+    assertEquals(name, expected.signature, actual.signature);
+    assertEquals(name, expected.superName, actual.superName);
+    assertEquals(name, expected.interfaces, actual.interfaces);
+    assertEquals(
+        name,
+        describeAnnotations(expected.visibleAnnotations, expected.invisibleAnnotations),
+        describeAnnotations(actual.visibleAnnotations, actual.invisibleAnnotations));
+
+    assertEquals(name, describeFields(expected.fields), describeFields(actual.fields));
+    assertEquals(name, describeMethods(expected.methods), describeMethods(actual.methods));
+  }
+
+  private static List<String> describeFields(List<FieldNode> fields) {
+    return fields.stream()
+        // javac adds fields such as this$0 and $VALUES that are not declared in the source.
+        .filter(field -> (field.access & Opcodes.ACC_SYNTHETIC) == 0)
+        .map(field -> Joiner.on(' ').useForNull("-").join(
+            field.name,
+            field.desc,
+            field.signature,
+            field.access,
+            field.value,
+            describeAnnotations(field.visibleAnnotations, field.invisibleAnnotations)))
+        .sorted()
+        .collect(Collectors.toList());
+  }
+
+  private static List<String> describeMethods(List<MethodNode> methods) {
+    return methods.stream()
+        // Source stubs do not have the bridge methods javac generates, nor static initializers,
+        // which are not part of the ABI.
+        .filter(method -> (method.access & (Opcodes.ACC_SYNTHETIC | Opcodes.ACC_BRIDGE)) == 0)
+        .filter(method -> !"<clinit>".equals(method.name))
+        .map(method -> Joiner.on(' ').useForNull("-").join(
+            method.name,
+            method.desc,
+            method.signature,
+            method.access,
+            method.exceptions,
+            describeAnnotations(method.visibleAnnotations, method.invisibleAnnotations),
+            describeParameterAnnotations(method.visibleParameterAnnotations),
+            describeParameterAnnotations(method.invisibleParameterAnnotations),
+            describeValue(method.annotationDefault)))
+        .sorted()
+        .collect(Collectors.toList());
+  }
+
+  private static String describeAnnotations(
+      @Nullable List<AnnotationNode> visible,
+      @Nullable List<AnnotationNode> invisible) {
+    return describeAnnotationList(visible) + " " + describeAnnotationList(invisible);
+  }
+
+  private static String describeAnnotationList(@Nullable List<AnnotationNode> annotations) {
+    if (annotations == null) {
+      return "[]";
+    }
+    return annotations.stream()
+        .map(annotation -> annotation.desc + describeValue(annotation.values))
+        .collect(Collectors.toList())
+        .toString();
+  }
+
+  private static String describeParameterAnnotations(
+      @Nullable List<AnnotationNode>[] annotations) {
+    if (annotations == null) {
+      return "[]";
+    }
+    return Stream.of(annotations)
+        .map(SourceStubJarTest::describeAnnotationList)
+        .collect(Collectors.toList())
+        .toString();
+  }
+
+  private static String describeValue(@Nullable Object value) {
+    if (value == null) {
+      return "-";
+    } else if (value instanceof AnnotationNode) {
+      AnnotationNode annotation = (AnnotationNode) value;
+      return "@" + annotation.desc + describeValue(annotation.values);
+    } else if (value instanceof List) {
+      List<String> elements = new ArrayList<>();
+      for (Object element : (List<?>) value) {
+        elements.add(describeValue(element));
+      }
+      return elements.toString();
+    } else if (value instanceof String[]) {
+      return ImmutableList.copyOf((String[]) value).toString();
+    } else if (value.getClass().isArray()) {
+      List<Object> elements = new ArrayList<>();
+      for (int i = 0; i < Array.getLength(value); i++) {
+        elements.add(Array.get(value, i));
+      }
+      return elements.toString();
+    }
+    return value.toString();
+  }
+
+  private ImmutableList<Path> writeSources(String... namesAndContents) throws IOException {
+    Path folder = temp.newFolder().toPath();
+    ImmutableList.Builder<Path> sources = ImmutableList.builder();
+    for (int i = 0; i < namesAndContents.length; i += 2) {
+      Path source = folder.resolve(namesAndContents[i]);
+      Files.write(source, namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8));
+      sources.add(source);
+    }
+    return sources.build();
+  }
+
+  private Path compileToJar(List<Path> sources, List<String> options) throws IOException {
+    Path outputDir = temp.newFolder().toPath();
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null)) {
+      List<String> args = new ArrayList<>(options);
+      Collections.addAll(args, "-d", outputDir.toString());
+      StringWriter diagnostics = new StringWriter();
+      assertTrue(
+          diagnostics.toString(),
+          compiler.getTask(
+              diagnostics,
+              fileManager,
+              null,
+              args,
+              null,
+              fileManager.getJavaFileObjectsFromFiles(
+                  sources.stream().map(Path::toFile).collect(Collectors.toList()))).call());
+    }
+
+    Path jar = temp.newFolder().toPath().resolve("output.jar");
+    try (
+        OutputStream out = Files.newOutputStream(jar);
+        JarOutputStream jarOut = new JarOutputStream(out);
+        Stream<Path> files = Files.walk(outputDir)) {
+      for (Path file : ImmutableSortedSet.copyOf(files.iterator())) {
+        if (!file.toString().endsWith(".class")) {
+          continue;
+        }
+        jarOut.putNextEntry(
+            new ZipEntry(MorePaths.pathWithUnixSeparators(outputDir.relativize(file))));
+        Files.copy(file, jarOut);
+        jarOut.closeEntry();
+      }
+    }
+    return jar;
+  }
+
+  private SortedMap<String, ClassNode> readClasses(Path jar) throws IOException {
+    SortedMap<String, ClassNode> classes = new TreeMap<>();
+    Path absoluteJar = filesystem.resolve(jar);
+    try (ZipFile zip = new ZipFile(absoluteJar.toFile())) {
+      for (ZipEntry entry : Collections.list(zip.entries())) {
+        if (!entry.getName().endsWith(".class")) {
+          continue;
+        }
+        classes.put(
+            entry.getName(),
+            AbiClass.extract(absoluteJar, entry.getName()).getClassNode());
+      }
+    }
+    return classes;
+  }
+}
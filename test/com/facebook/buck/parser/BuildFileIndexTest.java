@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.rules.Cell;
+import com.facebook.buck.rules.TestCellBuilder;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class BuildFileIndexTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+  private Cell cell;
+  private BuildFileIndex index;
+
+  @Before
+  public void setUp() throws IOException, InterruptedException {
+    filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    cell = new TestCellBuilder().setFilesystem(filesystem).build();
+    index = new BuildFileIndex();
+    addBuildFile("a/BUCK");
+    addBuildFile("a/b/BUCK");
+    // Sorts between "a" and "a/", so must not be taken to be under "a".
+    addBuildFile("a-c/BUCK");
+  }
+
+  @Test
+  public void buildFilesUnderSearchedDirectoryAreLookedUp() throws Exception {
+    assertEquals(
+        ImmutableSet.of(filesystem.resolve("a/BUCK"), filesystem.resolve("a/b/BUCK")),
+        find("a"));
+
+    // Not reported as added, so only found by searching again.
+    addBuildFile("a/b/d/BUCK");
+    assertEquals(ImmutableSet.of(filesystem.resolve("a/b/BUCK")), find("a/b"));
+    assertEquals(
+        ImmutableSet.of(
+            filesystem.resolve("a-c/BUCK"),
+            filesystem.resolve("a/BUCK"),
+            filesystem.resolve("a/b/BUCK"),
+            filesystem.resolve("a/b/d/BUCK")),
+        find(""));
+  }
+
+  @Test
+  public void addedAndRemovedBuildFilesAreTracked() throws Exception {
+    find("a");
+
+    addBuildFile("a/d/BUCK");
+    index.onBuildFileAddedOrRemoved(cell, Paths.get("a/d/BUCK"));
+    filesystem.deleteFileAtPath(Paths.get("a/b/BUCK"));
+    index.onBuildFileAddedOrRemoved(cell, Paths.get("a/b/BUCK"));
+    // Reported for a file which does not exist, as events may be for other cells.
+    index.onBuildFileAddedOrRemoved(cell, Paths.get("a/e/BUCK"));
+
+    assertEquals(
+        ImmutableSet.of(filesystem.resolve("a/BUCK"), filesystem.resolve("a/d/BUCK")),
+        find("a"));
+  }
+
+  @Test
+  public void invalidatingSearchesAgain() throws Exception {
+    find("a");
+    addBuildFile("a/d/BUCK");
+
+    index.invalidateAll();
+
+    assertEquals(
+        ImmutableSet.of(
+            filesystem.resolve("a/BUCK"),
+            filesystem.resolve("a/b/BUCK"),
+            filesystem.resolve("a/d/BUCK")),
+        find("a"));
+  }
+
+  private ImmutableSet<Path> find(String basePath) throws Exception {
+    return index.findBuildFiles(
+        cell,
+        BuildFileSpec.fromRecursivePath(Paths.get(basePath), filesystem.getRootPath()),
+        ParserConfig.BuildFileSearchMethod.FILESYSTEM_CRAWL);
+  }
+
+  private void addBuildFile(String path) throws IOException {
+    Path buildFile = Paths.get(path);
+    filesystem.mkdirs(buildFile.getParent());
+    filesystem.writeContentsToPath("", buildFile);
+  }
+}
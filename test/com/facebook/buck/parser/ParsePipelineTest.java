@@ -441,6 +441,7 @@ public class ParsePipelineTest {
           });
       this.rawNodeParsePipeline = new RawNodeParsePipeline(
           this.rawNodeParsePipelineCache,
+          new PersistentRawNodeCache(),
           this.projectBuildFileParserPool,
           executorService);
       this.targetNodeParsePipeline = new TargetNodeParsePipeline(
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.cli.FakeBuckConfig;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.rules.Cell;
+import com.facebook.buck.rules.TestCellBuilder;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Optional;
+
+public class PersistentRawNodeCacheTest {
+
+  // Long enough after the files were written that none of them looks modified during the parse.
+  private static final long PARSE_START_MILLIS_OFFSET = 10_000L;
+
+  @Rule
+  public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private Path buildFile;
+  private ImmutableSet<Map<String, Object>> rawNodes;
+  private PersistentRawNodeCache persistentCache;
+
+  @Before
+  public void setUp() throws Exception {
+    filesystem = new ProjectFilesystem(tmp.getRoot());
+    filesystem.mkdirs(Paths.get("foo/sub"));
+    filesystem.writeContentsToPath("genrule(name = 'bar')", Paths.get("foo/BUCK"));
+    filesystem.writeContentsToPath("", Paths.get("foo/sub/BUCK"));
+    filesystem.writeContentsToPath("", Paths.get("foo/bar.txt"));
+    filesystem.writeContentsToPath("FOO = 1", Paths.get("DEFS"));
+    buildFile = filesystem.resolve("foo/BUCK");
+
+    rawNodes = ImmutableSet.of(
+        ImmutableMap.of("buck.base_path", "foo", "buck.type", "genrule", "name", "bar"),
+        ImmutableMap.of(
+            DaemonicParserState.INCLUDES_META_RULE,
+            ImmutableList.of(buildFile.toString(), filesystem.resolve("DEFS").toString())),
+        ImmutableMap.of(
+            DaemonicParserState.CONFIGS_META_RULE,
+            ImmutableMap.of("section", ImmutableMap.of("key", "value"))),
+        ImmutableMap.of("__env", ImmutableMap.of()));
+    persistentCache = new PersistentRawNodeCache();
+  }
+
+  @Test
+  public void persistedNodesAreReturnedWhileNothingChanges() throws Exception {
+    Cell cell = createCell("value");
+    store(cell);
+
+    assertEquals(Optional.of(rawNodes), persistentCache.lookup(cell, buildFile));
+    assertEquals(Optional.of(rawNodes), persistentCache.lookup(createCell("value"), buildFile));
+  }
+
+  @Test
+  public void changedIncludeInvalidatesTheNodes() throws Exception {
+    Cell cell = createCell("value");
+    store(cell);
+
+    filesystem.writeContentsToPath("FOO = 2", Paths.get("DEFS"));
+    persistentCache.invalidatePath(filesystem.resolve("DEFS"), /* createdOrDeleted */ false);
+    assertFalse(persistentCache.lookup(cell, buildFile).isPresent());
+  }
+
+  @Test
+  public void includeChangedWhileTheDaemonWasDownInvalidatesTheNodes() throws Exception {
+    store(createCell("value"));
+
+    filesystem.writeContentsToPath("FOO = 2", Paths.get("DEFS"));
+    persistentCache = new PersistentRawNodeCache();
+    assertFalse(persistentCache.lookup(createCell("value"), buildFile).isPresent());
+  }
+
+  @Test
+  public void inputsAreOnlyReadAgainOnceInvalidated() throws Exception {
+    Cell cell = createCell("value");
+    store(cell);
+
+    // Without a watch event, the hash of the include from the store is still trusted.
+    filesystem.writeContentsToPath("FOO = 2", Paths.get("DEFS"));
+    filesystem.writeContentsToPath("", Paths.get("foo/baz.txt"));
+    assertEquals(Optional.of(rawNodes), persistentCache.lookup(cell, buildFile));
+
+    persistentCache.invalidatePath(filesystem.resolve("foo/baz.txt"), /* createdOrDeleted */ true);
+    filesystem.writeContentsToPath("FOO = 1", Paths.get("DEFS"));
+    assertFalse(persistentCache.lookup(cell, buildFile).isPresent());
+  }
+
+  @Test
+  public void changedConfigValueInvalidatesTheNodes() throws Exception {
+    store(createCell("value"));
+
+    assertFalse(persistentCache.lookup(createCell("other value"), buildFile).isPresent());
+  }
+
+  @Test
+  public void addedFileInPackageInvalidatesTheNodes() throws Exception {
+    Cell cell = createCell("value");
+    store(cell);
+
+    filesystem.writeContentsToPath("", Paths.get("foo/baz.txt"));
+    persistentCache.invalidatePath(filesystem.resolve("foo/baz.txt"), /* createdOrDeleted */ true);
+    assertFalse(persistentCache.lookup(cell, buildFile).isPresent());
+  }
+
+  @Test
+  public void addedFileInNestedPackageDoesNotInvalidateTheNodes() throws Exception {
+    Cell cell = createCell("value");
+    store(cell);
+
+    filesystem.writeContentsToPath("", Paths.get("foo/sub/baz.txt"));
+    persistentCache.invalidatePath(
+        filesystem.resolve("foo/sub/baz.txt"),
+        /* createdOrDeleted */ true);
+    assertEquals(Optional.of(rawNodes), persistentCache.lookup(cell, buildFile));
+  }
+
+  @Test
+  public void nodesAreNotPersistedIfInputsChangedDuringTheParse() throws Exception {
+    Cell cell = createCell("value");
+    persistentCache.store(cell, buildFile, rawNodes, System.currentTimeMillis());
+
+    assertFalse(persistentCache.lookup(cell, buildFile).isPresent());
+  }
+
+  private Cell createCell(String configValue) throws Exception {
+    return new TestCellBuilder()
+        .setFilesystem(filesystem)
+        .setBuckConfig(
+            FakeBuckConfig.builder()
+                .setFilesystem(filesystem)
+                .setSections(
+                    ImmutableMap.of(
+                        "parser", ImmutableMap.of("enable_persistent_cache", "true"),
+                        "section", ImmutableMap.of("key", configValue)))
+                .build())
+        .build();
+  }
+
+  private void store(Cell cell) {
+    persistentCache.store(
+        cell,
+        buildFile,
+        rawNodes,
+        System.currentTimeMillis() + PARSE_START_MILLIS_OFFSET);
+  }
+}
@@ -107,6 +107,50 @@ public class ProjectBuildFileParserPoolTest {
         /* expectedCreateCount */ 1);
   }
 
+  @Test
+  public void lendsParserToSeveralRequestsAtOnce() throws Exception {
+    final int requestsPerParser = 3;
+    AtomicInteger createCount = new AtomicInteger(0);
+    Cell cell = EasyMock.createMock(Cell.class);
+    ListeningExecutorService executorService = MoreExecutors.listeningDecorator(
+        Executors.newFixedThreadPool(requestsPerParser));
+
+    // Every request waits for the others, so they only complete if they share the parser.
+    CountDownLatch parseLatch = new CountDownLatch(requestsPerParser);
+    try (ProjectBuildFileParserPool parserPool =
+        new ProjectBuildFileParserPool(
+            /* maxParsersPerCell */ 1,
+            requestsPerParser,
+            input -> {
+              createCount.incrementAndGet();
+              ProjectBuildFileParser parser = EasyMock.createMock(ProjectBuildFileParser.class);
+              // Mocks serialize calls by default, which would keep the requests from overlapping.
+              EasyMock.makeThreadSafe(parser, false);
+              try {
+                EasyMock.expect(parser.getAllRulesAndMetaRules(EasyMock.anyObject(Path.class)))
+                    .andAnswer(
+                        () -> {
+                          parseLatch.countDown();
+                          assertThat(
+                              parseLatch.await(1, TimeUnit.SECONDS),
+                              Matchers.equalTo(true));
+                          return ImmutableList.of();
+                        })
+                    .anyTimes();
+              } catch (Exception e) {
+                Throwables.propagate(e);
+              }
+              EasyMock.replay(parser);
+              return parser;
+            })) {
+
+      Futures.allAsList(scheduleWork(cell, parserPool, executorService, requestsPerParser)).get();
+      assertThat(createCount.get(), Matchers.equalTo(1));
+    } finally {
+      executorService.shutdown();
+    }
+  }
+
   @Test
   public void closesCreatedParsers() throws Exception {
     final int parsersCount = 4;
@@ -18,6 +18,7 @@ package com.facebook.buck.parser;
 
 
 import static com.facebook.buck.parser.ParserConfig.DEFAULT_BUILD_FILE_NAME;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assume.assumeTrue;
 
@@ -29,6 +30,10 @@ import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.ExecutableFinder;
 import com.facebook.buck.io.WatchmanDiagnosticEvent;
 import com.facebook.buck.json.BuildFileParseException;
+import com.facebook.buck.json.BuildFileParseProfile;
+import com.facebook.buck.json.BuildFileTimingSpan;
+import com.facebook.buck.json.BuildFileTimings;
+import com.facebook.buck.json.ParseBuckFileEvent;
 import com.facebook.buck.json.ProjectBuildFileParser;
 import com.facebook.buck.json.ProjectBuildFileParserFactory;
 import com.facebook.buck.json.ProjectBuildFileParserOptions;
@@ -50,6 +55,7 @@ import com.facebook.buck.util.environment.Platform;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.eventbus.Subscribe;
 
 import org.hamcrest.Matchers;
@@ -89,6 +95,15 @@ public class ProjectBuildFileParserTest {
       List<Object> values,
       Optional<List<Object>> diagnostics,
       Optional<String> stdout) {
+    return fakeProcessWithBserOutput(returnCode, values, diagnostics, Optional.empty(), stdout);
+  }
+
+  private static FakeProcess fakeProcessWithBserOutput(
+      int returnCode,
+      List<Object> values,
+      Optional<List<Object>> diagnostics,
+      Optional<Map<String, Object>> timings,
+      Optional<String> stdout) {
     BserSerializer bserSerializer = new BserSerializer();
     ByteBuffer buffer = ByteBuffer.allocate(512).order(ByteOrder.nativeOrder());
     try {
@@ -97,6 +112,9 @@ public class ProjectBuildFileParserTest {
       if (diagnostics.isPresent()) {
         outputToSerialize.put("diagnostics", diagnostics.get());
       }
+      if (timings.isPresent()) {
+        outputToSerialize.put("timings", timings.get());
+      }
       buffer = bserSerializer.serializeToBuffer(outputToSerialize, buffer);
     } catch (IOException e) {
       throw new RuntimeException(e);
@@ -412,6 +430,79 @@ public class ProjectBuildFileParserTest {
     }
   }
 
+  @Test
+  public void whenSubprocessReturnsTimingsThenTheyAreRecordedAndPublished()
+      throws IOException, BuildFileParseException, InterruptedException {
+    TestProjectBuildFileParserFactory buildFileParserFactory =
+        new TestProjectBuildFileParserFactory(cell.getRoot(), cell.getKnownBuildRuleTypes());
+    BuckEventBus buckEventBus = BuckEventBusFactory.newInstance(new FakeClock(0));
+    final List<ParseBuckFileEvent.Finished> finishedEvents = new ArrayList<>();
+    class EventListener {
+      @Subscribe
+      public void on(ParseBuckFileEvent.Finished event) {
+        finishedEvents.add(event);
+      }
+    }
+    buckEventBus.register(new EventListener());
+    BuildFileParseProfile profile = new BuildFileParseProfile();
+    try (ProjectBuildFileParser buildFileParser =
+             buildFileParserFactory.createNoopParserThatAlwaysReturnsSuccessWithTimings(
+                 buckEventBus,
+                 ImmutableMap.of(
+                     "total_us", 1000L,
+                     "spans", ImmutableList.of(
+                         ImmutableMap.of(
+                             "category", "include",
+                             "name", "//DEFS",
+                             "start_us", 10L,
+                             "duration_us", 200L))))) {
+      buildFileParser.setParseProfile(profile);
+      buildFileParser.initIfNeeded();
+      buildFileParser.getAllRulesAndMetaRules(Paths.get("foo/BUCK"));
+    }
+
+    BuildFileTimings expected = BuildFileTimings.of(
+        1000,
+        ImmutableList.of(
+            BuildFileTimingSpan.of(BuildFileParseProfile.Category.INCLUDE, "//DEFS", 10, 200)));
+    assertThat(finishedEvents, Matchers.hasSize(1));
+    assertEquals(Optional.of(expected), finishedEvents.get(0).getTimings());
+    BuildFileParseProfile.BuildFileEntry entry =
+        Iterables.getOnlyElement(profile.getBuildFiles(BuildFileParseProfile.byTotalTime()));
+    assertEquals(Paths.get("foo/BUCK"), entry.getBuildFile());
+    assertEquals(200, entry.getMicros(BuildFileParseProfile.Category.INCLUDE));
+  }
+
+  @Test
+  public void whenWorkersAreForkedThenResponsesAreMatchedToRequestsById()
+      throws IOException, BuildFileParseException, InterruptedException {
+    TestProjectBuildFileParserFactory buildFileParserFactory =
+        new TestProjectBuildFileParserFactory(cell.getRoot(), cell.getKnownBuildRuleTypes());
+    ImmutableList<Map<String, Object>> firstRules = ImmutableList.of(
+        ImmutableMap.of("name", "first"),
+        ImmutableMap.of("__includes", ImmutableList.of()),
+        ImmutableMap.of("__configs", ImmutableMap.of()),
+        ImmutableMap.of("__env", ImmutableMap.of()));
+    ImmutableList<Map<String, Object>> secondRules = ImmutableList.of(
+        ImmutableMap.of("name", "second"),
+        ImmutableMap.of("__includes", ImmutableList.of()),
+        ImmutableMap.of("__configs", ImmutableMap.of()),
+        ImmutableMap.of("__env", ImmutableMap.of()));
+    // The second request completes first.
+    try (ProjectBuildFileParser buildFileParser =
+             buildFileParserFactory.createParserWithForkedWorkers(
+                 ImmutableList.of(
+                     ImmutableMap.of("id", 2L, "values", secondRules),
+                     ImmutableMap.of("id", 1L, "values", firstRules)))) {
+      assertEquals(
+          firstRules,
+          buildFileParser.getAllRulesAndMetaRules(Paths.get("first/BUCK")));
+      assertEquals(
+          secondRules,
+          buildFileParser.getAllRulesAndMetaRules(Paths.get("second/BUCK")));
+    }
+  }
+
   /**
    * ProjectBuildFileParser test double which counts the number of times rules are parsed to test
    * caching logic in Parser.
@@ -483,6 +574,22 @@ public class ProjectBuildFileParserTest {
           buckEventBus);
     }
 
+    public ProjectBuildFileParser createNoopParserThatAlwaysReturnsSuccessWithTimings(
+        BuckEventBus buckEventBus,
+        final Map<String, Object> timings) {
+      return new TestProjectBuildFileParser(
+          "fake-python",
+          new FakeProcessExecutor(
+              params -> fakeProcessWithBserOutput(
+                  0,
+                  ImmutableList.of(),
+                  Optional.empty(),
+                  Optional.of(timings),
+                  Optional.empty()),
+              new TestConsole()),
+          buckEventBus);
+    }
+
     public ProjectBuildFileParser createNoopParserThatAlwaysReturnsSuccessWithWarning(
         BuckEventBus buckEventBus,
         final String warning,
@@ -559,11 +666,42 @@ public class ProjectBuildFileParserTest {
           buckEventBus);
     }
 
+    public ProjectBuildFileParser createParserWithForkedWorkers(List<Object> responses) {
+      BserSerializer bserSerializer = new BserSerializer();
+      ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+      try {
+        for (Object response : responses) {
+          bserSerializer.serializeToStream(response, stdout);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      return new TestProjectBuildFileParser(
+          "fake-python",
+          new FakeProcessExecutor(
+              params -> new FakeProcess(
+                  0,
+                  new ByteArrayOutputStream(),
+                  new ByteArrayInputStream(stdout.toByteArray()),
+                  new ByteArrayInputStream(new byte[0])),
+              new TestConsole()),
+          BuckEventBusFactory.newInstance(),
+          /* forkedWorkers */ 2);
+    }
+
     private class TestProjectBuildFileParser extends ProjectBuildFileParser {
       public TestProjectBuildFileParser(
           String pythonInterpreter,
           ProcessExecutor processExecutor,
           BuckEventBus buckEventBus) {
+        this(pythonInterpreter, processExecutor, buckEventBus, /* forkedWorkers */ 0);
+      }
+
+      public TestProjectBuildFileParser(
+          String pythonInterpreter,
+          ProcessExecutor processExecutor,
+          BuckEventBus buckEventBus,
+          int forkedWorkers) {
         super(
             ProjectBuildFileParserOptions.builder()
                 .setProjectRoot(projectRoot)
@@ -575,6 +713,7 @@ public class ProjectBuildFileParserTest {
                 .setDescriptions(buildRuleTypes.getAllDescriptions())
                 .setEnableBuildFileSandboxing(false)
                 .setBuildFileImportWhitelist(ImmutableList.of())
+                .setForkedWorkers(forkedWorkers)
                 .build(),
             new ConstructorArgMarshaller(new DefaultTypeCoercerFactory(
                 ObjectMappers.newDefaultInstance())),
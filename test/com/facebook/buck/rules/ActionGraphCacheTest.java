@@ -18,6 +18,8 @@ package com.facebook.buck.rules;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -36,6 +38,7 @@ import com.facebook.buck.testutil.integration.TemporaryPaths;
 import com.facebook.buck.timing.IncrementingFakeClock;
 import com.facebook.buck.util.WatchmanWatcher;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.eventbus.Subscribe;
 
 import org.hamcrest.Matchers;
@@ -47,7 +50,9 @@ import org.junit.rules.ExpectedException;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.StandardWatchEventKinds;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -230,6 +235,118 @@ public class ActionGraphCacheTest {
     assertEquals(countEventsOf(ActionGraphEvent.Cache.Miss.class), 4);
   }
 
+  @Test
+  public void incrementalUpdateReusesRulesOfUnchangedTargets() {
+    ActionGraphCache cache = new ActionGraphCache(broadcastEventListener);
+    ActionGraphAndResolver resultRun1 =
+        cache.getActionGraph(eventBus, CHECK_GRAPHS, true, 1, targetGraph, 0);
+    BuildRule ruleA = resultRun1.getResolver().getRule(nodeA.getBuildTarget());
+    BuildRule ruleB = resultRun1.getResolver().getRule(nodeB.getBuildTarget());
+    Map<BuildRule, RuleKey> ruleKeysRun1 = getRuleKeysFromBuildRules(
+        resultRun1.getActionGraph().getNodes(),
+        resultRun1.getResolver());
+
+    // A's build file changed, so it has a new node, but B's did not.
+    TargetNode<?> changedNodeA = createTargetNode("A", nodeB);
+    ActionGraphAndResolver resultRun2 = cache.getActionGraph(
+        eventBus,
+        CHECK_GRAPHS,
+        true,
+        1,
+        TargetGraphFactory.newInstance(changedNodeA, nodeB),
+        0);
+    assertEquals(countEventsOf(ActionGraphEvent.Cache.Miss.class), 2);
+
+    assertSame(ruleB, resultRun2.getResolver().getRule(nodeB.getBuildTarget()));
+    assertNotSame(ruleA, resultRun2.getResolver().getRule(nodeA.getBuildTarget()));
+    assertEquals(
+        ruleKeysRun1,
+        getRuleKeysFromBuildRules(
+            resultRun2.getActionGraph().getNodes(),
+            resultRun2.getResolver()));
+  }
+
+  @Test
+  public void incrementalUpdateForwardsThePreviousResolverToTheNewOne() {
+    ActionGraphCache cache = new ActionGraphCache(broadcastEventListener);
+    ActionGraphAndResolver resultRun1 =
+        cache.getActionGraph(eventBus, CHECK_GRAPHS, true, 1, targetGraph, 0);
+
+    // B's rule is reused and still refers to the first resolver, through which the new rule of
+    // A, which depends on it, may ask it for more rules.
+    TargetNode<?> changedNodeA = createTargetNode("A", nodeB);
+    ActionGraphAndResolver resultRun2 = cache.getActionGraph(
+        eventBus,
+        CHECK_GRAPHS,
+        true,
+        1,
+        TargetGraphFactory.newInstance(changedNodeA, nodeB),
+        0);
+    BuildRuleResolver oldResolver = resultRun1.getResolver();
+    BuildRule extraRule = oldResolver.addToIndex(
+        new FakeBuildRule("//foo:extra", new SourcePathResolver(oldResolver)));
+
+    assertSame(
+        resultRun2.getResolver().getRule(nodeA.getBuildTarget()),
+        oldResolver.getRule(nodeA.getBuildTarget()));
+    assertSame(extraRule, resultRun2.getResolver().getRule(extraRule.getBuildTarget()));
+  }
+
+  @Test
+  public void incrementalUpdateRecreatesRulesDependingOnChangedTargets() {
+    ActionGraphCache cache = new ActionGraphCache(broadcastEventListener);
+    ActionGraphAndResolver resultRun1 =
+        cache.getActionGraph(eventBus, CHECK_GRAPHS, true, 1, targetGraph, 0);
+
+    // A's node is the same, but one of its deps changed.
+    TargetNode<?> changedNodeB = createTargetNode("B");
+    ActionGraphAndResolver resultRun2 = cache.getActionGraph(
+        eventBus,
+        CHECK_GRAPHS,
+        true,
+        1,
+        TargetGraphFactory.newInstance(nodeA, changedNodeB),
+        0);
+
+    assertNotSame(
+        resultRun1.getResolver().getRule(nodeA.getBuildTarget()),
+        resultRun2.getResolver().getRule(nodeA.getBuildTarget()));
+    assertNotSame(
+        resultRun1.getResolver().getRule(nodeB.getBuildTarget()),
+        resultRun2.getResolver().getRule(nodeB.getBuildTarget()));
+  }
+
+  @Test
+  public void parallelConstructionCreatesTheSameRules() {
+    // A wider graph, so that some rules can be created at the same time.
+    List<TargetNode<?>> nodes = new ArrayList<>();
+    List<TargetNode<?>> leaves = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      TargetNode<?> leaf = createTargetNode("leaf" + i);
+      leaves.add(leaf);
+      nodes.add(leaf);
+    }
+    nodes.add(createTargetNode("top", leaves.toArray(new TargetNode<?>[leaves.size()])));
+    TargetGraph wideTargetGraph = TargetGraphFactory.newInstance(nodes);
+
+    ActionGraphCache cache = new ActionGraphCache(broadcastEventListener);
+    ActionGraphAndResolver parallelResult =
+        cache.getActionGraph(eventBus, CHECK_GRAPHS, false, 8, wideTargetGraph, 0);
+    ActionGraphAndResolver serialResult =
+        ActionGraphCache.getFreshActionGraph(eventBus, wideTargetGraph);
+
+    assertEquals(
+        Iterables.size(serialResult.getActionGraph().getNodes()),
+        Iterables.size(parallelResult.getActionGraph().getNodes()));
+    assertEquals(
+        getRuleKeysFromBuildRules(
+            serialResult.getActionGraph().getNodes(),
+            serialResult.getResolver()),
+        getRuleKeysFromBuildRules(
+            parallelResult.getActionGraph().getNodes(),
+            parallelResult.getResolver()));
+  }
+
   private TargetNode<?> createTargetNode(String name, TargetNode<?>... deps) {
     BuildTarget buildTarget = BuildTargetFactory.newInstance("//foo:" + name);
     JavaLibraryBuilder targetNodeBuilder = JavaLibraryBuilder.createBuilder(buildTarget);
@@ -21,6 +21,7 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 import com.facebook.buck.jvm.java.JavaBinary;
@@ -147,4 +148,40 @@ public class BuildRuleResolverTest {
     resolver.getRuleWithType(BuildTargetFactory.newInstance("//foo:bar"), JavaBinary.class);
   }
 
+  @Test
+  public void computeIfAbsentCreatesRuleOnlyOnce() throws Exception {
+    BuildRuleResolver resolver =
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer());
+    SourcePathResolver pathResolver = new SourcePathResolver(resolver);
+    BuildTarget target = BuildTargetFactory.newInstance("//foo:bar");
+
+    FakeBuildRule created = resolver.computeIfAbsent(
+        target,
+        FakeBuildRule.class,
+        ruleTarget -> new FakeBuildRule(ruleTarget, pathResolver));
+    FakeBuildRule existing = resolver.computeIfAbsent(
+        target,
+        FakeBuildRule.class,
+        ruleTarget -> {
+          throw new AssertionError("Rule should not be created twice.");
+        });
+
+    assertSame(created, existing);
+    assertSame(created, resolver.getRule(target));
+  }
+
+  @Test
+  public void computeIfAbsentRejectsRuleForOtherTarget() throws Exception {
+    BuildRuleResolver resolver =
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer());
+    SourcePathResolver pathResolver = new SourcePathResolver(resolver);
+    BuildTarget other = BuildTargetFactory.newInstance("//foo:other");
+
+    expectedException.expect(IllegalStateException.class);
+    resolver.computeIfAbsent(
+        BuildTargetFactory.newInstance("//foo:bar"),
+        FakeBuildRule.class,
+        ruleTarget -> new FakeBuildRule(other, pathResolver));
+  }
+
 }
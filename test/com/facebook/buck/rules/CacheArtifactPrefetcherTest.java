@@ -0,0 +1,198 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.artifact_cache.InMemoryArtifactCache;
+import com.facebook.buck.io.LazyPath;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.facebook.buck.util.concurrent.ExplicitRunExecutorService;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+public class CacheArtifactPrefetcherTest {
+
+  private static final RuleKey RULE_KEY_1 = new RuleKey("aaaa");
+  private static final RuleKey RULE_KEY_2 = new RuleKey("bbbb");
+  private static final RuleKey RULE_KEY_3 = new RuleKey("cccc");
+  private static final byte[] DATA = "data".getBytes(StandardCharsets.UTF_8);
+
+  @Rule
+  public TemporaryPaths tmp = new TemporaryPaths();
+
+  private InMemoryArtifactCache artifactCache;
+  private ExplicitRunExecutorService service;
+
+  @Before
+  public void setUp() {
+    artifactCache = new InMemoryArtifactCache();
+    artifactCache.store(ArtifactInfo.builder().addRuleKeys(RULE_KEY_1).build(), DATA);
+    artifactCache.store(ArtifactInfo.builder().addRuleKeys(RULE_KEY_2).build(), DATA);
+    artifactCache.store(ArtifactInfo.builder().addRuleKeys(RULE_KEY_3).build(), DATA);
+    service = new ExplicitRunExecutorService();
+  }
+
+  @Test
+  public void prefetchedArtifactIsStagedUntilClaimed() throws IOException {
+    CacheArtifactPrefetcher prefetcher =
+        new CacheArtifactPrefetcher(service, CachePrefetchInfo.of(1, Optional.empty()));
+    Path output = tmp.getRoot().resolve("artifact.zip");
+
+    prefetcher.prefetch(RULE_KEY_1, LazyPath.ofInstance(output), artifactCache, 0);
+    service.run();
+
+    Optional<CacheArtifactPrefetcher.StagedArtifact> staged = prefetcher.claim(RULE_KEY_1);
+    assertTrue(staged.isPresent());
+    assertEquals(
+        CacheResultType.HIT,
+        Futures.getUnchecked(staged.get().getResult()).getType());
+    assertArrayEquals(DATA, Files.readAllBytes(output));
+    assertFalse(prefetcher.claim(RULE_KEY_1).isPresent());
+  }
+
+  @Test
+  public void rateLimitedDownloadsStillReachTheOutputsWriters() throws IOException {
+    ByteArrayOutputStream seenByOutput = new ByteArrayOutputStream();
+    Path output = tmp.getRoot().resolve("artifact.zip");
+    LazyPath lazyOutput = new LazyPath() {
+      @Override
+      protected Path create() {
+        return output;
+      }
+
+      @Override
+      public OutputStream wrapOutputStream(OutputStream sink) {
+        return new FilterOutputStream(sink) {
+          @Override
+          public void write(int b) throws IOException {
+            seenByOutput.write(b);
+            out.write(b);
+          }
+        };
+      }
+    };
+    InMemoryArtifactCache streamingCache = new InMemoryArtifactCache() {
+      @Override
+      public CacheResult fetch(RuleKey ruleKey, LazyPath output) {
+        try (OutputStream out = output.wrapOutputStream(Files.newOutputStream(output.get()))) {
+          out.write(DATA);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        return CacheResult.hit("streaming");
+      }
+    };
+    CacheArtifactPrefetcher prefetcher =
+        new CacheArtifactPrefetcher(service, CachePrefetchInfo.of(1, Optional.of(1024L * 1024)));
+
+    prefetcher.prefetch(RULE_KEY_1, lazyOutput, streamingCache, 0);
+    service.run();
+
+    Optional<CacheArtifactPrefetcher.StagedArtifact> staged = prefetcher.claim(RULE_KEY_1);
+    assertTrue(staged.isPresent());
+    assertEquals(output, staged.get().getOutput().getUnchecked());
+    assertArrayEquals(DATA, Files.readAllBytes(output));
+    assertArrayEquals(DATA, seenByOutput.toByteArray());
+  }
+
+  @Test
+  public void claimingAQueuedArtifactCancelsItsDownload() {
+    CacheArtifactPrefetcher prefetcher =
+        new CacheArtifactPrefetcher(service, CachePrefetchInfo.of(1, Optional.empty()));
+    Path output1 = tmp.getRoot().resolve("artifact1.zip");
+    Path output2 = tmp.getRoot().resolve("artifact2.zip");
+
+    prefetcher.prefetch(RULE_KEY_1, LazyPath.ofInstance(output1), artifactCache, 0);
+    prefetcher.prefetch(RULE_KEY_2, LazyPath.ofInstance(output2), artifactCache, 0);
+    assertFalse(prefetcher.claim(RULE_KEY_2).isPresent());
+    service.run();
+
+    assertTrue(Files.exists(output1));
+    assertFalse(Files.exists(output2));
+  }
+
+  @Test
+  public void artifactsClosestToTheTopLevelRulesAreDownloadedFirst() {
+    List<RuleKey> fetched = new ArrayList<>();
+    InMemoryArtifactCache recordingCache = new InMemoryArtifactCache() {
+      @Override
+      public CacheResult fetch(RuleKey ruleKey, LazyPath output) {
+        fetched.add(ruleKey);
+        return artifactCache.fetch(ruleKey, output);
+      }
+    };
+    CacheArtifactPrefetcher prefetcher =
+        new CacheArtifactPrefetcher(service, CachePrefetchInfo.of(1, Optional.empty()));
+
+    prefetcher.prefetch(
+        RULE_KEY_1,
+        LazyPath.ofInstance(tmp.getRoot().resolve("artifact1.zip")),
+        recordingCache,
+        2);
+    prefetcher.prefetch(
+        RULE_KEY_2,
+        LazyPath.ofInstance(tmp.getRoot().resolve("artifact2.zip")),
+        recordingCache,
+        3);
+    prefetcher.prefetch(
+        RULE_KEY_3,
+        LazyPath.ofInstance(tmp.getRoot().resolve("artifact3.zip")),
+        recordingCache,
+        1);
+    service.run();
+
+    // The first download started before the others were queued.
+    assertEquals(ImmutableList.of(RULE_KEY_1, RULE_KEY_3, RULE_KEY_2), fetched);
+  }
+
+  @Test
+  public void unclaimedArtifactsAreDiscarded() {
+    CacheArtifactPrefetcher prefetcher =
+        new CacheArtifactPrefetcher(service, CachePrefetchInfo.of(2, Optional.empty()));
+    Path output = tmp.getRoot().resolve("artifact.zip");
+
+    prefetcher.prefetch(RULE_KEY_1, LazyPath.ofInstance(output), artifactCache, 0);
+    service.run();
+    assertTrue(Files.exists(output));
+
+    prefetcher.discardStagedArtifacts();
+    assertFalse(Files.exists(output));
+    assertEquals(0, prefetcher.getStagedArtifactCount());
+  }
+}
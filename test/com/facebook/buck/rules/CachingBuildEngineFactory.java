@@ -49,6 +49,8 @@ public class CachingBuildEngineFactory {
   private BuildRuleResolver buildRuleResolver;
   private ResourceAwareSchedulingInfo resourceAwareSchedulingInfo =
       ResourceAwareSchedulingInfo.NON_AWARE_SCHEDULING_INFO;
+  private CacheFetchBatchingInfo cacheFetchBatchingInfo = CacheFetchBatchingInfo.NO_BATCHING;
+  private CachePrefetchInfo cachePrefetchInfo = CachePrefetchInfo.DISABLED;
 
   public CachingBuildEngineFactory(BuildRuleResolver buildRuleResolver) {
     this.cachingBuildEngineDelegate =
@@ -105,6 +107,17 @@ public class CachingBuildEngineFactory {
     return this;
   }
 
+  public CachingBuildEngineFactory setCacheFetchBatchingInfo(
+      CacheFetchBatchingInfo cacheFetchBatchingInfo) {
+    this.cacheFetchBatchingInfo = cacheFetchBatchingInfo;
+    return this;
+  }
+
+  public CachingBuildEngineFactory setCachePrefetchInfo(CachePrefetchInfo cachePrefetchInfo) {
+    this.cachePrefetchInfo = cachePrefetchInfo;
+    return this;
+  }
+
   public CachingBuildEngine build() {
     if (ruleKeyFactoriesFunction.isPresent()) {
       return new CachingBuildEngine(
@@ -117,7 +130,9 @@ public class CachingBuildEngineFactory {
           artifactCacheSizeLimit,
           new SourcePathResolver(buildRuleResolver),
           ruleKeyFactoriesFunction.get(),
-          resourceAwareSchedulingInfo);
+          resourceAwareSchedulingInfo,
+          cacheFetchBatchingInfo,
+          cachePrefetchInfo);
     }
 
     return new CachingBuildEngine(
@@ -132,7 +147,9 @@ public class CachingBuildEngineFactory {
         objectMapper,
         buildRuleResolver,
         0,
-        resourceAwareSchedulingInfo);
+        resourceAwareSchedulingInfo,
+        cacheFetchBatchingInfo,
+        cachePrefetchInfo);
   }
 
   private static WeightedListeningExecutorService toWeighted(ListeningExecutorService service) {
@@ -452,6 +452,50 @@ public class CachingBuildEngineTest {
           filesystem.exists(Paths.get("buck-out/gen/src/com/facebook/orca/orca.jar")));
     }
 
+    @Test
+    public void testPrefetchedArtifactIsUnzippedWhenRuleIsScheduled()
+        throws InterruptedException, ExecutionException, IOException {
+      BuildRule buildRule = createRule(
+          filesystem,
+          pathResolver,
+          /* deps */ ImmutableSet.of(),
+          /* buildSteps */ ImmutableList.of(),
+          /* postBuildSteps */ ImmutableList.of(),
+          /* pathToOutputFile */ null);
+
+      // The artifact must only be downloaded once, by the prefetcher.
+      ArtifactCache artifactCache = createMock(ArtifactCache.class);
+      expect(
+          artifactCache.fetch(
+              eq(ruleKeyBuilderFactory.build(buildRule)),
+              isA(LazyPath.class)))
+          .andDelegateTo(
+              new FakeArtifactCacheThatWritesAZipFile(
+                  ImmutableMap.of(
+                      Paths.get("buck-out/gen/src/com/facebook/orca/orca.jar"),
+                      "Imagine this is the contents of a valid JAR file.")))
+          .once();
+
+      BuildEngineBuildContext buildContext = this.buildContext.withArtifactCache(artifactCache);
+      filesystem.writeContentsToPath(
+          MAPPER.writeValueAsString(ImmutableList.of()),
+          BuildInfo.getPathToMetadataDirectory(buildRule.getBuildTarget(), filesystem)
+              .resolve(BuildInfo.METADATA_KEY_FOR_RECORDED_PATHS));
+
+      replayAll();
+
+      CachingBuildEngine cachingBuildEngine = cachingBuildEngineFactory()
+          .setCachePrefetchInfo(CachePrefetchInfo.of(1, Optional.empty()))
+          .build();
+      BuildResult result =
+          cachingBuildEngine.build(buildContext, TestExecutionContext.newInstance(), buildRule)
+              .get();
+
+      verifyAll();
+      assertEquals(BuildRuleSuccessType.FETCHED_FROM_CACHE, result.getSuccess());
+      assertTrue(filesystem.exists(Paths.get("buck-out/gen/src/com/facebook/orca/orca.jar")));
+    }
+
     @Test
     public void testArtifactFetchedFromCacheStillRunsPostBuildSteps()
         throws InterruptedException, ExecutionException, IOException {
@@ -3095,6 +3139,21 @@ public class CachingBuildEngineTest {
       return CacheResult.hit("dir");
     }
 
+    @Override
+    public ImmutableMap<RuleKey, CacheResult> multiFetch(
+        ImmutableMap<RuleKey, LazyPath> requests) {
+      ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+      for (Map.Entry<RuleKey, LazyPath> request : requests.entrySet()) {
+        results.put(request.getKey(), fetch(request.getKey(), request.getValue()));
+      }
+      return results.build();
+    }
+
+    @Override
+    public ImmutableMap<RuleKey, CacheResult> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+      throw new UnsupportedOperationException();
+    }
+
     @Override
     public ListenableFuture<Void> store(
         ArtifactInfo info,
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
+import com.facebook.buck.rules.coercer.TypeCoercerFactory;
+import com.facebook.buck.util.MoreCollectors;
+import com.facebook.buck.util.ObjectMappers;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+
+import org.junit.Test;
+
+import java.util.Optional;
+
+public class CoercedTypeCacheTest {
+
+  private final TypeCoercerFactory typeCoercerFactory =
+      new DefaultTypeCoercerFactory(ObjectMappers.newDefaultInstance());
+  private final CoercedTypeCache coercedTypes = new CoercedTypeCache(typeCoercerFactory);
+
+  public static class Arg {
+    public static final String CONSTANT = "constant";
+    public final String finalField = "final";
+    public ImmutableSortedSet<BuildTarget> deps;
+    public Optional<String> name;
+    public Optional<ImmutableList<SourcePath>> srcs;
+  }
+
+  public static class OtherArg {
+    public Optional<String> name;
+  }
+
+  @Test
+  public void paramInfoIsComputedOncePerClass() {
+    ImmutableCollection<ParamInfo> allInfo = coercedTypes.getAllParamInfo(Arg.class);
+
+    assertEquals(
+        ImmutableSet.of("CONSTANT", "finalField", "deps", "name", "srcs"),
+        names(allInfo));
+    assertSame(allInfo, coercedTypes.getAllParamInfo(Arg.class));
+  }
+
+  @Test
+  public void onlyFieldsWhichAreNotFinalAreSettable() {
+    assertEquals(
+        ImmutableSet.of("deps", "name", "srcs"),
+        names(coercedTypes.getSettableParamInfo(Arg.class)));
+  }
+
+  @Test
+  public void paramInfoIsLookedUpByFieldName() {
+    assertEquals("finalField", coercedTypes.getParamInfo(Arg.class, "finalField").getName());
+    assertSame(
+        coercedTypes.getParamInfo(OtherArg.class, "name"),
+        coercedTypes.getParamInfo(OtherArg.class, "name"));
+    assertNull(coercedTypes.getParamInfo(OtherArg.class, "deps"));
+  }
+
+  @Test
+  public void typeCoercersAreSharedBetweenFieldsOfTheSameType() throws NoSuchFieldException {
+    assertSame(
+        typeCoercerFactory.typeCoercerForType(Arg.class.getField("name").getGenericType()),
+        typeCoercerFactory.typeCoercerForType(OtherArg.class.getField("name").getGenericType()));
+  }
+
+  @Test
+  public void setFieldsAreTraversed() {
+    ParamInfo info = coercedTypes.getParamInfo(OtherArg.class, "name");
+    OtherArg arg = new OtherArg();
+    arg.name = Optional.of("foo");
+    ImmutableList.Builder<Object> values = ImmutableList.builder();
+    info.traverse(values::add, arg);
+    assertEquals(ImmutableList.of("foo"), values.build());
+  }
+
+  private static ImmutableSet<String> names(ImmutableCollection<ParamInfo> allInfo) {
+    return allInfo.stream().map(ParamInfo::getName).collect(MoreCollectors.toImmutableSet());
+  }
+}
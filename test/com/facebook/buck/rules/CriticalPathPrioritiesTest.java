@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.TargetGraphFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CriticalPathPrioritiesTest {
+
+  private SourcePathResolver pathResolver;
+
+  @Before
+  public void setUp() {
+    pathResolver = new SourcePathResolver(
+        new BuildRuleResolver(
+            TargetGraphFactory.newInstance(),
+            new DefaultTargetNodeToBuildRuleTransformer()));
+  }
+
+  @Test
+  public void priorityIsTheLongestPathToATopLevelRule() {
+    //      top (1)
+    //     /       \
+    //  fast (2)  slow (10)
+    //     \       /
+    //      leaf (3)
+    BuildRule leaf = new FakeBuildRule("//:leaf", pathResolver);
+    BuildRule fast = new FakeBuildRule("//:fast", pathResolver, leaf);
+    BuildRule slow = new FakeBuildRule("//:slow", pathResolver, leaf);
+    BuildRule top = new FakeBuildRule("//:top", pathResolver, fast, slow);
+    ImmutableMap<BuildRule, Long> durations = ImmutableMap.of(
+        top, 1L,
+        fast, 2L,
+        slow, 10L,
+        leaf, 3L);
+
+    CriticalPathPriorities priorities = new CriticalPathPriorities(durations::get);
+    assertFalse(priorities.hasPriority(top));
+    priorities.compute(ImmutableList.of(top));
+
+    assertTrue(priorities.hasPriority(leaf));
+    assertEquals(1, priorities.getPriority(top));
+    assertEquals(3, priorities.getPriority(fast));
+    assertEquals(11, priorities.getPriority(slow));
+    assertEquals(14, priorities.getPriority(leaf));
+  }
+
+  @Test
+  public void distanceFromTopIsTheShortestPathToATopLevelRule() {
+    //   top
+    //   /  \
+    //  mid  |
+    //   \  /
+    //   leaf
+    BuildRule leaf = new FakeBuildRule("//:leaf", pathResolver);
+    BuildRule mid = new FakeBuildRule("//:mid", pathResolver, leaf);
+    BuildRule top = new FakeBuildRule("//:top", pathResolver, mid, leaf);
+    BuildRule other = new FakeBuildRule("//:other", pathResolver);
+
+    CriticalPathPriorities priorities = new CriticalPathPriorities(rule -> 1L);
+    priorities.compute(ImmutableList.of(top));
+
+    assertEquals(0, priorities.getDistanceFromTop(top));
+    assertEquals(1, priorities.getDistanceFromTop(mid));
+    assertEquals(1, priorities.getDistanceFromTop(leaf));
+    assertEquals(Integer.MAX_VALUE, priorities.getDistanceFromTop(other));
+  }
+
+  @Test
+  public void sharedDepsKeepTheirHighestPriorityAcrossComputations() {
+    BuildRule shared = new FakeBuildRule("//:shared", pathResolver);
+    BuildRule small = new FakeBuildRule("//:small", pathResolver, shared);
+    BuildRule large = new FakeBuildRule("//:large", pathResolver, shared);
+    ImmutableMap<BuildRule, Long> durations = ImmutableMap.of(
+        shared, 1L,
+        small, 1L,
+        large, 100L);
+
+    CriticalPathPriorities priorities = new CriticalPathPriorities(durations::get);
+    priorities.compute(ImmutableList.of(large));
+    priorities.compute(ImmutableList.of(small));
+
+    assertEquals(101, priorities.getPriority(shared));
+    assertEquals(1, priorities.getPriority(small));
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class PooledSha1HasherTest {
+
+  private static Hasher feed(Hasher hasher) {
+    return hasher
+        .putByte((byte) 0x80)
+        .putBytes(new byte[] {1, 2, 3})
+        .putBytes(new byte[] {4, 5, 6, 7}, 1, 2)
+        .putShort((short) -2)
+        .putInt(0x01020304)
+        .putLong(-0x0102030405060708L)
+        .putFloat(1.5f)
+        .putDouble(-2.25)
+        .putBoolean(true)
+        .putChar('\u4e2d')
+        .putUnencodedChars("ab\u00e9")
+        .putString("\u00e9\u4e2d", StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void hashesAsGuavasSha1Hasher() {
+    assertEquals(feed(Hashing.sha1().newHasher()).hash(), feed(new PooledSha1Hasher()).hash());
+  }
+
+  @Test
+  public void digestsAreResetBeforeTheyAreReused() {
+    Hasher outer = new PooledSha1Hasher().putInt(1);
+    assertEquals(
+        Hashing.sha1().newHasher().putInt(2).hash(),
+        new PooledSha1Hasher().putInt(2).hash());
+    assertEquals(
+        Hashing.sha1().newHasher().putInt(3).hash(),
+        new PooledSha1Hasher().putInt(3).hash());
+    assertEquals(Hashing.sha1().newHasher().putInt(1).putInt(4).hash(), outer.putInt(4).hash());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void cannotBeUsedAfterHashing() {
+    Hasher hasher = new PooledSha1Hasher();
+    hasher.hash();
+    hasher.putInt(1);
+  }
+}
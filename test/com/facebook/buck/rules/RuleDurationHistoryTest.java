@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.testutil.TargetGraphFactory;
+import com.facebook.buck.util.ObjectMappers;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RuleDurationHistoryTest {
+
+  private SourcePathResolver pathResolver;
+
+  @Before
+  public void setUp() {
+    pathResolver = new SourcePathResolver(
+        new BuildRuleResolver(
+            TargetGraphFactory.newInstance(),
+            new DefaultTargetNodeToBuildRuleTransformer()));
+  }
+
+  @Test
+  public void unknownRulesWithMoreDepsAreExpectedToTakeLonger() {
+    BuildRule dep = new FakeBuildRule("//:dep", pathResolver);
+    BuildRule leaf = new FakeBuildRule("//:leaf", pathResolver);
+    BuildRule rule = new FakeBuildRule("//:rule", pathResolver, dep, leaf);
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    RuleDurationHistory history =
+        RuleDurationHistory.load(filesystem, ObjectMappers.newDefaultInstance());
+
+    assertTrue(
+        history.getEstimatedDurationMillis(rule) > history.getEstimatedDurationMillis(leaf));
+  }
+
+  @Test
+  public void recordedDurationsSurviveSavingAndApplyToRulesOfTheSameType() {
+    BuildRule built = new FakeBuildRule("//:built", pathResolver);
+    BuildRule other = new FakeBuildRule("//:other", pathResolver);
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    ObjectMapper objectMapper = ObjectMappers.newDefaultInstance();
+
+    RuleDurationHistory history = RuleDurationHistory.load(filesystem, objectMapper);
+    history.recordDuration(built, 4200);
+    history.save(filesystem, objectMapper);
+
+    RuleDurationHistory loaded = RuleDurationHistory.load(filesystem, objectMapper);
+    assertEquals(4200, loaded.getEstimatedDurationMillis(built));
+    assertEquals(4200, loaded.getEstimatedDurationMillis(other));
+
+    loaded.recordDuration(built, 200);
+    assertEquals(200, loaded.getEstimatedDurationMillis(built));
+    assertTrue(loaded.getEstimatedDurationMillis(other) < 4200);
+    assertTrue(loaded.getEstimatedDurationMillis(other) > 200);
+  }
+
+  @Test
+  public void unreadableHistoryIsIgnored() throws Exception {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    filesystem.writeContentsToPath(
+        "not json",
+        filesystem.getBuckPaths().getBuckOut().resolve(RuleDurationHistory.STORAGE_FILE_NAME));
+    BuildRule rule = new FakeBuildRule("//:rule", pathResolver);
+
+    RuleDurationHistory history =
+        RuleDurationHistory.load(filesystem, ObjectMappers.newDefaultInstance());
+    history.recordDuration(rule, 10);
+    assertEquals(10, history.getEstimatedDurationMillis(rule));
+  }
+}
@@ -37,6 +37,7 @@ import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.cache.DefaultFileHashCache;
 import com.facebook.buck.util.cache.FileHashCache;
 import com.facebook.buck.util.cache.NullFileHashCache;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
@@ -44,8 +45,14 @@ import com.google.common.hash.HashCode;
 
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
 
 public class RuleKeyTest {
 
@@ -811,6 +818,90 @@ public class RuleKeyTest {
         ruleKeyBuilderFactory.newInstance(ruleWithBothDeps).build());
   }
 
+  @Test
+  public void stringsAreHashedByTheirFullContents() {
+    SourcePathResolver resolver = new SourcePathResolver(
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer())
+    );
+    String longPrefix = Strings.repeat("\u00e9\u4e2d", 1000);
+    ImmutableList<String> values = ImmutableList.of(
+        "",
+        "ascii",
+        "\u00e9",
+        "\u4e2d",
+        "\ud83d\ude00",
+        "\ud83d\ude01",
+        longPrefix + "a",
+        longPrefix + "b");
+
+    Set<RuleKey> ruleKeys = new HashSet<>();
+    for (String value : values) {
+      RuleKey ruleKey = createEmptyRuleKey(resolver).setReflectively("key", value).build();
+      assertEquals(
+          ruleKey,
+          createEmptyRuleKey(resolver).setReflectively("key", value).build());
+      ruleKeys.add(ruleKey);
+    }
+    assertEquals(values.size(), ruleKeys.size());
+  }
+
+  @Test
+  public void stringsAreHashedAsTheirUtf8Encoding() {
+    SourcePathResolver resolver = new SourcePathResolver(
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer())
+    );
+    // RuleKeyBuilder encodes strings itself, while byte arrays go to the hasher as they are, so
+    // the two only agree if its encoder agrees with the JDK's.
+    List<String> values = new ArrayList<>();
+    values.add("");
+    values.add("ascii");
+    values.add("\u00e9\u4e2d\ud83d\ude00");
+    // Unpaired surrogates, which both replace with '?'.
+    values.add("\ud83d");
+    values.add("a\ude00b");
+    // A four byte character right where the encoding buffer is flushed.
+    for (int padding = 1016; padding < 1024; padding++) {
+      values.add(Strings.repeat("a", padding) + "\ud83d\ude00");
+    }
+    Random random = new Random(0);
+    for (int i = 0; i < 200; i++) {
+      values.add(randomString(random, random.nextInt(3000)));
+    }
+
+    for (String value : values) {
+      assertEquals(
+          value,
+          createEmptyRuleKey(resolver).setReflectively("key", value).build(),
+          createEmptyRuleKey(resolver)
+              .setReflectively("key", value.getBytes(StandardCharsets.UTF_8))
+              .build());
+    }
+  }
+
+  private static String randomString(Random random, int length) {
+    StringBuilder builder = new StringBuilder(length);
+    while (builder.length() < length) {
+      switch (random.nextInt(5)) {
+        case 0:
+          builder.append((char) random.nextInt(0x80));
+          break;
+        case 1:
+          builder.append((char) (0x80 + random.nextInt(0x800 - 0x80)));
+          break;
+        case 2:
+          builder.append((char) (0xe000 + random.nextInt(0x10000 - 0xe000)));
+          break;
+        case 3:
+          builder.appendCodePoint(0x10000 + random.nextInt(0x10ffff - 0x10000));
+          break;
+        default:
+          builder.append((char) (Character.MIN_SURROGATE + random.nextInt(0x800)));
+          break;
+      }
+    }
+    return builder.toString();
+  }
+
   private static class TestRuleKeyAppendable implements RuleKeyAppendable {
     private final String value;
 
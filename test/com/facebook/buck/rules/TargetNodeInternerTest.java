@@ -0,0 +1,76 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TargetNodeInternerTest {
+
+  @Test
+  public void equalTargetsAreSharedAndCounted() {
+    TargetNodeInterner interner = new TargetNodeInterner();
+    BuildTarget first = BuildTargetFactory.newInstance("//foo:bar");
+    BuildTarget second = BuildTargetFactory.newInstance("//foo:bar");
+    assertNotSame(first, second);
+
+    assertSame(first, interner.intern(first));
+    ImmutableSet<BuildTarget> interned = interner.internTargets(ImmutableSet.of(second));
+    assertSame(first, Iterables.getOnlyElement(interned));
+    assertEquals(2, interner.getLookupCount());
+    assertEquals(1, interner.getDuplicateCount());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void rawNodesKeepTheirContentsAndOrderWithStringsShared() {
+    TargetNodeInterner interner = new TargetNodeInterner();
+    String type = interner.intern("java_library");
+
+    Map<String, Object> rawNode = new LinkedHashMap<>();
+    rawNode.put("name", "lib");
+    rawNode.put("buck.type", new String(type));
+    rawNode.put("deps", new ArrayList<>(Arrays.asList(":a", ":b")));
+    rawNode.put("source", null);
+    Map<String, Object> interned = interner.internRawNode(rawNode);
+
+    assertEquals(rawNode, interned);
+    assertEquals(
+        ImmutableList.copyOf(rawNode.keySet()),
+        ImmutableList.copyOf(interned.keySet()));
+    assertSame(type, interned.get("buck.type"));
+    assertEquals(ImmutableList.of(":a", ":b"), interned.get("deps"));
+    assertSame(interner.intern(":a"), ((List<Object>) interned.get("deps")).get(0));
+    assertNull(interned.get("source"));
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class UnzippingLazyPathTest {
+
+  @Rule
+  public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private byte[] zip;
+
+  @Before
+  public void setUp() throws IOException {
+    ProjectFilesystem source = new ProjectFilesystem(tmp.newFolder("source"));
+    source.mkdirs(Paths.get("out"));
+    source.writeContentsToPath("fresh", Paths.get("out/fresh.txt"));
+    Path zipFile = tmp.getRoot().resolve("artifact.zip");
+    source.createZip(ImmutableList.of(Paths.get("out"), Paths.get("out/fresh.txt")), zipFile);
+    zip = Files.readAllBytes(zipFile);
+
+    filesystem = new ProjectFilesystem(tmp.newFolder("project"));
+    filesystem.mkdirs(Paths.get("out"));
+    filesystem.writeContentsToPath("stale", Paths.get("out/stale.txt"));
+  }
+
+  @Test
+  public void unpackedFilesOnlyReplaceOutputsOnceMovedIntoPlace() throws IOException {
+    UnzippingLazyPath lazyPath = new UnzippingLazyPath("artifact", filesystem);
+    write(lazyPath);
+
+    assertTrue(lazyPath.isUnzipped());
+    assertTrue(filesystem.exists(Paths.get("out/stale.txt")));
+    assertFalse(filesystem.exists(Paths.get("out/fresh.txt")));
+
+    assertTrue(lazyPath.moveUnzippedFilesIntoPlace());
+    assertFalse(filesystem.exists(Paths.get("out/stale.txt")));
+    assertEquals("fresh", filesystem.readFileIfItExists(Paths.get("out/fresh.txt")).get());
+    assertEquals(0, listTmpDir().length);
+  }
+
+  @Test
+  public void discardedArtifactsLeaveOutputsAlone() throws IOException {
+    UnzippingLazyPath lazyPath = new UnzippingLazyPath("artifact", filesystem);
+    write(lazyPath);
+
+    lazyPath.deleteStagingDirectory();
+
+    assertTrue(filesystem.exists(Paths.get("out/stale.txt")));
+    assertFalse(filesystem.exists(Paths.get("out/fresh.txt")));
+    assertEquals(0, listTmpDir().length);
+  }
+
+  private void write(UnzippingLazyPath lazyPath) throws IOException {
+    try (OutputStream out =
+             lazyPath.wrapOutputStream(Files.newOutputStream(lazyPath.get()))) {
+      out.write(zip);
+    }
+  }
+
+  private String[] listTmpDir() {
+    return filesystem.resolve(filesystem.getBuckPaths().getTmpDir()).toFile().list();
+  }
+}
@@ -15,6 +15,8 @@
  */
 package com.facebook.buck.shell;
 
+import com.google.common.collect.ImmutableSet;
+
 import java.io.IOException;
 import java.nio.file.Path;
 
@@ -26,7 +28,9 @@ public class FakeWorkerProcessProtocol implements WorkerProcessProtocol {
   public void sendHandshake(int handshakeID) throws IOException {}
 
   @Override
-  public void receiveHandshake(int handshakeID) throws IOException {}
+  public ImmutableSet<String> receiveHandshake(int handshakeID) throws IOException {
+    return ImmutableSet.of();
+  }
 
   @Override
   public void sendCommand(int messageID, Path argsPath, Path stdoutPath, Path stderrPath)
@@ -37,6 +41,14 @@ public class FakeWorkerProcessProtocol implements WorkerProcessProtocol {
     return 0;
   }
 
+  @Override
+  public void sendCancel(int messageID) throws IOException {}
+
+  @Override
+  public WorkerCommandResponse receiveNextCommandResponse() throws IOException {
+    return WorkerCommandResponse.of(0, 0);
+  }
+
   @Override
   public void close() throws IOException {
     isClosed = true;
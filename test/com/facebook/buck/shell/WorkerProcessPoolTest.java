@@ -18,6 +18,7 @@ package com.facebook.buck.shell;
 
 import static org.junit.Assert.assertThat;
 
+import com.facebook.buck.timing.SettableFakeClock;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.Hashing;
 
@@ -28,6 +29,7 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -132,6 +134,113 @@ public class WorkerProcessPoolTest {
 
   }
 
+  @Test
+  public void testSendsJobsToMultiplexedWorkerProcessesUntilTheyAreFull() throws Exception {
+    final Set<WorkerProcess> createdWorkers = concurrentSet();
+    WorkerProcessPool pool = new WorkerProcessPool(2, Hashing.sha1().hashLong(0)) {
+      @Override
+      protected WorkerProcess startWorkerProcess() throws IOException {
+        WorkerProcess workerProcess = new FakeWorkerProcess(ImmutableMap.of()) {
+          @Override
+          public int getMaxJobs() {
+            return 2;
+          }
+        };
+        createdWorkers.add(workerProcess);
+        return workerProcess;
+      }
+    };
+
+    WorkerProcess first = pool.borrowWorkerProcess();
+    assertThat(pool.borrowWorkerProcess(), Matchers.sameInstance(first));
+    WorkerProcess second = pool.borrowWorkerProcess();
+    assertThat(second, Matchers.not(Matchers.sameInstance(first)));
+
+    pool.returnWorkerProcess(first);
+    assertThat(pool.borrowWorkerProcess(), Matchers.sameInstance(second));
+    assertThat(pool.borrowWorkerProcess(), Matchers.sameInstance(first));
+    assertThat(createdWorkers.size(), Matchers.is(2));
+  }
+
+  @Test
+  public void testClosesBusyProcessesWhenTheyAreReturnedAfterThePoolIsClosed() throws Exception {
+    final Set<WorkerProcess> closedWorkers = concurrentSet();
+    WorkerProcessPool pool = new WorkerProcessPool(2, Hashing.sha1().hashLong(0)) {
+      @Override
+      protected WorkerProcess startWorkerProcess() throws IOException {
+        return new ClosableFakeWorkerProcess(closedWorkers, Optional.empty());
+      }
+    };
+
+    WorkerProcess idle = pool.borrowWorkerProcess();
+    WorkerProcess busy = pool.borrowWorkerProcess();
+    pool.returnWorkerProcess(idle);
+    pool.close();
+    assertThat(closedWorkers, Matchers.contains(idle));
+
+    pool.returnWorkerProcess(busy);
+    assertThat(closedWorkers, Matchers.containsInAnyOrder(idle, busy));
+  }
+
+  @Test
+  public void testClosesProcessesWhichWereIdleForTooLong() throws Exception {
+    final Set<WorkerProcess> closedWorkers = concurrentSet();
+    SettableFakeClock clock = new SettableFakeClock(0, 0);
+    WorkerProcessPool pool = new WorkerProcessPool(
+        2,
+        Hashing.sha1().hashLong(0),
+        Optional.of(1000L),
+        Optional.empty(),
+        clock) {
+      @Override
+      protected WorkerProcess startWorkerProcess() throws IOException {
+        return new ClosableFakeWorkerProcess(closedWorkers, Optional.empty());
+      }
+    };
+
+    WorkerProcess first = pool.borrowWorkerProcess();
+    pool.returnWorkerProcess(first);
+    clock.setCurrentTimeMillis(1000);
+    assertThat(pool.borrowWorkerProcess(), Matchers.sameInstance(first));
+    pool.returnWorkerProcess(first);
+    assertThat(closedWorkers, Matchers.empty());
+
+    clock.setCurrentTimeMillis(2001);
+    WorkerProcess second = pool.borrowWorkerProcess();
+    assertThat(closedWorkers, Matchers.contains(first));
+    assertThat(second, Matchers.not(Matchers.sameInstance(first)));
+  }
+
+  @Test
+  public void testClosesProcessesOverTheMemoryLimitOnceTheyFinishTheirJobs() throws Exception {
+    final Set<WorkerProcess> closedWorkers = concurrentSet();
+    WorkerProcessPool pool = new WorkerProcessPool(
+        1,
+        Hashing.sha1().hashLong(0),
+        Optional.empty(),
+        Optional.of(1000L),
+        new SettableFakeClock(0, 0)) {
+      @Override
+      protected WorkerProcess startWorkerProcess() throws IOException {
+        return new ClosableFakeWorkerProcess(closedWorkers, Optional.of(1001L)) {
+          @Override
+          public int getMaxJobs() {
+            return 2;
+          }
+        };
+      }
+    };
+
+    WorkerProcess first = pool.borrowWorkerProcess();
+    assertThat(pool.borrowWorkerProcess(), Matchers.sameInstance(first));
+    pool.returnWorkerProcess(first);
+    assertThat(closedWorkers, Matchers.empty());
+
+    pool.returnWorkerProcess(first);
+    assertThat(closedWorkers, Matchers.contains(first));
+    assertThat(pool.borrowWorkerProcess(), Matchers.not(Matchers.sameInstance(first)));
+  }
+
   private static WorkerProcessPool createPool(int maxWorkers) {
     return new WorkerProcessPool(maxWorkers, Hashing.sha1().hashLong(0)) {
       @Override
@@ -141,6 +250,29 @@ public class WorkerProcessPoolTest {
     };
   }
 
+  private static class ClosableFakeWorkerProcess extends FakeWorkerProcess {
+    private final Set<WorkerProcess> closedWorkers;
+    private final Optional<Long> residentMemoryBytes;
+
+    public ClosableFakeWorkerProcess(
+        Set<WorkerProcess> closedWorkers,
+        Optional<Long> residentMemoryBytes) throws IOException {
+      super(ImmutableMap.of());
+      this.closedWorkers = closedWorkers;
+      this.residentMemoryBytes = residentMemoryBytes;
+    }
+
+    @Override
+    public Optional<Long> getResidentMemoryBytes() {
+      return residentMemoryBytes;
+    }
+
+    @Override
+    public void close() {
+      closedWorkers.add(this);
+    }
+  }
+
   private static <T> Set<T> concurrentSet() {
     return Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
   }
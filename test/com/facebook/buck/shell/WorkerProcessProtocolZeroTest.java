@@ -16,6 +16,7 @@
 
 package com.facebook.buck.shell;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -26,6 +27,7 @@ import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 
@@ -227,6 +229,61 @@ public class WorkerProcessProtocolZeroTest {
     }
   }
 
+  @Test
+  public void testReceiveHandshakeReturnsCapabilitiesSupportedByBoth() throws IOException {
+    int handshakeID = 123;
+    JsonReader jsonReader = new JsonReader(new StringReader(String.format(
+        "[{\"id\":%d,\"type\":\"handshake\",\"protocol_version\":\"0\"," +
+            "\"capabilities\":[\"unknown\",\"multiplexed\"]}",
+        handshakeID)));
+
+    WorkerProcessProtocol protocol = new WorkerProcessProtocolZero(
+        fakeProcessExecutor,
+        fakeLaunchedProcess,
+        dummyJsonWriter,
+        jsonReader,
+        newTempFile(),
+        ImmutableSet.of(WorkerProcessProtocolZero.CAPABILITY_MULTIPLEXED));
+
+    assertEquals(
+        ImmutableSet.of(WorkerProcessProtocolZero.CAPABILITY_MULTIPLEXED),
+        protocol.receiveHandshake(handshakeID));
+  }
+
+  @Test
+  public void testSendCancel() throws IOException {
+    StringWriter jsonSentToWorkerProcess = new StringWriter();
+    WorkerProcessProtocol protocol = new WorkerProcessProtocolZero(
+        fakeProcessExecutor,
+        fakeLaunchedProcess,
+        new JsonWriter(jsonSentToWorkerProcess),
+        dummyJsonReader,
+        newTempFile());
+
+    protocol.sendCancel(123);
+    assertThat(
+        jsonSentToWorkerProcess.toString(),
+        Matchers.containsString("{\"id\":123,\"type\":\"cancel\"}"));
+  }
+
+  @Test
+  public void testReceiveNextCommandResponsesInAnyOrder() throws IOException {
+    JsonReader jsonReader = new JsonReader(new StringReader(
+        "[{\"id\":2,\"type\":\"result\",\"exit_code\":1}," +
+            "{\"id\":1,\"type\":\"result\",\"exit_code\":0}"));
+    jsonReader.beginArray();
+
+    WorkerProcessProtocol protocol = new WorkerProcessProtocolZero(
+        fakeProcessExecutor,
+        fakeLaunchedProcess,
+        dummyJsonWriter,
+        jsonReader,
+        newTempFile());
+
+    assertEquals(WorkerCommandResponse.of(2, 1), protocol.receiveNextCommandResponse());
+    assertEquals(WorkerCommandResponse.of(1, 0), protocol.receiveNextCommandResponse());
+  }
+
   private JsonReader createMockJsonReaderForReceiveCommandResponse(
       int messageID,
       String type,
@@ -60,7 +60,7 @@ public class WorkerProcessTest {
   }
 
   @Test
-  public void testSubmitAndWaitForJob() throws IOException {
+  public void testSubmitAndWaitForJob() throws IOException, InterruptedException {
     ProjectFilesystem filesystem = new FakeProjectFilesystem();
     Path tmpPath = Files.createTempDirectory("tmp").toAbsolutePath().normalize();
     Path argsPath = Paths.get(tmpPath.toString(), "0.args");
@@ -127,6 +127,9 @@ public class WorkerShellStepTest {
         startupEnv,
         jobArgs,
         maxWorkers,
+        1,
+        Optional.empty(),
+        Optional.empty(),
         Optional.ofNullable(persistentWorkerKey),
         Optional.ofNullable(workerHash));
   }
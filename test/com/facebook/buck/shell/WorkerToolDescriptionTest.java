@@ -55,6 +55,12 @@ public class WorkerToolDescriptionTest {
     assertThat(workerTool.getMaxWorkers(), equalTo(Integer.MAX_VALUE));
   }
 
+  @Test
+  public void testGetMaxJobsPerWorkerWhenNotSet() throws NoSuchBuildTargetException {
+    WorkerTool workerTool = createWorkerTool(1);
+    assertThat(workerTool.getMaxJobsPerWorker(), equalTo(1));
+  }
+
   private static WorkerTool createWorkerTool(Integer maxWorkers)
       throws NoSuchBuildTargetException {
     TargetGraph targetGraph = TargetGraph.EMPTY;
@@ -71,6 +77,9 @@ public class WorkerToolDescriptionTest {
     args.exe = shBinaryRule.getBuildTarget();
     args.args = Optional.empty();
     args.maxWorkers = Optional.of(maxWorkers);
+    args.maxJobsPerWorker = Optional.empty();
+    args.maxIdleSeconds = Optional.empty();
+    args.maxMemoryMb = Optional.empty();
     args.persistent = Optional.empty();
 
     Description<WorkerToolDescription.Arg> workerToolDescription = new WorkerToolDescription(
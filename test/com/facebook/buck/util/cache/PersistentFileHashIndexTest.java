@@ -0,0 +1,186 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+
+public class PersistentFileHashIndexTest {
+
+  private static final long LONG_AGO = 1000000000000L;
+
+  @Rule
+  public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private Path indexDir;
+  private Path source;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = new ProjectFilesystem(tmp.getRoot());
+    indexDir = tmp.getRoot().resolve("buck-out/file_hashes");
+    source = Paths.get("src/Foo.java");
+    writeSource("class Foo {}");
+  }
+
+  private void writeSource(String contents) throws IOException {
+    filesystem.mkdirs(source.getParent());
+    filesystem.writeContentsToPath(contents, source);
+    filesystem.setLastModifiedTime(source, FileTime.fromMillis(LONG_AGO));
+  }
+
+  private BasicFileAttributes attributes() throws IOException {
+    return filesystem.readAttributes(source, BasicFileAttributes.class);
+  }
+
+  private static HashCode sha1(String contents) {
+    return Hashing.sha1().hashString(contents, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void hashesSurviveReopening() throws IOException {
+    try (PersistentFileHashIndex index = PersistentFileHashIndex.open(indexDir).get()) {
+      assertEquals(Optional.empty(), index.get(source, attributes()));
+      index.put(source, attributes(), sha1("class Foo {}"), System.currentTimeMillis());
+    }
+    try (PersistentFileHashIndex index = PersistentFileHashIndex.open(indexDir).get()) {
+      assertEquals(Optional.of(sha1("class Foo {}")), index.get(source, attributes()));
+    }
+  }
+
+  @Test
+  public void modifiedFileIsNotFound() throws IOException {
+    try (PersistentFileHashIndex index = PersistentFileHashIndex.open(indexDir).get()) {
+      index.put(source, attributes(), sha1("class Foo {}"), System.currentTimeMillis());
+    }
+    filesystem.writeContentsToPath("class Foo { int bar; }", source);
+    try (PersistentFileHashIndex index = PersistentFileHashIndex.open(indexDir).get()) {
+      assertEquals(Optional.empty(), index.get(source, attributes()));
+    }
+  }
+
+  @Test
+  public void recentlyModifiedFileIsNotRecorded() throws IOException {
+    long now = System.currentTimeMillis();
+    filesystem.setLastModifiedTime(source, FileTime.fromMillis(now));
+    try (PersistentFileHashIndex index = PersistentFileHashIndex.open(indexDir).get()) {
+      index.put(source, attributes(), sha1("class Foo {}"), now);
+      assertEquals(Optional.empty(), index.get(source, attributes()));
+    }
+  }
+
+  @Test
+  public void partiallyWrittenRecordIsIgnored() throws IOException {
+    Path bar = Paths.get("src/Bar.java");
+    filesystem.writeContentsToPath("class Bar {}", bar);
+    filesystem.setLastModifiedTime(bar, FileTime.fromMillis(LONG_AGO));
+    try (PersistentFileHashIndex index = PersistentFileHashIndex.open(indexDir).get()) {
+      index.put(source, attributes(), sha1("class Foo {}"), System.currentTimeMillis());
+      index.put(
+          bar,
+          filesystem.readAttributes(bar, BasicFileAttributes.class),
+          sha1("class Bar {}"),
+          System.currentTimeMillis());
+    }
+    Path indexFile = indexDir.resolve("index");
+    try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 3);
+    }
+
+    try (PersistentFileHashIndex index = PersistentFileHashIndex.open(indexDir).get()) {
+      assertEquals(1, index.getEntryCount());
+      assertEquals(Optional.of(sha1("class Foo {}")), index.get(source, attributes()));
+      index.put(
+          bar,
+          filesystem.readAttributes(bar, BasicFileAttributes.class),
+          sha1("class Bar {}"),
+          System.currentTimeMillis());
+    }
+    try (PersistentFileHashIndex index = PersistentFileHashIndex.open(indexDir).get()) {
+      assertEquals(2, index.getEntryCount());
+    }
+  }
+
+  @Test
+  public void overriddenRecordsAreCompactedAway() throws IOException {
+    try (PersistentFileHashIndex index = PersistentFileHashIndex.open(indexDir).get()) {
+      for (int i = 0; i < 4096; i++) {
+        index.put(source, attributes(), sha1("version " + i), System.currentTimeMillis());
+      }
+    }
+    Path indexFile = indexDir.resolve("index");
+    long uncompactedSize = Files.size(indexFile);
+
+    try (PersistentFileHashIndex index = PersistentFileHashIndex.open(indexDir).get()) {
+      assertEquals(Optional.of(sha1("version 4095")), index.get(source, attributes()));
+    }
+    assertTrue(Files.size(indexFile) < uncompactedSize / 1000);
+    assertFalse(Files.exists(indexDir.resolve("index.tmp")));
+  }
+
+  @Test
+  public void onlyOneProcessCanUseTheIndex() throws IOException {
+    try (PersistentFileHashIndex index = PersistentFileHashIndex.open(indexDir).get()) {
+      assertFalse(PersistentFileHashIndex.open(indexDir).isPresent());
+      assertEquals(0, index.getEntryCount());
+    }
+    Optional<PersistentFileHashIndex> reopened = PersistentFileHashIndex.open(indexDir);
+    assertTrue(reopened.isPresent());
+    reopened.get().close();
+  }
+
+  @Test
+  public void fileHashCacheUsesRecordedHashes() throws IOException {
+    try (PersistentFileHashIndex index = PersistentFileHashIndex.open(indexDir).get()) {
+      DefaultFileHashCache cache =
+          new DefaultFileHashCache(filesystem, Optional.empty(), Optional.of(index));
+      assertEquals(sha1("class Foo {}"), cache.get(filesystem.resolve(source)));
+      assertEquals(1, index.getEntryCount());
+    }
+
+    // Pretend the contents changed without the file looking any different, so that a hit must
+    // have come from the index.
+    try (PersistentFileHashIndex index = PersistentFileHashIndex.open(indexDir).get()) {
+      index.put(source, attributes(), HashCode.fromInt(42), System.currentTimeMillis());
+      DefaultFileHashCache cache =
+          new DefaultFileHashCache(filesystem, Optional.empty(), Optional.of(index));
+      assertEquals(HashCode.fromInt(42), cache.get(filesystem.resolve(source)));
+    }
+  }
+}
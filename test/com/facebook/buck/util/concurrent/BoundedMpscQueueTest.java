@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class BoundedMpscQueueTest {
+
+  @Test
+  public void capacityIsRoundedUpToAPowerOfTwo() {
+    assertEquals(2, new BoundedMpscQueue<String>(1).capacity());
+    assertEquals(8, new BoundedMpscQueue<String>(5).capacity());
+    assertEquals(8, new BoundedMpscQueue<String>(8).capacity());
+  }
+
+  @Test
+  public void elementsComeOutInOrderAcrossLaps() {
+    BoundedMpscQueue<Integer> queue = new BoundedMpscQueue<>(4);
+    assertTrue(queue.isEmpty());
+    assertNull(queue.poll());
+    for (int lap = 0; lap < 3; lap++) {
+      for (int i = 0; i < 4; i++) {
+        assertTrue(queue.offer(lap * 4 + i));
+      }
+      assertEquals(4, queue.size());
+      for (int i = 0; i < 4; i++) {
+        assertEquals(Integer.valueOf(lap * 4 + i), queue.poll());
+      }
+      assertTrue(queue.isEmpty());
+    }
+  }
+
+  @Test
+  public void smallestQueueHoldsTwoElements() {
+    BoundedMpscQueue<String> queue = new BoundedMpscQueue<>(1);
+    assertTrue(queue.offer("a"));
+    assertTrue(queue.offer("b"));
+    assertFalse(queue.offer("c"));
+    assertEquals("a", queue.poll());
+    assertEquals("b", queue.poll());
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void offerFailsWhenFullUntilAnElementIsPolled() {
+    BoundedMpscQueue<String> queue = new BoundedMpscQueue<>(2);
+    assertTrue(queue.offer("a"));
+    assertTrue(queue.offer("b"));
+    assertFalse(queue.offer("c"));
+    assertEquals("a", queue.poll());
+    assertTrue(queue.offer("c"));
+    assertEquals("b", queue.poll());
+    assertEquals("c", queue.poll());
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void concurrentProducersLoseNothingAndKeepTheirOwnOrder() throws Exception {
+    final int producerCount = 4;
+    final int elementsPerProducer = 100000;
+    final BoundedMpscQueue<int[]> queue = new BoundedMpscQueue<>(64);
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> producers = new ArrayList<>();
+    for (int p = 0; p < producerCount; p++) {
+      final int producer = p;
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int i = 0; i < elementsPerProducer; i++) {
+          int[] element = {producer, i};
+          while (!queue.offer(element)) {
+            Thread.yield();
+          }
+        }
+      });
+      thread.start();
+      producers.add(thread);
+    }
+
+    start.countDown();
+    int[] nextExpected = new int[producerCount];
+    int received = 0;
+    while (received < producerCount * elementsPerProducer) {
+      int[] element = queue.poll();
+      if (element == null) {
+        Thread.yield();
+        continue;
+      }
+      assertEquals(nextExpected[element[0]], element[1]);
+      nextExpected[element[0]]++;
+      received++;
+    }
+    for (Thread producer : producers) {
+      producer.join();
+    }
+    assertTrue(queue.isEmpty());
+  }
+}
@@ -183,6 +183,36 @@ public class ListeningMultiSemaphoreTest {
         Matchers.equalTo(amountsOfCpuAndMemory(0, 0)));
   }
 
+  @Test
+  public void testPendingRequestsAreGrantedByPriorityThenInOrder() {
+    ListeningMultiSemaphore array = getFairListeningMultiSemaphore(amountsOfCpu(1));
+
+    ListenableFuture<Void> running = array.acquire(amountsOfCpu(1));
+    assertThat(running.isDone(), Matchers.equalTo(true));
+
+    ListenableFuture<Void> lowPriority = array.acquire(amountsOfCpu(1), 1);
+    ListenableFuture<Void> firstHighPriority = array.acquire(amountsOfCpu(1), 5);
+    ListenableFuture<Void> defaultPriority = array.acquire(amountsOfCpu(1));
+    ListenableFuture<Void> secondHighPriority = array.acquire(amountsOfCpu(1), 5);
+    assertThat(array.getQueueLength(), Matchers.equalTo(4));
+
+    array.release(amountsOfCpu(1));
+    assertThat(firstHighPriority.isDone(), Matchers.equalTo(true));
+    assertThat(secondHighPriority.isDone(), Matchers.equalTo(false));
+
+    array.release(amountsOfCpu(1));
+    assertThat(secondHighPriority.isDone(), Matchers.equalTo(true));
+    assertThat(lowPriority.isDone(), Matchers.equalTo(false));
+
+    array.release(amountsOfCpu(1));
+    assertThat(lowPriority.isDone(), Matchers.equalTo(true));
+    assertThat(defaultPriority.isDone(), Matchers.equalTo(false));
+
+    array.release(amountsOfCpu(1));
+    assertThat(defaultPriority.isDone(), Matchers.equalTo(true));
+    assertThat(array.getQueueLength(), Matchers.equalTo(0));
+  }
+
   @Test
   public void testCappingToMaximumAmounts() {
     ListeningMultiSemaphore semaphore = new ListeningMultiSemaphore(
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeThat;
+
+import com.facebook.buck.io.MoreFiles;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.facebook.buck.util.environment.Platform;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class UnzippingOutputStreamTest {
+
+  @Rule
+  public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem destination;
+  private byte[] zip;
+
+  @Before
+  public void setUp() throws IOException {
+    ProjectFilesystem source = new ProjectFilesystem(tmp.newFolder("source"));
+    source.mkdirs(Paths.get("dir/empty"));
+    source.writeContentsToPath("first file", Paths.get("a.txt"));
+    source.writeContentsToPath("#!/bin/sh", Paths.get("dir/run.sh"));
+    MoreFiles.makeExecutable(source.resolve("dir/run.sh"));
+
+    Path zipFile = tmp.getRoot().resolve("artifact.zip");
+    // The directory comes after its contents, as it may in an artifact.
+    source.createZip(
+        ImmutableList.of(
+            Paths.get("a.txt"),
+            Paths.get("dir/run.sh"),
+            Paths.get("dir/empty"),
+            Paths.get("dir")),
+        zipFile);
+    zip = Files.readAllBytes(zipFile);
+
+    destination = new ProjectFilesystem(tmp.newFolder("destination"));
+  }
+
+  @Test
+  public void unpacksZipWrittenInSmallChunks() throws IOException {
+    UnzippingOutputStream unzipper =
+        new UnzippingOutputStream(destination, Unzip.ExistingFileMode.OVERWRITE);
+    try {
+      for (int offset = 0; offset < zip.length; offset += 7) {
+        unzipper.write(zip, offset, Math.min(7, zip.length - offset));
+      }
+    } finally {
+      unzipper.close();
+    }
+
+    assertTrue(unzipper.isComplete());
+    assertEquals(
+        ImmutableSet.of(Paths.get("a.txt"), Paths.get("dir/run.sh")),
+        ImmutableSet.copyOf(unzipper.getFilesWritten()));
+    assertEquals("first file", destination.readFileIfItExists(Paths.get("a.txt")).get());
+    assertEquals("#!/bin/sh", destination.readFileIfItExists(Paths.get("dir/run.sh")).get());
+    assertTrue(destination.isDirectory(Paths.get("dir/empty")));
+  }
+
+  @Test
+  public void restoresExecutableBitFromCentralDirectory() throws IOException {
+    assumeThat(Platform.detect(), Matchers.is(Matchers.not(Platform.WINDOWS)));
+
+    try (UnzippingOutputStream unzipper =
+             new UnzippingOutputStream(destination, Unzip.ExistingFileMode.OVERWRITE)) {
+      unzipper.write(zip);
+    }
+
+    assertTrue(destination.isExecutable(Paths.get("dir/run.sh")));
+    assertFalse(destination.isExecutable(Paths.get("a.txt")));
+  }
+
+  @Test
+  public void cleansDirectoriesWithoutDeletingWhatWasAlreadyUnpacked() throws IOException {
+    destination.mkdirs(Paths.get("dir"));
+    destination.writeContentsToPath("stale", Paths.get("dir/stale.txt"));
+
+    try (UnzippingOutputStream unzipper = new UnzippingOutputStream(
+        destination,
+        Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES)) {
+      unzipper.write(zip);
+    }
+
+    assertFalse(destination.exists(Paths.get("dir/stale.txt")));
+    assertTrue(destination.exists(Paths.get("dir/run.sh")));
+    assertTrue(destination.isDirectory(Paths.get("dir/empty")));
+  }
+
+  @Test
+  public void corruptEntryFailsTheUnzip() {
+    byte[] corrupt = Arrays.copyOf(zip, zip.length);
+    // Flip a bit in the first entry's data, which follows its 30 byte header and 5 byte name.
+    corrupt[36] ^= 1;
+
+    UnzippingOutputStream unzipper =
+        new UnzippingOutputStream(destination, Unzip.ExistingFileMode.OVERWRITE);
+    try {
+      unzipper.write(corrupt);
+      unzipper.close();
+      fail("Expected the corrupt zip to be rejected.");
+    } catch (IOException e) {
+      assertFalse(unzipper.isComplete());
+    }
+  }
+
+  @Test
+  public void entriesOutsideOfTheDestinationAreRejected() throws IOException {
+    ByteArrayOutputStream escaping = new ByteArrayOutputStream();
+    try (ZipOutputStream out = new ZipOutputStream(escaping)) {
+      out.putNextEntry(new ZipEntry("../escaped.txt"));
+      out.write("escaped".getBytes(StandardCharsets.UTF_8));
+      out.closeEntry();
+    }
+
+    UnzippingOutputStream unzipper = new UnzippingOutputStream(
+        destination,
+        Paths.get("out"),
+        Unzip.ExistingFileMode.OVERWRITE);
+    try {
+      unzipper.write(escaping.toByteArray());
+      unzipper.close();
+      fail("Expected the escaping entry to be rejected.");
+    } catch (IOException e) {
+      assertFalse(unzipper.isComplete());
+    }
+    assertFalse(destination.exists(Paths.get("escaped.txt")));
+  }
+
+  @Test
+  public void truncatedZipFailsOnClose() {
+    UnzippingOutputStream unzipper =
+        new UnzippingOutputStream(destination, Unzip.ExistingFileMode.OVERWRITE);
+    try {
+      unzipper.write(zip, 0, zip.length / 2);
+      unzipper.close();
+      fail("Expected the truncated zip to be rejected.");
+    } catch (IOException e) {
+      assertFalse(unzipper.isComplete());
+    }
+  }
+}